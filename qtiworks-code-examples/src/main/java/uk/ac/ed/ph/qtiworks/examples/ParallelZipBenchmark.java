@@ -0,0 +1,138 @@
+/* $Id:SAXErrorHandler.java 2824 2008-08-01 15:46:17Z davemckain $
+ *
+ * Copyright (c) 2012-2013, The University of Edinburgh.
+ * All Rights Reserved
+ */
+package uk.ac.ed.ph.qtiworks.examples;
+
+import uk.ac.ed.ph.qtiworks.services.ParallelZipWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteSource;
+
+/**
+ * Simple benchmark comparing the JDK's {@link ZipOutputStream} with the {@link ParallelZipWriter}
+ * used when exporting all of the <code>assessmentResult</code>s for a delivery. This zips up a
+ * number of synthetic <code>assessmentResult</code> XML files, each having 40 item results, and
+ * reports the average time and archive size for each approach.
+ * <p>
+ * Pass the number of results as the first argument (default 3000), the number of measured
+ * rounds as the second (default 5) and the number of compression Threads as the third (default
+ * 4, which matches the default <code>qtiworks.reporting.zip.threads</code> setting).
+ *
+ * <h3>How to run</h3>
+ *
+ * You can run this via Maven as follows:
+ * <pre>
+ * mvn exec:java -Dexec.mainClass=uk.ac.ed.ph.qtiworks.examples.ParallelZipBenchmark
+ * </pre>
+ *
+ * @author David McKain
+ */
+public final class ParallelZipBenchmark {
+
+    private static final int DEFAULT_RESULT_COUNT = 3000;
+    private static final int DEFAULT_MEASURED_ROUNDS = 5;
+    private static final int DEFAULT_THREAD_COUNT = 4;
+    private static final int WARMUP_ROUNDS = 2;
+
+    /** (Same as the value used by AssessmentReportingService) */
+    private static final int PENDING_ENTRIES_PER_THREAD = 4;
+
+    public static void main(final String[] args) throws Exception {
+        final int resultCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_RESULT_COUNT;
+        final int measuredRounds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_MEASURED_ROUNDS;
+        final int threadCount = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_THREAD_COUNT;
+
+        final List<byte[]> contents = createSyntheticResults(resultCount);
+        System.out.println("Benchmarking ZIP export of " + resultCount + " synthetic assessmentResults, "
+                + measuredRounds + " rounds, " + threadCount + " compression Threads");
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            for (int i=0; i<WARMUP_ROUNDS; i++) {
+                writeSequentialZip(contents);
+                writeParallelZip(contents, executorService, threadCount);
+            }
+
+            long zipSize = 0L;
+            long startTime = System.nanoTime();
+            for (int i=0; i<measuredRounds; i++) {
+                zipSize = writeSequentialZip(contents);
+            }
+            report("ZipOutputStream", System.nanoTime() - startTime, measuredRounds, zipSize);
+
+            startTime = System.nanoTime();
+            for (int i=0; i<measuredRounds; i++) {
+                zipSize = writeParallelZip(contents, executorService, threadCount);
+            }
+            report("ParallelZipWriter", System.nanoTime() - startTime, measuredRounds, zipSize);
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private static long writeSequentialZip(final List<byte[]> contents) throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
+        for (int i=0; i<contents.size(); i++) {
+            zipOutputStream.putNextEntry(new ZipEntry("assessmentResult-" + i + ".xml"));
+            zipOutputStream.write(contents.get(i));
+            zipOutputStream.closeEntry();
+        }
+        zipOutputStream.finish();
+        return outputStream.size();
+    }
+
+    private static long writeParallelZip(final List<byte[]> contents, final ExecutorService executorService,
+            final int threadCount) throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final ParallelZipWriter zipWriter = new ParallelZipWriter(outputStream, executorService,
+                PENDING_ENTRIES_PER_THREAD * threadCount, Deflater.DEFAULT_COMPRESSION);
+        final long lastModified = System.currentTimeMillis();
+        for (int i=0; i<contents.size(); i++) {
+            zipWriter.addEntry("assessmentResult-" + i + ".xml", lastModified, ByteSource.wrap(contents.get(i)));
+        }
+        zipWriter.finish();
+        return outputStream.size();
+    }
+
+    private static List<byte[]> createSyntheticResults(final int count) {
+        final List<byte[]> result = new ArrayList<byte[]>(count);
+        for (int i=0; i<count; i++) {
+            final StringBuilder xmlBuilder = new StringBuilder("<assessmentResult xmlns=\"http://www.imsglobal.org/xsd/imsqti_result_v2p1\">\n")
+                .append("  <context><sessionIdentifier sourceID=\"http://localhost/qtiworks\" identifier=\"testsession/")
+                .append(i)
+                .append("\"/></context>\n");
+            for (int item=0; item<40; item++) {
+                xmlBuilder.append("  <itemResult identifier=\"item").append(item)
+                    .append("\" datestamp=\"2013-01-01T00:00:00\" sessionStatus=\"final\">\n")
+                    .append("    <responseVariable identifier=\"RESPONSE\" cardinality=\"single\" baseType=\"identifier\">")
+                    .append("<candidateResponse><value>Choice").append((i * 31 + item) % 5).append("</value></candidateResponse>")
+                    .append("</responseVariable>\n")
+                    .append("    <outcomeVariable identifier=\"SCORE\" cardinality=\"single\" baseType=\"float\">")
+                    .append("<value>").append((i + item) % 3).append("</value></outcomeVariable>\n")
+                    .append("  </itemResult>\n");
+            }
+            xmlBuilder.append("</assessmentResult>\n");
+            result.add(xmlBuilder.toString().getBytes(Charsets.UTF_8));
+        }
+        return result;
+    }
+
+    private static void report(final String description, final long elapsedNanos, final int rounds, final long zipSize) {
+        System.out.println(String.format("%-18s %6dms/round, %9d bytes", description,
+                elapsedNanos / 1000000L / rounds, zipSize));
+    }
+}
@@ -0,0 +1,208 @@
+/* $Id:SAXErrorHandler.java 2824 2008-08-01 15:46:17Z davemckain $
+ *
+ * Copyright (c) 2012-2013, The University of Edinburgh.
+ * All Rights Reserved
+ */
+package uk.ac.ed.ph.qtiworks.examples;
+
+import uk.ac.ed.ph.qtiworks.mathassess.MathAssessExtensionPackage;
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleAssessment;
+
+import uk.ac.ed.ph.jqtiplus.JqtiExtensionManager;
+import uk.ac.ed.ph.jqtiplus.reading.QtiObjectReader;
+import uk.ac.ed.ph.jqtiplus.reading.QtiXmlInterpretationException;
+import uk.ac.ed.ph.jqtiplus.reading.QtiXmlReader;
+import uk.ac.ed.ph.jqtiplus.xmlutils.SimpleSchemaCache;
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ClassPathResourceLocator;
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator;
+import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.SimpleXsltStylesheetCache;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.JarURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.w3c.dom.Document;
+
+/**
+ * Simple benchmark comparing the traditional DOM-based {@link QtiObjectReader} with the
+ * streaming one, which builds QTI Object models directly from SAX events. This reads every
+ * QTI XML file bundled with the QTI samples (including items referenced by the sample tests)
+ * and reports the average time and heap allocation per document for each approach.
+ * <p>
+ * It also reports the average heap retained by the DOM of each document, which is the peak
+ * memory that the streaming approach avoids needing while each document is being read.
+ * (Allocation figures require a HotSpot-based JVM.)
+ * <p>
+ * Pass the number of measured rounds as the first argument (default 20). A few rounds are run
+ * first to warm up the JVM and the schema cache.
+ *
+ * <h3>How to run</h3>
+ *
+ * You can run this via Maven as follows:
+ * <pre>
+ * mvn exec:java -Dexec.mainClass=uk.ac.ed.ph.qtiworks.examples.StreamingReadingBenchmark
+ * </pre>
+ *
+ * @author David McKain
+ */
+public final class StreamingReadingBenchmark {
+
+    private static final String SAMPLES_BASE_PATH = "uk/ac/ed/ph/qtiworks/samples/";
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int DEFAULT_MEASURED_ROUNDS = 20;
+
+    public static void main(final String[] args) throws Exception {
+        final int measuredRounds = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_MEASURED_ROUNDS;
+
+        /* Set up reader supporting the MathAssess extensions */
+        final MathAssessExtensionPackage mathAssessPackage = new MathAssessExtensionPackage(new SimpleXsltStylesheetCache());
+        final JqtiExtensionManager jqtiExtensionManager = new JqtiExtensionManager(mathAssessPackage);
+        final QtiXmlReader qtiXmlReader = new QtiXmlReader(jqtiExtensionManager, new SimpleSchemaCache());
+        final ResourceLocator inputResourceLocator = new ClassPathResourceLocator();
+
+        final List<URI> sampleUris = findSampleXmlUris();
+        System.out.println("Benchmarking QTI Object reading of " + sampleUris.size() + " sample XML files, "
+                + measuredRounds + " rounds");
+
+        for (final boolean schemaValidating : new boolean[] { false, true }) {
+            for (final boolean streaming : new boolean[] { false, true }) {
+                final QtiObjectReader objectReader = qtiXmlReader.createQtiObjectReader(inputResourceLocator, schemaValidating, streaming);
+                runRounds(objectReader, sampleUris, WARMUP_ROUNDS);
+                final long[] measurements = runRounds(objectReader, sampleUris, measuredRounds);
+                report(streaming ? "streaming" : "DOM", schemaValidating, sampleUris.size() * measuredRounds,
+                        measurements[0], measurements[1]);
+            }
+        }
+
+        final long retainedDomBytes = measureRetainedDomBytes(qtiXmlReader, inputResourceLocator, sampleUris);
+        System.out.println(String.format("Average DOM size (avoided when streaming): %.1fKB/document",
+                retainedDomBytes / 1024.0 / sampleUris.size()));
+    }
+
+    /**
+     * Reads all of the given samples the given number of times in the current Thread.
+     *
+     * @return elapsed time in nanoseconds and the number of bytes allocated (or -1 if this
+     *   can't be measured)
+     */
+    private static long[] runRounds(final QtiObjectReader objectReader, final List<URI> sampleUris, final int rounds)
+            throws Exception {
+        final long startAllocatedBytes = getCurrentThreadAllocatedBytes();
+        final long startTime = System.nanoTime();
+        for (int i=0; i<rounds; i++) {
+            for (final URI sampleUri : sampleUris) {
+                try {
+                    objectReader.lookupRootNode(sampleUri);
+                }
+                catch (final QtiXmlInterpretationException e) {
+                    /* (A few samples are deliberately bad, which is fine here) */
+                }
+            }
+        }
+        final long elapsedNanos = System.nanoTime() - startTime;
+        final long endAllocatedBytes = getCurrentThreadAllocatedBytes();
+        return new long[] {
+                elapsedNanos,
+                startAllocatedBytes >= 0 ? endAllocatedBytes - startAllocatedBytes : -1L
+        };
+    }
+
+    /**
+     * Reads all of the given samples into DOMs, holding onto them, and returns the resulting
+     * increase in used heap.
+     */
+    private static long measureRetainedDomBytes(final QtiXmlReader qtiXmlReader, final ResourceLocator inputResourceLocator,
+            final List<URI> sampleUris) throws Exception {
+        final List<Document> documents = new ArrayList<Document>();
+        final long startHeapBytes = getUsedHeapBytesAfterGc();
+        for (final URI sampleUri : sampleUris) {
+            documents.add(qtiXmlReader.read(inputResourceLocator, sampleUri, false).getDocument());
+        }
+        final long endHeapBytes = getUsedHeapBytesAfterGc();
+        if (documents.size()!=sampleUris.size()) {
+            throw new IllegalStateException("Unexpected number of documents");
+        }
+        return endHeapBytes - startHeapBytes;
+    }
+
+    private static long getUsedHeapBytesAfterGc() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i=0; i<4; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long getCurrentThreadAllocatedBytes() {
+        final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1L;
+    }
+
+    private static void report(final String description, final boolean schemaValidating,
+            final int documentCount, final long elapsedNanos, final long allocatedBytes) {
+        System.out.println(String.format("%-10s %-14s %6d documents in %6dms => %8.1fus/document, %8s allocated/document",
+                description, schemaValidating ? "(validating)" : "(parsing only)",
+                documentCount, elapsedNanos / 1000000L, elapsedNanos / 1000.0 / documentCount,
+                allocatedBytes >= 0 ? String.format("%.1fKB", allocatedBytes / 1024.0 / documentCount) : "n/a"));
+    }
+
+    //----------------------------------------------------
+
+    /**
+     * Finds all of the XML files bundled with the QTI samples, which may be in a directory
+     * or JAR file.
+     */
+    private static List<URI> findSampleXmlUris() throws Exception {
+        final List<String> hrefs = new ArrayList<String>();
+        final Enumeration<URL> baseUrls = QtiSampleAssessment.class.getClassLoader().getResources(SAMPLES_BASE_PATH);
+        while (baseUrls.hasMoreElements()) {
+            final URL baseUrl = baseUrls.nextElement();
+            if ("jar".equals(baseUrl.getProtocol())) {
+                final JarFile jarFile = ((JarURLConnection) baseUrl.openConnection()).getJarFile();
+                final Enumeration<JarEntry> entries = jarFile.entries();
+                while (entries.hasMoreElements()) {
+                    final String name = entries.nextElement().getName();
+                    if (name.startsWith(SAMPLES_BASE_PATH) && name.endsWith(".xml")) {
+                        hrefs.add(name.substring(SAMPLES_BASE_PATH.length()));
+                    }
+                }
+            }
+            else if ("file".equals(baseUrl.getProtocol())) {
+                findXmlFiles(new File(baseUrl.toURI()), "", hrefs);
+            }
+        }
+        if (hrefs.isEmpty()) {
+            throw new IllegalStateException("Could not locate QTI samples in ClassPath");
+        }
+        Collections.sort(hrefs);
+        final List<URI> result = new ArrayList<URI>();
+        for (final String href : hrefs) {
+            result.add(QtiSampleAssessment.toClassPathUri(href));
+        }
+        return result;
+    }
+
+    private static void findXmlFiles(final File directory, final String hrefPrefix, final List<String> hrefs) {
+        for (final File file : directory.listFiles()) {
+            if (file.isDirectory()) {
+                findXmlFiles(file, hrefPrefix + file.getName() + "/", hrefs);
+            }
+            else if (file.getName().endsWith(".xml")) {
+                hrefs.add(hrefPrefix + file.getName());
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/* $Id:SAXErrorHandler.java 2824 2008-08-01 15:46:17Z davemckain $
+ *
+ * Copyright (c) 2012-2013, The University of Edinburgh.
+ * All Rights Reserved
+ */
+package uk.ac.ed.ph.qtiworks.examples;
+
+import uk.ac.ed.ph.qtiworks.mathassess.MathAssessExtensionPackage;
+import uk.ac.ed.ph.qtiworks.samples.LanguageSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.MathAssessSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleAssessment;
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.QtiworksRegressionSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.StandardQtiSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.StompSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.UpmcSampleSet;
+
+import uk.ac.ed.ph.jqtiplus.JqtiExtensionManager;
+import uk.ac.ed.ph.jqtiplus.node.AssessmentObjectType;
+import uk.ac.ed.ph.jqtiplus.reading.AssessmentObjectXmlLoader;
+import uk.ac.ed.ph.jqtiplus.reading.QtiXmlReader;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentItem;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentTest;
+import uk.ac.ed.ph.jqtiplus.xmlutils.SimpleSchemaCache;
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ClassPathResourceLocator;
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator;
+import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.SimpleXsltStylesheetCache;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Simple benchmark that loads and resolves a large synthetic {@link uk.ac.ed.ph.jqtiplus.node.test.AssessmentTest}
+ * built from the QTI sample items, first resolving its items sequentially and then in parallel.
+ * <p>
+ * Each item in the test has a distinct URI (cycling through the sample items), so every item
+ * needs to be read in and built, as would happen on a cache miss for a large test.
+ * <p>
+ * Pass the number of items in the test as the first argument (default 200), the number of
+ * measured rounds as the second (default 10) and the number of Threads to use for parallel
+ * resolution as the third (default is one per available processor).
+ *
+ * <h3>How to run</h3>
+ *
+ * You can run this via Maven as follows:
+ * <pre>
+ * mvn exec:java -Dexec.mainClass=uk.ac.ed.ph.qtiworks.examples.TestResolutionBenchmark
+ * </pre>
+ *
+ * @author David McKain
+ */
+public final class TestResolutionBenchmark {
+
+    private static final int WARMUP_ROUNDS = 2;
+    private static final int DEFAULT_ITEM_COUNT = 200;
+    private static final int DEFAULT_MEASURED_ROUNDS = 10;
+
+    private static final String SYNTHETIC_SCHEME = "synthetic";
+    private static final URI SYNTHETIC_TEST_URI = URI.create(SYNTHETIC_SCHEME + ":/test.xml");
+
+    public static void main(final String[] args) throws Exception {
+        final int itemCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ITEM_COUNT;
+        final int measuredRounds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_MEASURED_ROUNDS;
+        final int threadCount = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        /* Set up reader supporting the MathAssess extensions, since some samples use them */
+        final MathAssessExtensionPackage mathAssessPackage = new MathAssessExtensionPackage(new SimpleXsltStylesheetCache());
+        final JqtiExtensionManager jqtiExtensionManager = new JqtiExtensionManager(mathAssessPackage);
+        final QtiXmlReader qtiXmlReader = new QtiXmlReader(jqtiExtensionManager, new SimpleSchemaCache());
+
+        /* Gather up sample items */
+        final List<URI> sampleItemUris = new ArrayList<URI>();
+        for (final QtiSampleSet qtiSampleSet : new QtiSampleSet[] {
+                StandardQtiSampleSet.instance(),
+                MathAssessSampleSet.instance(),
+                UpmcSampleSet.instance(),
+                StompSampleSet.instance(),
+                LanguageSampleSet.instance(),
+                QtiworksRegressionSampleSet.instance()
+        }) {
+            for (final QtiSampleAssessment qtiSampleAssessment : qtiSampleSet) {
+                if (qtiSampleAssessment.getType()==AssessmentObjectType.ASSESSMENT_ITEM) {
+                    sampleItemUris.add(qtiSampleAssessment.assessmentClassPathUri());
+                }
+            }
+        }
+        final ResourceLocator syntheticResourceLocator = new SyntheticTestResourceLocator(sampleItemUris, itemCount);
+        System.out.println("Benchmarking resolution of synthetic test with " + itemCount + " items built from "
+                + sampleItemUris.size() + " sample items, " + measuredRounds + " rounds, "
+                + threadCount + " thread(s) for parallel resolution");
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            final AssessmentObjectXmlLoader sequentialLoader = new AssessmentObjectXmlLoader(qtiXmlReader, syntheticResourceLocator);
+            final AssessmentObjectXmlLoader parallelLoader = new AssessmentObjectXmlLoader(qtiXmlReader, syntheticResourceLocator, executorService);
+            for (final boolean schemaValidating : new boolean[] { false, true }) {
+                runRounds(sequentialLoader, schemaValidating, WARMUP_ROUNDS);
+                report("sequential", schemaValidating, measuredRounds,
+                        runRounds(sequentialLoader, schemaValidating, measuredRounds));
+                runRounds(parallelLoader, schemaValidating, WARMUP_ROUNDS);
+                report(threadCount + " thread(s)", schemaValidating, measuredRounds,
+                        runRounds(parallelLoader, schemaValidating, measuredRounds));
+            }
+        }
+        finally {
+            executorService.shutdown();
+        }
+    }
+
+    /**
+     * Loads and resolves the synthetic test the given number of times, checking that the
+     * expected number of items were resolved.
+     *
+     * @return elapsed time in nanoseconds
+     */
+    private static long runRounds(final AssessmentObjectXmlLoader loader, final boolean schemaValidating, final int rounds) {
+        final long startTime = System.nanoTime();
+        for (int i=0; i<rounds; i++) {
+            final ResolvedAssessmentTest resolvedAssessmentTest;
+            if (schemaValidating) {
+                resolvedAssessmentTest = loader.loadResolveAndValidateTest(SYNTHETIC_TEST_URI).getResolvedAssessmentTest();
+            }
+            else {
+                resolvedAssessmentTest = loader.loadAndResolveAssessmentTest(SYNTHETIC_TEST_URI);
+            }
+            int successCount = 0;
+            for (final ResolvedAssessmentItem resolvedAssessmentItem : resolvedAssessmentTest.getResolvedAssessmentItemBySystemIdMap().values()) {
+                if (resolvedAssessmentItem.getItemLookup().wasSuccessful()) {
+                    successCount++;
+                }
+            }
+            if (successCount==0) {
+                throw new IllegalStateException("No items were successfully resolved");
+            }
+        }
+        return System.nanoTime() - startTime;
+    }
+
+    private static void report(final String description, final boolean schemaValidating,
+            final int rounds, final long elapsedNanos) {
+        System.out.println(String.format("%-12s %-14s %4d tests in %6dms => %8.1fms/test",
+                description, schemaValidating ? "(validating)" : "(resolving)",
+                rounds, elapsedNanos / 1000000L, elapsedNanos / 1000000.0 / rounds));
+    }
+
+    /**
+     * {@link ResourceLocator} serving up the synthetic test, plus its items as
+     * <tt>synthetic:/item-N.xml</tt>, which are copies of the sample items.
+     * Everything else is looked up in the ClassPath.
+     */
+    static final class SyntheticTestResourceLocator implements ResourceLocator {
+
+        private final List<URI> sampleItemUris;
+        private final byte[] testXml;
+        private final ClassPathResourceLocator classPathResourceLocator;
+
+        SyntheticTestResourceLocator(final List<URI> sampleItemUris, final int itemCount) throws UnsupportedEncodingException {
+            this.sampleItemUris = sampleItemUris;
+            this.classPathResourceLocator = new ClassPathResourceLocator();
+            final StringBuilder testBuilder = new StringBuilder()
+                .append("<assessmentTest xmlns='http://www.imsglobal.org/xsd/imsqti_v2p1' identifier='synthetic' title='Synthetic Test'>")
+                .append("<testPart identifier='p' navigationMode='nonlinear' submissionMode='individual'>")
+                .append("<assessmentSection identifier='s' title='Section' visible='true'>");
+            for (int i=0; i<itemCount; i++) {
+                testBuilder.append("<assessmentItemRef identifier='i").append(i)
+                    .append("' href='item-").append(i).append(".xml'/>");
+            }
+            testBuilder.append("</assessmentSection></testPart></assessmentTest>");
+            this.testXml = testBuilder.toString().getBytes("UTF-8");
+        }
+
+        @Override
+        public InputStream findResource(final URI systemId) {
+            if (SYNTHETIC_SCHEME.equals(systemId.getScheme())) {
+                final String path = systemId.getPath();
+                if (SYNTHETIC_TEST_URI.getPath().equals(path)) {
+                    return new ByteArrayInputStream(testXml);
+                }
+                if (path.startsWith("/item-") && path.endsWith(".xml")) {
+                    final int index = Integer.parseInt(path.substring("/item-".length(), path.length() - ".xml".length()));
+                    return classPathResourceLocator.findResource(sampleItemUris.get(index % sampleItemUris.size()));
+                }
+                return null;
+            }
+            return classPathResourceLocator.findResource(systemId);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/* $Id:SAXErrorHandler.java 2824 2008-08-01 15:46:17Z davemckain $
+ *
+ * Copyright (c) 2012-2013, The University of Edinburgh.
+ * All Rights Reserved
+ */
+package uk.ac.ed.ph.qtiworks.examples;
+
+import uk.ac.ed.ph.qtiworks.mathassess.MathAssessExtensionPackage;
+import uk.ac.ed.ph.qtiworks.samples.LanguageSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.MathAssessSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleAssessment;
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.QtiworksRegressionSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.StandardQtiSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.StompSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.UpmcSampleSet;
+
+import uk.ac.ed.ph.jqtiplus.JqtiExtensionManager;
+import uk.ac.ed.ph.jqtiplus.reading.QtiXmlReader;
+import uk.ac.ed.ph.jqtiplus.xmlutils.SimpleSchemaCache;
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ClassPathResourceLocator;
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator;
+import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.SimpleXsltStylesheetCache;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Simple benchmark that reads (and optionally schema validates) all of the QTI sample assessments
+ * using a {@link QtiXmlReader}, reporting the average time taken per document. Reads are done
+ * first using a single Thread and then using one Thread per available processor.
+ * <p>
+ * Pass the number of measured rounds as the first argument (default 20). A few rounds are run
+ * first to warm up the JVM and the schema cache.
+ *
+ * <h3>How to run</h3>
+ *
+ * You can run this via Maven as follows:
+ * <pre>
+ * mvn exec:java -Dexec.mainClass=uk.ac.ed.ph.qtiworks.examples.XmlReadingBenchmark
+ * </pre>
+ *
+ * @author David McKain
+ */
+public final class XmlReadingBenchmark {
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int DEFAULT_MEASURED_ROUNDS = 20;
+
+    public static void main(final String[] args) throws Exception {
+        final int measuredRounds = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_MEASURED_ROUNDS;
+        final int threadCount = Runtime.getRuntime().availableProcessors();
+
+        /* Set up reader supporting the MathAssess extensions (so that its schema gets used) */
+        final MathAssessExtensionPackage mathAssessPackage = new MathAssessExtensionPackage(new SimpleXsltStylesheetCache());
+        final JqtiExtensionManager jqtiExtensionManager = new JqtiExtensionManager(mathAssessPackage);
+        final QtiXmlReader qtiXmlReader = new QtiXmlReader(jqtiExtensionManager, new SimpleSchemaCache());
+
+        /* Gather up sample URIs */
+        final List<URI> sampleUris = new ArrayList<URI>();
+        for (final QtiSampleSet qtiSampleSet : new QtiSampleSet[] {
+                StandardQtiSampleSet.instance(),
+                MathAssessSampleSet.instance(),
+                UpmcSampleSet.instance(),
+                StompSampleSet.instance(),
+                LanguageSampleSet.instance(),
+                QtiworksRegressionSampleSet.instance()
+        }) {
+            for (final QtiSampleAssessment qtiSampleAssessment : qtiSampleSet) {
+                sampleUris.add(qtiSampleAssessment.assessmentClassPathUri());
+            }
+        }
+        System.out.println("Benchmarking reading of " + sampleUris.size() + " sample assessments, "
+                + measuredRounds + " rounds, " + threadCount + " processor(s) available");
+
+        for (final boolean schemaValidating : new boolean[] { false, true }) {
+            runRounds(qtiXmlReader, sampleUris, schemaValidating, 1, WARMUP_ROUNDS);
+            report("1 thread", schemaValidating, sampleUris.size() * measuredRounds,
+                    runRounds(qtiXmlReader, sampleUris, schemaValidating, 1, measuredRounds));
+            report(threadCount + " thread(s)", schemaValidating, sampleUris.size() * measuredRounds,
+                    runRounds(qtiXmlReader, sampleUris, schemaValidating, threadCount, measuredRounds));
+        }
+    }
+
+    /**
+     * Reads all of the given samples the given number of times, sharing the work out between the
+     * given number of Threads.
+     *
+     * @return elapsed time in nanoseconds
+     */
+    private static long runRounds(final QtiXmlReader qtiXmlReader, final List<URI> sampleUris,
+            final boolean schemaValidating, final int threadCount, final int rounds) throws Exception {
+        final ResourceLocator inputResourceLocator = new ClassPathResourceLocator();
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int i=0; i<rounds; i++) {
+            for (final URI sampleUri : sampleUris) {
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        qtiXmlReader.read(inputResourceLocator, sampleUri, schemaValidating);
+                        return null;
+                    }
+                });
+            }
+        }
+        final ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            final long startTime = System.nanoTime();
+            for (final Future<Void> future : executorService.invokeAll(tasks)) {
+                future.get();
+            }
+            return System.nanoTime() - startTime;
+        }
+        finally {
+            executorService.shutdown();
+        }
+    }
+
+    private static void report(final String description, final boolean schemaValidating,
+            final int documentCount, final long elapsedNanos) {
+        System.out.println(String.format("%-12s %-14s %6d documents in %6dms => %8.1fus/document",
+                description, schemaValidating ? "(validating)" : "(parsing only)",
+                documentCount, elapsedNanos / 1000000L, elapsedNanos / 1000.0 / documentCount));
+    }
+}
@@ -33,6 +33,8 @@
  */
 package uk.ac.ed.ph.qtiworks.config;
 
+import uk.ac.ed.ph.qtiworks.config.beans.SequenceIncrementVerifier;
+
 import java.util.Properties;
 
 import org.springframework.context.annotation.Bean;
@@ -58,4 +60,10 @@ public class JpaProductionConfiguration {
         return extraJpaProperties;
     }
 
+    /** Refuses to start if ID sequence increments don't match what the pooled optimizer expects */
+    @Bean
+    public SequenceIncrementVerifier sequenceIncrementVerifier() {
+        return new SequenceIncrementVerifier();
+    }
+
 }
@@ -33,6 +33,8 @@
  */
 package uk.ac.ed.ph.qtiworks.config;
 
+import uk.ac.ed.ph.qtiworks.config.beans.SequenceIncrementUpdater;
+
 import java.util.Properties;
 
 import org.springframework.context.annotation.Bean;
@@ -40,7 +42,8 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
 
 /**
- * Hibernate/JPA properties to be used only when updating the schema
+ * Hibernate/JPA properties to be used only when updating the schema, plus any
+ * additional schema migration that Hibernate won't do for us.
  *
  * @see JpaSchemaBootstrapConfiguration
  *
@@ -63,4 +66,10 @@ public class JpaSchemaUpdateConfiguration {
         return extraJpaProperties;
     }
 
+    /** Updates increments of existing ID sequences, which Hibernate won't do itself */
+    @Bean
+    public SequenceIncrementUpdater sequenceIncrementUpdater() {
+        return new SequenceIncrementUpdater();
+    }
+
 }
@@ -33,9 +33,28 @@
  */
 package uk.ac.ed.ph.qtiworks.config;
 
+import uk.ac.ed.ph.qtiworks.QtiWorksDeploymentException;
 import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
 import uk.ac.ed.ph.qtiworks.mathassess.MathAssessExtensionPackage;
+import uk.ac.ed.ph.qtiworks.mathassess.XsltStylesheetCacheAdapter;
+import uk.ac.ed.ph.qtiworks.mathassess.glue.AsciiMathUpConversionService;
+import uk.ac.ed.ph.qtiworks.mathassess.pooling.QtiMaximaProcessPoolSettings;
+import uk.ac.ed.ph.qtiworks.rendering.RenderedOutputCache;
+import uk.ac.ed.ph.qtiworks.samples.LanguageSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.MathAssessSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.QtiworksRegressionSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.StandardQtiSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.StompSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.TestImplementationSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.UpmcSampleSet;
+import uk.ac.ed.ph.qtiworks.services.BinaryCandidateSessionStateStore;
+import uk.ac.ed.ph.qtiworks.services.CachingCandidateSessionStateStore;
+import uk.ac.ed.ph.qtiworks.services.CandidateSessionStateStore;
+import uk.ac.ed.ph.qtiworks.services.DeltaXmlCandidateSessionStateStore;
+import uk.ac.ed.ph.qtiworks.services.LtiOutcomeDispatcher;
 import uk.ac.ed.ph.qtiworks.services.RequestTimestampContext;
+import uk.ac.ed.ph.qtiworks.services.SampleFileCache;
+import uk.ac.ed.ph.qtiworks.services.XmlCandidateSessionStateStore;
 
 import uk.ac.ed.ph.jqtiplus.JqtiExtensionManager;
 import uk.ac.ed.ph.jqtiplus.JqtiExtensionPackage;
@@ -81,6 +100,9 @@ public class ServicesConfiguration {
 
     private static final Logger logger = LoggerFactory.getLogger(ServicesConfiguration.class);
 
+    /** Number of statements Hibernate will group into each JDBC batch */
+    private static final int JDBC_BATCH_SIZE = 50;
+
     @Resource
     private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
 
@@ -112,6 +134,10 @@ public class ServicesConfiguration {
         final Properties jpaProperties = new Properties();
         jpaProperties.put("hibernate.dialect", qtiWorksDeploymentSettings.getHibernateDialect());
         jpaProperties.put("hibernate.id.new_generator_mappings", Boolean.TRUE);
+        jpaProperties.put("hibernate.jdbc.batch_size", Integer.toString(JDBC_BATCH_SIZE));
+        jpaProperties.put("hibernate.jdbc.batch_versioned_data", Boolean.TRUE);
+        jpaProperties.put("hibernate.order_inserts", Boolean.TRUE);
+        jpaProperties.put("hibernate.order_updates", Boolean.TRUE);
         jpaProperties.putAll(extraJpaProperties);
         return jpaProperties;
     }
@@ -146,6 +172,77 @@ public class ServicesConfiguration {
         return jpaTransactionManager;
     }
 
+    /**
+     * {@link CandidateSessionStateStore} used by the rest of the system. This adds an in-memory
+     * cache in front of the {@link #persistentCandidateSessionStateStore()}, if configured.
+     */
+    @Bean
+    public CandidateSessionStateStore candidateSessionStateStore() {
+        final CandidateSessionStateStore persistentStateStore = persistentCandidateSessionStateStore();
+        final long cacheMaxWeight = qtiWorksDeploymentSettings.getCandidateSessionStateCacheMaxWeight();
+        if (cacheMaxWeight > 0) {
+            return new CachingCandidateSessionStateStore(persistentStateStore, cacheMaxWeight,
+                    qtiWorksDeploymentSettings.getCandidateSessionStateCacheExpiry());
+        }
+        logger.info("Candidate session state cache is disabled");
+        return persistentStateStore;
+    }
+
+    /**
+     * {@link CandidateSessionStateStore} that actually stores candidate session state on disk.
+     */
+    @Bean
+    public CandidateSessionStateStore persistentCandidateSessionStateStore() {
+        final String storeType = qtiWorksDeploymentSettings.getCandidateSessionStateStore();
+        if ("full".equals(storeType)) {
+            logger.info("Recording full candidate session state after each event");
+            return new XmlCandidateSessionStateStore();
+        }
+        else if ("delta".equals(storeType)) {
+            final int snapshotInterval = qtiWorksDeploymentSettings.getCandidateSessionStateSnapshotInterval();
+            logger.info("Recording candidate test session state as deltas, with full snapshots every {} events", snapshotInterval);
+            return new DeltaXmlCandidateSessionStateStore(snapshotInterval);
+        }
+        else if ("binary".equals(storeType)) {
+            logger.info("Recording candidate session state in binary format, migrating existing XML state as required");
+            return new BinaryCandidateSessionStateStore(legacyCandidateSessionStateStore());
+        }
+        throw new QtiWorksDeploymentException("Unknown candidate session state store '" + storeType + "'");
+    }
+
+    /**
+     * XML {@link CandidateSessionStateStore} used by the {@link BinaryCandidateSessionStateStore}
+     * to read state recorded before it was enabled. (This can read both full and delta state.)
+     */
+    @Bean
+    public DeltaXmlCandidateSessionStateStore legacyCandidateSessionStateStore() {
+        return new DeltaXmlCandidateSessionStateStore(qtiWorksDeploymentSettings.getCandidateSessionStateSnapshotInterval());
+    }
+
+    @Bean
+    public RenderedOutputCache renderedOutputCache() {
+        return new RenderedOutputCache(qtiWorksDeploymentSettings.getRenderedOutputCacheMaxWeight());
+    }
+
+    @Bean
+    public SampleFileCache sampleFileCache() {
+        return new SampleFileCache(qtiWorksDeploymentSettings.getSampleFileCacheMaxSize(), fileTypeMap(),
+                StandardQtiSampleSet.instance(),
+                MathAssessSampleSet.instance(),
+                UpmcSampleSet.instance(),
+                StompSampleSet.instance(),
+                LanguageSampleSet.instance(),
+                TestImplementationSampleSet.instance(),
+                QtiworksRegressionSampleSet.instance());
+    }
+
+    @Bean(destroyMethod="shutdown")
+    public LtiOutcomeDispatcher ltiOutcomeDispatcher() {
+        return new LtiOutcomeDispatcher(qtiWorksDeploymentSettings.getLtiOutcomeThreadCount(),
+                qtiWorksDeploymentSettings.getLtiOutcomeConsumerConcurrency(),
+                qtiWorksDeploymentSettings.getLtiOutcomeConsumerRate());
+    }
+
     @Bean
     public SchemaCache schemaCache() {
         return new SimpleSchemaCache();
@@ -156,6 +253,13 @@ public class ServicesConfiguration {
         return new SimpleXsltStylesheetCache();
     }
 
+    @Bean
+    public AsciiMathUpConversionService asciiMathUpConversionService() {
+        return new AsciiMathUpConversionService(new XsltStylesheetCacheAdapter(xsltStylesheetCache()),
+                qtiWorksDeploymentSettings.getAsciiMathCacheMaxSize(),
+                Runtime.getRuntime().availableProcessors());
+    }
+
     @Bean(initMethod="init", destroyMethod="destroy")
     public JqtiExtensionManager jqtiExtensionManager() {
         final List<JqtiExtensionPackage<?>> extensionPackages = new ArrayList<JqtiExtensionPackage<?>>();
@@ -163,7 +267,14 @@ public class ServicesConfiguration {
         /* Enable MathAssess extensions if requested */
         if (qtiWorksDeploymentSettings.isEnableMathAssessExtension()) {
             logger.info("Enabling the MathAssess extensions");
-            extensionPackages.add(new MathAssessExtensionPackage(xsltStylesheetCache()));
+            final QtiMaximaProcessPoolSettings poolSettings = new QtiMaximaProcessPoolSettings();
+            poolSettings.setMinIdle(qtiWorksDeploymentSettings.getMathAssessPoolMinIdle());
+            poolSettings.setMaxTotal(qtiWorksDeploymentSettings.getMathAssessPoolMaxTotal());
+            poolSettings.setMaxWaitMillis(qtiWorksDeploymentSettings.getMathAssessPoolMaxWait() * 1000L);
+            final MathAssessExtensionPackage mathAssessExtensionPackage = new MathAssessExtensionPackage(xsltStylesheetCache(), poolSettings,
+                    asciiMathUpConversionService());
+            mathAssessExtensionPackage.getCasResultCache().setMaxSize(qtiWorksDeploymentSettings.getMathAssessCasCacheMaxSize());
+            extensionPackages.add(mathAssessExtensionPackage);
         }
 
         return new JqtiExtensionManager(extensionPackages);
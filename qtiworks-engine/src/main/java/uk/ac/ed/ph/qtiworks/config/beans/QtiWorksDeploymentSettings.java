@@ -60,6 +60,11 @@ public final class QtiWorksDeploymentSettings implements Serializable {
     private @Value("${qtiworks.jdbc.password}") String jdbcPassword;
     private @Value("${qtiworks.filesystem.base}") String filesystemBase;
     private @Value("${qtiworks.extensions.mathassess:false}") boolean enableMathAssessExtension;
+    private @Value("${qtiworks.extensions.mathassess.pool.minidle:1}") int mathAssessPoolMinIdle; /* (Optional - default 1) */
+    private @Value("${qtiworks.extensions.mathassess.pool.maxtotal:8}") int mathAssessPoolMaxTotal; /* (Optional - default 8) */
+    private @Value("${qtiworks.extensions.mathassess.pool.maxwait:30}") int mathAssessPoolMaxWait; /* (Optional - default 30 seconds) */
+    private @Value("${qtiworks.extensions.mathassess.cascache.maxsize:10000}") int mathAssessCasCacheMaxSize; /* (Optional - default 10000) */
+    private @Value("${qtiworks.extensions.mathassess.asciimathcache.maxsize:1000}") int asciiMathCacheMaxSize; /* (Optional - default 1000) */
     private @Value("${qtiworks.hibernate.dialect}") String hibernateDialect;
     private @Value("${qtiworks.admin.name}") String adminName;
     private @Value("${qtiworks.admin.email}") String adminEmailAddress;
@@ -69,6 +74,24 @@ public final class QtiWorksDeploymentSettings implements Serializable {
     private @Value("${qtiworks.features.publicdemos:false}") boolean publicDemosEnabled; /* (Optional - default false) */
     private @Value("${qtiworks.features.rest:false}") boolean restEnabled; /* (Optional - default false) */
     private @Value("${qtiworks.retention.max.candidatesession.age:180}") int maxCandidateSessionAge; /* (Optional - default 180 days) */
+    private @Value("${qtiworks.cache.assessmentobjects.maxweight:250000}") long assessmentObjectCacheMaxWeight; /* (Optional - default 250000 QTI nodes) */
+    private @Value("${qtiworks.cache.assessmentobjects.expiry:0}") int assessmentObjectCacheExpiry; /* (Optional - default 0 = never expire) */
+    private @Value("${qtiworks.resolution.threads:0}") int itemResolutionThreadCount; /* (Optional - default 0, i.e. sequential) */
+    private @Value("${qtiworks.candidatesession.state.store:delta}") String candidateSessionStateStore; /* (Optional - default delta) */
+    private @Value("${qtiworks.candidatesession.state.snapshotinterval:20}") int candidateSessionStateSnapshotInterval; /* (Optional - default 20) */
+    private @Value("${qtiworks.candidatesession.result.durationinterval:60}") int candidateSessionResultDurationInterval; /* (Optional - default 60 seconds) */
+    private @Value("${qtiworks.cache.candidatesessionstate.maxweight:33554432}") long candidateSessionStateCacheMaxWeight; /* (Optional - default 32MB) */
+    private @Value("${qtiworks.cache.candidatesessionstate.expiry:30}") int candidateSessionStateCacheExpiry; /* (Optional - default 30 minutes) */
+    private @Value("${qtiworks.cache.renderedoutput.maxweight:16777216}") long renderedOutputCacheMaxWeight; /* (Optional - default 16MB) */
+    private @Value("${qtiworks.cache.samplefiles.maxsize:16777216}") long sampleFileCacheMaxSize; /* (Optional - default 16MB) */
+    private @Value("${qtiworks.rendering.fusedpipeline:false}") boolean fusedRenderingPipeline; /* (Optional - default false) */
+    private @Value("${qtiworks.lti.outcomes.threads:8}") int ltiOutcomeThreadCount; /* (Optional - default 8) */
+    private @Value("${qtiworks.lti.outcomes.consumer.concurrency:2}") int ltiOutcomeConsumerConcurrency; /* (Optional - default 2) */
+    private @Value("${qtiworks.lti.outcomes.consumer.rate:10}") double ltiOutcomeConsumerRate; /* (Optional - default 10 per second) */
+    private @Value("${qtiworks.lti.outcomes.pagesize:200}") int ltiOutcomePageSize; /* (Optional - default 200) */
+    private @Value("${qtiworks.audit.writebehind:false}") boolean auditWriteBehindEnabled; /* (Optional - default false) */
+    private @Value("${qtiworks.audit.writebehind.maxpending:10000}") int auditWriteBehindMaxPending; /* (Optional - default 10000) */
+    private @Value("${qtiworks.reporting.zip.threads:4}") int reportZipThreadCount; /* (Optional - default 4) */
 
 
     public String getJdbcDriverClassName() {
@@ -115,6 +138,26 @@ public final class QtiWorksDeploymentSettings implements Serializable {
         return enableMathAssessExtension;
     }
 
+    public int getMathAssessPoolMinIdle() {
+        return mathAssessPoolMinIdle;
+    }
+
+    public int getMathAssessPoolMaxTotal() {
+        return mathAssessPoolMaxTotal;
+    }
+
+    public int getMathAssessPoolMaxWait() {
+        return mathAssessPoolMaxWait;
+    }
+
+    public int getMathAssessCasCacheMaxSize() {
+        return mathAssessCasCacheMaxSize;
+    }
+
+    public int getAsciiMathCacheMaxSize() {
+        return asciiMathCacheMaxSize;
+    }
+
     public String getFakeLoginName() {
         return fakeLoginName;
     }
@@ -131,6 +174,78 @@ public final class QtiWorksDeploymentSettings implements Serializable {
         return maxCandidateSessionAge;
     }
 
+    public long getAssessmentObjectCacheMaxWeight() {
+        return assessmentObjectCacheMaxWeight;
+    }
+
+    public int getAssessmentObjectCacheExpiry() {
+        return assessmentObjectCacheExpiry;
+    }
+
+    public String getCandidateSessionStateStore() {
+        return candidateSessionStateStore;
+    }
+
+    public int getCandidateSessionStateSnapshotInterval() {
+        return candidateSessionStateSnapshotInterval;
+    }
+
+    public int getCandidateSessionResultDurationInterval() {
+        return candidateSessionResultDurationInterval;
+    }
+
+    public long getCandidateSessionStateCacheMaxWeight() {
+        return candidateSessionStateCacheMaxWeight;
+    }
+
+    public int getCandidateSessionStateCacheExpiry() {
+        return candidateSessionStateCacheExpiry;
+    }
+
+    public long getRenderedOutputCacheMaxWeight() {
+        return renderedOutputCacheMaxWeight;
+    }
+
+    public long getSampleFileCacheMaxSize() {
+        return sampleFileCacheMaxSize;
+    }
+
+    public boolean isFusedRenderingPipeline() {
+        return fusedRenderingPipeline;
+    }
+
+    public int getLtiOutcomeThreadCount() {
+        return ltiOutcomeThreadCount;
+    }
+
+    public int getLtiOutcomeConsumerConcurrency() {
+        return ltiOutcomeConsumerConcurrency;
+    }
+
+    public double getLtiOutcomeConsumerRate() {
+        return ltiOutcomeConsumerRate;
+    }
+
+    public int getLtiOutcomePageSize() {
+        return ltiOutcomePageSize;
+    }
+
+    public boolean isAuditWriteBehindEnabled() {
+        return auditWriteBehindEnabled;
+    }
+
+    public int getAuditWriteBehindMaxPending() {
+        return auditWriteBehindMaxPending;
+    }
+
+    public int getReportZipThreadCount() {
+        return reportZipThreadCount;
+    }
+
+    public int getItemResolutionThreadCount() {
+        return itemResolutionThreadCount;
+    }
+
     @Override
     public String toString() {
         return ObjectUtilities.beanToString(this);
@@ -0,0 +1,117 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.config.beans;
+
+import uk.ac.ed.ph.qtiworks.QtiWorksDeploymentException;
+import uk.ac.ed.ph.qtiworks.QtiWorksRuntimeException;
+import uk.ac.ed.ph.qtiworks.config.JpaSchemaUpdateConfiguration;
+
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.SequenceGenerator;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+
+/**
+ * Brings the increments of existing database sequences used for generating entity IDs into
+ * line with the <code>allocationSize</code>s declared by the entities' {@link SequenceGenerator}s.
+ * <p>
+ * Hibernate's pooled optimizer requires these to match, but Hibernate only sets the increment
+ * when it creates a sequence, so schema updates won't change it for existing sequences.
+ * <p>
+ * Changing the increment like this is safe, as the pooled optimizer hands out the block of IDs
+ * ending at the next value returned by the sequence, which will always lie above all existing IDs.
+ * <p>
+ * This currently only supports PostgreSQL. For other databases, this fails if any existing
+ * sequence still needs its increment changing by hand.
+ *
+ * @see JpaSchemaUpdateConfiguration
+ * @see SequenceIncrementVerifier
+ *
+ * @author David McKain
+ */
+public final class SequenceIncrementUpdater {
+
+    private static final Logger logger = LoggerFactory.getLogger(SequenceIncrementUpdater.class);
+
+    /** (Declared here to ensure that Hibernate has finished updating the schema first) */
+    @Resource
+    private EntityManagerFactory entityManagerFactory;
+
+    @Resource
+    private DataSource dataSource;
+
+    @PostConstruct
+    public void updateSequenceIncrements() {
+        final Map<String, Integer> sequenceIncrementMap = SequenceIncrementVerifier.getDeclaredSequenceIncrements(entityManagerFactory);
+        if (isPostgreSQL()) {
+            final JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+            for (final Map.Entry<String, Integer> entry : sequenceIncrementMap.entrySet()) {
+                logger.info("Setting increment of sequence {} to {}", entry.getKey(), entry.getValue());
+                jdbcTemplate.execute("ALTER SEQUENCE " + entry.getKey() + " INCREMENT BY " + entry.getValue());
+            }
+            return;
+        }
+
+        /* Other databases need updating by hand, so fail here if that's still to be done */
+        final Map<String, Integer> mismatchedIncrementMap = SequenceIncrementVerifier.getMismatchedSequenceIncrements(sequenceIncrementMap, dataSource);
+        if (mismatchedIncrementMap==null) {
+            logger.warn("Automatic update of sequence increments is only supported for PostgreSQL. "
+                    + "You will need to set the following sequence increments manually: {}",
+                    sequenceIncrementMap);
+        }
+        else if (!mismatchedIncrementMap.isEmpty()) {
+            throw new QtiWorksDeploymentException("Automatic update of sequence increments is only supported "
+                    + "for PostgreSQL. You will need to set the following sequence increments manually: "
+                    + mismatchedIncrementMap);
+        }
+    }
+
+    private boolean isPostgreSQL() {
+        try {
+            return "PostgreSQL".equals(JdbcUtils.extractDatabaseMetaData(dataSource, "getDatabaseProductName"));
+        }
+        catch (final MetaDataAccessException e) {
+            throw new QtiWorksRuntimeException("Unexpected Exception determining database product", e);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.config.beans;
+
+import uk.ac.ed.ph.qtiworks.QtiWorksDeploymentException;
+import uk.ac.ed.ph.qtiworks.config.JpaProductionConfiguration;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.metamodel.EntityType;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+/**
+ * Checks at startup that the increments of the database sequences used for generating entity IDs
+ * match the <code>allocationSize</code>s declared by the entities' {@link SequenceGenerator}s,
+ * failing with a {@link QtiWorksDeploymentException} if they don't.
+ * <p>
+ * Hibernate's pooled optimizer hands out blocks of IDs based on the declared allocation size,
+ * so running against a sequence with a smaller increment would generate duplicate IDs.
+ * The {@link SequenceIncrementUpdater} fixes this automatically on PostgreSQL; other databases
+ * will need their sequences altered manually.
+ * <p>
+ * Sequences that don't exist yet, and databases that don't expose
+ * <code>information_schema.sequences</code>, are skipped (the latter with a warning).
+ *
+ * @see JpaProductionConfiguration
+ *
+ * @author David McKain
+ */
+public final class SequenceIncrementVerifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(SequenceIncrementVerifier.class);
+
+    /** (Declared here to ensure that Hibernate has finished setting up first) */
+    @Resource
+    private EntityManagerFactory entityManagerFactory;
+
+    @Resource
+    private DataSource dataSource;
+
+    @PostConstruct
+    public void verifySequenceIncrements() {
+        final Map<String, Integer> declaredIncrementMap = getDeclaredSequenceIncrements(entityManagerFactory);
+        final Map<String, Integer> mismatchedIncrementMap = getMismatchedSequenceIncrements(declaredIncrementMap, dataSource);
+        if (mismatchedIncrementMap==null) {
+            logger.warn("Could not read sequence increments from this database, so could not verify "
+                    + "that they match the following required increments: {}",
+                    declaredIncrementMap);
+            return;
+        }
+        if (!mismatchedIncrementMap.isEmpty()) {
+            throw new QtiWorksDeploymentException("The increments of the following ID sequences do not "
+                    + "match their declared allocation sizes, which would cause duplicate IDs to be generated. "
+                    + "Run the updateSchema action on PostgreSQL, or set these increments manually: "
+                    + mismatchedIncrementMap);
+        }
+        logger.debug("Verified increments of ID sequences {}", declaredIncrementMap);
+    }
+
+    /**
+     * Returns a Map of sequence name to declared allocation size for each {@link SequenceGenerator}
+     * declared on our entities.
+     */
+    static Map<String, Integer> getDeclaredSequenceIncrements(final EntityManagerFactory entityManagerFactory) {
+        final Map<String, Integer> result = new TreeMap<String, Integer>();
+        for (final EntityType<?> entityType : entityManagerFactory.getMetamodel().getEntities()) {
+            final SequenceGenerator sequenceGenerator = entityType.getJavaType().getAnnotation(SequenceGenerator.class);
+            if (sequenceGenerator!=null) {
+                result.put(sequenceGenerator.sequenceName(), Integer.valueOf(sequenceGenerator.allocationSize()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the subset of the given Map of sequence name to declared increment for the
+     * sequences whose actual increment in the database differs from that declared, or null
+     * if the actual increments could not be read.
+     */
+    static Map<String, Integer> getMismatchedSequenceIncrements(final Map<String, Integer> declaredIncrementMap,
+            final DataSource dataSource) {
+        final Map<String, Long> actualIncrementMap = new HashMap<String, Long>();
+        try {
+            new JdbcTemplate(dataSource).query("SELECT sequence_name, increment FROM information_schema.sequences",
+                    new RowCallbackHandler() {
+                        @Override
+                        public void processRow(final ResultSet resultSet) throws SQLException {
+                            actualIncrementMap.put(resultSet.getString(1).toLowerCase(Locale.ROOT),
+                                    Long.valueOf(resultSet.getString(2)));
+                        }
+                    });
+        }
+        catch (final DataAccessException e) {
+            logger.debug("Failed to query information_schema.sequences", e);
+            return null;
+        }
+        final Map<String, Integer> result = new TreeMap<String, Integer>();
+        for (final Map.Entry<String, Integer> entry : declaredIncrementMap.entrySet()) {
+            final Long actualIncrement = actualIncrementMap.get(entry.getKey().toLowerCase(Locale.ROOT));
+            if (actualIncrement!=null && actualIncrement.longValue()!=entry.getValue().intValue()) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+}
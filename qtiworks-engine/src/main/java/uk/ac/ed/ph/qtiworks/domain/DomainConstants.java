@@ -94,6 +94,12 @@ public final class DomainConstants {
      */
     public static final long OAUTH_TIMESTAMP_MAX_AGE = 90 * ONE_MINUTE;
 
+    /**
+     * How long (in milliseconds) to keep records of written-out audit journal batches
+     * before purging
+     */
+    public static final long AUDIT_JOURNAL_BATCH_LIFETIME = 7 * ONE_DAY;
+
     /**
      * NB: Should be set to the maximum length of the permitted values of
      * the QTI <code>completionStatus</code> variable.
@@ -0,0 +1,138 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.domain.entities;
+
+import uk.ac.ed.ph.qtiworks.services.CandidateAuditDataWriter;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
+
+import java.util.Date;
+
+import javax.persistence.Basic;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * Records that a batch of journalled audit data has been written out by the
+ * {@link CandidateAuditDataWriter}. This is written in the same transaction as the batch's
+ * data, so that a batch recovered after a crash can be skipped if it had already been written.
+ * <p>
+ * Developer note: The ID of a {@link AuditJournalBatch} is generally referred to as an
+ * <code>ajbid</code> in the code. This is also used as the name of the primary key column
+ * in the database mappings.
+ *
+ * @author David McKain
+ */
+@Entity
+@Table(name="audit_journal_batches")
+@SequenceGenerator(name="auditJournalBatchSequence", sequenceName="audit_journal_batch_sequence", initialValue=1, allocationSize=1)
+@NamedQueries({
+    @NamedQuery(name="AuditJournalBatch.findByBatchId",
+            query="SELECT ajb"
+                + "  FROM AuditJournalBatch ajb"
+                + "  WHERE ajb.batchId = :batchId"),
+    @NamedQuery(name="AuditJournalBatch.deleteOldBatches",
+            query="DELETE"
+                + "  FROM AuditJournalBatch ajb"
+                + "  WHERE ajb.writeTimestamp < :threshold")
+})
+public class AuditJournalBatch implements BaseEntity {
+
+    private static final long serialVersionUID = 7512208345316804713L;
+
+    /** Length of a batch ID (a UUID) */
+    public static final int BATCH_ID_LENGTH = 36;
+
+    @Id
+    @GeneratedValue(generator="auditJournalBatchSequence")
+    @Column(name="ajbid")
+    private Long ajbid;
+
+    @Basic(optional=false)
+    @Column(name="batch_id", updatable=false, unique=true, length=BATCH_ID_LENGTH)
+    private String batchId;
+
+    @Basic(optional=false)
+    @Column(name="write_timestamp", updatable=false)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date writeTimestamp;
+
+    //------------------------------------------------------------
+
+    @Override
+    public Long getId() {
+        return ajbid;
+    }
+
+    @Override
+    public void setId(final Long id) {
+        this.ajbid = id;
+    }
+
+
+    public String getBatchId() {
+        return batchId;
+    }
+
+    public void setBatchId(final String batchId) {
+        this.batchId = batchId;
+    }
+
+
+    public Date getWriteTimestamp() {
+        return ObjectUtilities.safeClone(writeTimestamp);
+    }
+
+    public void setWriteTimestamp(final Date writeTimestamp) {
+        this.writeTimestamp = ObjectUtilities.safeClone(writeTimestamp);
+    }
+
+    //------------------------------------------------------------
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                + "(ajbid=" + ajbid
+                + ",batchId=" + batchId
+                + ")";
+    }
+}
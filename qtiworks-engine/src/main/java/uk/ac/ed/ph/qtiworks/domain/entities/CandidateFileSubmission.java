@@ -67,7 +67,7 @@ import org.hibernate.annotations.Type;
  */
 @Entity
 @Table(name="candidate_file_submissions")
-@SequenceGenerator(name="candidateFileSubmissionSequence", sequenceName="candidate_file_submission_sequence", initialValue=1, allocationSize=1)
+@SequenceGenerator(name="candidateFileSubmissionSequence", sequenceName="candidate_file_submission_sequence", initialValue=1, allocationSize=10)
 @NamedQueries({
     @NamedQuery(name="CandidateFileSubmission.deleteForSession",
             query="DELETE FROM CandidateFileSubmission f"
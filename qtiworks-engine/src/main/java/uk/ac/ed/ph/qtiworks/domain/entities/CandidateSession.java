@@ -33,6 +33,8 @@
  */
 package uk.ac.ed.ph.qtiworks.domain.entities;
 
+import uk.ac.ed.ph.qtiworks.services.ReportableStateSignature;
+
 import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
 import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
 import uk.ac.ed.ph.jqtiplus.node.test.AssessmentTest;
@@ -74,7 +76,7 @@ import org.hibernate.annotations.Type;
  */
 @Entity
 @Table(name="candidate_sessions")
-@SequenceGenerator(name="candidateSessionSequence", sequenceName="candidate_session_sequence", initialValue=1, allocationSize=1)
+@SequenceGenerator(name="candidateSessionSequence", sequenceName="candidate_session_sequence", initialValue=1, allocationSize=10)
 @NamedQueries({
     @NamedQuery(name="CandidateSession.getForCandidate",
             query="SELECT x"
@@ -121,6 +123,14 @@ import org.hibernate.annotations.Type;
                 + "  FROM CandidateSession x"
                 + "  WHERE x.delivery = :delivery"
                 + "  ORDER BY x.id"),
+    /* Gets the next page of sessions for a delivery having recorded outcomes, ordered by ID */
+    @NamedQuery(name="CandidateSession.getForDeliveryWithOutcomesAfter",
+            query="SELECT x"
+                + "  FROM CandidateSession x"
+                + "  WHERE x.delivery = :delivery"
+                + "    AND x.id > :afterXid"
+                + "    AND EXISTS (SELECT xo FROM CandidateSessionOutcome xo WHERE xo.candidateSession = x)"
+                + "  ORDER BY x.id"),
     @NamedQuery(name="CandidateSession.getNonTerminatedForDeliveryAndCandidate",
             query="SELECT x"
                 + "  FROM CandidateSession x"
@@ -128,6 +138,13 @@ import org.hibernate.annotations.Type;
                 + "  AND x.candidate = :candidate"
                 + "  AND x.terminationTime IS NULL"
                 + "  ORDER BY x.id"),
+    /* Gets sessions with result changes that have been waiting to be recorded since before the given time */
+    @NamedQuery(name="CandidateSession.getNonTerminatedWithResultPendingBefore",
+            query="SELECT x"
+                + "  FROM CandidateSession x"
+                + "  WHERE x.resultPendingTime < :threshold"
+                + "    AND x.terminationTime IS NULL"
+                + "  ORDER BY x.id"),
     @NamedQuery(name="CandidateSession.getCreatedBefore",
             query="SELECT x"
                 + "  FROM CandidateSession x"
@@ -263,6 +280,41 @@ public class CandidateSession implements BaseEntity, TimestampedOnCreation {
     @Enumerated(EnumType.STRING)
     private LisOutcomeReportingStatus lisOutcomeReportingStatus;
 
+    /**
+     * For test sessions, this is the {@link ReportableStateSignature} of the values reported in the
+     * most recently recorded assessment result, used to skip recording unchanged results.
+     * <p>
+     * This will be null if no result has been recorded yet, or for item sessions.
+     */
+    @Basic(optional=true)
+    @Column(name="result_values_sig", length=ReportableStateSignature.SIGNATURE_LENGTH)
+    private String resultValuesSignature;
+
+    /**
+     * For test sessions, this is the {@link ReportableStateSignature} of the durations reported in
+     * the most recently recorded assessment result.
+     * <p>
+     * This will be null if no result has been recorded yet, or for item sessions.
+     */
+    @Basic(optional=true)
+    @Column(name="result_durations_sig", length=ReportableStateSignature.SIGNATURE_LENGTH)
+    private String resultDurationsSignature;
+
+    /** Timestamp indicating when the most recent assessment result was recorded for a test session */
+    @Basic(optional=true)
+    @Column(name="result_recorded_time", updatable=true)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date resultRecordedTime;
+
+    /**
+     * Timestamp of the most recent change affecting only durations that was not recorded in
+     * the assessment result straight away. This will be null if there is no such change.
+     */
+    @Basic(optional=true)
+    @Column(name="result_pending_time", updatable=true)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date resultPendingTime;
+
     /** (Currently used for cascading deletion only - upgrade if required) */
     @OneToMany(mappedBy="candidateSession", cascade=CascadeType.REMOVE)
     private Set<CandidateEvent> candidateEvents;
@@ -400,6 +452,42 @@ public class CandidateSession implements BaseEntity, TimestampedOnCreation {
         this.lisOutcomeReportingStatus = lisOutcomeReportingStatus;
     }
 
+
+    public String getResultValuesSignature() {
+        return resultValuesSignature;
+    }
+
+    public void setResultValuesSignature(final String resultValuesSignature) {
+        this.resultValuesSignature = resultValuesSignature;
+    }
+
+
+    public String getResultDurationsSignature() {
+        return resultDurationsSignature;
+    }
+
+    public void setResultDurationsSignature(final String resultDurationsSignature) {
+        this.resultDurationsSignature = resultDurationsSignature;
+    }
+
+
+    public Date getResultRecordedTime() {
+        return ObjectUtilities.safeClone(resultRecordedTime);
+    }
+
+    public void setResultRecordedTime(final Date resultRecordedTime) {
+        this.resultRecordedTime = ObjectUtilities.safeClone(resultRecordedTime);
+    }
+
+
+    public Date getResultPendingTime() {
+        return ObjectUtilities.safeClone(resultPendingTime);
+    }
+
+    public void setResultPendingTime(final Date resultPendingTime) {
+        this.resultPendingTime = ObjectUtilities.safeClone(resultPendingTime);
+    }
+
     //------------------------------------------------------------
 
     @Override
@@ -65,7 +65,7 @@ import org.hibernate.annotations.Type;
  */
 @Entity
 @Table(name="candidate_session_outcomes")
-@SequenceGenerator(name="candidateSessionOutcomeSequence", sequenceName="candidate_session_outcome_sequence", initialValue=1, allocationSize=10)
+@SequenceGenerator(name="candidateSessionOutcomeSequence", sequenceName="candidate_session_outcome_sequence", initialValue=1, allocationSize=50)
 @NamedQueries({
     @NamedQuery(name="CandidateSessionOutcome.getForSession",
             query="SELECT xo"
@@ -77,6 +77,26 @@ import org.hibernate.annotations.Type;
                 + "  FROM CandidateSessionOutcome xo"
                 + "  WHERE xo.candidateSession.delivery = :delivery"
                 + "  ORDER BY xo.candidateSession.xid, xo.id"),
+    @NamedQuery(name="CandidateSessionOutcome.getForSessions",
+            query="SELECT xo"
+                + "  FROM CandidateSessionOutcome xo"
+                + "  WHERE xo.candidateSession IN (:candidateSessions)"
+                + "  ORDER BY xo.candidateSession.xid, xo.id"),
+    /* Gets the distinct (identifier, baseType, cardinality) combinations recorded for a delivery, in the order first recorded */
+    @NamedQuery(name="CandidateSessionOutcome.getDeclarationsForDelivery",
+            query="SELECT xo.outcomeIdentifier, xo.baseType, xo.cardinality"
+                + "  FROM CandidateSessionOutcome xo"
+                + "  WHERE xo.candidateSession.delivery = :delivery"
+                + "  GROUP BY xo.outcomeIdentifier, xo.baseType, xo.cardinality"
+                + "  ORDER BY MIN(xo.id)"),
+    @NamedQuery(name="CandidateSessionOutcome.updateStringValue",
+            query="UPDATE CandidateSessionOutcome xo"
+                + "  SET xo.stringValue = :stringValue"
+                + "  WHERE xo.id = :xoid"
+                + "  AND xo.stringValue = :expectedStringValue"),
+    @NamedQuery(name="CandidateSessionOutcome.deleteById",
+            query="DELETE FROM CandidateSessionOutcome xo"
+                + "  WHERE xo.id = :xoid"),
     @NamedQuery(name="CandidateSessionOutcome.deleteForSession",
             query="DELETE FROM CandidateSessionOutcome xo"
                 + "  WHERE xo.candidateSession = :candidateSession"),
@@ -124,7 +144,7 @@ public class CandidateSessionOutcome implements BaseEntity {
     @Lob
     @Type(type="org.hibernate.type.TextType")
     @Basic(optional=false)
-    @Column(name="string_value", updatable=false)
+    @Column(name="string_value")
     private String stringValue;
 
     //------------------------------------------------------------
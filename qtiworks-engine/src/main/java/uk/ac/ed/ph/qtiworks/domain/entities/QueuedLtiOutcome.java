@@ -70,13 +70,40 @@ import javax.persistence.TemporalType;
  */
 @Entity
 @Table(name="queued_lti_outcomes")
-@SequenceGenerator(name="queuedLtiOutcomeSequence", sequenceName="queued_lti_outcome_sequence", initialValue=1, allocationSize=1)
+@SequenceGenerator(name="queuedLtiOutcomeSequence", sequenceName="queued_lti_outcome_sequence", initialValue=1, allocationSize=10)
 @NamedQueries({
     /* Retrieves all queued outcomes, in insertion order */
     @NamedQuery(name="QueuedLtiOutcome.getAllQueuedOutcomes",
             query="SELECT q"
                 + "  FROM QueuedLtiOutcome q"
                 + "  ORDER BY q.id"),
+    /* Counts all queued outcomes */
+    @NamedQuery(name="QueuedLtiOutcome.countQueuedOutcomes",
+            query="SELECT COUNT(q)"
+                + "  FROM QueuedLtiOutcome q"),
+    /* Retrieves queued outcomes having a later outcome queued for the same CandidateSession, in insertion order */
+    @NamedQuery(name="QueuedLtiOutcome.getSupersededQueuedOutcomes",
+            query="SELECT q"
+                + "  FROM QueuedLtiOutcome q"
+                + "  WHERE EXISTS ("
+                + "    SELECT q2 FROM QueuedLtiOutcome q2"
+                + "    WHERE q2.candidateSession = q.candidateSession"
+                + "      AND q2.id > q.id"
+                + "  )"
+                + "  ORDER BY q.id"),
+    /* Retrieves queued outcomes inserted after the one with the given ID, in insertion order (used for paging) */
+    @NamedQuery(name="QueuedLtiOutcome.getQueuedOutcomesAfter",
+            query="SELECT q"
+                + "  FROM QueuedLtiOutcome q"
+                + "  WHERE q.id > :afterId"
+                + "  ORDER BY q.id"),
+    /* As above, but only retrieves outcomes that are due to be (re)sent at the given time */
+    @NamedQuery(name="QueuedLtiOutcome.getDueQueuedOutcomesAfter",
+            query="SELECT q"
+                + "  FROM QueuedLtiOutcome q"
+                + "  WHERE q.id > :afterId"
+                + "    AND (q.retryTime IS NULL OR q.retryTime < :timestamp)"
+                + "  ORDER BY q.id"),
     @NamedQuery(name="QueuedLtiOutcome.deleteForSession",
             query="DELETE FROM QueuedLtiOutcome q"
                 + "  WHERE q.candidateSession = :candidateSession"),
@@ -61,6 +61,13 @@ public abstract class AbstractRenderingOptions implements Serializable {
     @NotNull
     private String serveFileUrl;
 
+    /**
+     * (Optional) Base URL for serving package files via shared, session-independent URLs.
+     * If specified, files listed in {@link AbstractRenderingRequest#getAssetUrls()} will be linked
+     * to via these URLs instead of {@link #serveFileUrl}.
+     */
+    private String serveAssetUrl;
+
     @NotNull
     private String authorViewUrl;
 
@@ -123,6 +130,15 @@ public abstract class AbstractRenderingOptions implements Serializable {
     }
 
 
+    public String getServeAssetUrl() {
+        return serveAssetUrl;
+    }
+
+    public void setServeAssetUrl(final String serveAssetUrl) {
+        this.serveAssetUrl = serveAssetUrl;
+    }
+
+
     public String getAuthorViewUrl() {
         return authorViewUrl;
     }
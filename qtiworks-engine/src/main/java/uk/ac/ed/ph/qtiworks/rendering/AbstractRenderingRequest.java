@@ -37,6 +37,7 @@ import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
 import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator;
 
 import java.net.URI;
+import java.util.Map;
 
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
@@ -61,6 +62,22 @@ public abstract class AbstractRenderingRequest<P extends AbstractRenderingOption
     @NotNull
     private URI assessmentResourceUri;
 
+    /** Optional cache of pre-parsed assessment source trees */
+    private AssessmentSourceCache assessmentSourceCache;
+
+    /**
+     * Optional key uniquely identifying the assessment content being rendered (e.g. its
+     * AssessmentPackage ID). Setting this allows the output of unchanging views to be cached.
+     */
+    private String assessmentContentKey;
+
+    /**
+     * Optional Map of (resolved) package file System IDs to shared, session-independent URLs
+     * for serving them, relative to the webapp context path. Files not listed here will be served
+     * via {@link AbstractRenderingOptions#getServeFileUrl()}.
+     */
+    private Map<String, String> assetUrls;
+
     private boolean authorMode;
 
     /* Validation information copied from AssessmentPackage */
@@ -99,6 +116,33 @@ public abstract class AbstractRenderingRequest<P extends AbstractRenderingOption
     }
 
 
+    public AssessmentSourceCache getAssessmentSourceCache() {
+        return assessmentSourceCache;
+    }
+
+    public void setAssessmentSourceCache(final AssessmentSourceCache assessmentSourceCache) {
+        this.assessmentSourceCache = assessmentSourceCache;
+    }
+
+
+    public String getAssessmentContentKey() {
+        return assessmentContentKey;
+    }
+
+    public void setAssessmentContentKey(final String assessmentContentKey) {
+        this.assessmentContentKey = assessmentContentKey;
+    }
+
+
+    public Map<String, String> getAssetUrls() {
+        return assetUrls;
+    }
+
+    public void setAssetUrls(final Map<String, String> assetUrls) {
+        this.assetUrls = assetUrls;
+    }
+
+
     public boolean isValidated() {
         return validated;
     }
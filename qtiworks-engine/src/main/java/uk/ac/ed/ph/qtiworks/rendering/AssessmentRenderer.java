@@ -33,6 +33,7 @@
  */
 package uk.ac.ed.ph.qtiworks.rendering;
 
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
 import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksProperties;
 import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEventNotification;
 import uk.ac.ed.ph.qtiworks.utils.XmlUtilities;
@@ -54,35 +55,56 @@ import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator;
 import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.XsltStylesheetCache;
 import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.XsltStylesheetManager;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.StringReader;
 import java.io.Writer;
 import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Result;
+import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
 import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamResult;
 
+import net.sf.saxon.Configuration;
+import net.sf.saxon.Controller;
+import net.sf.saxon.TransformerFactoryImpl;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.validation.BeanPropertyBindingResult;
 import org.springframework.validation.Validator;
 import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
 import org.xml.sax.InputSource;
 import org.xml.sax.XMLReader;
 
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
 /**
  * This key service performs the actual rendering of items and tests, supporting the
  * rendering of specific states and particular modal states (e.g. reviewing an item
@@ -98,6 +120,32 @@ import org.xml.sax.XMLReader;
  *   <li>If using outside QTIWorks engine, remember to set the necessary properties then call {@link #init()}</li>
  * </ul>
  *
+ * <h2>Source caching</h2>
+ * All rendering stylesheets are compiled using a single Saxon {@link Configuration}. If a request
+ * provides an {@link AssessmentSourceCache}, the assessment XML is taken from there as a pre-parsed
+ * tree rather than being re-read and re-parsed for each rendering.
+ *
+ * <h2>Fused pipeline</h2>
+ * Rendering normally runs the rendering XSLT, ctop.xsl and serialize.xsl as a pipeline of 3 separate
+ * transformations. If {@link #isFusedPipeline()} returns true then these are instead compiled together
+ * (see fused-pipeline.xsl) and run as a single transformation. The output is the same in both cases.
+ *
+ * <h2>Output caching</h2>
+ * Views that don't change once generated (e.g. item solutions and reviews, feedback and author views)
+ * are cached in the {@link RenderedOutputCache}, if enabled. This only happens when the request
+ * provides an {@link AbstractRenderingRequest#getAssessmentContentKey()} and the {@link Result} is a
+ * {@link StreamResult} wrapping an {@link OutputStream}. Cached output is keyed on a digest of
+ * what actually gets rendered: the assessment, stylesheet, rendering options and XSLT parameters
+ * (including the item or test session state). Two things are left out so that different
+ * candidate sessions in the same rendered state share entries:
+ * <ul>
+ *   <li>The (session-specific) URLs passed to the XSLT. These are replaced by placeholders when
+ *     rendering, which are then substituted with the actual URLs each time the output is used.</li>
+ *   <li>Timestamps and durations in the session state. The candidate views only check whether
+ *     timestamps such as <code>endTime</code> are set, so only that goes into the key. (The author
+ *     views do show these values, so use the full session state.)</li>
+ * </ul>
+ *
  * @author David McKain
  */
 @Service
@@ -117,19 +165,47 @@ public class AssessmentRenderer {
     private static final URI testAuthorViewXsltUri = URI.create("classpath:/rendering-xslt/test-author-view.xsl");
     private static final URI terminatedXsltUri = URI.create("classpath:/rendering-xslt/terminated.xsl");
     private static final URI explodedXsltUri = URI.create("classpath:/rendering-xslt/exploded.xsl");
+    private static final URI fusedPipelineXsltUri = URI.create("classpath:/rendering-xslt/fused-pipeline.xsl");
+
+    /** Relative URLs that may be replaced by placeholders when caching rendered output */
+    private static final Pattern SUBSTITUTABLE_URL_PATTERN = Pattern.compile("/[A-Za-z0-9/._~:%+,;=-]*");
+
+    /** XSLT parameters containing session state, which may have their timings left out of cache keys */
+    private static final List<String> SESSION_STATE_PARAMETER_NAMES = Arrays.asList("itemSessionState", "testSessionState");
+
+    /** Session state timestamp attributes, which candidate views only check for being set */
+    private static final List<String> SESSION_STATE_TIMESTAMP_ATTRIBUTE_NAMES = Arrays.asList("entryTime", "endTime", "exitTime", "suspendTime");
+
+    /** Session state duration attributes, which candidate views don't use */
+    private static final List<String> SESSION_STATE_DURATION_ATTRIBUTE_NAMES = Arrays.asList("durationAccumulated", "durationIntervalStartTime");
+
+    /** Initial mode used when running the fused pipeline */
+    private static final String fusedPipelineMode = "{http://www.ph.ed.ac.uk/qtiworks}fused-pipeline";
 
     @Resource
     private QtiWorksProperties qtiWorksProperties;
 
+    @Resource
+    private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
+
     @Resource
     private XsltStylesheetCache xsltStylesheetCache;
 
+    @Resource
+    private RenderedOutputCache renderedOutputCache;
+
     @Resource
     private Validator jsr303Validator;
 
     @Resource
     private String webappContextPath;
 
+    /** Whether to use the fused pipeline. Taken from {@link QtiWorksDeploymentSettings} during init, if set */
+    private boolean fusedPipeline;
+
+    /** Saxon {@link Configuration} shared by all rendering stylesheets, created during init. */
+    private Configuration saxonConfiguration;
+
     /** Manager for the XSLT stylesheets, created during init. */
     private XsltStylesheetManager stylesheetManager;
 
@@ -144,6 +220,15 @@ public class AssessmentRenderer {
     }
 
 
+    public QtiWorksDeploymentSettings getQtiWorksDeploymentSettings() {
+        return qtiWorksDeploymentSettings;
+    }
+
+    public void setQtiWorksDeploymentSettings(final QtiWorksDeploymentSettings qtiWorksDeploymentSettings) {
+        this.qtiWorksDeploymentSettings = qtiWorksDeploymentSettings;
+    }
+
+
     public XsltStylesheetCache getXsltStylesheetCache() {
         return xsltStylesheetCache;
     }
@@ -153,6 +238,15 @@ public class AssessmentRenderer {
     }
 
 
+    public RenderedOutputCache getRenderedOutputCache() {
+        return renderedOutputCache;
+    }
+
+    public void setRenderedOutputCache(final RenderedOutputCache renderedOutputCache) {
+        this.renderedOutputCache = renderedOutputCache;
+    }
+
+
     public Validator getJsr303Validator() {
         return jsr303Validator;
     }
@@ -170,11 +264,59 @@ public class AssessmentRenderer {
         this.webappContextPath = webappContextPath;
     }
 
+
+    public boolean isFusedPipeline() {
+        return fusedPipeline;
+    }
+
+    public void setFusedPipeline(final boolean fusedPipeline) {
+        this.fusedPipeline = fusedPipeline;
+    }
+
     //----------------------------------------------------
 
     @PostConstruct
     public void init() {
-        this.stylesheetManager = new XsltStylesheetManager(new ClassPathResourceLocator(), xsltStylesheetCache);
+        this.saxonConfiguration = new Configuration();
+        this.stylesheetManager = new XsltStylesheetManager(new ClassPathResourceLocator(), xsltStylesheetCache,
+                new TransformerFactoryImpl(saxonConfiguration));
+        if (qtiWorksDeploymentSettings!=null) {
+            this.fusedPipeline = qtiWorksDeploymentSettings.isFusedRenderingPipeline();
+        }
+        logger.info("Assessment renderer initialised using {} pipeline", fusedPipeline ? "fused" : "standard");
+    }
+
+    /**
+     * Returns the URIs of all of the stylesheets used for rendering, which can be passed to
+     * {@link #precompileStylesheet(URI)}. (If using the fused pipeline, the stylesheets used for
+     * the later stages of the standard pipeline are not included, as they're not needed.)
+     */
+    public List<URI> getStylesheetUris() {
+        final List<URI> result = new ArrayList<URI>(Arrays.asList(itemStandaloneXsltUri, testItemXsltUri,
+                testEntryXsltUri, testPartNavigationXsltUri, testPartFeedbackXsltUri, testFeedbackXsltUri,
+                itemAuthorViewXsltUri, testAuthorViewXsltUri, terminatedXsltUri, explodedXsltUri));
+        if (!fusedPipeline) {
+            result.add(ctopXsltUri);
+            result.add(serializeXsltUri);
+        }
+        return result;
+    }
+
+    /**
+     * Compiles and caches the stylesheet at the given URI in the form that will be used by the
+     * current pipeline, unless this has already been done. This can be used to "warm up" the
+     * cache so that the first candidates aren't held up by compiling it.
+     *
+     * @param xsltUri one of the URIs returned by {@link #getStylesheetUris()}
+     */
+    public void precompileStylesheet(final URI xsltUri) {
+        Assert.notNull(xsltUri, "xsltUri");
+        if (fusedPipeline) {
+            stylesheetManager.getCompiledStylesheetDriver(Arrays.asList(fusedPipelineXsltUri, xsltUri));
+        }
+        else {
+            stylesheetManager.getCompiledStylesheet(xsltUri);
+        }
     }
 
     //----------------------------------------------------
@@ -228,8 +370,13 @@ public class AssessmentRenderer {
         xsltParameters.put("exitUrl", renderingOptions.getExitUrl());
         xsltParameters.put("solutionUrl", renderingOptions.getSolutionUrl());
 
-        /* Perform transform */
-        doTransform(request, itemStandaloneXsltUri, xsltParameters, result);
+        /* Perform transform. (Solutions and closed items won't change, so may be cached) */
+        if (request.isSolutionMode() || itemSessionState.isEnded()) {
+            doCachedTransform(request, request.getAssessmentResourceUri(), itemStandaloneXsltUri, xsltParameters, false, result);
+        }
+        else {
+            doTransform(request, itemStandaloneXsltUri, xsltParameters, result);
+        }
     }
 
     /**
@@ -332,12 +479,12 @@ public class AssessmentRenderer {
 
     private void doRenderTestPartFeedback(final TestRenderingRequest request,
             final Map<String, Object> xsltParameters, final Result result) {
-        doTransform(request, testPartFeedbackXsltUri, xsltParameters, result);
+        doCachedTransform(request, request.getAssessmentResourceUri(), testPartFeedbackXsltUri, xsltParameters, false, result);
     }
 
     private void doRenderTestFeedback(final TestRenderingRequest request,
             final Map<String, Object> xsltParameters, final Result result) {
-        doTransform(request, testFeedbackXsltUri, xsltParameters, result);
+        doCachedTransform(request, request.getAssessmentResourceUri(), testFeedbackXsltUri, xsltParameters, false, result);
     }
 
     private void doRenderCurrentTestItem(final TestRenderingRequest request,
@@ -379,7 +526,7 @@ public class AssessmentRenderer {
         xsltParameters.put("endTestPartAllowed", Boolean.FALSE);
 
         /* We finally do the transform on the _item_ (NB!) */
-        doTransform(request, itemSystemId, testItemXsltUri, xsltParameters, result);
+        doCachedTransform(request, itemSystemId, testItemXsltUri, xsltParameters, false, result);
     }
 
     private void doRenderTestItemSolution(final TestRenderingRequest request,
@@ -398,7 +545,7 @@ public class AssessmentRenderer {
         xsltParameters.put("endTestPartAllowed", Boolean.FALSE);
 
         /* We finally do the transform on the _item_ (NB!) */
-        doTransform(request, itemSystemId, testItemXsltUri, xsltParameters, result);
+        doCachedTransform(request, itemSystemId, testItemXsltUri, xsltParameters, false, result);
     }
 
     /**
@@ -433,7 +580,7 @@ public class AssessmentRenderer {
         xsltParameters.put("itemSessionState", itemSessionStateDocument.getDocumentElement());
 
         /* Perform transform */
-        doTransform(request, null, itemAuthorViewXsltUri, xsltParameters, result);
+        doCachedTransform(request, null, itemAuthorViewXsltUri, xsltParameters, true, result);
     }
 
     /**
@@ -467,7 +614,7 @@ public class AssessmentRenderer {
         xsltParameters.put("testSessionState", TestSessionStateXmlMarshaller.marshal(testSessionState).getDocumentElement());
         xsltParameters.put("testSystemId", request.getAssessmentResourceUri().toString());
 
-        doTransform(request, null, testAuthorViewXsltUri, xsltParameters, result);
+        doCachedTransform(request, null, testAuthorViewXsltUri, xsltParameters, true, result);
     }
 
     //----------------------------------------------------
@@ -551,6 +698,12 @@ public class AssessmentRenderer {
             xsltParameters.put("notifications", new XsltParamBuilder().notificationsToElements(notifications));
         }
 
+        /* Pass shared URLs for package files, if available */
+        final Map<String, String> assetUrls = request.getAssetUrls();
+        if (assetUrls!=null && !assetUrls.isEmpty()) {
+            xsltParameters.put("assetUrls", new XsltParamBuilder().assetUrlsToElements(assetUrls));
+        }
+
         /* Pass common control parameters */
         xsltParameters.put("validated", Boolean.valueOf(request.isValidated()));
         xsltParameters.put("launchable", Boolean.valueOf(request.isLaunchable()));
@@ -578,6 +731,183 @@ public class AssessmentRenderer {
 
     //----------------------------------------------------
 
+    /**
+     * Performs the same work as {@link #doTransform(AbstractRenderingRequest, URI, URI, Map, Result)},
+     * but uses the {@link RenderedOutputCache} (if possible) to avoid repeating the work if the same
+     * output has been rendered before. This should only be used for views that are expected to be
+     * rendered repeatedly without change.
+     *
+     * @param timingsRendered whether the view shows the timestamps and durations in the session
+     *   state, in which case these must be part of the cache key
+     */
+    private void doCachedTransform(final AbstractRenderingRequest<?> renderingRequest, final URI inputUri,
+            final URI rendererStylesheetUri, final Map<String, Object> xsltParameters, final boolean timingsRendered,
+            final Result result) {
+        final OutputStream outputStream = (result instanceof StreamResult) ? ((StreamResult) result).getOutputStream() : null;
+        if (renderedOutputCache==null || !renderedOutputCache.isEnabled()
+                || renderingRequest.getAssessmentContentKey()==null || outputStream==null) {
+            doTransform(renderingRequest, inputUri, rendererStylesheetUri, xsltParameters, result);
+            return;
+        }
+        final Map<String, String> urlPlaceholders = new HashMap<String, String>();
+        final Map<String, Object> cacheableXsltParameters = replaceUrlParameters(xsltParameters, urlPlaceholders);
+        final HashCode outputKey = computeOutputKey(renderingRequest, inputUri, rendererStylesheetUri, cacheableXsltParameters,
+                timingsRendered);
+        byte[] output = renderedOutputCache.getOutput(outputKey);
+        if (output==null) {
+            final ByteArrayOutputStream outputBuffer = new ByteArrayOutputStream();
+            doTransform(renderingRequest, inputUri, rendererStylesheetUri, cacheableXsltParameters, new StreamResult(outputBuffer));
+            output = outputBuffer.toByteArray();
+            renderedOutputCache.putOutput(outputKey, output);
+        }
+        try {
+            outputStream.write(substituteUrlPlaceholders(renderingRequest, output, urlPlaceholders));
+        }
+        catch (final IOException e) {
+            throw new QtiWorksRenderingException("Could not write rendered output to result", e);
+        }
+    }
+
+    /**
+     * Returns a copy of the given XSLT parameters with the values of URL parameters (i.e. those
+     * whose names end with <code>Url</code>) replaced by placeholders, recording the mapping from
+     * each placeholder to the actual URL in the given Map.
+     * <p>
+     * Only relative URLs consisting of characters that are never escaped during serialization are
+     * replaced, so that the placeholders can be substituted in the raw output. (Other URLs are
+     * left alone, so simply become part of the cache key.) The placeholders also start with a '/',
+     * so the stylesheets treat them exactly like the relative URLs that they replace.
+     */
+    static Map<String, Object> replaceUrlParameters(final Map<String, Object> xsltParameters,
+            final Map<String, String> urlPlaceholders) {
+        final Map<String, Object> result = new HashMap<String, Object>(xsltParameters);
+        for (final Entry<String, Object> paramEntry : xsltParameters.entrySet()) {
+            final String paramName = paramEntry.getKey();
+            final Object paramValue = paramEntry.getValue();
+            if (paramName.endsWith("Url") && paramValue instanceof String
+                    && SUBSTITUTABLE_URL_PATTERN.matcher((String) paramValue).matches()) {
+                final String placeholder = "/__qtiworks_url_" + paramName + "__";
+                urlPlaceholders.put(placeholder, (String) paramValue);
+                result.put(paramName, placeholder);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Substitutes the actual URLs for the placeholders recorded by
+     * {@link #replaceUrlParameters(Map, Map)} in the given rendered output.
+     */
+    private static byte[] substituteUrlPlaceholders(final AbstractRenderingRequest<?> renderingRequest,
+            final byte[] output, final Map<String, String> urlPlaceholders) {
+        if (urlPlaceholders.isEmpty()) {
+            return output;
+        }
+        final String encoding = renderingRequest.getRenderingOptions().getEncoding();
+        final Charset charset = encoding!=null ? Charset.forName(encoding) : Charsets.UTF_8;
+        String outputString = new String(output, charset);
+        for (final Entry<String, String> placeholderEntry : urlPlaceholders.entrySet()) {
+            outputString = outputString.replace(placeholderEntry.getKey(), placeholderEntry.getValue());
+        }
+        return outputString.getBytes(charset);
+    }
+
+    /**
+     * Computes a digest of everything that influences the output of the given rendering, for use
+     * as a {@link RenderedOutputCache} key.
+     *
+     * @param timingsRendered if false, then the timestamps and durations in the session state are
+     *   left out of the digest, apart from whether each timestamp is set
+     */
+    static HashCode computeOutputKey(final AbstractRenderingRequest<?> renderingRequest, final URI inputUri,
+            final URI rendererStylesheetUri, final Map<String, Object> xsltParameters, final boolean timingsRendered) {
+        final AbstractRenderingOptions renderingOptions = renderingRequest.getRenderingOptions();
+        final Hasher hasher = Hashing.sha1().newHasher();
+        putString(hasher, renderingRequest.getAssessmentContentKey());
+        putString(hasher, renderingRequest.getAssessmentResourceUri().toString());
+        putString(hasher, inputUri!=null ? inputUri.toString() : null);
+        putString(hasher, rendererStylesheetUri.toString());
+        putString(hasher, renderingOptions.getSerializationMethod().toString());
+        putString(hasher, renderingOptions.getEncoding()!=null ? renderingOptions.getEncoding() : "UTF-8");
+        for (final Entry<String, Object> paramEntry : new TreeMap<String, Object>(xsltParameters).entrySet()) {
+            final boolean sessionState = SESSION_STATE_PARAMETER_NAMES.contains(paramEntry.getKey());
+            putString(hasher, paramEntry.getKey());
+            putParameterValue(hasher, paramEntry.getValue(), sessionState && !timingsRendered);
+        }
+        return hasher.hash();
+    }
+
+    private static void putParameterValue(final Hasher hasher, final Object value, final boolean ignoreTimings) {
+        if (value instanceof Node) {
+            hasher.putByte((byte) 'N');
+            putNode(hasher, (Node) value, ignoreTimings);
+        }
+        else if (value instanceof Iterable) {
+            hasher.putByte((byte) 'I');
+            for (final Object item : (Iterable<?>) value) {
+                putParameterValue(hasher, item, ignoreTimings);
+            }
+            hasher.putByte((byte) 0);
+        }
+        else if (value!=null) {
+            hasher.putByte((byte) 'V');
+            putString(hasher, value.getClass().getName());
+            putString(hasher, value.toString());
+        }
+        else {
+            hasher.putByte((byte) 0);
+        }
+    }
+
+    private static void putNode(final Hasher hasher, final Node node, final boolean ignoreTimings) {
+        final String name = getLocalName(node);
+        hasher.putShort(node.getNodeType());
+        putString(hasher, node.getNamespaceURI());
+        putString(hasher, name);
+        if (ignoreTimings && node.getNodeType()==Node.ATTRIBUTE_NODE && SESSION_STATE_TIMESTAMP_ATTRIBUTE_NAMES.contains(name)) {
+            /* (Only whether the timestamp is set affects the output) */
+            hasher.putBoolean(!node.getNodeValue().isEmpty());
+        }
+        else {
+            putString(hasher, node.getNodeValue());
+        }
+        final NamedNodeMap attributes = node.getAttributes();
+        if (attributes!=null) {
+            /* (Attribute order is not significant, so sort them first) */
+            final Map<String, Node> sortedAttributes = new TreeMap<String, Node>();
+            for (int i=0, size=attributes.getLength(); i<size; i++) {
+                final Node attribute = attributes.item(i);
+                if (ignoreTimings && SESSION_STATE_DURATION_ATTRIBUTE_NAMES.contains(getLocalName(attribute))) {
+                    continue;
+                }
+                sortedAttributes.put("{" + attribute.getNamespaceURI() + "}" + attribute.getNodeName(), attribute);
+            }
+            hasher.putInt(sortedAttributes.size());
+            for (final Node attribute : sortedAttributes.values()) {
+                putNode(hasher, attribute, ignoreTimings);
+            }
+        }
+        if (node.getNodeType()!=Node.ATTRIBUTE_NODE) {
+            for (Node child = node.getFirstChild(); child!=null; child = child.getNextSibling()) {
+                putNode(hasher, child, ignoreTimings);
+            }
+        }
+        hasher.putByte((byte) 0);
+    }
+
+    private static String getLocalName(final Node node) {
+        return node.getLocalName()!=null ? node.getLocalName() : node.getNodeName();
+    }
+
+    private static void putString(final Hasher hasher, final String string) {
+        if (string!=null) {
+            hasher.putInt(string.length()).putString(string, Charsets.UTF_8);
+        }
+        else {
+            hasher.putInt(-1);
+        }
+    }
+
     /**
      * Invokes the transformation pipeline on the "main" assessment XML extracted from the
      * given renderingRequest, using the XSLT at the given URI and specified parameters. The result
@@ -620,11 +950,26 @@ public class AssessmentRenderer {
          * NB: I'm not bothering to set up LexicalHandlers, so comments and things like that won't
          * be passed through the pipeline. If that becomes important, change the code below to
          * support that.
+         *
+         * If using the fused pipeline, all 3 stages are performed by a single stylesheet, so the
+         * "renderer" and "serializer" below are one and the same.
          */
          /* First obtain the required compiled stylesheets. */
-        final TransformerHandler rendererTransformerHandler = stylesheetManager.getCompiledStylesheetHandler(rendererStylesheetUri, renderingRequest.getAssessmentResourceLocator());
-        final TransformerHandler mathmlTransformerHandler = stylesheetManager.getCompiledStylesheetHandler(ctopXsltUri, null);
-        final TransformerHandler serializerTransformerHandler = stylesheetManager.getCompiledStylesheetHandler(serializeXsltUri, null);
+        final TransformerHandler rendererTransformerHandler;
+        final TransformerHandler mathmlTransformerHandler;
+        final TransformerHandler serializerTransformerHandler;
+        if (fusedPipeline) {
+            rendererTransformerHandler = stylesheetManager.getCompiledStylesheetDriverHandler(Arrays.asList(fusedPipelineXsltUri, rendererStylesheetUri),
+                    renderingRequest.getAssessmentResourceLocator());
+            ((Controller) rendererTransformerHandler.getTransformer()).setInitialMode(fusedPipelineMode);
+            mathmlTransformerHandler = null;
+            serializerTransformerHandler = rendererTransformerHandler;
+        }
+        else {
+            rendererTransformerHandler = stylesheetManager.getCompiledStylesheetHandler(rendererStylesheetUri, renderingRequest.getAssessmentResourceLocator());
+            mathmlTransformerHandler = stylesheetManager.getCompiledStylesheetHandler(ctopXsltUri, null);
+            serializerTransformerHandler = stylesheetManager.getCompiledStylesheetHandler(serializeXsltUri, null);
+        }
 
         /* Pass necessary parameters to renderer */
         final Transformer rendererTransformer = rendererTransformerHandler.getTransformer();
@@ -676,9 +1021,23 @@ public class AssessmentRenderer {
             }
         }
 
+        /* If we have pre-parsed source trees, use them for the input and for any documents
+         * the rendering stylesheet loads at runtime (e.g. the test when rendering an item within it)
+         */
+        final AssessmentSourceCache assessmentSourceCache = renderingRequest.getAssessmentSourceCache();
+        final Source assessmentSourceTree = (inputUri!=null && assessmentSourceCache!=null)
+                ? getSourceTree(renderingRequest, rendererTransformer, assessmentSourceCache, inputUri) : null;
+        if (assessmentSourceTree!=null) {
+            rendererTransformer.setURIResolver(new SourceCacheUriResolver(renderingRequest, rendererTransformer,
+                    assessmentSourceCache, rendererTransformer.getURIResolver()));
+        }
+
         /* Set up the XML source */
         final InputSource assessmentSaxSource;
-        if (inputUri!=null) {
+        if (assessmentSourceTree!=null) {
+            assessmentSaxSource = null;
+        }
+        else if (inputUri!=null) {
             final ResourceLocator assessmentResourceLocator = renderingRequest.getAssessmentResourceLocator();
             final InputStream assessmentStream = assessmentResourceLocator.findResource(inputUri);
             assessmentSaxSource = new InputSource(assessmentStream);
@@ -696,21 +1055,87 @@ public class AssessmentRenderer {
          * be passed through the pipeline. If that becomes important, change the code below to
          * support that.
          */
-        serializerTransformerHandler.setResult(result);
-        final SAXResult mathmlResult = new SAXResult(serializerTransformerHandler);
-        mathmlTransformerHandler.setResult(mathmlResult);
-        final SAXResult rendererResult = new SAXResult(mathmlTransformerHandler);
+        final Result rendererResult;
+        if (fusedPipeline) {
+            rendererResult = result;
+        }
+        else {
+            serializerTransformerHandler.setResult(result);
+            final SAXResult mathmlResult = new SAXResult(serializerTransformerHandler);
+            mathmlTransformerHandler.setResult(mathmlResult);
+            rendererResult = new SAXResult(mathmlTransformerHandler);
+        }
         rendererTransformerHandler.setResult(rendererResult);
-        final XMLReader xmlReader = XmlUtilities.createNsAwareSaxReader(false);
-        xmlReader.setContentHandler(rendererTransformerHandler);
 
         /* Finally we run the pipeline */
         try {
-            xmlReader.parse(assessmentSaxSource);
+            if (assessmentSourceTree!=null) {
+                rendererTransformer.transform(assessmentSourceTree, rendererResult);
+            }
+            else {
+                final XMLReader xmlReader = XmlUtilities.createNsAwareSaxReader(false);
+                xmlReader.setContentHandler(rendererTransformerHandler);
+                xmlReader.parse(assessmentSaxSource);
+            }
         }
         catch (final Exception e) {
             logger.error("Rendering XSLT pipeline failed for request {}", renderingRequest, e);
             throw new QtiWorksRenderingException("Unexpected Exception running rendering XML pipeline", e);
         }
     }
+
+    /**
+     * Returns the pre-parsed tree for the XML resource at the given URI from the given
+     * {@link AssessmentSourceCache}, or null if the given renderer {@link Transformer} can't use it.
+     */
+    private Source getSourceTree(final AbstractRenderingRequest<?> renderingRequest, final Transformer rendererTransformer,
+            final AssessmentSourceCache assessmentSourceCache, final URI systemId) {
+        if (!(rendererTransformer instanceof Controller)) {
+            return null;
+        }
+        final Configuration rendererConfiguration = ((Controller) rendererTransformer).getConfiguration();
+        if (!rendererConfiguration.isCompatible(saxonConfiguration)) {
+            /* (Stylesheet was compiled elsewhere, e.g. found already in a shared XsltStylesheetCache) */
+            return null;
+        }
+        return assessmentSourceCache.getSourceTree(systemId, renderingRequest.getAssessmentResourceLocator(), rendererConfiguration);
+    }
+
+    /**
+     * {@link URIResolver} used at runtime by the rendering stylesheet, which returns pre-parsed
+     * trees from the {@link AssessmentSourceCache} for the assessment resource itself and anything
+     * already cached, delegating everything else.
+     */
+    private final class SourceCacheUriResolver implements URIResolver {
+
+        private final AbstractRenderingRequest<?> renderingRequest;
+        private final Transformer rendererTransformer;
+        private final AssessmentSourceCache assessmentSourceCache;
+        private final URIResolver delegate;
+
+        public SourceCacheUriResolver(final AbstractRenderingRequest<?> renderingRequest, final Transformer rendererTransformer,
+                final AssessmentSourceCache assessmentSourceCache, final URIResolver delegate) {
+            this.renderingRequest = renderingRequest;
+            this.rendererTransformer = rendererTransformer;
+            this.assessmentSourceCache = assessmentSourceCache;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Source resolve(final String href, final String base) throws TransformerException {
+            try {
+                final URI systemId = base!=null ? new URI(base).resolve(href) : new URI(href);
+                if (systemId.equals(renderingRequest.getAssessmentResourceUri()) || assessmentSourceCache.isCached(systemId)) {
+                    final Source result = getSourceTree(renderingRequest, rendererTransformer, assessmentSourceCache, systemId);
+                    if (result!=null) {
+                        return result;
+                    }
+                }
+            }
+            catch (final URISyntaxException e) {
+                /* Let the delegate deal with this */
+            }
+            return delegate!=null ? delegate.resolve(href, base) : null;
+        }
+    }
 }
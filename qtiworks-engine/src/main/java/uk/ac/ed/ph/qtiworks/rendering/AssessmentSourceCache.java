@@ -0,0 +1,235 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.rendering;
+
+import uk.ac.ed.ph.qtiworks.utils.XmlUtilities;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.transform.sax.SAXSource;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.om.Axis;
+import net.sf.saxon.om.AxisIterator;
+import net.sf.saxon.om.DocumentInfo;
+import net.sf.saxon.tinytree.TinyDocumentImpl;
+import net.sf.saxon.tinytree.TinyTree;
+import net.sf.saxon.trans.XPathException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Holds pre-parsed (Saxon) source trees for the XML resources within a single assessment
+ * package, so that the {@link AssessmentRenderer} does not need to re-read and re-parse the
+ * assessment XML each time something is rendered.
+ * <p>
+ * Trees are built lazily the first time they are requested and are then immutable, so may be
+ * shared freely between rendering threads. A tree can only be used with stylesheets compiled
+ * using a compatible Saxon {@link Configuration}; trees built under an incompatible
+ * {@link Configuration} are simply rebuilt.
+ * <p>
+ * Instances are owned by the {@link uk.ac.ed.ph.qtiworks.services.AssessmentObjectManagementService}
+ * cache, so are discarded whenever the corresponding package is purged or evicted from there.
+ * The size of the cached trees is tracked (as a count of their nodes) via {@link #getWeight()}, and
+ * an optional {@link WeightListener} is notified whenever this changes so that the owning cache
+ * can take it into account.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author David McKain
+ */
+public final class AssessmentSourceCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(AssessmentSourceCache.class);
+
+    private static final String LEXICAL_HANDLER_PROPERTY = "http://xml.org/sax/properties/lexical-handler";
+
+    /**
+     * Callback interface notified whenever the weight of an {@link AssessmentSourceCache} changes.
+     */
+    public interface WeightListener {
+
+        void weightChanged(AssessmentSourceCache assessmentSourceCache);
+
+    }
+
+    private final ConcurrentMap<URI, DocumentInfo> sourceTreeMap;
+    private final AtomicInteger weight;
+    private final WeightListener weightListener;
+
+    public AssessmentSourceCache() {
+        this(null);
+    }
+
+    /**
+     * @param weightListener optional {@link WeightListener} to be notified when the weight of this
+     *   cache changes, which may be null.
+     */
+    public AssessmentSourceCache(final WeightListener weightListener) {
+        this.sourceTreeMap = new ConcurrentHashMap<URI, DocumentInfo>();
+        this.weight = new AtomicInteger();
+        this.weightListener = weightListener;
+    }
+
+    /**
+     * Returns the source tree for the XML resource at the given URI, building it using the given
+     * {@link Configuration} and {@link ResourceLocator} if it has not already been cached.
+     *
+     * @param systemId URI of the required XML resource, which must not be null
+     * @param resourceLocator {@link ResourceLocator} used to read the resource, which must not be null
+     * @param configuration Saxon {@link Configuration} of the stylesheets that will use the tree,
+     *   which must not be null
+     *
+     * @throws QtiWorksRenderingException if the resource could not be found or parsed
+     */
+    public DocumentInfo getSourceTree(final URI systemId, final ResourceLocator resourceLocator,
+            final Configuration configuration) {
+        Assert.notNull(systemId, "systemId");
+        Assert.notNull(resourceLocator, "resourceLocator");
+        Assert.notNull(configuration, "configuration");
+        DocumentInfo result = sourceTreeMap.get(systemId);
+        if (result==null || !configuration.isCompatible(result.getConfiguration())) {
+            result = buildSourceTree(systemId, resourceLocator, configuration);
+            final DocumentInfo replaced = sourceTreeMap.put(systemId, result);
+            weight.addAndGet(estimateWeight(result) - (replaced!=null ? estimateWeight(replaced) : 0));
+            fireWeightChanged();
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether a source tree for the given URI has already been built.
+     */
+    public boolean isCached(final URI systemId) {
+        return sourceTreeMap.containsKey(systemId);
+    }
+
+    public int size() {
+        return sourceTreeMap.size();
+    }
+
+    /**
+     * Returns the total estimated size of the cached trees, measured in nodes. (This is comparable
+     * with the weight of the corresponding {@link uk.ac.ed.ph.qtiworks.services.AssessmentObjectManagementService}
+     * cache entry, which counts QTI nodes.)
+     */
+    public int getWeight() {
+        return weight.get();
+    }
+
+    public void clear() {
+        sourceTreeMap.clear();
+        weight.set(0);
+        fireWeightChanged();
+    }
+
+    private void fireWeightChanged() {
+        if (weightListener!=null) {
+            weightListener.weightChanged(this);
+        }
+    }
+
+    /**
+     * Estimates the heap footprint of the given tree by counting its nodes and attributes.
+     */
+    static int estimateWeight(final DocumentInfo sourceTree) {
+        if (sourceTree instanceof TinyDocumentImpl) {
+            final TinyTree tinyTree = ((TinyDocumentImpl) sourceTree).getTree();
+            return tinyTree.getNumberOfNodes() + tinyTree.getNumberOfAttributes();
+        }
+        int result = 1;
+        final AxisIterator descendants = sourceTree.iterateAxis(Axis.DESCENDANT);
+        while (descendants.next()!=null) {
+            result++;
+        }
+        return result;
+    }
+
+    private static DocumentInfo buildSourceTree(final URI systemId, final ResourceLocator resourceLocator,
+            final Configuration configuration) {
+        logger.debug("Building source tree for {}", systemId);
+        final InputStream resourceStream = resourceLocator.findResource(systemId);
+        if (resourceStream==null) {
+            throw new QtiWorksRenderingException("Could not locate assessment resource at " + systemId);
+        }
+        final InputSource inputSource = new InputSource(resourceStream);
+        inputSource.setSystemId(systemId.toString());
+        try {
+            return configuration.buildDocument(new SAXSource(createXmlReader(), inputSource));
+        }
+        catch (final XPathException e) {
+            throw new QtiWorksRenderingException("Could not build source tree for " + systemId, e);
+        }
+    }
+
+    /**
+     * Creates the {@link XMLReader} used to parse resources. This is configured in the same way
+     * as the parser the {@link AssessmentRenderer} uses when streaming, and likewise does not
+     * report comments and other lexical events, so the resulting tree looks exactly like what
+     * the rendering stylesheets would otherwise have seen.
+     */
+    private static XMLReader createXmlReader() {
+        return new XMLFilterImpl(XmlUtilities.createNsAwareSaxReader(false)) {
+            @Override
+            public void setProperty(final String name, final Object value)
+                    throws SAXNotRecognizedException, SAXNotSupportedException {
+                if (LEXICAL_HANDLER_PROPERTY.equals(name)) {
+                    throw new SAXNotSupportedException(name);
+                }
+                super.setProperty(name, value);
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                + "(size=" + sourceTreeMap.size()
+                + ",weight=" + weight.get()
+                + ")";
+    }
+}
@@ -0,0 +1,183 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.rendering;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.HashCode;
+
+/**
+ * Content-addressed cache of rendered output, used by the {@link AssessmentRenderer} for views
+ * that are pure functions of their inputs (e.g. item solutions and reviews).
+ * <p>
+ * Entries are keyed on a digest of everything that influences the output, so never need to
+ * be invalidated explicitly. The cache is bounded by the total size (in bytes) of the output
+ * held in it, evicting the least recently used entries as required.
+ *
+ * This class is thread-safe.
+ *
+ * @author David McKain
+ */
+public final class RenderedOutputCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(RenderedOutputCache.class);
+
+    private final long cacheMaxWeight;
+    private final Cache<HashCode, byte[]> cache;
+    private final AtomicLong cacheHitCount;
+    private final AtomicLong cacheMissCount;
+    private final AtomicLong cachePurgeCount;
+
+    /**
+     * @param cacheMaxWeight maximum total size of the cached output, in bytes. A value of 0 or
+     *   less disables the cache.
+     */
+    public RenderedOutputCache(final long cacheMaxWeight) {
+        this.cacheMaxWeight = cacheMaxWeight;
+        this.cacheHitCount = new AtomicLong();
+        this.cacheMissCount = new AtomicLong();
+        this.cachePurgeCount = new AtomicLong();
+        if (cacheMaxWeight > 0) {
+            this.cache = CacheBuilder.newBuilder()
+                    .maximumWeight(cacheMaxWeight)
+                    .weigher(new Weigher<HashCode, byte[]>() {
+                        @Override
+                        public int weigh(final HashCode key, final byte[] output) {
+                            return output.length;
+                        }
+                    })
+                    .removalListener(new RemovalListener<HashCode, byte[]>() {
+                        @Override
+                        public void onRemoval(final RemovalNotification<HashCode, byte[]> notification) {
+                            if (notification.wasEvicted()) {
+                                cachePurgeCount.incrementAndGet();
+                            }
+                        }
+                    })
+                    .build();
+            logger.info("Rendered output cache initialised with maximum weight {} bytes", Long.valueOf(cacheMaxWeight));
+        }
+        else {
+            this.cache = null;
+            logger.info("Rendered output cache is disabled");
+        }
+    }
+
+    public boolean isEnabled() {
+        return cache!=null;
+    }
+
+    /**
+     * Returns the output cached under the given key, or null if there is no such output
+     * (or if this cache is disabled). Callers must not modify the result.
+     */
+    public byte[] getOutput(final HashCode key) {
+        if (cache==null) {
+            return null;
+        }
+        final byte[] result = cache.getIfPresent(key);
+        if (result!=null) {
+            cacheHitCount.incrementAndGet();
+        }
+        else {
+            cacheMissCount.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Caches the given output under the given key. Does nothing if this cache is disabled.
+     * Callers must not modify the output afterwards.
+     */
+    public void putOutput(final HashCode key, final byte[] output) {
+        if (cache!=null) {
+            cache.put(key, output);
+        }
+    }
+
+    public void clear() {
+        if (cache!=null) {
+            cache.invalidateAll();
+        }
+    }
+
+    //----------------------------------------------------
+    // Reporting
+
+    public int getCacheUsage() {
+        return cache!=null ? (int) cache.size() : 0;
+    }
+
+    public long getCacheWeight() {
+        long weight = 0L;
+        if (cache!=null) {
+            for (final byte[] output : cache.asMap().values()) {
+                weight += output.length;
+            }
+        }
+        return weight;
+    }
+
+    public long getCacheMaxWeight() {
+        return cacheMaxWeight;
+    }
+
+    public long getCacheHitCount() {
+        return cacheHitCount.get();
+    }
+
+    public long getCacheMissCount() {
+        return cacheMissCount.get();
+    }
+
+    public long getCachePurgeCount() {
+        return cachePurgeCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                + "(cacheMaxWeight=" + cacheMaxWeight
+                + ",cacheUsage=" + getCacheUsage()
+                + ")";
+    }
+}
@@ -39,6 +39,8 @@ import uk.ac.ed.ph.qtiworks.utils.XmlUtilities;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 
 import javax.xml.parsers.DocumentBuilder;
 
@@ -100,4 +102,16 @@ public final class XsltParamBuilder {
          }
         return result;
     }
+
+    public List<Node> assetUrlsToElements(final Map<String, String> assetUrls) {
+        final ArrayList<Node> result = new ArrayList<Node>();
+        final Document doc = documentBuilder.newDocument();
+        for (final Entry<String, String> entry : assetUrls.entrySet()) {
+            final Element element = doc.createElementNS(QTIWORKS_NAMESPACE, "asset");
+            element.setAttribute("href", entry.getKey());
+            element.setAttribute("url", entry.getValue());
+            result.add(element);
+        }
+        return result;
+    }
 }
@@ -139,6 +139,9 @@ public class AssessmentManagementService {
     @Resource
     private CandidateSessionOutcomeDao candidateSessionOutcomeDao;
 
+    @Resource
+    private CandidateSessionOutcomeRecorder candidateSessionOutcomeRecorder;
+
     @Resource
     private RequestTimestampContext requestTimestampContext;
 
@@ -915,6 +918,7 @@ public class AssessmentManagementService {
             candidateSessionDao.update(candidateSession);
             if (deleteOutcomes) {
                 candidateSessionOutcomeDao.deleteForCandidateSession(candidateSession);
+                candidateSessionOutcomeRecorder.forgetSession(candidateSession);
             }
         }
         return nonTerminatedCandidateSessions.size();
@@ -33,34 +33,66 @@
  */
 package uk.ac.ed.ph.qtiworks.services;
 
+import uk.ac.ed.ph.qtiworks.QtiWorksLogicException;
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
 import uk.ac.ed.ph.qtiworks.domain.entities.AssessmentPackage;
-import uk.ac.ed.ph.qtiworks.utils.LruHashMap;
+import uk.ac.ed.ph.qtiworks.rendering.AssessmentSourceCache;
+import uk.ac.ed.ph.qtiworks.rendering.AssessmentSourceCache.WeightListener;
 
 import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
 import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
+import uk.ac.ed.ph.jqtiplus.node.QtiNode;
 import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentItem;
 import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentTest;
+import uk.ac.ed.ph.jqtiplus.resolution.RootNodeLookup;
 import uk.ac.ed.ph.jqtiplus.running.ItemProcessingInitializer;
 import uk.ac.ed.ph.jqtiplus.running.TestProcessingInitializer;
 import uk.ac.ed.ph.jqtiplus.state.ItemProcessingMap;
 import uk.ac.ed.ph.jqtiplus.state.TestProcessingMap;
+import uk.ac.ed.ph.jqtiplus.utils.QueryUtils;
+import uk.ac.ed.ph.jqtiplus.utils.TreeWalkNodeHandler;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
 /**
  * Middle layer service responsible for instantiating and caching {@link ItemProcessingMap}
  * and {@link TestProcessingMap} Objects.
  * <p>
+ * Each cache entry also owns an {@link AssessmentSourceCache} holding the pre-parsed XML used
+ * when rendering the package, so that this is discarded along with the processing map. The
+ * trees in there are included in the weight of the entry, which is recomputed each time a new
+ * tree is added.
+ * <p>
  * This is NO authorisation at this level.
+ * <p>
+ * The cache is keyed on {@link AssessmentPackage} ID and is safe for concurrent use. Only one
+ * thread will ever read and resolve a given {@link AssessmentPackage}; other threads wanting
+ * the same package wait for that thread, while threads wanting other packages are not held up.
+ * Entries are evicted once the estimated size of the cache (measured in {@link QtiNode}s)
+ * exceeds the configured maximum, and may optionally be expired after a period of disuse.
  *
- * FIXME: For the time being, we'll use an {@link LruHashMap}, though this is probably not the best choice.
+ * @see QtiWorksDeploymentSettings#getAssessmentObjectCacheMaxWeight()
+ * @see QtiWorksDeploymentSettings#getAssessmentObjectCacheExpiry()
  *
  * @author David McKain
  */
@@ -69,18 +101,52 @@ public class AssessmentObjectManagementService {
 
     private static final Logger logger = LoggerFactory.getLogger(AssessmentObjectManagementService.class);
 
-    private int cacheMissCount;
-    private int cacheHitCount;
+    @Resource
+    private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
 
     @Resource
     private AssessmentPackageFileService assessmentPackageFileService;
 
-    private final LruHashMap<Long, Object> cache;
+    private final AtomicInteger cacheMissCount;
+    private final AtomicInteger cacheHitCount;
+    private final AtomicInteger cachePurgeCount;
+
+    private long cacheMaxWeight;
+    private Cache<Long, CacheEntry> cache;
 
     public AssessmentObjectManagementService() {
-        this.cache = new LruHashMap<Long, Object>();
-        this.cacheMissCount = 0;
-        this.cacheHitCount = 0;
+        this.cacheMissCount = new AtomicInteger();
+        this.cacheHitCount = new AtomicInteger();
+        this.cachePurgeCount = new AtomicInteger();
+    }
+
+    @PostConstruct
+    public void init() {
+        final CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder();
+        cacheMaxWeight = qtiWorksDeploymentSettings.getAssessmentObjectCacheMaxWeight();
+        if (cacheMaxWeight > 0) {
+            cacheBuilder.maximumWeight(cacheMaxWeight).weigher(new Weigher<Long, CacheEntry>() {
+                @Override
+                public int weigh(final Long apid, final CacheEntry cacheEntry) {
+                    return cacheEntry.getWeight();
+                }
+            });
+        }
+        final int cacheExpiry = qtiWorksDeploymentSettings.getAssessmentObjectCacheExpiry();
+        if (cacheExpiry > 0) {
+            cacheBuilder.expireAfterAccess(cacheExpiry, TimeUnit.MINUTES);
+        }
+        cache = cacheBuilder.removalListener(new RemovalListener<Long, CacheEntry>() {
+            @Override
+            public void onRemoval(final RemovalNotification<Long, CacheEntry> notification) {
+                if (notification.wasEvicted()) {
+                    logger.debug("Evicted package #{} from cache ({})", notification.getKey(), notification.getCause());
+                    cachePurgeCount.incrementAndGet();
+                }
+            }
+        }).build();
+        logger.info("Assessment object cache initialised with maximum weight {} and expiry {} minute(s)",
+                Long.valueOf(cacheMaxWeight), Integer.valueOf(cacheExpiry));
     }
 
     /**
@@ -89,28 +155,14 @@ public class AssessmentObjectManagementService {
      */
     public ItemProcessingMap getItemProcessingMap(final AssessmentPackage assessmentPackage) {
         Assert.notNull(assessmentPackage, "assessmentPackage");
-        final Long apid = assessmentPackage.getId();
-        ItemProcessingMap result = null;
-        synchronized (cache) {
-            if (cache.containsKey(apid)) {
-                logger.debug("Cache HIT for package #{}", apid);
-                result = (ItemProcessingMap) cache.get(apid);
-                cacheHitCount++;
+        return (ItemProcessingMap) getCachedProcessingMap(assessmentPackage, new CacheEntryLoader(assessmentPackage) {
+            @Override
+            protected CacheEntry createCacheEntry() {
+                final ResolvedAssessmentItem resolvedAssessmentItem = assessmentPackageFileService.loadAndResolveAssessmentObject(assessmentPackage);
+                final ItemProcessingMap itemProcessingMap = new ItemProcessingInitializer(resolvedAssessmentItem, assessmentPackage.isValid()).initialize();
+                return new CacheEntry(assessmentPackage.getId(), itemProcessingMap, estimateWeight(resolvedAssessmentItem));
             }
-            else {
-                logger.debug("Cache MISS for package #{}. Reading and resolving XML", apid);
-                cacheMissCount++;
-                try {
-                    final ResolvedAssessmentItem resolvedAssessmentItem = assessmentPackageFileService.loadAndResolveAssessmentObject(assessmentPackage);
-                    result = new ItemProcessingInitializer(resolvedAssessmentItem, assessmentPackage.isValid()).initialize();
-                }
-                catch (final RuntimeException e) {
-                    logger.info("Failed to create ItemProcessingMap for package #{}", apid);
-                }
-                cache.put(apid, result);
-            }
-        }
-        return result;
+        });
     }
 
     /**
@@ -119,38 +171,158 @@ public class AssessmentObjectManagementService {
      */
     public TestProcessingMap getTestProcessingMap(final AssessmentPackage assessmentPackage) {
         Assert.notNull(assessmentPackage, "assessmentPackage");
-        final Long apid = assessmentPackage.getId();
-        TestProcessingMap result = null;
-        synchronized (cache) {
-            if (cache.containsKey(apid)) {
-                logger.debug("Cache HIT for package #{}", apid);
-                result = (TestProcessingMap) cache.get(apid);
-                cacheHitCount++;
-            }
-            else {
-                logger.debug("Cache MISS for package #{}. Reading and resolving XML", apid);
-                cacheMissCount++;
-                try {
-                    final ResolvedAssessmentTest resolvedAssessmentTest = assessmentPackageFileService.loadAndResolveAssessmentObject(assessmentPackage);
-                    result = new TestProcessingInitializer(resolvedAssessmentTest, assessmentPackage.isValid()).initialize();
+        return (TestProcessingMap) getCachedProcessingMap(assessmentPackage, new CacheEntryLoader(assessmentPackage) {
+            @Override
+            protected CacheEntry createCacheEntry() {
+                final ResolvedAssessmentTest resolvedAssessmentTest = assessmentPackageFileService.loadAndResolveAssessmentObject(assessmentPackage);
+                final TestProcessingMap testProcessingMap = new TestProcessingInitializer(resolvedAssessmentTest, assessmentPackage.isValid()).initialize();
+                int weight = estimateWeight(resolvedAssessmentTest.getTestLookup());
+                for (final ResolvedAssessmentItem resolvedAssessmentItem : resolvedAssessmentTest.getResolvedAssessmentItemBySystemIdMap().values()) {
+                    weight += estimateWeight(resolvedAssessmentItem);
                 }
-                catch (final RuntimeException e) {
-                    logger.info("Failed to create TestProcessingMap for package #{}", apid);
-                }
-                cache.put(apid, result);
+                return new CacheEntry(assessmentPackage.getId(), testProcessingMap, weight);
             }
+        });
+    }
+
+    private Object getCachedProcessingMap(final AssessmentPackage assessmentPackage, final CacheEntryLoader loader) {
+        final Long apid = assessmentPackage.getId();
+        final CacheEntry cacheEntry;
+        try {
+            cacheEntry = cache.get(apid, loader);
+        }
+        catch (final ExecutionException e) {
+            throw QtiWorksLogicException.unexpectedException(e.getCause());
         }
-        return result;
+        if (!loader.hasRun()) {
+            logger.debug("Cache HIT for package #{}", apid);
+            cacheHitCount.incrementAndGet();
+        }
+        return cacheEntry.getProcessingMap();
+    }
+
+    /**
+     * Returns the {@link AssessmentSourceCache} for the given {@link AssessmentPackage}, or null
+     * if the package is not currently cached here.
+     */
+    public AssessmentSourceCache getAssessmentSourceCache(final AssessmentPackage assessmentPackage) {
+        Assert.notNull(assessmentPackage, "assessmentPackage");
+        final CacheEntry cacheEntry = cache.getIfPresent(assessmentPackage.getId());
+        return cacheEntry!=null ? cacheEntry.getAssessmentSourceCache() : null;
     }
 
     public void purge(final AssessmentPackage assessmentPackage) {
         Assert.notNull(assessmentPackage, "assessmentPackage");
         final Long apid = assessmentPackage.getId();
-        synchronized (cache) {
-            if (cache.containsKey(apid)) {
-                cache.remove(apid);
-                logger.debug("Actively purged package #{}", assessmentPackage);
+        if (cache.asMap().remove(apid)!=null) {
+            logger.debug("Actively purged package #{}", assessmentPackage);
+        }
+    }
+
+    /**
+     * Puts the cache entry for the given package back into the cache so that its weight is
+     * recomputed, which is required after the size of its {@link AssessmentSourceCache} changes.
+     */
+    private void reweigh(final Long apid) {
+        final CacheEntry cacheEntry = cache.asMap().get(apid);
+        if (cacheEntry!=null) {
+            cache.asMap().replace(apid, cacheEntry, cacheEntry);
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    // Helpers
+
+    /**
+     * Base for the {@link Callable} used to fill the cache on a MISS. Failures are
+     * logged and result in a (cached) null processing map, as before.
+     */
+    private abstract class CacheEntryLoader implements Callable<CacheEntry> {
+
+        private final AssessmentPackage assessmentPackage;
+        private volatile boolean hasRun;
+
+        public CacheEntryLoader(final AssessmentPackage assessmentPackage) {
+            this.assessmentPackage = assessmentPackage;
+        }
+
+        public boolean hasRun() {
+            return hasRun;
+        }
+
+        @Override
+        public CacheEntry call() {
+            hasRun = true;
+            final Long apid = assessmentPackage.getId();
+            logger.debug("Cache MISS for package #{}. Reading and resolving XML", apid);
+            cacheMissCount.incrementAndGet();
+            try {
+                return createCacheEntry();
+            }
+            catch (final RuntimeException e) {
+                logger.info("Failed to create processing map for package #{}", apid);
+                return new CacheEntry(apid, null, 1);
+            }
+        }
+
+        protected abstract CacheEntry createCacheEntry();
+    }
+
+    private static int estimateWeight(final ResolvedAssessmentItem resolvedAssessmentItem) {
+        return estimateWeight(resolvedAssessmentItem.getItemLookup())
+                + estimateWeight(resolvedAssessmentItem.getResolvedResponseProcessingTemplateLookup());
+    }
+
+    /**
+     * Estimates the heap footprint of the given (successfully looked up) QTI Object by counting
+     * the number of {@link QtiNode}s within it.
+     */
+    private static int estimateWeight(final RootNodeLookup<?> rootNodeLookup) {
+        if (rootNodeLookup==null || !rootNodeLookup.wasSuccessful()) {
+            return 1;
+        }
+        final int[] nodeCount = new int[] { 0 };
+        QueryUtils.walkTree(new TreeWalkNodeHandler() {
+            @Override
+            public boolean handleNode(final QtiNode node) {
+                nodeCount[0]++;
+                return true;
             }
+        }, Collections.singletonList(rootNodeLookup.extractAssumingSuccessful()));
+        return nodeCount[0];
+    }
+
+    /**
+     * Holds the cached processing map (which may be null), its estimated weight and the
+     * {@link AssessmentSourceCache} for the package.
+     */
+    private final class CacheEntry {
+
+        private final Object processingMap;
+        private final int processingMapWeight;
+        private final AssessmentSourceCache assessmentSourceCache;
+
+        public CacheEntry(final Long apid, final Object processingMap, final int processingMapWeight) {
+            this.processingMap = processingMap;
+            this.processingMapWeight = processingMapWeight;
+            this.assessmentSourceCache = new AssessmentSourceCache(new WeightListener() {
+                @Override
+                public void weightChanged(final AssessmentSourceCache changedCache) {
+                    reweigh(apid);
+                }
+            });
+        }
+
+        public Object getProcessingMap() {
+            return processingMap;
+        }
+
+        public AssessmentSourceCache getAssessmentSourceCache() {
+            return assessmentSourceCache;
+        }
+
+        public int getWeight() {
+            return processingMapWeight + assessmentSourceCache.getWeight();
         }
     }
 
@@ -158,27 +330,39 @@ public class AssessmentObjectManagementService {
     // Reporting
 
     public int getCacheUsage() {
-        return cache.size();
+        return (int) cache.size();
     }
 
-    public int getCacheMaxSize() {
-        return cache.getMaxSize();
+    public long getCacheWeight() {
+        long weight = 0L;
+        for (final CacheEntry cacheEntry : cache.asMap().values()) {
+            weight += cacheEntry.getWeight();
+        }
+        return weight;
+    }
+
+    public long getCacheMaxWeight() {
+        return cacheMaxWeight;
     }
 
     public int getCacheMissCount() {
-        return cacheMissCount;
+        return cacheMissCount.get();
     }
 
     public int getCacheHitCount() {
-        return cacheHitCount;
+        return cacheHitCount.get();
     }
 
     public int getCachePurgeCount() {
-        return cache.getPurgeCount();
+        return cachePurgeCount.get();
     }
 
     public Map<Long, Object> getCacheView() {
-        return Collections.unmodifiableMap(cache);
+        final Map<Long, Object> result = new HashMap<Long, Object>();
+        for (final Entry<Long, CacheEntry> entry : cache.asMap().entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getProcessingMap());
+        }
+        return Collections.unmodifiableMap(result);
     }
 
     @Override
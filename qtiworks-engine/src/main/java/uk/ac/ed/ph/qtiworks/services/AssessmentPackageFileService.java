@@ -35,11 +35,13 @@ package uk.ac.ed.ph.qtiworks.services;
 
 import uk.ac.ed.ph.qtiworks.QtiWorksLogicException;
 import uk.ac.ed.ph.qtiworks.QtiWorksRuntimeException;
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
 import uk.ac.ed.ph.qtiworks.domain.DomainConstants;
 import uk.ac.ed.ph.qtiworks.domain.entities.AssessmentPackage;
 import uk.ac.ed.ph.qtiworks.domain.entities.AssessmentPackageImportType;
 import uk.ac.ed.ph.qtiworks.domain.entities.User;
 import uk.ac.ed.ph.qtiworks.samples.QtiSampleAssessment;
+import uk.ac.ed.ph.qtiworks.services.SampleFileCache.SampleFile;
 import uk.ac.ed.ph.qtiworks.services.domain.AssessmentPackageDataImportException;
 import uk.ac.ed.ph.qtiworks.services.domain.OutputStreamer;
 
@@ -63,13 +65,22 @@ import uk.ac.ed.ph.jqtiplus.xmlutils.locators.FileSandboxResourceLocator;
 import uk.ac.ed.ph.jqtiplus.xmlutils.locators.NetworkHttpResourceLocator;
 import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.activation.FileTypeMap;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 
 import org.slf4j.Logger;
@@ -79,6 +90,14 @@ import org.springframework.util.Assert;
 import org.springframework.web.multipart.MultipartFile;
 import org.w3c.dom.Document;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
  * Provides read-only access (and related services) to {@link AssessmentPackage} files.
  * <p>
@@ -100,6 +119,12 @@ public class AssessmentPackageFileService {
     /** Default title for assessment if it can't be extracted from the XML */
     private static final String DEFAULT_IMPORT_TITLE = "Assessment";
 
+    /** Maximum number of {@link AssessmentPackage}s whose file digests we will keep cached */
+    private static final int FILE_DIGEST_CACHE_SIZE = 1000;
+
+    @Resource
+    private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
+
     @Resource
     private AssessmentPackageFileImporter assessmentPackageFileImporter;
 
@@ -112,6 +137,9 @@ public class AssessmentPackageFileService {
     @Resource
     private FileTypeMap fileTypeMap;
 
+    @Resource
+    private SampleFileCache sampleFileCache;
+
     /**
      * {@link ResourceLocator} for reading in sample assessment resources. These are bundled
      * within the ClassPath in a fixed way.
@@ -124,6 +152,18 @@ public class AssessmentPackageFileService {
      */
     private final ResourceLocator sampleResolvingResourceLocator;
 
+    /**
+     * Cache of the content digests of the safe files within each {@link AssessmentPackage},
+     * keyed on package ID. (No invalidation is required since packages never change.)
+     */
+    private final Cache<Long, Map<String, String>> fileDigestCache;
+
+    /**
+     * Used to resolve the items within large tests in parallel, if enabled. (This is null if
+     * items are to be resolved sequentially.)
+     */
+    private ExecutorService itemResolutionExecutor;
+
     public AssessmentPackageFileService() {
         this.classPathResourceLocator = new ClassPathResourceLocator();
         this.sampleResolvingResourceLocator = new ChainedResourceLocator(
@@ -131,6 +171,29 @@ public class AssessmentPackageFileService {
                 QtiXmlReader.JQTIPLUS_PARSER_RESOURCE_LOCATOR /* (to resolve internal HTTP resources, e.g. RP templates) */
                 /* (No resolution of external resources, since the samples are all self-contained) */
         );
+        this.fileDigestCache = CacheBuilder.newBuilder()
+                .maximumSize(FILE_DIGEST_CACHE_SIZE)
+                .build();
+    }
+
+    @PostConstruct
+    public void init() {
+        final int threadCount = qtiWorksDeploymentSettings.getItemResolutionThreadCount();
+        if (threadCount > 0) {
+            logger.info("Resolving test items in parallel using {} threads", threadCount);
+            itemResolutionExecutor = Executors.newFixedThreadPool(threadCount,
+                    new ThreadFactoryBuilder()
+                        .setNameFormat("ItemResolver-%d")
+                        .setDaemon(true)
+                        .build());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (itemResolutionExecutor!=null) {
+            itemResolutionExecutor.shutdownNow();
+        }
     }
 
     //-------------------------------------------------
@@ -329,7 +392,8 @@ public class AssessmentPackageFileService {
     E loadAndResolveAssessmentObject(final AssessmentPackage assessmentPackage) {
         final ResourceLocator inputResourceLocator = createResolvingResourceLocator(assessmentPackage);
         final URI assessmentObjectSystemId = createAssessmentObjectUri(assessmentPackage);
-        final AssessmentObjectXmlLoader assessmentObjectXmlLoader = new AssessmentObjectXmlLoader(qtiXmlReader, inputResourceLocator);
+        final AssessmentObjectXmlLoader assessmentObjectXmlLoader = new AssessmentObjectXmlLoader(qtiXmlReader, inputResourceLocator,
+                itemResolutionExecutor);
         final AssessmentObjectType assessmentObjectType = assessmentPackage.getAssessmentType();
         E result;
         if (assessmentObjectType==AssessmentObjectType.ASSESSMENT_ITEM) {
@@ -355,7 +419,8 @@ public class AssessmentPackageFileService {
         Assert.notNull(assessmentPackage, "assessmentPackage");
         final ResourceLocator inputResourceLocator = createResolvingResourceLocator(assessmentPackage);
         final URI assessmentObjectSystemId = createAssessmentObjectUri(assessmentPackage);
-        final AssessmentObjectXmlLoader assessmentObjectXmlLoader = new AssessmentObjectXmlLoader(qtiXmlReader, inputResourceLocator);
+        final AssessmentObjectXmlLoader assessmentObjectXmlLoader = new AssessmentObjectXmlLoader(qtiXmlReader, inputResourceLocator,
+                itemResolutionExecutor);
         final AssessmentObjectType assessmentObjectType = assessmentPackage.getAssessmentType();
         E result;
         if (assessmentObjectType==AssessmentObjectType.ASSESSMENT_ITEM) {
@@ -379,6 +444,83 @@ public class AssessmentPackageFileService {
 
     //-------------------------------------------------
 
+    /**
+     * Returns an unmodifiable Map of the safe file hrefs within the given {@link AssessmentPackage}
+     * to hex-encoded SHA-256 digests of their content. These are suitable for building
+     * content-addressed URLs for these files that can be shared between candidates and cached
+     * indefinitely.
+     * <p>
+     * The digests are computed once per package and then cached. (This is safe since packages
+     * never change - they get replaced.)
+     *
+     * @param assessmentPackage package to use, which must not be null.
+     */
+    public Map<String, String> getAssessmentPackageFileDigests(final AssessmentPackage assessmentPackage) {
+        Assert.notNull(assessmentPackage, "assessmentPackage");
+        final Long apid = assessmentPackage.getId();
+        if (apid==null) {
+            /* (Package not persisted yet, so don't cache) */
+            return computeAssessmentPackageFileDigests(assessmentPackage);
+        }
+        Map<String, String> result = fileDigestCache.getIfPresent(apid);
+        if (result==null) {
+            result = computeAssessmentPackageFileDigests(assessmentPackage);
+            fileDigestCache.put(apid, result);
+        }
+        return result;
+    }
+
+    /**
+     * Finds the safe file href within the given {@link AssessmentPackage} whose content has
+     * the given digest, as computed by {@link #getAssessmentPackageFileDigests(AssessmentPackage)}.
+     *
+     * @return matching file href, or null if no such file exists in the package.
+     */
+    public String findSafeFileHrefByDigest(final AssessmentPackage assessmentPackage, final String digest) {
+        Assert.notNull(digest, "digest");
+        for (final Entry<String, String> entry : getAssessmentPackageFileDigests(assessmentPackage).entrySet()) {
+            if (entry.getValue().equals(digest)) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    private Map<String, String> computeAssessmentPackageFileDigests(final AssessmentPackage assessmentPackage) {
+        final ResourceLocator packageFileResourceLocator = createPackageFileResourceLocator(assessmentPackage);
+        final boolean isBundledSample = assessmentPackage.getImportType()==AssessmentPackageImportType.BUNDLED_SAMPLE;
+        final Map<String, String> result = new HashMap<String, String>();
+        for (final String safeFileHref : assessmentPackage.getSafeFileHrefs()) {
+            final SampleFile sampleFile = isBundledSample ? sampleFileCache.getSampleFile(safeFileHref) : null;
+            if (sampleFile!=null) {
+                /* (Digest has already been computed) */
+                result.put(safeFileHref, sampleFile.getDigest());
+                continue;
+            }
+            final URI fileUri = createAssessmentFileUri(assessmentPackage, safeFileHref);
+            final InputStream fileStream = packageFileResourceLocator.findResource(fileUri);
+            if (fileStream==null) {
+                logger.warn("Safe file with href {} in package {} yielded null lookup", safeFileHref, assessmentPackage);
+                continue;
+            }
+            try {
+                final Hasher hasher = Hashing.sha256().newHasher();
+                ByteStreams.copy(fileStream, Funnels.asOutputStream(hasher));
+                result.put(safeFileHref, hasher.hash().toString());
+            }
+            catch (final IOException e) {
+                throw new QtiWorksRuntimeException("Unexpected Exception computing digest of file with href "
+                        + safeFileHref + " in package " + assessmentPackage, e);
+            }
+            finally {
+                ServiceUtilities.ensureClose(fileStream);
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    //-------------------------------------------------
+
     /**
      * Streams the source of the given {@link AssessmentPackage} to the required {@link OutputStreamer}
      *
@@ -402,43 +544,38 @@ public class AssessmentPackageFileService {
     public void streamAssessmentPackageFile(final AssessmentPackage assessmentPackage,
             final String fileHref, final OutputStreamer outputStreamer)
             throws IOException {
-        final String contentType = getResourceContentType(fileHref);
+        final SampleFile sampleFile = assessmentPackage.getImportType()==AssessmentPackageImportType.BUNDLED_SAMPLE
+                ? sampleFileCache.getSampleFile(fileHref) : null;
+        final String contentType = sampleFile!=null ? sampleFile.getContentType() : getResourceContentType(fileHref);
         streamAssessmentPackageFile(assessmentPackage, fileHref, contentType, outputStreamer);
     }
 
     private void streamAssessmentPackageFile(final AssessmentPackage assessmentPackage, final String fileHref,
             final String contentType, final OutputStreamer outputStreamer)
             throws IOException {
-        /* Compute a suitable entity tag */
         final Date lastModifiedTime = assessmentPackage.getCreationTime(); /* (Safe since packages never change - they get replaced) */
         if (assessmentPackage.getImportType()==AssessmentPackageImportType.BUNDLED_SAMPLE) {
-            /* Bundled sample lives in the ClassPath.
-             * We'll copy it to a temp File for serving
-             */
-            final File tempFile = filespaceManager.createTempFile();
-            try {
+            /* Bundled sample lives in the ClassPath. We'll serve it from memory */
+            final SampleFile sampleFile = sampleFileCache.getSampleFile(fileHref);
+            if (sampleFile!=null) {
+                outputStreamer.stream(contentType, sampleFile.getContentLength(), lastModifiedTime, sampleFile.openStream());
+            }
+            else {
+                /* Not cached, so read it in first */
                 final URI fileClassPathSystemId = QtiSampleAssessment.toClassPathUri(fileHref);
                 final InputStream sampleFileStream = classPathResourceLocator.findResource(fileClassPathSystemId);
                 if (sampleFileStream==null) {
                     throw new QtiWorksRuntimeException("Sample AssessmentPackage file with href " + fileHref
                             + " yielded null lookup. The sample bootstrap process may need to be redone.");
                 }
+                final byte[] content;
                 try {
-                    ServiceUtilities.copyInputStreamToFile(sampleFileStream, tempFile);
-                }
-                catch (final IOException e) {
-                    throw new QtiWorksRuntimeException("Sample AssessmentPackage file with href " + fileHref
-                            + " yielded null lookup. The sample bootstrap process may need to be redone.");
+                    content = ByteStreams.toByteArray(sampleFileStream);
                 }
                 finally {
                     ServiceUtilities.ensureClose(sampleFileStream);
                 }
-                ServiceUtilities.streamFile(tempFile, contentType, lastModifiedTime, outputStreamer);
-            }
-            finally {
-                if (!tempFile.delete()) {
-                    logger.warn("Could not delete temp file {}", tempFile);
-                }
+                outputStreamer.stream(contentType, content.length, lastModifiedTime, new ByteArrayInputStream(content));
             }
         }
         else {
@@ -33,6 +33,8 @@
  */
 package uk.ac.ed.ph.qtiworks.services;
 
+import uk.ac.ed.ph.qtiworks.QtiWorksLogicException;
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
 import uk.ac.ed.ph.qtiworks.domain.DomainEntityNotFoundException;
 import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEvent;
 import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
@@ -57,27 +59,32 @@ import uk.ac.ed.ph.jqtiplus.value.Cardinality;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.TreeMap;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.csvreader.CsvWriter;
 import com.google.common.base.Charsets;
+import com.google.common.io.ByteSource;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Middle tier service for reporting on assessment deliveries and candidate sessions.
@@ -90,6 +97,20 @@ import com.google.common.io.Files;
 @Transactional(readOnly=false, propagation=Propagation.REQUIRED)
 public class AssessmentReportingService {
 
+    private static final Logger logger = LoggerFactory.getLogger(AssessmentReportingService.class);
+
+    /** Number of candidate sessions handled at a time when reporting on a whole delivery */
+    private static final int REPORT_PAGE_SIZE = 200;
+
+    /** Number of ZIP entries that may be waiting to be compressed or written out per compression Thread */
+    private static final int ZIP_PENDING_ENTRIES_PER_THREAD = 4;
+
+    /** Minimum time (in ms) between logging progress when exporting ZIP files */
+    private static final long ZIP_PROGRESS_INTERVAL = 5000L;
+
+    @Resource
+    private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
+
     @Resource
     private AuditLogger auditLogger;
 
@@ -108,6 +129,23 @@ public class AssessmentReportingService {
     @Resource
     private CandidateSessionOutcomeDao candidateSessionOutcomeDao;
 
+    /** Used to compress ZIP entries in parallel */
+    private ExecutorService zipCompressionExecutor;
+
+    @PostConstruct
+    public void init() {
+        zipCompressionExecutor = Executors.newFixedThreadPool(qtiWorksDeploymentSettings.getReportZipThreadCount(),
+                new ThreadFactoryBuilder()
+                    .setNameFormat("ReportZipCompressor-%d")
+                    .setDaemon(true)
+                    .build());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        zipCompressionExecutor.shutdownNow();
+    }
+
     //-------------------------------------------------
 
     public CandidateSession lookupCandidateSession(final long xid)
@@ -251,65 +289,88 @@ public class AssessmentReportingService {
     public DeliveryCandidateSummaryReport buildDeliveryCandidateSummaryReport(final Delivery delivery) {
         Assert.notNull(delivery, "delivery");
 
-        /* Look up all outcomes for all sessions associated with this delivery */
-        final List<CandidateSessionOutcome> candidateSessionOutcomes = candidateSessionOutcomeDao.getForDelivery(delivery);
+        final CandidateSessionSummaryMetadata summaryMetadata = buildDeliveryCandidateSummaryMetadata(delivery);
+        final List<CandidateSessionSummaryData> rows = new ArrayList<CandidateSessionSummaryData>();
+        long lastXid = 0L;
+        List<CandidateSessionSummaryData> page;
+        do {
+            page = buildDeliveryCandidateSummaryRowPage(delivery, summaryMetadata, lastXid);
+            if (page.isEmpty()) {
+                break;
+            }
+            rows.addAll(page);
+            lastXid = page.get(page.size() - 1).getSessionId();
+        } while (page.size()==REPORT_PAGE_SIZE);
 
-        /* Group results by each individual CandidateSession, also building up lists (ordered sets) of unique outcome identifiers */
-        final TreeMap<Long, CandidateSession> candidateSessionByIdMap = new TreeMap<Long, CandidateSession>();
-        final Map<Long, Map<String, String>> numericOutcomesBySessionIdMap = new HashMap<Long, Map<String,String>>();
-        final Map<Long, Map<String, String>> otherOutcomesBySessionIdMap = new HashMap<Long, Map<String,String>>();
+        auditLogger.recordEvent("Generated candidate summary report for Delivery #" + delivery.getId());
+        return new DeliveryCandidateSummaryReport(summaryMetadata, rows);
+    }
+
+    /**
+     * Builds the {@link CandidateSessionSummaryMetadata} for the given {@link Delivery}, listing
+     * all of the outcome variables recorded for its sessions.
+     */
+    private CandidateSessionSummaryMetadata buildDeliveryCandidateSummaryMetadata(final Delivery delivery) {
         final LinkedHashSet<String> numericOutcomeIdentifiers = new LinkedHashSet<String>(); /* (Ordered avoiding duplicates) */
         final LinkedHashSet<String> otherOutcomeIdentifiers = new LinkedHashSet<String>(); /* (Ordered avoiding duplicates) */
-        for (final CandidateSessionOutcome candidateSessionOutcome : candidateSessionOutcomes) {
-            /* Do grouping first */
-            final Map<String, String> numericOutcomesForSession, otherOutcomesForSession;
-            final CandidateSession candidateSession = candidateSessionOutcome.getCandidateSession();
-            final Long xid = candidateSession.getId();
-            if (!candidateSessionByIdMap.containsKey(xid)) {
-                /* First outcome for this session, so set up appropriate map values */
-                candidateSessionByIdMap.put(xid, candidateSession);
-                numericOutcomesForSession = new HashMap<String, String>();
-                otherOutcomesForSession = new HashMap<String, String>();
-                numericOutcomesBySessionIdMap.put(xid, numericOutcomesForSession);
-                otherOutcomesBySessionIdMap.put(xid, otherOutcomesForSession);
+        for (final CandidateSessionOutcome declaration : candidateSessionOutcomeDao.getDeclarationsForDelivery(delivery)) {
+            if (isNumericOutcome(declaration)) {
+                numericOutcomeIdentifiers.add(declaration.getOutcomeIdentifier());
             }
             else {
-                numericOutcomesForSession = numericOutcomesBySessionIdMap.get(xid);
-                otherOutcomesForSession = otherOutcomesBySessionIdMap.get(xid);
+                otherOutcomeIdentifiers.add(declaration.getOutcomeIdentifier());
             }
+        }
+        final String ltiResultOutcomeIdentifier = delivery.getAssessment().getLtiResultOutcomeIdentifier();
+        return new CandidateSessionSummaryMetadata(ltiResultOutcomeIdentifier, numericOutcomeIdentifiers, otherOutcomeIdentifiers);
+    }
 
-            /* Record outcomes */
-            final String outcomeIdentifier = candidateSessionOutcome.getOutcomeIdentifier();
-            final String outcomeValue = candidateSessionOutcome.getStringValue();
-            final BaseType baseType = candidateSessionOutcome.getBaseType();
-            if (baseType!=null && baseType.isNumeric() && candidateSessionOutcome.getCardinality()==Cardinality.SINGLE) {
-                numericOutcomeIdentifiers.add(outcomeIdentifier);
-                numericOutcomesForSession.put(outcomeIdentifier, outcomeValue);
-            }
-            else {
-                otherOutcomeIdentifiers.add(outcomeIdentifier);
-                otherOutcomesForSession.put(outcomeIdentifier, outcomeValue);
+    /**
+     * Builds the next page of {@link CandidateSessionSummaryData} rows for the sessions on the given
+     * {@link Delivery} having recorded outcomes. The {@link CandidateSession}s and
+     * {@link CandidateSessionOutcome}s used are detached afterwards, so that working through a large
+     * delivery a page at a time uses a bounded amount of memory. (Candidate {@link User}s are left
+     * alone, as they may be in use elsewhere in the current persistence context, e.g. as the
+     * current user.)
+     *
+     * @param afterXid ID of the session in the last row of the previous page, or 0 for the first page
+     * @return rows for the next page of sessions, in ID order, which will be empty at the end
+     */
+    private List<CandidateSessionSummaryData> buildDeliveryCandidateSummaryRowPage(final Delivery delivery,
+            final CandidateSessionSummaryMetadata summaryMetadata, final long afterXid) {
+        final List<CandidateSession> candidateSessions = candidateSessionDao.getForDeliveryWithOutcomesPage(delivery, afterXid, REPORT_PAGE_SIZE);
+        final List<CandidateSessionOutcome> candidateSessionOutcomes = candidateSessionOutcomeDao.getForSessions(candidateSessions);
+
+        /* Group outcomes by session */
+        final Map<Long, Map<String, String>> numericOutcomesBySessionIdMap = new HashMap<Long, Map<String,String>>();
+        final Map<Long, Map<String, String>> otherOutcomesBySessionIdMap = new HashMap<Long, Map<String,String>>();
+        for (final CandidateSessionOutcome candidateSessionOutcome : candidateSessionOutcomes) {
+            final Map<Long, Map<String, String>> outcomesBySessionIdMap = isNumericOutcome(candidateSessionOutcome)
+                    ? numericOutcomesBySessionIdMap : otherOutcomesBySessionIdMap;
+            final Long xid = candidateSessionOutcome.getCandidateSession().getId();
+            Map<String, String> outcomesForSession = outcomesBySessionIdMap.get(xid);
+            if (outcomesForSession==null) {
+                outcomesForSession = new HashMap<String, String>();
+                outcomesBySessionIdMap.put(xid, outcomesForSession);
             }
+            outcomesForSession.put(candidateSessionOutcome.getOutcomeIdentifier(), candidateSessionOutcome.getStringValue());
+            candidateSessionOutcomeDao.detach(candidateSessionOutcome);
         }
 
-        /* Record metadata */
-        final String ltiResultOutcomeIdentifier = delivery.getAssessment().getLtiResultOutcomeIdentifier();
-        final CandidateSessionSummaryMetadata summaryMetadata = new CandidateSessionSummaryMetadata(ltiResultOutcomeIdentifier, numericOutcomeIdentifiers, otherOutcomeIdentifiers);
-
         /* Now build report for each session */
-        final List<CandidateSessionSummaryData> rows = new ArrayList<CandidateSessionSummaryData>();
-        for (final Entry<Long, CandidateSession> entry : candidateSessionByIdMap.entrySet()) {
-            final long xid = entry.getKey();
-            final CandidateSession candidateSession = entry.getValue();
+        final String ltiResultOutcomeIdentifier = summaryMetadata.getLisResultOutcomeIdentifier();
+        final List<CandidateSessionSummaryData> rows = new ArrayList<CandidateSessionSummaryData>(candidateSessions.size());
+        for (final CandidateSession candidateSession : candidateSessions) {
+            final Long xid = candidateSession.getId();
             final List<String> numericOutcomeValues = new ArrayList<String>();
             final List<String> otherOutcomeValues = new ArrayList<String>();
 
             final Map<String, String> numericOutcomesForSession = numericOutcomesBySessionIdMap.get(xid);
-            for (final String outcomeIdentifier : numericOutcomeIdentifiers) {
+            for (final String outcomeIdentifier : summaryMetadata.getNumericOutcomeIdentifiers()) {
                 numericOutcomeValues.add(safelyExtractOutcomeValue(numericOutcomesForSession, outcomeIdentifier));
             }
             final Map<String, String> otherOutcomesForSession = otherOutcomesBySessionIdMap.get(xid);
-            for (final String outcomeIdentifier : otherOutcomeIdentifiers) {
+            for (final String outcomeIdentifier : summaryMetadata.getOtherOutcomeIdentifiers()) {
                 otherOutcomeValues.add(safelyExtractOutcomeValue(otherOutcomesForSession, outcomeIdentifier));
             }
             String ltiResultOutcomeValue = null;
@@ -317,7 +378,7 @@ public class AssessmentReportingService {
                 ltiResultOutcomeValue = safelyExtractOutcomeValue(numericOutcomesForSession, ltiResultOutcomeIdentifier);
             }
             final User candidate = candidateSession.getCandidate();
-            final CandidateSessionSummaryData row = new CandidateSessionSummaryData(candidateSession.getId().longValue(),
+            final CandidateSessionSummaryData row = new CandidateSessionSummaryData(xid.longValue(),
                     candidateSession.getCreationTime(),
                     candidate.getFirstName(),
                     candidate.getLastName(),
@@ -331,10 +392,14 @@ public class AssessmentReportingService {
                     numericOutcomeValues,
                     otherOutcomeValues);
             rows.add(row);
+            candidateSessionDao.detach(candidateSession);
         }
+        return rows;
+    }
 
-        auditLogger.recordEvent("Generated candidate summary report for Delivery #" + delivery.getId());
-        return new DeliveryCandidateSummaryReport(summaryMetadata, rows);
+    private boolean isNumericOutcome(final CandidateSessionOutcome candidateSessionOutcome) {
+        final BaseType baseType = candidateSessionOutcome.getBaseType();
+        return baseType!=null && baseType.isNumeric() && candidateSessionOutcome.getCardinality()==Cardinality.SINGLE;
     }
 
     /**
@@ -352,6 +417,9 @@ public class AssessmentReportingService {
      * Generates a UTF-8 CSV summary of all {@link CandidateSession}s for the given {@link Delivery},
      * streaming the result to the given {@link OutputStream}
      * <p>
+     * Rows are generated and written a page of sessions at a time, so this uses a bounded amount
+     * of memory regardless of the number of sessions.
+     * <p>
      * The stream will be flushed at the end of this; the caller is responsible for closing it.
      *
      * @param did ID (did) of the required {@link Delivery}
@@ -360,12 +428,12 @@ public class AssessmentReportingService {
     public void streamDeliveryCandidateSummaryReportCsv(final long did, final OutputStream outputStream)
             throws PrivilegeException, DomainEntityNotFoundException, IOException {
         Assert.notNull(outputStream, "outputStream");
-        final DeliveryCandidateSummaryReport report = buildDeliveryCandidateSummaryReport(did);
+        final Delivery delivery = assessmentManagementService.lookupDelivery(did);
+        final CandidateSessionSummaryMetadata metadata = buildDeliveryCandidateSummaryMetadata(delivery);
         final CsvWriter csvWriter = new CsvWriter(outputStream, ',', Charsets.UTF_8);
         try {
             /* Write header */
             final StringBuilder headerBuilder = new StringBuilder("Session ID,Email Address,First Name,Last Name,Launch Time,Session Status");
-            final CandidateSessionSummaryMetadata metadata = report.getCandidateSessionSummaryMetadata();
             final String lisResultOutcomeIdentifier = metadata.getLisResultOutcomeIdentifier();
             if (lisResultOutcomeIdentifier!=null) {
                 /* LTI results set up, so add in details about that */
@@ -383,27 +451,37 @@ public class AssessmentReportingService {
             }
             csvWriter.writeComment(headerBuilder.toString());
 
-            /* Write each row */
-            for (final CandidateSessionSummaryData row : report.getRows()) {
-                csvWriter.write(Long.toString(row.getSessionId()));
-                csvWriter.write(StringUtilities.emptyIfNull(row.getEmailAddress()));
-                csvWriter.write(row.getFirstName());
-                csvWriter.write(row.getLastName());
-                csvWriter.write(row.getLaunchTime().toString());
-                csvWriter.write(row.getSessionStatusMessage());
-                if (lisResultOutcomeIdentifier!=null) {
-                    csvWriter.write(StringUtilities.emptyIfNull(row.getLisResultOutcomeValue()));
-                    csvWriter.write(StringUtilities.safeToStringEmptyIfNull(row.getLisScore()));
-                    csvWriter.write(StringUtilities.safeToStringEmptyIfNull(row.getLisOutcomeReportingStatus()));
+            /* Write each row, a page at a time */
+            long lastXid = 0L;
+            List<CandidateSessionSummaryData> page;
+            do {
+                page = buildDeliveryCandidateSummaryRowPage(delivery, metadata, lastXid);
+                for (final CandidateSessionSummaryData row : page) {
+                    csvWriter.write(Long.toString(row.getSessionId()));
+                    csvWriter.write(StringUtilities.emptyIfNull(row.getEmailAddress()));
+                    csvWriter.write(row.getFirstName());
+                    csvWriter.write(row.getLastName());
+                    csvWriter.write(row.getLaunchTime().toString());
+                    csvWriter.write(row.getSessionStatusMessage());
+                    if (lisResultOutcomeIdentifier!=null) {
+                        csvWriter.write(StringUtilities.emptyIfNull(row.getLisResultOutcomeValue()));
+                        csvWriter.write(StringUtilities.safeToStringEmptyIfNull(row.getLisScore()));
+                        csvWriter.write(StringUtilities.safeToStringEmptyIfNull(row.getLisOutcomeReportingStatus()));
+                    }
+                    writeOutcomes(csvWriter, metadata.getNumericOutcomeIdentifiers(), row.getNumericOutcomeValues());
+                    writeOutcomes(csvWriter, metadata.getOtherOutcomeIdentifiers(), row.getOtherOutcomeValues());
+                    csvWriter.endRecord();
                 }
-                writeOutcomes(csvWriter, metadata.getNumericOutcomeIdentifiers(), row.getNumericOutcomeValues());
-                writeOutcomes(csvWriter, metadata.getOtherOutcomeIdentifiers(), row.getOtherOutcomeValues());
-                csvWriter.endRecord();
-            }
+                csvWriter.flush();
+                if (!page.isEmpty()) {
+                    lastXid = page.get(page.size() - 1).getSessionId();
+                }
+            } while (page.size()==REPORT_PAGE_SIZE);
         }
         finally {
             csvWriter.flush();
         }
+        auditLogger.recordEvent("Generated candidate summary report for Delivery #" + delivery.getId());
     }
 
     private void writeOutcomes(final CsvWriter csvWriter, final List<String> outcomeNames, final List<String> outcomeValues)
@@ -436,36 +514,94 @@ public class AssessmentReportingService {
      */
     public void streamAssessmentReports(final long did, final OutputStream outputStream)
             throws DomainEntityNotFoundException, PrivilegeException, IOException {
+        streamAssessmentReports(did, false, outputStream);
+    }
+
+    /**
+     * Generates a ZIP file containing the <code>assessmentReport</code>s for all closed or terminated
+     * candidate sessions for the given {@link Delivery}, streaming the result to the given stream.
+     * <p>
+     * Entries are compressed in parallel, and are streamed out in session order as soon as they're
+     * ready. Progress is logged periodically for large deliveries.
+     * <p>
+     * The stream will be flushed at the end of this; the caller is responsible for closing it.
+     *
+     * @param did ID (did) of the required {@link Delivery}
+     * @param regenerateMissingResults if true, then any missing <code>assessmentReport</code> files
+     *   are recomputed (and stored) from the most recent session state. If false, a
+     *   {@link QtiWorksLogicException} is thrown if one is missing.
+     * @param outputStream {@link OutputStream} to send the results to, which must not be null
+     */
+    public void streamAssessmentReports(final long did, final boolean regenerateMissingResults, final OutputStream outputStream)
+            throws DomainEntityNotFoundException, PrivilegeException, IOException {
         Assert.notNull(outputStream, "outputStream");
 
         /* Look up sessions */
         final Delivery delivery = assessmentManagementService.lookupDelivery(did);
-        final List<CandidateSession> candidateSessions = candidateSessionDao.getForDelivery(delivery);
+        final List<CandidateSession> candidateSessions = new ArrayList<CandidateSession>();
+        for (final CandidateSession candidateSession : candidateSessionDao.getForDelivery(delivery)) {
+            if (!candidateSession.isExploded() && (candidateSession.isFinished() || candidateSession.isTerminated())) {
+                candidateSessions.add(candidateSession);
+            }
+        }
 
         /* Create ZIP builder */
-        final ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
+        final ParallelZipWriter zipWriter = new ParallelZipWriter(outputStream, zipCompressionExecutor,
+                ZIP_PENDING_ENTRIES_PER_THREAD * qtiWorksDeploymentSettings.getReportZipThreadCount(),
+                Deflater.DEFAULT_COMPRESSION);
+        final long startTime = System.currentTimeMillis();
+        long lastProgressTime = startTime;
         boolean hasIncludedSomething = false;
-        for (final CandidateSession candidateSession : candidateSessions) {
-            if (!candidateSession.isExploded() && (candidateSession.isFinished() || candidateSession.isTerminated())) {
-                addAssessmentReport(zipOutputStream, candidateSession);
-                hasIncludedSomething = true;
+        try {
+            for (int i=0; i<candidateSessions.size(); i++) {
+                final CandidateSession candidateSession = candidateSessions.get(i);
+                hasIncludedSomething |= addAssessmentReport(zipWriter, candidateSession, regenerateMissingResults);
+
+                /* Log progress now and again */
+                final long now = System.currentTimeMillis();
+                if (now - lastProgressTime >= ZIP_PROGRESS_INTERVAL) {
+                    final int doneCount = i + 1;
+                    final long eta = (now - startTime) * (candidateSessions.size() - doneCount) / doneCount;
+                    logger.info("Exporting assessmentResults for Delivery #{}: {}/{} sessions done ({} bytes written), about {}s remaining",
+                            new Object[] { did, doneCount, candidateSessions.size(), zipWriter.getWrittenByteCount(), eta / 1000 });
+                    lastProgressTime = now;
+                }
+            }
+            if (!hasIncludedSomething) {
+                zipWriter.addEntry("NoResults.txt", startTime,
+                        ByteSource.wrap("There are no results for this delivery yet".getBytes(Charsets.UTF_8)));
             }
+            zipWriter.finish();
         }
-        safelyFinishZipStream(zipOutputStream, hasIncludedSomething);
+        finally {
+            zipWriter.abort();
+        }
+        logger.debug("Exported {} assessmentResults for Delivery #{} in {}ms",
+                new Object[] { zipWriter.getWrittenEntryCount(), did, System.currentTimeMillis() - startTime });
         auditLogger.recordEvent("Generated assessmentResult ZIP file for delviery #" + did);
     }
 
-    private void addAssessmentReport(final ZipOutputStream zipOutputStream, final CandidateSession candidateSession)
+    private boolean addAssessmentReport(final ParallelZipWriter zipWriter, final CandidateSession candidateSession,
+            final boolean regenerateMissingResults)
             throws IOException {
-        final File assessmentResultFile = candidateDataService.ensureAssessmentResultFile(candidateSession);
+        final File assessmentResultFile;
+        if (regenerateMissingResults) {
+            assessmentResultFile = candidateDataService.ensureOrRegenerateAssessmentResultFile(candidateSession);
+            if (assessmentResultFile==null) {
+                logger.warn("No assessmentResult could be generated for {}, so omitting from ZIP", candidateSession);
+                return false;
+            }
+        }
+        else {
+            assessmentResultFile = candidateDataService.ensureAssessmentResultFile(candidateSession);
+        }
 
         /* Work out what to call the ZIP entry */
         final String zipEntryName = makeReportFileName(candidateSession);
 
-        /* Add result to ZIP */
-        zipOutputStream.putNextEntry(new ZipEntry(zipEntryName));
-        Files.copy(assessmentResultFile, zipOutputStream);
-        zipOutputStream.closeEntry();
+        /* Add result to ZIP (which will be read & compressed in the background) */
+        zipWriter.addEntry(zipEntryName, assessmentResultFile.lastModified(), Files.asByteSource(assessmentResultFile));
+        return true;
     }
 
     /**
@@ -489,17 +625,4 @@ public class AssessmentReportingService {
         return entryNameBuilder.toString();
     }
 
-    private void safelyFinishZipStream(final ZipOutputStream zipOutputStream, final boolean hasIncludedSomething)
-            throws IOException {
-        if (!hasIncludedSomething) {
-            zipOutputStream.putNextEntry(new ZipEntry("NoResults.txt"));
-            final OutputStreamWriter commentWriter = new OutputStreamWriter(zipOutputStream, "UTF-8");
-            commentWriter.write("There are no results for this delivery yet");
-            commentWriter.flush();
-            zipOutputStream.closeEntry();
-        }
-        zipOutputStream.finish();
-        zipOutputStream.flush();
-    }
-
 }
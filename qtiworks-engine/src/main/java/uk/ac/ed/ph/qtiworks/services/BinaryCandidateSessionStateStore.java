@@ -0,0 +1,192 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.QtiWorksLogicException;
+import uk.ac.ed.ph.qtiworks.QtiWorksRuntimeException;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEvent;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.BinaryUnmarshallingException;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.ItemSessionStateBinaryMarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.ItemSessionStateXmlMarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateBinaryMarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateXmlMarshaller;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+
+import com.google.common.io.Files;
+
+/**
+ * {@link CandidateSessionStateStore} that records the state for each {@link CandidateEvent}
+ * using the compact binary format provided by {@link ItemSessionStateBinaryMarshaller} and
+ * {@link TestSessionStateBinaryMarshaller}. This avoids the cost of building, serializing and
+ * parsing XML each time the state is saved or loaded.
+ * <p>
+ * State recorded by the XML-based stores (either full or delta) is still readable. Such state
+ * is migrated lazily: the first time it is loaded, a binary copy is written alongside it so
+ * that subsequent loads can use that instead. (The original XML files are left in place.)
+ * The XML stores can also read binary state, so it is possible to switch back to them.
+ * <p>
+ * This store is not used by default. Set <code>qtiworks.candidatesession.state.store</code>
+ * to <code>binary</code> to enable it.
+ * <p>
+ * {@link #loadStateDocument(CandidateEvent)} still returns the XML form of the state, which is
+ * generated on demand.
+ *
+ * @see XmlCandidateSessionStateStore
+ * @see DeltaXmlCandidateSessionStateStore
+ *
+ * @author David McKain
+ */
+public class BinaryCandidateSessionStateStore extends XmlCandidateSessionStateStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(BinaryCandidateSessionStateStore.class);
+
+    /** Used to read (and migrate) state recorded by the XML stores */
+    private final XmlCandidateSessionStateStore legacyStateStore;
+
+    /**
+     * @param legacyStateStore XML store used to read state recorded before this store was enabled.
+     *   This should be a {@link DeltaXmlCandidateSessionStateStore} if any state might have been
+     *   recorded as deltas.
+     */
+    public BinaryCandidateSessionStateStore(final XmlCandidateSessionStateStore legacyStateStore) {
+        Assert.notNull(legacyStateStore, "legacyStateStore");
+        this.legacyStateStore = legacyStateStore;
+    }
+
+    public XmlCandidateSessionStateStore getLegacyStateStore() {
+        return legacyStateStore;
+    }
+
+    //----------------------------------------------------
+    // Item methods
+
+    @Override
+    public void storeItemSessionState(final CandidateEvent candidateEvent, final ItemSessionState itemSessionState) {
+        writeStateFile(getBinaryStateFile(candidateEvent), ItemSessionStateBinaryMarshaller.marshal(itemSessionState));
+    }
+
+    @Override
+    public ItemSessionState loadItemSessionState(final CandidateEvent candidateEvent) {
+        final File binaryStateFile = getBinaryStateFile(candidateEvent);
+        if (binaryStateFile.exists()) {
+            try {
+                return ItemSessionStateBinaryMarshaller.unmarshal(readBinaryStateFile(binaryStateFile));
+            }
+            catch (final BinaryUnmarshallingException e) {
+                throw new QtiWorksLogicException("Could not unmarshal binary state file " + binaryStateFile, e);
+            }
+        }
+        final ItemSessionState itemSessionState = legacyStateStore.loadItemSessionState(candidateEvent);
+        logger.debug("Migrating item state for CandidateEvent #{} to binary format", candidateEvent.getId());
+        storeItemSessionState(candidateEvent, itemSessionState);
+        return itemSessionState;
+    }
+
+    //----------------------------------------------------
+    // Test methods
+
+    @Override
+    public void storeTestSessionState(final CandidateEvent candidateEvent, final TestSessionState testSessionState) {
+        writeStateFile(getBinaryStateFile(candidateEvent), TestSessionStateBinaryMarshaller.marshal(testSessionState));
+    }
+
+    @Override
+    public TestSessionState loadTestSessionState(final CandidateEvent candidateEvent) {
+        final File binaryStateFile = getBinaryStateFile(candidateEvent);
+        if (binaryStateFile.exists()) {
+            try {
+                return TestSessionStateBinaryMarshaller.unmarshal(readBinaryStateFile(binaryStateFile));
+            }
+            catch (final BinaryUnmarshallingException e) {
+                throw new QtiWorksLogicException("Could not unmarshal binary state file " + binaryStateFile, e);
+            }
+        }
+        final TestSessionState testSessionState = legacyStateStore.loadTestSessionState(candidateEvent);
+        logger.debug("Migrating test state for CandidateEvent #{} to binary format", candidateEvent.getId());
+        storeTestSessionState(candidateEvent, testSessionState);
+        return testSessionState;
+    }
+
+    //----------------------------------------------------
+    // State file management
+
+    @Override
+    public Document loadStateDocument(final CandidateEvent candidateEvent) {
+        if (!getBinaryStateFile(candidateEvent).exists()) {
+            return legacyStateStore.loadStateDocument(candidateEvent);
+        }
+        if (isItemSession(candidateEvent.getCandidateSession())) {
+            return ItemSessionStateXmlMarshaller.marshal(loadItemSessionState(candidateEvent));
+        }
+        return TestSessionStateXmlMarshaller.marshal(loadTestSessionState(candidateEvent));
+    }
+
+    /**
+     * Migrates the state recorded for the given {@link CandidateEvent} to binary format, if
+     * this has not already been done.
+     *
+     * @return true if the state was migrated, false if it was already in binary format
+     */
+    public boolean migrateState(final CandidateEvent candidateEvent) {
+        if (getBinaryStateFile(candidateEvent).exists()) {
+            return false;
+        }
+        if (isItemSession(candidateEvent.getCandidateSession())) {
+            loadItemSessionState(candidateEvent);
+        }
+        else {
+            loadTestSessionState(candidateEvent);
+        }
+        return true;
+    }
+
+    private static void writeStateFile(final File stateFile, final byte[] data) {
+        try {
+            Files.write(data, stateFile);
+        }
+        catch (final IOException e) {
+            throw QtiWorksRuntimeException.unexpectedException(e);
+        }
+    }
+}
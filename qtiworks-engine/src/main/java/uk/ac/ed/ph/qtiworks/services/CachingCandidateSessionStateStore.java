@@ -0,0 +1,255 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEvent;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.ItemSessionStateBinaryMarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateBinaryMarshaller;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+/**
+ * Write-through {@link CandidateSessionStateStore} that keeps the most recent state of each
+ * active {@link CandidateSession} in memory, delegating to another
+ * {@link CandidateSessionStateStore} for actual storage.
+ * <p>
+ * Each candidate action loads the state recorded by the previous action, so this saves
+ * re-reading and parsing that state from the underlying store each time.
+ * <p>
+ * Cached state is held in the compact binary form produced by
+ * {@link TestSessionStateBinaryMarshaller} and {@link ItemSessionStateBinaryMarshaller}.
+ * This bounds memory usage, and ensures that callers always get a fresh copy of the state
+ * that they are free to modify. Each entry records the ID of the {@link CandidateEvent} it
+ * corresponds to, so is only used when loading the state for that exact event.
+ *
+ * @author David McKain
+ */
+public class CachingCandidateSessionStateStore implements CandidateSessionStateStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(CachingCandidateSessionStateStore.class);
+
+    private final CandidateSessionStateStore targetStateStore;
+    private final long cacheMaxWeight;
+    private final Cache<Long, CacheEntry> cache;
+    private final AtomicLong cacheHitCount;
+    private final AtomicLong cacheMissCount;
+    private final AtomicLong cachePurgeCount;
+
+    /**
+     * @param targetStateStore {@link CandidateSessionStateStore} that actually stores the state
+     * @param cacheMaxWeight maximum size of the cached state, in bytes
+     * @param cacheExpiry time (in minutes) after which the state for an idle {@link CandidateSession}
+     *   is evicted from the cache.
+     */
+    public CachingCandidateSessionStateStore(final CandidateSessionStateStore targetStateStore,
+            final long cacheMaxWeight, final int cacheExpiry) {
+        Assert.notNull(targetStateStore, "targetStateStore");
+        this.targetStateStore = targetStateStore;
+        this.cacheMaxWeight = cacheMaxWeight;
+        this.cacheHitCount = new AtomicLong();
+        this.cacheMissCount = new AtomicLong();
+        this.cachePurgeCount = new AtomicLong();
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(cacheMaxWeight)
+                .weigher(new Weigher<Long, CacheEntry>() {
+                    @Override
+                    public int weigh(final Long candidateSessionId, final CacheEntry cacheEntry) {
+                        return cacheEntry.getStateData().length;
+                    }
+                })
+                .expireAfterAccess(cacheExpiry, TimeUnit.MINUTES)
+                .removalListener(new RemovalListener<Long, CacheEntry>() {
+                    @Override
+                    public void onRemoval(final RemovalNotification<Long, CacheEntry> notification) {
+                        if (notification.wasEvicted()) {
+                            cachePurgeCount.incrementAndGet();
+                        }
+                    }
+                })
+                .build();
+        logger.info("Candidate session state cache initialised with maximum weight {} bytes and expiry {} minute(s)",
+                Long.valueOf(cacheMaxWeight), Integer.valueOf(cacheExpiry));
+    }
+
+    public CandidateSessionStateStore getTargetStateStore() {
+        return targetStateStore;
+    }
+
+    //----------------------------------------------------
+    // Item methods
+
+    @Override
+    public void storeItemSessionState(final CandidateEvent candidateEvent, final ItemSessionState itemSessionState) {
+        targetStateStore.storeItemSessionState(candidateEvent, itemSessionState);
+        cacheState(candidateEvent, ItemSessionStateBinaryMarshaller.marshal(itemSessionState));
+    }
+
+    @Override
+    public ItemSessionState loadItemSessionState(final CandidateEvent candidateEvent) {
+        final byte[] stateData = getCachedState(candidateEvent);
+        if (stateData!=null) {
+            return ItemSessionStateBinaryMarshaller.unmarshal(stateData);
+        }
+        final ItemSessionState itemSessionState = targetStateStore.loadItemSessionState(candidateEvent);
+        cacheState(candidateEvent, ItemSessionStateBinaryMarshaller.marshal(itemSessionState));
+        return itemSessionState;
+    }
+
+    //----------------------------------------------------
+    // Test methods
+
+    @Override
+    public void storeTestSessionState(final CandidateEvent candidateEvent, final TestSessionState testSessionState) {
+        targetStateStore.storeTestSessionState(candidateEvent, testSessionState);
+        cacheState(candidateEvent, TestSessionStateBinaryMarshaller.marshal(testSessionState));
+    }
+
+    @Override
+    public TestSessionState loadTestSessionState(final CandidateEvent candidateEvent) {
+        final byte[] stateData = getCachedState(candidateEvent);
+        if (stateData!=null) {
+            return TestSessionStateBinaryMarshaller.unmarshal(stateData);
+        }
+        final TestSessionState testSessionState = targetStateStore.loadTestSessionState(candidateEvent);
+        cacheState(candidateEvent, TestSessionStateBinaryMarshaller.marshal(testSessionState));
+        return testSessionState;
+    }
+
+    //----------------------------------------------------
+
+    @Override
+    public Document loadStateDocument(final CandidateEvent candidateEvent) {
+        /* This is only used for exporting state, so we don't bother with the cache here */
+        return targetStateStore.loadStateDocument(candidateEvent);
+    }
+
+    //----------------------------------------------------
+    // Cache management
+
+    private byte[] getCachedState(final CandidateEvent candidateEvent) {
+        final CacheEntry cacheEntry = cache.getIfPresent(candidateEvent.getCandidateSession().getId());
+        if (cacheEntry!=null && cacheEntry.getCandidateEventId()==candidateEvent.getId().longValue()) {
+            cacheHitCount.incrementAndGet();
+            return cacheEntry.getStateData();
+        }
+        cacheMissCount.incrementAndGet();
+        return null;
+    }
+
+    private void cacheState(final CandidateEvent candidateEvent, final byte[] stateData) {
+        final Long candidateSessionId = candidateEvent.getCandidateSession().getId();
+        final long candidateEventId = candidateEvent.getId().longValue();
+
+        /* Don't let the loading of older state (e.g. when reviewing history) replace newer state */
+        final CacheEntry existingEntry = cache.getIfPresent(candidateSessionId);
+        if (existingEntry==null || existingEntry.getCandidateEventId() <= candidateEventId) {
+            cache.put(candidateSessionId, new CacheEntry(candidateEventId, stateData));
+        }
+    }
+
+    public int getCacheUsage() {
+        return (int) cache.size();
+    }
+
+    public long getCacheWeight() {
+        long weight = 0L;
+        for (final CacheEntry cacheEntry : cache.asMap().values()) {
+            weight += cacheEntry.getStateData().length;
+        }
+        return weight;
+    }
+
+    public long getCacheMaxWeight() {
+        return cacheMaxWeight;
+    }
+
+    public long getCacheHitCount() {
+        return cacheHitCount.get();
+    }
+
+    public long getCacheMissCount() {
+        return cacheMissCount.get();
+    }
+
+    public long getCachePurgeCount() {
+        return cachePurgeCount.get();
+    }
+
+    /**
+     * Returns the proportion of state loads that were satisfied by the cache, or 1.0
+     * if nothing has been loaded yet.
+     */
+    public double getCacheHitRate() {
+        final long hits = cacheHitCount.get();
+        final long requests = hits + cacheMissCount.get();
+        return requests > 0 ? (double) hits / requests : 1.0;
+    }
+
+    //----------------------------------------------------
+
+    private static final class CacheEntry {
+
+        private final long candidateEventId;
+        private final byte[] stateData;
+
+        public CacheEntry(final long candidateEventId, final byte[] stateData) {
+            this.candidateEventId = candidateEventId;
+            this.stateData = stateData;
+        }
+
+        public long getCandidateEventId() {
+            return candidateEventId;
+        }
+
+        public byte[] getStateData() {
+            return stateData;
+        }
+    }
+}
@@ -0,0 +1,593 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.QtiWorksLogicException;
+import uk.ac.ed.ph.qtiworks.config.QtiWorksProfiles;
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
+import uk.ac.ed.ph.qtiworks.domain.DomainConstants;
+import uk.ac.ed.ph.qtiworks.domain.entities.AuditJournalBatch;
+import uk.ac.ed.ph.qtiworks.domain.entities.BaseEntity;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEvent;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEventNotification;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateFileSubmission;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateResponse;
+import uk.ac.ed.ph.qtiworks.domain.entities.ResponseLegality;
+import uk.ac.ed.ph.qtiworks.services.WriteBehindJournal.Batch;
+import uk.ac.ed.ph.qtiworks.services.WriteBehindJournal.RecordCodec;
+import uk.ac.ed.ph.qtiworks.services.dao.AuditJournalBatchDao;
+import uk.ac.ed.ph.qtiworks.services.dao.CandidateEventDao;
+import uk.ac.ed.ph.qtiworks.services.dao.CandidateEventNotificationDao;
+import uk.ac.ed.ph.qtiworks.services.dao.CandidateFileSubmissionDao;
+import uk.ac.ed.ph.qtiworks.services.dao.CandidateResponseDao;
+
+import uk.ac.ed.ph.jqtiplus.notification.NotificationLevel;
+import uk.ac.ed.ph.jqtiplus.notification.NotificationType;
+import uk.ac.ed.ph.jqtiplus.types.ResponseData.ResponseDataType;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Writes out audit-class candidate data, i.e. {@link CandidateEventNotification}s and
+ * {@link CandidateResponse}s. This data is not needed for deciding what happens next within
+ * a candidate session, so does not need to be written out within the candidate's request.
+ * <p>
+ * If write-behind is enabled, records are appended to a {@link WriteBehindJournal} once the
+ * current transaction has committed, and are then written to the database in batches by
+ * {@link #flushJournal()}, which is invoked regularly by the {@link ScheduledService}. Records
+ * are written out immediately instead if write-behind is disabled, the journal is overloaded,
+ * or the journal can't be written to.
+ * <p>
+ * Each batch is written out in a single transaction, along with an {@link AuditJournalBatch}
+ * recording its ID. A batch recovered after a crash between that transaction committing and its
+ * segment being deleted is therefore skipped rather than written out twice.
+ * <p>
+ * Records are only appended to the journal once the candidate's transaction has committed, as
+ * they refer to its {@link CandidateEvent}. Records are therefore lost if the webapp crashes
+ * between that commit and the append completing. This (narrow) window is accepted for audit data,
+ * which is not needed for carrying on a candidate session. Deployments that can't accept this
+ * should leave write-behind disabled.
+ * <p>
+ * Records whose {@link CandidateEvent} has been deleted by the time the journal is flushed are
+ * discarded.
+ * <p>
+ * This is NO authorisation at this level.
+ *
+ * @see WriteBehindJournal
+ *
+ * @author David McKain
+ */
+@Service
+public class CandidateAuditDataWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(CandidateAuditDataWriter.class);
+
+    /** Number of failed attempts to write out a batch after which its journal segment is quarantined */
+    private static final int MAX_BATCH_ATTEMPTS = 10;
+
+    /** Delay before a failed batch is first retried, doubling after each further failure */
+    private static final long BATCH_RETRY_DELAY = DomainConstants.ONE_SECOND;
+
+    @Resource
+    private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
+
+    @Resource
+    private Environment environment;
+
+    @Resource
+    private FilespaceManager filespaceManager;
+
+    @Resource
+    private PlatformTransactionManager platformTransactionManager;
+
+    @Resource
+    private AuditJournalBatchDao auditJournalBatchDao;
+
+    @Resource
+    private CandidateEventDao candidateEventDao;
+
+    @Resource
+    private CandidateEventNotificationDao candidateEventNotificationDao;
+
+    @Resource
+    private CandidateResponseDao candidateResponseDao;
+
+    @Resource
+    private CandidateFileSubmissionDao candidateFileSubmissionDao;
+
+    /** Journal used for write-behind. This will be null if write-behind is disabled */
+    private WriteBehindJournal<JournalRecord> journal;
+
+    /** Number of records written out immediately when write-behind was enabled */
+    private final AtomicLong synchronousWriteCount = new AtomicLong();
+
+    /** Number of records discarded as their {@link CandidateEvent} had gone */
+    private final AtomicLong discardedRecordCount = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        /* (Only the webapp flushes the journal, so we don't use it elsewhere) */
+        if (qtiWorksDeploymentSettings.isAuditWriteBehindEnabled()
+                && environment.acceptsProfiles(QtiWorksProfiles.WEBAPP)) {
+            journal = new WriteBehindJournal<JournalRecord>(filespaceManager.obtainAuditJournalDirectory(),
+                    new JournalRecordCodec(), qtiWorksDeploymentSettings.getAuditWriteBehindMaxPending(),
+                    MAX_BATCH_ATTEMPTS, BATCH_RETRY_DELAY);
+            logger.info("Write-behind of candidate audit data is enabled using {}", journal);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (journal!=null) {
+            try {
+                flushJournal();
+            }
+            catch (final RuntimeException e) {
+                logger.warn("Failed to flush audit journal on shutdown. Remaining records will be recovered on restart", e);
+            }
+            journal.close();
+        }
+    }
+
+    public boolean isWriteBehindEnabled() {
+        return journal!=null;
+    }
+
+    //----------------------------------------------------
+
+    public void writeNotifications(final List<CandidateEventNotification> notifications) {
+        write(notifications);
+    }
+
+    public void writeResponses(final Collection<CandidateResponse> responses) {
+        write(responses);
+    }
+
+    private void write(final Collection<? extends BaseEntity> entities) {
+        if (entities.isEmpty()) {
+            return;
+        }
+        if (journal==null) {
+            persistEntities(entities);
+            return;
+        }
+        if (journal.isOverloaded()) {
+            /* Apply back-pressure by making the caller do the work */
+            logger.debug("Audit journal is overloaded. Writing {} record(s) immediately", entities.size());
+            persistEntities(entities);
+            synchronousWriteCount.addAndGet(entities.size());
+            return;
+        }
+        final List<JournalRecord> records = new ArrayList<JournalRecord>(entities.size());
+        for (final BaseEntity entity : entities) {
+            records.add(new JournalRecord(entity));
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            /* Only journal the records if the current transaction commits, as they refer to its CandidateEvent */
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    appendToJournal(records);
+                }
+            });
+        }
+        else {
+            appendToJournal(records);
+        }
+    }
+
+    private void appendToJournal(final List<JournalRecord> records) {
+        try {
+            journal.append(records);
+        }
+        catch (final IOException e) {
+            logger.warn("Failed to append to audit journal. Writing {} record(s) immediately", records.size(), e);
+            writeRecordsInNewTransaction(records);
+            synchronousWriteCount.addAndGet(records.size());
+        }
+    }
+
+    private void persistEntities(final Collection<? extends BaseEntity> entities) {
+        for (final BaseEntity entity : entities) {
+            if (entity instanceof CandidateEventNotification) {
+                candidateEventNotificationDao.persist((CandidateEventNotification) entity);
+            }
+            else if (entity instanceof CandidateResponse) {
+                candidateResponseDao.persist((CandidateResponse) entity);
+            }
+            else {
+                throw new QtiWorksLogicException("Unexpected audit entity " + entity);
+            }
+        }
+    }
+
+    //----------------------------------------------------
+
+    /**
+     * Writes out all records currently in the journal, returning the number of records written.
+     * This stops (and returns) as soon as a batch fails. The failed batch will be retried on a
+     * later call, or quarantined if it has failed too many times.
+     */
+    public int flushJournal() {
+        if (journal==null) {
+            return 0;
+        }
+        int flushedCount = 0;
+        Batch<JournalRecord> batch;
+        while ((batch = journal.nextBatch())!=null) {
+            try {
+                writeBatchInNewTransaction(batch);
+            }
+            catch (final RuntimeException e) {
+                logger.warn("Failed to write {} from audit journal", batch, e);
+                journal.failBatch(batch);
+                break;
+            }
+            journal.completeBatch(batch);
+            flushedCount += batch.getRecords().size();
+        }
+        return flushedCount;
+    }
+
+    private void writeBatchInNewTransaction(final Batch<JournalRecord> batch) {
+        final TransactionTemplate transactionTemplate = new TransactionTemplate(platformTransactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(final TransactionStatus status) {
+                if (auditJournalBatchDao.findByBatchId(batch.getBatchId())!=null) {
+                    logger.info("{} was already written out before a restart, so will be skipped", batch);
+                    return;
+                }
+                writeRecords(batch.getRecords());
+                final AuditJournalBatch auditJournalBatch = new AuditJournalBatch();
+                auditJournalBatch.setBatchId(batch.getBatchId());
+                auditJournalBatch.setWriteTimestamp(new Date());
+                auditJournalBatchDao.persist(auditJournalBatch);
+            }
+        });
+    }
+
+    private void writeRecordsInNewTransaction(final List<JournalRecord> records) {
+        final TransactionTemplate transactionTemplate = new TransactionTemplate(platformTransactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(final TransactionStatus status) {
+                writeRecords(records);
+            }
+        });
+    }
+
+    private void writeRecords(final List<JournalRecord> records) {
+        final Map<Long, CandidateEvent> candidateEventMap = new HashMap<Long, CandidateEvent>();
+        final List<BaseEntity> entities = new ArrayList<BaseEntity>(records.size());
+        for (final JournalRecord record : records) {
+            final Long xeid = Long.valueOf(record.getXeid());
+            CandidateEvent candidateEvent = candidateEventMap.get(xeid);
+            if (candidateEvent==null && !candidateEventMap.containsKey(xeid)) {
+                candidateEvent = candidateEventDao.findById(xeid);
+                candidateEventMap.put(xeid, candidateEvent);
+            }
+            if (candidateEvent==null) {
+                /* Event has since been deleted, e.g. by data retention */
+                discardedRecordCount.incrementAndGet();
+                continue;
+            }
+            final Long fid = record.getFid();
+            final CandidateFileSubmission fileSubmission = fid!=null ? candidateFileSubmissionDao.findById(fid) : null;
+            entities.add(record.createEntity(candidateEvent, fileSubmission));
+        }
+        persistEntities(entities);
+    }
+
+    //----------------------------------------------------
+    // Statistics
+
+    /** Returns the number of records waiting to be written out */
+    public int getPendingRecordCount() {
+        return journal!=null ? journal.getPendingRecordCount() : 0;
+    }
+
+    /** Returns the age (in ms) of the oldest record waiting to be written out, or 0 if there are none */
+    public long getLag() {
+        return journal!=null ? journal.getLag() : 0L;
+    }
+
+    public long getSynchronousWriteCount() {
+        return synchronousWriteCount.get();
+    }
+
+    public long getDiscardedRecordCount() {
+        return discardedRecordCount.get();
+    }
+
+    /** Returns the number of journal segments quarantined after failing to be written out */
+    public long getQuarantinedSegmentCount() {
+        return journal!=null ? journal.getQuarantinedSegmentCount() : 0L;
+    }
+
+    //----------------------------------------------------
+
+    /**
+     * Journal form of a {@link CandidateEventNotification} or {@link CandidateResponse}.
+     * This holds an unpersisted copy of the entity with its references to other entities replaced
+     * by their IDs.
+     */
+    static final class JournalRecord {
+
+        private final long xeid;
+        private final Long fid;
+        private final BaseEntity template;
+
+        private JournalRecord(final long xeid, final Long fid, final BaseEntity template) {
+            this.xeid = xeid;
+            this.fid = fid;
+            this.template = template;
+        }
+
+        JournalRecord(final BaseEntity entity) {
+            if (entity instanceof CandidateEventNotification) {
+                final CandidateEventNotification notification = (CandidateEventNotification) entity;
+                this.xeid = notification.getCandidateEvent().getId().longValue();
+                this.fid = null;
+                this.template = copyNotification(notification, null);
+            }
+            else if (entity instanceof CandidateResponse) {
+                final CandidateResponse response = (CandidateResponse) entity;
+                final CandidateFileSubmission fileSubmission = response.getFileSubmission();
+                this.xeid = response.getCandidateEvent().getId().longValue();
+                this.fid = fileSubmission!=null ? fileSubmission.getId() : null;
+                this.template = copyResponse(response, null, null);
+            }
+            else {
+                throw new QtiWorksLogicException("Unexpected audit entity " + entity);
+            }
+        }
+
+        public long getXeid() {
+            return xeid;
+        }
+
+        public Long getFid() {
+            return fid;
+        }
+
+        /** Creates a fresh (unpersisted) entity from this record */
+        BaseEntity createEntity(final CandidateEvent candidateEvent, final CandidateFileSubmission fileSubmission) {
+            if (template instanceof CandidateEventNotification) {
+                return copyNotification((CandidateEventNotification) template, candidateEvent);
+            }
+            return copyResponse((CandidateResponse) template, candidateEvent, fileSubmission);
+        }
+
+        private static CandidateEventNotification copyNotification(final CandidateEventNotification source,
+                final CandidateEvent candidateEvent) {
+            final CandidateEventNotification result = new CandidateEventNotification();
+            result.setCandidateEvent(candidateEvent);
+            result.setNotificationType(source.getNotificationType());
+            result.setNotificationLevel(source.getNotificationLevel());
+            result.setNodeQtiClassName(source.getNodeQtiClassName());
+            result.setAttributeLocalName(source.getAttributeLocalName());
+            result.setAttributeNamespaceUri(source.getAttributeNamespaceUri());
+            result.setSystemId(source.getSystemId());
+            result.setLineNumber(source.getLineNumber());
+            result.setColumnNumber(source.getColumnNumber());
+            result.setMessage(source.getMessage());
+            return result;
+        }
+
+        private static CandidateResponse copyResponse(final CandidateResponse source,
+                final CandidateEvent candidateEvent, final CandidateFileSubmission fileSubmission) {
+            final CandidateResponse result = new CandidateResponse();
+            result.setCandidateEvent(candidateEvent);
+            result.setResponseIdentifier(source.getResponseIdentifier());
+            result.setResponseDataType(source.getResponseDataType());
+            result.setResponseLegality(source.getResponseLegality());
+            result.setStringResponseData(source.getStringResponseData()!=null
+                    ? new ArrayList<String>(source.getStringResponseData())
+                    : null);
+            result.setFileSubmission(fileSubmission);
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                    + "(xeid=" + xeid
+                    + ",fid=" + fid
+                    + ",template=" + template
+                    + ")";
+        }
+    }
+
+    /**
+     * Writes {@link JournalRecord}s to the journal as explicit IDs and values, so that the
+     * journal format does not depend on the entity classes.
+     */
+    static final class JournalRecordCodec implements RecordCodec<JournalRecord> {
+
+        private static final Charset UTF8 = Charset.forName("UTF-8");
+
+        private static final byte NOTIFICATION_RECORD = 1;
+        private static final byte RESPONSE_RECORD = 2;
+
+        @Override
+        public void writeRecord(final DataOutput output, final JournalRecord record) throws IOException {
+            if (record.template instanceof CandidateEventNotification) {
+                final CandidateEventNotification notification = (CandidateEventNotification) record.template;
+                output.writeByte(NOTIFICATION_RECORD);
+                output.writeLong(record.xeid);
+                writeEnum(output, notification.getNotificationType());
+                writeEnum(output, notification.getNotificationLevel());
+                writeString(output, notification.getNodeQtiClassName());
+                writeString(output, notification.getAttributeLocalName());
+                writeString(output, notification.getAttributeNamespaceUri());
+                writeString(output, notification.getSystemId());
+                writeInteger(output, notification.getLineNumber());
+                writeInteger(output, notification.getColumnNumber());
+                writeString(output, notification.getMessage());
+            }
+            else {
+                final CandidateResponse response = (CandidateResponse) record.template;
+                output.writeByte(RESPONSE_RECORD);
+                output.writeLong(record.xeid);
+                output.writeBoolean(record.fid!=null);
+                if (record.fid!=null) {
+                    output.writeLong(record.fid.longValue());
+                }
+                writeString(output, response.getResponseIdentifier());
+                writeEnum(output, response.getResponseDataType());
+                writeEnum(output, response.getResponseLegality());
+                final List<String> stringResponseData = response.getStringResponseData();
+                output.writeInt(stringResponseData!=null ? stringResponseData.size() : -1);
+                if (stringResponseData!=null) {
+                    for (final String string : stringResponseData) {
+                        writeString(output, string);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public JournalRecord readRecord(final DataInput input) throws IOException {
+            final byte recordType = input.readByte();
+            final long xeid = input.readLong();
+            if (recordType==NOTIFICATION_RECORD) {
+                final CandidateEventNotification notification = new CandidateEventNotification();
+                notification.setNotificationType(readEnum(input, NotificationType.class));
+                notification.setNotificationLevel(readEnum(input, NotificationLevel.class));
+                notification.setNodeQtiClassName(readString(input));
+                notification.setAttributeLocalName(readString(input));
+                notification.setAttributeNamespaceUri(readString(input));
+                notification.setSystemId(readString(input));
+                notification.setLineNumber(readInteger(input));
+                notification.setColumnNumber(readInteger(input));
+                notification.setMessage(readString(input));
+                return new JournalRecord(xeid, null, notification);
+            }
+            else if (recordType==RESPONSE_RECORD) {
+                final Long fid = input.readBoolean() ? Long.valueOf(input.readLong()) : null;
+                final CandidateResponse response = new CandidateResponse();
+                response.setResponseIdentifier(readString(input));
+                response.setResponseDataType(readEnum(input, ResponseDataType.class));
+                response.setResponseLegality(readEnum(input, ResponseLegality.class));
+                final int stringResponseDataSize = input.readInt();
+                if (stringResponseDataSize >= 0) {
+                    final List<String> stringResponseData = new ArrayList<String>(stringResponseDataSize);
+                    for (int i=0; i<stringResponseDataSize; i++) {
+                        stringResponseData.add(readString(input));
+                    }
+                    response.setStringResponseData(stringResponseData);
+                }
+                return new JournalRecord(xeid, fid, response);
+            }
+            throw new IOException("Unexpected journal record type " + recordType);
+        }
+
+        private static void writeString(final DataOutput output, final String string) throws IOException {
+            if (string==null) {
+                output.writeInt(-1);
+                return;
+            }
+            final byte[] bytes = string.getBytes(UTF8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+
+        private static String readString(final DataInput input) throws IOException {
+            final int length = input.readInt();
+            if (length < 0) {
+                return null;
+            }
+            final byte[] bytes = new byte[length];
+            input.readFully(bytes);
+            return new String(bytes, UTF8);
+        }
+
+        private static void writeInteger(final DataOutput output, final Integer integer) throws IOException {
+            output.writeBoolean(integer!=null);
+            if (integer!=null) {
+                output.writeInt(integer.intValue());
+            }
+        }
+
+        private static Integer readInteger(final DataInput input) throws IOException {
+            return input.readBoolean() ? Integer.valueOf(input.readInt()) : null;
+        }
+
+        private static void writeEnum(final DataOutput output, final Enum<?> value) throws IOException {
+            writeString(output, value!=null ? value.name() : null);
+        }
+
+        private static <E extends Enum<E>> E readEnum(final DataInput input, final Class<E> enumClass) throws IOException {
+            final String name = readString(input);
+            if (name==null) {
+                return null;
+            }
+            try {
+                return Enum.valueOf(enumClass, name);
+            }
+            catch (final IllegalArgumentException e) {
+                throw new IOException("Unexpected " + enumClass.getSimpleName() + " value " + name);
+            }
+        }
+    }
+}
@@ -51,9 +51,8 @@ import uk.ac.ed.ph.qtiworks.domain.entities.User;
 import uk.ac.ed.ph.qtiworks.mathassess.GlueValueBinder;
 import uk.ac.ed.ph.qtiworks.mathassess.MathAssessConstants;
 import uk.ac.ed.ph.qtiworks.services.dao.CandidateEventDao;
-import uk.ac.ed.ph.qtiworks.services.dao.CandidateEventNotificationDao;
-import uk.ac.ed.ph.qtiworks.services.dao.CandidateSessionOutcomeDao;
-import uk.ac.ed.ph.qtiworks.utils.XmlUtilities;
+import uk.ac.ed.ph.qtiworks.services.dao.CandidateSessionDao;
+import uk.ac.ed.ph.qtiworks.services.domain.OutputStreamer;
 
 import uk.ac.ed.ph.jqtiplus.JqtiExtensionManager;
 import uk.ac.ed.ph.jqtiplus.JqtiPlus;
@@ -80,8 +79,6 @@ import uk.ac.ed.ph.jqtiplus.state.TestPlan;
 import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
 import uk.ac.ed.ph.jqtiplus.state.TestProcessingMap;
 import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
-import uk.ac.ed.ph.jqtiplus.state.marshalling.ItemSessionStateXmlMarshaller;
-import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateXmlMarshaller;
 import uk.ac.ed.ph.jqtiplus.value.RecordValue;
 import uk.ac.ed.ph.jqtiplus.value.SingleValue;
 import uk.ac.ed.ph.jqtiplus.value.Value;
@@ -89,23 +86,33 @@ import uk.ac.ed.ph.jqtiplus.xmlutils.XmlSourceLocationInformation;
 import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.XsltSerializationOptions;
 import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.XsltStylesheetManager;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 
 import javax.annotation.Resource;
-import javax.xml.parsers.DocumentBuilder;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.w3c.dom.Document;
 
 import com.google.common.base.Charsets;
@@ -121,6 +128,11 @@ import com.google.common.io.Files;
 @Transactional(propagation=Propagation.SUPPORTS)
 public class CandidateDataService {
 
+    private static final Logger logger = LoggerFactory.getLogger(CandidateDataService.class);
+
+    /** Maximum number of sessions handled by each call to {@link #recordPendingTestAssessmentResults()} */
+    private static final int PENDING_RESULT_BATCH_SIZE = 100;
+
     @Resource
     private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
 
@@ -137,13 +149,22 @@ public class CandidateDataService {
     private AssessmentObjectManagementService assessmentObjectManagementService;
 
     @Resource
-    private CandidateSessionOutcomeDao candidateSessionOutcomeDao;
+    private CandidateSessionStateStore candidateSessionStateStore;
+
+    @Resource
+    private CandidateSessionOutcomeRecorder candidateSessionOutcomeRecorder;
+
+    @Resource
+    private PlatformTransactionManager platformTransactionManager;
 
     @Resource
     private CandidateEventDao candidateEventDao;
 
     @Resource
-    private CandidateEventNotificationDao candidateEventNotificationDao;
+    private CandidateSessionDao candidateSessionDao;
+
+    @Resource
+    private CandidateAuditDataWriter candidateAuditDataWriter;
 
     @Resource
     private QtiSerializer qtiSerializer;
@@ -155,6 +176,27 @@ public class CandidateDataService {
     // Notification recording
 
     public CandidateEventNotification recordNotification(final CandidateEvent candidateEvent, final Notification notification) {
+        final CandidateEventNotification record = createNotificationRecord(candidateEvent, notification);
+        candidateAuditDataWriter.writeNotifications(Collections.singletonList(record));
+        return record;
+    }
+
+    /**
+     * Records all of the {@link Notification}s in the given {@link NotificationRecorder} against the
+     * given {@link CandidateEvent}. (These are written out together, which is more efficient than
+     * calling {@link #recordNotification(CandidateEvent, Notification)} repeatedly.)
+     */
+    public List<CandidateEventNotification> recordNotifications(final CandidateEvent candidateEvent,
+            final NotificationRecorder notificationRecorder) {
+        final List<CandidateEventNotification> records = new ArrayList<CandidateEventNotification>();
+        for (final Notification notification : notificationRecorder.getNotifications()) {
+            records.add(createNotificationRecord(candidateEvent, notification));
+        }
+        candidateAuditDataWriter.writeNotifications(records);
+        return records;
+    }
+
+    private CandidateEventNotification createNotificationRecord(final CandidateEvent candidateEvent, final Notification notification) {
         final CandidateEventNotification record = new CandidateEventNotification();
         record.setCandidateEvent(candidateEvent);
 
@@ -179,7 +221,6 @@ public class CandidateDataService {
         }
 
         candidateEvent.getNotifications().add(record);
-        candidateEventNotificationDao.persist(record);
         return record;
     }
 
@@ -226,13 +267,11 @@ public class CandidateDataService {
     // Item methods
 
     public void storeItemSessionState(final CandidateEvent candidateEvent, final ItemSessionState itemSessionState) {
-        final Document stateDocument = ItemSessionStateXmlMarshaller.marshal(itemSessionState);
-        storeStateDocument(candidateEvent, stateDocument);
+        candidateSessionStateStore.storeItemSessionState(candidateEvent, itemSessionState);
     }
 
     public ItemSessionState loadItemSessionState(final CandidateEvent candidateEvent) {
-        final Document document = loadStateDocument(candidateEvent);
-        return ItemSessionStateXmlMarshaller.unmarshal(document.getDocumentElement());
+        return candidateSessionStateStore.loadItemSessionState(candidateEvent);
     }
 
     public CandidateEvent recordCandidateItemEvent(final CandidateSession candidateSession,
@@ -257,9 +296,7 @@ public class CandidateDataService {
 
         /* Now store processing notifications */
         if (notificationRecorder!=null) {
-            for (final Notification notification : notificationRecorder.getNotifications()) {
-                recordNotification(event, notification);
-            }
+            recordNotifications(event, notificationRecorder);
         }
 
         return event;
@@ -392,13 +429,11 @@ public class CandidateDataService {
     // Test methods
 
     public void storeTestSessionState(final CandidateEvent candidateEvent, final TestSessionState testSessionState) {
-        final Document stateDocument = TestSessionStateXmlMarshaller.marshal(testSessionState);
-        storeStateDocument(candidateEvent, stateDocument);
+        candidateSessionStateStore.storeTestSessionState(candidateEvent, testSessionState);
     }
 
     public TestSessionState loadTestSessionState(final CandidateEvent candidateEvent) {
-        final Document document = loadStateDocument(candidateEvent);
-        return TestSessionStateXmlMarshaller.unmarshal(document.getDocumentElement());
+        return candidateSessionStateStore.loadTestSessionState(candidateEvent);
     }
 
     /**
@@ -533,9 +568,7 @@ public class CandidateDataService {
 
         /* Now store processing notifications */
         if (notificationRecorder!=null) {
-            for (final Notification notification : notificationRecorder.getNotifications()) {
-                recordNotification(event, notification);
-            }
+            recordNotifications(event, notificationRecorder);
         }
 
         return event;
@@ -548,11 +581,111 @@ public class CandidateDataService {
     }
 
     public AssessmentResult computeAndRecordTestAssessmentResult(final CandidateSession candidateSession, final TestSessionController testSessionController) {
+        final ReportableStateSignature signature = ReportableStateSignature.compute(testSessionController.getTestSessionState());
         final AssessmentResult assessmentResult = computeTestAssessmentResult(candidateSession, testSessionController);
         recordTestAssessmentResult(candidateSession, assessmentResult);
+
+        /* Remember what we recorded so that unchanged results can be skipped next time */
+        candidateSession.setResultValuesSignature(signature.getValuesSignature());
+        candidateSession.setResultDurationsSignature(signature.getDurationsSignature());
+        candidateSession.setResultRecordedTime(requestTimestampContext.getCurrentRequestTimestamp());
+        candidateSession.setResultPendingTime(null);
+        candidateSessionDao.update(candidateSession);
         return assessmentResult;
     }
 
+    /**
+     * Computes and records the current {@link AssessmentResult} for the given test session, but only
+     * if something it reports has changed since we last did this. Changes that only affect durations
+     * (e.g. navigating around the test) are recorded at most once every
+     * {@link QtiWorksDeploymentSettings#getCandidateSessionResultDurationInterval()} seconds.
+     * Any such change that is skipped is picked up by {@link #recordPendingTestAssessmentResults()}
+     * if the candidate then goes idle.
+     * <p>
+     * The signature of the last recorded result is stored in the {@link CandidateSession}, so
+     * this works the same way across restarts and multiple nodes.
+     * <p>
+     * Use {@link #computeAndRecordTestAssessmentResult(CandidateSession, TestSessionController)}
+     * when the result must always be recorded, e.g. at the end of the test.
+     *
+     * @return true if the result was recorded, false if this was unnecessary
+     */
+    public boolean recordTestAssessmentResultIfChanged(final CandidateSession candidateSession, final TestSessionController testSessionController) {
+        final Date resultRecordedTime = candidateSession.getResultRecordedTime();
+        if (candidateSession.getResultValuesSignature()!=null && resultRecordedTime!=null) {
+            final ReportableStateSignature signature = ReportableStateSignature.compute(testSessionController.getTestSessionState());
+            if (signature.getValuesSignature().equals(candidateSession.getResultValuesSignature())) {
+                if (signature.getDurationsSignature().equals(candidateSession.getResultDurationsSignature())) {
+                    return false;
+                }
+                final Date currentTimestamp = requestTimestampContext.getCurrentRequestTimestamp();
+                final long durationIntervalMillis = qtiWorksDeploymentSettings.getCandidateSessionResultDurationInterval() * 1000L;
+                if (currentTimestamp.getTime() - resultRecordedTime.getTime() < durationIntervalMillis) {
+                    /* Coalesce with later changes, noting that something is waiting to be recorded */
+                    candidateSession.setResultPendingTime(currentTimestamp);
+                    candidateSessionDao.update(candidateSession);
+                    return false;
+                }
+            }
+        }
+        computeAndRecordTestAssessmentResult(candidateSession, testSessionController);
+        return true;
+    }
+
+    /**
+     * Records the current {@link AssessmentResult}s of open test sessions having changes to
+     * durations that were skipped by {@link #recordTestAssessmentResultIfChanged(CandidateSession, TestSessionController)}
+     * and where nothing further has happened for
+     * {@link QtiWorksDeploymentSettings#getCandidateSessionResultDurationInterval()} seconds.
+     * Each session is handled in its own transaction.
+     * <p>
+     * This is invoked regularly by the {@link ScheduledService}.
+     *
+     * @return number of results recorded
+     */
+    public int recordPendingTestAssessmentResults() {
+        final long durationIntervalMillis = qtiWorksDeploymentSettings.getCandidateSessionResultDurationInterval() * 1000L;
+        final Date threshold = new Date(System.currentTimeMillis() - durationIntervalMillis);
+        final List<CandidateSession> candidateSessions = candidateSessionDao.getNonTerminatedWithResultPendingBefore(threshold, PENDING_RESULT_BATCH_SIZE);
+        final TransactionTemplate transactionTemplate = new TransactionTemplate(platformTransactionManager);
+        int recordedCount = 0;
+        for (final CandidateSession candidateSession : candidateSessions) {
+            final Long xid = candidateSession.getId();
+            requestTimestampContext.setCurrentRequestTimestamp(new Date());
+            try {
+                transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+                    @Override
+                    protected void doInTransactionWithoutResult(final TransactionStatus status) {
+                        recordPendingTestAssessmentResult(xid);
+                    }
+                });
+                recordedCount++;
+            }
+            catch (final RuntimeException e) {
+                logger.warn("Failed to record pending assessment result for CandidateSession {}", xid, e);
+            }
+            finally {
+                requestTimestampContext.setCurrentRequestTimestamp(null);
+            }
+        }
+        return recordedCount;
+    }
+
+    private void recordPendingTestAssessmentResult(final Long xid) {
+        final CandidateSession candidateSession = candidateSessionDao.findById(xid);
+        if (candidateSession==null || candidateSession.isTerminated() || candidateSession.getResultPendingTime()==null) {
+            return;
+        }
+        final CandidateEvent mostRecentEvent = getMostRecentEvent(candidateSession);
+        if (mostRecentEvent==null) {
+            candidateSession.setResultPendingTime(null);
+            candidateSessionDao.update(candidateSession);
+            return;
+        }
+        final TestSessionController testSessionController = createTestSessionController(mostRecentEvent, null);
+        computeAndRecordTestAssessmentResult(candidateSession, testSessionController);
+    }
+
     public void recordTestAssessmentResult(final CandidateSession candidateSession, final AssessmentResult assessmentResult) {
         /* First record full result XML to filesystem */
         storeAssessmentResultFile(candidateSession, assessmentResult);
@@ -569,56 +702,29 @@ public class CandidateDataService {
     }
 
     //----------------------------------------------------
-    // State file management
+    // State access
 
-    private void storeStateDocument(final CandidateEvent candidateEvent, final Document stateXml) {
-        final File sessionFile = getSessionStateFile(candidateEvent);
+    /**
+     * Streams a full XML representation of the state recorded for the given {@link CandidateEvent},
+     * regardless of how it is actually stored.
+     */
+    public void streamSessionState(final CandidateEvent candidateEvent, final OutputStreamer outputStreamer)
+            throws IOException {
+        final Document stateDocument = candidateSessionStateStore.loadStateDocument(candidateEvent);
         final XsltSerializationOptions xsltSerializationOptions = new XsltSerializationOptions();
         xsltSerializationOptions.setIndenting(true);
         xsltSerializationOptions.setIncludingXMLDeclaration(false);
         final Transformer serializer = XsltStylesheetManager.createSerializer(xsltSerializationOptions);
-        FileOutputStream resultStream = null;
+        final ByteArrayOutputStream stateBytesStream = new ByteArrayOutputStream();
         try {
-            resultStream = new FileOutputStream(sessionFile);
-            serializer.transform(new DOMSource(stateXml), new StreamResult(resultStream));
+            serializer.transform(new DOMSource(stateDocument), new StreamResult(stateBytesStream));
         }
         catch (final TransformerException e) {
             throw new QtiWorksRuntimeException("Unexpected Exception serializing state DOM", e);
         }
-        catch (final FileNotFoundException e) {
-            throw QtiWorksRuntimeException.unexpectedException(e);
-        }
-        finally {
-            ServiceUtilities.ensureClose(resultStream);
-        }
-    }
-
-    private Document loadStateDocument(final CandidateEvent candidateEvent) {
-        final File sessionFile = ensureSessionStateFile(candidateEvent);
-        final DocumentBuilder documentBuilder = XmlUtilities.createNsAwareDocumentBuilder();
-        try {
-            return documentBuilder.parse(sessionFile);
-        }
-        catch (final Exception e) {
-            throw new QtiWorksLogicException("Could not parse serailized state XML. This is an internal error as we currently don't expose this data to clients", e);
-        }
-    }
-
-    public File ensureSessionStateFile(final CandidateEvent candidateEvent) {
-        final File sessionStateFile = getSessionStateFile(candidateEvent);
-        if (!sessionStateFile.exists()) {
-            throw new QtiWorksLogicException("Expectation failed: State file " + sessionStateFile + " does not exist");
-        }
-        return sessionStateFile;
-    }
-
-    private File getSessionStateFile(final CandidateEvent candidateEvent) {
-        final CandidateSession candidateSession = candidateEvent.getCandidateSession();
-        final AssessmentObjectType assessmentType = candidateSession.getDelivery().getAssessment().getAssessmentType();
-        final String stateFileBaseName = assessmentType==AssessmentObjectType.ASSESSMENT_ITEM ? "itemSessionState" : "testSessionState";
-        final File sessionFolder = filespaceManager.obtainCandidateSessionStateStore(candidateSession);
-        final String stateFileName = stateFileBaseName + candidateEvent.getId() + ".xml";
-        return new File(sessionFolder, stateFileName);
+        final byte[] stateBytes = stateBytesStream.toByteArray();
+        outputStreamer.stream("application/xml", stateBytes.length, candidateEvent.getTimestamp(),
+                new ByteArrayInputStream(stateBytes));
     }
 
     //----------------------------------------------------
@@ -647,6 +753,25 @@ public class CandidateDataService {
         return resultFile;
     }
 
+    /**
+     * Returns the assessmentResult file for the given {@link CandidateSession}, recomputing it
+     * from the most recently recorded state first if it does not exist. (This can happen if the
+     * file was lost, or if the session was run before these files were recorded.)
+     *
+     * @return assessmentResult file, or null if the session has not been entered so has no result
+     */
+    public File ensureOrRegenerateAssessmentResultFile(final CandidateSession candidateSession) {
+        final File resultFile = getAssessmentResultFile(candidateSession);
+        if (!resultFile.exists()) {
+            final CandidateEvent mostRecentEvent = getMostRecentEvent(candidateSession);
+            if (mostRecentEvent==null) {
+                return null;
+            }
+            storeAssessmentResultFile(candidateSession, computeAssessmentResult(mostRecentEvent));
+        }
+        return resultFile;
+    }
+
     private File getAssessmentResultFile(final CandidateSession candidateSession) {
         final File sessionFolder = filespaceManager.obtainCandidateSessionStateStore(candidateSession);
         return new File(sessionFolder, "assessmentResult.xml");
@@ -677,8 +802,13 @@ public class CandidateDataService {
         return candidateEventDao.getNewestEventInSession(candidateSession);
     }
 
+    /**
+     * Records the outcome variables in the given result node to the DB, writing back only those
+     * rows that have changed since the last time this was done for the given session.
+     */
     private void recordOutcomeVariables(final CandidateSession candidateSession, final AbstractResult resultNode) {
-        candidateSessionOutcomeDao.deleteForCandidateSession(candidateSession);
+        /* Compute new outcomes */
+        final List<CandidateSessionOutcome> computedOutcomes = new ArrayList<CandidateSessionOutcome>();
         for (final ItemVariable itemVariable : resultNode.getItemVariables()) {
             if (itemVariable instanceof OutcomeVariable
                     || QtiConstants.VARIABLE_DURATION_IDENTIFIER.equals(itemVariable.getIdentifier())) {
@@ -688,9 +818,12 @@ public class CandidateDataService {
                 outcome.setBaseType(itemVariable.getBaseType());
                 outcome.setCardinality(itemVariable.getCardinality());
                 outcome.setStringValue(stringifyQtiValue(itemVariable.getComputedValue()));
-                candidateSessionOutcomeDao.persist(outcome);
+                computedOutcomes.add(outcome);
             }
         }
+
+        /* Then write back whatever has changed */
+        candidateSessionOutcomeRecorder.recordOutcomes(candidateSession, computedOutcomes);
     }
 
     private String stringifyQtiValue(final Value value) {
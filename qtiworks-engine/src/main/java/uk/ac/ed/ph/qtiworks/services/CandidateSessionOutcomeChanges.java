@@ -0,0 +1,138 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSessionOutcome;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Works out how to bring the {@link CandidateSessionOutcome}s already recorded for a
+ * candidate session into line with newly-computed outcome values, so that only the rows
+ * that have actually changed need to be written back.
+ * <p>
+ * Existing outcomes whose values have changed are updated in place (so will be written back
+ * by the JPA provider's dirty checking), existing outcomes that are no longer present should
+ * be removed, and new outcomes should be persisted.
+ * <p>
+ * Usage: Not thread-safe
+ *
+ * @author David McKain
+ */
+public final class CandidateSessionOutcomeChanges {
+
+    private final List<CandidateSessionOutcome> removedOutcomes;
+    private final List<CandidateSessionOutcome> updatedOutcomes;
+    private final List<CandidateSessionOutcome> newOutcomes;
+
+    private CandidateSessionOutcomeChanges(final List<CandidateSessionOutcome> removedOutcomes,
+            final List<CandidateSessionOutcome> updatedOutcomes, final List<CandidateSessionOutcome> newOutcomes) {
+        this.removedOutcomes = Collections.unmodifiableList(removedOutcomes);
+        this.updatedOutcomes = Collections.unmodifiableList(updatedOutcomes);
+        this.newOutcomes = Collections.unmodifiableList(newOutcomes);
+    }
+
+    /**
+     * Compares the given existing (recorded) outcomes with the given computed ones, updating
+     * the values of existing outcomes as required.
+     *
+     * @param existingOutcomes outcomes already recorded for the session
+     * @param computedOutcomes newly computed (unpersisted) outcomes for the session
+     */
+    public static CandidateSessionOutcomeChanges compute(final List<CandidateSessionOutcome> existingOutcomes,
+            final List<CandidateSessionOutcome> computedOutcomes) {
+        final Map<String, CandidateSessionOutcome> computedOutcomeMap = new LinkedHashMap<String, CandidateSessionOutcome>();
+        for (final CandidateSessionOutcome computedOutcome : computedOutcomes) {
+            computedOutcomeMap.put(computedOutcome.getOutcomeIdentifier(), computedOutcome);
+        }
+        final List<CandidateSessionOutcome> removedOutcomes = new ArrayList<CandidateSessionOutcome>();
+        final List<CandidateSessionOutcome> updatedOutcomes = new ArrayList<CandidateSessionOutcome>();
+        for (final CandidateSessionOutcome existingOutcome : existingOutcomes) {
+            final CandidateSessionOutcome computedOutcome = computedOutcomeMap.get(existingOutcome.getOutcomeIdentifier());
+            if (computedOutcome==null
+                    || computedOutcome.getBaseType()!=existingOutcome.getBaseType()
+                    || computedOutcome.getCardinality()!=existingOutcome.getCardinality()) {
+                /* Outcome has gone, or changed type (which shouldn't really happen). We'll replace it. */
+                removedOutcomes.add(existingOutcome);
+                continue;
+            }
+            computedOutcomeMap.remove(existingOutcome.getOutcomeIdentifier());
+            if (!ObjectUtilities.nullSafeEquals(computedOutcome.getStringValue(), existingOutcome.getStringValue())) {
+                existingOutcome.setStringValue(computedOutcome.getStringValue());
+                updatedOutcomes.add(existingOutcome);
+            }
+        }
+        return new CandidateSessionOutcomeChanges(removedOutcomes, updatedOutcomes,
+                new ArrayList<CandidateSessionOutcome>(computedOutcomeMap.values()));
+    }
+
+    /** Existing outcomes that should now be removed */
+    public List<CandidateSessionOutcome> getRemovedOutcomes() {
+        return removedOutcomes;
+    }
+
+    /** Existing outcomes whose values have been updated */
+    public List<CandidateSessionOutcome> getUpdatedOutcomes() {
+        return updatedOutcomes;
+    }
+
+    /** New outcomes that should now be persisted */
+    public List<CandidateSessionOutcome> getNewOutcomes() {
+        return newOutcomes;
+    }
+
+    public boolean isEmpty() {
+        return removedOutcomes.isEmpty() && updatedOutcomes.isEmpty() && newOutcomes.isEmpty();
+    }
+
+    /** Returns the number of rows that will be written back as a result of these changes */
+    public int getWriteCount() {
+        return removedOutcomes.size() + updatedOutcomes.size() + newOutcomes.size();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                + "(removed=" + removedOutcomes.size()
+                + ",updated=" + updatedOutcomes.size()
+                + ",new=" + newOutcomes.size()
+                + ")";
+    }
+}
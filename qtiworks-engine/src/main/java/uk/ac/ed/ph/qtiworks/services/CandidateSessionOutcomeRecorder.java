@@ -0,0 +1,210 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSessionOutcome;
+import uk.ac.ed.ph.qtiworks.services.dao.CandidateSessionOutcomeDao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Resource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Records the {@link CandidateSessionOutcome}s for a {@link CandidateSession}, writing back only
+ * the rows that have changed since the outcomes were last recorded.
+ * <p>
+ * The outcomes most recently recorded for each session are remembered in memory, but only once
+ * the transaction recording them commits, so a rolled back transaction never leaves anything
+ * behind. Recording the next set of outcomes then normally needs no SELECT: changed outcomes are
+ * updated directly by ID (provided they still have the remembered value) and vanished outcomes
+ * are deleted directly by ID. If any of these statements doesn't affect exactly one row, or
+ * nothing is remembered for the session, the outcomes are re-read from the DB and diffed as
+ * normal.
+ * <p>
+ * IMPORTANT: This assumes a single writer per session. That is, the outcomes for a session are
+ * only ever written via this class, by one transaction at a time, on one node. If a session's
+ * outcomes were written elsewhere (e.g. by another node sharing the same DB), the remembered
+ * values would go stale. Changed and deleted rows would be noticed as above, but an outcome
+ * changed elsewhere and then computed here with its remembered value would not be written back.
+ * Call {@link #forgetSession(CandidateSession)} after changing a session's outcomes by other means.
+ * <p>
+ * This is NO authorisation at this level.
+ *
+ * @see CandidateSessionOutcomeChanges
+ *
+ * @author David McKain
+ */
+@Service
+@Transactional(propagation=Propagation.REQUIRED)
+public class CandidateSessionOutcomeRecorder {
+
+    private static final Logger logger = LoggerFactory.getLogger(CandidateSessionOutcomeRecorder.class);
+
+    /** Maximum number of sessions whose recorded outcomes will be remembered */
+    private static final int RECORDED_OUTCOMES_CACHE_SIZE = 10000;
+
+    /** Time after which the recorded outcomes for an idle session will be forgotten */
+    private static final int RECORDED_OUTCOMES_CACHE_EXPIRY_MINUTES = 60;
+
+    @Resource
+    private CandidateSessionOutcomeDao candidateSessionOutcomeDao;
+
+    /**
+     * Copies of the outcomes most recently recorded (and committed) for each session, keyed on
+     * {@link CandidateSession} ID. A missing entry means the outcomes will be read from the DB.
+     */
+    private final Cache<Long, List<CandidateSessionOutcome>> recordedOutcomesCache = CacheBuilder.newBuilder()
+            .maximumSize(RECORDED_OUTCOMES_CACHE_SIZE)
+            .expireAfterAccess(RECORDED_OUTCOMES_CACHE_EXPIRY_MINUTES, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * Records the given newly-computed outcomes for the given {@link CandidateSession}.
+     *
+     * @return the {@link CandidateSessionOutcomeChanges} that were written back. (If the remembered
+     *   outcomes turned out to be out of date, these are the changes made against the re-read
+     *   outcomes, so won't include any updates already written directly.)
+     */
+    public CandidateSessionOutcomeChanges recordOutcomes(final CandidateSession candidateSession,
+            final List<CandidateSessionOutcome> computedOutcomes) {
+        final Long xid = candidateSession.getId();
+
+        /* Forget what we knew until this transaction commits, in case it rolls back */
+        final List<CandidateSessionOutcome> rememberedOutcomes = recordedOutcomesCache.getIfPresent(xid);
+        recordedOutcomesCache.invalidate(xid);
+
+        CandidateSessionOutcomeChanges outcomeChanges = null;
+        List<CandidateSessionOutcome> existingOutcomes = null;
+        if (rememberedOutcomes!=null) {
+            existingOutcomes = copyOutcomes(rememberedOutcomes);
+            outcomeChanges = CandidateSessionOutcomeChanges.compute(existingOutcomes, computedOutcomes);
+            if (!writeChangesDirectly(rememberedOutcomes, outcomeChanges)) {
+                logger.debug("Remembered outcomes for CandidateSession #{} were out of date, so re-reading them", xid);
+                outcomeChanges = null;
+            }
+        }
+        if (outcomeChanges==null) {
+            /* Diff against what's in the DB. (Updated outcomes are already managed, so will be
+             * written back when the persistence context is flushed.) */
+            existingOutcomes = candidateSessionOutcomeDao.getForSession(candidateSession);
+            outcomeChanges = CandidateSessionOutcomeChanges.compute(existingOutcomes, computedOutcomes);
+            for (final CandidateSessionOutcome removedOutcome : outcomeChanges.getRemovedOutcomes()) {
+                candidateSessionOutcomeDao.remove(removedOutcome);
+            }
+        }
+        for (final CandidateSessionOutcome newOutcome : outcomeChanges.getNewOutcomes()) {
+            candidateSessionOutcomeDao.persist(newOutcome);
+        }
+
+        /* Remember what's now recorded once this transaction commits */
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            final List<CandidateSessionOutcome> recordedOutcomes = new ArrayList<CandidateSessionOutcome>(existingOutcomes);
+            recordedOutcomes.removeAll(outcomeChanges.getRemovedOutcomes());
+            recordedOutcomes.addAll(outcomeChanges.getNewOutcomes());
+            final List<CandidateSessionOutcome> recordedOutcomesCopy = Collections.unmodifiableList(copyOutcomes(recordedOutcomes));
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    recordedOutcomesCache.put(xid, recordedOutcomesCopy);
+                }
+            });
+        }
+        return outcomeChanges;
+    }
+
+    /**
+     * Forgets any outcomes remembered for the given {@link CandidateSession}. Call this if its
+     * outcomes are changed by other means.
+     */
+    public void forgetSession(final CandidateSession candidateSession) {
+        recordedOutcomesCache.invalidate(candidateSession.getId());
+    }
+
+    /**
+     * Writes back the updated and removed outcomes in the given changes directly by ID.
+     * Returns false if any of these outcomes no longer exist, or if any updated outcome no
+     * longer has its remembered value.
+     */
+    private boolean writeChangesDirectly(final List<CandidateSessionOutcome> rememberedOutcomes,
+            final CandidateSessionOutcomeChanges outcomeChanges) {
+        final Map<Long, String> rememberedValueMap = new HashMap<Long, String>();
+        for (final CandidateSessionOutcome rememberedOutcome : rememberedOutcomes) {
+            rememberedValueMap.put(rememberedOutcome.getId(), rememberedOutcome.getStringValue());
+        }
+        for (final CandidateSessionOutcome updatedOutcome : outcomeChanges.getUpdatedOutcomes()) {
+            if (candidateSessionOutcomeDao.updateStringValue(updatedOutcome.getId(),
+                    rememberedValueMap.get(updatedOutcome.getId()), updatedOutcome.getStringValue())!=1) {
+                return false;
+            }
+        }
+        for (final CandidateSessionOutcome removedOutcome : outcomeChanges.getRemovedOutcomes()) {
+            if (candidateSessionOutcomeDao.deleteById(removedOutcome.getId())!=1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<CandidateSessionOutcome> copyOutcomes(final List<CandidateSessionOutcome> outcomes) {
+        final List<CandidateSessionOutcome> result = new ArrayList<CandidateSessionOutcome>(outcomes.size());
+        for (final CandidateSessionOutcome outcome : outcomes) {
+            final CandidateSessionOutcome copy = new CandidateSessionOutcome();
+            copy.setId(outcome.getId());
+            copy.setCandidateSession(outcome.getCandidateSession());
+            copy.setOutcomeIdentifier(outcome.getOutcomeIdentifier());
+            copy.setBaseType(outcome.getBaseType());
+            copy.setCardinality(outcome.getCardinality());
+            copy.setStringValue(outcome.getStringValue());
+            result.add(copy);
+        }
+        return result;
+    }
+}
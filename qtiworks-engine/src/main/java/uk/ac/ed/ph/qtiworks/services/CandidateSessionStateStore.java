@@ -0,0 +1,74 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEvent;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+
+import org.w3c.dom.Document;
+
+/**
+ * Strategy for storing and retrieving the {@link ItemSessionState} or {@link TestSessionState}
+ * recorded for each {@link CandidateEvent}.
+ * <p>
+ * Implementations must allow the state at <strong>any</strong> previously-recorded
+ * {@link CandidateEvent} to be reconstructed, as this is required when reviewing
+ * the history of a {@link CandidateSession}.
+ *
+ * @see XmlCandidateSessionStateStore
+ * @see DeltaXmlCandidateSessionStateStore
+ * @see BinaryCandidateSessionStateStore
+ *
+ * @author David McKain
+ */
+public interface CandidateSessionStateStore {
+
+    void storeItemSessionState(CandidateEvent candidateEvent, ItemSessionState itemSessionState);
+
+    ItemSessionState loadItemSessionState(CandidateEvent candidateEvent);
+
+    void storeTestSessionState(CandidateEvent candidateEvent, TestSessionState testSessionState);
+
+    TestSessionState loadTestSessionState(CandidateEvent candidateEvent);
+
+    /**
+     * Returns a full XML representation of the state recorded for the given {@link CandidateEvent},
+     * as produced by the JQTI+ state XML marshallers.
+     */
+    Document loadStateDocument(CandidateEvent candidateEvent);
+
+}
@@ -0,0 +1,137 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.config.QtiWorksProfiles;
+import uk.ac.ed.ph.qtiworks.rendering.AssessmentRenderer;
+
+import uk.ac.ed.ph.jqtiplus.reading.QtiXmlReader;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Compiles all of the QTI schemas and rendering stylesheets when the webapp starts, so that the
+ * first uploads and candidates don't have to wait for this. These are compiled in parallel using a
+ * short-lived pool of Threads.
+ * <p>
+ * Failures are logged but otherwise ignored here, as the schema or stylesheet will simply be
+ * compiled again (and fail properly) when first used.
+ *
+ * @author David McKain
+ */
+@Service
+@Profile(QtiWorksProfiles.WEBAPP)
+public class CompilationWarmupService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompilationWarmupService.class);
+
+    @Resource
+    private QtiXmlReader qtiXmlReader;
+
+    @Resource
+    private AssessmentRenderer assessmentRenderer;
+
+    //-------------------------------------------------
+
+    @PostConstruct
+    public void warmUp() {
+        final List<Callable<Object>> compilationTasks = new ArrayList<Callable<Object>>();
+        for (final String schemaUri : new LinkedHashSet<String>(qtiXmlReader.getRegisteredSchemaUris())) {
+            compilationTasks.add(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    qtiXmlReader.precompileSchema(schemaUri);
+                    return schemaUri;
+                }
+            });
+        }
+        for (final URI xsltUri : assessmentRenderer.getStylesheetUris()) {
+            compilationTasks.add(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    assessmentRenderer.precompileStylesheet(xsltUri);
+                    return xsltUri;
+                }
+            });
+        }
+
+        final long startTime = System.currentTimeMillis();
+        final int threadCount = Math.min(compilationTasks.size(), Runtime.getRuntime().availableProcessors());
+        final ExecutorService executorService = Executors.newFixedThreadPool(threadCount, new ThreadFactoryBuilder()
+                .setNameFormat("compilation-warmup-%d")
+                .setDaemon(true)
+                .build());
+        int compiledCount = 0;
+        try {
+            final List<Future<Object>> futures = executorService.invokeAll(compilationTasks);
+            for (final Future<Object> future : futures) {
+                try {
+                    future.get();
+                    compiledCount++;
+                }
+                catch (final ExecutionException e) {
+                    logger.warn("Failed to precompile schema or stylesheet", e.getCause());
+                }
+            }
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while precompiling schemas and stylesheets");
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+        logger.info("Precompiled {} of {} schemas and rendering stylesheets using {} threads in {}ms",
+                new Object[] { compiledCount, compilationTasks.size(), threadCount, System.currentTimeMillis() - startTime });
+    }
+
+}
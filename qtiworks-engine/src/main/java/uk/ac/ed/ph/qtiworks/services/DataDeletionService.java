@@ -48,6 +48,7 @@ import uk.ac.ed.ph.qtiworks.domain.entities.User;
 import uk.ac.ed.ph.qtiworks.services.dao.AnonymousUserDao;
 import uk.ac.ed.ph.qtiworks.services.dao.AssessmentDao;
 import uk.ac.ed.ph.qtiworks.services.dao.AssessmentPackageDao;
+import uk.ac.ed.ph.qtiworks.services.dao.AuditJournalBatchDao;
 import uk.ac.ed.ph.qtiworks.services.dao.CandidateEventDao;
 import uk.ac.ed.ph.qtiworks.services.dao.CandidateEventNotificationDao;
 import uk.ac.ed.ph.qtiworks.services.dao.CandidateFileSubmissionDao;
@@ -135,6 +136,9 @@ public class DataDeletionService {
     @Resource
     private CandidateSessionOutcomeDao candidateSessionOutcomeDao;
 
+    @Resource
+    private CandidateSessionOutcomeRecorder candidateSessionOutcomeRecorder;
+
     @Resource
     private DeliveryDao deliveryDao;
 
@@ -153,6 +157,9 @@ public class DataDeletionService {
     @Resource
     private LtiNonceDao ltiNonceDao;
 
+    @Resource
+    private AuditJournalBatchDao auditJournalBatchDao;
+
     @Resource
     private LtiResourceDao ltiResourceDao;
 
@@ -182,6 +189,7 @@ public class DataDeletionService {
          */
         queuedLtiOutcomeDao.deleteForCandidateSession(candidateSession);
         candidateSessionOutcomeDao.deleteForCandidateSession(candidateSession);
+        candidateSessionOutcomeRecorder.forgetSession(candidateSession);
         candidateResponseDao.deleteForCandidateSession(candidateSession);
         candidateFileSubmissionDao.deleteForCandidateSession(candidateSession);
         candidateEventNotificationDao.deleteForCandidateSession(candidateSession);
@@ -525,4 +533,14 @@ public class DataDeletionService {
         }
     }
 
+    /**
+     * Purges all records of written-out audit journal batches older than the given threshold.
+     */
+    public void purgeOldAuditJournalBatches(final Date batchThreshold) {
+        final int batchesDeletedCount = auditJournalBatchDao.deleteOldBatches(batchThreshold);
+        if (batchesDeletedCount>0) {
+            logger.info("Deleted {} audit journal batch records", batchesDeletedCount);
+        }
+    }
+
 }
@@ -0,0 +1,389 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.QtiWorksLogicException;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEvent;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+import uk.ac.ed.ph.qtiworks.utils.XmlUtilities;
+
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateXmlMarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.XmlMarshallerCore;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * {@link CandidateSessionStateStore} that stores {@link TestSessionState}s as periodic full
+ * snapshots, with the events in between recorded as compact deltas that contain only the
+ * parts of the state that changed since the previous event.
+ * <p>
+ * Full snapshots use the same format as {@link XmlCandidateSessionStateStore}, so data
+ * recorded by that store (or by the {@link BinaryCandidateSessionStateStore}) can be read
+ * here. {@link ItemSessionState}s are small so are always stored as full snapshots.
+ * <p>
+ * Deltas are computed against fingerprints of the most recently stored state for each
+ * {@link CandidateSession}, which are held in memory. If these are not available (e.g. after
+ * a restart) then a full snapshot is simply recorded instead.
+ *
+ * <h2>Delta format</h2>
+ *
+ * A delta file contains a <code>testSessionStateDelta</code> element, recording the ID of the
+ * {@link CandidateEvent} it was computed against. It contains a <code>testSessionState</code>
+ * element having the full set of (current) attributes, but only those children (outcome values,
+ * testPart, assessmentSection and item states) that have been added or changed.
+ *
+ * @author David McKain
+ */
+public class DeltaXmlCandidateSessionStateStore extends XmlCandidateSessionStateStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeltaXmlCandidateSessionStateStore.class);
+
+    /** Variant name used for delta files */
+    public static final String DELTA_FILE_VARIANT = "Delta";
+
+    /** Maximum number of sessions whose fingerprints we keep in memory */
+    private static final int FINGERPRINT_CACHE_SIZE = 10000;
+
+    /** Time after which we'll forget about the fingerprints of inactive sessions */
+    private static final int FINGERPRINT_CACHE_EXPIRY_MINUTES = 60;
+
+    private static final HashFunction hashFunction = Hashing.murmur3_128();
+
+    private final int snapshotInterval;
+    private final Cache<Long, StateFingerprint> fingerprintCache;
+
+    /**
+     * @param snapshotInterval maximum number of consecutive events that may be recorded as deltas
+     *   before a full snapshot is taken. (A value of 1 or less means that full snapshots are
+     *   always taken.)
+     */
+    public DeltaXmlCandidateSessionStateStore(final int snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+        this.fingerprintCache = CacheBuilder.newBuilder()
+                .maximumSize(FINGERPRINT_CACHE_SIZE)
+                .expireAfterAccess(FINGERPRINT_CACHE_EXPIRY_MINUTES, TimeUnit.MINUTES)
+                .build();
+    }
+
+    public int getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    //----------------------------------------------------
+    // Storage
+
+    @Override
+    public void storeTestSessionState(final CandidateEvent candidateEvent, final TestSessionState testSessionState) {
+        final CandidateSession candidateSession = candidateEvent.getCandidateSession();
+        final long candidateEventId = candidateEvent.getId().longValue();
+        final Document stateDocument = TestSessionStateXmlMarshaller.marshal(testSessionState);
+        final Element stateElement = stateDocument.getDocumentElement();
+        final Map<String, HashCode> childFingerprints = fingerprintChildren(stateElement);
+
+        /* Decide whether we can record a delta or need a full snapshot */
+        final StateFingerprint previous = fingerprintCache.getIfPresent(candidateSession.getId());
+        final StateFingerprint current;
+        if (previous==null
+                || previous.getChainLength() + 1 >= snapshotInterval
+                || !childFingerprints.keySet().containsAll(previous.getChildFingerprints().keySet())) {
+            storeStateDocument(getSessionStateFile(candidateEvent), stateDocument, true);
+            current = new StateFingerprint(candidateEventId, 0, childFingerprints);
+        }
+        else {
+            final Document deltaDocument = buildDeltaDocument(stateElement, childFingerprints, previous);
+            storeStateDocument(getSessionStateFile(candidateSession, candidateEventId, DELTA_FILE_VARIANT), deltaDocument, false);
+            current = new StateFingerprint(candidateEventId, previous.getChainLength() + 1, childFingerprints);
+        }
+        fingerprintCache.put(candidateSession.getId(), current);
+    }
+
+    private Document buildDeltaDocument(final Element stateElement, final Map<String, HashCode> childFingerprints,
+            final StateFingerprint previous) {
+        final Document deltaDocument = XmlUtilities.createNsAwareDocumentBuilder().newDocument();
+        final Element deltaElement = deltaDocument.createElementNS(XmlMarshallerCore.QTIWORKS_NAMESPACE, "testSessionStateDelta");
+        deltaElement.setAttribute("previousEventId", Long.toString(previous.getCandidateEventId()));
+        deltaElement.setAttribute("chainLength", Integer.toString(previous.getChainLength() + 1));
+        deltaDocument.appendChild(deltaElement);
+
+        /* Copy state element and all of its attributes */
+        final Element deltaStateElement = (Element) deltaDocument.importNode(stateElement, false);
+        deltaElement.appendChild(deltaStateElement);
+
+        /* Then copy only children that are new or have changed */
+        final Map<String, HashCode> previousChildFingerprints = previous.getChildFingerprints();
+        for (final Element childElement : getElementChildren(stateElement)) {
+            final String childKey = getChildKey(childElement);
+            if (!childFingerprints.get(childKey).equals(previousChildFingerprints.get(childKey))) {
+                deltaStateElement.appendChild(deltaDocument.importNode(childElement, true));
+            }
+        }
+        return deltaDocument;
+    }
+
+    //----------------------------------------------------
+    // Retrieval
+
+    @Override
+    public TestSessionState loadTestSessionState(final CandidateEvent candidateEvent) {
+        final Document document = loadStateDocument(candidateEvent);
+        return TestSessionStateXmlMarshaller.unmarshal(document.getDocumentElement());
+    }
+
+    @Override
+    public Document loadStateDocument(final CandidateEvent candidateEvent) {
+        final File snapshotFile = getSessionStateFile(candidateEvent);
+        if (snapshotFile.exists()) {
+            return parseStateFile(snapshotFile);
+        }
+        final CandidateSession candidateSession = candidateEvent.getCandidateSession();
+        final long candidateEventId = candidateEvent.getId().longValue();
+        if (!getSessionStateFile(candidateSession, candidateEventId, DELTA_FILE_VARIANT).exists()) {
+            final Document binaryStateDocument = loadBinaryStateDocument(candidateEvent);
+            if (binaryStateDocument!=null) {
+                return binaryStateDocument;
+            }
+        }
+        return reconstructStateDocument(candidateSession, candidateEventId);
+    }
+
+    /**
+     * Reconstructs the full state XML for the given event by walking back through the chain of deltas
+     * until we find a full snapshot, and then applying the deltas to it in order.
+     */
+    private Document reconstructStateDocument(final CandidateSession candidateSession, final long candidateEventId) {
+        final List<Element> deltaStateElements = new ArrayList<Element>();
+        File snapshotFile;
+        long currentEventId = candidateEventId;
+        while (!(snapshotFile = getSessionStateFile(candidateSession, currentEventId, "")).exists()) {
+            final File deltaFile = getSessionStateFile(candidateSession, currentEventId, DELTA_FILE_VARIANT);
+            if (!deltaFile.exists()) {
+                throw new QtiWorksLogicException("Expectation failed: Neither state file " + snapshotFile
+                        + " nor delta file " + deltaFile + " exist");
+            }
+            final Element deltaElement = parseStateFile(deltaFile).getDocumentElement();
+            final List<Element> deltaChildren = getElementChildren(deltaElement);
+            if (!"testSessionStateDelta".equals(deltaElement.getLocalName()) || deltaChildren.size()!=1) {
+                throw new QtiWorksLogicException("Unexpected structure within delta file " + deltaFile);
+            }
+            deltaStateElements.add(deltaChildren.get(0));
+            currentEventId = Long.parseLong(deltaElement.getAttribute("previousEventId"));
+        }
+        logger.trace("Reconstructing state for event #{} from snapshot {} and {} deltas",
+                new Object[] { candidateEventId, snapshotFile, deltaStateElements.size() });
+
+        final Document result = parseStateFile(snapshotFile);
+        Collections.reverse(deltaStateElements);
+        for (final Element deltaStateElement : deltaStateElements) {
+            applyDelta(result, deltaStateElement);
+        }
+        return result;
+    }
+
+    private void applyDelta(final Document stateDocument, final Element deltaStateElement) {
+        final Element stateElement = stateDocument.getDocumentElement();
+
+        /* Replace attributes on the state element */
+        final NamedNodeMap currentAttributes = stateElement.getAttributes();
+        for (int i=currentAttributes.getLength()-1; i>=0; i--) {
+            final Attr attr = (Attr) currentAttributes.item(i);
+            if (attr.getNamespaceURI()==null) {
+                stateElement.removeAttributeNode(attr);
+            }
+        }
+        final NamedNodeMap deltaAttributes = deltaStateElement.getAttributes();
+        for (int i=0, size=deltaAttributes.getLength(); i<size; i++) {
+            final Attr attr = (Attr) deltaAttributes.item(i);
+            if (attr.getNamespaceURI()==null) {
+                stateElement.setAttribute(attr.getName(), attr.getValue());
+            }
+        }
+
+        /* Replace or add children. New children are added after the last existing child of the same type */
+        final Map<String, Element> childElementMap = new HashMap<String, Element>();
+        for (final Element childElement : getElementChildren(stateElement)) {
+            childElementMap.put(getChildKey(childElement), childElement);
+        }
+        for (final Element deltaChildElement : getElementChildren(deltaStateElement)) {
+            final String childKey = getChildKey(deltaChildElement);
+            final Element importedChildElement = (Element) stateDocument.importNode(deltaChildElement, true);
+            final Element existingChildElement = childElementMap.get(childKey);
+            if (existingChildElement!=null) {
+                stateElement.replaceChild(importedChildElement, existingChildElement);
+            }
+            else {
+                Element lastSibling = null;
+                for (final Element childElement : getElementChildren(stateElement)) {
+                    if (childElement.getLocalName().equals(importedChildElement.getLocalName())) {
+                        lastSibling = childElement;
+                    }
+                }
+                if (lastSibling!=null) {
+                    stateElement.insertBefore(importedChildElement, lastSibling.getNextSibling());
+                }
+                else {
+                    stateElement.appendChild(importedChildElement);
+                }
+            }
+            childElementMap.put(childKey, importedChildElement);
+        }
+    }
+
+    //----------------------------------------------------
+    // Helpers
+
+    private static List<Element> getElementChildren(final Element element) {
+        final NodeList childNodes = element.getChildNodes();
+        final List<Element> result = new ArrayList<Element>(childNodes.getLength());
+        for (int i=0, size=childNodes.getLength(); i<size; i++) {
+            final Node childNode = childNodes.item(i);
+            if (childNode.getNodeType()==Node.ELEMENT_NODE) {
+                result.add((Element) childNode);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a key uniquely identifying the given child of a <code>testSessionState</code> element,
+     * formed from its local name and its <code>key</code> or <code>identifier</code> attribute.
+     */
+    private static String getChildKey(final Element childElement) {
+        final String localName = childElement.getLocalName();
+        if (childElement.hasAttribute("key")) {
+            return localName + ":" + childElement.getAttribute("key");
+        }
+        else if (childElement.hasAttribute("identifier")) {
+            return localName + ":" + childElement.getAttribute("identifier");
+        }
+        return localName;
+    }
+
+    private static Map<String, HashCode> fingerprintChildren(final Element stateElement) {
+        final Map<String, HashCode> result = new LinkedHashMap<String, HashCode>();
+        for (final Element childElement : getElementChildren(stateElement)) {
+            final Hasher hasher = hashFunction.newHasher();
+            fingerprintNode(hasher, childElement);
+            result.put(getChildKey(childElement), hasher.hash());
+        }
+        return result;
+    }
+
+    private static void fingerprintNode(final Hasher hasher, final Node node) {
+        switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                hasher.putChar('<').putString(node.getLocalName(), Charsets.UTF_8);
+                final NamedNodeMap attributes = node.getAttributes();
+                final Map<String, String> sortedAttributes = new TreeMap<String, String>();
+                for (int i=0, size=attributes.getLength(); i<size; i++) {
+                    final Attr attr = (Attr) attributes.item(i);
+                    sortedAttributes.put(attr.getName(), attr.getValue());
+                }
+                for (final Entry<String, String> entry : sortedAttributes.entrySet()) {
+                    hasher.putChar('@').putString(entry.getKey(), Charsets.UTF_8)
+                        .putChar('=').putString(entry.getValue(), Charsets.UTF_8);
+                }
+                final NodeList childNodes = node.getChildNodes();
+                for (int i=0, size=childNodes.getLength(); i<size; i++) {
+                    fingerprintNode(hasher, childNodes.item(i));
+                }
+                hasher.putChar('>');
+                break;
+
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+                hasher.putChar('#').putString(node.getNodeValue(), Charsets.UTF_8);
+                break;
+
+            default:
+                /* (Nothing else is produced by the state marshallers) */
+                break;
+        }
+    }
+
+    /**
+     * Immutable record of the most recently stored state within a {@link CandidateSession}.
+     */
+    private static final class StateFingerprint {
+
+        private final long candidateEventId;
+        private final int chainLength;
+        private final Map<String, HashCode> childFingerprints;
+
+        public StateFingerprint(final long candidateEventId, final int chainLength, final Map<String, HashCode> childFingerprints) {
+            this.candidateEventId = candidateEventId;
+            this.chainLength = chainLength;
+            this.childFingerprints = Collections.unmodifiableMap(childFingerprints);
+        }
+
+        public long getCandidateEventId() {
+            return candidateEventId;
+        }
+
+        public int getChainLength() {
+            return chainLength;
+        }
+
+        public Map<String, HashCode> getChildFingerprints() {
+            return childFingerprints;
+        }
+    }
+}
@@ -94,6 +94,10 @@ public final class FilespaceManager {
         return new File(tmpFolder, createUniqueRequestComponent());
     }
 
+    public File obtainAuditJournalDirectory() {
+        return ensureCreateDirectory(filesystemBaseUri + "/journal");
+    }
+
     //-------------------------------------------------
 
     public File createAssessmentPackageSandbox(final User owner) {
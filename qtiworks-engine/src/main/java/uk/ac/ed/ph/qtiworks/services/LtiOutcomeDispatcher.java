@@ -0,0 +1,387 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.QtiWorksRuntimeException;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Sends batches of LIS results back to LTI Tool Consumers using a bounded pool of worker Threads.
+ * <p>
+ * Results are grouped by OAuth consumer key, which corresponds to an {@link uk.ac.ed.ph.qtiworks.domain.entities.LtiDomain}
+ * for domain-level launches or a single {@link uk.ac.ed.ph.qtiworks.domain.entities.Delivery}
+ * for link-level launches. At most a fixed number of results are sent to each consumer concurrently,
+ * and sends to each consumer can be rate-limited. If a consumer fails a number of sends in a row,
+ * then the remaining results for it are deferred until the next batch.
+ * <p>
+ * This knows nothing about the entity model, so is used by {@link LtiOutcomeService} to do the
+ * actual sending. It also keeps some simple statistics about the sends it has performed.
+ * <p>
+ * This class is thread-safe, though batches are expected to be dispatched serially.
+ *
+ * @see LtiOutcomeService
+ *
+ * @author David McKain
+ */
+public class LtiOutcomeDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(LtiOutcomeDispatcher.class);
+
+    /** Number of consecutive failures to a consumer after which we give up on it for the current batch */
+    public static final int CONSECUTIVE_FAILURE_LIMIT = 3;
+
+    /** Result of trying to send a {@link LisResult} */
+    public static enum SendResult {
+        SUCCESS,
+        FAILURE,
+        DEFERRED,
+    }
+
+    /**
+     * Encapsulates the data required to send a single LIS result.
+     */
+    public static final class LisResult {
+
+        private final String lisOutcomeServiceUrl;
+        private final String lisResultSourcedid;
+        private final String consumerKey;
+        private final String consumerSecret;
+        private final double normalizedScore;
+
+        public LisResult(final String lisOutcomeServiceUrl, final String lisResultSourcedid,
+                final String consumerKey, final String consumerSecret, final double normalizedScore) {
+            Assert.notNull(consumerKey, "consumerKey");
+            this.lisOutcomeServiceUrl = lisOutcomeServiceUrl;
+            this.lisResultSourcedid = lisResultSourcedid;
+            this.consumerKey = consumerKey;
+            this.consumerSecret = consumerSecret;
+            this.normalizedScore = normalizedScore;
+        }
+
+        public String getLisOutcomeServiceUrl() {
+            return lisOutcomeServiceUrl;
+        }
+
+        public String getLisResultSourcedid() {
+            return lisResultSourcedid;
+        }
+
+        public String getConsumerKey() {
+            return consumerKey;
+        }
+
+        public String getConsumerSecret() {
+            return consumerSecret;
+        }
+
+        public double getNormalizedScore() {
+            return normalizedScore;
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                    + "(lisOutcomeServiceUrl=" + lisOutcomeServiceUrl
+                    + ",lisResultSourcedid=" + lisResultSourcedid
+                    + ",consumerKey=" + consumerKey
+                    + ",normalizedScore=" + normalizedScore
+                    + ")";
+        }
+    }
+
+    private final int threadCount;
+    private final int maxConcurrentSendsPerConsumer;
+    private final double maxSendsPerSecondPerConsumer;
+    private final ExecutorService executorService;
+    private final ConcurrentMap<String, RateLimiter> rateLimiterMap;
+
+    private final AtomicLong sendCount;
+    private final AtomicLong failureCount;
+    private final AtomicLong totalSendDuration;
+    private final AtomicLong maxSendDuration;
+
+    /**
+     * @param threadCount number of worker Threads to use for sending results, which must be positive
+     * @param maxConcurrentSendsPerConsumer maximum number of results that will be sent to a
+     *   single consumer at once, which must be positive
+     * @param maxSendsPerSecondPerConsumer maximum rate at which results will be sent to a single
+     *   consumer. A value of 0 or less disables rate limiting.
+     */
+    public LtiOutcomeDispatcher(final int threadCount, final int maxConcurrentSendsPerConsumer,
+            final double maxSendsPerSecondPerConsumer) {
+        if (threadCount<=0) {
+            throw new IllegalArgumentException("threadCount must be positive");
+        }
+        if (maxConcurrentSendsPerConsumer<=0) {
+            throw new IllegalArgumentException("maxConcurrentSendsPerConsumer must be positive");
+        }
+        this.threadCount = threadCount;
+        this.maxConcurrentSendsPerConsumer = maxConcurrentSendsPerConsumer;
+        this.maxSendsPerSecondPerConsumer = maxSendsPerSecondPerConsumer;
+        this.executorService = Executors.newFixedThreadPool(threadCount, new ThreadFactoryBuilder()
+                .setNameFormat("LtiOutcomeDispatcher-%d")
+                .setDaemon(true)
+                .build());
+        this.rateLimiterMap = new ConcurrentHashMap<String, RateLimiter>();
+        this.sendCount = new AtomicLong();
+        this.failureCount = new AtomicLong();
+        this.totalSendDuration = new AtomicLong();
+        this.maxSendDuration = new AtomicLong();
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public int getMaxConcurrentSendsPerConsumer() {
+        return maxConcurrentSendsPerConsumer;
+    }
+
+    public double getMaxSendsPerSecondPerConsumer() {
+        return maxSendsPerSecondPerConsumer;
+    }
+
+    /** Returns the total number of results that have been sent (successfully or otherwise) */
+    public long getSendCount() {
+        return sendCount.get();
+    }
+
+    /** Returns the total number of results that could not be sent */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /** Returns the mean time (in ms) taken to send each result */
+    public double getMeanSendDuration() {
+        final long count = sendCount.get();
+        return count > 0 ? totalSendDuration.get() / (1000000.0 * count) : 0.0;
+    }
+
+    /** Returns the maximum time (in ms) taken to send a result */
+    public double getMaxSendDuration() {
+        return maxSendDuration.get() / 1000000.0;
+    }
+
+    public void shutdown() {
+        logger.debug("Shutting down LtiOutcomeDispatcher");
+        executorService.shutdownNow();
+    }
+
+    //-------------------------------------------------
+
+    /**
+     * Sends the given batch of {@link LisResult}s, blocking until this has finished.
+     *
+     * @param lisResults results to send, which must not be null
+     * @return List of {@link SendResult}s, corresponding to each of the given {@link LisResult}s.
+     *   A result will be {@link SendResult#DEFERRED} if it was not sent because of earlier
+     *   failures to its consumer, and should be tried again later.
+     */
+    public List<SendResult> dispatch(final List<LisResult> lisResults) {
+        Assert.notNull(lisResults, "lisResults");
+        final SendResult[] sendResults = new SendResult[lisResults.size()];
+
+        /* Group results by consumer */
+        final Map<String, Queue<Integer>> indexQueueByConsumerMap = new LinkedHashMap<String, Queue<Integer>>();
+        for (int i=0; i<lisResults.size(); i++) {
+            final String consumerKey = lisResults.get(i).getConsumerKey();
+            Queue<Integer> indexQueue = indexQueueByConsumerMap.get(consumerKey);
+            if (indexQueue==null) {
+                indexQueue = new ConcurrentLinkedQueue<Integer>();
+                indexQueueByConsumerMap.put(consumerKey, indexQueue);
+            }
+            indexQueue.add(Integer.valueOf(i));
+        }
+
+        /* Submit up to the permitted number of workers for each consumer. Each worker sends
+         * its consumer's results in turn */
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (final Map.Entry<String, Queue<Integer>> entry : indexQueueByConsumerMap.entrySet()) {
+            final ConsumerSender consumerSender = new ConsumerSender(entry.getValue(), getRateLimiter(entry.getKey()),
+                    lisResults, sendResults);
+            final int workerCount = Math.min(maxConcurrentSendsPerConsumer, entry.getValue().size());
+            for (int i=0; i<workerCount; i++) {
+                futures.add(executorService.submit(consumerSender));
+            }
+        }
+
+        /* Wait for everything to finish */
+        try {
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (final Future<?> future : futures) {
+                future.cancel(true);
+            }
+            throw new QtiWorksRuntimeException("Interrupted while waiting for LIS results to be sent", e);
+        }
+        catch (final ExecutionException e) {
+            throw new QtiWorksRuntimeException("Unexpected Exception sending LIS results", e.getCause());
+        }
+
+        /* Anything left unsent has been deferred */
+        for (int i=0; i<sendResults.length; i++) {
+            if (sendResults[i]==null) {
+                sendResults[i] = SendResult.DEFERRED;
+            }
+        }
+        return Arrays.asList(sendResults);
+    }
+
+    private RateLimiter getRateLimiter(final String consumerKey) {
+        if (maxSendsPerSecondPerConsumer<=0.0) {
+            return null;
+        }
+        RateLimiter rateLimiter = rateLimiterMap.get(consumerKey);
+        if (rateLimiter==null) {
+            final RateLimiter newRateLimiter = RateLimiter.create(maxSendsPerSecondPerConsumer);
+            rateLimiter = rateLimiterMap.putIfAbsent(consumerKey, newRateLimiter);
+            if (rateLimiter==null) {
+                rateLimiter = newRateLimiter;
+            }
+        }
+        return rateLimiter;
+    }
+
+    /**
+     * Sends the given result to its LIS outcome service. Subclasses may override this if
+     * required.
+     *
+     * @return true if the result was sent successfully, false otherwise
+     */
+    protected boolean sendLisResult(final LisResult lisResult) {
+        return LtiOauthUtilities.sendLisResult(lisResult.getLisOutcomeServiceUrl(), lisResult.getLisResultSourcedid(),
+                lisResult.getConsumerKey(), lisResult.getConsumerSecret(), lisResult.getNormalizedScore());
+    }
+
+    private SendResult trySendLisResult(final LisResult lisResult) {
+        final long startTime = System.nanoTime();
+        boolean successful;
+        try {
+            successful = sendLisResult(lisResult);
+        }
+        catch (final RuntimeException e) {
+            logger.warn("Unexpected Exception sending {}", lisResult, e);
+            successful = false;
+        }
+        recordSend(System.nanoTime() - startTime, successful);
+        return successful ? SendResult.SUCCESS : SendResult.FAILURE;
+    }
+
+    private void recordSend(final long duration, final boolean successful) {
+        sendCount.incrementAndGet();
+        if (!successful) {
+            failureCount.incrementAndGet();
+        }
+        totalSendDuration.addAndGet(duration);
+        long currentMax;
+        do {
+            currentMax = maxSendDuration.get();
+        } while (duration > currentMax && !maxSendDuration.compareAndSet(currentMax, duration));
+    }
+
+    /**
+     * Worker that sends results from the queue for a particular consumer. Several of these may
+     * share the same queue.
+     */
+    private final class ConsumerSender implements Runnable {
+
+        private final Queue<Integer> indexQueue;
+        private final RateLimiter rateLimiter;
+        private final List<LisResult> lisResults;
+        private final SendResult[] sendResults;
+        private final AtomicInteger consecutiveFailureCount;
+
+        public ConsumerSender(final Queue<Integer> indexQueue, final RateLimiter rateLimiter,
+                final List<LisResult> lisResults, final SendResult[] sendResults) {
+            this.indexQueue = indexQueue;
+            this.rateLimiter = rateLimiter;
+            this.lisResults = lisResults;
+            this.sendResults = sendResults;
+            this.consecutiveFailureCount = new AtomicInteger();
+        }
+
+        @Override
+        public void run() {
+            Integer index;
+            while (consecutiveFailureCount.get() < CONSECUTIVE_FAILURE_LIMIT && (index = indexQueue.poll())!=null) {
+                if (rateLimiter!=null) {
+                    rateLimiter.acquire();
+                }
+                final LisResult lisResult = lisResults.get(index.intValue());
+                final SendResult sendResult = trySendLisResult(lisResult);
+                sendResults[index.intValue()] = sendResult;
+                if (sendResult==SendResult.SUCCESS) {
+                    consecutiveFailureCount.set(0);
+                }
+                else if (consecutiveFailureCount.incrementAndGet()==CONSECUTIVE_FAILURE_LIMIT) {
+                    logger.warn("Deferring remaining results for consumer {} after {} consecutive failures",
+                            lisResult.getConsumerKey(), CONSECUTIVE_FAILURE_LIMIT);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return ObjectUtilities.beanToString(this);
+    }
+}
@@ -43,14 +43,16 @@ import uk.ac.ed.ph.qtiworks.domain.entities.LtiUser;
 import uk.ac.ed.ph.qtiworks.domain.entities.QueuedLtiOutcome;
 import uk.ac.ed.ph.qtiworks.domain.entities.User;
 import uk.ac.ed.ph.qtiworks.domain.entities.UserType;
+import uk.ac.ed.ph.qtiworks.services.LtiOutcomeDispatcher.LisResult;
+import uk.ac.ed.ph.qtiworks.services.LtiOutcomeDispatcher.SendResult;
 import uk.ac.ed.ph.qtiworks.services.dao.CandidateSessionDao;
 import uk.ac.ed.ph.qtiworks.services.dao.QueuedLtiOutcomeDao;
 
 import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
 import uk.ac.ed.ph.jqtiplus.internal.util.Pair;
 
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.LinkedHashMap;
 import java.util.List;
 
 import javax.annotation.Resource;
@@ -59,8 +61,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
 
 /**
  * This service is responsible for sending outcome data back to LTI Tool Consumers.
@@ -90,6 +97,15 @@ public class LtiOutcomeService {
     @Resource
     private QueuedLtiOutcomeDao queuedLtiOutcomeDao;
 
+    @Resource
+    private LtiOutcomeDispatcher ltiOutcomeDispatcher;
+
+    @Resource
+    private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
+
+    @Resource
+    private PlatformTransactionManager platformTransactionManager;
+
     /**
      * Delays (in minutes) to wait until next retry. We try often to start with, then
      * less frequently. Then we give up.
@@ -100,6 +116,12 @@ public class LtiOutcomeService {
             1, 5, 10, 60, 60, 60, 240, 240, 240
     };
 
+    /** Shortest delay (in ms) before retrying an outcome that was deferred */
+    static final long MIN_DEFERRAL_DELAY = 1000L * 60 * retryDelays[0];
+
+    /** Longest delay (in ms) before retrying an outcome that was deferred */
+    static final long MAX_DEFERRAL_DELAY = 1000L * 60 * retryDelays[retryDelays.length - 1];
+
     //-------------------------------------------------
 
     @Async
@@ -132,6 +154,13 @@ public class LtiOutcomeService {
 
     //-------------------------------------------------
 
+    /**
+     * Returns the number of {@link QueuedLtiOutcome}s currently waiting to be sent.
+     */
+    public long countQueuedLtiOutcomes() {
+        return queuedLtiOutcomeDao.countQueuedOutcomes();
+    }
+
     /**
      * Attempts to send {@link QueuedLtiOutcome}s to the relevant LIS result services.
      * <p>
@@ -143,6 +172,15 @@ public class LtiOutcomeService {
      * The logic here will check for duplicate {@link QueuedLtiOutcome}s for a given
      * {@link CandidateSession}, only sending the most recent outcomes back.
      * <p>
+     * Outcomes are loaded in pages, with each page being sent in parallel via the
+     * {@link LtiOutcomeDispatcher}. Outcomes that the {@link LtiOutcomeDispatcher} defers
+     * (because their Tool Consumer is currently failing) stay in the queue without counting as
+     * failures, but have their retry time pushed back exponentially. (See
+     * {@link #computeDeferralDelay(QueuedLtiOutcome, long)}.)
+     * <p>
+     * This does not run within a single transaction. Each page is loaded and then updated
+     * in short transactions of its own, and the outcomes are sent outside of these.
+     * <p>
      * Usage note: This MUST be called serially.
      * <p>
      * @param ignoreRetryTimes set to true to ignore any retry times set after previous failures.
@@ -150,53 +188,169 @@ public class LtiOutcomeService {
      *
      * @see ScheduledService#sendNextQueuedLtiOutcomes()
      */
+    @Transactional(propagation=Propagation.NOT_SUPPORTED)
     public Pair<Integer, Integer> sendQueuedLtiOutcomes(final boolean ignoreRetryTimes) {
-        /* Look up all unsent outcomes */
-        final List<QueuedLtiOutcome> pendingOutcomes = queuedLtiOutcomeDao.getAllQueuedOutcomes();
+        final TransactionTemplate transactionTemplate = new TransactionTemplate(platformTransactionManager);
 
         /* Eliminate any duplicate outcomes for the same CandidateSession, always taking the newest
          * outcome over any earlier ones. (Duplicate outcomes can happen when delivering items,
          * which can sometimes be re-opened by candidates.)
          */
-        final LinkedHashMap<Long, QueuedLtiOutcome> outcomesBySessionMap = new LinkedHashMap<Long, QueuedLtiOutcome>();
-        for (final QueuedLtiOutcome queuedLtiOutcome : pendingOutcomes) {
-            final CandidateSession candidateSession = queuedLtiOutcome.getCandidateSession();
-            final User candidate = candidateSession.getCandidate();
-            final Long candidateSessionId = candidateSession.getId();
-            final QueuedLtiOutcome earlierQueuedOutcomeForSession = outcomesBySessionMap.get(candidateSessionId);
-            if (earlierQueuedOutcomeForSession!=null) {
-                /* Earlier outcome is queued up, so remove this in preference for this later outcome */
-                candidateSession.setLisOutcomeReportingStatus(LisOutcomeReportingStatus.TC_RETURN_SCHEDULED);
-                candidateSessionDao.update(candidateSession);
-                queuedLtiOutcomeDao.remove(earlierQueuedOutcomeForSession);
-                auditLogger.recordEvent(candidate, "De-queued LTI outcome #" + earlierQueuedOutcomeForSession.getId()
-                        + " as a later one for the same CandidateSession is already queued up");
-                logger.info("De-queued LTI outcome #{} as a later one for the same CandidateSession is already queued up",
-                        earlierQueuedOutcomeForSession.getId());
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(final TransactionStatus status) {
+                removeSupersededQueuedOutcomes();
             }
-            outcomesBySessionMap.put(candidateSessionId, queuedLtiOutcome);
-        }
+        });
 
-        /* Now attempt to send remaining outcomes to relevant result services */
-        final int totalSendCount = outcomesBySessionMap.size();
+        /* Now attempt to send remaining outcomes to relevant result services, a page at a time.
+         * Each page is prepared and then updated in its own transaction, with the (slow) HTTP
+         * calls made in between and outside of any transaction.
+         */
+        final Date dueTimestamp = ignoreRetryTimes ? null : new Date();
+        final int pageSize = qtiWorksDeploymentSettings.getLtiOutcomePageSize();
+        int totalSendCount = 0;
         int failedSendCount = 0;
-        final Date timestamp = new Date();
-        for (final QueuedLtiOutcome queuedLtiOutcome : outcomesBySessionMap.values()) {
-            final Date retryTime = queuedLtiOutcome.getRetryTime();
-            if (ignoreRetryTimes || retryTime==null || retryTime.before(timestamp)) {
-                final boolean successful = handleQueuedLtiOutcome(queuedLtiOutcome);
-                if (!successful) {
-                    failedSendCount++;
+        long lastId = 0L;
+        OutcomePage page;
+        do {
+            final long afterId = lastId;
+            page = transactionTemplate.execute(new TransactionCallback<OutcomePage>() {
+                @Override
+                public OutcomePage doInTransaction(final TransactionStatus status) {
+                    return prepareOutcomePage(afterId, dueTimestamp, pageSize);
                 }
+            });
+            if (page.size==0) {
+                break;
             }
-        }
+            lastId = page.lastId;
+            totalSendCount += page.unsendableCount;
+            failedSendCount += page.unsendableCount;
+
+            /* Send them, then record what happened */
+            final List<SendResult> sendResults = ltiOutcomeDispatcher.dispatch(page.lisResults);
+            final List<Long> sendableOutcomeIds = page.sendableOutcomeIds;
+            final Pair<Integer, Integer> pageResult = transactionTemplate.execute(new TransactionCallback<Pair<Integer, Integer>>() {
+                @Override
+                public Pair<Integer, Integer> doInTransaction(final TransactionStatus status) {
+                    return recordSendResults(sendableOutcomeIds, sendResults);
+                }
+            });
+            failedSendCount += pageResult.getFirst().intValue();
+            totalSendCount += pageResult.getSecond().intValue();
+        } while (page.size==pageSize);
         return new Pair<Integer, Integer>(Integer.valueOf(failedSendCount), Integer.valueOf(totalSendCount));
     }
 
-    private boolean handleQueuedLtiOutcome(final QueuedLtiOutcome queuedLtiOutcome) {
+    private void removeSupersededQueuedOutcomes() {
+        for (final QueuedLtiOutcome supersededQueuedOutcome : queuedLtiOutcomeDao.getSupersededQueuedOutcomes()) {
+            final CandidateSession candidateSession = supersededQueuedOutcome.getCandidateSession();
+            final User candidate = candidateSession.getCandidate();
+            candidateSession.setLisOutcomeReportingStatus(LisOutcomeReportingStatus.TC_RETURN_SCHEDULED);
+            candidateSessionDao.update(candidateSession);
+            queuedLtiOutcomeDao.remove(supersededQueuedOutcome);
+            auditLogger.recordEvent(candidate, "De-queued LTI outcome #" + supersededQueuedOutcome.getId()
+                    + " as a later one for the same CandidateSession is already queued up");
+            logger.info("De-queued LTI outcome #{} as a later one for the same CandidateSession is already queued up",
+                    supersededQueuedOutcome.getId());
+        }
+    }
+
+    /**
+     * Loads the next page of {@link QueuedLtiOutcome}s and works out what to send for each.
+     * Outcomes that cannot be sent are handled as failures immediately.
+     * <p>
+     * This must be called within a transaction.
+     */
+    private OutcomePage prepareOutcomePage(final long afterId, final Date dueTimestamp, final int pageSize) {
+        final List<QueuedLtiOutcome> queuedLtiOutcomes = queuedLtiOutcomeDao.getQueuedOutcomesPage(afterId, dueTimestamp, pageSize);
+        final OutcomePage result = new OutcomePage(queuedLtiOutcomes.size());
+        if (!queuedLtiOutcomes.isEmpty()) {
+            result.lastId = queuedLtiOutcomes.get(queuedLtiOutcomes.size() - 1).getId().longValue();
+            for (final QueuedLtiOutcome queuedLtiOutcome : queuedLtiOutcomes) {
+                final LisResult lisResult = createLisResult(queuedLtiOutcome);
+                if (lisResult!=null) {
+                    result.sendableOutcomeIds.add(queuedLtiOutcome.getId());
+                    result.lisResults.add(lisResult);
+                }
+                else {
+                    handleQueuedLtiOutcome(queuedLtiOutcome, false);
+                    result.unsendableCount++;
+                }
+            }
+        }
+        clearPersistenceContext();
+        return result;
+    }
+
+    /**
+     * Records the results of sending the {@link QueuedLtiOutcome}s having the given IDs,
+     * re-loading each outcome as required.
+     * <p>
+     * This must be called within a transaction.
+     *
+     * @return Pair of integers: (number of outcome send failures, total outcomes sent)
+     */
+    private Pair<Integer, Integer> recordSendResults(final List<Long> sendableOutcomeIds, final List<SendResult> sendResults) {
+        final long now = System.currentTimeMillis();
+        int sendCount = 0;
+        int failedCount = 0;
+        for (int i=0; i<sendableOutcomeIds.size(); i++) {
+            final SendResult sendResult = sendResults.get(i);
+            final QueuedLtiOutcome queuedLtiOutcome = queuedLtiOutcomeDao.findById(sendableOutcomeIds.get(i));
+            if (queuedLtiOutcome==null) {
+                /* Outcome has since been removed, e.g. superseded or session deleted */
+                continue;
+            }
+            if (sendResult==SendResult.DEFERRED) {
+                deferQueuedLtiOutcome(queuedLtiOutcome, now);
+                continue;
+            }
+            final boolean successful = sendResult==SendResult.SUCCESS;
+            handleQueuedLtiOutcome(queuedLtiOutcome, successful);
+            sendCount++;
+            if (!successful) {
+                failedCount++;
+            }
+        }
+        clearPersistenceContext();
+        return new Pair<Integer, Integer>(Integer.valueOf(failedCount), Integer.valueOf(sendCount));
+    }
+
+    /** Flushes and clears the persistence context so that each page starts afresh */
+    private void clearPersistenceContext() {
+        queuedLtiOutcomeDao.flush();
+        queuedLtiOutcomeDao.clear();
+    }
+
+    /**
+     * Pushes back the retry time of a {@link QueuedLtiOutcome} that was deferred because its
+     * Tool Consumer is currently failing. This does not count as a failure.
+     */
+    private void deferQueuedLtiOutcome(final QueuedLtiOutcome queuedLtiOutcome, final long now) {
+        queuedLtiOutcome.setRetryTime(new Date(now + computeDeferralDelay(queuedLtiOutcome, now)));
+        queuedLtiOutcomeDao.update(queuedLtiOutcome);
+        logger.debug("Deferred LTI outcome #{} until {} as its Tool Consumer is currently failing",
+                queuedLtiOutcome.getId(), queuedLtiOutcome.getRetryTime());
+    }
+
+    /**
+     * Computes how long to wait (in ms) before retrying the given deferred {@link QueuedLtiOutcome}.
+     * <p>
+     * This waits as long again as the outcome has already been waiting since it was queued,
+     * so the delay doubles each time it is deferred (exponential back-off). The delay is kept
+     * between {@link #MIN_DEFERRAL_DELAY} and {@link #MAX_DEFERRAL_DELAY}. (Working this out
+     * from the time the outcome was queued means no deferral count needs to be stored.)
+     */
+    static long computeDeferralDelay(final QueuedLtiOutcome queuedLtiOutcome, final long now) {
+        final long waitedTime = now - queuedLtiOutcome.getCreationTime().getTime();
+        return Math.min(Math.max(waitedTime, MIN_DEFERRAL_DELAY), MAX_DEFERRAL_DELAY);
+    }
+
+    private void handleQueuedLtiOutcome(final QueuedLtiOutcome queuedLtiOutcome, final boolean successful) {
         final CandidateSession candidateSession = queuedLtiOutcome.getCandidateSession();
         final User candidate = candidateSession.getCandidate();
-        final boolean successful = trySendQueuedLtiOutcome(queuedLtiOutcome);
         if (successful) {
             /* Outcome sent successfully, so remove from queue */
             candidateSession.setLisOutcomeReportingStatus(LisOutcomeReportingStatus.TC_RETURN_SUCCESS);
@@ -235,14 +389,13 @@ public class LtiOutcomeService {
                         new Object[] { failureCount+1, queuedLtiOutcome.getId(), candidateSession.getLisOutcomeServiceUrl() });
             }
         }
-        return successful;
     }
 
     /**
-     * Attempts to send the given {@link QueuedLtiOutcome} back to the corresponding LIS
-     * result service. Returns true if the result was successfully returned, false otherwise.
+     * Extracts the information needed to send the given {@link QueuedLtiOutcome} back to the
+     * corresponding LIS result service. Returns null if this cannot be sent.
      */
-    private boolean trySendQueuedLtiOutcome(final QueuedLtiOutcome queuedLtiOutcome) {
+    private LisResult createLisResult(final QueuedLtiOutcome queuedLtiOutcome) {
         /* Extract the information we need to send */
         final double normalizedScore = queuedLtiOutcome.getScore();
         final CandidateSession candidateSession = queuedLtiOutcome.getCandidateSession();
@@ -251,7 +404,7 @@ public class LtiOutcomeService {
         final User candidate = candidateSession.getCandidate();
         if (candidate.getUserType()!=UserType.LTI) {
             logger.warn("Candidate must be an LTI user - ignoring {}", queuedLtiOutcome);
-            return false;
+            return null;
         }
         final LtiUser ltiCandidate = (LtiUser) candidate;
         final String ltiConsumerKey, ltiConsumerSecret;
@@ -272,8 +425,25 @@ public class LtiOutcomeService {
                 throw new QtiWorksLogicException("Unexpected switch case " + ltiCandidate.getLtiLaunchType());
         }
 
-        /* Now send the result */
-        return LtiOauthUtilities.sendLisResult(lisOutcomeServiceUrl, lisResultSourcedid,
+        return new LisResult(lisOutcomeServiceUrl, lisResultSourcedid,
                 ltiConsumerKey, ltiConsumerSecret, normalizedScore);
     }
+
+    //-------------------------------------------------
+
+    /** Details of a page of {@link QueuedLtiOutcome}s to be sent */
+    private static final class OutcomePage {
+
+        final int size;
+        long lastId;
+        int unsendableCount;
+        final List<Long> sendableOutcomeIds;
+        final List<LisResult> lisResults;
+
+        OutcomePage(final int size) {
+            this.size = size;
+            this.sendableOutcomeIds = new ArrayList<Long>(size);
+            this.lisResults = new ArrayList<LisResult>(size);
+        }
+    }
 }
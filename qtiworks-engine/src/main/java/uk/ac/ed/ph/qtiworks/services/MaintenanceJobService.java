@@ -81,6 +81,7 @@ public class MaintenanceJobService {
         purgeOldCandidateSessions(beforeTimestamp);
         purgeTransientData(beforeTimestamp);
         purgeOldNonces(beforeTimestamp);
+        purgeOldAuditJournalBatches(beforeTimestamp);
         dataDeletionService.purgeOrphanedLtiCandidateUsers();
         purgeEmptyStoreDirectories();
 
@@ -119,6 +120,15 @@ public class MaintenanceJobService {
         dataDeletionService.purgeOldNonces(nonceThreshold);
     }
 
+    /**
+     * Purges records of written-out audit journal batches that were written more than
+     * {@link DomainConstants#AUDIT_JOURNAL_BATCH_LIFETIME} milliseconds ago.
+     */
+    private void purgeOldAuditJournalBatches(final long currentTimestamp) {
+        final Date batchThreshold = new Date(currentTimestamp - DomainConstants.AUDIT_JOURNAL_BATCH_LIFETIME);
+        dataDeletionService.purgeOldAuditJournalBatches(batchThreshold);
+    }
+
     /**
      * Purges empty directories in the QTIWorks filestore
      */
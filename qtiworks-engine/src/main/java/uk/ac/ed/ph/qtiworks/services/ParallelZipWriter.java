@@ -0,0 +1,409 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteSource;
+import com.google.common.io.CountingOutputStream;
+
+/**
+ * Writes a ZIP archive to an {@link OutputStream}, compressing its entries in parallel using a
+ * supplied {@link ExecutorService}.
+ * <p>
+ * (The JDK's {@link java.util.zip.ZipOutputStream} can only compress entries on the calling
+ * Thread, so this writes the ZIP format itself.)
+ * <p>
+ * Entries are written to the archive in the order they are added, as soon as they and all
+ * previous entries have been compressed. At most <code>maxPendingEntries</code> entries are held
+ * in memory at a time; adding further entries blocks until earlier ones have been written.
+ * ZIP64 extensions are used if the archive gets large enough to need them.
+ * <p>
+ * This class is NOT thread-safe. Call {@link #finish()} once all entries have been added, or
+ * {@link #abort()} if something goes wrong.
+ *
+ * @author David McKain
+ */
+public final class ParallelZipWriter {
+
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_FILE_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+
+    private static final int VERSION_DEFAULT = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int FLAG_UTF8_NAMES = 0x0800;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int ZIP64_EXTRA_FIELD_TAG = 0x0001;
+
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    private static final long MAX_INT32 = 0xffffffffL;
+    private static final int MAX_INT16 = 0xffff;
+
+    private final CountingOutputStream outputStream;
+    private final ExecutorService executorService;
+    private final int maxPendingEntries;
+    private final int compressionLevel;
+    private final LinkedList<Future<CompressedEntry>> pendingEntries;
+    private final List<CentralDirectoryRecord> centralDirectoryRecords;
+    private boolean finished;
+
+    /**
+     * @param outputStream stream to write the ZIP to, which must not be null. This will be flushed
+     *   but not closed by {@link #finish()}.
+     * @param executorService {@link ExecutorService} used to compress entries, which must not be null
+     * @param maxPendingEntries maximum number of entries that may be waiting to be compressed and
+     *   written out, which must be positive
+     * @param compressionLevel {@link Deflater} compression level to use
+     */
+    public ParallelZipWriter(final OutputStream outputStream, final ExecutorService executorService,
+            final int maxPendingEntries, final int compressionLevel) {
+        Assert.notNull(outputStream, "outputStream");
+        Assert.notNull(executorService, "executorService");
+        if (maxPendingEntries<=0) {
+            throw new IllegalArgumentException("maxPendingEntries must be positive");
+        }
+        this.outputStream = new CountingOutputStream(new BufferedOutputStream(outputStream, OUTPUT_BUFFER_SIZE));
+        this.executorService = executorService;
+        this.maxPendingEntries = maxPendingEntries;
+        this.compressionLevel = compressionLevel;
+        this.pendingEntries = new LinkedList<Future<CompressedEntry>>();
+        this.centralDirectoryRecords = new ArrayList<CentralDirectoryRecord>();
+        this.finished = false;
+    }
+
+    /** Returns the number of entries that have been written out so far */
+    public int getWrittenEntryCount() {
+        return centralDirectoryRecords.size();
+    }
+
+    /** Returns the number of bytes that have been written out so far */
+    public long getWrittenByteCount() {
+        return outputStream.getCount();
+    }
+
+    /**
+     * Adds an entry to the archive. Its content will be read and compressed in the background.
+     * This may first write out earlier entries, blocking until they have been compressed if
+     * necessary.
+     *
+     * @param name name of the entry, which must not be null
+     * @param lastModified last modification time of the entry, in ms since the epoch
+     * @param content source of the content of the entry, which must not be null. This will be read
+     *   by a Thread in the {@link ExecutorService}.
+     */
+    public void addEntry(final String name, final long lastModified, final ByteSource content)
+            throws IOException {
+        Assert.notNull(name, "name");
+        Assert.notNull(content, "content");
+        ensureNotFinished();
+        while (pendingEntries.size() >= maxPendingEntries) {
+            writeNextPendingEntry();
+        }
+        pendingEntries.add(executorService.submit(new Callable<CompressedEntry>() {
+            @Override
+            public CompressedEntry call() throws IOException {
+                return compress(name, lastModified, content.read());
+            }
+        }));
+
+        /* Write out anything that's already been compressed */
+        while (!pendingEntries.isEmpty() && pendingEntries.getFirst().isDone()) {
+            writeNextPendingEntry();
+        }
+    }
+
+    /**
+     * Writes out all remaining entries and the ZIP central directory, then flushes the underlying
+     * {@link OutputStream}. No more entries can be added after this.
+     */
+    public void finish() throws IOException {
+        ensureNotFinished();
+        while (!pendingEntries.isEmpty()) {
+            writeNextPendingEntry();
+        }
+        writeCentralDirectory();
+        outputStream.flush();
+        finished = true;
+    }
+
+    /**
+     * Cancels any outstanding compression of entries, leaving the archive incomplete. This has no
+     * effect if {@link #finish()} has already been called successfully.
+     */
+    public void abort() {
+        for (final Future<CompressedEntry> pendingEntry : pendingEntries) {
+            pendingEntry.cancel(true);
+        }
+        pendingEntries.clear();
+        finished = true;
+    }
+
+    private void ensureNotFinished() {
+        if (finished) {
+            throw new IllegalStateException("ZIP has already been finished or aborted");
+        }
+    }
+
+    //----------------------------------------------------
+    // Compression (run by executor)
+
+    private CompressedEntry compress(final String name, final long lastModified, final byte[] data) {
+        final CRC32 crc32 = new CRC32();
+        crc32.update(data);
+
+        final Deflater deflater = new Deflater(compressionLevel, true);
+        final ByteArrayOutputStream compressedDataStream = new ByteArrayOutputStream(data.length / 4 + 64);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            final byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                final int compressedCount = deflater.deflate(buffer);
+                compressedDataStream.write(buffer, 0, compressedCount);
+            }
+        }
+        finally {
+            deflater.end();
+        }
+        return new CompressedEntry(name, lastModified, crc32.getValue(), data.length, compressedDataStream.toByteArray());
+    }
+
+    //----------------------------------------------------
+    // ZIP format writing
+
+    private void writeNextPendingEntry() throws IOException {
+        final CompressedEntry entry;
+        try {
+            entry = pendingEntries.removeFirst().get();
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for ZIP entry to be compressed", e);
+        }
+        catch (final ExecutionException e) {
+            throw new IOException("Failed to compress ZIP entry", e.getCause());
+        }
+
+        final long localHeaderOffset = outputStream.getCount();
+        final byte[] nameBytes = entry.getName().getBytes(Charsets.UTF_8);
+        final int dosTime = toDosTime(entry.getLastModified());
+        writeInt(LOCAL_FILE_HEADER_SIGNATURE);
+        writeShort(VERSION_DEFAULT);
+        writeShort(FLAG_UTF8_NAMES);
+        writeShort(METHOD_DEFLATED);
+        writeInt(dosTime);
+        writeInt(entry.getCrc());
+        writeInt(entry.getCompressedData().length);
+        writeInt(entry.getSize());
+        writeShort(nameBytes.length);
+        writeShort(0);
+        outputStream.write(nameBytes);
+        outputStream.write(entry.getCompressedData());
+
+        centralDirectoryRecords.add(new CentralDirectoryRecord(nameBytes, dosTime, entry.getCrc(),
+                entry.getCompressedData().length, entry.getSize(), localHeaderOffset));
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        final long centralDirectoryOffset = outputStream.getCount();
+        for (final CentralDirectoryRecord record : centralDirectoryRecords) {
+            final boolean needsZip64 = record.localHeaderOffset >= MAX_INT32;
+            writeInt(CENTRAL_FILE_HEADER_SIGNATURE);
+            writeShort(needsZip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+            writeShort(needsZip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+            writeShort(FLAG_UTF8_NAMES);
+            writeShort(METHOD_DEFLATED);
+            writeInt(record.dosTime);
+            writeInt(record.crc);
+            writeInt(record.compressedSize);
+            writeInt(record.size);
+            writeShort(record.nameBytes.length);
+            writeShort(needsZip64 ? 12 : 0); /* (Extra field length) */
+            writeShort(0); /* (Comment length) */
+            writeShort(0); /* (Disk number) */
+            writeShort(0); /* (Internal attributes) */
+            writeInt(0); /* (External attributes) */
+            writeInt(needsZip64 ? MAX_INT32 : record.localHeaderOffset);
+            outputStream.write(record.nameBytes);
+            if (needsZip64) {
+                writeShort(ZIP64_EXTRA_FIELD_TAG);
+                writeShort(8);
+                writeLong(record.localHeaderOffset);
+            }
+        }
+        final long centralDirectoryEnd = outputStream.getCount();
+        final long centralDirectorySize = centralDirectoryEnd - centralDirectoryOffset;
+        final int entryCount = centralDirectoryRecords.size();
+
+        final boolean needsZip64 = entryCount >= MAX_INT16 || centralDirectoryOffset >= MAX_INT32
+                || centralDirectorySize >= MAX_INT32;
+        if (needsZip64) {
+            writeInt(ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+            writeLong(44); /* (Size of remainder of this record) */
+            writeShort(VERSION_ZIP64);
+            writeShort(VERSION_ZIP64);
+            writeInt(0); /* (Number of this disk) */
+            writeInt(0); /* (Disk containing central directory) */
+            writeLong(entryCount);
+            writeLong(entryCount);
+            writeLong(centralDirectorySize);
+            writeLong(centralDirectoryOffset);
+
+            writeInt(ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE);
+            writeInt(0); /* (Disk containing ZIP64 end of central directory) */
+            writeLong(centralDirectoryEnd);
+            writeInt(1); /* (Total number of disks) */
+        }
+        writeInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+        writeShort(0); /* (Number of this disk) */
+        writeShort(0); /* (Disk containing central directory) */
+        writeShort(Math.min(entryCount, MAX_INT16));
+        writeShort(Math.min(entryCount, MAX_INT16));
+        writeInt(Math.min(centralDirectorySize, MAX_INT32));
+        writeInt(Math.min(centralDirectoryOffset, MAX_INT32));
+        writeShort(0); /* (Comment length) */
+    }
+
+    private void writeShort(final int value) throws IOException {
+        outputStream.write(value & 0xff);
+        outputStream.write((value >>> 8) & 0xff);
+    }
+
+    private void writeInt(final long value) throws IOException {
+        writeShort((int) (value & 0xffff));
+        writeShort((int) ((value >>> 16) & 0xffff));
+    }
+
+    private void writeLong(final long value) throws IOException {
+        writeInt(value & MAX_INT32);
+        writeInt(value >>> 32);
+    }
+
+    /**
+     * Converts the given Java time to MS-DOS date and time format, as used in ZIP headers.
+     */
+    static int toDosTime(final long time) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        final int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16); /* (1980-01-01 00:00:00) */
+        }
+        return ((year - 1980) << 25)
+                | ((calendar.get(Calendar.MONTH) + 1) << 21)
+                | (calendar.get(Calendar.DAY_OF_MONTH) << 16)
+                | (calendar.get(Calendar.HOUR_OF_DAY) << 11)
+                | (calendar.get(Calendar.MINUTE) << 5)
+                | (calendar.get(Calendar.SECOND) >> 1);
+    }
+
+    //----------------------------------------------------
+
+    private static final class CompressedEntry {
+
+        private final String name;
+        private final long lastModified;
+        private final long crc;
+        private final long size;
+        private final byte[] compressedData;
+
+        public CompressedEntry(final String name, final long lastModified, final long crc, final long size, final byte[] compressedData) {
+            this.name = name;
+            this.lastModified = lastModified;
+            this.crc = crc;
+            this.size = size;
+            this.compressedData = compressedData;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public byte[] getCompressedData() {
+            return compressedData;
+        }
+    }
+
+    private static final class CentralDirectoryRecord {
+
+        final byte[] nameBytes;
+        final int dosTime;
+        final long crc;
+        final long compressedSize;
+        final long size;
+        final long localHeaderOffset;
+
+        public CentralDirectoryRecord(final byte[] nameBytes, final int dosTime, final long crc,
+                final long compressedSize, final long size, final long localHeaderOffset) {
+            this.nameBytes = nameBytes;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+    }
+}
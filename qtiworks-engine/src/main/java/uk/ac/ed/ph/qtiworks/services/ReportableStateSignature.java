@@ -0,0 +1,196 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+
+import uk.ac.ed.ph.jqtiplus.QtiConstants;
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.node.result.AssessmentResult;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNode;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNode.TestNodeType;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Compact signature of the parts of a {@link TestSessionState} that get reported in its
+ * {@link AssessmentResult}. This lets us tell cheaply whether a new result needs to be
+ * computed and recorded after a candidate interaction.
+ * <p>
+ * Durations change on pretty much every interaction, so are kept in a separate signature
+ * from everything else. This allows callers to decide how often changes only affecting
+ * durations are worth recording.
+ * <p>
+ * Each part of the signature can be converted to a String of {@link #SIGNATURE_LENGTH} hex
+ * characters for storing alongside its {@link CandidateSession}.
+ *
+ * @see CandidateDataService#recordTestAssessmentResultIfChanged
+ *
+ * @author David McKain
+ */
+public final class ReportableStateSignature {
+
+    /** Length of the String forms of each part of the signature */
+    public static final int SIGNATURE_LENGTH = 32;
+
+    private static final HashFunction hashFunction = Hashing.murmur3_128();
+
+    private final HashCode valuesHash;
+    private final HashCode durationsHash;
+
+    private ReportableStateSignature(final HashCode valuesHash, final HashCode durationsHash) {
+        this.valuesHash = valuesHash;
+        this.durationsHash = durationsHash;
+    }
+
+    public static ReportableStateSignature compute(final TestSessionState testSessionState) {
+        Assert.notNull(testSessionState, "testSessionState");
+        final Hasher valuesHasher = hashFunction.newHasher();
+        final Hasher durationsHasher = hashFunction.newHasher();
+
+        /* Test outcomes, with the test duration going into the durations signature */
+        for (final Entry<Identifier, Value> entry : testSessionState.getOutcomeValues().entrySet()) {
+            if (QtiConstants.VARIABLE_DURATION_IDENTIFIER.equals(entry.getKey())) {
+                putValue(durationsHasher, entry.getKey().toString(), entry.getValue());
+            }
+            else {
+                putValue(valuesHasher, entry.getKey().toString(), entry.getValue());
+            }
+        }
+        durationsHasher.putLong(testSessionState.getDurationAccumulated());
+
+        /* Items, in the same order as they are reported */
+        final Map<?, ItemSessionState> itemSessionStates = testSessionState.getItemSessionStates();
+        for (final TestPlanNode testPlanNode : testSessionState.getTestPlan().getTestPlanNodeList()) {
+            if (testPlanNode.getTestNodeType()==TestNodeType.ASSESSMENT_ITEM_REF) {
+                final ItemSessionState itemSessionState = itemSessionStates.get(testPlanNode.getKey());
+                valuesHasher.putString(testPlanNode.getKey().toString(), Charsets.UTF_8).putByte((byte) 0);
+                if (itemSessionState==null) {
+                    valuesHasher.putByte((byte) 0);
+                    continue;
+                }
+                valuesHasher.putString(String.valueOf(itemSessionState.getSessionStatus()), Charsets.UTF_8).putByte((byte) 0)
+                    .putString(String.valueOf(itemSessionState.getCompletionStatus()), Charsets.UTF_8).putByte((byte) 0)
+                    .putInt(itemSessionState.getNumAttempts());
+                putValues(valuesHasher, itemSessionState.getOutcomeValues());
+                putValues(valuesHasher, itemSessionState.getResponseValues());
+                putValues(valuesHasher, itemSessionState.getTemplateValues());
+                durationsHasher.putLong(itemSessionState.getDurationAccumulated());
+            }
+        }
+        return new ReportableStateSignature(valuesHasher.hash(), durationsHasher.hash());
+    }
+
+    private static void putValues(final Hasher hasher, final Map<Identifier, Value> valueMap) {
+        /* (Item variables are held in HashMaps, so we need to impose a consistent order on them) */
+        final Map<String, Value> sortedValueMap = new TreeMap<String, Value>();
+        for (final Entry<Identifier, Value> entry : valueMap.entrySet()) {
+            sortedValueMap.put(entry.getKey().toString(), entry.getValue());
+        }
+        hasher.putInt(sortedValueMap.size());
+        for (final Entry<String, Value> entry : sortedValueMap.entrySet()) {
+            putValue(hasher, entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static void putValue(final Hasher hasher, final String identifier, final Value value) {
+        hasher.putString(identifier, Charsets.UTF_8).putByte((byte) 0);
+        if (value!=null) {
+            hasher.putString(value.getClass().getSimpleName(), Charsets.UTF_8).putByte((byte) 0)
+                .putString(value.toQtiString(), Charsets.UTF_8);
+        }
+        hasher.putByte((byte) 0);
+    }
+
+    //----------------------------------------------------
+
+    /** Returns the signature of the reported values (ignoring durations) as a hex String */
+    public String getValuesSignature() {
+        return valuesHash.toString();
+    }
+
+    /** Returns the signature of the reported durations as a hex String */
+    public String getDurationsSignature() {
+        return durationsHash.toString();
+    }
+
+    /**
+     * Returns whether the given signature has the same reported values as this one (ignoring
+     * durations).
+     */
+    public boolean hasSameValues(final ReportableStateSignature other) {
+        return valuesHash.equals(other.valuesHash);
+    }
+
+    /**
+     * Returns whether the given signature has the same durations as this one.
+     */
+    public boolean hasSameDurations(final ReportableStateSignature other) {
+        return durationsHash.equals(other.durationsHash);
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (!(obj instanceof ReportableStateSignature)) {
+            return false;
+        }
+        final ReportableStateSignature other = (ReportableStateSignature) obj;
+        return hasSameValues(other) && hasSameDurations(other);
+    }
+
+    @Override
+    public int hashCode() {
+        return valuesHash.hashCode() * 31 + durationsHash.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                + "(valuesHash=" + valuesHash
+                + ",durationsHash=" + durationsHash
+                + ")";
+    }
+}
@@ -0,0 +1,202 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.QtiWorksRuntimeException;
+import uk.ac.ed.ph.qtiworks.domain.entities.AssessmentPackageImportType;
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleAssessment;
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleSet;
+
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ClassPathResourceLocator;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.activation.FileTypeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Read-only in-memory cache of the files making up the bundled samples, i.e. the
+ * {@link AssessmentPackageImportType#BUNDLED_SAMPLE} packages. This lets us serve these
+ * directly from memory, rather than copying them out of the ClassPath on each request.
+ * <p>
+ * The cache is populated once (on construction) from the given {@link QtiSampleSet}s, and
+ * is bounded by the total size (in bytes) of the files held in it. Files that don't fit
+ * are simply not cached.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author David McKain
+ */
+public final class SampleFileCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SampleFileCache.class);
+
+    /** Map of sample file hrefs to their cached content */
+    private final Map<String, SampleFile> sampleFileMap;
+
+    /**
+     * @param cacheMaxSize maximum total size of the cached files, in bytes. A value of 0 or
+     *   less disables the cache.
+     * @param fileTypeMap {@link FileTypeMap} used to determine the content type of each file
+     * @param qtiSampleSets {@link QtiSampleSet}s whose files should be cached
+     */
+    public SampleFileCache(final long cacheMaxSize, final FileTypeMap fileTypeMap,
+            final QtiSampleSet... qtiSampleSets) {
+        if (cacheMaxSize <= 0) {
+            this.sampleFileMap = Collections.emptyMap();
+            logger.info("Sample file cache is disabled");
+            return;
+        }
+
+        /* Gather up all files in the samples (which may be shared between them) */
+        final Set<String> sampleHrefs = new LinkedHashSet<String>();
+        for (final QtiSampleSet qtiSampleSet : qtiSampleSets) {
+            for (final QtiSampleAssessment qtiSampleAssessment : qtiSampleSet) {
+                sampleHrefs.add(qtiSampleAssessment.getAssessmentHref());
+                sampleHrefs.addAll(qtiSampleAssessment.getOtherQtiHrefs());
+                sampleHrefs.addAll(qtiSampleAssessment.getFileHrefs());
+            }
+        }
+
+        /* Then read in as many as we can fit */
+        final ClassPathResourceLocator classPathResourceLocator = new ClassPathResourceLocator();
+        final Map<String, SampleFile> resultMap = new HashMap<String, SampleFile>();
+        long cacheSize = 0L;
+        int skippedCount = 0;
+        for (final String sampleHref : sampleHrefs) {
+            final byte[] content = readSampleFile(classPathResourceLocator, sampleHref);
+            if (content==null) {
+                logger.warn("Sample file with href {} yielded null lookup", sampleHref);
+                continue;
+            }
+            if (cacheSize + content.length > cacheMaxSize) {
+                skippedCount++;
+                continue;
+            }
+            final String contentType;
+            synchronized (fileTypeMap) {
+                contentType = fileTypeMap.getContentType(sampleHref);
+            }
+            final String digest = Hashing.sha256().hashBytes(content).toString();
+            resultMap.put(sampleHref, new SampleFile(content, contentType, digest));
+            cacheSize += content.length;
+        }
+        this.sampleFileMap = resultMap;
+        logger.info("Sample file cache initialised with {} file(s) totalling {} bytes ({} file(s) did not fit)",
+                new Object[] { Integer.valueOf(resultMap.size()), Long.valueOf(cacheSize), Integer.valueOf(skippedCount) });
+    }
+
+    private static byte[] readSampleFile(final ClassPathResourceLocator classPathResourceLocator, final String sampleHref) {
+        final InputStream sampleFileStream = classPathResourceLocator.findResource(QtiSampleAssessment.toClassPathUri(sampleHref));
+        if (sampleFileStream==null) {
+            return null;
+        }
+        try {
+            return ByteStreams.toByteArray(sampleFileStream);
+        }
+        catch (final IOException e) {
+            throw new QtiWorksRuntimeException("Unexpected Exception reading sample file with href " + sampleHref, e);
+        }
+        finally {
+            ServiceUtilities.ensureClose(sampleFileStream);
+        }
+    }
+
+    /**
+     * Returns the cached {@link SampleFile} having the given href, or null if this file
+     * has not been cached.
+     */
+    public SampleFile getSampleFile(final String sampleHref) {
+        return sampleFileMap.get(sampleHref);
+    }
+
+    public int size() {
+        return sampleFileMap.size();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                + "(size=" + sampleFileMap.size()
+                + ")";
+    }
+
+    //----------------------------------------------------
+
+    /**
+     * Encapsulates the (immutable) content of a cached sample file, along with its content
+     * type and a hex-encoded SHA-256 digest of its content.
+     */
+    public static final class SampleFile {
+
+        private final byte[] content;
+        private final String contentType;
+        private final String digest;
+
+        SampleFile(final byte[] content, final String contentType, final String digest) {
+            this.content = content;
+            this.contentType = contentType;
+            this.digest = digest;
+        }
+
+        public long getContentLength() {
+            return content.length;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getDigest() {
+            return digest;
+        }
+
+        /** Returns a fresh {@link InputStream} for reading the content of this file */
+        public InputStream openStream() {
+            return new ByteArrayInputStream(content);
+        }
+    }
+}
@@ -70,6 +70,15 @@ public class ScheduledService {
     @Resource
     private LtiOutcomeService ltiOutcomeService;
 
+    @Resource
+    private LtiOutcomeDispatcher ltiOutcomeDispatcher;
+
+    @Resource
+    private CandidateAuditDataWriter candidateAuditDataWriter;
+
+    @Resource
+    private CandidateDataService candidateDataService;
+
     //-------------------------------------------------
 
     /**
@@ -96,5 +105,55 @@ public class ScheduledService {
         final int sendCount = result.getSecond().intValue();
         logger.debug("sendNextQueuedLtiOutcomes() completed in {}ms with {} failure(s) out of {} send(s)", duration,
                  failureCount, sendCount);
+
+        /* Report on queue depth and send latency whenever anything was sent */
+        if (sendCount > 0) {
+            logger.info("Sent {} LTI outcome(s) with {} failure(s) in {}ms. {} outcome(s) remain queued."
+                    + " Send latency so far: mean {}ms, max {}ms over {} send(s)",
+                    new Object[] { sendCount, failureCount, duration, ltiOutcomeService.countQueuedLtiOutcomes(),
+                        Math.round(ltiOutcomeDispatcher.getMeanSendDuration()),
+                        Math.round(ltiOutcomeDispatcher.getMaxSendDuration()),
+                        ltiOutcomeDispatcher.getSendCount() });
+        }
+    }
+
+    /**
+     * Record assessment results for idle test sessions having changes to durations that
+     * have not yet been recorded.
+     */
+    @Scheduled(fixedDelay=10*DomainConstants.ONE_SECOND, initialDelay=DomainConstants.ONE_MINUTE)
+    public void recordPendingAssessmentResults() {
+        logger.trace("recordPendingAssessmentResults() invoked");
+        final int recordedCount = candidateDataService.recordPendingTestAssessmentResults();
+        if (recordedCount > 0) {
+            logger.debug("Recorded {} pending assessment result(s)", recordedCount);
+        }
+    }
+
+    /**
+     * Write out any journalled candidate audit data to the database.
+     */
+    @Scheduled(fixedDelay=DomainConstants.ONE_SECOND, initialDelay=10*DomainConstants.ONE_SECOND)
+    public void flushCandidateAuditJournal() {
+        if (!candidateAuditDataWriter.isWriteBehindEnabled()) {
+            return;
+        }
+        final long beforeTimestamp = System.currentTimeMillis();
+        final int flushedCount = candidateAuditDataWriter.flushJournal();
+        final long duration = System.currentTimeMillis() - beforeTimestamp;
+
+        /* Report on queue depth and lag */
+        final int pendingCount = candidateAuditDataWriter.getPendingRecordCount();
+        final long lag = candidateAuditDataWriter.getLag();
+        if (flushedCount > 0) {
+            logger.debug("Wrote {} journalled audit record(s) in {}ms. {} record(s) remain pending with lag {}ms."
+                    + " {} record(s) written immediately and {} discarded so far",
+                    new Object[] { flushedCount, duration, pendingCount, lag,
+                        candidateAuditDataWriter.getSynchronousWriteCount(),
+                        candidateAuditDataWriter.getDiscardedRecordCount() });
+        }
+        if (lag > DomainConstants.ONE_MINUTE) {
+            logger.warn("Candidate audit journal is lagging by {}ms with {} record(s) pending", lag, pendingCount);
+        }
     }
 }
@@ -0,0 +1,521 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.QtiWorksRuntimeException;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Durable write-behind queue of records that are to be written to the database some time after
+ * they were generated.
+ * <p>
+ * Records are appended to a local journal file (and forced to disk) before {@link #append(List)}
+ * returns, so will survive a crash. A background task should periodically call {@link #nextBatch()}
+ * to obtain the records that have accumulated, write them out, then call {@link #completeBatch(Batch)}
+ * or {@link #failBatch(Batch)} as appropriate.
+ * <p>
+ * The journal is split into numbered segment files, with a new segment started whenever a batch is
+ * taken. A segment is deleted once its batch has been completed, so any segments found when this
+ * journal is created contain records that might not have been written out. These are recovered and
+ * offered again as batches. Each segment has a unique {@link Batch#getBatchId()}, which callers
+ * should record along with the records they write out so that they can recognise (and skip)
+ * a recovered batch that had actually been written out just before a crash.
+ * <p>
+ * Records are written in an explicit format using a {@link RecordCodec}, preceded by a segment
+ * header containing a format version and the batch ID.
+ * <p>
+ * A failed batch is retried after a delay that doubles after each failure, without holding up
+ * newer batches. After a given number of failed attempts, its segment is quarantined by renaming
+ * it with a {@link #QUARANTINE_SUFFIX}, and an error is logged. Segments that can't be read on
+ * recovery are quarantined in the same way. Quarantined segments are left for an administrator to
+ * investigate: removing the suffix will make them be recovered again next time.
+ * <p>
+ * The journal is bounded only softly: callers should check {@link #isOverloaded()} and write
+ * records synchronously instead when it returns true.
+ * <p>
+ * This knows nothing about the entity model. It also keeps some simple statistics about its use.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @see CandidateAuditDataWriter
+ *
+ * @author David McKain
+ */
+public final class WriteBehindJournal<R> {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteBehindJournal.class);
+
+    /** Suffix added to the names of quarantined segment files */
+    public static final String QUARANTINE_SUFFIX = ".quarantined";
+
+    /** Version of the segment format, written at the start of each segment */
+    private static final int SEGMENT_FORMAT_VERSION = 1;
+
+    private static final Pattern SEGMENT_FILE_NAME_PATTERN = Pattern.compile("segment-(\\d+)\\.journal(" + Pattern.quote(QUARANTINE_SUFFIX) + ")?");
+
+    /**
+     * Reads and writes records in the journal. Implementations should write all of the
+     * information needed to recreate each record explicitly, and must read back exactly what
+     * they wrote.
+     */
+    public interface RecordCodec<R> {
+
+        void writeRecord(DataOutput output, R record) throws IOException;
+
+        R readRecord(DataInput input) throws IOException;
+    }
+
+    private final File journalDirectory;
+    private final RecordCodec<R> recordCodec;
+    private final int maxPendingRecords;
+    private final int maxBatchAttempts;
+    private final long retryDelay;
+
+    /** Batches taken but not yet completed, or recovered from previous runs, in order */
+    private final LinkedList<Batch<R>> retryBatches;
+
+    /** Records appended to the current segment, not yet taken as a batch */
+    private List<R> currentRecords;
+
+    /** Timestamp of first record appended to the current segment */
+    private long currentFirstRecordTimestamp;
+
+    /** Current segment file, or null if nothing has been appended since it was last taken */
+    private File currentSegmentFile;
+    private FileOutputStream currentSegmentStream;
+    private String currentBatchId;
+
+    private int nextSegmentNumber;
+    private int pendingRecordCount;
+    private long appendedRecordCount;
+    private long completedRecordCount;
+    private long failedBatchCount;
+    private long quarantinedSegmentCount;
+
+    /**
+     * Creates a journal using the given directory, recovering any records left over from
+     * a previous run.
+     *
+     * @param journalDirectory directory for storing the journal, which must already exist.
+     * @param recordCodec {@link RecordCodec} for reading and writing records
+     * @param maxPendingRecords number of records pending after which {@link #isOverloaded()} returns true
+     * @param maxBatchAttempts number of failed attempts to write out a batch after which its
+     *   segment is quarantined
+     * @param retryDelay delay (in ms) before a failed batch is first retried. This doubles after
+     *   each subsequent failure.
+     */
+    public WriteBehindJournal(final File journalDirectory, final RecordCodec<R> recordCodec,
+            final int maxPendingRecords, final int maxBatchAttempts, final long retryDelay) {
+        Assert.notNull(journalDirectory, "journalDirectory");
+        Assert.notNull(recordCodec, "recordCodec");
+        this.journalDirectory = journalDirectory;
+        this.recordCodec = recordCodec;
+        this.maxPendingRecords = maxPendingRecords;
+        this.maxBatchAttempts = maxBatchAttempts;
+        this.retryDelay = retryDelay;
+        this.retryBatches = new LinkedList<Batch<R>>();
+        this.currentRecords = new ArrayList<R>();
+        recover();
+    }
+
+    private void recover() {
+        final File[] segmentFiles = journalDirectory.listFiles();
+        if (segmentFiles==null) {
+            throw new QtiWorksRuntimeException("Could not list journal directory " + journalDirectory);
+        }
+        Arrays.sort(segmentFiles, new Comparator<File>() {
+            @Override
+            public int compare(final File o1, final File o2) {
+                return Integer.valueOf(getSegmentNumber(o1)).compareTo(Integer.valueOf(getSegmentNumber(o2)));
+            }
+        });
+        for (final File segmentFile : segmentFiles) {
+            final int segmentNumber = getSegmentNumber(segmentFile);
+            if (segmentNumber < 0) {
+                continue;
+            }
+            /* (Quarantined segments keep their numbers, so new segments mustn't reuse them) */
+            nextSegmentNumber = Math.max(nextSegmentNumber, segmentNumber + 1);
+            if (segmentFile.getName().endsWith(QUARANTINE_SUFFIX)) {
+                logger.warn("Write-behind journal segment {} is quarantined and will not be recovered", segmentFile);
+                continue;
+            }
+            final Batch<R> batch;
+            try {
+                batch = readSegment(segmentFile);
+            }
+            catch (final IOException e) {
+                logger.error("Could not read write-behind journal segment " + segmentFile
+                        + ". It will be quarantined", e);
+                quarantineSegmentFile(segmentFile);
+                continue;
+            }
+            if (batch==null) {
+                deleteSegmentFile(segmentFile);
+                continue;
+            }
+            logger.info("Recovered {} record(s) from write-behind journal segment {}", batch.records.size(), segmentFile);
+            retryBatches.add(batch);
+            pendingRecordCount += batch.records.size();
+        }
+    }
+
+    private static int getSegmentNumber(final File file) {
+        final Matcher matcher = SEGMENT_FILE_NAME_PATTERN.matcher(file.getName());
+        return matcher.matches() ? Integer.parseInt(matcher.group(1)) : -1;
+    }
+
+    /**
+     * Reads the records in the given segment, ignoring any partially-written record at the end.
+     * Returns null if the segment contains no records.
+     *
+     * @throws IOException if the segment could not be read, or is not in the expected format
+     */
+    private Batch<R> readSegment(final File segmentFile) throws IOException {
+        final List<R> records = new ArrayList<R>();
+        final String batchId;
+        DataInputStream dataInputStream = null;
+        try {
+            dataInputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(segmentFile)));
+            try {
+                final int formatVersion = dataInputStream.readInt();
+                if (formatVersion!=SEGMENT_FORMAT_VERSION) {
+                    throw new IOException("Unsupported journal segment format version " + formatVersion);
+                }
+                batchId = new UUID(dataInputStream.readLong(), dataInputStream.readLong()).toString();
+            }
+            catch (final EOFException e) {
+                /* Crashed while creating the segment, so no records */
+                return null;
+            }
+            while (true) {
+                final byte[] recordBytes;
+                try {
+                    recordBytes = new byte[dataInputStream.readInt()];
+                    dataInputStream.readFully(recordBytes);
+                }
+                catch (final EOFException e) {
+                    break;
+                }
+                records.add(recordCodec.readRecord(new DataInputStream(new ByteArrayInputStream(recordBytes))));
+            }
+        }
+        catch (final RuntimeException e) {
+            throw new IOException("Unexpected Exception decoding journal segment", e);
+        }
+        finally {
+            ServiceUtilities.ensureClose(dataInputStream);
+        }
+        return !records.isEmpty() ? new Batch<R>(batchId, records, segmentFile, segmentFile.lastModified()) : null;
+    }
+
+    //----------------------------------------------------
+
+    /** Returns true if too many records are pending, so callers should not append any more */
+    public synchronized boolean isOverloaded() {
+        return pendingRecordCount >= maxPendingRecords;
+    }
+
+    /**
+     * Appends the given records to the journal, returning once they have been forced to disk.
+     *
+     * @throws IOException if the records could not be written. In this case, the caller should
+     *   write them out itself.
+     */
+    public synchronized void append(final List<? extends R> records) throws IOException {
+        Assert.notNull(records, "records");
+        if (records.isEmpty()) {
+            return;
+        }
+        final ByteArrayOutputStream bufferStream = new ByteArrayOutputStream();
+        final DataOutputStream dataOutputStream = new DataOutputStream(bufferStream);
+        for (final R record : records) {
+            final ByteArrayOutputStream recordStream = new ByteArrayOutputStream();
+            final DataOutputStream recordOutputStream = new DataOutputStream(recordStream);
+            recordCodec.writeRecord(recordOutputStream, record);
+            recordOutputStream.flush();
+            dataOutputStream.writeInt(recordStream.size());
+            recordStream.writeTo(dataOutputStream);
+        }
+        dataOutputStream.flush();
+
+        if (currentSegmentStream==null) {
+            startSegment();
+        }
+        final FileChannel channel = currentSegmentStream.getChannel();
+        final long position = channel.position();
+        try {
+            bufferStream.writeTo(currentSegmentStream);
+            channel.force(false);
+        }
+        catch (final IOException e) {
+            /* Discard anything partially written so that the segment remains readable */
+            channel.truncate(position);
+            throw e;
+        }
+
+        currentRecords.addAll(records);
+        pendingRecordCount += records.size();
+        appendedRecordCount += records.size();
+    }
+
+    private void startSegment() throws IOException {
+        final UUID batchUuid = UUID.randomUUID();
+        final File segmentFile = new File(journalDirectory, "segment-" + nextSegmentNumber++ + ".journal");
+        final FileOutputStream segmentStream = new FileOutputStream(segmentFile);
+        try {
+            final DataOutputStream headerStream = new DataOutputStream(segmentStream);
+            headerStream.writeInt(SEGMENT_FORMAT_VERSION);
+            headerStream.writeLong(batchUuid.getMostSignificantBits());
+            headerStream.writeLong(batchUuid.getLeastSignificantBits());
+            headerStream.flush();
+        }
+        catch (final IOException e) {
+            ServiceUtilities.ensureClose(segmentStream);
+            deleteSegmentFile(segmentFile);
+            throw e;
+        }
+        currentSegmentFile = segmentFile;
+        currentSegmentStream = segmentStream;
+        currentBatchId = batchUuid.toString();
+        currentFirstRecordTimestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the next {@link Batch} of records to be written out, or null if there are none.
+     * Failed batches are returned once their retry delay has passed.
+     * <p>
+     * The caller MUST subsequently call {@link #completeBatch(Batch)} or {@link #failBatch(Batch)}.
+     */
+    public synchronized Batch<R> nextBatch() {
+        final long now = System.currentTimeMillis();
+        for (final Iterator<Batch<R>> iter = retryBatches.iterator(); iter.hasNext(); ) {
+            final Batch<R> batch = iter.next();
+            if (batch.nextAttemptTimestamp <= now) {
+                iter.remove();
+                return batch;
+            }
+        }
+        if (currentSegmentStream==null) {
+            return null;
+        }
+        ServiceUtilities.ensureClose(currentSegmentStream);
+        final Batch<R> result = new Batch<R>(currentBatchId, currentRecords, currentSegmentFile, currentFirstRecordTimestamp);
+        currentRecords = new ArrayList<R>();
+        currentSegmentStream = null;
+        currentSegmentFile = null;
+        currentBatchId = null;
+        return result;
+    }
+
+    /** Call once the records in the given {@link Batch} have been successfully written out */
+    public synchronized void completeBatch(final Batch<R> batch) {
+        Assert.notNull(batch, "batch");
+        deleteSegmentFile(batch.segmentFile);
+        pendingRecordCount -= batch.records.size();
+        completedRecordCount += batch.records.size();
+    }
+
+    /**
+     * Call if the records in the given {@link Batch} could not be written out. They will be
+     * retried later, unless the batch has now failed too many times, in which case its segment
+     * is quarantined.
+     *
+     * @return true if the batch's segment was quarantined, false if it will be retried
+     */
+    public synchronized boolean failBatch(final Batch<R> batch) {
+        Assert.notNull(batch, "batch");
+        failedBatchCount++;
+        batch.attemptCount++;
+        if (batch.attemptCount >= maxBatchAttempts) {
+            logger.error("Failed to write out {} after {} attempts. Its segment has been quarantined and"
+                    + " its records will NOT be written out unless it is restored", batch, Integer.valueOf(batch.attemptCount));
+            quarantineSegmentFile(batch.segmentFile);
+            pendingRecordCount -= batch.records.size();
+            return true;
+        }
+        batch.nextAttemptTimestamp = System.currentTimeMillis() + (retryDelay << (batch.attemptCount - 1));
+        retryBatches.addFirst(batch);
+        return false;
+    }
+
+    /** Closes the current segment. Records pending in the journal will be recovered next time. */
+    public synchronized void close() {
+        ServiceUtilities.ensureClose(currentSegmentStream);
+        currentSegmentStream = null;
+    }
+
+    private void quarantineSegmentFile(final File segmentFile) {
+        final File quarantinedFile = new File(segmentFile.getParentFile(), segmentFile.getName() + QUARANTINE_SUFFIX);
+        if (!segmentFile.renameTo(quarantinedFile)) {
+            logger.error("Could not quarantine journal segment {}", segmentFile);
+        }
+        quarantinedSegmentCount++;
+    }
+
+    private static void deleteSegmentFile(final File segmentFile) {
+        if (!segmentFile.delete()) {
+            logger.warn("Could not delete journal segment {}", segmentFile);
+        }
+    }
+
+    //----------------------------------------------------
+    // Statistics
+
+    /** Returns the number of records appended or recovered but not yet written out (i.e. the queue depth) */
+    public synchronized int getPendingRecordCount() {
+        return pendingRecordCount;
+    }
+
+    /** Returns the age (in ms) of the oldest record not yet written out, or 0 if there are none */
+    public synchronized long getLag() {
+        long oldestTimestamp = Long.MAX_VALUE;
+        for (final Batch<R> batch : retryBatches) {
+            oldestTimestamp = Math.min(oldestTimestamp, batch.firstRecordTimestamp);
+        }
+        if (currentSegmentStream!=null) {
+            oldestTimestamp = Math.min(oldestTimestamp, currentFirstRecordTimestamp);
+        }
+        if (oldestTimestamp==Long.MAX_VALUE) {
+            return 0L;
+        }
+        return Math.max(0L, System.currentTimeMillis() - oldestTimestamp);
+    }
+
+    public synchronized long getAppendedRecordCount() {
+        return appendedRecordCount;
+    }
+
+    public synchronized long getCompletedRecordCount() {
+        return completedRecordCount;
+    }
+
+    public synchronized long getFailedBatchCount() {
+        return failedBatchCount;
+    }
+
+    public synchronized long getQuarantinedSegmentCount() {
+        return quarantinedSegmentCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                + "(journalDirectory=" + journalDirectory
+                + ",maxPendingRecords=" + maxPendingRecords
+                + ",maxBatchAttempts=" + maxBatchAttempts
+                + ",retryDelay=" + retryDelay
+                + ",pendingRecordCount=" + pendingRecordCount
+                + ",appendedRecordCount=" + appendedRecordCount
+                + ",completedRecordCount=" + completedRecordCount
+                + ",failedBatchCount=" + failedBatchCount
+                + ",quarantinedSegmentCount=" + quarantinedSegmentCount
+                + ")";
+    }
+
+    //----------------------------------------------------
+
+    /**
+     * Encapsulates a batch of records taken from a {@link WriteBehindJournal}, corresponding
+     * to a single segment of the journal.
+     */
+    public static final class Batch<R> {
+
+        private final String batchId;
+        private final List<R> records;
+        private final File segmentFile;
+        private final long firstRecordTimestamp;
+
+        /** (These are guarded by the owning journal) */
+        private int attemptCount;
+        private long nextAttemptTimestamp;
+
+        Batch(final String batchId, final List<R> records, final File segmentFile, final long firstRecordTimestamp) {
+            this.batchId = batchId;
+            this.records = Collections.unmodifiableList(records);
+            this.segmentFile = segmentFile;
+            this.firstRecordTimestamp = firstRecordTimestamp;
+        }
+
+        /** Returns an ID for this batch that is unique across all journals and restarts */
+        public String getBatchId() {
+            return batchId;
+        }
+
+        public List<R> getRecords() {
+            return records;
+        }
+
+        public long getFirstRecordTimestamp() {
+            return firstRecordTimestamp;
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                    + "(batchId=" + batchId
+                    + ",segmentFile=" + segmentFile
+                    + ",recordCount=" + records.size()
+                    + ")";
+        }
+    }
+}
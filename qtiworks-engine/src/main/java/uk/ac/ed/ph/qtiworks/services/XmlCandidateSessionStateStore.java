@@ -0,0 +1,240 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.QtiWorksLogicException;
+import uk.ac.ed.ph.qtiworks.QtiWorksRuntimeException;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEvent;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+import uk.ac.ed.ph.qtiworks.utils.XmlUtilities;
+
+import uk.ac.ed.ph.jqtiplus.node.AssessmentObjectType;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.BinaryUnmarshallingException;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.ItemSessionStateBinaryMarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.ItemSessionStateXmlMarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateBinaryMarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateXmlMarshaller;
+import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.XsltSerializationOptions;
+import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.XsltStylesheetManager;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import javax.annotation.Resource;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Document;
+
+import com.google.common.io.Files;
+
+/**
+ * Simple {@link CandidateSessionStateStore} that records a full XML serialization of the
+ * state for each {@link CandidateEvent} in the {@link CandidateSession}'s filespace.
+ * <p>
+ * This was the original (and only) way of storing state in QTIWorks. It is simple and
+ * robust, but uses a lot of space for large tests.
+ * <p>
+ * State recorded by the {@link BinaryCandidateSessionStateStore} can also be read here, so it
+ * is possible to switch back from that store.
+ *
+ * @author David McKain
+ */
+public class XmlCandidateSessionStateStore implements CandidateSessionStateStore {
+
+    /** File extension used for binary state files */
+    public static final String BINARY_FILE_EXTENSION = ".bin";
+
+    @Resource
+    protected FilespaceManager filespaceManager;
+
+    //----------------------------------------------------
+    // Item methods
+
+    @Override
+    public void storeItemSessionState(final CandidateEvent candidateEvent, final ItemSessionState itemSessionState) {
+        final Document stateDocument = ItemSessionStateXmlMarshaller.marshal(itemSessionState);
+        storeStateDocument(getSessionStateFile(candidateEvent), stateDocument, true);
+    }
+
+    @Override
+    public ItemSessionState loadItemSessionState(final CandidateEvent candidateEvent) {
+        final Document document = loadStateDocument(candidateEvent);
+        return ItemSessionStateXmlMarshaller.unmarshal(document.getDocumentElement());
+    }
+
+    //----------------------------------------------------
+    // Test methods
+
+    @Override
+    public void storeTestSessionState(final CandidateEvent candidateEvent, final TestSessionState testSessionState) {
+        final Document stateDocument = TestSessionStateXmlMarshaller.marshal(testSessionState);
+        storeStateDocument(getSessionStateFile(candidateEvent), stateDocument, true);
+    }
+
+    @Override
+    public TestSessionState loadTestSessionState(final CandidateEvent candidateEvent) {
+        final Document document = loadStateDocument(candidateEvent);
+        return TestSessionStateXmlMarshaller.unmarshal(document.getDocumentElement());
+    }
+
+    //----------------------------------------------------
+    // State file management
+
+    @Override
+    public Document loadStateDocument(final CandidateEvent candidateEvent) {
+        final File sessionStateFile = getSessionStateFile(candidateEvent);
+        if (!sessionStateFile.exists()) {
+            final Document binaryStateDocument = loadBinaryStateDocument(candidateEvent);
+            if (binaryStateDocument!=null) {
+                return binaryStateDocument;
+            }
+        }
+        return parseStateFile(ensureSessionStateFile(candidateEvent));
+    }
+
+    /**
+     * Loads the state for the given {@link CandidateEvent} recorded by the
+     * {@link BinaryCandidateSessionStateStore}, returning its XML form, or null if no such
+     * state has been recorded.
+     */
+    protected final Document loadBinaryStateDocument(final CandidateEvent candidateEvent) {
+        final File binaryStateFile = getBinaryStateFile(candidateEvent);
+        if (!binaryStateFile.exists()) {
+            return null;
+        }
+        final byte[] data = readBinaryStateFile(binaryStateFile);
+        try {
+            if (isItemSession(candidateEvent.getCandidateSession())) {
+                return ItemSessionStateXmlMarshaller.marshal(ItemSessionStateBinaryMarshaller.unmarshal(data));
+            }
+            return TestSessionStateXmlMarshaller.marshal(TestSessionStateBinaryMarshaller.unmarshal(data));
+        }
+        catch (final BinaryUnmarshallingException e) {
+            throw new QtiWorksLogicException("Could not unmarshal binary state file " + binaryStateFile, e);
+        }
+    }
+
+    protected final void storeStateDocument(final File stateFile, final Document stateXml, final boolean indenting) {
+        final XsltSerializationOptions xsltSerializationOptions = new XsltSerializationOptions();
+        xsltSerializationOptions.setIndenting(indenting);
+        xsltSerializationOptions.setIncludingXMLDeclaration(false);
+        final Transformer serializer = XsltStylesheetManager.createSerializer(xsltSerializationOptions);
+        FileOutputStream resultStream = null;
+        try {
+            resultStream = new FileOutputStream(stateFile);
+            serializer.transform(new DOMSource(stateXml), new StreamResult(resultStream));
+        }
+        catch (final TransformerException e) {
+            throw new QtiWorksRuntimeException("Unexpected Exception serializing state DOM", e);
+        }
+        catch (final FileNotFoundException e) {
+            throw QtiWorksRuntimeException.unexpectedException(e);
+        }
+        finally {
+            ServiceUtilities.ensureClose(resultStream);
+        }
+    }
+
+    protected final Document parseStateFile(final File stateFile) {
+        final DocumentBuilder documentBuilder = XmlUtilities.createNsAwareDocumentBuilder();
+        try {
+            return documentBuilder.parse(stateFile);
+        }
+        catch (final Exception e) {
+            throw new QtiWorksLogicException("Could not parse serailized state XML. This is an internal error as we currently don't expose this data to clients", e);
+        }
+    }
+
+    protected final File ensureSessionStateFile(final CandidateEvent candidateEvent) {
+        final File sessionStateFile = getSessionStateFile(candidateEvent);
+        if (!sessionStateFile.exists()) {
+            throw new QtiWorksLogicException("Expectation failed: State file " + sessionStateFile + " does not exist");
+        }
+        return sessionStateFile;
+    }
+
+    protected final File getBinaryStateFile(final CandidateEvent candidateEvent) {
+        return getSessionStateFile(candidateEvent.getCandidateSession(), candidateEvent.getId().longValue(), "", BINARY_FILE_EXTENSION);
+    }
+
+    protected final File getSessionStateFile(final CandidateEvent candidateEvent) {
+        return getSessionStateFile(candidateEvent.getCandidateSession(), candidateEvent.getId().longValue(), "");
+    }
+
+    /**
+     * Returns the File used to store state for the {@link CandidateEvent} having the given ID
+     * within the given {@link CandidateSession}.
+     *
+     * @param variant optional suffix added to the base name of the state file, used to
+     *   distinguish between different representations of the state. Use an empty String
+     *   for the standard (full XML) representation.
+     */
+    protected final File getSessionStateFile(final CandidateSession candidateSession, final long candidateEventId,
+            final String variant) {
+        return getSessionStateFile(candidateSession, candidateEventId, variant, ".xml");
+    }
+
+    /**
+     * Variant of {@link #getSessionStateFile(CandidateSession, long, String)} allowing the file
+     * extension to be specified, which is used for non-XML representations of the state.
+     */
+    protected final File getSessionStateFile(final CandidateSession candidateSession, final long candidateEventId,
+            final String variant, final String extension) {
+        final String stateFileBaseName = isItemSession(candidateSession) ? "itemSessionState" : "testSessionState";
+        final File sessionFolder = filespaceManager.obtainCandidateSessionStateStore(candidateSession);
+        final String stateFileName = stateFileBaseName + variant + candidateEventId + extension;
+        return new File(sessionFolder, stateFileName);
+    }
+
+    protected static final boolean isItemSession(final CandidateSession candidateSession) {
+        return candidateSession.getDelivery().getAssessment().getAssessmentType()==AssessmentObjectType.ASSESSMENT_ITEM;
+    }
+
+    protected static final byte[] readBinaryStateFile(final File stateFile) {
+        try {
+            return Files.toByteArray(stateFile);
+        }
+        catch (final IOException e) {
+            throw QtiWorksRuntimeException.unexpectedException(e);
+        }
+    }
+}
@@ -44,9 +44,9 @@ import uk.ac.ed.ph.qtiworks.domain.entities.ItemDeliverySettings;
 import uk.ac.ed.ph.qtiworks.domain.entities.ResponseLegality;
 import uk.ac.ed.ph.qtiworks.domain.entities.User;
 import uk.ac.ed.ph.qtiworks.services.AssessmentDataService;
+import uk.ac.ed.ph.qtiworks.services.CandidateAuditDataWriter;
 import uk.ac.ed.ph.qtiworks.services.CandidateSessionFinisher;
 import uk.ac.ed.ph.qtiworks.services.IdentityService;
-import uk.ac.ed.ph.qtiworks.services.dao.CandidateResponseDao;
 import uk.ac.ed.ph.qtiworks.web.candidate.CandidateSessionLaunchService;
 
 import uk.ac.ed.ph.jqtiplus.exception.QtiCandidateStateException;
@@ -100,7 +100,7 @@ public class CandidateItemDeliveryService extends CandidateServiceBase {
     private CandidateUploadService candidateUploadService;
 
     @Resource
-    private CandidateResponseDao candidateResponseDao;
+    private CandidateAuditDataWriter candidateAuditDataWriter;
 
     @Resource
     private AssessmentDataService assessmentDataService;
@@ -311,11 +311,11 @@ public class CandidateItemDeliveryService extends CandidateServiceBase {
                 eventType, itemSessionState, notificationRecorder);
         candidateAuditLogger.logCandidateEvent(candidateEvent);
 
-        /* Link and persist CandidateResponse entities */
+        /* Link and write out CandidateResponse entities */
         for (final CandidateResponse candidateResponse : candidateResponseMap.values()) {
             candidateResponse.setCandidateEvent(candidateEvent);
-            candidateResponseDao.persist(candidateResponse);
         }
+        candidateAuditDataWriter.writeResponses(candidateResponseMap.values());
 
         /* Record current result state, or finish session */
         return updateSessionFinishedStatus(candidateSession, itemSessionController);
@@ -57,6 +57,7 @@ import uk.ac.ed.ph.qtiworks.rendering.TestRenderingMode;
 import uk.ac.ed.ph.qtiworks.rendering.TestRenderingOptions;
 import uk.ac.ed.ph.qtiworks.rendering.TestRenderingRequest;
 import uk.ac.ed.ph.qtiworks.services.AssessmentDataService;
+import uk.ac.ed.ph.qtiworks.services.AssessmentObjectManagementService;
 import uk.ac.ed.ph.qtiworks.services.AssessmentPackageFileService;
 import uk.ac.ed.ph.qtiworks.services.FilespaceManager;
 import uk.ac.ed.ph.qtiworks.services.ServiceUtilities;
@@ -80,8 +81,12 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URI;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
 
 import javax.annotation.Resource;
 import javax.xml.transform.stream.StreamResult;
@@ -111,6 +116,9 @@ public class CandidateRenderingService extends CandidateServiceBase {
     @Resource
     private AssessmentDataService assessmentDataService;
 
+    @Resource
+    private AssessmentObjectManagementService assessmentObjectManagementService;
+
     @Resource
     private AssessmentRenderer assessmentRenderer;
 
@@ -539,6 +547,51 @@ public class CandidateRenderingService extends CandidateServiceBase {
         }
     }
 
+    /**
+     * Streams the file with the given content digest from the {@link AssessmentPackage} having
+     * the given ID, using the shared (session-independent) URLs created during rendering.
+     * <p>
+     * Access is granted only if one of the given {@link CandidateSession}s (as authorised for the
+     * caller's HTTP session) is still open and is running the required {@link AssessmentPackage}.
+     *
+     * @param candidateSessionIds IDs of the {@link CandidateSession}s the caller has been
+     *   authorised to access.
+     *
+     * @return true if the file was streamed, false if access is not permitted or no such file
+     *   exists.
+     */
+    public boolean streamAssessmentPackageAsset(final Collection<Long> candidateSessionIds,
+            final long apid, final String digest, final OutputStreamer outputStreamer)
+            throws IOException {
+        Assert.notNull(candidateSessionIds, "candidateSessionIds");
+        Assert.notNull(digest, "digest");
+        Assert.notNull(outputStreamer, "outputStreamer");
+
+        /* Find an open CandidateSession running the required package */
+        AssessmentPackage assessmentPackage = null;
+        for (final Long xid : candidateSessionIds) {
+            final CandidateSession candidateSession = candidateSessionDao.findById(xid);
+            if (candidateSession!=null && !candidateSession.isTerminated()) {
+                final AssessmentPackage selectedPackage = assessmentDataService.ensureSelectedAssessmentPackage(candidateSession.getDelivery());
+                if (selectedPackage.getId().longValue()==apid) {
+                    assessmentPackage = selectedPackage;
+                    break;
+                }
+            }
+        }
+        if (assessmentPackage==null) {
+            return false;
+        }
+
+        /* Look up requested file. (Only safe files have digests, so this is whitelisted) */
+        final String fileHref = assessmentPackageFileService.findSafeFileHrefByDigest(assessmentPackage, digest);
+        if (fileHref==null) {
+            return false;
+        }
+        assessmentPackageFileService.streamAssessmentPackageFile(assessmentPackage, fileHref, outputStreamer);
+        return true;
+    }
+
     //----------------------------------------------------
     // Candidate Source access
 
@@ -575,15 +628,11 @@ public class CandidateRenderingService extends CandidateServiceBase {
         /* Get most recent event */
         final CandidateEvent mostRecentEvent = assertSessionEntered(candidateSession);
 
-        /* Generate result Object from current state */
-        final File sessionStateFile = candidateDataService.ensureSessionStateFile(mostRecentEvent);
-
         /* Record action */
         candidateAuditLogger.logAction(candidateSession, "ACCESS_STATE");
 
-        /* Stream result file */
-        final Date lastModifiedTime = mostRecentEvent.getTimestamp();
-        ServiceUtilities.streamFile(sessionStateFile, "application/xml", lastModifiedTime, outputStreamer);
+        /* Stream current state */
+        candidateDataService.streamSessionState(mostRecentEvent, outputStreamer);
     }
 
     //----------------------------------------------------
@@ -661,6 +710,11 @@ public class CandidateRenderingService extends CandidateServiceBase {
         renderingRequest.setRenderingOptions(renderingOptions);
         renderingRequest.setAssessmentResourceLocator(assessmentPackageFileService.createResolvingResourceLocator(assessmentPackage));
         renderingRequest.setAssessmentResourceUri(assessmentPackageFileService.createAssessmentObjectUri(assessmentPackage));
+        renderingRequest.setAssessmentSourceCache(assessmentObjectManagementService.getAssessmentSourceCache(assessmentPackage));
+        renderingRequest.setAssessmentContentKey(assessmentPackage.getId().toString());
+        if (renderingOptions.getServeAssetUrl()!=null) {
+            renderingRequest.setAssetUrls(createAssetUrls(assessmentPackage, renderingOptions.getServeAssetUrl()));
+        }
         renderingRequest.setAuthorMode(candidateSession.isAuthorMode());
         renderingRequest.setValidated(assessmentPackage.isValidated());
         renderingRequest.setLaunchable(assessmentPackage.isLaunchable());
@@ -669,6 +723,20 @@ public class CandidateRenderingService extends CandidateServiceBase {
         renderingRequest.setValid(assessmentPackage.isValid());
     }
 
+    /**
+     * Creates shared, content-addressed URLs for each safe file in the given {@link AssessmentPackage},
+     * keyed on the System ID that the rendering process will resolve links to.
+     */
+    private Map<String, String> createAssetUrls(final AssessmentPackage assessmentPackage, final String serveAssetUrl) {
+        final Map<String, String> result = new TreeMap<String, String>(); /* (Stable ordering helps output caching) */
+        final String packageBaseUrl = serveAssetUrl + "/" + assessmentPackage.getId() + "/";
+        for (final Entry<String, String> entry : assessmentPackageFileService.getAssessmentPackageFileDigests(assessmentPackage).entrySet()) {
+            final URI fileUri = assessmentPackageFileService.createAssessmentFileUri(assessmentPackage, entry.getKey());
+            result.put(fileUri.toString(), packageBaseUrl + entry.getValue());
+        }
+        return result;
+    }
+
     //----------------------------------------------------
     // Result streaming
 
@@ -43,9 +43,9 @@ import uk.ac.ed.ph.qtiworks.domain.entities.CandidateTestEventType;
 import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
 import uk.ac.ed.ph.qtiworks.domain.entities.ResponseLegality;
 import uk.ac.ed.ph.qtiworks.domain.entities.User;
+import uk.ac.ed.ph.qtiworks.services.CandidateAuditDataWriter;
 import uk.ac.ed.ph.qtiworks.services.CandidateSessionFinisher;
 import uk.ac.ed.ph.qtiworks.services.IdentityService;
-import uk.ac.ed.ph.qtiworks.services.dao.CandidateResponseDao;
 import uk.ac.ed.ph.qtiworks.web.candidate.CandidateSessionLaunchService;
 
 import uk.ac.ed.ph.jqtiplus.exception.QtiCandidateStateException;
@@ -102,7 +102,7 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
     private CandidateUploadService candidateUploadService;
 
     @Resource
-    private CandidateResponseDao candidateResponseDao;
+    private CandidateAuditDataWriter candidateAuditDataWriter;
 
     //----------------------------------------------------
     // Session entry
@@ -300,14 +300,14 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
                 CandidateTestEventType.ITEM_EVENT, candidateItemEventType, testSessionState, notificationRecorder);
         candidateAuditLogger.logCandidateEvent(candidateEvent);
 
-        /* Persist CandidateResponse entities */
+        /* Link and write out CandidateResponse entities */
         for (final CandidateResponse candidateResponse : candidateResponseMap.values()) {
             candidateResponse.setCandidateEvent(candidateEvent);
-            candidateResponseDao.persist(candidateResponse);
         }
+        candidateAuditDataWriter.writeResponses(candidateResponseMap.values());
 
-        /* Record current result state */
-        candidateDataService.computeAndRecordTestAssessmentResult(candidateSession, testSessionController);
+        /* Record current result state (if changed) */
+        candidateDataService.recordTestAssessmentResultIfChanged(candidateSession, testSessionController);
 
         /* Save any change to session state */
         candidateSessionDao.update(candidateSession);
@@ -342,8 +342,8 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
             return handleExplosion(e, candidateSession);
         }
 
-        /* Record current result state */
-        candidateDataService.computeAndRecordTestAssessmentResult(candidateSession, testSessionController);
+        /* Record current result state (if changed) */
+        candidateDataService.recordTestAssessmentResultIfChanged(candidateSession, testSessionController);
 
         /* Record and log event */
         final CandidateEvent candidateEvent = candidateDataService.recordCandidateTestEvent(candidateSession,
@@ -378,8 +378,8 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
             return handleExplosion(e, candidateSession);
         }
 
-        /* Record current result state */
-        candidateDataService.computeAndRecordTestAssessmentResult(candidateSession, testSessionController);
+        /* Record current result state (if changed) */
+        candidateDataService.recordTestAssessmentResultIfChanged(candidateSession, testSessionController);
 
         /* Record and log event */
         final CandidateEvent candidateTestEvent = candidateDataService.recordCandidateTestEvent(candidateSession,
@@ -541,8 +541,8 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
             return handleExplosion(e, candidateSession);
         }
 
-        /* Record current result state */
-        candidateDataService.computeAndRecordTestAssessmentResult(candidateSession, testSessionController);
+        /* Record current result state (if changed) */
+        candidateDataService.recordTestAssessmentResultIfChanged(candidateSession, testSessionController);
 
         /* Record and log event */
         final CandidateEvent candidateTestEvent = candidateDataService.recordCandidateTestEvent(candidateSession,
@@ -583,8 +583,8 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
             return handleExplosion(e, candidateSession);
         }
 
-        /* Record current result state */
-        candidateDataService.computeAndRecordTestAssessmentResult(candidateSession, testSessionController);
+        /* Record current result state (if changed) */
+        candidateDataService.recordTestAssessmentResultIfChanged(candidateSession, testSessionController);
 
         /* Record and log event */
         final CandidateEvent candidateTestEvent = candidateDataService.recordCandidateTestEvent(candidateSession,
@@ -120,6 +120,21 @@ public class CandidateSessionDao extends GenericDao<CandidateSession> {
         return query.getResultList();
     }
 
+    /**
+     * Returns the next page of {@link CandidateSession}s for the given {@link Delivery} that have
+     * recorded outcomes, in ID order.
+     *
+     * @param afterXid ID of the last session in the previous page, or 0 for the first page
+     * @param maxResults maximum number of sessions to return
+     */
+    public List<CandidateSession> getForDeliveryWithOutcomesPage(final Delivery delivery, final long afterXid, final int maxResults) {
+        final TypedQuery<CandidateSession> query = em.createNamedQuery("CandidateSession.getForDeliveryWithOutcomesAfter", CandidateSession.class);
+        query.setParameter("delivery", delivery);
+        query.setParameter("afterXid", Long.valueOf(afterXid));
+        query.setMaxResults(maxResults);
+        return query.getResultList();
+    }
+
     public List<CandidateSession> getNonTerminatedForDeliveryAndCandidate(final Delivery delivery, final User candidate) {
         final TypedQuery<CandidateSession> query = em.createNamedQuery("CandidateSession.getNonTerminatedForDeliveryAndCandidate", CandidateSession.class);
         query.setParameter("delivery", delivery);
@@ -127,6 +142,13 @@ public class CandidateSessionDao extends GenericDao<CandidateSession> {
         return query.getResultList();
     }
 
+    public List<CandidateSession> getNonTerminatedWithResultPendingBefore(final Date threshold, final int maxResults) {
+        final TypedQuery<CandidateSession> query = em.createNamedQuery("CandidateSession.getNonTerminatedWithResultPendingBefore", CandidateSession.class);
+        query.setParameter("threshold", threshold);
+        query.setMaxResults(maxResults);
+        return query.getResultList();
+    }
+
     public List<CandidateSession> getCreatedBefore(final Date creationTime) {
         final TypedQuery<CandidateSession> query = em.createNamedQuery("CandidateSession.getCreatedBefore", CandidateSession.class);
         query.setParameter("creationTime", creationTime);
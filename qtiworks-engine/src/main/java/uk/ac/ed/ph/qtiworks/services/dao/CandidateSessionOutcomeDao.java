@@ -37,6 +37,11 @@ import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
 import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSessionOutcome;
 import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
 
+import uk.ac.ed.ph.jqtiplus.value.BaseType;
+import uk.ac.ed.ph.jqtiplus.value.Cardinality;
+
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import javax.persistence.EntityManager;
@@ -76,6 +81,66 @@ public class CandidateSessionOutcomeDao extends GenericDao<CandidateSessionOutco
         return query.getResultList();
     }
 
+    /**
+     * Returns all of the outcomes recorded for the given {@link CandidateSession}s, ordered by
+     * session ID.
+     */
+    public List<CandidateSessionOutcome> getForSessions(final List<CandidateSession> candidateSessions) {
+        if (candidateSessions.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final TypedQuery<CandidateSessionOutcome> query = em.createNamedQuery("CandidateSessionOutcome.getForSessions", CandidateSessionOutcome.class);
+        query.setParameter("candidateSessions", candidateSessions);
+        return query.getResultList();
+    }
+
+    /**
+     * Returns the distinct outcome declarations recorded for all sessions on the given {@link Delivery},
+     * in the order they were first recorded. Each declaration is returned as a "template"
+     * {@link CandidateSessionOutcome} having only its identifier, baseType and cardinality set.
+     */
+    public List<CandidateSessionOutcome> getDeclarationsForDelivery(final Delivery delivery) {
+        final TypedQuery<Object[]> query = em.createNamedQuery("CandidateSessionOutcome.getDeclarationsForDelivery", Object[].class);
+        query.setParameter("delivery", delivery);
+        final List<Object[]> rows = query.getResultList();
+        final List<CandidateSessionOutcome> result = new ArrayList<CandidateSessionOutcome>(rows.size());
+        for (final Object[] row : rows) {
+            final CandidateSessionOutcome declaration = new CandidateSessionOutcome();
+            declaration.setOutcomeIdentifier((String) row[0]);
+            declaration.setBaseType((BaseType) row[1]);
+            declaration.setCardinality((Cardinality) row[2]);
+            result.add(declaration);
+        }
+        return result;
+    }
+
+    /**
+     * Updates the value of the {@link CandidateSessionOutcome} having the given ID directly,
+     * without loading it first, provided that it currently has the given expected value.
+     *
+     * @return number of rows updated, which will be 0 if the outcome no longer exists or
+     *   no longer has the expected value
+     */
+    public int updateStringValue(final Long xoid, final String expectedStringValue, final String stringValue) {
+        final Query query = em.createNamedQuery("CandidateSessionOutcome.updateStringValue");
+        query.setParameter("xoid", xoid);
+        query.setParameter("expectedStringValue", expectedStringValue);
+        query.setParameter("stringValue", stringValue);
+        return query.executeUpdate();
+    }
+
+    /**
+     * Deletes the {@link CandidateSessionOutcome} having the given ID directly, without loading
+     * it first.
+     *
+     * @return number of rows deleted, which will be 0 if the outcome no longer exists
+     */
+    public int deleteById(final Long xoid) {
+        final Query query = em.createNamedQuery("CandidateSessionOutcome.deleteById");
+        query.setParameter("xoid", xoid);
+        return query.executeUpdate();
+    }
+
     public int deleteForCandidateSession(final CandidateSession candidateSession) {
         final Query query = em.createNamedQuery("CandidateSessionOutcome.deleteForSession");
         query.setParameter("candidateSession", candidateSession);
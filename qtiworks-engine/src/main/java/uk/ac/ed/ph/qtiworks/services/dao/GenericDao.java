@@ -170,4 +170,20 @@ public abstract class GenericDao<E extends BaseEntity> {
             throw e;
         }
     }
+
+    /**
+     * Detaches the given entity from the current persistence context. This is useful when working
+     * through large amounts of data that is only being read.
+     */
+    public void detach(final E entity) {
+        em.detach(entity);
+    }
+
+    /**
+     * Clears the current persistence context, detaching ALL managed entities (not just ones
+     * handled by this DAO). Any pending changes should be flushed first.
+     */
+    public void clear() {
+        em.clear();
+    }
 }
@@ -37,6 +37,7 @@ import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
 import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
 import uk.ac.ed.ph.qtiworks.domain.entities.QueuedLtiOutcome;
 
+import java.util.Date;
 import java.util.List;
 
 import javax.persistence.EntityManager;
@@ -69,6 +70,41 @@ public class QueuedLtiOutcomeDao extends GenericDao<QueuedLtiOutcome> {
         return query.getResultList();
     }
 
+    public long countQueuedOutcomes() {
+        final Query query = em.createNamedQuery("QueuedLtiOutcome.countQueuedOutcomes");
+        return extractCountResult(query);
+    }
+
+    /**
+     * Returns all queued outcomes for which a later outcome has been queued for the same
+     * {@link CandidateSession}, in insertion order.
+     */
+    public List<QueuedLtiOutcome> getSupersededQueuedOutcomes() {
+        final TypedQuery<QueuedLtiOutcome> query = em.createNamedQuery("QueuedLtiOutcome.getSupersededQueuedOutcomes", QueuedLtiOutcome.class);
+        return query.getResultList();
+    }
+
+    /**
+     * Returns the next page of queued outcomes, in insertion order.
+     *
+     * @param afterId ID of the last outcome in the previous page, or 0 for the first page
+     * @param dueTimestamp if not null, only outcomes due to be (re)sent at this time are returned
+     * @param maxResults maximum number of outcomes to return
+     */
+    public List<QueuedLtiOutcome> getQueuedOutcomesPage(final long afterId, final Date dueTimestamp, final int maxResults) {
+        final TypedQuery<QueuedLtiOutcome> query;
+        if (dueTimestamp!=null) {
+            query = em.createNamedQuery("QueuedLtiOutcome.getDueQueuedOutcomesAfter", QueuedLtiOutcome.class);
+            query.setParameter("timestamp", dueTimestamp);
+        }
+        else {
+            query = em.createNamedQuery("QueuedLtiOutcome.getQueuedOutcomesAfter", QueuedLtiOutcome.class);
+        }
+        query.setParameter("afterId", Long.valueOf(afterId));
+        query.setMaxResults(maxResults);
+        return query.getResultList();
+    }
+
     public int deleteForCandidateSession(final CandidateSession candidateSession) {
         final Query query = em.createNamedQuery("QueuedLtiOutcome.deleteForSession");
         query.setParameter("candidateSession", candidateSession);
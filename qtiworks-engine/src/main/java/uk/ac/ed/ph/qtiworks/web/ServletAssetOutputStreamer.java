@@ -0,0 +1,241 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.web;
+
+import uk.ac.ed.ph.qtiworks.services.domain.OutputStreamer;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Implementation of {@link OutputStreamer} for serving content-addressed resources (i.e. ones
+ * whose URL changes whenever their content changes) to a {@link HttpServletResponse}.
+ * <p>
+ * As such resources never change, this sets a strong entity tag and headers allowing browsers
+ * and shared caches to keep them indefinitely. It also honours conditional requests, and supports
+ * single HTTP byte ranges. (Requests for multiple ranges are answered with the full resource,
+ * which HTTP permits.)
+ * <p>
+ * Developer note: an instance of this class should be instantiated and used once
+ * for a given {@link HttpServletResponse}, and then discarded.
+ *
+ * @author David McKain
+ */
+public final class ServletAssetOutputStreamer implements OutputStreamer {
+
+    /** Cache-Control header sent for content-addressed resources */
+    public static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+    private final HttpServletRequest httpServletRequest;
+    private final HttpServletResponse httpServletResponse;
+    private final String etag;
+
+    public ServletAssetOutputStreamer(final HttpServletRequest httpServletRequest,
+            final HttpServletResponse httpServletResponse, final String etag) {
+        Assert.notNull(httpServletRequest, "httpServletRequest");
+        Assert.notNull(httpServletResponse, "httpServletResponse");
+        Assert.notNull(etag, "etag");
+        this.httpServletRequest = httpServletRequest;
+        this.httpServletResponse = httpServletResponse;
+        this.etag = etag;
+    }
+
+    @Override
+    public void stream(final String contentType, final long contentLength, final Date lastModifiedTime,
+            final InputStream resultStream)
+            throws IOException {
+        /* Set caching headers, which apply to all responses below */
+        httpServletResponse.setHeader("ETag", etag);
+        httpServletResponse.setHeader("Cache-Control", IMMUTABLE_CACHE_CONTROL);
+        httpServletResponse.setHeader("Accept-Ranges", "bytes");
+        if (lastModifiedTime!=null) {
+            httpServletResponse.setHeader("Last-Modified", WebUtilities.formatHttpDate(lastModifiedTime));
+        }
+
+        /* Handle conditional GET */
+        if (etagMatches(httpServletRequest.getHeader("If-None-Match"))) {
+            httpServletResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        /* Decide whether to honour any Range request */
+        ByteRange byteRange = null;
+        final String rangeHeader = httpServletRequest.getHeader("Range");
+        if (rangeHeader!=null) {
+            final String ifRangeHeader = httpServletRequest.getHeader("If-Range");
+            if (ifRangeHeader==null || ifRangeHeader.trim().equals(etag)) {
+                byteRange = ByteRange.parse(rangeHeader, contentLength);
+            }
+        }
+
+        httpServletResponse.setContentType(contentType);
+        if (byteRange==null) {
+            /* Send whole resource */
+            httpServletResponse.setContentLength((int) contentLength); /* Huge files aren't going to happen... */
+            final ServletOutputStream servletOutputStream = httpServletResponse.getOutputStream();
+            ByteStreams.copy(resultStream, servletOutputStream);
+        }
+        else if (!byteRange.isSatisfiable()) {
+            httpServletResponse.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            httpServletResponse.setHeader("Content-Range", "bytes */" + contentLength);
+        }
+        else {
+            /* Send requested part of resource */
+            final long start = byteRange.getStart();
+            final long end = byteRange.getEnd();
+            httpServletResponse.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            httpServletResponse.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + contentLength);
+            httpServletResponse.setContentLength((int) byteRange.getLength());
+            ByteStreams.skipFully(resultStream, start);
+            final ServletOutputStream servletOutputStream = httpServletResponse.getOutputStream();
+            ByteStreams.copy(ByteStreams.limit(resultStream, byteRange.getLength()), servletOutputStream);
+        }
+    }
+
+    /**
+     * Tests whether the given If-None-Match header matches our entity tag, using
+     * the weak comparison mandated for this header.
+     */
+    private boolean etagMatches(final String ifNoneMatchHeader) {
+        if (ifNoneMatchHeader==null) {
+            return false;
+        }
+        final String opaqueEtag = stripWeakPrefix(etag);
+        for (final String requestEtag : ifNoneMatchHeader.split(",")) {
+            final String trimmed = requestEtag.trim();
+            if ("*".equals(trimmed) || stripWeakPrefix(trimmed).equals(opaqueEtag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String stripWeakPrefix(final String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    //----------------------------------------------------
+
+    /**
+     * Represents a single requested (inclusive) byte range, as parsed from a HTTP Range header.
+     */
+    public static final class ByteRange {
+
+        /** Indicates a syntactically valid Range that cannot be satisfied */
+        public static final ByteRange UNSATISFIABLE = new ByteRange(-1L, -1L);
+
+        private final long start;
+        private final long end;
+
+        ByteRange(final long start, final long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        public long getLength() {
+            return end - start + 1;
+        }
+
+        public boolean isSatisfiable() {
+            return start >= 0;
+        }
+
+        /**
+         * Parses the given Range header for a resource of the given length.
+         *
+         * @return resulting {@link ByteRange}, {@link #UNSATISFIABLE} if the range cannot be
+         *   satisfied, or null if the header should be ignored and the whole resource sent. (This
+         *   happens for malformed headers and multiple ranges.)
+         */
+        public static ByteRange parse(final String rangeHeader, final long contentLength) {
+            final String trimmed = rangeHeader.trim();
+            if (!trimmed.startsWith("bytes=") || trimmed.indexOf(',')!=-1) {
+                return null;
+            }
+            final String spec = trimmed.substring("bytes=".length()).trim();
+            final int dashIndex = spec.indexOf('-');
+            if (dashIndex==-1 || spec.indexOf('-', dashIndex + 1)!=-1) {
+                return null;
+            }
+            final long first;
+            final long last;
+            try {
+                first = dashIndex > 0 ? Long.parseLong(spec.substring(0, dashIndex).trim()) : -1L;
+                last = dashIndex < spec.length() - 1 ? Long.parseLong(spec.substring(dashIndex + 1).trim()) : -1L;
+            }
+            catch (final NumberFormatException e) {
+                return null;
+            }
+            if (first==-1L) {
+                /* Suffix range "-N", asking for the last N bytes */
+                if (last<=0 || contentLength==0) {
+                    return last<0 ? null : UNSATISFIABLE;
+                }
+                return new ByteRange(Math.max(0L, contentLength - last), contentLength - 1);
+            }
+            if (first<0 || (last!=-1L && last<first)) {
+                return null;
+            }
+            if (first>=contentLength) {
+                return UNSATISFIABLE;
+            }
+            return new ByteRange(first, last==-1L ? contentLength - 1 : Math.min(last, contentLength - 1));
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                    + "(start=" + start
+                    + ",end=" + end
+                    + ")";
+        }
+    }
+}
@@ -41,6 +41,9 @@ import uk.ac.ed.ph.qtiworks.services.dao.UserDao;
 import uk.ac.ed.ph.qtiworks.web.authn.AbstractWebAuthenticationFilter;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -171,6 +174,25 @@ public final class CandidateSessionAuthenticationFilter extends AbstractWebAuthe
         httpSession.removeAttribute(getCandidateSessionTicketSessionKey(xid));
     }
 
+    /**
+     * Returns the IDs of all {@link CandidateSession}s that the given HTTP session has been
+     * authorised to access.
+     */
+    public static List<Long> getCandidateSessionIdsForHttpSession(final HttpSession httpSession) {
+        final List<Long> result = new ArrayList<Long>();
+        final Enumeration<?> attributeNames = httpSession.getAttributeNames();
+        while (attributeNames.hasMoreElements()) {
+            final String attributeName = (String) attributeNames.nextElement();
+            if (attributeName.startsWith(CANDIDATE_SESSION_TICKET_ATTRIBUTE_BASE_NAME)) {
+                final Object attributeValue = httpSession.getAttribute(attributeName);
+                if (attributeValue instanceof CandidateSessionTicket) {
+                    result.add(Long.valueOf(((CandidateSessionTicket) attributeValue).getCandidateSessionId()));
+                }
+            }
+        }
+        return result;
+    }
+
     private static CandidateSessionTicket getCandidateSessionTicketForHttpSession(final HttpSession httpSession, final long xid) {
         return (CandidateSessionTicket) httpSession.getAttribute(getCandidateSessionTicketSessionKey(xid));
     }
@@ -0,0 +1,105 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.web.controller.candidate;
+
+import uk.ac.ed.ph.qtiworks.domain.entities.AssessmentPackage;
+import uk.ac.ed.ph.qtiworks.services.candidate.CandidateRenderingService;
+import uk.ac.ed.ph.qtiworks.web.ServletAssetOutputStreamer;
+import uk.ac.ed.ph.qtiworks.web.candidate.CandidateSessionAuthenticationFilter;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+/**
+ * Controller serving the files within an {@link AssessmentPackage} (e.g. images, CSS, applets)
+ * via shared, content-addressed URLs of the form <code>/candidate/asset/{apid}/{digest}</code>.
+ * <p>
+ * Unlike the per-session file URLs, these are the same for every candidate running the same
+ * package and never change, so they can be cached indefinitely by browsers and by any reverse
+ * proxy or CDN in front of QTIWorks.
+ * <p>
+ * Access via QTIWorks itself is granted only to HTTP sessions holding a ticket for an open
+ * candidate session on the required package. Copies served by a shared cache are protected only
+ * by the URL, which cannot be guessed without knowing the file's content.
+ *
+ * @author David McKain
+ */
+@Controller
+public class CandidateAssetController {
+
+    private static final Logger logger = LoggerFactory.getLogger(CandidateAssetController.class);
+
+    /** Base URL (within the webapp) for assets served by this controller */
+    public static final String ASSET_BASE_URL = "/candidate/asset";
+
+    @Resource
+    private CandidateRenderingService candidateRenderingService;
+
+    @RequestMapping(value="/asset/{apid}/{digest:[0-9a-f]+}", method=RequestMethod.GET)
+    public void streamAssessmentPackageAsset(final HttpServletRequest httpServletRequest,
+            final HttpServletResponse httpServletResponse,
+            @PathVariable final long apid, @PathVariable final String digest)
+            throws IOException {
+        /* Find the CandidateSessions that this HTTP session has been authorised to access */
+        final HttpSession httpSession = httpServletRequest.getSession(false);
+        final List<Long> candidateSessionIds = httpSession!=null
+                ? CandidateSessionAuthenticationFilter.getCandidateSessionIdsForHttpSession(httpSession)
+                : null;
+        if (candidateSessionIds==null || candidateSessionIds.isEmpty()) {
+            logger.debug("No candidate sessions authorised for access to asset {} in package {}", digest, apid);
+            httpServletResponse.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+
+        /* Stream asset, using its digest as a strong entity tag */
+        final ServletAssetOutputStreamer outputStreamer = new ServletAssetOutputStreamer(httpServletRequest,
+                httpServletResponse, "\"" + digest + "\"");
+        if (!candidateRenderingService.streamAssessmentPackageAsset(candidateSessionIds, apid, digest, outputStreamer)) {
+            logger.debug("Access to asset {} in package {} denied or not found", digest, apid);
+            httpServletResponse.sendError(HttpServletResponse.SC_NOT_FOUND);
+        }
+    }
+}
@@ -33,11 +33,8 @@
  */
 package uk.ac.ed.ph.qtiworks.web.controller.candidate;
 
-import uk.ac.ed.ph.qtiworks.mathassess.XsltStylesheetCacheAdapter;
-import uk.ac.ed.ph.qtiworks.mathassess.glue.AsciiMathHelper;
 import uk.ac.ed.ph.qtiworks.mathassess.glue.AsciiMathInputException;
-
-import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.XsltStylesheetCache;
+import uk.ac.ed.ph.qtiworks.mathassess.glue.AsciiMathUpConversionService;
 
 import java.util.Map;
 
@@ -60,10 +57,10 @@ import org.springframework.web.bind.annotation.RequestParam;
 public class CandidateHelperController {
 
     @Resource
-    private XsltStylesheetCache stylesheetCache;
+    private AsciiMathUpConversionService asciiMathUpConversionService;
 
     /**
-     * Runs the {@link AsciiMathHelper} helper on the given 'input' parameter,
+     * Runs the {@link AsciiMathUpConversionService} on the given 'input' parameter,
      * expecting to return JSON.
      *
      * Accept: application/json from client expected
@@ -72,8 +69,7 @@ public class CandidateHelperController {
      */
     @RequestMapping(value="/verifyAsciiMath", method=RequestMethod.POST)
     public ResponseEntity<Map<String, String>>  verifyAsciiMath(@RequestParam("input") final String asciiMathInput) {
-        final AsciiMathHelper asciiMathHelper = new AsciiMathHelper(new XsltStylesheetCacheAdapter(stylesheetCache));
-        final Map<String, String> upConvertedAsciiMathInput = asciiMathHelper.upConvertAsciiMathInput(asciiMathInput);
+        final Map<String, String> upConvertedAsciiMathInput = asciiMathUpConversionService.upConvertAsciiMathInput(asciiMathInput);
 
         final HttpHeaders responseHeaders = new HttpHeaders();
         responseHeaders.setCacheControl("private, no-cache, no-store, max-age=0, must-revalidate");
@@ -158,6 +158,7 @@ public class CandidateTestController extends CandidateControllerBase {
         renderingOptions.setResultUrl(sessionBaseUrl + "/result");
         renderingOptions.setValidationUrl(sessionBaseUrl + "/validation");
         renderingOptions.setServeFileUrl(sessionBaseUrl + "/file");
+        renderingOptions.setServeAssetUrl(CandidateAssetController.ASSET_BASE_URL);
         renderingOptions.setAuthorViewUrl(sessionBaseUrl + "/author-view");
         renderingOptions.setResponseUrl(sessionBaseUrl + "/response");
     }
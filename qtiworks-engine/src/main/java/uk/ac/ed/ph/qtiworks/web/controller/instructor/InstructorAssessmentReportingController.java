@@ -54,6 +54,7 @@ import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 /**
@@ -121,10 +122,12 @@ public class InstructorAssessmentReportingController {
     }
 
     @RequestMapping(value="/delivery/candidate-results-{did}.zip", method=RequestMethod.GET)
-    public void streamDeliveryCandidateResults(@PathVariable final long did, final HttpServletResponse httpServletResponse)
+    public void streamDeliveryCandidateResults(@PathVariable final long did,
+            @RequestParam(value="regenerate", required=false, defaultValue="false") final boolean regenerateMissingResults,
+            final HttpServletResponse httpServletResponse)
             throws PrivilegeException, DomainEntityNotFoundException, IOException {
         httpServletResponse.setContentType("application/zip");
-        assessmentReportingService.streamAssessmentReports(did, httpServletResponse.getOutputStream());
+        assessmentReportingService.streamAssessmentReports(did, regenerateMissingResults, httpServletResponse.getOutputStream());
     }
 
     //------------------------------------------------------
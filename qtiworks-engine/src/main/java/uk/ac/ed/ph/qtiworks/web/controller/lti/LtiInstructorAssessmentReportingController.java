@@ -53,6 +53,7 @@ import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 /**
@@ -129,11 +130,13 @@ public class LtiInstructorAssessmentReportingController {
     }
 
     @RequestMapping(value="/candidate-results-{lrid}.zip", method=RequestMethod.GET)
-    public void streamDeliveryCandidateResults(final HttpServletResponse httpServletResponse)
+    public void streamDeliveryCandidateResults(
+            @RequestParam(value="regenerate", required=false, defaultValue="false") final boolean regenerateMissingResults,
+            final HttpServletResponse httpServletResponse)
             throws PrivilegeException, DomainEntityNotFoundException, IOException {
         final Delivery thisDelivery = identityService.assertCurrentThreadLtiIdentityContext().getLtiResource().getDelivery();
         httpServletResponse.setContentType("application/zip");
-        assessmentReportingService.streamAssessmentReports(thisDelivery.getId(), httpServletResponse.getOutputStream());
+        assessmentReportingService.streamAssessmentReports(thisDelivery.getId(), regenerateMissingResults, httpServletResponse.getOutputStream());
     }
 
     //------------------------------------------------------
@@ -99,6 +99,7 @@ public class LtiInstructorRouter {
         primaryRouting.put("listCandidateSessions", buildWebUrl("/candidate-sessions"));
         primaryRouting.put("candidateSummaryReportCsv", buildWebUrl("/candidate-summary-report-" + lrid + ".csv"));
         primaryRouting.put("candidateResultsZip", buildWebUrl("/candidate-results-" + lrid + ".zip"));
+        primaryRouting.put("candidateResultsZipRegenerating", buildWebUrl("/candidate-results-" + lrid + ".zip?regenerate=true"));
         primaryRouting.put("terminateAllSessions", buildWebUrl("/terminate-all-sessions"));
         primaryRouting.put("deleteAllSessions", buildWebUrl("/delete-all-sessions"));
         return primaryRouting;
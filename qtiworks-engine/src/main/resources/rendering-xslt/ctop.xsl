@@ -1239,7 +1239,7 @@ href="http://www.w3.org/Consortium/Legal/copyright-software-19980720"
 </xsl:call-template>
 </xsl:template>
 
-<xsl:template
+<xsl:template mode="c2p"
 match="m:apply[*[1][self::m:cartesianproduct][count(following-sibling::m:reals)=count(following-sibling::*)]]"
 priority="2">
 <m:msup>
@@ -1713,7 +1713,7 @@ priority="2">
 </m:mrow>
 </xsl:template>
 
-<xsl:template
+<xsl:template mode="c2p"
 match="m:apply[*[1][self::m:determinant]][*[2][self::m:matrix]]" priority="2">
 <m:mrow>
 <m:mo>|</m:mo>
@@ -0,0 +1,57 @@
+<?xml version="1.0" encoding="UTF-8"?>
+<!--
+
+Fused rendering pipeline. This performs the same work as the usual
+
+  Rendering XSLT -> ctop.xsl -> serialize.xsl
+
+pipeline, but within a single transformation, passing intermediate
+results between the stages as temporary trees.
+
+This is not used directly. Instead, a driver stylesheet is compiled
+that imports this stylesheet followed by the required rendering
+stylesheet, and is then run using the 'qw:fused-pipeline' initial mode.
+(See AssessmentRenderer)
+
+Input document: as for the rendering stylesheet
+
+-->
+<xsl:stylesheet version="2.0"
+  xmlns:xsl="http://www.w3.org/1999/XSL/Transform"
+  xmlns:qw="http://www.ph.ed.ac.uk/qtiworks"
+  exclude-result-prefixes="qw">
+
+  <!-- ************************************************************ -->
+
+  <xsl:import href="ctop.xsl"/>
+  <xsl:import href="serialize.xsl"/>
+
+  <!-- ************************************************************ -->
+
+  <xsl:template match="/" mode="qw:fused-pipeline">
+    <!-- Run rendering stylesheet -->
+    <xsl:variable name="rendered" as="document-node()">
+      <xsl:document>
+        <xsl:apply-templates select="."/>
+      </xsl:document>
+    </xsl:variable>
+    <!-- Then do MathML C-to-P -->
+    <xsl:variable name="presentation" as="document-node()">
+      <xsl:document>
+        <xsl:apply-templates select="$rendered/node()" mode="c2p"/>
+      </xsl:document>
+    </xsl:variable>
+    <!-- Then serialize -->
+    <xsl:apply-templates select="$presentation/node()" mode="serialize"/>
+  </xsl:template>
+
+  <!--
+  Override the document node templates in ctop.xsl and serialize.xsl,
+  reinstating the built-in behaviour for rendering stylesheets that don't
+  match the document node themselves.
+  -->
+  <xsl:template match="/">
+    <xsl:apply-templates/>
+  </xsl:template>
+
+</xsl:stylesheet>
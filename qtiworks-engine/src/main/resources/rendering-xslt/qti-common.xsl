@@ -43,6 +43,12 @@ rendering.
   <!-- Set to true to include author debug information -->
   <xsl:param name="authorMode" as="xs:boolean" required="yes"/>
 
+  <!--
+  Optional shared (session-independent) URLs for package files, keyed on their
+  resolved System IDs. Files not listed here are served via $serveFileUrl.
+  -->
+  <xsl:param name="assetUrls" as="element(qw:asset)*" required="no"/>
+
   <!-- Notifications produced during the event being rendered -->
   <xsl:param name="notifications" as="element(qw:notification)*"/>
 
@@ -86,7 +92,10 @@ rendering.
       </xsl:when>
       <xsl:otherwise>
         <xsl:variable name="resolved" as="xs:string" select="string(resolve-uri($uri, $systemId))"/>
-        <xsl:sequence select="concat($webappContextPath, $serveFileUrl, '?href=', encode-for-uri($resolved))"/>
+        <xsl:variable name="assetUrl" as="attribute(url)?" select="$assetUrls[@href=$resolved][1]/@url"/>
+        <xsl:sequence select="if (exists($assetUrl))
+          then concat($webappContextPath, $assetUrl)
+          else concat($webappContextPath, $serveFileUrl, '?href=', encode-for-uri($resolved))"/>
       </xsl:otherwise>
     </xsl:choose>
   </xsl:function>
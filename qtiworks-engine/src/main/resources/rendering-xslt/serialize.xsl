@@ -27,7 +27,17 @@ hence slightly easier to debug.
 
   <!-- ************************************************************ -->
 
-  <xsl:template match="xhtml:html" as="element()">
+  <!--
+  (Templates are all in the 'serialize' mode so that this stylesheet can also be
+  imported into the fused rendering pipeline. See fused-pipeline.xsl)
+  -->
+  <xsl:template match="/">
+    <xsl:apply-templates mode="serialize"/>
+  </xsl:template>
+
+  <!-- ************************************************************ -->
+
+  <xsl:template match="xhtml:html" mode="serialize" as="element()">
     <xsl:variable name="containsMathML" select="exists(xhtml:body//m:*)" as="xs:boolean"/>
     <!-- Generate XHTML tree in usual namespace -->
     <xsl:variable name="html" as="element(xhtml:html)">
@@ -55,7 +65,7 @@ hence slightly easier to debug.
           </xsl:if>
           <!-- Pull in <head/> stuff added by other stylesheets -->
           <xsl:for-each select="xhtml:head/*">
-            <xsl:apply-templates select="."/>
+            <xsl:apply-templates select="." mode="serialize"/>
             <xsl:text>&#x0a;</xsl:text>
           </xsl:for-each>
           <!-- Finally pull in MathJax if required -->
@@ -74,7 +84,7 @@ hence slightly easier to debug.
             <xsl:text>&#x0a;</xsl:text>
           </xsl:if>
         </head>
-        <xsl:apply-templates select="xhtml:body"/>
+        <xsl:apply-templates select="xhtml:body" mode="serialize"/>
       </html>
     </xsl:variable>
     <!--
@@ -92,7 +102,7 @@ hence slightly easier to debug.
   </xsl:template>
 
   <!-- Add @type attribute to <script> if we're not generating HTML5 -->
-  <xsl:template match="xhtml:script[not($serializationMethod='HTML5_MATHJAX') and not(@type)]">
+  <xsl:template match="xhtml:script[not($serializationMethod='HTML5_MATHJAX') and not(@type)]" mode="serialize">
     <xsl:copy>
       <xsl:copy-of select="@*"/>
       <xsl:attribute name="type" select="'text/javascript'"/>
@@ -101,34 +111,34 @@ hence slightly easier to debug.
 
   <!-- ************************************************************ -->
 
-  <xsl:template match="xhtml:*">
+  <xsl:template match="xhtml:*" mode="serialize">
     <xsl:copy>
       <xsl:copy-of select="@*"/>
-      <xsl:apply-templates/>
+      <xsl:apply-templates mode="serialize"/>
     </xsl:copy>
   </xsl:template>
 
-  <xsl:template match="m:*">
+  <xsl:template match="m:*" mode="serialize">
     <xsl:choose>
       <xsl:when test="$serializationMethod='IE_MATHPLAYER'">
         <xsl:element name="m:{local-name()}" namespace="http://www.w3.org/1998/Math/MathML">
           <xsl:copy-of select="@*"/>
-          <xsl:apply-templates/>
+          <xsl:apply-templates mode="serialize"/>
         </xsl:element>
       </xsl:when>
       <xsl:otherwise>
         <xsl:element name="{local-name()}" namespace="http://www.w3.org/1998/Math/MathML">
           <xsl:copy-of select="@*"/>
-          <xsl:apply-templates/>
+          <xsl:apply-templates mode="serialize"/>
         </xsl:element>
       </xsl:otherwise>
     </xsl:choose>
   </xsl:template>
 
-  <xsl:template match="*">
+  <xsl:template match="*" mode="serialize">
     <xsl:copy>
       <xsl:copy-of select="@*"/>
-      <xsl:apply-templates/>
+      <xsl:apply-templates mode="serialize"/>
     </xsl:copy>
   </xsl:template>
 
@@ -137,11 +147,11 @@ hence slightly easier to debug.
     <xsl:sequence select="boolean($element[self::xhtml:* and local-name()=('p','table','div','tbody','tr','td','form','ul','li')])"/>
   </xsl:function>
 
-  <xsl:template match="m:*/text()">
+  <xsl:template match="m:*/text()" mode="serialize">
     <xsl:copy-of select="."/>
   </xsl:template>
 
-  <xsl:template match="text()">
+  <xsl:template match="text()" mode="serialize">
     <xsl:choose>
       <xsl:when test="normalize-space(.)='' and (qw:is-xhtml-block-element(following-sibling::node()[1]) or qw:is-xhtml-block-element(preceding-sibling::node()[1]))">
         <!-- Whitespace Nodes before/after block elements are ignorable -->
@@ -122,6 +122,7 @@ candidateSessionListRouting (xid -> action -> URL)
   <ul class="menu">
     <li><a href="${utils:escapeLink(deliveryRouting['candidateSummaryReportCsv'])}">Download full candidate outcome summary (CSV)</a></li>
     <li><a href="${utils:escapeLink(deliveryRouting['candidateResultsZip'])}">Download all candiate &lt;assessmentResult&gt; XML files (ZIP)</a></li>
+    <li><a href="${utils:escapeLink(deliveryRouting['candidateResultsZipRegenerating'])}">Download all candiate &lt;assessmentResult&gt; XML files (ZIP), regenerating any missing ones</a></li>
     <li><a href="${utils:escapeLink(deliveryRouting['listCandidateSessions'])}">Refresh this information</a></li>
   </ul>
 
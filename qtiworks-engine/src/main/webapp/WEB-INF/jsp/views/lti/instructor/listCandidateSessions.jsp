@@ -114,6 +114,7 @@ candidateSessionListRouting (xid -> action -> URL)
   <ul class="menu">
     <li><a href="${utils:escapeLink(primaryRouting['candidateSummaryReportCsv'])}">Download full candidate outcome summary (CSV)</a></li>
     <li><a href="${utils:escapeLink(primaryRouting['candidateResultsZip'])}">Download all candiate &lt;assessmentResult&gt; XML files (ZIP)</a></li>
+    <li><a href="${utils:escapeLink(primaryRouting['candidateResultsZipRegenerating'])}">Download all candiate &lt;assessmentResult&gt; XML files (ZIP), regenerating any missing ones</a></li>
     <li><a href="${utils:escapeLink(primaryRouting['listCandidateSessions'])}">Refresh this information</a></li>
   </ul>
 
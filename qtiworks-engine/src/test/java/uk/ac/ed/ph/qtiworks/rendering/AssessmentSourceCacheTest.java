@@ -0,0 +1,127 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.rendering;
+
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleAssessment;
+
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ClassPathResourceLocator;
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.om.DocumentInfo;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link AssessmentSourceCache}
+ *
+ * @author David McKain
+ */
+public class AssessmentSourceCacheTest {
+
+    private static final URI ITEM_URI = QtiSampleAssessment.toClassPathUri("ims/choice.xml");
+    private static final URI OTHER_ITEM_URI = QtiSampleAssessment.toClassPathUri("ims/associate.xml");
+
+    private ResourceLocator resourceLocator;
+    private Configuration configuration;
+    private List<AssessmentSourceCache> notifications;
+    private AssessmentSourceCache assessmentSourceCache;
+
+    @Before
+    public void setup() {
+        resourceLocator = new ClassPathResourceLocator();
+        configuration = new Configuration();
+        notifications = new ArrayList<AssessmentSourceCache>();
+        assessmentSourceCache = new AssessmentSourceCache(new AssessmentSourceCache.WeightListener() {
+            @Override
+            public void weightChanged(final AssessmentSourceCache changedCache) {
+                notifications.add(changedCache);
+            }
+        });
+    }
+
+    @Test
+    public void testEmpty() {
+        Assert.assertEquals(0, assessmentSourceCache.size());
+        Assert.assertEquals(0, assessmentSourceCache.getWeight());
+        Assert.assertFalse(assessmentSourceCache.isCached(ITEM_URI));
+    }
+
+    @Test
+    public void testTreesAreCachedAndWeighed() {
+        final DocumentInfo itemTree = assessmentSourceCache.getSourceTree(ITEM_URI, resourceLocator, configuration);
+        final int itemWeight = AssessmentSourceCache.estimateWeight(itemTree);
+        Assert.assertTrue(itemWeight > 1);
+        Assert.assertTrue(assessmentSourceCache.isCached(ITEM_URI));
+        Assert.assertEquals(itemWeight, assessmentSourceCache.getWeight());
+        Assert.assertEquals(1, notifications.size());
+        Assert.assertSame(assessmentSourceCache, notifications.get(0));
+
+        /* Hits return the same tree and don't change the weight */
+        Assert.assertSame(itemTree, assessmentSourceCache.getSourceTree(ITEM_URI, resourceLocator, configuration));
+        Assert.assertEquals(itemWeight, assessmentSourceCache.getWeight());
+        Assert.assertEquals(1, notifications.size());
+
+        final DocumentInfo otherItemTree = assessmentSourceCache.getSourceTree(OTHER_ITEM_URI, resourceLocator, configuration);
+        Assert.assertEquals(2, assessmentSourceCache.size());
+        Assert.assertEquals(itemWeight + AssessmentSourceCache.estimateWeight(otherItemTree), assessmentSourceCache.getWeight());
+        Assert.assertEquals(2, notifications.size());
+    }
+
+    @Test
+    public void testRebuildForIncompatibleConfiguration() {
+        final DocumentInfo itemTree = assessmentSourceCache.getSourceTree(ITEM_URI, resourceLocator, configuration);
+        final int itemWeight = assessmentSourceCache.getWeight();
+
+        final DocumentInfo rebuiltTree = assessmentSourceCache.getSourceTree(ITEM_URI, resourceLocator, new Configuration());
+        Assert.assertNotSame(itemTree, rebuiltTree);
+        Assert.assertEquals(1, assessmentSourceCache.size());
+        Assert.assertEquals(itemWeight, assessmentSourceCache.getWeight());
+    }
+
+    @Test
+    public void testClear() {
+        assessmentSourceCache.getSourceTree(ITEM_URI, resourceLocator, configuration);
+        assessmentSourceCache.clear();
+        Assert.assertEquals(0, assessmentSourceCache.size());
+        Assert.assertEquals(0, assessmentSourceCache.getWeight());
+        Assert.assertEquals(2, notifications.size());
+    }
+}
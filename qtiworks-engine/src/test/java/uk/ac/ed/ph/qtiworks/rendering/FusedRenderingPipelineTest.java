@@ -0,0 +1,267 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.rendering;
+
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksProperties;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEventNotification;
+import uk.ac.ed.ph.qtiworks.samples.LanguageSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleAssessment;
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleAssessment.Feature;
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.QtiworksRegressionSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.StandardQtiSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.StompSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.TestImplementationSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.UpmcSampleSet;
+
+import uk.ac.ed.ph.jqtiplus.JqtiExtensionManager;
+import uk.ac.ed.ph.jqtiplus.node.AssessmentObjectType;
+import uk.ac.ed.ph.jqtiplus.reading.AssessmentObjectXmlLoader;
+import uk.ac.ed.ph.jqtiplus.reading.QtiXmlReader;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentItem;
+import uk.ac.ed.ph.jqtiplus.running.ItemProcessingInitializer;
+import uk.ac.ed.ph.jqtiplus.running.ItemSessionController;
+import uk.ac.ed.ph.jqtiplus.running.ItemSessionControllerSettings;
+import uk.ac.ed.ph.jqtiplus.state.ItemProcessingMap;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ClassPathResourceLocator;
+import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.SimpleXsltStylesheetCache;
+
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import javax.xml.transform.stream.StreamResult;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.validation.Errors;
+import org.springframework.validation.Validator;
+
+/**
+ * Checks that the fused rendering pipeline in {@link AssessmentRenderer} generates exactly
+ * the same output as the standard pipeline for each of the bundled sample items, in each
+ * {@link SerializationMethod}. It also does the same for an additional item containing Content
+ * MathML, checking that this has been converted to Presentation MathML by ctop.xsl.
+ * <p>
+ * This also records how long each pipeline takes, logging a simple comparison at the end.
+ *
+ * @author David McKain
+ */
+@RunWith(Parameterized.class)
+public class FusedRenderingPipelineTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(FusedRenderingPipelineTest.class);
+
+    /** Item containing Content MathML matched by some less common ctop.xsl templates */
+    private static final URI CONTENT_MATHML_ITEM_URI = URI.create("classpath:/uk/ac/ed/ph/qtiworks/rendering/content-mathml.xml");
+
+    /** Number of timed renderings of each sample in each pipeline */
+    private static final int TIMING_ITERATIONS = 5;
+
+    private static AssessmentRenderer assessmentRenderer;
+    private static long standardPipelineNanos;
+    private static long fusedPipelineNanos;
+
+    @Parameters(name="{0}")
+    public static Collection<Object[]> data() {
+        final QtiSampleSet[] qtiSampleSets = new QtiSampleSet[] {
+                StandardQtiSampleSet.instance(),
+                UpmcSampleSet.instance(),
+                StompSampleSet.instance(),
+                LanguageSampleSet.instance(),
+                TestImplementationSampleSet.instance(),
+                QtiworksRegressionSampleSet.instance()
+        };
+        final List<Object[]> result = new ArrayList<Object[]>();
+        for (final QtiSampleSet qtiSampleSet : qtiSampleSets) {
+            for (final QtiSampleAssessment qtiSampleAssessment : qtiSampleSet
+                    .havingType(AssessmentObjectType.ASSESSMENT_ITEM)
+                    .withoutFeatures(Feature.NOT_SCHEMA_VALID, Feature.REQUIRES_MATHASSES)) {
+                result.add(new Object[] { qtiSampleAssessment.toString(), qtiSampleAssessment.assessmentClassPathUri() });
+            }
+        }
+        result.add(new Object[] { "Content MathML item", CONTENT_MATHML_ITEM_URI });
+        return result;
+    }
+
+    @BeforeClass
+    public static void setupRenderer() {
+        /* (We're not testing request validation here, and bean validation needs an EL implementation
+         * that is normally provided by the servlet container, so we skip validation.)
+         */
+        final Validator jsr303Validator = new Validator() {
+            @Override
+            public boolean supports(final Class<?> clazz) {
+                return true;
+            }
+
+            @Override
+            public void validate(final Object target, final Errors errors) {
+                /* (Nothing to do) */
+            }
+        };
+
+        final QtiWorksProperties qtiWorksProperties = new QtiWorksProperties();
+        qtiWorksProperties.setQtiWorksVersion("test");
+
+        assessmentRenderer = new AssessmentRenderer();
+        assessmentRenderer.setQtiWorksProperties(qtiWorksProperties);
+        assessmentRenderer.setXsltStylesheetCache(new SimpleXsltStylesheetCache());
+        assessmentRenderer.setJsr303Validator(jsr303Validator);
+        assessmentRenderer.setWebappContextPath("/qtiworks");
+        assessmentRenderer.init();
+    }
+
+    @AfterClass
+    public static void logTimings() {
+        logger.info("Rendering time for sample items: standard pipeline {}ms, fused pipeline {}ms",
+                Long.valueOf(standardPipelineNanos / 1000000L), Long.valueOf(fusedPipelineNanos / 1000000L));
+        assessmentRenderer = null;
+    }
+
+    //----------------------------------------------------------
+
+    private final String description;
+    private final URI assessmentUri;
+
+    public FusedRenderingPipelineTest(final String description, final URI assessmentUri) {
+        this.description = description;
+        this.assessmentUri = assessmentUri;
+    }
+
+    @Test
+    public void test() throws Exception {
+        final ItemSessionState itemSessionState = createItemSessionState();
+        for (final SerializationMethod serializationMethod : SerializationMethod.values()) {
+            final ItemRenderingRequest renderingRequest = createRenderingRequest(itemSessionState, serializationMethod);
+            final String standardOutput = render(renderingRequest, false);
+            final String fusedOutput = render(renderingRequest, true);
+            Assert.assertEquals("Fused pipeline output differs for " + description
+                    + " using " + serializationMethod, standardOutput, fusedOutput);
+        }
+
+        /* Record timings (with the stylesheets now compiled) */
+        final ItemRenderingRequest renderingRequest = createRenderingRequest(itemSessionState, SerializationMethod.HTML5_MATHJAX);
+        for (int i=0; i<TIMING_ITERATIONS; i++) {
+            long startTime = System.nanoTime();
+            render(renderingRequest, false);
+            standardPipelineNanos += System.nanoTime() - startTime;
+
+            startTime = System.nanoTime();
+            render(renderingRequest, true);
+            fusedPipelineNanos += System.nanoTime() - startTime;
+        }
+    }
+
+    @Test
+    public void testContentMathMlConverted() throws Exception {
+        Assume.assumeTrue(assessmentUri.equals(CONTENT_MATHML_ITEM_URI));
+        final ItemRenderingRequest renderingRequest = createRenderingRequest(createItemSessionState(), SerializationMethod.HTML5_MATHJAX);
+        for (final boolean fusedPipeline : new boolean[] { false, true }) {
+            final String output = render(renderingRequest, fusedPipeline);
+
+            /* Determinant of a matrix should be shown with vertical bars around a table... */
+            Assert.assertTrue(output.matches("(?s).*<mo>\\|</mo>\\s*<mtable>.*</mtable>\\s*<mo>\\|</mo>.*"));
+            Assert.assertFalse(output.contains("<determinant"));
+
+            /* ...and a cartesian product of reals as a power */
+            Assert.assertTrue(output.matches("(?s).*<msup>\\s*<mi[^>]*>\\S+</mi>\\s*<mn>2</mn>\\s*</msup>.*"));
+            Assert.assertFalse(output.contains("<cartesianproduct"));
+        }
+    }
+
+    private ItemSessionState createItemSessionState() {
+        final QtiXmlReader qtiXmlReader = new QtiXmlReader(new JqtiExtensionManager());
+        final AssessmentObjectXmlLoader assessmentObjectXmlLoader = new AssessmentObjectXmlLoader(qtiXmlReader, new ClassPathResourceLocator());
+        final ResolvedAssessmentItem resolvedAssessmentItem = assessmentObjectXmlLoader.loadAndResolveAssessmentItem(assessmentUri);
+        final ItemProcessingMap itemProcessingMap = new ItemProcessingInitializer(resolvedAssessmentItem, true).initialize();
+        final ItemSessionState itemSessionState = new ItemSessionState();
+        final ItemSessionController itemSessionController = new ItemSessionController(new JqtiExtensionManager(),
+                new ItemSessionControllerSettings(), itemProcessingMap, itemSessionState);
+        final Date timestamp = new Date();
+        itemSessionController.initialize(timestamp);
+        itemSessionController.performTemplateProcessing(timestamp);
+        itemSessionController.enterItem(timestamp);
+        return itemSessionState;
+    }
+
+    private ItemRenderingRequest createRenderingRequest(final ItemSessionState itemSessionState, final SerializationMethod serializationMethod) {
+        final ItemRenderingOptions renderingOptions = new ItemRenderingOptions();
+        renderingOptions.setSerializationMethod(serializationMethod);
+        renderingOptions.setResponseUrl("/response");
+        renderingOptions.setServeFileUrl("/file");
+        renderingOptions.setAuthorViewUrl("/author");
+        renderingOptions.setSourceUrl("/source");
+        renderingOptions.setStateUrl("/state");
+        renderingOptions.setResultUrl("/result");
+        renderingOptions.setValidationUrl("/validation");
+        renderingOptions.setEndUrl("/end");
+        renderingOptions.setSoftResetUrl("/softreset");
+        renderingOptions.setHardResetUrl("/hardreset");
+        renderingOptions.setSolutionUrl("/solution");
+        renderingOptions.setExitUrl("/exit");
+
+        final ItemRenderingRequest renderingRequest = new ItemRenderingRequest();
+        renderingRequest.setRenderingOptions(renderingOptions);
+        renderingRequest.setAssessmentResourceLocator(new ClassPathResourceLocator());
+        renderingRequest.setAssessmentResourceUri(assessmentUri);
+        renderingRequest.setItemSessionState(itemSessionState);
+        renderingRequest.setValidated(true);
+        renderingRequest.setLaunchable(true);
+        renderingRequest.setValid(true);
+        renderingRequest.setEndAllowed(true);
+        renderingRequest.setSolutionAllowed(true);
+        return renderingRequest;
+    }
+
+    private String render(final ItemRenderingRequest renderingRequest, final boolean fusedPipeline) {
+        assessmentRenderer.setFusedPipeline(fusedPipeline);
+        final StringWriter resultWriter = new StringWriter();
+        assessmentRenderer.renderItem(renderingRequest, Collections.<CandidateEventNotification>emptyList(), new StreamResult(resultWriter));
+        return resultWriter.toString();
+    }
+}
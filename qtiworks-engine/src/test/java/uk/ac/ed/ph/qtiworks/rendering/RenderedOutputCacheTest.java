@@ -0,0 +1,277 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.rendering;
+
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksProperties;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEventNotification;
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleAssessment;
+
+import uk.ac.ed.ph.jqtiplus.JqtiExtensionManager;
+import uk.ac.ed.ph.jqtiplus.reading.AssessmentObjectXmlLoader;
+import uk.ac.ed.ph.jqtiplus.reading.QtiXmlReader;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentItem;
+import uk.ac.ed.ph.jqtiplus.running.ItemProcessingInitializer;
+import uk.ac.ed.ph.jqtiplus.running.ItemSessionController;
+import uk.ac.ed.ph.jqtiplus.running.ItemSessionControllerSettings;
+import uk.ac.ed.ph.jqtiplus.state.ItemProcessingMap;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.ItemSessionStateXmlMarshaller;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.types.ResponseData;
+import uk.ac.ed.ph.jqtiplus.types.StringResponseData;
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ClassPathResourceLocator;
+import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.SimpleXsltStylesheetCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.transform.stream.StreamResult;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.validation.Errors;
+import org.springframework.validation.Validator;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashCode;
+
+/**
+ * Tests the use of the {@link RenderedOutputCache} by the {@link AssessmentRenderer}.
+ *
+ * @author David McKain
+ */
+public class RenderedOutputCacheTest {
+
+    private static final URI ITEM_URI = QtiSampleAssessment.toClassPathUri("ims/choice.xml");
+
+    private RenderedOutputCache renderedOutputCache;
+    private AssessmentRenderer assessmentRenderer;
+    private ItemSessionState itemSessionState;
+
+    @Before
+    public void setup() {
+        /* (Bean validation needs an EL implementation that is normally provided by the servlet container,
+         * so we skip validation, as in FusedRenderingPipelineTest.)
+         */
+        final Validator jsr303Validator = new Validator() {
+            @Override
+            public boolean supports(final Class<?> clazz) {
+                return true;
+            }
+
+            @Override
+            public void validate(final Object target, final Errors errors) {
+                /* (Nothing to do) */
+            }
+        };
+        final QtiWorksProperties qtiWorksProperties = new QtiWorksProperties();
+        qtiWorksProperties.setQtiWorksVersion("test");
+
+        renderedOutputCache = new RenderedOutputCache(1024 * 1024);
+        assessmentRenderer = new AssessmentRenderer();
+        assessmentRenderer.setQtiWorksProperties(qtiWorksProperties);
+        assessmentRenderer.setXsltStylesheetCache(new SimpleXsltStylesheetCache());
+        assessmentRenderer.setJsr303Validator(jsr303Validator);
+        assessmentRenderer.setWebappContextPath("/qtiworks");
+        assessmentRenderer.setRenderedOutputCache(renderedOutputCache);
+        assessmentRenderer.init();
+
+        itemSessionState = createEndedItemSessionState(new Date(1000L), 5000L, "ChoiceA");
+    }
+
+    @Test
+    public void testHitForDifferentSessionUrls() {
+        final String output1 = renderToStream(createRenderingRequest("1", "/session/1/abc"));
+        Assert.assertEquals(0L, renderedOutputCache.getCacheHitCount());
+        Assert.assertEquals(1, renderedOutputCache.getCacheUsage());
+
+        final String output2 = renderToStream(createRenderingRequest("1", "/session/2/def"));
+        Assert.assertEquals(1L, renderedOutputCache.getCacheHitCount());
+        Assert.assertEquals(1, renderedOutputCache.getCacheUsage());
+
+        /* Each output must contain its own URLs, and no placeholders */
+        Assert.assertTrue(output1.contains("/qtiworks/session/1/abc/response"));
+        Assert.assertTrue(output2.contains("/qtiworks/session/2/def/response"));
+        Assert.assertFalse(output2.contains("/session/1/abc"));
+        Assert.assertFalse(output2.contains("__qtiworks_url_"));
+        Assert.assertEquals(output1, output2.replace("/session/2/def", "/session/1/abc"));
+
+        /* ...and be the same as an uncached rendering */
+        Assert.assertEquals(renderToWriter(createRenderingRequest("1", "/session/2/def")), output2);
+    }
+
+    @Test
+    public void testMissForDifferentContentOrState() {
+        renderToStream(createRenderingRequest("1", "/session/1/abc"));
+
+        /* Different content key */
+        renderToStream(createRenderingRequest("2", "/session/1/abc"));
+        Assert.assertEquals(0L, renderedOutputCache.getCacheHitCount());
+        Assert.assertEquals(2, renderedOutputCache.getCacheUsage());
+
+        /* Different state */
+        itemSessionState = createEndedItemSessionState(new Date(1000L), 5000L, "ChoiceB");
+        renderToStream(createRenderingRequest("1", "/session/1/abc"));
+        Assert.assertEquals(0L, renderedOutputCache.getCacheHitCount());
+        Assert.assertEquals(3, renderedOutputCache.getCacheUsage());
+    }
+
+    @Test
+    public void testHitForDifferentSessionsInSameState() {
+        final String output1 = renderToStream(createRenderingRequest("1", "/session/1/abc"));
+
+        /* Another session giving the same response, but at different times */
+        itemSessionState = createEndedItemSessionState(new Date(86400000L), 123456L, "ChoiceA");
+        final String output2 = renderToStream(createRenderingRequest("1", "/session/2/def"));
+        Assert.assertEquals(1L, renderedOutputCache.getCacheHitCount());
+        Assert.assertEquals(1, renderedOutputCache.getCacheUsage());
+        Assert.assertEquals(output1, output2.replace("/session/2/def", "/session/1/abc"));
+
+        /* ...which should be the same as an uncached rendering */
+        Assert.assertEquals(renderToWriter(createRenderingRequest("1", "/session/2/def")), output2);
+    }
+
+    @Test
+    public void testTimingsOnlyIgnoredWhereNotRendered() {
+        final ItemRenderingRequest renderingRequest = createRenderingRequest("1", "/session/1/abc");
+        final Map<String, Object> xsltParameters1 = createStateParameters(createEndedItemSessionState(new Date(1000L), 5000L, "ChoiceA"));
+        final Map<String, Object> xsltParameters2 = createStateParameters(createEndedItemSessionState(new Date(2000L), 6000L, "ChoiceA"));
+        final Map<String, Object> xsltParameters3 = createStateParameters(createEndedItemSessionState(new Date(1000L), 5000L, "ChoiceB"));
+
+        /* Candidate views only depend on the state, not when things happened */
+        Assert.assertEquals(computeOutputKey(renderingRequest, xsltParameters1, false), computeOutputKey(renderingRequest, xsltParameters2, false));
+        Assert.assertFalse(computeOutputKey(renderingRequest, xsltParameters1, false).equals(computeOutputKey(renderingRequest, xsltParameters3, false)));
+
+        /* Author views show the timings, so they must remain part of the key */
+        Assert.assertFalse(computeOutputKey(renderingRequest, xsltParameters1, true).equals(computeOutputKey(renderingRequest, xsltParameters2, true)));
+    }
+
+    @Test
+    public void testAbsoluteUrlsPartOfKey() {
+        renderToStream(createRenderingRequest("1", "http://example.com/session/1"));
+        final String output = renderToStream(createRenderingRequest("1", "http://example.com/session/2"));
+        Assert.assertEquals(0L, renderedOutputCache.getCacheHitCount());
+        Assert.assertTrue(output.contains("http://example.com/session/2/response"));
+    }
+
+    //-------------------------------------------------
+
+    private String renderToStream(final ItemRenderingRequest renderingRequest) {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assessmentRenderer.renderItem(renderingRequest, Collections.<CandidateEventNotification>emptyList(),
+                new StreamResult(outputStream));
+        return new String(outputStream.toByteArray(), Charsets.UTF_8);
+    }
+
+    private String renderToWriter(final ItemRenderingRequest renderingRequest) {
+        final StringWriter resultWriter = new StringWriter();
+        assessmentRenderer.renderItem(renderingRequest, Collections.<CandidateEventNotification>emptyList(),
+                new StreamResult(resultWriter));
+        return resultWriter.toString();
+    }
+
+    private static Map<String, Object> createStateParameters(final ItemSessionState state) {
+        final Map<String, Object> xsltParameters = new HashMap<String, Object>();
+        xsltParameters.put("itemSessionState", ItemSessionStateXmlMarshaller.marshal(state).getDocumentElement());
+        return xsltParameters;
+    }
+
+    private static HashCode computeOutputKey(final ItemRenderingRequest renderingRequest, final Map<String, Object> xsltParameters,
+            final boolean timingsRendered) {
+        return AssessmentRenderer.computeOutputKey(renderingRequest, ITEM_URI, URI.create("classpath:/rendering-xslt/item-standalone.xsl"),
+                xsltParameters, timingsRendered);
+    }
+
+    /**
+     * Creates an ended {@link ItemSessionState} for the sample item, entered at the given time
+     * and ended the given number of ms later, with the given choice submitted.
+     */
+    private static ItemSessionState createEndedItemSessionState(final Date entryTime, final long duration, final String choiceIdentifier) {
+        final QtiXmlReader qtiXmlReader = new QtiXmlReader(new JqtiExtensionManager());
+        final AssessmentObjectXmlLoader assessmentObjectXmlLoader = new AssessmentObjectXmlLoader(qtiXmlReader, new ClassPathResourceLocator());
+        final ResolvedAssessmentItem resolvedAssessmentItem = assessmentObjectXmlLoader.loadAndResolveAssessmentItem(ITEM_URI);
+        final ItemProcessingMap itemProcessingMap = new ItemProcessingInitializer(resolvedAssessmentItem, true).initialize();
+        final ItemSessionState itemSessionState = new ItemSessionState();
+        final ItemSessionController itemSessionController = new ItemSessionController(new JqtiExtensionManager(),
+                new ItemSessionControllerSettings(), itemProcessingMap, itemSessionState);
+        final Date endTime = new Date(entryTime.getTime() + duration);
+        itemSessionController.initialize(entryTime);
+        itemSessionController.performTemplateProcessing(entryTime);
+        itemSessionController.enterItem(entryTime);
+        final Map<Identifier, ResponseData> responseMap = new HashMap<Identifier, ResponseData>();
+        responseMap.put(Identifier.parseString("RESPONSE"), new StringResponseData(choiceIdentifier));
+        itemSessionController.bindResponses(endTime, responseMap);
+        itemSessionController.commitResponses(endTime);
+        itemSessionController.performResponseProcessing(endTime);
+        itemSessionController.endItem(endTime);
+        return itemSessionState;
+    }
+
+    private ItemRenderingRequest createRenderingRequest(final String contentKey, final String sessionUrlBase) {
+        final ItemRenderingOptions renderingOptions = new ItemRenderingOptions();
+        renderingOptions.setSerializationMethod(SerializationMethod.HTML5_MATHJAX);
+        renderingOptions.setResponseUrl(sessionUrlBase + "/response");
+        renderingOptions.setServeFileUrl(sessionUrlBase + "/file");
+        renderingOptions.setAuthorViewUrl(sessionUrlBase + "/author");
+        renderingOptions.setSourceUrl(sessionUrlBase + "/source");
+        renderingOptions.setStateUrl(sessionUrlBase + "/state");
+        renderingOptions.setResultUrl(sessionUrlBase + "/result");
+        renderingOptions.setValidationUrl(sessionUrlBase + "/validation");
+        renderingOptions.setEndUrl(sessionUrlBase + "/end");
+        renderingOptions.setSoftResetUrl(sessionUrlBase + "/softreset");
+        renderingOptions.setHardResetUrl(sessionUrlBase + "/hardreset");
+        renderingOptions.setSolutionUrl(sessionUrlBase + "/solution");
+        renderingOptions.setExitUrl(sessionUrlBase + "/exit");
+
+        final ItemRenderingRequest renderingRequest = new ItemRenderingRequest();
+        renderingRequest.setRenderingOptions(renderingOptions);
+        renderingRequest.setAssessmentResourceLocator(new ClassPathResourceLocator());
+        renderingRequest.setAssessmentResourceUri(ITEM_URI);
+        renderingRequest.setAssessmentContentKey(contentKey);
+        renderingRequest.setItemSessionState(itemSessionState);
+        renderingRequest.setValidated(true);
+        renderingRequest.setLaunchable(true);
+        renderingRequest.setValid(true);
+        renderingRequest.setEndAllowed(true);
+        renderingRequest.setSolutionAllowed(true);
+        renderingRequest.setHardResetAllowed(true);
+        return renderingRequest;
+    }
+}
@@ -0,0 +1,159 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
+import uk.ac.ed.ph.qtiworks.domain.entities.AssessmentPackage;
+import uk.ac.ed.ph.qtiworks.rendering.AssessmentSourceCache;
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleAssessment;
+import uk.ac.ed.ph.qtiworks.testutils.TemporaryFilespaceFixture;
+
+import uk.ac.ed.ph.jqtiplus.JqtiExtensionManager;
+import uk.ac.ed.ph.jqtiplus.node.AssessmentObjectType;
+import uk.ac.ed.ph.jqtiplus.reading.AssessmentObjectXmlLoader;
+import uk.ac.ed.ph.jqtiplus.reading.QtiXmlReader;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentObject;
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ClassPathResourceLocator;
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator;
+
+import java.net.URI;
+
+import net.sf.saxon.Configuration;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the caching performed by the {@link AssessmentObjectManagementService}, in particular
+ * that the trees in each package's {@link AssessmentSourceCache} count towards its weight.
+ *
+ * @author David McKain
+ */
+public class AssessmentObjectManagementServiceTest {
+
+    private static final String ITEM_HREF = "ims/choice.xml";
+
+    private static final String[] SOURCE_TREE_HREFS = {
+        "ims/choice.xml", "ims/associate.xml", "ims/adaptive.xml", "ims/choice_fixed.xml",
+        "ims/extended_text.xml", "ims/gap_match.xml", "ims/graphic_associate.xml", "ims/hotspot.xml",
+        "ims/inline_choice.xml", "ims/match.xml", "ims/order.xml", "ims/text_entry.xml",
+        "ims/template_image.xml", "ims/slider.xml", "ims/hottext.xml", "ims/likert.xml",
+        "ims/math.xml", "ims/feedback.xml", "ims/graphic_order.xml", "ims/select_point.xml",
+    };
+
+    private final ResourceLocator resourceLocator = new ClassPathResourceLocator();
+    private final Configuration configuration = new Configuration();
+
+    @Test
+    public void testSourceTreesIncludedInWeight() {
+        final AssessmentObjectManagementService service = createService(1000000L);
+        final AssessmentPackage assessmentPackage = createAssessmentPackage(1L);
+        Assert.assertNotNull(service.getItemProcessingMap(assessmentPackage));
+        final long processingMapWeight = service.getCacheWeight();
+        Assert.assertTrue(processingMapWeight > 0L);
+
+        final AssessmentSourceCache assessmentSourceCache = service.getAssessmentSourceCache(assessmentPackage);
+        assessmentSourceCache.getSourceTree(QtiSampleAssessment.toClassPathUri(ITEM_HREF), resourceLocator, configuration);
+        Assert.assertTrue(assessmentSourceCache.getWeight() > 0);
+        Assert.assertEquals(processingMapWeight + assessmentSourceCache.getWeight(), service.getCacheWeight());
+        Assert.assertEquals(0, service.getCachePurgeCount());
+    }
+
+    @Test
+    public void testSourceTreesCauseEviction() {
+        /* Find out how big the processing map is */
+        final AssessmentObjectManagementService sizingService = createService(1000000L);
+        final AssessmentPackage sizingPackage = createAssessmentPackage(1L);
+        sizingService.getItemProcessingMap(sizingPackage);
+        final long processingMapWeight = sizingService.getCacheWeight();
+
+        /* Then make a cache that can comfortably hold the processing map (even allowing for
+         * the cache being split into segments), and keep adding trees to it until it no longer fits.
+         */
+        final long cacheMaxWeight = 8 * processingMapWeight;
+        final AssessmentObjectManagementService service = createService(cacheMaxWeight);
+        final AssessmentPackage assessmentPackage = createAssessmentPackage(1L);
+        service.getItemProcessingMap(assessmentPackage);
+        final AssessmentSourceCache assessmentSourceCache = service.getAssessmentSourceCache(assessmentPackage);
+        Assert.assertNotNull(assessmentSourceCache);
+
+        for (final String href : SOURCE_TREE_HREFS) {
+            assessmentSourceCache.getSourceTree(QtiSampleAssessment.toClassPathUri(href), resourceLocator, configuration);
+            if (service.getAssessmentSourceCache(assessmentPackage)==null) {
+                break;
+            }
+        }
+        Assert.assertTrue(processingMapWeight + assessmentSourceCache.getWeight() > cacheMaxWeight / 4);
+        Assert.assertNull(service.getAssessmentSourceCache(assessmentPackage));
+        Assert.assertEquals(0, service.getCacheUsage());
+        Assert.assertEquals(1, service.getCachePurgeCount());
+    }
+
+    //-------------------------------------------------
+
+    private static AssessmentObjectManagementService createService(final long cacheMaxWeight) {
+        final QtiWorksDeploymentSettings qtiWorksDeploymentSettings = new QtiWorksDeploymentSettings();
+        TemporaryFilespaceFixture.setField(qtiWorksDeploymentSettings, "assessmentObjectCacheMaxWeight", Long.valueOf(cacheMaxWeight));
+        TemporaryFilespaceFixture.setField(qtiWorksDeploymentSettings, "assessmentObjectCacheExpiry", Integer.valueOf(0));
+
+        final AssessmentObjectManagementService result = new AssessmentObjectManagementService();
+        TemporaryFilespaceFixture.setField(result, "qtiWorksDeploymentSettings", qtiWorksDeploymentSettings);
+        TemporaryFilespaceFixture.setField(result, "assessmentPackageFileService", new SampleAssessmentPackageFileService());
+        result.init();
+        return result;
+    }
+
+    private static AssessmentPackage createAssessmentPackage(final long id) {
+        final AssessmentPackage assessmentPackage = new AssessmentPackage();
+        assessmentPackage.setId(Long.valueOf(id));
+        assessmentPackage.setAssessmentType(AssessmentObjectType.ASSESSMENT_ITEM);
+        assessmentPackage.setValid(true);
+        return assessmentPackage;
+    }
+
+    /**
+     * Stub {@link AssessmentPackageFileService} that always loads the same sample item.
+     */
+    private static final class SampleAssessmentPackageFileService extends AssessmentPackageFileService {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <E extends ResolvedAssessmentObject<?>> E loadAndResolveAssessmentObject(final AssessmentPackage assessmentPackage) {
+            final AssessmentObjectXmlLoader assessmentObjectXmlLoader = new AssessmentObjectXmlLoader(
+                    new QtiXmlReader(new JqtiExtensionManager()), new ClassPathResourceLocator());
+            final URI itemUri = QtiSampleAssessment.toClassPathUri(ITEM_HREF);
+            return (E) assessmentObjectXmlLoader.loadAndResolveAssessmentItem(itemUri);
+        }
+    }
+}
@@ -0,0 +1,317 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.QtiWorksLogicException;
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
+import uk.ac.ed.ph.qtiworks.domain.entities.Assessment;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSessionOutcome;
+import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
+import uk.ac.ed.ph.qtiworks.domain.entities.SystemUser;
+import uk.ac.ed.ph.qtiworks.domain.entities.UserRole;
+import uk.ac.ed.ph.qtiworks.services.dao.CandidateSessionDao;
+import uk.ac.ed.ph.qtiworks.services.dao.CandidateSessionOutcomeDao;
+import uk.ac.ed.ph.qtiworks.services.domain.CandidateSessionSummaryData;
+import uk.ac.ed.ph.qtiworks.services.domain.DeliveryCandidateSummaryReport;
+import uk.ac.ed.ph.qtiworks.testutils.TemporaryFilespaceFixture;
+
+import uk.ac.ed.ph.jqtiplus.node.AssessmentObjectType;
+import uk.ac.ed.ph.jqtiplus.value.BaseType;
+import uk.ac.ed.ph.jqtiplus.value.Cardinality;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+/**
+ * Tests the paging of delivery candidate summary reports and the assessmentResult ZIP export in
+ * the {@link AssessmentReportingService}, using in-memory stand-ins for the DAOs.
+ *
+ * @author David McKain
+ */
+public class AssessmentReportingServiceTest {
+
+    /** Number of sessions to report on, which needs to span several pages */
+    private static final int SESSION_COUNT = 450;
+
+    /** Number of (finished) sessions included in the assessmentResult ZIP */
+    private static final int ZIP_SESSION_COUNT = 6;
+
+    private Delivery delivery;
+    private List<CandidateSession> candidateSessions;
+    private List<CandidateSessionOutcome> candidateSessionOutcomes;
+    private Set<Long> detachedSessionIds;
+    private int pageCount;
+    private File resultsDirectory;
+    private List<Long> regeneratedSessionIds;
+    private AssessmentReportingService assessmentReportingService;
+
+    @Before
+    public void setup() {
+        final Assessment assessment = new Assessment();
+        assessment.setId(Long.valueOf(1L));
+        assessment.setAssessmentType(AssessmentObjectType.ASSESSMENT_TEST);
+        assessment.setLtiResultOutcomeIdentifier("SCORE");
+        delivery = new Delivery();
+        delivery.setId(Long.valueOf(1L));
+        delivery.setAssessment(assessment);
+
+        /* Create sessions with non-contiguous IDs, each having a SCORE outcome */
+        candidateSessions = new ArrayList<CandidateSession>();
+        candidateSessionOutcomes = new ArrayList<CandidateSessionOutcome>();
+        for (int i=0; i<SESSION_COUNT; i++) {
+            final SystemUser candidate = new SystemUser(UserRole.ANONYMOUS);
+            candidate.setLoginName("candidate" + i);
+            candidate.setFirstName("First" + i);
+            candidate.setLastName("Last" + i);
+
+            final CandidateSession candidateSession = new CandidateSession();
+            candidateSession.setId(Long.valueOf(3L * i + 1));
+            candidateSession.setCreationTime(new Date(1000L * i));
+            candidateSession.setDelivery(delivery);
+            candidateSession.setCandidate(candidate);
+            candidateSessions.add(candidateSession);
+
+            final CandidateSessionOutcome candidateSessionOutcome = new CandidateSessionOutcome();
+            candidateSessionOutcome.setId(Long.valueOf(i + 1));
+            candidateSessionOutcome.setCandidateSession(candidateSession);
+            candidateSessionOutcome.setOutcomeIdentifier("SCORE");
+            candidateSessionOutcome.setBaseType(BaseType.FLOAT);
+            candidateSessionOutcome.setCardinality(Cardinality.SINGLE);
+            candidateSessionOutcome.setStringValue(Integer.toString(i));
+            candidateSessionOutcomes.add(candidateSessionOutcome);
+        }
+        /* (Store in a different order to the one reported) */
+        Collections.reverse(candidateSessions);
+        detachedSessionIds = new HashSet<Long>();
+
+        /* Finish the first few sessions, storing results for only some of them */
+        resultsDirectory = Files.createTempDir();
+        regeneratedSessionIds = new ArrayList<Long>();
+        for (int i=0; i<ZIP_SESSION_COUNT; i++) {
+            final CandidateSession candidateSession = candidateSessions.get(SESSION_COUNT - 1 - i);
+            candidateSession.setFinishTime(new Date());
+            if (i % 2 == 0) {
+                writeResultFile(candidateSession);
+            }
+        }
+
+        final AuditLogger auditLogger = new AuditLogger();
+        TemporaryFilespaceFixture.setField(auditLogger, "identityService", new IdentityService());
+
+        final QtiWorksDeploymentSettings qtiWorksDeploymentSettings = new QtiWorksDeploymentSettings();
+        TemporaryFilespaceFixture.setField(qtiWorksDeploymentSettings, "reportZipThreadCount", Integer.valueOf(2));
+
+        assessmentReportingService = new AssessmentReportingService();
+        TemporaryFilespaceFixture.setField(assessmentReportingService, "qtiWorksDeploymentSettings", qtiWorksDeploymentSettings);
+        TemporaryFilespaceFixture.setField(assessmentReportingService, "auditLogger", auditLogger);
+        TemporaryFilespaceFixture.setField(assessmentReportingService, "assessmentManagementService", new AssessmentManagementService() {
+            @Override
+            public Delivery lookupDelivery(final long did) {
+                return delivery;
+            }
+        });
+        TemporaryFilespaceFixture.setField(assessmentReportingService, "candidateDataService", new CandidateDataService() {
+            @Override
+            public File ensureAssessmentResultFile(final CandidateSession candidateSession) {
+                final File resultFile = getResultFile(candidateSession);
+                if (!resultFile.exists()) {
+                    throw new QtiWorksLogicException("Expectation failed: assessmentResult file " + resultFile + " does not exist");
+                }
+                return resultFile;
+            }
+
+            @Override
+            public File ensureOrRegenerateAssessmentResultFile(final CandidateSession candidateSession) {
+                final File resultFile = getResultFile(candidateSession);
+                if (!resultFile.exists()) {
+                    regeneratedSessionIds.add(candidateSession.getId());
+                    writeResultFile(candidateSession);
+                }
+                return resultFile;
+            }
+        });
+        TemporaryFilespaceFixture.setField(assessmentReportingService, "candidateSessionDao", new CandidateSessionDao() {
+            @Override
+            public List<CandidateSession> getForDelivery(final Delivery forDelivery) {
+                final List<CandidateSession> result = new ArrayList<CandidateSession>(candidateSessions);
+                Collections.reverse(result);
+                return result;
+            }
+
+            @Override
+            public List<CandidateSession> getForDeliveryWithOutcomesPage(final Delivery forDelivery, final long afterXid, final int maxResults) {
+                pageCount++;
+                final List<CandidateSession> result = new ArrayList<CandidateSession>();
+                for (int i=candidateSessions.size()-1; i>=0 && result.size()<maxResults; i--) {
+                    final CandidateSession candidateSession = candidateSessions.get(i);
+                    if (candidateSession.getId().longValue() > afterXid) {
+                        result.add(candidateSession);
+                    }
+                }
+                return result;
+            }
+
+            @Override
+            public void detach(final CandidateSession candidateSession) {
+                detachedSessionIds.add(candidateSession.getId());
+            }
+        });
+        TemporaryFilespaceFixture.setField(assessmentReportingService, "candidateSessionOutcomeDao", new CandidateSessionOutcomeDao() {
+            @Override
+            public List<CandidateSessionOutcome> getDeclarationsForDelivery(final Delivery forDelivery) {
+                return candidateSessionOutcomes.subList(0, 1);
+            }
+
+            @Override
+            public List<CandidateSessionOutcome> getForSessions(final List<CandidateSession> sessions) {
+                final List<CandidateSessionOutcome> result = new ArrayList<CandidateSessionOutcome>();
+                for (final CandidateSessionOutcome candidateSessionOutcome : candidateSessionOutcomes) {
+                    if (sessions.contains(candidateSessionOutcome.getCandidateSession())) {
+                        result.add(candidateSessionOutcome);
+                    }
+                }
+                return result;
+            }
+
+            @Override
+            public void detach(final CandidateSessionOutcome candidateSessionOutcome) {
+                /* (Nothing to do) */
+            }
+        });
+        assessmentReportingService.init();
+    }
+
+    @After
+    public void teardown() {
+        assessmentReportingService.shutdown();
+        FileSystemUtils.deleteRecursively(resultsDirectory);
+    }
+
+    @Test
+    public void testReportRowsPaged() {
+        final DeliveryCandidateSummaryReport report = assessmentReportingService.buildDeliveryCandidateSummaryReport(delivery);
+        final List<CandidateSessionSummaryData> rows = report.getRows();
+        Assert.assertEquals(SESSION_COUNT, rows.size());
+        for (int i=0; i<SESSION_COUNT; i++) {
+            final CandidateSessionSummaryData row = rows.get(i);
+            Assert.assertEquals(3L * i + 1, row.getSessionId());
+            Assert.assertEquals("First" + i, row.getFirstName());
+            Assert.assertEquals(Collections.singletonList(Integer.toString(i)), row.getNumericOutcomeValues());
+            Assert.assertEquals(Integer.toString(i), row.getLisResultOutcomeValue());
+        }
+        Assert.assertEquals(3, pageCount);
+        Assert.assertEquals(SESSION_COUNT, detachedSessionIds.size());
+    }
+
+    @Test
+    public void testCsvRowsPaged() throws Exception {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assessmentReportingService.streamDeliveryCandidateSummaryReportCsv(1L, outputStream);
+        final String[] lines = new String(outputStream.toByteArray(), Charsets.UTF_8).split("\r?\n");
+
+        Assert.assertEquals(SESSION_COUNT + 1, lines.length);
+        Assert.assertTrue(lines[0].startsWith("#Session ID,"));
+        for (int i=0; i<SESSION_COUNT; i++) {
+            final String[] fields = lines[i + 1].split(",");
+            Assert.assertEquals(Long.toString(3L * i + 1), fields[0]);
+            Assert.assertEquals("First" + i, fields[2]);
+            Assert.assertEquals(Integer.toString(i), fields[fields.length - 1]);
+        }
+        Assert.assertEquals(3, pageCount);
+    }
+
+    @Test
+    public void testZipRegeneratesMissingResults() throws Exception {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assessmentReportingService.streamAssessmentReports(1L, true, outputStream);
+
+        /* Missing results should have been regenerated, and everything included in session order */
+        Assert.assertEquals(ZIP_SESSION_COUNT / 2, regeneratedSessionIds.size());
+        final ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+        for (int i=0; i<ZIP_SESSION_COUNT; i++) {
+            final long xid = 3L * i + 1;
+            final ZipEntry entry = zipInputStream.getNextEntry();
+            Assert.assertNotNull(entry);
+            Assert.assertEquals("assessmentResult-" + xid + "-First" + i + "-Last" + i + ".xml", entry.getName());
+            Assert.assertEquals(makeResultXml(xid), new String(ByteStreams.toByteArray(zipInputStream), Charsets.UTF_8));
+            Assert.assertEquals(i % 2 != 0, regeneratedSessionIds.contains(Long.valueOf(xid)));
+        }
+        Assert.assertNull(zipInputStream.getNextEntry());
+    }
+
+    @Test(expected=QtiWorksLogicException.class)
+    public void testZipFailsOnMissingResultUnlessRegenerating() throws Exception {
+        assessmentReportingService.streamAssessmentReports(1L, new ByteArrayOutputStream());
+    }
+
+    //-------------------------------------------------
+
+    private File getResultFile(final CandidateSession candidateSession) {
+        return new File(resultsDirectory, "assessmentResult-" + candidateSession.getId() + ".xml");
+    }
+
+    private void writeResultFile(final CandidateSession candidateSession) {
+        try {
+            Files.write(makeResultXml(candidateSession.getId().longValue()), getResultFile(candidateSession), Charsets.UTF_8);
+        }
+        catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String makeResultXml(final long xid) {
+        return "<assessmentResult><context sourcedId=\"" + xid + "\"/></assessmentResult>";
+    }
+}
@@ -0,0 +1,176 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEvent;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+import uk.ac.ed.ph.qtiworks.testutils.TemporaryFilespaceFixture;
+
+import uk.ac.ed.ph.jqtiplus.node.AssessmentObjectType;
+import uk.ac.ed.ph.jqtiplus.running.TestSessionController;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateXmlMarshaller;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link BinaryCandidateSessionStateStore}, and that the XML stores can read
+ * the state it records.
+ *
+ * @author David McKain
+ */
+public class BinaryCandidateSessionStateStoreTest {
+
+    private static final String SAMPLE_TEST_HREF = "testimplementation/dave/simple-nonlinear-individual.xml";
+
+    private TemporaryFilespaceFixture fixture;
+    private CandidateSession candidateSession;
+    private List<TestSessionState> testSessionStates;
+
+    @Before
+    public void setup() {
+        fixture = new TemporaryFilespaceFixture();
+        candidateSession = fixture.createCandidateSession(1L, AssessmentObjectType.ASSESSMENT_TEST);
+        testSessionStates = runTestSession();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        fixture.destroy();
+    }
+
+    @Test
+    public void testRoundTrip() {
+        final BinaryCandidateSessionStateStore binaryStore = createBinaryStore();
+        storeAll(binaryStore);
+        for (int i=0; i<testSessionStates.size(); i++) {
+            final CandidateEvent candidateEvent = fixture.createCandidateEvent(candidateSession, i + 1);
+            Assert.assertTrue(binaryStore.getBinaryStateFile(candidateEvent).exists());
+            Assert.assertFalse(binaryStore.getSessionStateFile(candidateEvent).exists());
+            Assert.assertEquals(testSessionStates.get(i), binaryStore.loadTestSessionState(candidateEvent));
+        }
+    }
+
+    @Test
+    public void testMigratesXmlState() {
+        storeAll(createDeltaStore());
+        final BinaryCandidateSessionStateStore binaryStore = createBinaryStore();
+        for (int i=0; i<testSessionStates.size(); i++) {
+            final CandidateEvent candidateEvent = fixture.createCandidateEvent(candidateSession, i + 1);
+            Assert.assertTrue(binaryStore.migrateState(candidateEvent));
+            Assert.assertFalse(binaryStore.migrateState(candidateEvent));
+            Assert.assertEquals(testSessionStates.get(i), binaryStore.loadTestSessionState(candidateEvent));
+        }
+    }
+
+    @Test
+    public void testFullXmlStoreReadsBinaryState() {
+        storeAll(createBinaryStore());
+        final XmlCandidateSessionStateStore fullStore = new XmlCandidateSessionStateStore();
+        fullStore.filespaceManager = fixture.getFilespaceManager();
+        for (int i=0; i<testSessionStates.size(); i++) {
+            final CandidateEvent candidateEvent = fixture.createCandidateEvent(candidateSession, i + 1);
+            Assert.assertEquals(testSessionStates.get(i), fullStore.loadTestSessionState(candidateEvent));
+        }
+    }
+
+    @Test
+    public void testSwitchBackToDeltaStore() {
+        final int half = testSessionStates.size() / 2;
+        final BinaryCandidateSessionStateStore binaryStore = createBinaryStore();
+        for (int i=0; i<half; i++) {
+            binaryStore.storeTestSessionState(fixture.createCandidateEvent(candidateSession, i + 1), testSessionStates.get(i));
+        }
+        final DeltaXmlCandidateSessionStateStore deltaStore = createDeltaStore();
+        for (int i=half; i<testSessionStates.size(); i++) {
+            deltaStore.storeTestSessionState(fixture.createCandidateEvent(candidateSession, i + 1), testSessionStates.get(i));
+        }
+        for (int i=0; i<testSessionStates.size(); i++) {
+            final CandidateEvent candidateEvent = fixture.createCandidateEvent(candidateSession, i + 1);
+            Assert.assertEquals(testSessionStates.get(i), deltaStore.loadTestSessionState(candidateEvent));
+        }
+    }
+
+    //-------------------------------------------------
+
+    private DeltaXmlCandidateSessionStateStore createDeltaStore() {
+        final DeltaXmlCandidateSessionStateStore result = new DeltaXmlCandidateSessionStateStore(5);
+        result.filespaceManager = fixture.getFilespaceManager();
+        return result;
+    }
+
+    private BinaryCandidateSessionStateStore createBinaryStore() {
+        final BinaryCandidateSessionStateStore result = new BinaryCandidateSessionStateStore(createDeltaStore());
+        result.filespaceManager = fixture.getFilespaceManager();
+        return result;
+    }
+
+    private void storeAll(final CandidateSessionStateStore stateStore) {
+        for (int i=0; i<testSessionStates.size(); i++) {
+            stateStore.storeTestSessionState(fixture.createCandidateEvent(candidateSession, i + 1), testSessionStates.get(i));
+        }
+    }
+
+    private static List<TestSessionState> runTestSession() {
+        final TestSessionController testSessionController = TemporaryFilespaceFixture.createTestSessionController(SAMPLE_TEST_HREF);
+        final TestSessionState testSessionState = testSessionController.getTestSessionState();
+        final List<TestSessionState> result = new ArrayList<TestSessionState>();
+        long timestamp = 1000L;
+
+        testSessionController.initialize(new Date(timestamp));
+        result.add(copyState(testSessionState));
+        testSessionController.enterTest(new Date(timestamp += 1000L));
+        result.add(copyState(testSessionState));
+        testSessionController.enterNextAvailableTestPart(new Date(timestamp += 1000L));
+        result.add(copyState(testSessionState));
+        for (final String itemIdentifier : new String[] { "Q1", "Q2", "Q3" }) {
+            testSessionController.selectItemNonlinear(new Date(timestamp += 1000L),
+                    testSessionState.getTestPlan().getNodes(Identifier.assumedLegal(itemIdentifier)).get(0).getKey());
+            result.add(copyState(testSessionState));
+        }
+        return result;
+    }
+
+    private static TestSessionState copyState(final TestSessionState testSessionState) {
+        return TestSessionStateXmlMarshaller.unmarshal(TestSessionStateXmlMarshaller.marshal(testSessionState).getDocumentElement());
+    }
+}
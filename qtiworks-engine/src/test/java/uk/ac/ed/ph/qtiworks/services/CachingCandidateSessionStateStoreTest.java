@@ -0,0 +1,216 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEvent;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+import uk.ac.ed.ph.qtiworks.testutils.TemporaryFilespaceFixture;
+
+import uk.ac.ed.ph.jqtiplus.node.AssessmentObjectType;
+import uk.ac.ed.ph.jqtiplus.running.TestSessionController;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateBinaryMarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateXmlMarshaller;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+/**
+ * Tests the {@link CachingCandidateSessionStateStore}
+ *
+ * @author David McKain
+ */
+public class CachingCandidateSessionStateStoreTest {
+
+    private static final String SAMPLE_TEST_HREF = "testimplementation/dave/simple-nonlinear-individual.xml";
+
+    private TemporaryFilespaceFixture fixture;
+    private InMemoryStateStore targetStateStore;
+    private TestSessionState state1;
+    private TestSessionState state2;
+
+    @Before
+    public void setup() {
+        fixture = new TemporaryFilespaceFixture();
+        targetStateStore = new InMemoryStateStore();
+
+        final TestSessionController testSessionController = TemporaryFilespaceFixture.createTestSessionController(SAMPLE_TEST_HREF);
+        final TestSessionState testSessionState = testSessionController.getTestSessionState();
+        testSessionController.initialize(new Date(1000L));
+        testSessionController.enterTest(new Date(2000L));
+        testSessionController.enterNextAvailableTestPart(new Date(3000L));
+        testSessionController.selectItemNonlinear(new Date(4000L),
+                testSessionState.getTestPlan().getNodes(Identifier.assumedLegal("Q1")).get(0).getKey());
+        state1 = copyState(testSessionState);
+        testSessionController.selectItemNonlinear(new Date(5000L),
+                testSessionState.getTestPlan().getNodes(Identifier.assumedLegal("Q2")).get(0).getKey());
+        state2 = copyState(testSessionState);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        fixture.destroy();
+    }
+
+    @Test
+    public void testHitReturnsIndependentCopy() {
+        final CachingCandidateSessionStateStore cachingStore = new CachingCandidateSessionStateStore(targetStateStore, 1024 * 1024, 10);
+        final CandidateEvent candidateEvent = createCandidateEvent(1L, 1L);
+        cachingStore.storeTestSessionState(candidateEvent, state1);
+
+        final TestSessionState loaded1 = cachingStore.loadTestSessionState(candidateEvent);
+        Assert.assertEquals(state1, loaded1);
+        loaded1.setCurrentItemKey(null);
+
+        final TestSessionState loaded2 = cachingStore.loadTestSessionState(candidateEvent);
+        Assert.assertNotSame(loaded1, loaded2);
+        Assert.assertEquals(state1, loaded2);
+        Assert.assertEquals(0, targetStateStore.loadCount);
+        Assert.assertEquals(2L, cachingStore.getCacheHitCount());
+    }
+
+    @Test
+    public void testStoreReplacesCachedState() {
+        final CachingCandidateSessionStateStore cachingStore = new CachingCandidateSessionStateStore(targetStateStore, 1024 * 1024, 10);
+        final CandidateEvent candidateEvent1 = createCandidateEvent(1L, 1L);
+        final CandidateEvent candidateEvent2 = createCandidateEvent(1L, 2L);
+        cachingStore.storeTestSessionState(candidateEvent1, state1);
+        cachingStore.storeTestSessionState(candidateEvent2, state2);
+        Assert.assertEquals(1, cachingStore.getCacheUsage());
+
+        /* Newest state comes from the cache */
+        Assert.assertEquals(state2, cachingStore.loadTestSessionState(candidateEvent2));
+        Assert.assertEquals(0, targetStateStore.loadCount);
+
+        /* Older state is no longer cached, so comes from the target store... */
+        Assert.assertEquals(state1, cachingStore.loadTestSessionState(candidateEvent1));
+        Assert.assertEquals(1, targetStateStore.loadCount);
+
+        /* ...and doesn't displace the newer state */
+        Assert.assertEquals(state2, cachingStore.loadTestSessionState(candidateEvent2));
+        Assert.assertEquals(1, targetStateStore.loadCount);
+    }
+
+    @Test
+    public void testMissFallsThroughToTarget() {
+        final CachingCandidateSessionStateStore cachingStore = new CachingCandidateSessionStateStore(targetStateStore, 1024 * 1024, 10);
+        final CandidateEvent candidateEvent = createCandidateEvent(1L, 1L);
+        targetStateStore.storeTestSessionState(candidateEvent, state1);
+
+        Assert.assertEquals(state1, cachingStore.loadTestSessionState(candidateEvent));
+        Assert.assertEquals(1, targetStateStore.loadCount);
+        Assert.assertEquals(1L, cachingStore.getCacheMissCount());
+
+        /* Second load should now be cached */
+        Assert.assertEquals(state1, cachingStore.loadTestSessionState(candidateEvent));
+        Assert.assertEquals(1, targetStateStore.loadCount);
+        Assert.assertEquals(1L, cachingStore.getCacheHitCount());
+    }
+
+    @Test
+    public void testBoundedEviction() {
+        final int stateSize = TestSessionStateBinaryMarshaller.marshal(state1).length;
+        final long cacheMaxWeight = 2L * stateSize;
+        final CachingCandidateSessionStateStore cachingStore = new CachingCandidateSessionStateStore(targetStateStore, cacheMaxWeight, 10);
+        final int sessionCount = 20;
+        for (long i=1; i<=sessionCount; i++) {
+            cachingStore.storeTestSessionState(createCandidateEvent(i, i), state1);
+        }
+        Assert.assertTrue(cachingStore.getCacheWeight() <= cacheMaxWeight);
+        Assert.assertTrue(cachingStore.getCacheUsage() < sessionCount);
+        Assert.assertEquals(sessionCount - cachingStore.getCacheUsage(), cachingStore.getCachePurgeCount());
+
+        /* Evicted state must still be available via the target store */
+        for (long i=1; i<=sessionCount; i++) {
+            Assert.assertEquals(state1, cachingStore.loadTestSessionState(createCandidateEvent(i, i)));
+        }
+        Assert.assertTrue(targetStateStore.loadCount > 0);
+    }
+
+    //-------------------------------------------------
+
+    private CandidateEvent createCandidateEvent(final long candidateSessionId, final long candidateEventId) {
+        final CandidateSession candidateSession = fixture.createCandidateSession(candidateSessionId, AssessmentObjectType.ASSESSMENT_TEST);
+        return fixture.createCandidateEvent(candidateSession, candidateEventId);
+    }
+
+    private static TestSessionState copyState(final TestSessionState testSessionState) {
+        return TestSessionStateXmlMarshaller.unmarshal(TestSessionStateXmlMarshaller.marshal(testSessionState).getDocumentElement());
+    }
+
+    /**
+     * Trivial {@link CandidateSessionStateStore} holding test state as XML in memory,
+     * counting the number of loads.
+     */
+    private static final class InMemoryStateStore implements CandidateSessionStateStore {
+
+        private final Map<Long, Document> stateDocumentMap = new HashMap<Long, Document>();
+        int loadCount;
+
+        @Override
+        public void storeItemSessionState(final CandidateEvent candidateEvent, final ItemSessionState itemSessionState) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ItemSessionState loadItemSessionState(final CandidateEvent candidateEvent) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void storeTestSessionState(final CandidateEvent candidateEvent, final TestSessionState testSessionState) {
+            stateDocumentMap.put(candidateEvent.getId(), TestSessionStateXmlMarshaller.marshal(testSessionState));
+        }
+
+        @Override
+        public TestSessionState loadTestSessionState(final CandidateEvent candidateEvent) {
+            loadCount++;
+            return TestSessionStateXmlMarshaller.unmarshal(loadStateDocument(candidateEvent).getDocumentElement());
+        }
+
+        @Override
+        public Document loadStateDocument(final CandidateEvent candidateEvent) {
+            return stateDocumentMap.get(candidateEvent.getId());
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEvent;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEventNotification;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateFileSubmission;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateResponse;
+import uk.ac.ed.ph.qtiworks.domain.entities.ResponseLegality;
+import uk.ac.ed.ph.qtiworks.services.CandidateAuditDataWriter.JournalRecord;
+import uk.ac.ed.ph.qtiworks.services.CandidateAuditDataWriter.JournalRecordCodec;
+
+import uk.ac.ed.ph.jqtiplus.notification.NotificationLevel;
+import uk.ac.ed.ph.jqtiplus.notification.NotificationType;
+import uk.ac.ed.ph.jqtiplus.types.ResponseData.ResponseDataType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the journal format used by the {@link CandidateAuditDataWriter}
+ *
+ * @author David McKain
+ */
+public class CandidateAuditDataWriterTest {
+
+    @Test
+    public void testNotificationRoundTrip() throws Exception {
+        final CandidateEventNotification notification = new CandidateEventNotification();
+        notification.setCandidateEvent(createCandidateEvent(12L));
+        notification.setNotificationType(NotificationType.RUNTIME);
+        notification.setNotificationLevel(NotificationLevel.WARNING);
+        notification.setNodeQtiClassName("responseProcessing");
+        notification.setSystemId("file:/item.xml");
+        notification.setLineNumber(Integer.valueOf(42));
+        notification.setMessage("Caf\u00e9 message");
+
+        final JournalRecord record = roundTrip(new JournalRecord(notification));
+        Assert.assertEquals(12L, record.getXeid());
+        Assert.assertNull(record.getFid());
+
+        final CandidateEventNotification result = (CandidateEventNotification) record.createEntity(notification.getCandidateEvent(), null);
+        Assert.assertEquals(NotificationType.RUNTIME, result.getNotificationType());
+        Assert.assertEquals(NotificationLevel.WARNING, result.getNotificationLevel());
+        Assert.assertEquals("responseProcessing", result.getNodeQtiClassName());
+        Assert.assertNull(result.getAttributeLocalName());
+        Assert.assertEquals("file:/item.xml", result.getSystemId());
+        Assert.assertEquals(Integer.valueOf(42), result.getLineNumber());
+        Assert.assertNull(result.getColumnNumber());
+        Assert.assertEquals("Caf\u00e9 message", result.getMessage());
+    }
+
+    @Test
+    public void testResponseRoundTrip() throws Exception {
+        final CandidateFileSubmission fileSubmission = new CandidateFileSubmission();
+        fileSubmission.setId(Long.valueOf(7L));
+        final CandidateResponse response = new CandidateResponse();
+        response.setCandidateEvent(createCandidateEvent(3L));
+        response.setResponseIdentifier("RESPONSE");
+        response.setResponseDataType(ResponseDataType.STRING);
+        response.setResponseLegality(ResponseLegality.VALID);
+        response.setStringResponseData(Arrays.asList("a", "", null));
+        response.setFileSubmission(fileSubmission);
+
+        final JournalRecord record = roundTrip(new JournalRecord(response));
+        Assert.assertEquals(3L, record.getXeid());
+        Assert.assertEquals(Long.valueOf(7L), record.getFid());
+
+        final CandidateResponse result = (CandidateResponse) record.createEntity(response.getCandidateEvent(), fileSubmission);
+        Assert.assertEquals("RESPONSE", result.getResponseIdentifier());
+        Assert.assertEquals(ResponseDataType.STRING, result.getResponseDataType());
+        Assert.assertEquals(ResponseLegality.VALID, result.getResponseLegality());
+        Assert.assertEquals(Arrays.asList("a", "", null), result.getStringResponseData());
+        Assert.assertSame(fileSubmission, result.getFileSubmission());
+    }
+
+    private static CandidateEvent createCandidateEvent(final long xeid) {
+        final CandidateEvent candidateEvent = new CandidateEvent();
+        candidateEvent.setId(Long.valueOf(xeid));
+        return candidateEvent;
+    }
+
+    private static JournalRecord roundTrip(final JournalRecord record) throws Exception {
+        final JournalRecordCodec codec = new JournalRecordCodec();
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+        codec.writeRecord(dataOutputStream, record);
+        dataOutputStream.flush();
+        return codec.readRecord(new DataInputStream(new ByteArrayInputStream(outputStream.toByteArray())));
+    }
+}
@@ -0,0 +1,164 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+import uk.ac.ed.ph.qtiworks.services.dao.CandidateSessionDao;
+import uk.ac.ed.ph.qtiworks.testutils.TemporaryFilespaceFixture;
+
+import uk.ac.ed.ph.jqtiplus.node.AssessmentObjectType;
+import uk.ac.ed.ph.jqtiplus.node.result.AssessmentResult;
+import uk.ac.ed.ph.jqtiplus.running.TestSessionController;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.types.ResponseData;
+import uk.ac.ed.ph.jqtiplus.types.StringResponseData;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the skipping of unchanged results in
+ * {@link CandidateDataService#recordTestAssessmentResultIfChanged(CandidateSession, TestSessionController)}
+ *
+ * @author David McKain
+ */
+public class CandidateDataServiceTest {
+
+    private static final String SAMPLE_TEST_HREF = "testimplementation/dave/simple-nonlinear-individual.xml";
+
+    /** Interval (in seconds) within which changes only affecting durations are not recorded */
+    private static final int DURATION_INTERVAL = 60;
+
+    private TemporaryFilespaceFixture fixture;
+    private RequestTimestampContext requestTimestampContext;
+    private CandidateDataService candidateDataService;
+    private CandidateSession candidateSession;
+    private TestSessionController testSessionController;
+    private int recordedResultCount;
+    private long timestamp;
+
+    @Before
+    public void setup() {
+        fixture = new TemporaryFilespaceFixture();
+        candidateSession = fixture.createCandidateSession(1L, AssessmentObjectType.ASSESSMENT_TEST);
+        testSessionController = TemporaryFilespaceFixture.createTestSessionController(SAMPLE_TEST_HREF);
+
+        final QtiWorksDeploymentSettings qtiWorksDeploymentSettings = new QtiWorksDeploymentSettings();
+        TemporaryFilespaceFixture.setField(qtiWorksDeploymentSettings, "baseUrl", "http://localhost/qtiworks");
+        TemporaryFilespaceFixture.setField(qtiWorksDeploymentSettings, "candidateSessionResultDurationInterval", Integer.valueOf(DURATION_INTERVAL));
+        requestTimestampContext = new RequestTimestampContext();
+
+        /* Count results instead of writing them out */
+        candidateDataService = new CandidateDataService() {
+            @Override
+            public void recordTestAssessmentResult(final CandidateSession session, final AssessmentResult assessmentResult) {
+                recordedResultCount++;
+            }
+        };
+        TemporaryFilespaceFixture.setField(candidateDataService, "qtiWorksDeploymentSettings", qtiWorksDeploymentSettings);
+        TemporaryFilespaceFixture.setField(candidateDataService, "requestTimestampContext", requestTimestampContext);
+        TemporaryFilespaceFixture.setField(candidateDataService, "candidateSessionDao", new CandidateSessionDao() {
+            @Override
+            public CandidateSession update(final CandidateSession entity) {
+                return entity;
+            }
+        });
+
+        timestamp = 1000L;
+        testSessionController.initialize(new Date(timestamp));
+        testSessionController.enterTest(new Date(timestamp += 1000L));
+        testSessionController.enterNextAvailableTestPart(new Date(timestamp += 1000L));
+    }
+
+    @After
+    public void teardown() throws Exception {
+        requestTimestampContext.setCurrentRequestTimestamp(null);
+        fixture.destroy();
+    }
+
+    @Test
+    public void testUnchangedResultSkipped() {
+        Assert.assertTrue(recordIfChanged());
+        Assert.assertNotNull(candidateSession.getResultValuesSignature());
+        Assert.assertFalse(recordIfChanged());
+        Assert.assertEquals(1, recordedResultCount);
+    }
+
+    @Test
+    public void testChangedResultRecorded() {
+        Assert.assertTrue(recordIfChanged());
+        final String valuesSignature = candidateSession.getResultValuesSignature();
+
+        final TestSessionState testSessionState = testSessionController.getTestSessionState();
+        testSessionController.selectItemNonlinear(new Date(timestamp += 1000L),
+                testSessionState.getTestPlan().getNodes(Identifier.assumedLegal("Q3")).get(0).getKey());
+        final Map<Identifier, ResponseData> responseMap = Collections.<Identifier, ResponseData>singletonMap(
+                Identifier.assumedLegal("RESPONSE"), new StringResponseData("ChoiceA", "ChoiceC"));
+        testSessionController.handleResponsesToCurrentItem(new Date(timestamp += 1000L), responseMap);
+
+        Assert.assertTrue(recordIfChanged());
+        Assert.assertEquals(2, recordedResultCount);
+        Assert.assertFalse(valuesSignature.equals(candidateSession.getResultValuesSignature()));
+        Assert.assertNull(candidateSession.getResultPendingTime());
+    }
+
+    @Test
+    public void testDurationChangesCoalesced() {
+        Assert.assertTrue(recordIfChanged());
+
+        /* Duration changes within the interval are left pending */
+        testSessionController.touchDurations(new Date(timestamp += 1000L));
+        Assert.assertFalse(recordIfChanged());
+        Assert.assertEquals(new Date(timestamp), candidateSession.getResultPendingTime());
+
+        /* ...then recorded once the interval has passed */
+        testSessionController.touchDurations(new Date(timestamp += DURATION_INTERVAL * 1000L));
+        Assert.assertTrue(recordIfChanged());
+        Assert.assertEquals(2, recordedResultCount);
+        Assert.assertNull(candidateSession.getResultPendingTime());
+    }
+
+    private boolean recordIfChanged() {
+        requestTimestampContext.setCurrentRequestTimestamp(new Date(timestamp));
+        return candidateDataService.recordTestAssessmentResultIfChanged(candidateSession, testSessionController);
+    }
+}
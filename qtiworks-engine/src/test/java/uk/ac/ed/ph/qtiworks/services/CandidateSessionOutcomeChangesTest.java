@@ -0,0 +1,120 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSessionOutcome;
+
+import uk.ac.ed.ph.jqtiplus.value.BaseType;
+import uk.ac.ed.ph.jqtiplus.value.Cardinality;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link CandidateSessionOutcomeChanges}
+ *
+ * @see CandidateSessionOutcomeRecorderTest
+ *
+ * @author David McKain
+ */
+public class CandidateSessionOutcomeChangesTest {
+
+    @Test
+    public void testFirstRecording() {
+        final List<CandidateSessionOutcome> computedOutcomes = Arrays.asList(
+                createOutcome("SCORE", BaseType.FLOAT, "0"),
+                createOutcome("duration", BaseType.FLOAT, "0.5"));
+        final CandidateSessionOutcomeChanges changes = CandidateSessionOutcomeChanges.compute(
+                new ArrayList<CandidateSessionOutcome>(), computedOutcomes);
+
+        Assert.assertEquals(computedOutcomes, changes.getNewOutcomes());
+        Assert.assertTrue(changes.getUpdatedOutcomes().isEmpty());
+        Assert.assertTrue(changes.getRemovedOutcomes().isEmpty());
+        Assert.assertEquals(2, changes.getWriteCount());
+    }
+
+    @Test
+    public void testNoChange() {
+        final List<CandidateSessionOutcome> existingOutcomes = Arrays.asList(
+                createOutcome("SCORE", BaseType.FLOAT, "1"),
+                createOutcome("duration", BaseType.FLOAT, "2.5"));
+        final CandidateSessionOutcomeChanges changes = CandidateSessionOutcomeChanges.compute(existingOutcomes,
+                Arrays.asList(createOutcome("SCORE", BaseType.FLOAT, "1"), createOutcome("duration", BaseType.FLOAT, "2.5")));
+
+        Assert.assertTrue(changes.isEmpty());
+        Assert.assertEquals(0, changes.getWriteCount());
+    }
+
+    @Test
+    public void testValueChange() {
+        final CandidateSessionOutcome existingScore = createOutcome("SCORE", BaseType.FLOAT, "1");
+        final CandidateSessionOutcome existingDuration = createOutcome("duration", BaseType.FLOAT, "2.5");
+        final CandidateSessionOutcomeChanges changes = CandidateSessionOutcomeChanges.compute(
+                Arrays.asList(existingScore, existingDuration),
+                Arrays.asList(createOutcome("SCORE", BaseType.FLOAT, "1"), createOutcome("duration", BaseType.FLOAT, "7.25")));
+
+        Assert.assertEquals(Arrays.asList(existingDuration), changes.getUpdatedOutcomes());
+        Assert.assertEquals("7.25", existingDuration.getStringValue());
+        Assert.assertEquals("1", existingScore.getStringValue());
+        Assert.assertTrue(changes.getNewOutcomes().isEmpty());
+        Assert.assertTrue(changes.getRemovedOutcomes().isEmpty());
+    }
+
+    @Test
+    public void testRemovedAndRetypedOutcomes() {
+        final CandidateSessionOutcome existingScore = createOutcome("SCORE", BaseType.FLOAT, "1");
+        final CandidateSessionOutcome existingFeedback = createOutcome("FEEDBACK", BaseType.IDENTIFIER, "A");
+        final CandidateSessionOutcome computedScore = createOutcome("SCORE", BaseType.INTEGER, "1");
+        final CandidateSessionOutcomeChanges changes = CandidateSessionOutcomeChanges.compute(
+                Arrays.asList(existingScore, existingFeedback),
+                Arrays.asList(computedScore));
+
+        Assert.assertEquals(Arrays.asList(existingScore, existingFeedback), changes.getRemovedOutcomes());
+        Assert.assertEquals(Arrays.asList(computedScore), changes.getNewOutcomes());
+        Assert.assertTrue(changes.getUpdatedOutcomes().isEmpty());
+    }
+
+    private static CandidateSessionOutcome createOutcome(final String identifier, final BaseType baseType, final String stringValue) {
+        final CandidateSessionOutcome outcome = new CandidateSessionOutcome();
+        outcome.setOutcomeIdentifier(identifier);
+        outcome.setBaseType(baseType);
+        outcome.setCardinality(Cardinality.SINGLE);
+        outcome.setStringValue(stringValue);
+        return outcome;
+    }
+}
@@ -0,0 +1,343 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSessionOutcome;
+import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
+import uk.ac.ed.ph.qtiworks.domain.entities.DeliveryType;
+import uk.ac.ed.ph.qtiworks.domain.entities.SystemUser;
+import uk.ac.ed.ph.qtiworks.domain.entities.UserRole;
+import uk.ac.ed.ph.qtiworks.services.dao.CandidateSessionDao;
+import uk.ac.ed.ph.qtiworks.services.dao.CandidateSessionOutcomeDao;
+import uk.ac.ed.ph.qtiworks.services.dao.DeliveryDao;
+import uk.ac.ed.ph.qtiworks.services.dao.SystemUserDao;
+import uk.ac.ed.ph.qtiworks.testutils.JpaTestConfiguration;
+import uk.ac.ed.ph.qtiworks.testutils.StatementCounter;
+
+import uk.ac.ed.ph.jqtiplus.value.BaseType;
+import uk.ac.ed.ph.jqtiplus.value.Cardinality;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Tests the {@link CandidateSessionOutcomeRecorder} against an embedded H2 database, counting
+ * the SQL statements it issues and comparing these with the old delete-and-reinsert approach.
+ *
+ * @see JpaTestConfiguration
+ *
+ * @author David McKain
+ */
+public class CandidateSessionOutcomeRecorderTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(CandidateSessionOutcomeRecorderTest.class);
+
+    private static final int OUTCOME_COUNT = 40;
+    private static final int EVENT_COUNT = 100;
+
+    /** Adds the {@link CandidateSessionOutcomeRecorder} to the standard test JPA configuration */
+    @Configuration
+    @Import(JpaTestConfiguration.class)
+    static class RecorderTestConfiguration {
+
+        @Bean
+        public CandidateSessionOutcomeRecorder candidateSessionOutcomeRecorder() {
+            return new CandidateSessionOutcomeRecorder();
+        }
+    }
+
+    private AnnotationConfigApplicationContext applicationContext;
+    private StatementCounter statementCounter;
+    private TransactionTemplate transactionTemplate;
+    private CandidateSessionOutcomeDao candidateSessionOutcomeDao;
+    private CandidateSessionOutcomeRecorder candidateSessionOutcomeRecorder;
+
+    @Before
+    public void setup() {
+        applicationContext = new AnnotationConfigApplicationContext(RecorderTestConfiguration.class);
+        statementCounter = applicationContext.getBean(StatementCounter.class);
+        transactionTemplate = applicationContext.getBean(TransactionTemplate.class);
+        candidateSessionOutcomeDao = applicationContext.getBean(CandidateSessionOutcomeDao.class);
+        candidateSessionOutcomeRecorder = applicationContext.getBean(CandidateSessionOutcomeRecorder.class);
+    }
+
+    @After
+    public void teardown() {
+        applicationContext.close();
+    }
+
+    /**
+     * Simulates a session of 100 events on a test having 40 outcomes, in which the duration
+     * changes on every event and one other outcome changes on every 5th event.
+     */
+    @Test
+    public void testStatementCounts() {
+        /* Old approach: bulk DELETE then INSERT every outcome */
+        final CandidateSession oldSession = createCandidateSession();
+        statementCounter.reset();
+        for (int event=0; event<EVENT_COUNT; event++) {
+            final List<CandidateSessionOutcome> computedOutcomes = computeOutcomes(oldSession, event);
+            transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(final TransactionStatus status) {
+                    candidateSessionOutcomeDao.deleteForCandidateSession(oldSession);
+                    for (final CandidateSessionOutcome outcome : computedOutcomes) {
+                        candidateSessionOutcomeDao.persist(outcome);
+                    }
+                }
+            });
+        }
+        final int oldStatementCount = statementCounter.getTotalCount();
+
+        /* New approach */
+        final CandidateSession newSession = createCandidateSession();
+        statementCounter.reset();
+        int changedValueCount = 0;
+        List<CandidateSessionOutcome> previousOutcomes = null;
+        for (int event=0; event<EVENT_COUNT; event++) {
+            final List<CandidateSessionOutcome> computedOutcomes = computeOutcomes(newSession, event);
+            if (previousOutcomes!=null) {
+                for (int i=0; i<OUTCOME_COUNT; i++) {
+                    if (!computedOutcomes.get(i).getStringValue().equals(previousOutcomes.get(i).getStringValue())) {
+                        changedValueCount++;
+                    }
+                }
+            }
+            recordOutcomes(newSession, computedOutcomes);
+            previousOutcomes = computedOutcomes;
+        }
+        final int newStatementCount = statementCounter.getTotalCount();
+
+        logger.info("Recording {} outcomes over {} events: delete-and-reinsert needs {} statements, incremental needs {} ({})",
+                new Object[] { Integer.valueOf(OUTCOME_COUNT), Integer.valueOf(EVENT_COUNT),
+                    Integer.valueOf(oldStatementCount), Integer.valueOf(newStatementCount), statementCounter });
+
+        /* Outcomes should only have been read once, when nothing was remembered, and afterwards
+         * only changed values should have been written, one UPDATE each. (Each event still
+         * needs at least one statement, so the saving on statement count is around half,
+         * though far fewer rows are written.) */
+        Assert.assertEquals(1, statementCounter.getSelectCount());
+        Assert.assertEquals(changedValueCount, statementCounter.getUpdateCount());
+        Assert.assertTrue(newStatementCount * 2 < oldStatementCount);
+        assertRecordedOutcomes(newSession, computeOutcomes(newSession, EVENT_COUNT - 1));
+    }
+
+    @Test
+    public void testRolledBackChangesNotRemembered() {
+        final CandidateSession candidateSession = createCandidateSession();
+        recordOutcomes(candidateSession, computeOutcomes(candidateSession, 0));
+
+        /* Record changes but roll them back */
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(final TransactionStatus status) {
+                candidateSessionOutcomeRecorder.recordOutcomes(candidateSession, computeOutcomes(candidateSession, 5));
+                status.setRollbackOnly();
+            }
+        });
+        assertRecordedOutcomes(candidateSession, computeOutcomes(candidateSession, 0));
+
+        /* Then record them again, which should now write them */
+        final CandidateSessionOutcomeChanges changes = recordOutcomes(candidateSession, computeOutcomes(candidateSession, 5));
+        Assert.assertEquals(2, changes.getUpdatedOutcomes().size());
+        assertRecordedOutcomes(candidateSession, computeOutcomes(candidateSession, 5));
+    }
+
+    @Test
+    public void testRemovedOutcomes() {
+        final CandidateSession candidateSession = createCandidateSession();
+        recordOutcomes(candidateSession, computeOutcomes(candidateSession, 0));
+
+        final List<CandidateSessionOutcome> fewerOutcomes = computeOutcomes(candidateSession, 1).subList(0, 10);
+        final CandidateSessionOutcomeChanges changes = recordOutcomes(candidateSession, fewerOutcomes);
+        Assert.assertEquals(OUTCOME_COUNT - 10, changes.getRemovedOutcomes().size());
+        assertRecordedOutcomes(candidateSession, computeOutcomes(candidateSession, 1).subList(0, 10));
+    }
+
+    @Test
+    public void testOutcomesDeletedElsewhere() {
+        final CandidateSession candidateSession = createCandidateSession();
+        recordOutcomes(candidateSession, computeOutcomes(candidateSession, 0));
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(final TransactionStatus status) {
+                candidateSessionOutcomeDao.deleteForCandidateSession(candidateSession);
+            }
+        });
+
+        /* Remembered outcomes are now out of date, which should be noticed */
+        recordOutcomes(candidateSession, computeOutcomes(candidateSession, 1));
+        assertRecordedOutcomes(candidateSession, computeOutcomes(candidateSession, 1));
+    }
+
+    @Test
+    public void testOutcomeChangedElsewhere() {
+        final CandidateSession candidateSession = createCandidateSession();
+        recordOutcomes(candidateSession, computeOutcomes(candidateSession, 0));
+
+        /* Change the value of OUTCOME1 behind the recorder's back */
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(final TransactionStatus status) {
+                for (final CandidateSessionOutcome outcome : candidateSessionOutcomeDao.getForSession(candidateSession)) {
+                    if ("OUTCOME1".equals(outcome.getOutcomeIdentifier())) {
+                        Assert.assertEquals(1, candidateSessionOutcomeDao.updateStringValue(outcome.getId(), "0", "99"));
+                    }
+                }
+            }
+        });
+
+        /* Now record a new value for OUTCOME1. Its remembered value is out of date, so updating
+         * it directly should fail and the outcomes should be re-read instead. (Re-reading may
+         * also load the CandidateSession, as the test's instance is detached.) */
+        final int event = 5 * (OUTCOME_COUNT - 1);
+        statementCounter.reset();
+        final CandidateSessionOutcomeChanges changes = recordOutcomes(candidateSession, computeOutcomes(candidateSession, event));
+        Assert.assertTrue(statementCounter.getSelectCount() > 0);
+        final List<String> updatedIdentifiers = new ArrayList<String>();
+        for (final CandidateSessionOutcome outcome : changes.getUpdatedOutcomes()) {
+            updatedIdentifiers.add(outcome.getOutcomeIdentifier());
+        }
+        Assert.assertTrue(updatedIdentifiers.contains("OUTCOME1"));
+        assertRecordedOutcomes(candidateSession, computeOutcomes(candidateSession, event));
+    }
+
+    //-------------------------------------------------
+
+    private CandidateSessionOutcomeChanges recordOutcomes(final CandidateSession candidateSession,
+            final List<CandidateSessionOutcome> computedOutcomes) {
+        return transactionTemplate.execute(new TransactionCallback<CandidateSessionOutcomeChanges>() {
+            @Override
+            public CandidateSessionOutcomeChanges doInTransaction(final TransactionStatus status) {
+                return candidateSessionOutcomeRecorder.recordOutcomes(candidateSession, computedOutcomes);
+            }
+        });
+    }
+
+    private void assertRecordedOutcomes(final CandidateSession candidateSession,
+            final List<CandidateSessionOutcome> expectedOutcomes) {
+        final List<CandidateSessionOutcome> recordedOutcomes = transactionTemplate.execute(new TransactionCallback<List<CandidateSessionOutcome>>() {
+            @Override
+            public List<CandidateSessionOutcome> doInTransaction(final TransactionStatus status) {
+                return candidateSessionOutcomeDao.getForSession(candidateSession);
+            }
+        });
+        final Map<String, String> expectedValues = new HashMap<String, String>();
+        for (final CandidateSessionOutcome outcome : expectedOutcomes) {
+            expectedValues.put(outcome.getOutcomeIdentifier(), outcome.getStringValue());
+        }
+        final Map<String, String> recordedValues = new HashMap<String, String>();
+        for (final CandidateSessionOutcome outcome : recordedOutcomes) {
+            recordedValues.put(outcome.getOutcomeIdentifier(), outcome.getStringValue());
+        }
+        Assert.assertEquals(expectedOutcomes.size(), recordedOutcomes.size());
+        Assert.assertEquals(expectedValues, recordedValues);
+    }
+
+    /**
+     * Computes the outcomes after the given event. The duration changes on every event, and
+     * one other outcome changes on every 5th event.
+     */
+    private static List<CandidateSessionOutcome> computeOutcomes(final CandidateSession candidateSession, final int event) {
+        final List<CandidateSessionOutcome> result = new ArrayList<CandidateSessionOutcome>();
+        result.add(createOutcome(candidateSession, "duration", BaseType.FLOAT, Double.toString(event * 1.5)));
+        for (int i=1; i<OUTCOME_COUNT; i++) {
+            final int value = (i==1 + (event/5) % (OUTCOME_COUNT-1)) ? event/5 : 0;
+            result.add(createOutcome(candidateSession, "OUTCOME" + i, BaseType.INTEGER, Integer.toString(value)));
+        }
+        return result;
+    }
+
+    private static CandidateSessionOutcome createOutcome(final CandidateSession candidateSession,
+            final String identifier, final BaseType baseType, final String stringValue) {
+        final CandidateSessionOutcome outcome = new CandidateSessionOutcome();
+        outcome.setCandidateSession(candidateSession);
+        outcome.setOutcomeIdentifier(identifier);
+        outcome.setBaseType(baseType);
+        outcome.setCardinality(Cardinality.SINGLE);
+        outcome.setStringValue(stringValue);
+        return outcome;
+    }
+
+    /**
+     * Persists a new {@link CandidateSession}, together with the {@link Delivery} and candidate
+     * it needs.
+     */
+    private CandidateSession createCandidateSession() {
+        final SystemUserDao systemUserDao = applicationContext.getBean(SystemUserDao.class);
+        final DeliveryDao deliveryDao = applicationContext.getBean(DeliveryDao.class);
+        final CandidateSessionDao candidateSessionDao = applicationContext.getBean(CandidateSessionDao.class);
+        return transactionTemplate.execute(new TransactionCallback<CandidateSession>() {
+            @Override
+            public CandidateSession doInTransaction(final TransactionStatus status) {
+                final SystemUser candidate = new SystemUser(UserRole.ANONYMOUS);
+                candidate.setLoginName("candidate" + System.nanoTime());
+                candidate.setFirstName("Candidate");
+                candidate.setLastName("Test");
+                candidate.setPasswordSalt("salt");
+                candidate.setPasswordDigest("digest");
+                systemUserDao.persist(candidate);
+
+                final Delivery delivery = new Delivery();
+                delivery.setDeliveryType(DeliveryType.USER_CREATED);
+                delivery.setTitle("Test delivery");
+                deliveryDao.persist(delivery);
+
+                final CandidateSession candidateSession = new CandidateSession();
+                candidateSession.setDelivery(delivery);
+                candidateSession.setCandidate(candidate);
+                candidateSessionDao.persist(candidateSession);
+                return candidateSession;
+            }
+        });
+    }
+}
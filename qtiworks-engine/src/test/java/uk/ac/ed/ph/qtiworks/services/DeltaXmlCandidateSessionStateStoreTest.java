@@ -0,0 +1,245 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEvent;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+import uk.ac.ed.ph.qtiworks.testutils.TemporaryFilespaceFixture;
+
+import uk.ac.ed.ph.jqtiplus.node.AssessmentObjectType;
+import uk.ac.ed.ph.jqtiplus.running.TestSessionController;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateXmlMarshaller;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.types.ResponseData;
+import uk.ac.ed.ph.jqtiplus.types.StringResponseData;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link DeltaXmlCandidateSessionStateStore}, checking it against the
+ * {@link XmlCandidateSessionStateStore}.
+ *
+ * @author David McKain
+ */
+public class DeltaXmlCandidateSessionStateStoreTest {
+
+    private static final String SAMPLE_TEST_HREF = "testimplementation/dave/simple-nonlinear-individual.xml";
+
+    private TemporaryFilespaceFixture fixture;
+    private List<TestSessionState> testSessionStates;
+
+    @Before
+    public void setup() {
+        fixture = new TemporaryFilespaceFixture();
+        testSessionStates = runTestSession();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        fixture.destroy();
+    }
+
+    @Test
+    public void testSameStateAsFullXmlStore() {
+        final XmlCandidateSessionStateStore fullStore = createFullStore();
+        final DeltaXmlCandidateSessionStateStore deltaStore = createDeltaStore(5);
+        final CandidateSession fullSession = fixture.createCandidateSession(1L, AssessmentObjectType.ASSESSMENT_TEST);
+        final CandidateSession deltaSession = fixture.createCandidateSession(2L, AssessmentObjectType.ASSESSMENT_TEST);
+        storeAll(fullStore, fullSession);
+        storeAll(deltaStore, deltaSession);
+
+        for (int i=0; i<testSessionStates.size(); i++) {
+            final long eventId = i + 1;
+            final TestSessionState fullState = fullStore.loadTestSessionState(fixture.createCandidateEvent(fullSession, eventId));
+            final TestSessionState deltaState = deltaStore.loadTestSessionState(fixture.createCandidateEvent(deltaSession, eventId));
+            Assert.assertEquals(testSessionStates.get(i), fullState);
+            Assert.assertEquals("State differs at event #" + eventId, fullState, deltaState);
+        }
+        Assert.assertTrue(getDeltaEventIds(deltaStore, deltaSession).size() > 0);
+    }
+
+    @Test
+    public void testSnapshotInterval() {
+        final DeltaXmlCandidateSessionStateStore deltaStore = createDeltaStore(3);
+        final CandidateSession candidateSession = fixture.createCandidateSession(1L, AssessmentObjectType.ASSESSMENT_TEST);
+        final List<Long> snapshotEventIds = new ArrayList<Long>();
+        final List<Long> expectedSnapshotEventIds = new ArrayList<Long>();
+        for (int i=0; i<testSessionStates.size(); i++) {
+            final long eventId = i + 1;
+            final CandidateEvent candidateEvent = fixture.createCandidateEvent(candidateSession, eventId);
+            deltaStore.storeTestSessionState(candidateEvent, testSessionStates.get(i));
+            if (deltaStore.getSessionStateFile(candidateEvent).exists()) {
+                snapshotEventIds.add(Long.valueOf(eventId));
+            }
+            if (i % 3 == 0) {
+                expectedSnapshotEventIds.add(Long.valueOf(eventId));
+            }
+        }
+
+        /* Every 3rd event should be a snapshot, with (exactly) the ones in between being deltas */
+        Assert.assertEquals(expectedSnapshotEventIds, snapshotEventIds);
+        Assert.assertEquals(testSessionStates.size() - snapshotEventIds.size(), getDeltaEventIds(deltaStore, candidateSession).size());
+
+        /* Events either side of each boundary should be rebuilt correctly */
+        for (int i=0; i<testSessionStates.size(); i++) {
+            final CandidateEvent candidateEvent = fixture.createCandidateEvent(candidateSession, i + 1);
+            Assert.assertEquals(testSessionStates.get(i), deltaStore.loadTestSessionState(candidateEvent));
+        }
+    }
+
+    @Test
+    public void testSnapshotIntervalOfOne() {
+        final DeltaXmlCandidateSessionStateStore deltaStore = createDeltaStore(1);
+        final CandidateSession candidateSession = fixture.createCandidateSession(1L, AssessmentObjectType.ASSESSMENT_TEST);
+        storeAll(deltaStore, candidateSession);
+        Assert.assertEquals(Collections.emptyList(), getDeltaEventIds(deltaStore, candidateSession));
+    }
+
+    @Test
+    public void testReadsFullXmlStoreData() {
+        final CandidateSession candidateSession = fixture.createCandidateSession(1L, AssessmentObjectType.ASSESSMENT_TEST);
+        storeAll(createFullStore(), candidateSession);
+
+        final DeltaXmlCandidateSessionStateStore deltaStore = createDeltaStore(5);
+        for (int i=0; i<testSessionStates.size(); i++) {
+            final CandidateEvent candidateEvent = fixture.createCandidateEvent(candidateSession, i + 1);
+            Assert.assertEquals(testSessionStates.get(i), deltaStore.loadTestSessionState(candidateEvent));
+        }
+    }
+
+    @Test
+    public void testContinuesSessionAfterRestart() {
+        final CandidateSession candidateSession = fixture.createCandidateSession(1L, AssessmentObjectType.ASSESSMENT_TEST);
+        final int half = testSessionStates.size() / 2;
+        final DeltaXmlCandidateSessionStateStore beforeRestart = createDeltaStore(5);
+        for (int i=0; i<half; i++) {
+            beforeRestart.storeTestSessionState(fixture.createCandidateEvent(candidateSession, i + 1), testSessionStates.get(i));
+        }
+
+        /* A new store has no fingerprints, so must start with a full snapshot */
+        final DeltaXmlCandidateSessionStateStore afterRestart = createDeltaStore(5);
+        final CandidateEvent firstEventAfterRestart = fixture.createCandidateEvent(candidateSession, half + 1);
+        for (int i=half; i<testSessionStates.size(); i++) {
+            afterRestart.storeTestSessionState(fixture.createCandidateEvent(candidateSession, i + 1), testSessionStates.get(i));
+        }
+        Assert.assertTrue(afterRestart.getSessionStateFile(firstEventAfterRestart).exists());
+        for (int i=0; i<testSessionStates.size(); i++) {
+            final CandidateEvent candidateEvent = fixture.createCandidateEvent(candidateSession, i + 1);
+            Assert.assertEquals(testSessionStates.get(i), afterRestart.loadTestSessionState(candidateEvent));
+        }
+    }
+
+    //-------------------------------------------------
+
+    private XmlCandidateSessionStateStore createFullStore() {
+        final XmlCandidateSessionStateStore result = new XmlCandidateSessionStateStore();
+        result.filespaceManager = fixture.getFilespaceManager();
+        return result;
+    }
+
+    private DeltaXmlCandidateSessionStateStore createDeltaStore(final int snapshotInterval) {
+        final DeltaXmlCandidateSessionStateStore result = new DeltaXmlCandidateSessionStateStore(snapshotInterval);
+        result.filespaceManager = fixture.getFilespaceManager();
+        return result;
+    }
+
+    private void storeAll(final CandidateSessionStateStore stateStore, final CandidateSession candidateSession) {
+        for (int i=0; i<testSessionStates.size(); i++) {
+            stateStore.storeTestSessionState(fixture.createCandidateEvent(candidateSession, i + 1), testSessionStates.get(i));
+        }
+    }
+
+    private List<Long> getDeltaEventIds(final DeltaXmlCandidateSessionStateStore deltaStore, final CandidateSession candidateSession) {
+        final List<Long> result = new ArrayList<Long>();
+        for (int i=0; i<testSessionStates.size(); i++) {
+            final File deltaFile = deltaStore.getSessionStateFile(candidateSession, i + 1,
+                    DeltaXmlCandidateSessionStateStore.DELTA_FILE_VARIANT);
+            if (deltaFile.exists()) {
+                result.add(Long.valueOf(i + 1));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Runs a candidate through the sample test, returning a copy of the state after each interaction.
+     */
+    private static List<TestSessionState> runTestSession() {
+        final TestSessionController testSessionController = TemporaryFilespaceFixture.createTestSessionController(SAMPLE_TEST_HREF);
+        final TestSessionState testSessionState = testSessionController.getTestSessionState();
+        final List<TestSessionState> result = new ArrayList<TestSessionState>();
+        long timestamp = 1000L;
+
+        testSessionController.initialize(new Date(timestamp));
+        result.add(copyState(testSessionState));
+        testSessionController.enterTest(new Date(timestamp += 1000L));
+        result.add(copyState(testSessionState));
+        testSessionController.enterNextAvailableTestPart(new Date(timestamp += 1000L));
+        result.add(copyState(testSessionState));
+        for (final String itemIdentifier : new String[] { "Q1", "Q2", "Q3", "Q1" }) {
+            testSessionController.selectItemNonlinear(new Date(timestamp += 1000L),
+                    testSessionState.getTestPlan().getNodes(Identifier.assumedLegal(itemIdentifier)).get(0).getKey());
+            result.add(copyState(testSessionState));
+            testSessionController.touchDurations(new Date(timestamp += 1000L));
+            result.add(copyState(testSessionState));
+        }
+        testSessionController.selectItemNonlinear(new Date(timestamp += 1000L),
+                testSessionState.getTestPlan().getNodes(Identifier.assumedLegal("Q3")).get(0).getKey());
+        final Map<Identifier, ResponseData> responseMap = Collections.<Identifier, ResponseData>singletonMap(
+                Identifier.assumedLegal("RESPONSE"), new StringResponseData("ChoiceA", "ChoiceC"));
+        testSessionController.handleResponsesToCurrentItem(new Date(timestamp += 1000L), responseMap);
+        result.add(copyState(testSessionState));
+        testSessionController.endCurrentTestPart(new Date(timestamp += 1000L));
+        result.add(copyState(testSessionState));
+        testSessionController.enterNextAvailableTestPart(new Date(timestamp += 1000L));
+        testSessionController.exitTest(new Date(timestamp += 1000L));
+        result.add(copyState(testSessionState));
+        return result;
+    }
+
+    private static TestSessionState copyState(final TestSessionState testSessionState) {
+        return TestSessionStateXmlMarshaller.unmarshal(TestSessionStateXmlMarshaller.marshal(testSessionState).getDocumentElement());
+    }
+}
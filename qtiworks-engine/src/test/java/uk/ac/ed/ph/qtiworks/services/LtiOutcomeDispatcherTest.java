@@ -0,0 +1,249 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.services.LtiOutcomeDispatcher.LisResult;
+import uk.ac.ed.ph.qtiworks.services.LtiOutcomeDispatcher.SendResult;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests the {@link LtiOutcomeDispatcher} against a local stub LIS outcome service.
+ * <p>
+ * The stub succeeds for requests to <code>/ok/...</code> and fails for requests to
+ * <code>/fail/...</code>, recording the maximum number of concurrent requests received
+ * for each path.
+ *
+ * @author David McKain
+ */
+public class LtiOutcomeDispatcherTest {
+
+    private static final String SUCCESS_RESPONSE = "<?xml version='1.0' encoding='UTF-8'?>\n"
+            + "<imsx_POXEnvelopeResponse xmlns='http://www.imsglobal.org/services/ltiv1p1/xsd/imsoms_v1p0'>\n"
+            + "  <imsx_POXHeader>\n"
+            + "    <imsx_POXResponseHeaderInfo>\n"
+            + "      <imsx_statusInfo>\n"
+            + "        <imsx_codeMajor>success</imsx_codeMajor>\n"
+            + "      </imsx_statusInfo>\n"
+            + "    </imsx_POXResponseHeaderInfo>\n"
+            + "  </imsx_POXHeader>\n"
+            + "  <imsx_POXBody/>\n"
+            + "</imsx_POXEnvelopeResponse>\n";
+
+    private ExecutorService stubExecutorService;
+    private HttpServer stubOutcomeService;
+    private String stubOutcomeServiceUrl;
+    private ConcurrentMap<String, AtomicInteger> activeRequestCountMap;
+    private ConcurrentMap<String, AtomicInteger> maxActiveRequestCountMap;
+    private LtiOutcomeDispatcher ltiOutcomeDispatcher;
+
+    @Before
+    public void setup() throws Exception {
+        activeRequestCountMap = new ConcurrentHashMap<String, AtomicInteger>();
+        maxActiveRequestCountMap = new ConcurrentHashMap<String, AtomicInteger>();
+        stubOutcomeService = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stubOutcomeService.createContext("/", new StubOutcomeHandler());
+        stubExecutorService = Executors.newCachedThreadPool();
+        stubOutcomeService.setExecutor(stubExecutorService);
+        stubOutcomeService.start();
+        stubOutcomeServiceUrl = "http://127.0.0.1:" + stubOutcomeService.getAddress().getPort();
+        ltiOutcomeDispatcher = new LtiOutcomeDispatcher(8, 2, 0.0);
+    }
+
+    @After
+    public void tearDown() {
+        if (ltiOutcomeDispatcher!=null) {
+            ltiOutcomeDispatcher.shutdown();
+        }
+        if (stubOutcomeService!=null) {
+            stubOutcomeService.stop(0);
+        }
+        if (stubExecutorService!=null) {
+            stubExecutorService.shutdownNow();
+        }
+    }
+
+    //----------------------------------------------------------
+
+    @Test
+    public void sendsAllSuccessfully() {
+        final List<LisResult> lisResults = new ArrayList<LisResult>();
+        for (int i=0; i<10; i++) {
+            lisResults.add(createLisResult("/ok/a", "a", i));
+            lisResults.add(createLisResult("/ok/b", "b", i));
+        }
+
+        final List<SendResult> sendResults = ltiOutcomeDispatcher.dispatch(lisResults);
+        Assert.assertEquals(lisResults.size(), sendResults.size());
+        for (final SendResult sendResult : sendResults) {
+            Assert.assertEquals(SendResult.SUCCESS, sendResult);
+        }
+        Assert.assertEquals(20L, ltiOutcomeDispatcher.getSendCount());
+        Assert.assertEquals(0L, ltiOutcomeDispatcher.getFailureCount());
+        Assert.assertTrue(ltiOutcomeDispatcher.getMaxSendDuration() > 0.0);
+    }
+
+    @Test
+    public void limitsConcurrencyPerConsumer() {
+        final List<LisResult> lisResults = new ArrayList<LisResult>();
+        for (int i=0; i<12; i++) {
+            lisResults.add(createLisResult("/ok/a", "a", i));
+            lisResults.add(createLisResult("/ok/b", "b", i));
+        }
+
+        ltiOutcomeDispatcher.dispatch(lisResults);
+        Assert.assertTrue(maxActiveRequestCountMap.get("/ok/a").get() <= 2);
+        Assert.assertTrue(maxActiveRequestCountMap.get("/ok/b").get() <= 2);
+    }
+
+    @Test
+    public void defersFailingConsumer() {
+        final List<LisResult> lisResults = new ArrayList<LisResult>();
+        for (int i=0; i<10; i++) {
+            lisResults.add(createLisResult("/fail/a", "a", i));
+            lisResults.add(createLisResult("/ok/b", "b", i));
+        }
+
+        final List<SendResult> sendResults = ltiOutcomeDispatcher.dispatch(lisResults);
+        int failureCount = 0;
+        int deferredCount = 0;
+        for (int i=0; i<sendResults.size(); i++) {
+            final SendResult sendResult = sendResults.get(i);
+            if (lisResults.get(i).getConsumerKey().equals("b")) {
+                Assert.assertEquals(SendResult.SUCCESS, sendResult);
+            }
+            else if (sendResult==SendResult.FAILURE) {
+                failureCount++;
+            }
+            else {
+                Assert.assertEquals(SendResult.DEFERRED, sendResult);
+                deferredCount++;
+            }
+        }
+        /* (Each of the 2 workers for consumer 'a' may have had a request in flight when the limit was reached) */
+        Assert.assertTrue(failureCount >= LtiOutcomeDispatcher.CONSECUTIVE_FAILURE_LIMIT);
+        Assert.assertTrue(failureCount <= LtiOutcomeDispatcher.CONSECUTIVE_FAILURE_LIMIT + 1);
+        Assert.assertEquals(10, failureCount + deferredCount);
+        Assert.assertEquals(failureCount, ltiOutcomeDispatcher.getFailureCount());
+    }
+
+    @Test
+    public void rateLimitsPerConsumer() {
+        ltiOutcomeDispatcher.shutdown();
+        ltiOutcomeDispatcher = new LtiOutcomeDispatcher(8, 2, 20.0);
+        final List<LisResult> lisResults = new ArrayList<LisResult>();
+        for (int i=0; i<6; i++) {
+            lisResults.add(createLisResult("/ok/a", "a", i));
+        }
+
+        final long startTime = System.currentTimeMillis();
+        ltiOutcomeDispatcher.dispatch(lisResults);
+        final long duration = System.currentTimeMillis() - startTime;
+
+        /* 6 sends at 20 per second should take at least 5 x 50ms */
+        Assert.assertTrue("Took " + duration + "ms", duration >= 200L);
+    }
+
+    //----------------------------------------------------------
+
+    private LisResult createLisResult(final String path, final String consumerKey, final int index) {
+        return new LisResult(stubOutcomeServiceUrl + path, "sourcedid-" + index, consumerKey, "secret", 0.5);
+    }
+
+    private final class StubOutcomeHandler implements HttpHandler {
+
+        @Override
+        public void handle(final HttpExchange exchange) throws IOException {
+            final String path = exchange.getRequestURI().getPath();
+            final AtomicInteger activeRequestCount = getCounter(activeRequestCountMap, path);
+            final AtomicInteger maxActiveRequestCount = getCounter(maxActiveRequestCountMap, path);
+            final int active = activeRequestCount.incrementAndGet();
+            synchronized (maxActiveRequestCount) {
+                if (active > maxActiveRequestCount.get()) {
+                    maxActiveRequestCount.set(active);
+                }
+            }
+            try {
+                final InputStream requestStream = exchange.getRequestBody();
+                while (requestStream.read() != -1) {
+                    /* (Consume request) */
+                }
+                Thread.sleep(20);
+                if (path.startsWith("/ok/")) {
+                    final byte[] responseBytes = SUCCESS_RESPONSE.getBytes("UTF-8");
+                    exchange.getResponseHeaders().add("Content-Type", "application/xml");
+                    exchange.sendResponseHeaders(200, responseBytes.length);
+                    final OutputStream responseStream = exchange.getResponseBody();
+                    responseStream.write(responseBytes);
+                    responseStream.close();
+                }
+                else {
+                    exchange.sendResponseHeaders(500, -1);
+                }
+            }
+            catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                activeRequestCount.decrementAndGet();
+                exchange.close();
+            }
+        }
+
+        private AtomicInteger getCounter(final ConcurrentMap<String, AtomicInteger> counterMap, final String path) {
+            final AtomicInteger newCounter = new AtomicInteger();
+            final AtomicInteger existingCounter = counterMap.putIfAbsent(path, newCounter);
+            return existingCounter!=null ? existingCounter : newCounter;
+        }
+    }
+}
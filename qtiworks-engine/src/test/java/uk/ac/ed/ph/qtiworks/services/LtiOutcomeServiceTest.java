@@ -0,0 +1,254 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
+import uk.ac.ed.ph.qtiworks.domain.entities.LtiLaunchType;
+import uk.ac.ed.ph.qtiworks.domain.entities.LtiUser;
+import uk.ac.ed.ph.qtiworks.domain.entities.QueuedLtiOutcome;
+import uk.ac.ed.ph.qtiworks.services.LtiOutcomeDispatcher.LisResult;
+import uk.ac.ed.ph.qtiworks.services.LtiOutcomeDispatcher.SendResult;
+import uk.ac.ed.ph.qtiworks.services.dao.CandidateSessionDao;
+import uk.ac.ed.ph.qtiworks.services.dao.QueuedLtiOutcomeDao;
+import uk.ac.ed.ph.qtiworks.testutils.TemporaryFilespaceFixture;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Pair;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+/**
+ * Tests how the {@link LtiOutcomeService} handles {@link QueuedLtiOutcome}s that the
+ * {@link LtiOutcomeDispatcher} defers because their Tool Consumer is currently failing.
+ * <p>
+ * This uses an in-memory stand-in for the {@link QueuedLtiOutcomeDao} and a dispatcher that
+ * defers everything it is given.
+ *
+ * @author David McKain
+ */
+public class LtiOutcomeServiceTest {
+
+    private static final long MINUTE = 60 * 1000L;
+
+    private Map<Long, QueuedLtiOutcome> queuedLtiOutcomeMap;
+    private List<LisResult> dispatchedLisResults;
+    private LtiOutcomeDispatcher ltiOutcomeDispatcher;
+    private LtiOutcomeService ltiOutcomeService;
+
+    @Before
+    public void setup() {
+        queuedLtiOutcomeMap = new TreeMap<Long, QueuedLtiOutcome>();
+        dispatchedLisResults = new ArrayList<LisResult>();
+        ltiOutcomeDispatcher = new LtiOutcomeDispatcher(1, 1, 0.0) {
+            @Override
+            public List<SendResult> dispatch(final List<LisResult> lisResults) {
+                dispatchedLisResults.addAll(lisResults);
+                return new ArrayList<SendResult>(Collections.nCopies(lisResults.size(), SendResult.DEFERRED));
+            }
+        };
+
+        final QtiWorksDeploymentSettings qtiWorksDeploymentSettings = new QtiWorksDeploymentSettings();
+        TemporaryFilespaceFixture.setField(qtiWorksDeploymentSettings, "ltiOutcomePageSize", Integer.valueOf(2));
+
+        ltiOutcomeService = new LtiOutcomeService();
+        TemporaryFilespaceFixture.setField(ltiOutcomeService, "auditLogger", new AuditLogger());
+        TemporaryFilespaceFixture.setField(ltiOutcomeService, "candidateSessionDao", new CandidateSessionDao() {
+            @Override
+            public CandidateSession update(final CandidateSession entity) {
+                return entity;
+            }
+        });
+        TemporaryFilespaceFixture.setField(ltiOutcomeService, "queuedLtiOutcomeDao", new QueuedLtiOutcomeDao() {
+            @Override
+            public List<QueuedLtiOutcome> getSupersededQueuedOutcomes() {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public List<QueuedLtiOutcome> getQueuedOutcomesPage(final long afterId, final Date dueTimestamp, final int maxResults) {
+                final List<QueuedLtiOutcome> result = new ArrayList<QueuedLtiOutcome>();
+                for (final QueuedLtiOutcome queuedLtiOutcome : queuedLtiOutcomeMap.values()) {
+                    if (result.size()<maxResults && queuedLtiOutcome.getId().longValue() > afterId
+                            && (dueTimestamp==null || queuedLtiOutcome.getRetryTime()==null
+                                || !queuedLtiOutcome.getRetryTime().after(dueTimestamp))) {
+                        result.add(queuedLtiOutcome);
+                    }
+                }
+                return result;
+            }
+
+            @Override
+            public QueuedLtiOutcome findById(final Long id) {
+                return queuedLtiOutcomeMap.get(id);
+            }
+
+            @Override
+            public QueuedLtiOutcome update(final QueuedLtiOutcome entity) {
+                return entity;
+            }
+
+            @Override
+            public void remove(final QueuedLtiOutcome entity) {
+                queuedLtiOutcomeMap.remove(entity.getId());
+            }
+
+            @Override
+            public void flush() {
+                /* (Nothing to do) */
+            }
+
+            @Override
+            public void clear() {
+                /* (Nothing to do) */
+            }
+        });
+        TemporaryFilespaceFixture.setField(ltiOutcomeService, "ltiOutcomeDispatcher", ltiOutcomeDispatcher);
+        TemporaryFilespaceFixture.setField(ltiOutcomeService, "qtiWorksDeploymentSettings", qtiWorksDeploymentSettings);
+        TemporaryFilespaceFixture.setField(ltiOutcomeService, "platformTransactionManager", new PlatformTransactionManager() {
+            @Override
+            public TransactionStatus getTransaction(final TransactionDefinition definition) {
+                return new SimpleTransactionStatus();
+            }
+
+            @Override
+            public void commit(final TransactionStatus status) {
+                /* (Nothing to do) */
+            }
+
+            @Override
+            public void rollback(final TransactionStatus status) {
+                /* (Nothing to do) */
+            }
+        });
+    }
+
+    @After
+    public void teardown() {
+        ltiOutcomeDispatcher.shutdown();
+    }
+
+    @Test
+    public void testDeferredOutcomesBackOff() {
+        final long now = System.currentTimeMillis();
+        final QueuedLtiOutcome newOutcome = queueOutcome(1L, now);
+        final QueuedLtiOutcome waitingOutcome = queueOutcome(2L, now - 100 * MINUTE);
+        final QueuedLtiOutcome oldOutcome = queueOutcome(3L, now - 1000 * MINUTE);
+
+        final Pair<Integer, Integer> result = ltiOutcomeService.sendQueuedLtiOutcomes(false);
+        Assert.assertEquals(3, dispatchedLisResults.size());
+        Assert.assertEquals(Integer.valueOf(0), result.getFirst());
+        Assert.assertEquals(Integer.valueOf(0), result.getSecond());
+        Assert.assertEquals(3, queuedLtiOutcomeMap.size());
+
+        /* Deferrals don't count as failures, but push the retry time back by (at least) as
+         * long as each outcome has already waited, within the allowed bounds */
+        assertRetryDelay(newOutcome, now, LtiOutcomeService.MIN_DEFERRAL_DELAY);
+        assertRetryDelay(waitingOutcome, now, 100 * MINUTE);
+        assertRetryDelay(oldOutcome, now, LtiOutcomeService.MAX_DEFERRAL_DELAY);
+
+        /* Deferred outcomes are not due again straight away... */
+        dispatchedLisResults.clear();
+        ltiOutcomeService.sendQueuedLtiOutcomes(false);
+        Assert.assertTrue(dispatchedLisResults.isEmpty());
+
+        /* ...unless retry times are ignored */
+        ltiOutcomeService.sendQueuedLtiOutcomes(true);
+        Assert.assertEquals(3, dispatchedLisResults.size());
+    }
+
+    @Test
+    public void testDeferralDelayDoubles() {
+        final long creationTime = System.currentTimeMillis();
+        final QueuedLtiOutcome queuedLtiOutcome = new QueuedLtiOutcome();
+        queuedLtiOutcome.setCreationTime(new Date(creationTime));
+
+        /* Retrying after each delay in turn should double the time waited so far */
+        long now = creationTime + 2 * MINUTE;
+        for (int i=0; i<7; i++) {
+            final long delay = LtiOutcomeService.computeDeferralDelay(queuedLtiOutcome, now);
+            Assert.assertEquals(now - creationTime, delay);
+            now += delay;
+        }
+        Assert.assertEquals(LtiOutcomeService.MAX_DEFERRAL_DELAY,
+                LtiOutcomeService.computeDeferralDelay(queuedLtiOutcome, now));
+    }
+
+    private void assertRetryDelay(final QueuedLtiOutcome queuedLtiOutcome, final long now, final long expectedDelay) {
+        Assert.assertEquals(0, queuedLtiOutcome.getFailureCount());
+        Assert.assertNotNull(queuedLtiOutcome.getRetryTime());
+        final long delay = queuedLtiOutcome.getRetryTime().getTime() - now;
+        Assert.assertTrue("Expected delay of about " + expectedDelay + "ms but got " + delay + "ms",
+                delay >= expectedDelay && delay < expectedDelay + MINUTE);
+    }
+
+    private QueuedLtiOutcome queueOutcome(final long id, final long creationTime) {
+        final Delivery delivery = new Delivery();
+        delivery.setLtiConsumerKeyToken("key");
+        delivery.setLtiConsumerSecret("secret");
+
+        final LtiUser candidate = new LtiUser();
+        candidate.setLogicalKey("candidate" + id);
+        candidate.setLtiLaunchType(LtiLaunchType.LINK);
+        candidate.setDelivery(delivery);
+
+        final CandidateSession candidateSession = new CandidateSession();
+        candidateSession.setCandidate(candidate);
+        candidateSession.setLisOutcomeServiceUrl("http://localhost/outcomes");
+        candidateSession.setLisResultSourcedid("sourcedid" + id);
+
+        final QueuedLtiOutcome queuedLtiOutcome = new QueuedLtiOutcome();
+        queuedLtiOutcome.setId(Long.valueOf(id));
+        queuedLtiOutcome.setCreationTime(new Date(creationTime));
+        queuedLtiOutcome.setCandidateSession(candidateSession);
+        queuedLtiOutcome.setScore(0.5);
+        queuedLtiOutcome.setFailureCount(0);
+        queuedLtiOutcomeMap.put(queuedLtiOutcome.getId(), queuedLtiOutcome);
+        return queuedLtiOutcome;
+    }
+}
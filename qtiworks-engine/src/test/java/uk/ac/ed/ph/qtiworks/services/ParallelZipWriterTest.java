@@ -0,0 +1,273 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+/**
+ * Tests the {@link ParallelZipWriter}.
+ * <p>
+ * (See <code>ParallelZipBenchmark</code> in qtiworks-code-examples for a comparison of its
+ * speed against {@link ZipOutputStream}.)
+ *
+ * @author David McKain
+ */
+public class ParallelZipWriterTest {
+
+    private ExecutorService executorService;
+
+    @Before
+    public void setup() {
+        executorService = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void teardown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final ParallelZipWriter zipWriter = new ParallelZipWriter(outputStream, executorService, 4, Deflater.DEFAULT_COMPRESSION);
+        zipWriter.finish();
+        Assert.assertEquals(0, zipWriter.getWrittenEntryCount());
+        Assert.assertNull(new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray())).getNextEntry());
+    }
+
+    @Test
+    public void testEntriesWrittenInOrder() throws Exception {
+        final List<byte[]> contents = createSyntheticResults(50);
+        final byte[] zipBytes = writeParallelZip(contents);
+        Assert.assertEquals(contents.size(), assertZipContents(zipBytes, contents));
+
+        /* Check central directory too */
+        final File zipFile = File.createTempFile("ParallelZipWriterTest", ".zip");
+        try {
+            Files.write(zipBytes, zipFile);
+            final ZipFile zip = new ZipFile(zipFile);
+            try {
+                Assert.assertEquals(contents.size(), zip.size());
+                final ZipEntry entry = zip.getEntry("result-7.xml");
+                Assert.assertEquals(contents.get(7).length, entry.getSize());
+                Assert.assertTrue(Arrays.equals(contents.get(7), ByteStreams.toByteArray(zip.getInputStream(entry))));
+            }
+            finally {
+                zip.close();
+            }
+        }
+        finally {
+            zipFile.delete();
+        }
+    }
+
+    @Test
+    public void testNonAsciiEntryName() throws Exception {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final ParallelZipWriter zipWriter = new ParallelZipWriter(outputStream, executorService, 4, Deflater.DEFAULT_COMPRESSION);
+        final byte[] content = new byte[0];
+        zipWriter.addEntry("assessmentResult-1-Zoë.xml", System.currentTimeMillis(), ByteSource.wrap(content));
+        zipWriter.finish();
+
+        final ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+        final ZipEntry entry = zipInputStream.getNextEntry();
+        Assert.assertEquals("assessmentResult-1-Zoë.xml", entry.getName());
+        Assert.assertEquals(0, ByteStreams.toByteArray(zipInputStream).length);
+    }
+
+    @Test(expected=IOException.class)
+    public void testFailingSource() throws Exception {
+        final ParallelZipWriter zipWriter = new ParallelZipWriter(new ByteArrayOutputStream(), executorService, 4, Deflater.DEFAULT_COMPRESSION);
+        zipWriter.addEntry("bad.xml", 0L, new ByteSource() {
+            @Override
+            public ByteArrayInputStream openStream() throws IOException {
+                throw new IOException("Simulated failure");
+            }
+        });
+        zipWriter.finish();
+    }
+
+    @Test
+    public void testSlowEarlierEntryStillWrittenFirst() throws Exception {
+        final CountDownLatch releaseFirstEntry = new CountDownLatch(1);
+        final byte[] firstContent = "first".getBytes(Charsets.UTF_8);
+        final byte[] secondContent = "second".getBytes(Charsets.UTF_8);
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final ParallelZipWriter zipWriter = new ParallelZipWriter(outputStream, executorService, 4, Deflater.DEFAULT_COMPRESSION);
+        zipWriter.addEntry("result-0.xml", 0L, new ByteSource() {
+            @Override
+            public ByteArrayInputStream openStream() throws IOException {
+                try {
+                    releaseFirstEntry.await();
+                }
+                catch (final InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return new ByteArrayInputStream(firstContent);
+            }
+        });
+        zipWriter.addEntry("result-1.xml", 0L, ByteSource.wrap(secondContent));
+
+        /* Second entry can't be written out until the first one is */
+        Thread.sleep(100);
+        Assert.assertEquals(0, zipWriter.getWrittenEntryCount());
+        releaseFirstEntry.countDown();
+        zipWriter.finish();
+        Assert.assertEquals(2, assertZipContents(outputStream.toByteArray(), Arrays.asList(firstContent, secondContent)));
+    }
+
+    @Test
+    public void testPendingEntriesBounded() throws Exception {
+        final int maxPendingEntries = 3;
+        final AtomicInteger readCount = new AtomicInteger();
+        final List<byte[]> contents = createSyntheticResults(20);
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final ParallelZipWriter zipWriter = new ParallelZipWriter(outputStream, executorService, maxPendingEntries, Deflater.DEFAULT_COMPRESSION);
+        for (int i=0; i<contents.size(); i++) {
+            zipWriter.addEntry("result-" + i + ".xml", 0L, countingSource(contents.get(i), readCount));
+
+            /* Everything added so far is either written out or pending */
+            Assert.assertTrue(i + 1 - zipWriter.getWrittenEntryCount() <= maxPendingEntries);
+        }
+        zipWriter.finish();
+        Assert.assertEquals(contents.size(), readCount.get());
+        Assert.assertEquals(contents.size(), assertZipContents(outputStream.toByteArray(), contents));
+    }
+
+    @Test
+    public void testMatchesZipOutputStreamContents() throws Exception {
+        final List<byte[]> contents = createSyntheticResults(200);
+        final byte[] parallelZipBytes = writeParallelZip(contents);
+        final byte[] sequentialZipBytes = writeSequentialZip(contents);
+        Assert.assertEquals(contents.size(), assertZipContents(parallelZipBytes, contents));
+        Assert.assertEquals(contents.size(), assertZipContents(sequentialZipBytes, contents));
+
+        /* Same Deflater settings, so the archives should be about the same size */
+        Assert.assertTrue(Math.abs(parallelZipBytes.length - sequentialZipBytes.length) < sequentialZipBytes.length / 10);
+    }
+
+    //----------------------------------------------------
+
+    private static ByteSource countingSource(final byte[] content, final AtomicInteger readCount) {
+        return new ByteSource() {
+            @Override
+            public ByteArrayInputStream openStream() {
+                readCount.incrementAndGet();
+                return new ByteArrayInputStream(content);
+            }
+        };
+    }
+
+    private List<byte[]> createSyntheticResults(final int count) {
+        final List<byte[]> result = new ArrayList<byte[]>(count);
+        for (int i=0; i<count; i++) {
+            final StringBuilder xmlBuilder = new StringBuilder("<assessmentResult xmlns=\"http://www.imsglobal.org/xsd/imsqti_result_v2p1\">\n")
+                .append("  <context><sessionIdentifier sourceID=\"http://localhost/qtiworks\" identifier=\"testsession/")
+                .append(i)
+                .append("\"/></context>\n");
+            for (int item=0; item<40; item++) {
+                xmlBuilder.append("  <itemResult identifier=\"item").append(item)
+                    .append("\" datestamp=\"2013-01-01T00:00:00\" sessionStatus=\"final\">\n")
+                    .append("    <responseVariable identifier=\"RESPONSE\" cardinality=\"single\" baseType=\"identifier\">")
+                    .append("<candidateResponse><value>Choice").append((i * 31 + item) % 5).append("</value></candidateResponse>")
+                    .append("</responseVariable>\n")
+                    .append("    <outcomeVariable identifier=\"SCORE\" cardinality=\"single\" baseType=\"float\">")
+                    .append("<value>").append((i + item) % 3).append("</value></outcomeVariable>\n")
+                    .append("  </itemResult>\n");
+            }
+            xmlBuilder.append("</assessmentResult>\n");
+            result.add(xmlBuilder.toString().getBytes(Charsets.UTF_8));
+        }
+        return result;
+    }
+
+    private byte[] writeParallelZip(final List<byte[]> contents) throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final ParallelZipWriter zipWriter = new ParallelZipWriter(outputStream, executorService, 16, Deflater.DEFAULT_COMPRESSION);
+        for (int i=0; i<contents.size(); i++) {
+            zipWriter.addEntry("result-" + i + ".xml", System.currentTimeMillis(), ByteSource.wrap(contents.get(i)));
+        }
+        zipWriter.finish();
+        return outputStream.toByteArray();
+    }
+
+    private byte[] writeSequentialZip(final List<byte[]> contents) throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
+        for (int i=0; i<contents.size(); i++) {
+            zipOutputStream.putNextEntry(new ZipEntry("result-" + i + ".xml"));
+            zipOutputStream.write(contents.get(i));
+            zipOutputStream.closeEntry();
+        }
+        zipOutputStream.finish();
+        return outputStream.toByteArray();
+    }
+
+    private int assertZipContents(final byte[] zipBytes, final List<byte[]> expectedContents) throws IOException {
+        final ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zipBytes));
+        int count = 0;
+        ZipEntry entry;
+        while ((entry = zipInputStream.getNextEntry())!=null) {
+            Assert.assertEquals("result-" + count + ".xml", entry.getName());
+            Assert.assertTrue(Arrays.equals(expectedContents.get(count), ByteStreams.toByteArray(zipInputStream)));
+            count++;
+        }
+        return count;
+    }
+}
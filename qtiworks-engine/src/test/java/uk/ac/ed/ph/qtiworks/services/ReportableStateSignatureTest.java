@@ -0,0 +1,110 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPlan;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNode;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNode.TestNodeType;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.value.FloatValue;
+import uk.ac.ed.ph.jqtiplus.value.IdentifierValue;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link ReportableStateSignature}
+ *
+ * @author David McKain
+ */
+public class ReportableStateSignatureTest {
+
+    private TestSessionState testSessionState;
+    private ItemSessionState itemSessionState;
+
+    @Before
+    public void setup() {
+        final TestPlanNode rootNode = TestPlanNode.createRoot();
+        final TestPlanNodeKey itemKey = new TestPlanNodeKey(Identifier.assumedLegal("i1"), 1, 1);
+        rootNode.addChild(new TestPlanNode(TestNodeType.ASSESSMENT_ITEM_REF, itemKey, null));
+        testSessionState = new TestSessionState(new TestPlan(rootNode));
+        itemSessionState = new ItemSessionState();
+        testSessionState.getItemSessionStates().put(itemKey, itemSessionState);
+        testSessionState.setOutcomeValue(Identifier.assumedLegal("SCORE"), new FloatValue(0.0));
+        itemSessionState.setResponseValue(Identifier.assumedLegal("RESPONSE"), new IdentifierValue("A"));
+    }
+
+    @Test
+    public void testUnchanged() {
+        final ReportableStateSignature before = ReportableStateSignature.compute(testSessionState);
+        Assert.assertEquals(before, ReportableStateSignature.compute(testSessionState));
+    }
+
+    @Test
+    public void testDurationOnlyChange() {
+        final ReportableStateSignature before = ReportableStateSignature.compute(testSessionState);
+        testSessionState.setDurationAccumulated(1000L);
+        itemSessionState.setDurationAccumulated(500L);
+        final ReportableStateSignature after = ReportableStateSignature.compute(testSessionState);
+        Assert.assertTrue(after.hasSameValues(before));
+        Assert.assertFalse(after.hasSameDurations(before));
+    }
+
+    @Test
+    public void testTestOutcomeChange() {
+        final ReportableStateSignature before = ReportableStateSignature.compute(testSessionState);
+        testSessionState.setOutcomeValue(Identifier.assumedLegal("SCORE"), new FloatValue(1.0));
+        final ReportableStateSignature after = ReportableStateSignature.compute(testSessionState);
+        Assert.assertFalse(after.hasSameValues(before));
+        Assert.assertTrue(after.hasSameDurations(before));
+    }
+
+    @Test
+    public void testItemResponseChange() {
+        final ReportableStateSignature before = ReportableStateSignature.compute(testSessionState);
+        itemSessionState.setResponseValue(Identifier.assumedLegal("RESPONSE"), new IdentifierValue("B"));
+        Assert.assertFalse(ReportableStateSignature.compute(testSessionState).hasSameValues(before));
+    }
+
+    @Test
+    public void testItemAttemptChange() {
+        final ReportableStateSignature before = ReportableStateSignature.compute(testSessionState);
+        itemSessionState.setNumAttempts(1);
+        Assert.assertFalse(ReportableStateSignature.compute(testSessionState).hasSameValues(before));
+    }
+}
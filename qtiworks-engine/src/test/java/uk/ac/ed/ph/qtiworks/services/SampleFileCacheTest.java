@@ -0,0 +1,116 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleAssessment;
+import uk.ac.ed.ph.qtiworks.samples.StandardQtiSampleSet;
+import uk.ac.ed.ph.qtiworks.services.SampleFileCache.SampleFile;
+
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ClassPathResourceLocator;
+
+import java.io.File;
+import java.io.InputStream;
+
+import javax.activation.FileTypeMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Tests the {@link SampleFileCache}
+ *
+ * @author David McKain
+ */
+public class SampleFileCacheTest {
+
+    private static final String SAMPLE_FILE_HREF = "ims/images/sign.png";
+
+    private static final FileTypeMap fileTypeMap = new FileTypeMap() {
+        @Override
+        public String getContentType(final String filename) {
+            return filename.endsWith(".png") ? "image/png" : "application/octet-stream";
+        }
+
+        @Override
+        public String getContentType(final File file) {
+            return getContentType(file.getName());
+        }
+    };
+
+    @Test
+    public void testCachedFile() throws Exception {
+        final SampleFileCache sampleFileCache = new SampleFileCache(Long.MAX_VALUE, fileTypeMap, StandardQtiSampleSet.instance());
+        final SampleFile sampleFile = sampleFileCache.getSampleFile(SAMPLE_FILE_HREF);
+        Assert.assertNotNull(sampleFile);
+
+        final byte[] expectedContent = readClassPathFile(SAMPLE_FILE_HREF);
+        Assert.assertEquals("image/png", sampleFile.getContentType());
+        Assert.assertEquals(expectedContent.length, sampleFile.getContentLength());
+        Assert.assertEquals(Hashing.sha256().hashBytes(expectedContent).toString(), sampleFile.getDigest());
+        Assert.assertArrayEquals(expectedContent, ByteStreams.toByteArray(sampleFile.openStream()));
+    }
+
+    @Test
+    public void testAssessmentSourcesCached() {
+        final SampleFileCache sampleFileCache = new SampleFileCache(Long.MAX_VALUE, fileTypeMap, StandardQtiSampleSet.instance());
+        for (final QtiSampleAssessment qtiSampleAssessment : StandardQtiSampleSet.instance()) {
+            Assert.assertNotNull(sampleFileCache.getSampleFile(qtiSampleAssessment.getAssessmentHref()));
+        }
+    }
+
+    @Test
+    public void testBounded() {
+        final SampleFileCache sampleFileCache = new SampleFileCache(1000L, fileTypeMap, StandardQtiSampleSet.instance());
+        Assert.assertNull(sampleFileCache.getSampleFile(SAMPLE_FILE_HREF));
+    }
+
+    @Test
+    public void testDisabled() {
+        final SampleFileCache sampleFileCache = new SampleFileCache(0L, fileTypeMap, StandardQtiSampleSet.instance());
+        Assert.assertEquals(0, sampleFileCache.size());
+    }
+
+    private static byte[] readClassPathFile(final String sampleHref) throws Exception {
+        final InputStream inputStream = new ClassPathResourceLocator().findResource(QtiSampleAssessment.toClassPathUri(sampleHref));
+        try {
+            return ByteStreams.toByteArray(inputStream);
+        }
+        finally {
+            inputStream.close();
+        }
+    }
+}
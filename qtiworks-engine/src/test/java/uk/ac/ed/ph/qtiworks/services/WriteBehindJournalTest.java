@@ -0,0 +1,250 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.domain.DomainConstants;
+import uk.ac.ed.ph.qtiworks.services.WriteBehindJournal.Batch;
+import uk.ac.ed.ph.qtiworks.services.WriteBehindJournal.RecordCodec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+/**
+ * Tests the {@link WriteBehindJournal}
+ *
+ * @author David McKain
+ */
+public class WriteBehindJournalTest {
+
+    private static final int MAX_BATCH_ATTEMPTS = 3;
+
+    private static final RecordCodec<String> STRING_CODEC = new RecordCodec<String>() {
+
+        @Override
+        public void writeRecord(final DataOutput output, final String record) throws IOException {
+            output.writeUTF(record);
+        }
+
+        @Override
+        public String readRecord(final DataInput input) throws IOException {
+            return input.readUTF();
+        }
+    };
+
+    private File journalDirectory;
+
+    @Before
+    public void setup() {
+        journalDirectory = Files.createTempDir();
+    }
+
+    @After
+    public void teardown() {
+        for (final File file : journalDirectory.listFiles()) {
+            file.delete();
+        }
+        journalDirectory.delete();
+    }
+
+    private WriteBehindJournal<String> createJournal(final int maxPendingRecords) {
+        return new WriteBehindJournal<String>(journalDirectory, STRING_CODEC, maxPendingRecords, MAX_BATCH_ATTEMPTS, 0L);
+    }
+
+    @Test
+    public void testEmpty() {
+        final WriteBehindJournal<String> journal = createJournal(10);
+        Assert.assertNull(journal.nextBatch());
+        Assert.assertEquals(0, journal.getPendingRecordCount());
+        Assert.assertEquals(0L, journal.getLag());
+    }
+
+    @Test
+    public void testAppendAndComplete() throws Exception {
+        final WriteBehindJournal<String> journal = createJournal(10);
+        journal.append(Arrays.asList("a", "b"));
+        journal.append(Arrays.asList("c"));
+        Assert.assertEquals(3, journal.getPendingRecordCount());
+        Assert.assertEquals(1, journalDirectory.listFiles().length);
+
+        final Batch<String> batch = journal.nextBatch();
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), batch.getRecords());
+        Assert.assertNull(journal.nextBatch());
+
+        /* New records go into a new segment */
+        journal.append(Arrays.asList("d"));
+        Assert.assertEquals(2, journalDirectory.listFiles().length);
+
+        journal.completeBatch(batch);
+        Assert.assertEquals(1, journal.getPendingRecordCount());
+        Assert.assertEquals(3L, journal.getCompletedRecordCount());
+        Assert.assertEquals(1, journalDirectory.listFiles().length);
+    }
+
+    @Test
+    public void testFailedBatchRetriedFirst() throws Exception {
+        final WriteBehindJournal<String> journal = createJournal(10);
+        journal.append(Arrays.asList("a"));
+        final Batch<String> batch = journal.nextBatch();
+        journal.append(Arrays.asList("b"));
+        journal.failBatch(batch);
+
+        Assert.assertSame(batch, journal.nextBatch());
+        Assert.assertEquals(Arrays.asList("b"), journal.nextBatch().getRecords());
+        Assert.assertEquals(1L, journal.getFailedBatchCount());
+        Assert.assertEquals(2, journal.getPendingRecordCount());
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        final WriteBehindJournal<String> journal = createJournal(10);
+        journal.append(Arrays.asList("a", "b"));
+        final String batchId = journal.nextBatch().getBatchId(); /* (Taken but never completed) */
+        journal.append(Arrays.asList("c"));
+        journal.close();
+
+        final WriteBehindJournal<String> recoveredJournal = createJournal(10);
+        Assert.assertEquals(3, recoveredJournal.getPendingRecordCount());
+        final Batch<String> batch1 = recoveredJournal.nextBatch();
+        final Batch<String> batch2 = recoveredJournal.nextBatch();
+        Assert.assertEquals(Arrays.asList("a", "b"), batch1.getRecords());
+        Assert.assertEquals(batchId, batch1.getBatchId());
+        Assert.assertEquals(Arrays.asList("c"), batch2.getRecords());
+        Assert.assertFalse(batchId.equals(batch2.getBatchId()));
+        Assert.assertNull(recoveredJournal.nextBatch());
+
+        /* New segments must not clash with recovered ones */
+        recoveredJournal.append(Arrays.asList("d"));
+        Assert.assertEquals(3, journalDirectory.listFiles().length);
+        recoveredJournal.completeBatch(batch1);
+        recoveredJournal.completeBatch(batch2);
+        Assert.assertEquals(Arrays.asList("d"), recoveredJournal.nextBatch().getRecords());
+    }
+
+    @Test
+    public void testRecoveryIgnoresPartialRecord() throws Exception {
+        final WriteBehindJournal<String> journal = createJournal(10);
+        journal.append(Arrays.asList("a"));
+        journal.close();
+
+        /* Simulate crash part way through writing a record */
+        final File segmentFile = journalDirectory.listFiles()[0];
+        final FileOutputStream outputStream = new FileOutputStream(segmentFile, true);
+        outputStream.write(new byte[] { 0, 0, 0, 100, 1, 2, 3 });
+        outputStream.close();
+
+        final WriteBehindJournal<String> recoveredJournal = createJournal(10);
+        Assert.assertEquals(Arrays.asList("a"), recoveredJournal.nextBatch().getRecords());
+    }
+
+    @Test
+    public void testOverloaded() throws Exception {
+        final WriteBehindJournal<String> journal = createJournal(2);
+        journal.append(Arrays.asList("a"));
+        Assert.assertFalse(journal.isOverloaded());
+        journal.append(Arrays.asList("b"));
+        Assert.assertTrue(journal.isOverloaded());
+
+        journal.completeBatch(journal.nextBatch());
+        Assert.assertFalse(journal.isOverloaded());
+    }
+
+    @Test
+    public void testFailedBatchQuarantined() throws Exception {
+        final WriteBehindJournal<String> journal = createJournal(10);
+        journal.append(Arrays.asList("a"));
+        Batch<String> batch = journal.nextBatch();
+        journal.append(Arrays.asList("b"));
+        for (int i=1; i<MAX_BATCH_ATTEMPTS; i++) {
+            Assert.assertFalse(journal.failBatch(batch));
+            batch = journal.nextBatch();
+            Assert.assertEquals(Arrays.asList("a"), batch.getRecords());
+        }
+        Assert.assertTrue(journal.failBatch(batch));
+        Assert.assertEquals(1L, journal.getQuarantinedSegmentCount());
+        Assert.assertEquals(1, journal.getPendingRecordCount());
+
+        /* Newer records carry on */
+        Assert.assertEquals(Arrays.asList("b"), journal.nextBatch().getRecords());
+        Assert.assertNull(journal.nextBatch());
+        journal.close();
+
+        /* Quarantined segment is kept but not recovered */
+        Assert.assertTrue(new File(journalDirectory, "segment-0.journal" + WriteBehindJournal.QUARANTINE_SUFFIX).isFile());
+        final WriteBehindJournal<String> recoveredJournal = createJournal(10);
+        Assert.assertEquals(Arrays.asList("b"), recoveredJournal.nextBatch().getRecords());
+        Assert.assertNull(recoveredJournal.nextBatch());
+    }
+
+    @Test
+    public void testFailedBatchDoesNotBlockNewerBatches() throws Exception {
+        final WriteBehindJournal<String> journal = new WriteBehindJournal<String>(journalDirectory, STRING_CODEC, 10,
+                MAX_BATCH_ATTEMPTS, DomainConstants.ONE_HOUR);
+        journal.append(Arrays.asList("a"));
+        final Batch<String> batch = journal.nextBatch();
+        journal.failBatch(batch);
+        journal.append(Arrays.asList("b"));
+
+        /* Failed batch isn't retried until its delay has passed */
+        Assert.assertEquals(Arrays.asList("b"), journal.nextBatch().getRecords());
+        Assert.assertNull(journal.nextBatch());
+        Assert.assertEquals(2, journal.getPendingRecordCount());
+    }
+
+    @Test
+    public void testUnreadableSegmentQuarantined() throws Exception {
+        final FileOutputStream outputStream = new FileOutputStream(new File(journalDirectory, "segment-4.journal"));
+        outputStream.write(new byte[] { 1, 2, 3, 4, 5 });
+        outputStream.close();
+
+        final WriteBehindJournal<String> journal = createJournal(10);
+        Assert.assertNull(journal.nextBatch());
+        Assert.assertEquals(1L, journal.getQuarantinedSegmentCount());
+        Assert.assertTrue(new File(journalDirectory, "segment-4.journal" + WriteBehindJournal.QUARANTINE_SUFFIX).isFile());
+
+        /* New segments must not clash with quarantined ones */
+        journal.append(Arrays.asList("a"));
+        Assert.assertTrue(new File(journalDirectory, "segment-5.journal").isFile());
+    }
+}
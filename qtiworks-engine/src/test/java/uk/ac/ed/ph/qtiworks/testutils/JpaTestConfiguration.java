@@ -0,0 +1,121 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.testutils;
+
+import uk.ac.ed.ph.qtiworks.services.RequestTimestampContext;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.hibernate.jpa.HibernatePersistenceProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Test Spring configuration providing the QTIWorks entities and DAOs on top of a fresh embedded
+ * H2 database, whose schema is created from the entity mappings. Each context gets its own
+ * database.
+ * <p>
+ * The JPA settings match those in the main services configuration. The SQL statements issued
+ * are counted by the {@link StatementCounter} bean.
+ *
+ * @author David McKain
+ */
+@Configuration
+@EnableTransactionManagement
+@ComponentScan(basePackages={"uk.ac.ed.ph.qtiworks.services.dao"})
+public class JpaTestConfiguration {
+
+    /** Used to give each context its own in-memory database */
+    private static final AtomicInteger databaseCounter = new AtomicInteger();
+
+    @Bean
+    public RequestTimestampContext requestTimestampContext() {
+        return new RequestTimestampContext();
+    }
+
+    @Bean
+    public StatementCounter statementCounter() {
+        return new StatementCounter();
+    }
+
+    @Bean
+    public DataSource dataSource() {
+        final DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:qtiworks" + databaseCounter.incrementAndGet() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        dataSource.setDriverClassName("org.h2.Driver");
+        return dataSource;
+    }
+
+    @Bean
+    public LocalContainerEntityManagerFactoryBean localContainerEntityManagerFactoryBean() {
+        final Properties jpaProperties = new Properties();
+        jpaProperties.put("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        jpaProperties.put("hibernate.hbm2ddl.auto", "create");
+        jpaProperties.put("hibernate.id.new_generator_mappings", Boolean.TRUE);
+        jpaProperties.put("hibernate.jdbc.batch_size", "50");
+        jpaProperties.put("hibernate.jdbc.batch_versioned_data", Boolean.TRUE);
+        jpaProperties.put("hibernate.order_inserts", Boolean.TRUE);
+        jpaProperties.put("hibernate.order_updates", Boolean.TRUE);
+        jpaProperties.put("hibernate.session_factory.statement_inspector", statementCounter());
+
+        final LocalContainerEntityManagerFactoryBean emf = new LocalContainerEntityManagerFactoryBean();
+        emf.setPersistenceProvider(new HibernatePersistenceProvider());
+        emf.setDataSource(dataSource());
+        emf.setJpaProperties(jpaProperties);
+        emf.setPackagesToScan("uk.ac.ed.ph.qtiworks.domain.entities");
+        return emf;
+    }
+
+    @Bean
+    public JpaTransactionManager jpaTransactionManager() {
+        final JpaTransactionManager jpaTransactionManager = new JpaTransactionManager();
+        jpaTransactionManager.setEntityManagerFactory(localContainerEntityManagerFactoryBean().getObject());
+        return jpaTransactionManager;
+    }
+
+    @Bean
+    public TransactionTemplate transactionTemplate() {
+        return new TransactionTemplate(jpaTransactionManager());
+    }
+
+}
@@ -0,0 +1,91 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.testutils;
+
+import java.util.Locale;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Counts the SQL statements prepared by Hibernate. (Batched statements are only prepared
+ * once per batch.)
+ *
+ * @see JpaTestConfiguration
+ *
+ * @author David McKain
+ */
+public final class StatementCounter implements StatementInspector {
+
+    private static final long serialVersionUID = 3961720513398312570L;
+
+    private int selectCount;
+    private int updateCount;
+    private int totalCount;
+
+    @Override
+    public synchronized String inspect(final String sql) {
+        final String normalisedSql = sql.trim().toLowerCase(Locale.ENGLISH);
+        if (normalisedSql.startsWith("select")) {
+            selectCount++;
+        }
+        else if (normalisedSql.startsWith("update")) {
+            updateCount++;
+        }
+        totalCount++;
+        return sql;
+    }
+
+    public synchronized void reset() {
+        selectCount = 0;
+        updateCount = 0;
+        totalCount = 0;
+    }
+
+    public synchronized int getSelectCount() {
+        return selectCount;
+    }
+
+    public synchronized int getUpdateCount() {
+        return updateCount;
+    }
+
+    public synchronized int getTotalCount() {
+        return totalCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "selects=" + selectCount + ",updates=" + updateCount + ",total=" + totalCount;
+    }
+}
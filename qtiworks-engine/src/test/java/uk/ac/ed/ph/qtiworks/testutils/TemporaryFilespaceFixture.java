@@ -0,0 +1,151 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.testutils;
+
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
+import uk.ac.ed.ph.qtiworks.domain.entities.Assessment;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEvent;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
+import uk.ac.ed.ph.qtiworks.domain.entities.SystemUser;
+import uk.ac.ed.ph.qtiworks.domain.entities.UserRole;
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleAssessment;
+import uk.ac.ed.ph.qtiworks.services.FilespaceManager;
+
+import uk.ac.ed.ph.jqtiplus.JqtiExtensionManager;
+import uk.ac.ed.ph.jqtiplus.node.AssessmentObjectType;
+import uk.ac.ed.ph.jqtiplus.reading.AssessmentObjectXmlLoader;
+import uk.ac.ed.ph.jqtiplus.reading.QtiXmlReader;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentTest;
+import uk.ac.ed.ph.jqtiplus.running.TestPlanner;
+import uk.ac.ed.ph.jqtiplus.running.TestProcessingInitializer;
+import uk.ac.ed.ph.jqtiplus.running.TestSessionController;
+import uk.ac.ed.ph.jqtiplus.running.TestSessionControllerSettings;
+import uk.ac.ed.ph.jqtiplus.state.TestProcessingMap;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ClassPathResourceLocator;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.ReflectionUtils;
+
+import com.google.common.io.Files;
+
+/**
+ * Sets up a {@link FilespaceManager} working on a temporary directory, together with
+ * (unsaved) entities and {@link TestSessionController}s, for testing services that store
+ * candidate session data without needing a database.
+ *
+ * @author David McKain
+ */
+public final class TemporaryFilespaceFixture {
+
+    private final File filesystemBase;
+    private final FilespaceManager filespaceManager;
+
+    public TemporaryFilespaceFixture() {
+        this.filesystemBase = Files.createTempDir();
+        final QtiWorksDeploymentSettings qtiWorksDeploymentSettings = new QtiWorksDeploymentSettings();
+        setField(qtiWorksDeploymentSettings, "filesystemBase", filesystemBase.getPath());
+        this.filespaceManager = new FilespaceManager();
+        setField(filespaceManager, "qtiWorksDeploymentSettings", qtiWorksDeploymentSettings);
+        filespaceManager.init();
+    }
+
+    public File getFilesystemBase() {
+        return filesystemBase;
+    }
+
+    public FilespaceManager getFilespaceManager() {
+        return filespaceManager;
+    }
+
+    public void destroy() throws IOException {
+        FileSystemUtils.deleteRecursively(filesystemBase);
+    }
+
+    public CandidateSession createCandidateSession(final long id, final AssessmentObjectType assessmentType) {
+        final Assessment assessment = new Assessment();
+        assessment.setId(Long.valueOf(1L));
+        assessment.setAssessmentType(assessmentType);
+
+        final Delivery delivery = new Delivery();
+        delivery.setId(Long.valueOf(1L));
+        delivery.setAssessment(assessment);
+
+        final SystemUser candidate = new SystemUser(UserRole.ANONYMOUS);
+        candidate.setLoginName("candidate");
+
+        final CandidateSession candidateSession = new CandidateSession();
+        candidateSession.setId(Long.valueOf(id));
+        candidateSession.setDelivery(delivery);
+        candidateSession.setCandidate(candidate);
+        return candidateSession;
+    }
+
+    public CandidateEvent createCandidateEvent(final CandidateSession candidateSession, final long id) {
+        final CandidateEvent candidateEvent = new CandidateEvent();
+        candidateEvent.setId(Long.valueOf(id));
+        candidateEvent.setCandidateSession(candidateSession);
+        return candidateEvent;
+    }
+
+    /**
+     * Creates a {@link TestSessionController} for a fresh (uninitialized) session on the
+     * sample test having the given href.
+     */
+    public static TestSessionController createTestSessionController(final String sampleHref) {
+        final JqtiExtensionManager jqtiExtensionManager = new JqtiExtensionManager();
+        final AssessmentObjectXmlLoader assessmentObjectXmlLoader = new AssessmentObjectXmlLoader(new QtiXmlReader(jqtiExtensionManager),
+                new ClassPathResourceLocator());
+        final ResolvedAssessmentTest resolvedAssessmentTest = assessmentObjectXmlLoader
+                .loadAndResolveAssessmentTest(QtiSampleAssessment.toClassPathUri(sampleHref));
+        final TestProcessingMap testProcessingMap = new TestProcessingInitializer(resolvedAssessmentTest, true).initialize();
+        final TestSessionState testSessionState = new TestSessionState(new TestPlanner(testProcessingMap).generateTestPlan());
+        return new TestSessionController(jqtiExtensionManager, new TestSessionControllerSettings(),
+                testProcessingMap, testSessionState);
+    }
+
+    /**
+     * Sets the (usually injected) field having the given name in the given target Object.
+     */
+    public static void setField(final Object target, final String fieldName, final Object value) {
+        final Field field = ReflectionUtils.findField(target.getClass(), fieldName);
+        ReflectionUtils.makeAccessible(field);
+        ReflectionUtils.setField(field, target, value);
+    }
+}
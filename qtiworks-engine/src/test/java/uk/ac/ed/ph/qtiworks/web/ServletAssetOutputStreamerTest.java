@@ -0,0 +1,96 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.web;
+
+import uk.ac.ed.ph.qtiworks.web.ServletAssetOutputStreamer.ByteRange;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the HTTP Range parsing in {@link ServletAssetOutputStreamer}
+ *
+ * @author David McKain
+ */
+public class ServletAssetOutputStreamerTest {
+
+    private static final long LENGTH = 1000L;
+
+    @Test
+    public void testClosedRange() {
+        assertRange(0L, 499L, ByteRange.parse("bytes=0-499", LENGTH));
+        assertRange(500L, 999L, ByteRange.parse("bytes=500-999", LENGTH));
+    }
+
+    @Test
+    public void testRangeTruncatedToLength() {
+        assertRange(500L, 999L, ByteRange.parse("bytes=500-5000", LENGTH));
+    }
+
+    @Test
+    public void testOpenRange() {
+        assertRange(900L, 999L, ByteRange.parse("bytes=900-", LENGTH));
+    }
+
+    @Test
+    public void testSuffixRange() {
+        assertRange(900L, 999L, ByteRange.parse("bytes=-100", LENGTH));
+        assertRange(0L, 999L, ByteRange.parse("bytes=-5000", LENGTH));
+    }
+
+    @Test
+    public void testUnsatisfiable() {
+        Assert.assertSame(ByteRange.UNSATISFIABLE, ByteRange.parse("bytes=1000-", LENGTH));
+        Assert.assertSame(ByteRange.UNSATISFIABLE, ByteRange.parse("bytes=-0", LENGTH));
+        Assert.assertSame(ByteRange.UNSATISFIABLE, ByteRange.parse("bytes=0-10", 0L));
+    }
+
+    @Test
+    public void testIgnored() {
+        Assert.assertNull(ByteRange.parse("items=0-10", LENGTH));
+        Assert.assertNull(ByteRange.parse("bytes=0-10,20-30", LENGTH));
+        Assert.assertNull(ByteRange.parse("bytes=10-5", LENGTH));
+        Assert.assertNull(ByteRange.parse("bytes=5--1", LENGTH));
+        Assert.assertNull(ByteRange.parse("bytes=abc", LENGTH));
+        Assert.assertNull(ByteRange.parse("bytes=-", LENGTH));
+    }
+
+    private static void assertRange(final long expectedStart, final long expectedEnd, final ByteRange byteRange) {
+        Assert.assertNotNull(byteRange);
+        Assert.assertTrue(byteRange.isSatisfiable());
+        Assert.assertEquals(expectedStart, byteRange.getStart());
+        Assert.assertEquals(expectedEnd, byteRange.getEnd());
+        Assert.assertEquals(expectedEnd - expectedStart + 1, byteRange.getLength());
+    }
+}
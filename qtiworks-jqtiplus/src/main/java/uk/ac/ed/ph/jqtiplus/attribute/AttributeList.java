@@ -72,6 +72,7 @@ import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
 import uk.ac.ed.ph.jqtiplus.node.LoadingContext;
 import uk.ac.ed.ph.jqtiplus.node.QtiNode;
 import uk.ac.ed.ph.jqtiplus.validation.ValidationContext;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlSourceLocationInformation;
 
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -82,6 +83,7 @@ import javax.xml.XMLConstants;
 
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
 
 /**
  * Container for all attributes of one node.
@@ -174,7 +176,49 @@ public final class AttributeList implements Serializable, Iterable<Attribute<?>>
      * @param element source {@link Element} to load attributes from
      */
     public void load(final Element element, final LoadingContext context) {
-        /* First clear existing attributes */
+        clearForLoading();
+
+        /* Set set values from element */
+        for (int i = 0; i < element.getAttributes().getLength(); i++) {
+            final Node attributeNode = element.getAttributes().item(i);
+            final Attribute<?> attribute = lookupForLoading(attributeNode.getLocalName(), attributeNode.getNamespaceURI());
+            if (attribute!=null) {
+                /* Load value into attribute */
+                final QtiParseException failure = loadAttribute(attribute, attributeNode.getNodeValue());
+                if (failure!=null) {
+                    context.modelBuildingError(failure, element);
+                }
+            }
+        }
+    }
+
+    /**
+     * Streaming counterpart of {@link #load(Element, LoadingContext)}, which loads attribute's
+     * values from the given SAX {@link Attributes}.
+     *
+     * @param elementNamespaceUri namespace URI of the source element, used when reporting errors
+     * @param elementLocalName local name of the source element, used when reporting errors
+     * @param saxAttributes SAX {@link Attributes} to load attributes from
+     * @param elementLocation location of the source element, used when reporting errors
+     */
+    public void load(final String elementNamespaceUri, final String elementLocalName, final Attributes saxAttributes,
+            final XmlSourceLocationInformation elementLocation, final LoadingContext context) {
+        clearForLoading();
+
+        /* Set set values from SAX attributes */
+        for (int i = 0, length = saxAttributes.getLength(); i < length; i++) {
+            final Attribute<?> attribute = lookupForLoading(saxAttributes.getLocalName(i), saxAttributes.getURI(i));
+            if (attribute!=null) {
+                /* Load value into attribute */
+                final QtiParseException failure = loadAttribute(attribute, saxAttributes.getValue(i));
+                if (failure!=null) {
+                    context.modelBuildingError(failure, elementLocalName, elementNamespaceUri, elementLocation);
+                }
+            }
+        }
+    }
+
+    private void clearForLoading() {
         for (int i = 0; i < attributes.size(); i++) {
             final Attribute<?> attribute = attributes.get(i);
             if (attribute instanceof ForeignAttribute) {
@@ -186,43 +230,47 @@ public final class AttributeList implements Serializable, Iterable<Attribute<?>>
                 attribute.setValue(null);
             }
         }
+    }
 
-        /* Set set values from element */
-        for (int i = 0; i < element.getAttributes().getLength(); i++) {
-            final Node attributeNode = element.getAttributes().item(i);
-            final String localName = attributeNode.getLocalName();
-            String namespaceUri = attributeNode.getNamespaceURI();
-            if (namespaceUri==null) {
-                namespaceUri = "";
-            }
-
-            if (XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI.equals(namespaceUri)) {
-                /* (xsi attributes get ignored in our model) */
-            }
-            else {
-                Attribute<?> attribute = get(localName, namespaceUri, true);
-                if (attribute==null) {
-                    /* Foreign attribute, so create new */
-                    attribute = new ForeignAttribute(owner, localName, namespaceUri);
-                    attributes.add(attribute);
-                }
-                /* Load value into attribute */
-                final String attributeValue = attributeNode.getNodeValue();
-                loadAttribute(attribute, element, attributeValue, context);
-            }
+    /**
+     * Finds the {@link Attribute} that should be loaded from an XML attribute having the given
+     * local name and namespace, creating a new {@link ForeignAttribute} if required.
+     *
+     * @return attribute to be loaded, or null if the XML attribute should be ignored
+     */
+    private Attribute<?> lookupForLoading(final String localName, final String namespaceUri) {
+        final String resolvedNamespaceUri = namespaceUri!=null ? namespaceUri : "";
+        if (XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI.equals(resolvedNamespaceUri)) {
+            /* (xsi attributes get ignored in our model) */
+            return null;
         }
+        Attribute<?> attribute = get(localName, resolvedNamespaceUri, true);
+        if (attribute==null) {
+            /* Foreign attribute, so create new */
+            attribute = new ForeignAttribute(owner, localName, resolvedNamespaceUri);
+            attributes.add(attribute);
+        }
+        return attribute;
     }
 
-    private static final <V> void loadAttribute(final Attribute<V> attribute, final Element element, final String stringValue, final LoadingContext context) {
+    /**
+     * Parses and sets the value of the given {@link Attribute}, setting it to null if the value
+     * could not be parsed.
+     *
+     * @return the resulting {@link QtiParseException} if the value could not be parsed, null otherwise
+     */
+    private static final <V> QtiParseException loadAttribute(final Attribute<V> attribute, final String stringValue) {
         Assert.notNull(stringValue, "stringValue");
         V value = null;
+        QtiParseException failure = null;
         try {
             value = attribute.parseDomAttributeValue(stringValue);
         }
         catch (final QtiParseException ex) {
-            context.modelBuildingError(ex, element);
+            failure = ex;
         }
         attribute.setValue(value);
+        return failure;
     }
 
     /**
@@ -50,6 +50,7 @@ import java.util.List;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.Text;
+import org.xml.sax.Attributes;
 
 /**
  * Partial implementation of {@link NodeGroup}
@@ -132,8 +133,10 @@ public abstract class AbstractNodeGroup<P extends QtiNode, C extends QtiNode> im
         try {
             final short nodeType = childNode.getNodeType();
             if (nodeType==Node.ELEMENT_NODE && supportsQtiClass(childNode.getLocalName())) {
-                final C child = createChild((Element) childNode, context.getJqtiExtensionManager());
-                child.load((Element) childNode, context);
+                final Element childElement = (Element) childNode;
+                final C child = createChild(childElement.getLocalName(), childElement.getAttribute("class"),
+                        context.getJqtiExtensionManager());
+                child.load(childElement, context);
                 children.add(child);
                 handled = true;
             }
@@ -151,22 +154,46 @@ public abstract class AbstractNodeGroup<P extends QtiNode, C extends QtiNode> im
         return handled;
     }
 
+    @Override
+    public C addChildIfSupported(final String localName, final Attributes attributes, final JqtiExtensionManager jqtiExtensionManager) {
+        C child = null;
+        if (supportsQtiClass(localName)) {
+            final String classAttributeValue = attributes.getValue("class");
+            child = createChild(localName, classAttributeValue!=null ? classAttributeValue : "", jqtiExtensionManager);
+            children.add(child);
+        }
+        return child;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean addTextIfSupported(final String textContent) {
+        boolean handled = false;
+        if (supportsQtiClass(TextRun.DISPLAY_NAME)) {
+            final TextRun child = (TextRun) create(TextRun.DISPLAY_NAME);
+            child.setTextContent(textContent);
+            children.add((C) child);
+            handled = true;
+        }
+        return handled;
+    }
+
     /**
+     * @param classAttributeValue value of the element's class attribute, only used for
+     *   custom operators and interactions.
+     *
      * @throws QtiIllegalChildException
      */
     @SuppressWarnings("unchecked")
-    private C createChild(final Element childElement, final JqtiExtensionManager jqtiExtensionManager) {
-        final String localName = childElement.getLocalName();
+    private C createChild(final String localName, final String classAttributeValue, final JqtiExtensionManager jqtiExtensionManager) {
         C child;
         if ("customOperator".equals(localName)) {
             /* See if required operator has been registered and instantiate if it so */
             final ExpressionParent expressionParent = (ExpressionParent) parent;
-            final String operatorClass = childElement.getAttribute("class");
-            child = (C) jqtiExtensionManager.createCustomOperator(expressionParent, operatorClass);
+            child = (C) jqtiExtensionManager.createCustomOperator(expressionParent, classAttributeValue);
         }
         else if ("customInteraction".equals(localName)) {
-            final String interactionClass = childElement.getAttribute("class");
-            child = (C) jqtiExtensionManager.createCustomInteraction(parent, interactionClass);
+            child = (C) jqtiExtensionManager.createCustomInteraction(parent, classAttributeValue);
         }
         else {
             child = create(localName);
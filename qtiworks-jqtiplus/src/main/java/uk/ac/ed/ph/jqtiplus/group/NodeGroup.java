@@ -33,17 +33,21 @@
  */
 package uk.ac.ed.ph.jqtiplus.group;
 
+import uk.ac.ed.ph.jqtiplus.JqtiExtensionManager;
 import uk.ac.ed.ph.jqtiplus.exception.QtiIllegalChildException;
+import uk.ac.ed.ph.jqtiplus.exception.QtiModelException;
 import uk.ac.ed.ph.jqtiplus.group.expression.ExpressionGroup;
 import uk.ac.ed.ph.jqtiplus.group.test.TestPartGroup;
 import uk.ac.ed.ph.jqtiplus.node.LoadingContext;
 import uk.ac.ed.ph.jqtiplus.node.QtiNode;
+import uk.ac.ed.ph.jqtiplus.node.content.basic.TextRun;
 import uk.ac.ed.ph.jqtiplus.validation.ValidationContext;
 
 import java.io.Serializable;
 import java.util.List;
 
 import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
 
 /**
  * Container a particular class of {@link QtiNode}s.
@@ -141,6 +145,29 @@ public interface NodeGroup<P extends QtiNode, C extends QtiNode> extends Seriali
      */
     boolean loadChildIfSupported(final Node childNode, final LoadingContext context);
 
+    /**
+     * Streaming counterpart of {@link #loadChildIfSupported(Node, LoadingContext)}, called when
+     * the start of a child element is encountered while building a model directly from SAX events.
+     * If this {@link NodeGroup} supports the element, a new child is created and added to it.
+     * The caller is responsible for loading the child.
+     *
+     * @param localName local name of the child element
+     * @param attributes SAX {@link Attributes} of the child element
+     * @param jqtiExtensionManager {@link JqtiExtensionManager} used to create custom children
+     * @return the newly added child, or null if this {@link NodeGroup} does not support the element
+     * @throws QtiModelException if the child could not be created
+     */
+    C addChildIfSupported(String localName, Attributes attributes, JqtiExtensionManager jqtiExtensionManager);
+
+    /**
+     * Streaming counterpart of {@link #loadChildIfSupported(Node, LoadingContext)} for text content.
+     * If this {@link NodeGroup} supports text then a new {@link TextRun} is added to it.
+     *
+     * @param textContent text content to add
+     * @return true if the text was added to this {@link NodeGroup}, false otherwise.
+     */
+    boolean addTextIfSupported(String textContent);
+
     /**
      * Creates child with given QTI class name.
      * <p>
@@ -34,6 +34,7 @@
 package uk.ac.ed.ph.jqtiplus.group;
 
 import uk.ac.ed.ph.jqtiplus.exception.QtiIllegalChildException;
+import uk.ac.ed.ph.jqtiplus.exception.QtiModelException;
 import uk.ac.ed.ph.jqtiplus.exception.QtiNodeGroupException;
 import uk.ac.ed.ph.jqtiplus.group.block.InteractionGroup;
 import uk.ac.ed.ph.jqtiplus.group.content.BlockGroup;
@@ -205,6 +206,7 @@ import uk.ac.ed.ph.jqtiplus.node.test.outcome.processing.OutcomeElseIf;
 import uk.ac.ed.ph.jqtiplus.node.test.outcome.processing.OutcomeIf;
 import uk.ac.ed.ph.jqtiplus.node.test.outcome.processing.OutcomeProcessing;
 import uk.ac.ed.ph.jqtiplus.node.test.outcome.processing.OutcomeRule;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlSourceLocationInformation;
 
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -214,6 +216,7 @@ import java.util.List;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.Attributes;
 
 /**
  * Container for all node groups contained (owned) by a particular {@link QtiNode}.
@@ -342,6 +345,74 @@ public final class NodeGroupList implements Serializable, Iterable<NodeGroup<?,?
         }
     }
 
+    /**
+     * Streaming counterpart of {@link #load(Element, LoadingContext)}, which prepares this container
+     * for loading by removing all existing children. New children are then added by
+     * {@link #loadChild(String, String, Attributes, XmlSourceLocationInformation, LoadingContext)} and
+     * {@link #loadText(String, XmlSourceLocationInformation, LoadingContext)} as their SAX events are
+     * received.
+     */
+    public void beginLoad() {
+        for (final NodeGroup<?,?> group : groups) {
+            group.getChildren().clear();
+        }
+    }
+
+    /**
+     * Streaming counterpart of {@link #load(Element, LoadingContext)}, called when the start of a child
+     * element is encountered. The new child is added to the first {@link NodeGroup} supporting it,
+     * but is not loaded.
+     *
+     * @param namespaceUri namespace URI of the child element
+     * @param localName local name of the child element
+     * @param attributes SAX {@link Attributes} of the child element
+     * @param location location of the child element, used for reporting errors
+     * @param context current {@link LoadingContext} callback
+     * @return the newly added child, or null if the child could not be added. (In this case, a
+     *   model building error will have been registered.)
+     */
+    public QtiNode loadChild(final String namespaceUri, final String localName, final Attributes attributes,
+            final XmlSourceLocationInformation location, final LoadingContext context) {
+        try {
+            for (final NodeGroup<?,?> group : groups) {
+                final QtiNode child = group.addChildIfSupported(localName, attributes, context.getJqtiExtensionManager());
+                if (child!=null) {
+                    return child;
+                }
+            }
+            /* No NodeGroup supports this child, so register error */
+            context.modelBuildingError(new QtiIllegalChildException(parent, localName), localName, namespaceUri, location);
+        }
+        catch (final QtiModelException e) {
+            context.modelBuildingError(e, localName, namespaceUri, location);
+        }
+        return null;
+    }
+
+    /**
+     * Streaming counterpart of {@link #load(Element, LoadingContext)}, called for each (coalesced) run of
+     * text content.
+     *
+     * @param textContent text content to add
+     * @param location location of the text content, used for reporting errors
+     * @param context current {@link LoadingContext} callback
+     */
+    public void loadText(final String textContent, final XmlSourceLocationInformation location, final LoadingContext context) {
+        for (final NodeGroup<?,?> group : groups) {
+            if (group.addTextIfSupported(textContent)) {
+                return;
+            }
+        }
+        /* No NodeGroup supports this text */
+        if (textContent.trim().isEmpty()) {
+            /* Whitespace, so we'll ignore this */
+        }
+        else {
+            /* Register error */
+            context.modelBuildingError(new QtiIllegalChildException(parent, "(text)"), null, null, location);
+        }
+    }
+
     /**
      * Removed all groups (children) from this container.
      */
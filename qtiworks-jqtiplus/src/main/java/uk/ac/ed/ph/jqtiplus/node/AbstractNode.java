@@ -50,6 +50,7 @@ import java.util.List;
 import java.util.NoSuchElementException;
 
 import org.w3c.dom.Element;
+import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 
 /**
@@ -188,6 +189,14 @@ public abstract class AbstractNode implements QtiNode {
         loadChildren(sourceElement, context);
     }
 
+    @Override
+    public void beginLoad(final String namespaceUri, final String localName, final Attributes saxAttributes,
+            final XmlSourceLocationInformation sourceLocation, final LoadingContext context) {
+        this.sourceLocation = sourceLocation;
+        attributes.load(namespaceUri, localName, saxAttributes, sourceLocation, context);
+        nodeGroups.beginLoad();
+    }
+
     /**
      * Loads all attributes from given xml source.
      *
@@ -35,12 +35,14 @@ package uk.ac.ed.ph.jqtiplus.node;
 
 import uk.ac.ed.ph.jqtiplus.JqtiExtensionManager;
 import uk.ac.ed.ph.jqtiplus.exception.QtiModelException;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlSourceLocationInformation;
 
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 /**
- * Callback interface passed to {@link AbstractNode#load(Element, LoadingContext)}
+ * Callback interface passed to {@link AbstractNode#load(Element, LoadingContext)},
+ * {@link AbstractNode#beginLoad(String, String, org.xml.sax.Attributes, XmlSourceLocationInformation, LoadingContext)}
  * and related methods, providing access to JQTI extensions, and a mechanism
  * for reporting model building errors.
  *
@@ -52,4 +54,15 @@ public interface LoadingContext {
 
     void modelBuildingError(QtiModelException exception, Node badNode);
 
+    /**
+     * Variant of {@link #modelBuildingError(QtiModelException, Node)} used when building the
+     * model directly from SAX events, when there is no DOM {@link Node} to hand.
+     *
+     * @param elementLocalName local name of the bad element, null if reporting bad text content
+     * @param elementNamespaceUri namespace URI of the bad element, null if reporting bad text content
+     * @param location location of the bad element or text content, which may be null
+     */
+    void modelBuildingError(QtiModelException exception, String elementLocalName, String elementNamespaceUri,
+            XmlSourceLocationInformation location);
+
 }
@@ -42,6 +42,7 @@ import uk.ac.ed.ph.jqtiplus.xmlutils.XmlSourceLocationInformation;
 import java.io.Serializable;
 
 import org.w3c.dom.Element;
+import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 
 /**
@@ -144,6 +145,15 @@ public interface QtiNode extends Serializable, Iterable<QtiNode> {
      */
     void load(Element sourceElement, LoadingContext context);
 
+    /**
+     * Streaming counterpart of {@link #load(Element, LoadingContext)}, used when building a model
+     * directly from SAX events. This records the location of the source element and loads
+     * attributes. Any existing children are removed, but no new children are loaded: these are
+     * added as their own SAX events are received.
+     */
+    void beginLoad(String namespaceUri, String localName, Attributes saxAttributes,
+            XmlSourceLocationInformation sourceLocation, LoadingContext context);
+
     /**
      * Validate this {@link QtiNode} and descends downwards.
      */
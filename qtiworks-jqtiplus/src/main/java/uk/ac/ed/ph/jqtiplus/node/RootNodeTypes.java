@@ -141,33 +141,47 @@ public enum RootNodeTypes {
     }
 
     /**
-     * Loads root node from given source node, checking namespaces
+     * Creates a QTI root node for an XML element with the given local name and namespace URI,
+     * checking that the namespace is appropriate.
      *
-     * @param sourceElement source node
-     * @return loaded root node
-     * @throws IllegalArgumentException if the given qtiClassName does not correspond to a root Node
+     * @param localName local name of the root element, i.e. the QTI_CLASS_NAME of the root node to create
+     * @param namespaceUri namespace URI of the root element
+     * @return created root node
+     * @throws IllegalArgumentException if the given localName does not correspond to a root Node, or
+     *   the namespace is incorrect
      * @throws QtiLogicException if the resulting {@link RootNode} could not be instantiated
      */
-    public static RootNode load(final Element sourceElement, final URI systemId, final LoadingContext context) {
-        final RootNode root = getInstance(sourceElement.getLocalName(), systemId);
+    public static RootNode getInstance(final String localName, final String namespaceUri, final URI systemId) {
+        final RootNode root = getInstance(localName, systemId);
 
         /* Check namespaces */
-        final String namespaceUri = sourceElement.getNamespaceURI();
         if (root instanceof AssessmentResult) {
             if (!QtiConstants.QTI_RESULT_21_NAMESPACE_URI.equals(namespaceUri)) {
                 throw new IllegalArgumentException("Element {" + namespaceUri
-                        + "}" + sourceElement.getLocalName()
+                        + "}" + localName
                         + " is not in the correct namespace " + QtiConstants.QTI_RESULT_21_NAMESPACE_URI);
             }
         }
         else {
             if (!QtiConstants.QTI_21_NAMESPACE_URI.equals(namespaceUri) && !QtiConstants.QTI_20_NAMESPACE_URI.equals(namespaceUri)) {
                 throw new IllegalArgumentException("Element {" + namespaceUri
-                        + "}" + sourceElement.getLocalName()
+                        + "}" + localName
                         + " is not in either the QTI 2.1 or 2.0 namespaces");
             }
         }
+        return root;
+    }
 
+    /**
+     * Loads root node from given source node, checking namespaces
+     *
+     * @param sourceElement source node
+     * @return loaded root node
+     * @throws IllegalArgumentException if the given qtiClassName does not correspond to a root Node
+     * @throws QtiLogicException if the resulting {@link RootNode} could not be instantiated
+     */
+    public static RootNode load(final Element sourceElement, final URI systemId, final LoadingContext context) {
+        final RootNode root = getInstance(sourceElement.getLocalName(), sourceElement.getNamespaceURI(), systemId);
         root.load(sourceElement, context);
         return root;
     }
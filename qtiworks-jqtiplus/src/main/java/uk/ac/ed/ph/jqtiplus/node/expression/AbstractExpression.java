@@ -35,6 +35,7 @@ package uk.ac.ed.ph.jqtiplus.node.expression;
 
 import uk.ac.ed.ph.jqtiplus.ToRefactor;
 import uk.ac.ed.ph.jqtiplus.group.expression.ExpressionGroup;
+import uk.ac.ed.ph.jqtiplus.internal.running.CompilingProcessingContext;
 import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
 import uk.ac.ed.ph.jqtiplus.node.AbstractNode;
 import uk.ac.ed.ph.jqtiplus.notification.NotificationLevel;
@@ -357,10 +358,24 @@ public abstract class AbstractExpression extends AbstractNode implements Express
 
     /**
      * Evaluates this Expression (and its children)
+     * <p>
+     * This uses the {@link CompiledExpression} created for this Expression by the
+     * {@link ExpressionCompiler} when available from a {@link CompilingProcessingContext},
+     * and the interpreter otherwise. (The interpreter
+     * is also used when debugging is enabled so that evaluations are still logged.)
      */
     @Override
     public final Value evaluate(final ProcessingContext context) {
-        final Value result = evaluate(context, 0);
+        final CompiledExpression compiledExpression = context instanceof CompilingProcessingContext
+                ? ((CompilingProcessingContext) context).getCompiledExpression(this)
+                : null;
+        final Value result;
+        if (compiledExpression!=null && !logger.isDebugEnabled()) {
+            result = compiledExpression.evaluate(context);
+        }
+        else {
+            result = evaluate(context, 0);
+        }
         Assert.notNull(result, "result of evaluation");
         return result;
     }
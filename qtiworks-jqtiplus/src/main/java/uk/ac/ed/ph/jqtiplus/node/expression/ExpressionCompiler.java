@@ -0,0 +1,309 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.node.expression;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.node.QtiNode;
+import uk.ac.ed.ph.jqtiplus.node.expression.general.BaseValue;
+import uk.ac.ed.ph.jqtiplus.node.expression.general.Null;
+import uk.ac.ed.ph.jqtiplus.node.expression.general.Variable;
+import uk.ac.ed.ph.jqtiplus.node.expression.operator.CustomOperator;
+import uk.ac.ed.ph.jqtiplus.node.shared.VariableType;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentTest;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedTestVariableReference;
+import uk.ac.ed.ph.jqtiplus.running.ItemProcessingInitializer;
+import uk.ac.ed.ph.jqtiplus.running.ProcessingContext;
+import uk.ac.ed.ph.jqtiplus.running.TestProcessingInitializer;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.utils.QueryUtils;
+import uk.ac.ed.ph.jqtiplus.utils.TreeWalkNodeHandler;
+import uk.ac.ed.ph.jqtiplus.value.NullValue;
+import uk.ac.ed.ph.jqtiplus.value.SingleValue;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compiles {@link Expression} trees within a valid item or test into trees of
+ * {@link CompiledExpression}s, which avoid the overheads of the tree-walking interpreter
+ * in {@link AbstractExpression}. (Validity checks, child type tests, logging checks and
+ * re-resolution of variable references on each evaluation.)
+ * <p>
+ * Constant expressions are bound to their values, and variable references are resolved to
+ * typed lookups at compile time. Other {@link AbstractFunctionalExpression}s are bound to
+ * their compiled children and invoked directly. Expressions this class does not understand
+ * (e.g. <code>customOperator</code> and <code>repeat</code>) are left to the interpreter, as are
+ * items and tests that are not valid.
+ * <p>
+ * This is used by {@link ItemProcessingInitializer} and {@link TestProcessingInitializer}.
+ * <p>
+ * Usage: an instance of this class may only be used by a single Thread. The resulting
+ * {@link CompiledExpression}s can be safely used by multiple Threads.
+ *
+ * @author David McKain
+ */
+public final class ExpressionCompiler {
+
+    private static final Value[] NO_VALUES = new Value[0];
+
+    /** Item variable types, keyed on identifier. Null when compiling tests. */
+    private final Map<Identifier, VariableType[]> itemVariableTypeMap;
+
+    /** Test being compiled. Null when compiling items. */
+    private final ResolvedAssessmentTest resolvedAssessmentTest;
+
+    private ExpressionCompiler(final Map<Identifier, VariableType[]> itemVariableTypeMap,
+            final ResolvedAssessmentTest resolvedAssessmentTest) {
+        this.itemVariableTypeMap = itemVariableTypeMap;
+        this.resolvedAssessmentTest = resolvedAssessmentTest;
+    }
+
+    /**
+     * Creates a compiler for expressions within an item having the given (valid) variable
+     * identifiers.
+     */
+    public static ExpressionCompiler forItem(final Set<Identifier> templateIdentifiers,
+            final Set<Identifier> responseIdentifiers, final Set<Identifier> outcomeIdentifiers) {
+        /* (Types are registered in reverse order of ItemProcessingContext's untyped lookups,
+         * so that the first type found there wins here too) */
+        final Map<Identifier, VariableType[]> itemVariableTypeMap = new HashMap<Identifier, VariableType[]>();
+        registerItemVariables(itemVariableTypeMap, responseIdentifiers, VariableType.RESPONSE);
+        registerItemVariables(itemVariableTypeMap, outcomeIdentifiers, VariableType.OUTCOME);
+        registerItemVariables(itemVariableTypeMap, templateIdentifiers, VariableType.TEMPLATE);
+        return new ExpressionCompiler(itemVariableTypeMap, null);
+    }
+
+    /**
+     * Creates a compiler for expressions within the given test.
+     */
+    public static ExpressionCompiler forTest(final ResolvedAssessmentTest resolvedAssessmentTest) {
+        Assert.notNull(resolvedAssessmentTest, "resolvedAssessmentTest");
+        return new ExpressionCompiler(null, resolvedAssessmentTest);
+    }
+
+    private static void registerItemVariables(final Map<Identifier, VariableType[]> itemVariableTypeMap,
+            final Set<Identifier> identifiers, final VariableType variableType) {
+        final VariableType[] variableTypes = new VariableType[] { variableType };
+        for (final Identifier identifier : identifiers) {
+            itemVariableTypeMap.put(identifier, variableTypes);
+        }
+    }
+
+    //-------------------------------------------------------------------
+
+    /**
+     * Compiles all root {@link Expression}s found within the given {@link QtiNode}(s),
+     * i.e. those whose parents are not themselves {@link Expression}s.
+     *
+     * @return Map of resulting {@link CompiledExpression}s, keyed on identity of the root
+     *   {@link Expression}. Roots that could not be compiled are omitted.
+     */
+    public Map<Expression, CompiledExpression> compileRootExpressions(final Iterable<? extends QtiNode> nodes) {
+        final Map<Expression, CompiledExpression> result = new IdentityHashMap<Expression, CompiledExpression>();
+        QueryUtils.walkTree(new TreeWalkNodeHandler() {
+            @Override
+            public boolean handleNode(final QtiNode node) {
+                if (node instanceof Expression) {
+                    final Expression expression = (Expression) node;
+                    final CompiledExpression compiledExpression = compileExpression(expression, 0);
+                    if (compiledExpression!=null) {
+                        result.put(expression, compiledExpression);
+                    }
+                    /* Don't descend into child expressions */
+                    return false;
+                }
+                return true;
+            }
+        }, nodes);
+        return result;
+    }
+
+    /**
+     * Compiles the given {@link Expression} tree.
+     *
+     * @return resulting {@link CompiledExpression}, or null if the given {@link Expression}
+     *   should be left to the interpreter.
+     */
+    public CompiledExpression compile(final Expression expression) {
+        Assert.notNull(expression, "expression");
+        return compileExpression(expression, 0);
+    }
+
+    private CompiledExpression compileExpression(final Expression expression, final int depth) {
+        if (expression instanceof BaseValue) {
+            final SingleValue value = ((BaseValue) expression).getSingleValue();
+            if (value!=null) {
+                return new ConstantExpression(value);
+            }
+        }
+        else if (expression instanceof Null) {
+            return new ConstantExpression(NullValue.INSTANCE);
+        }
+        else if (expression instanceof Variable) {
+            final CompiledExpression result = compileVariable((Variable) expression);
+            if (result!=null) {
+                return result;
+            }
+        }
+        if (expression instanceof AbstractFunctionalExpression && !(expression instanceof CustomOperator)) {
+            final List<Expression> children = expression.getExpressions();
+            final CompiledExpression[] compiledChildren = new CompiledExpression[children.size()];
+            for (int i=0; i<compiledChildren.length; i++) {
+                final Expression child = children.get(i);
+                final CompiledExpression compiledChild = compileExpression(child, depth + 1);
+                compiledChildren[i] = compiledChild!=null ? compiledChild : new InterpretedExpression(child);
+            }
+            return new FunctionalExpression((AbstractFunctionalExpression) expression, compiledChildren, depth);
+        }
+        return null;
+    }
+
+    private CompiledExpression compileVariable(final Variable variable) {
+        if (variable.getIdentifier()==null || variable.getWeightIdentifier()!=null) {
+            return null;
+        }
+        if (itemVariableTypeMap!=null) {
+            /* Resolve to the type of variable within this item */
+            final Identifier identifier = Identifier.assumedLegal(variable.getIdentifier().toString());
+            final VariableType[] variableTypes = itemVariableTypeMap.get(identifier);
+            return variableTypes!=null ? new VariableLookupExpression(identifier, variableTypes) : null;
+        }
+        else {
+            /* Only variables in the test itself are resolved here. References to item variables
+             * depend on the current test plan so are left to LookupExpression. */
+            final List<ResolvedTestVariableReference> resolvedReferences = resolvedAssessmentTest.resolveVariableReference(variable.getIdentifier());
+            if (resolvedReferences==null || resolvedReferences.size()!=1 || !resolvedReferences.get(0).isTestVariableReference()) {
+                return null;
+            }
+            final Identifier identifier = resolvedReferences.get(0).getVariableDeclaration().getIdentifier();
+            return new VariableLookupExpression(identifier, new VariableType[0]);
+        }
+    }
+
+    //-------------------------------------------------------------------
+
+    /**
+     * Evaluates to a fixed value.
+     */
+    static final class ConstantExpression implements CompiledExpression {
+
+        private static final long serialVersionUID = -2469209651539853380L;
+
+        private final Value value;
+
+        ConstantExpression(final Value value) {
+            this.value = value;
+        }
+
+        @Override
+        public Value evaluate(final ProcessingContext context) {
+            return value;
+        }
+    }
+
+    /**
+     * Looks up the value of a variable having a known identifier and type.
+     */
+    static final class VariableLookupExpression implements CompiledExpression {
+
+        private static final long serialVersionUID = 4129526498153407335L;
+
+        private final Identifier identifier;
+        private final VariableType[] variableTypes;
+
+        VariableLookupExpression(final Identifier identifier, final VariableType[] variableTypes) {
+            this.identifier = identifier;
+            this.variableTypes = variableTypes;
+        }
+
+        @Override
+        public Value evaluate(final ProcessingContext context) {
+            return context.evaluateVariableValue(identifier, variableTypes);
+        }
+    }
+
+    /**
+     * Evaluates an {@link AbstractFunctionalExpression} using the values of its
+     * compiled children.
+     */
+    static final class FunctionalExpression implements CompiledExpression {
+
+        private static final long serialVersionUID = 7751385938004616213L;
+
+        private final AbstractFunctionalExpression expression;
+        private final CompiledExpression[] children;
+        private final int depth;
+
+        FunctionalExpression(final AbstractFunctionalExpression expression, final CompiledExpression[] children, final int depth) {
+            this.expression = expression;
+            this.children = children;
+            this.depth = depth;
+        }
+
+        @Override
+        public Value evaluate(final ProcessingContext context) {
+            Value[] childValues = NO_VALUES;
+            if (children.length > 0) {
+                childValues = new Value[children.length];
+                for (int i=0; i<children.length; i++) {
+                    childValues[i] = children[i].evaluate(context);
+                }
+            }
+            return expression.evaluateValidSelf(context, childValues, depth);
+        }
+    }
+
+    /**
+     * Falls back to the interpreter for an {@link Expression} that could not be compiled.
+     */
+    static final class InterpretedExpression implements CompiledExpression {
+
+        private static final long serialVersionUID = -5620391842766016874L;
+
+        private final Expression expression;
+
+        InterpretedExpression(final Expression expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        public Value evaluate(final ProcessingContext context) {
+            return expression.evaluate(context);
+        }
+    }
+}
@@ -44,6 +44,7 @@ import uk.ac.ed.ph.jqtiplus.validation.TestValidationResult;
 import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator;
 
 import java.net.URI;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Convenient facade for loading, resolving and validating {@link AssessmentItem}s
@@ -60,10 +61,24 @@ public final class AssessmentObjectXmlLoader {
 
     private final QtiXmlReader qtiXmlReader;
     private final ResourceLocator inputResourceLocator;
+    private final ExecutorService itemResolutionExecutor;
 
     public AssessmentObjectXmlLoader(final QtiXmlReader qtiXmlReader, final ResourceLocator inputResourceLocator) {
+        this(qtiXmlReader, inputResourceLocator, null);
+    }
+
+    /**
+     * @param itemResolutionExecutor optional {@link ExecutorService} to use for loading and
+     *   resolving the items within tests in parallel, or null to do this sequentially.
+     *   (The {@link ResourceLocator} must be thread-safe if this is used.)
+     *
+     * @see AssessmentObjectResolver
+     */
+    public AssessmentObjectXmlLoader(final QtiXmlReader qtiXmlReader, final ResourceLocator inputResourceLocator,
+            final ExecutorService itemResolutionExecutor) {
         this.qtiXmlReader = qtiXmlReader;
         this.inputResourceLocator = inputResourceLocator;
+        this.itemResolutionExecutor = itemResolutionExecutor;
     }
 
     public QtiXmlReader getQtiXmlReader() {
@@ -74,6 +89,10 @@ public final class AssessmentObjectXmlLoader {
         return inputResourceLocator;
     }
 
+    public ExecutorService getItemResolutionExecutor() {
+        return itemResolutionExecutor;
+    }
+
     //-------------------------------------------------------------------
     // AssessmentItem resolution & validation
 
@@ -95,13 +114,13 @@ public final class AssessmentObjectXmlLoader {
 
     public ResolvedAssessmentTest loadAndResolveAssessmentTest(final URI systemId) {
         final QtiObjectReader qtiObjectReader = qtiXmlReader.createQtiObjectReader(inputResourceLocator, false);
-        final AssessmentObjectResolver assessmentObjectResolver = new AssessmentObjectResolver(qtiObjectReader);
+        final AssessmentObjectResolver assessmentObjectResolver = new AssessmentObjectResolver(qtiObjectReader, itemResolutionExecutor);
         return assessmentObjectResolver.resolveAssessmentTest(systemId);
     }
 
     public TestValidationResult loadResolveAndValidateTest(final URI systemId) {
         final QtiObjectReader qtiObjectReader = qtiXmlReader.createQtiObjectReader(inputResourceLocator, true);
-        final ResolvedAssessmentTest resolvedAssessmentTest = new AssessmentObjectResolver(qtiObjectReader).resolveAssessmentTest(systemId);
+        final ResolvedAssessmentTest resolvedAssessmentTest = new AssessmentObjectResolver(qtiObjectReader, itemResolutionExecutor).resolveAssessmentTest(systemId);
         final AssessmentObjectValidator assessmentObjectValidator = new AssessmentObjectValidator(qtiObjectReader.getJqtiExtensionManager());
         return assessmentObjectValidator.validateTest(resolvedAssessmentTest);
     }
@@ -113,6 +132,7 @@ public final class AssessmentObjectXmlLoader {
         return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
                 + "(qtiXmlReader=" + qtiXmlReader
                 + ",inputResourceLocator=" + inputResourceLocator
+                + ",itemResolutionExecutor=" + itemResolutionExecutor
                 + ")";
     }
 }
@@ -0,0 +1,306 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.reading;
+
+import uk.ac.ed.ph.jqtiplus.exception.QtiModelException;
+import uk.ac.ed.ph.jqtiplus.group.NodeGroup;
+import uk.ac.ed.ph.jqtiplus.node.AbstractNode;
+import uk.ac.ed.ph.jqtiplus.node.LoadingContext;
+import uk.ac.ed.ph.jqtiplus.node.QtiNode;
+import uk.ac.ed.ph.jqtiplus.node.RootNode;
+import uk.ac.ed.ph.jqtiplus.node.RootNodeTypes;
+import uk.ac.ed.ph.jqtiplus.xmlutils.SimpleDomBuilderHandler;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlSourceLocationInformation;
+
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * SAX {@link DefaultHandler} that builds a JQTI+ Object model directly from SAX parsing events,
+ * without building a DOM for the whole document first.
+ * <p>
+ * Each {@link QtiNode} is created and starts loading when its start tag is encountered, with its
+ * children being added as their own events arrive. Nodes that load their content directly from a
+ * DOM {@link Element} (i.e. those overriding <code>loadChildren()</code>, such as MathML, other
+ * foreign content and <code>baseValue</code>) are instead loaded from a small DOM built for just
+ * that element, which is discarded afterwards. The resulting model is the same as would be
+ * obtained via {@link RootNodeTypes#load(Element, URI, LoadingContext)}.
+ * <p>
+ * Source locations are recorded in the same way as {@link SimpleDomBuilderHandler}, so
+ * validation messages are unaffected.
+ * <p>
+ * Usage: not thread safe, not reusable. Callers should check that the parse succeeded
+ * before using the resulting model.
+ *
+ * @see QtiObjectReader
+ *
+ * @author David McKain
+ */
+final class QtiModelBuildingHandler extends DefaultHandler {
+
+    /** Records whether each {@link QtiNode} Class needs to be loaded from a DOM {@link Element} */
+    private static final ConcurrentMap<Class<?>, Boolean> domLoadingRequiredMap = new ConcurrentHashMap<Class<?>, Boolean>();
+
+    private final QtiXmlReader qtiXmlReader;
+    private final URI systemId;
+    private final LoadingContext loadingContext;
+
+    /** SAX Locator details */
+    private Locator locator;
+
+    /** Nodes currently being loaded, innermost first */
+    private final Deque<QtiNode> nodeStack;
+
+    /** Coalesces SAX character events */
+    private final StringBuilder textBuilder;
+
+    /** Depth within an element that is being skipped over, 0 if not skipping */
+    private int skipDepth;
+
+    /** Builds the DOM for the Node currently being loaded from a DOM, null if not doing this */
+    private SimpleDomBuilderHandler fragmentBuilder;
+    private Document fragmentDocument;
+    private QtiNode fragmentNode;
+    private int fragmentDepth;
+
+    private RootNode rootNode;
+    private String rootElementNamespaceUri;
+    private String rootElementLocalName;
+
+    public QtiModelBuildingHandler(final QtiXmlReader qtiXmlReader, final URI systemId, final LoadingContext loadingContext) {
+        this.qtiXmlReader = qtiXmlReader;
+        this.systemId = systemId;
+        this.loadingContext = loadingContext;
+        this.locator = null;
+        this.nodeStack = new ArrayDeque<QtiNode>();
+        this.textBuilder = new StringBuilder();
+        this.skipDepth = 0;
+    }
+
+    /**
+     * Returns the resulting {@link RootNode}, or null if the root element did not correspond to a
+     * supported {@link RootNode}.
+     */
+    public RootNode getRootNode() {
+        return rootNode;
+    }
+
+    public String getRootElementNamespaceUri() {
+        return rootElementNamespaceUri;
+    }
+
+    public String getRootElementLocalName() {
+        return rootElementLocalName;
+    }
+
+    //--------------------------------------------------------------------------
+
+    @Override
+    public void setDocumentLocator(final Locator locator) {
+        this.locator = locator;
+    }
+
+    @Override
+    public void startElement(final String uri, final String localName, final String qName, final Attributes attributes) {
+        if (skipDepth > 0) {
+            skipDepth++;
+            return;
+        }
+        if (fragmentBuilder!=null) {
+            fragmentDepth++;
+            fragmentBuilder.startElement(uri, localName, qName, attributes);
+            return;
+        }
+        addAnyCoalescedText();
+
+        /* Create Node for this element */
+        final XmlSourceLocationInformation location = createLocationInformation();
+        final QtiNode node;
+        if (nodeStack.isEmpty()) {
+            rootElementNamespaceUri = uri;
+            rootElementLocalName = localName;
+            try {
+                rootNode = RootNodeTypes.getInstance(localName, uri, systemId);
+            }
+            catch (final IllegalArgumentException e) {
+                /* Unsupported root Node type, so skip whole document */
+                skipDepth = 1;
+                return;
+            }
+            node = rootNode;
+        }
+        else {
+            node = nodeStack.peek().getNodeGroups().loadChild(uri, localName, attributes, location, loadingContext);
+            if (node==null) {
+                /* Not supported (and error will have been recorded), so skip this element */
+                skipDepth = 1;
+                return;
+            }
+        }
+
+        /* Start loading the new Node */
+        if (isDomLoadingRequired(node.getClass())) {
+            fragmentDocument = qtiXmlReader.newDocument();
+            fragmentBuilder = new SimpleDomBuilderHandler(fragmentDocument);
+            fragmentBuilder.setDocumentLocator(locator);
+            fragmentBuilder.startDocument();
+            fragmentBuilder.startElement(uri, localName, qName, attributes);
+            fragmentNode = node;
+            fragmentDepth = 1;
+        }
+        else {
+            node.beginLoad(uri, localName, attributes, location, loadingContext);
+            nodeStack.push(node);
+        }
+    }
+
+    @Override
+    public void characters(final char[] ch, final int start, final int length) {
+        if (skipDepth > 0) {
+            return;
+        }
+        if (fragmentBuilder!=null) {
+            fragmentBuilder.characters(ch, start, length);
+            return;
+        }
+        /* (Coalesce adjacent runs of characters together, as in SimpleDomBuilderHandler) */
+        textBuilder.append(ch, start, length);
+    }
+
+    @Override
+    public void endElement(final String uri, final String localName, final String qName) {
+        if (skipDepth > 0) {
+            skipDepth--;
+            return;
+        }
+        if (fragmentBuilder!=null) {
+            fragmentBuilder.endElement(uri, localName, qName);
+            if (--fragmentDepth==0) {
+                fragmentBuilder.endDocument();
+                loadFragmentNode();
+            }
+            return;
+        }
+        addAnyCoalescedText();
+        nodeStack.pop();
+    }
+
+    /**
+     * Loads the current {@link #fragmentNode} from the DOM that has just been built for it, then
+     * discards that DOM.
+     */
+    private void loadFragmentNode() {
+        final Element element = fragmentDocument.getDocumentElement();
+        try {
+            fragmentNode.load(element, loadingContext);
+        }
+        catch (final QtiModelException e) {
+            loadingContext.modelBuildingError(e, element);
+
+            /* Remove the Node we added, as happens when loading from a DOM */
+            if (!nodeStack.isEmpty()) {
+                for (final NodeGroup<?,?> nodeGroup : nodeStack.peek().getNodeGroups()) {
+                    nodeGroup.getChildren().remove(fragmentNode);
+                }
+            }
+        }
+        finally {
+            fragmentBuilder = null;
+            fragmentDocument = null;
+            fragmentNode = null;
+        }
+    }
+
+    private void addAnyCoalescedText() {
+        if (textBuilder.length() > 0) {
+            if (!nodeStack.isEmpty()) {
+                nodeStack.peek().getNodeGroups().loadText(textBuilder.toString(), createLocationInformation(), loadingContext);
+            }
+            textBuilder.setLength(0);
+        }
+    }
+
+    private XmlSourceLocationInformation createLocationInformation() {
+        if (locator != null) {
+            return new XmlSourceLocationInformation(locator.getPublicId(), locator.getSystemId(), locator.getColumnNumber(),
+                    locator.getLineNumber());
+        }
+        return null;
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Decides whether Nodes of the given Class need to be loaded from a DOM {@link Element}, which is the
+     * case if it overrides any of the DOM-based loading methods in {@link AbstractNode}.
+     */
+    static boolean isDomLoadingRequired(final Class<?> nodeClass) {
+        Boolean result = domLoadingRequiredMap.get(nodeClass);
+        if (result==null) {
+            result = Boolean.FALSE;
+            for (Class<?> currentClass = nodeClass; currentClass!=null && currentClass!=AbstractNode.class; currentClass = currentClass.getSuperclass()) {
+                if (declaresDomLoadingMethod(currentClass)) {
+                    result = Boolean.TRUE;
+                    break;
+                }
+            }
+            domLoadingRequiredMap.put(nodeClass, result);
+        }
+        return result.booleanValue();
+    }
+
+    private static boolean declaresDomLoadingMethod(final Class<?> nodeClass) {
+        for (final Method method : nodeClass.getDeclaredMethods()) {
+            final String methodName = method.getName();
+            final Class<?>[] parameterTypes = method.getParameterTypes();
+            if (("load".equals(methodName) || "loadAttributes".equals(methodName) || "loadChildren".equals(methodName))
+                    && parameterTypes.length==2
+                    && parameterTypes[0]==Element.class
+                    && parameterTypes[1]==LoadingContext.class) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -53,6 +53,7 @@ import uk.ac.ed.ph.jqtiplus.xmlutils.XmlReadResult;
 import uk.ac.ed.ph.jqtiplus.xmlutils.XmlResourceNotFoundException;
 import uk.ac.ed.ph.jqtiplus.xmlutils.XmlResourceReader;
 import uk.ac.ed.ph.jqtiplus.xmlutils.XmlResourceReaderException;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlSourceLocationInformation;
 import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ChainedResourceLocator;
 import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator;
 
@@ -62,7 +63,6 @@ import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
@@ -70,7 +70,13 @@ import org.w3c.dom.Node;
  * Default implementation of {@link RootNodeProvider}, which uses a {@link QtiXmlReader} to
  * instantiate QTI {@link RootNode}s by parsing (and optionally schema-validating) XML.
  * <p>
+ * By default, the XML is parsed into a DOM, which is then used to build the QTI Object model.
+ * In streaming mode, the model is instead built directly from the SAX parsing events
+ * using a {@link QtiModelBuildingHandler}, which avoids holding a DOM for the whole document.
+ * The resulting models are the same in both cases.
+ * <p>
  * Instantiate this via {@link QtiXmlReader#createQtiObjectReader(ResourceLocator, boolean)}
+ * or {@link QtiXmlReader#createQtiObjectReader(ResourceLocator, boolean, boolean)}
  *
  * @author David McKain
  */
@@ -81,11 +87,14 @@ public final class QtiObjectReader implements RootNodeProvider {
     private final QtiXmlReader qtiXmlReader;
     private final ResourceLocator inputResourceLocator;
     private final boolean schemaValidating;
+    private final boolean streaming;
 
-    QtiObjectReader(final QtiXmlReader qtiXmlReader, final ResourceLocator inputResourceLocator, final boolean schemaValidating) {
+    QtiObjectReader(final QtiXmlReader qtiXmlReader, final ResourceLocator inputResourceLocator, final boolean schemaValidating,
+            final boolean streaming) {
         this.qtiXmlReader = qtiXmlReader;
         this.inputResourceLocator = inputResourceLocator;
         this.schemaValidating = schemaValidating;
+        this.streaming = streaming;
     }
 
     public QtiXmlReader getQtiXmlReader() {
@@ -100,6 +109,14 @@ public final class QtiObjectReader implements RootNodeProvider {
         return schemaValidating;
     }
 
+    /**
+     * Returns whether QTI Object models are built directly from SAX events while parsing,
+     * rather than from a DOM.
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
     //--------------------------------------------------------------------------
 
     @Override
@@ -155,42 +172,54 @@ public final class QtiObjectReader implements RootNodeProvider {
          */
         final ChainedResourceLocator resourceLocator = new ChainedResourceLocator(QtiXmlReader.JQTIPLUS_PARSER_RESOURCE_LOCATOR, inputResourceLocator);
 
-        /* Parse XML */
-        final XmlReadResult xmlReadResult = qtiXmlReader.read(resourceLocator, systemId, schemaValidating);
-        final XmlParseResult xmlParseResult = xmlReadResult.getXmlParseResult();
-        final Document document = xmlReadResult.getDocument();
-        if (document==null) {
-            /* Parsing failed */
-            throw new QtiXmlInterpretationException(XML_PARSE_FAILED, "XML parsing failed",
-                    requiredRootNodeClass, xmlParseResult);
-        }
-
-        /* Bail out if we're validating and the resulting XML was not valid */
-        if (schemaValidating && !xmlParseResult.isSchemaValid()) {
-            throw new QtiXmlInterpretationException(XML_SCHEMA_VALIDATION_FAILED, "XML schema validation was requested and the resulting XML was not valid",
-                   requiredRootNodeClass, xmlParseResult);
-        }
-
-        /* Build QTI Object Model */
+        /* Parse XML and build QTI Object Model */
         final List<QtiModelBuildingError> qtiModelBuildingErrors = new ArrayList<QtiModelBuildingError>();
         final LoadingContext loadingContext = new LoadingContextImpl(qtiModelBuildingErrors);
-        logger.trace("Instantiating JQTI Object hierarchy from root Element {}");
+        final XmlParseResult xmlParseResult;
         final RootNode rootNode;
-        final Element rootElement = document.getDocumentElement();
-        final String rootNamespaceUri = rootElement.getNamespaceURI();
-        try {
-            rootNode = RootNodeTypes.load(rootElement, systemId, loadingContext);
+        final String rootNamespaceUri;
+        final String rootLocalName;
+        if (streaming) {
+            /* Build model directly from SAX events while parsing */
+            logger.trace("Instantiating JQTI Object hierarchy while parsing");
+            final QtiModelBuildingHandler modelBuildingHandler = new QtiModelBuildingHandler(qtiXmlReader, systemId, loadingContext);
+            xmlParseResult = qtiXmlReader.parse(resourceLocator, systemId, schemaValidating, modelBuildingHandler);
+            ensureParsed(xmlParseResult, requiredRootNodeClass);
+            rootNode = modelBuildingHandler.getRootNode();
+            rootNamespaceUri = modelBuildingHandler.getRootElementNamespaceUri();
+            rootLocalName = modelBuildingHandler.getRootElementLocalName();
+        }
+        else {
+            /* Parse XML into DOM */
+            final XmlReadResult xmlReadResult = qtiXmlReader.read(resourceLocator, systemId, schemaValidating);
+            xmlParseResult = xmlReadResult.getXmlParseResult();
+            ensureParsed(xmlParseResult, requiredRootNodeClass);
+
+            /* Build model from DOM */
+            logger.trace("Instantiating JQTI Object hierarchy from root Element");
+            final Element rootElement = xmlReadResult.getDocument().getDocumentElement();
+            rootNamespaceUri = rootElement.getNamespaceURI();
+            rootLocalName = rootElement.getLocalName();
+            RootNode loadedRootNode = null;
+            try {
+                loadedRootNode = RootNodeTypes.load(rootElement, systemId, loadingContext);
+            }
+            catch (final IllegalArgumentException e) {
+                /* Unsupported root Node type, handled below */
+            }
+            catch (final QtiParseException e) {
+                throw new QtiLogicException("All QtiParseExceptions should have been caught before this point!", e);
+            }
+            rootNode = loadedRootNode;
         }
-        catch (final IllegalArgumentException e) {
-            /* Unsupported root Node type */
-            logger.debug("QTI Object read of system ID {} yielded unsupported root Node {}", systemId, rootElement.getLocalName());
+
+        /* Make sure we had a supported root Node type */
+        if (rootNode==null) {
+            logger.debug("QTI Object read of system ID {} yielded unsupported root Node {}", systemId, rootLocalName);
             throw new QtiXmlInterpretationException(UNSUPPORTED_ROOT_NODE, "XML parse succeeded but had an unsupported root Node {"
-                    + rootNamespaceUri + "}:" + rootElement.getLocalName(),
+                    + rootNamespaceUri + "}:" + rootLocalName,
                     requiredRootNodeClass, xmlParseResult, null, qtiModelBuildingErrors);
         }
-        catch (final QtiParseException e) {
-            throw new QtiLogicException("All QtiParseExceptions should have been caught before this point!", e);
-        }
 
         /* Make sure we got the right type of Object */
         if (!requiredRootNodeClass.isInstance(rootNode)) {
@@ -215,6 +244,25 @@ public final class QtiObjectReader implements RootNodeProvider {
         return result;
     }
 
+    /**
+     * Bails out if the given {@link XmlParseResult} shows that the XML could not be parsed, or was
+     * not schema valid when validation was requested.
+     */
+    private void ensureParsed(final XmlParseResult xmlParseResult, final Class<? extends RootNode> requiredRootNodeClass)
+            throws QtiXmlInterpretationException {
+        if (!xmlParseResult.isParsed()) {
+            /* Parsing failed */
+            throw new QtiXmlInterpretationException(XML_PARSE_FAILED, "XML parsing failed",
+                    requiredRootNodeClass, xmlParseResult);
+        }
+
+        /* Bail out if we're validating and the resulting XML was not valid */
+        if (schemaValidating && !xmlParseResult.isSchemaValid()) {
+            throw new QtiXmlInterpretationException(XML_SCHEMA_VALIDATION_FAILED, "XML schema validation was requested and the resulting XML was not valid",
+                   requiredRootNodeClass, xmlParseResult);
+        }
+    }
+
     /**
      * Implementation of {@link LoadingContext} that records any {@link QtiModelBuildingError}s
      * in an {@link ArrayList}.
@@ -239,6 +287,13 @@ public final class QtiObjectReader implements RootNodeProvider {
             qtiModelBuildingErrors.add(new QtiModelBuildingError(exception, errorNode.getLocalName(),
                     errorNode.getNamespaceURI(), XmlResourceReader.extractLocationInformation(errorNode)));
         }
+
+        @Override
+        public void modelBuildingError(final QtiModelException exception, final String elementLocalName,
+                final String elementNamespaceUri, final XmlSourceLocationInformation location) {
+            qtiModelBuildingErrors.add(new QtiModelBuildingError(exception, elementLocalName,
+                    elementNamespaceUri, location));
+        }
     }
 
     @Override
@@ -246,6 +301,8 @@ public final class QtiObjectReader implements RootNodeProvider {
         return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
                 + "(qtiXmlReader=" + qtiXmlReader
                 + ",inputResourceLocator=" + inputResourceLocator
+                + ",schemaValidating=" + schemaValidating
+                + ",streaming=" + streaming
                 + ")";
     }
 }
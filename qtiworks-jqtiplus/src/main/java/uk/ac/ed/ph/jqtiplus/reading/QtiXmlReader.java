@@ -38,6 +38,7 @@ import uk.ac.ed.ph.jqtiplus.JqtiExtensionManager;
 import uk.ac.ed.ph.jqtiplus.QtiConstants;
 import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
 import uk.ac.ed.ph.jqtiplus.xmlutils.SchemaCache;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlParseResult;
 import uk.ac.ed.ph.jqtiplus.xmlutils.XmlReadResult;
 import uk.ac.ed.ph.jqtiplus.xmlutils.XmlResourceNotFoundException;
 import uk.ac.ed.ph.jqtiplus.xmlutils.XmlResourceReader;
@@ -47,10 +48,14 @@ import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ClassPathHttpResourceLocator;
 import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator;
 
 import java.net.URI;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 
+import org.w3c.dom.Document;
+import org.xml.sax.ContentHandler;
+
 /**
  * Wraps around {@link XmlResourceReader} to provide unified reader for QTI (and
  * some related IMS) XML resources.
@@ -122,6 +127,23 @@ public final class QtiXmlReader {
         return xmlResourceReader.getSchemaCache();
     }
 
+    /**
+     * Returns the URIs of all of the schemas supported by this reader, including those for any
+     * registered extensions.
+     */
+    public Collection<String> getRegisteredSchemaUris() {
+        return xmlResourceReader.getRegisteredSchemaMap().values();
+    }
+
+    /**
+     * Compiles and caches the schema at the given URI, unless this has already been done.
+     *
+     * @see XmlResourceReader#precompileSchema(String)
+     */
+    public void precompileSchema(final String schemaUri) {
+        xmlResourceReader.precompileSchema(schemaUri);
+    }
+
     //--------------------------------------------------
 
     /**
@@ -145,13 +167,61 @@ public final class QtiXmlReader {
         return xmlResourceReader.read(systemId, inputResourceLocator, entityResourceLocator, performSchemaValidation);
     }
 
+    /**
+     * Parses the XML resource having the given System ID using the specified {@link ResourceLocator}
+     * to locate the XML, passing the resulting SAX events to the given {@link ContentHandler}
+     * rather than building a DOM. Schema validation may optionally be performed at the same time.
+     *
+     * @see XmlResourceReader#parse(URI, ResourceLocator, ResourceLocator, boolean, ContentHandler)
+     *
+     * @param inputResourceLocator {@link ResourceLocator} used to read in the QTI XML
+     * @param systemId System ID (URI) of the QTI XML resource to be read
+     * @param performSchemaValidation whether to perform schema validation
+     * @param contentHandler {@link ContentHandler} to receive the SAX events
+     * @throws XmlResourceNotFoundException if the XML resource with the given System ID cannot be
+     *             located using the given {@link ResourceLocator}
+     * @throws XmlResourceReaderException if an unexpected Exception occurred parsing and/or validating the XML, or
+     *             if any of the required schemas could not be located.
+     */
+    public XmlParseResult parse(final ResourceLocator inputResourceLocator, final URI systemId,
+            final boolean performSchemaValidation, final ContentHandler contentHandler)
+            throws XmlResourceNotFoundException {
+        Assert.notNull(inputResourceLocator, "inputResourceLocator");
+        Assert.notNull(systemId, "systemId");
+        Assert.notNull(contentHandler, "contentHandler");
+        final ResourceLocator entityResourceLocator = new ChainedResourceLocator(JQTIPLUS_PARSER_RESOURCE_LOCATOR, inputResourceLocator);
+        return xmlResourceReader.parse(systemId, inputResourceLocator, entityResourceLocator, performSchemaValidation, contentHandler);
+    }
+
+    /**
+     * Creates a new empty DOM {@link Document}.
+     *
+     * @see XmlResourceReader#newDocument()
+     */
+    public Document newDocument() {
+        return xmlResourceReader.newDocument();
+    }
+
     /**
      * Creates a new {@link QtiObjectReader} from this reader and the given
-     * input {@link ResourceLocator}.
+     * input {@link ResourceLocator}, which will build QTI Object models via a DOM.
      */
     public QtiObjectReader createQtiObjectReader(final ResourceLocator inputResourceLocator, final boolean schemaValidating) {
+        return createQtiObjectReader(inputResourceLocator, schemaValidating, false);
+    }
+
+    /**
+     * Creates a new {@link QtiObjectReader} from this reader and the given
+     * input {@link ResourceLocator}.
+     *
+     * @param streaming if true, QTI Object models will be built directly from the SAX parsing
+     *   events instead of via an intermediate DOM, which uses less memory. If false, the
+     *   traditional DOM-based approach is used.
+     */
+    public QtiObjectReader createQtiObjectReader(final ResourceLocator inputResourceLocator, final boolean schemaValidating,
+            final boolean streaming) {
         Assert.notNull(inputResourceLocator, "inputResourceLocator");
-        return new QtiObjectReader(this, inputResourceLocator, schemaValidating);
+        return new QtiObjectReader(this, inputResourceLocator, schemaValidating, streaming);
     }
 
     //--------------------------------------------------
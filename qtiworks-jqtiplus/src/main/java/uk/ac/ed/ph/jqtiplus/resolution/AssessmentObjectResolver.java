@@ -33,6 +33,7 @@
  */
 package uk.ac.ed.ph.jqtiplus.resolution;
 
+import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
 import uk.ac.ed.ph.jqtiplus.node.RootNode;
 import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
 import uk.ac.ed.ph.jqtiplus.node.item.response.processing.ResponseProcessing;
@@ -46,6 +47,10 @@ import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -57,6 +62,10 @@ import org.slf4j.LoggerFactory;
  * <p>
  * This provides a rich {@link ResolvedAssessmentItem} or {@link ResolvedAssessmentTest}
  * which is useful for the running/delivery of assessments.
+ * <p>
+ * If an {@link ExecutorService} is provided then the items within an {@link AssessmentTest}
+ * are resolved in parallel using it. (The {@link RootNodeProvider} must be thread-safe in this
+ * case.) The results are identical to those obtained when resolving sequentially.
  *
  * @author David McKain
  */
@@ -65,9 +74,19 @@ public final class AssessmentObjectResolver {
     private static final Logger logger = LoggerFactory.getLogger(AssessmentObjectResolver.class);
 
     private final RootNodeProvider rootNodeProvider;
+    private final ExecutorService itemResolutionExecutor;
 
     public AssessmentObjectResolver(final RootNodeProvider rootNodeProvider) {
+        this(rootNodeProvider, null);
+    }
+
+    /**
+     * @param itemResolutionExecutor {@link ExecutorService} to use for resolving test items in
+     *   parallel, or null to resolve them sequentially within the calling Thread
+     */
+    public AssessmentObjectResolver(final RootNodeProvider rootNodeProvider, final ExecutorService itemResolutionExecutor) {
         this.rootNodeProvider = rootNodeProvider;
+        this.itemResolutionExecutor = itemResolutionExecutor;
     }
 
     //-------------------------------------------------------------------
@@ -175,14 +194,68 @@ public final class AssessmentObjectResolver {
             }
 
             /* Resolve each unique item */
-            for (final URI itemSystemId : itemRefsBySystemIdMap.keySet()) {
-                resolvedAssessmentItemMap.put(itemSystemId, resolveAssessmentItem(itemSystemId, cachedResourceProvider));
+            if (itemResolutionExecutor!=null && itemRefsBySystemIdMap.size() > 1) {
+                resolveAssessmentItemsInParallel(itemRefsBySystemIdMap.keySet(), cachedResourceProvider, resolvedAssessmentItemMap);
+            }
+            else {
+                for (final URI itemSystemId : itemRefsBySystemIdMap.keySet()) {
+                    resolvedAssessmentItemMap.put(itemSystemId, resolveAssessmentItem(itemSystemId, cachedResourceProvider));
+                }
             }
         }
         return new ResolvedAssessmentTest(testLookup, assessmentItemRefs,
                 systemIdByItemRefMap, itemRefsBySystemIdMap, resolvedAssessmentItemMap);
     }
 
+    /**
+     * Resolves the given items using the {@link #itemResolutionExecutor}, adding the results
+     * to the given Map in the same order as the given system IDs.
+     * <p>
+     * Failures to find or build an item are recorded in the resulting {@link RootNodeLookup}s,
+     * as in the sequential case. Any unexpected Exception is rethrown after cancelling
+     * outstanding work.
+     */
+    private void resolveAssessmentItemsInParallel(final Iterable<URI> itemSystemIds,
+            final CachedResourceProvider cachedResourceProvider,
+            final Map<URI, ResolvedAssessmentItem> resolvedAssessmentItemMap) {
+        final Map<URI, Future<ResolvedAssessmentItem>> futureMap = new LinkedHashMap<URI, Future<ResolvedAssessmentItem>>();
+        for (final URI itemSystemId : itemSystemIds) {
+            futureMap.put(itemSystemId, itemResolutionExecutor.submit(new Callable<ResolvedAssessmentItem>() {
+                @Override
+                public ResolvedAssessmentItem call() {
+                    return resolveAssessmentItem(itemSystemId, cachedResourceProvider);
+                }
+            }));
+        }
+        try {
+            for (final Map.Entry<URI, Future<ResolvedAssessmentItem>> entry : futureMap.entrySet()) {
+                resolvedAssessmentItemMap.put(entry.getKey(), entry.getValue().get());
+            }
+        }
+        catch (final ExecutionException e) {
+            cancelAll(futureMap.values());
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new QtiLogicException("Unexpected checked Exception resolving item", cause);
+        }
+        catch (final InterruptedException e) {
+            cancelAll(futureMap.values());
+            Thread.currentThread().interrupt();
+            throw new QtiLogicException("Interrupted while resolving items", e);
+        }
+    }
+
+    private static void cancelAll(final Iterable<Future<ResolvedAssessmentItem>> futures) {
+        for (final Future<ResolvedAssessmentItem> future : futures) {
+            future.cancel(false);
+        }
+    }
+
     //-------------------------------------------------------------------
 
     private URI resolveUri(final RootNode baseObject, final URI href) {
@@ -197,6 +270,7 @@ public final class AssessmentObjectResolver {
     public String toString() {
         return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
                 + "(rootNodeProvider=" + rootNodeProvider
+                + ",itemResolutionExecutor=" + itemResolutionExecutor
                 + ")";
     }
 }
@@ -33,6 +33,7 @@
  */
 package uk.ac.ed.ph.jqtiplus.resolution;
 
+import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
 import uk.ac.ed.ph.jqtiplus.internal.util.DumpMode;
 import uk.ac.ed.ph.jqtiplus.internal.util.ObjectDumperOptions;
 import uk.ac.ed.ph.jqtiplus.node.RootNode;
@@ -42,8 +43,13 @@ import uk.ac.ed.ph.jqtiplus.provision.RootNodeHolder;
 import uk.ac.ed.ph.jqtiplus.provision.RootNodeProvider;
 
 import java.net.URI;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,6 +57,10 @@ import org.slf4j.LoggerFactory;
 /**
  * Helper class that caches the results of calls to {@link AssessmentObjectResolver} during
  * resolution so that we only need to build once.
+ * <p>
+ * This is thread-safe, so may be used when resolving items in parallel. If several threads
+ * ask for the same resource at once then it is only built once, with the other threads
+ * waiting for the result.
  *
  * @author David McKain
  */
@@ -59,44 +69,92 @@ final class CachedResourceProvider {
     private static final Logger logger = LoggerFactory.getLogger(CachedResourceProvider.class);
 
     private final RootNodeProvider rootNodeProvider;
-    private final Map<URI, RootNodeLookup<?>> cacheData;
+    private final ConcurrentMap<URI, FutureTask<RootNodeLookup<?>>> cacheData;
 
     public CachedResourceProvider(final RootNodeProvider rootNodeProvider) {
         this.rootNodeProvider = rootNodeProvider;
-        this.cacheData = new HashMap<URI, RootNodeLookup<?>>();
+        this.cacheData = new ConcurrentHashMap<URI, FutureTask<RootNodeLookup<?>>>();
     }
 
     public RootNodeProvider getRootNodeProvider() {
         return rootNodeProvider;
     }
 
+    /**
+     * Returns a snapshot of the resources that have been successfully looked up so far.
+     */
     @ObjectDumperOptions(DumpMode.DEEP)
     public Map<URI, RootNodeLookup<?>> getCacheData() {
-        return cacheData;
+        final Map<URI, RootNodeLookup<?>> result = new LinkedHashMap<URI, RootNodeLookup<?>>();
+        for (final Map.Entry<URI, FutureTask<RootNodeLookup<?>>> entry : cacheData.entrySet()) {
+            final FutureTask<RootNodeLookup<?>> task = entry.getValue();
+            if (task.isDone()) {
+                try {
+                    result.put(entry.getKey(), task.get());
+                }
+                catch (final Exception e) {
+                    /* (Failed lookups are not cached, so ignore) */
+                }
+            }
+        }
+        return result;
     }
 
     @SuppressWarnings("unchecked")
     public <E extends RootNode> RootNodeLookup<E> getLookup(final URI systemId, final Class<E> resultClass) {
-        RootNodeLookup<E> frozenResult = (RootNodeLookup<E>) cacheData.get(systemId);
-        if (frozenResult!=null) {
-            /* Cache hit */
-            logger.debug("Resource cache hit for key {} yielded {}", systemId, frozenResult);
+        FutureTask<RootNodeLookup<?>> task = cacheData.get(systemId);
+        if (task!=null) {
+            /* Cache hit (though the lookup may still be in progress in another thread) */
+            logger.debug("Resource cache hit for key {}", systemId);
         }
         else {
-            /* Cache miss */
-            try {
-                final RootNodeHolder<E> result = rootNodeProvider.lookupRootNode(systemId, resultClass);
-                frozenResult = new RootNodeLookup<E>(systemId, result);
+            /* Cache miss, unless another thread gets in first */
+            final FutureTask<RootNodeLookup<?>> newTask = new FutureTask<RootNodeLookup<?>>(new Callable<RootNodeLookup<?>>() {
+                @Override
+                public RootNodeLookup<?> call() {
+                    return doLookup(systemId, resultClass);
+                }
+            });
+            task = cacheData.putIfAbsent(systemId, newTask);
+            if (task==null) {
+                task = newTask;
+                task.run();
             }
-            catch (final BadResourceException e) {
-                frozenResult = new RootNodeLookup<E>(systemId, resultClass, e);
+        }
+        try {
+            return (RootNodeLookup<E>) task.get();
+        }
+        catch (final ExecutionException e) {
+            /* Lookup failed unexpectedly, so forget it and pass on the original failure */
+            cacheData.remove(systemId, task);
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
             }
-            catch (final ResourceNotFoundException e) {
-                frozenResult = new RootNodeLookup<E>(systemId, resultClass, e);
+            else if (cause instanceof Error) {
+                throw (Error) cause;
             }
-            cacheData.put(systemId, frozenResult);
-            logger.debug("Resource cache miss for key {} stored {}", systemId, frozenResult);
+            throw new QtiLogicException("Unexpected checked Exception looking up " + systemId, cause);
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QtiLogicException("Interrupted while waiting for resource " + systemId + " to be looked up", e);
+        }
+    }
+
+    private <E extends RootNode> RootNodeLookup<E> doLookup(final URI systemId, final Class<E> resultClass) {
+        RootNodeLookup<E> frozenResult;
+        try {
+            final RootNodeHolder<E> result = rootNodeProvider.lookupRootNode(systemId, resultClass);
+            frozenResult = new RootNodeLookup<E>(systemId, result);
+        }
+        catch (final BadResourceException e) {
+            frozenResult = new RootNodeLookup<E>(systemId, resultClass, e);
+        }
+        catch (final ResourceNotFoundException e) {
+            frozenResult = new RootNodeLookup<E>(systemId, resultClass, e);
         }
+        logger.debug("Resource cache miss for key {} stored {}", systemId, frozenResult);
         return frozenResult;
     }
 
@@ -104,7 +162,7 @@ final class CachedResourceProvider {
     public String toString() {
         return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
                 + "(rootNodeProvider=" + rootNodeProvider
-                + ",cacheData=" + cacheData
+                + ",cacheData=" + getCacheData()
                 + ")";
     }
 }
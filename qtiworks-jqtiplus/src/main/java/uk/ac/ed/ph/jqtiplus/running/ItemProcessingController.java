@@ -38,12 +38,15 @@ import uk.ac.ed.ph.jqtiplus.QtiConstants;
 import uk.ac.ed.ph.jqtiplus.exception.QtiCandidateStateException;
 import uk.ac.ed.ph.jqtiplus.exception.QtiInvalidLookupException;
 import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
+import uk.ac.ed.ph.jqtiplus.internal.running.CompilingProcessingContext;
 import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
 import uk.ac.ed.ph.jqtiplus.node.item.CorrectResponse;
 import uk.ac.ed.ph.jqtiplus.node.item.response.declaration.ResponseDeclaration;
 import uk.ac.ed.ph.jqtiplus.node.item.template.declaration.TemplateDeclaration;
 import uk.ac.ed.ph.jqtiplus.node.item.template.processing.SetCorrectResponse;
 import uk.ac.ed.ph.jqtiplus.node.outcome.declaration.OutcomeDeclaration;
+import uk.ac.ed.ph.jqtiplus.node.expression.CompiledExpression;
+import uk.ac.ed.ph.jqtiplus.node.expression.Expression;
 import uk.ac.ed.ph.jqtiplus.node.shared.VariableDeclaration;
 import uk.ac.ed.ph.jqtiplus.node.shared.VariableType;
 import uk.ac.ed.ph.jqtiplus.node.shared.declaration.DefaultValue;
@@ -72,7 +75,8 @@ import java.util.Random;
  *
  * @author David McKain
  */
-public class ItemProcessingController extends ItemValidationController implements ItemProcessingContext, InteractionBindingContext {
+public class ItemProcessingController extends ItemValidationController implements ItemProcessingContext, InteractionBindingContext,
+        CompilingProcessingContext {
 
     protected final ItemProcessingMap itemProcessingMap;
     protected final ItemSessionState itemSessionState;
@@ -101,6 +105,11 @@ public class ItemProcessingController extends ItemValidationController implement
         return itemProcessingMap.isValid();
     }
 
+    @Override
+    public final CompiledExpression getCompiledExpression(final Expression expression) {
+        return itemProcessingMap.getCompiledExpression(expression);
+    }
+
     //-------------------------------------------------------------------
 
     public Long getRandomSeed() {
@@ -36,11 +36,13 @@ package uk.ac.ed.ph.jqtiplus.running;
 import uk.ac.ed.ph.jqtiplus.QtiConstants;
 import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
 import uk.ac.ed.ph.jqtiplus.node.item.interaction.Interaction;
+import uk.ac.ed.ph.jqtiplus.node.item.response.processing.ResponseProcessing;
 import uk.ac.ed.ph.jqtiplus.node.item.response.declaration.ResponseDeclaration;
 import uk.ac.ed.ph.jqtiplus.node.item.template.declaration.TemplateDeclaration;
 import uk.ac.ed.ph.jqtiplus.node.outcome.declaration.OutcomeDeclaration;
 import uk.ac.ed.ph.jqtiplus.node.shared.VariableDeclaration;
 import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentItem;
+import uk.ac.ed.ph.jqtiplus.resolution.RootNodeLookup;
 import uk.ac.ed.ph.jqtiplus.state.ItemProcessingMap;
 import uk.ac.ed.ph.jqtiplus.types.Identifier;
 import uk.ac.ed.ph.jqtiplus.validation.ItemValidationResult;
@@ -108,9 +110,30 @@ public final class ItemProcessingInitializer {
         /* Record all interactions */
         final List<Interaction> interactions = item.getItemBody().findInteractions();
 
+        /* See whether responseProcessing can be done natively, again provided the item is valid */
+        final StandardResponseProcessor standardResponseProcessor = recognizeResponseProcessing(item);
+
         /* That's it! */
         return new ItemProcessingMap(resolvedAssessmentItem, isValid, interactions,
-                validTemplateDeclarationMapBuilder, validResponseDeclarationMapBuilder, validOutcomeDeclarationMapBuilder);
+                validTemplateDeclarationMapBuilder, validResponseDeclarationMapBuilder, validOutcomeDeclarationMapBuilder,
+                standardResponseProcessor);
+    }
+
+    private StandardResponseProcessor recognizeResponseProcessing(final AssessmentItem item) {
+        if (!isValid) {
+            return null;
+        }
+        /* (This follows the choice made in ItemSessionController#performResponseProcessing()) */
+        final RootNodeLookup<ResponseProcessing> resolvedResponseProcessingTemplateLookup = resolvedAssessmentItem.getResolvedResponseProcessingTemplateLookup();
+        final ResponseProcessing responseProcessing;
+        if (resolvedResponseProcessingTemplateLookup!=null) {
+            responseProcessing = resolvedResponseProcessingTemplateLookup.extractIfSuccessful();
+        }
+        else {
+            responseProcessing = item.getResponseProcessing();
+        }
+        return StandardResponseProcessor.recognize(responseProcessing,
+                validResponseDeclarationMapBuilder, validOutcomeDeclarationMapBuilder);
     }
 
     private void doTemplateVariable(final TemplateDeclaration declaration) {
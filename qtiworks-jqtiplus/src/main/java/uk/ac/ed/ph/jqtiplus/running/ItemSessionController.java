@@ -850,7 +850,14 @@ public final class ItemSessionController extends ItemProcessingController implem
 
             /* Invoke response processing */
             if (responseProcessing!=null) {
-                responseProcessing.evaluate(this);
+                /* Use native implementation of standard templates, if available */
+                final StandardResponseProcessor standardResponseProcessor = itemProcessingMap.getStandardResponseProcessor();
+                if (standardResponseProcessor!=null) {
+                    standardResponseProcessor.evaluate(this);
+                }
+                else {
+                    responseProcessing.evaluate(this);
+                }
             }
             else {
                 fireRuntimeWarning(item, "There is no responseProcessing to be performed here");
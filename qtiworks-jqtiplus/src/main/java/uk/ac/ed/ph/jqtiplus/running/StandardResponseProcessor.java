@@ -0,0 +1,551 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.running;
+
+import uk.ac.ed.ph.jqtiplus.node.expression.Expression;
+import uk.ac.ed.ph.jqtiplus.node.expression.general.BaseValue;
+import uk.ac.ed.ph.jqtiplus.node.expression.general.Correct;
+import uk.ac.ed.ph.jqtiplus.node.expression.general.MapResponse;
+import uk.ac.ed.ph.jqtiplus.node.expression.general.MapResponsePoint;
+import uk.ac.ed.ph.jqtiplus.node.expression.general.Variable;
+import uk.ac.ed.ph.jqtiplus.node.expression.operator.IsNull;
+import uk.ac.ed.ph.jqtiplus.node.expression.operator.Match;
+import uk.ac.ed.ph.jqtiplus.node.expression.operator.Shape;
+import uk.ac.ed.ph.jqtiplus.node.item.response.declaration.AreaMapEntry;
+import uk.ac.ed.ph.jqtiplus.node.item.response.declaration.AreaMapping;
+import uk.ac.ed.ph.jqtiplus.node.item.response.declaration.MapEntry;
+import uk.ac.ed.ph.jqtiplus.node.item.response.declaration.Mapping;
+import uk.ac.ed.ph.jqtiplus.node.item.response.declaration.ResponseDeclaration;
+import uk.ac.ed.ph.jqtiplus.node.item.response.processing.ResponseCondition;
+import uk.ac.ed.ph.jqtiplus.node.item.response.processing.ResponseConditionChild;
+import uk.ac.ed.ph.jqtiplus.node.item.response.processing.ResponseProcessing;
+import uk.ac.ed.ph.jqtiplus.node.item.response.processing.ResponseRule;
+import uk.ac.ed.ph.jqtiplus.node.item.response.processing.SetOutcomeValue;
+import uk.ac.ed.ph.jqtiplus.node.outcome.declaration.OutcomeDeclaration;
+import uk.ac.ed.ph.jqtiplus.node.shared.VariableType;
+import uk.ac.ed.ph.jqtiplus.types.ComplexReferenceIdentifier;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.value.BaseType;
+import uk.ac.ed.ph.jqtiplus.value.Cardinality;
+import uk.ac.ed.ph.jqtiplus.value.FloatValue;
+import uk.ac.ed.ph.jqtiplus.value.ListValue;
+import uk.ac.ed.ph.jqtiplus.value.PointValue;
+import uk.ac.ed.ph.jqtiplus.value.SingleValue;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hard-coded implementation of the standard <code>match_correct</code>, <code>map_response</code>
+ * and <code>map_response_point</code> response processing templates, which are used by most items.
+ * <p>
+ * Use {@link #recognize(ResponseProcessing, Map, Map)} to see whether a {@link ResponseProcessing}
+ * (either a resolved template or inline rules) has exactly the same structure as one of these
+ * templates, allowing for different response and outcome variable identifiers. If so, then
+ * {@link #evaluate(ItemProcessingContext)} produces the same results as evaluating the
+ * {@link ResponseProcessing} itself, without walking the rule and expression trees each time.
+ * Mappings are indexed up front rather than being searched for each response value.
+ * <p>
+ * This is used by {@link ItemProcessingInitializer} for valid items only, and by
+ * {@link ItemSessionController#performResponseProcessing(java.util.Date)}.
+ * <p>
+ * Usage: instances of this class are immutable and can be safely used by multiple Threads.
+ * They assume that the underlying {@link ResponseDeclaration}s are not subsequently changed.
+ *
+ * @author David McKain
+ */
+public abstract class StandardResponseProcessor implements Serializable {
+
+    private static final long serialVersionUID = -7360493651962367093L;
+
+    protected final Identifier responseIdentifier;
+    protected final OutcomeDeclaration outcomeDeclaration;
+
+    protected StandardResponseProcessor(final Identifier responseIdentifier, final OutcomeDeclaration outcomeDeclaration) {
+        this.responseIdentifier = responseIdentifier;
+        this.outcomeDeclaration = outcomeDeclaration;
+    }
+
+    public Identifier getResponseIdentifier() {
+        return responseIdentifier;
+    }
+
+    public Identifier getOutcomeIdentifier() {
+        return outcomeDeclaration.getIdentifier();
+    }
+
+    /**
+     * Performs response processing on the given {@link ItemProcessingContext}.
+     */
+    public abstract void evaluate(ItemProcessingContext context);
+
+    protected final Value evaluateResponseValue(final ItemProcessingContext context) {
+        return context.evaluateVariableValue(responseIdentifier, VariableType.RESPONSE);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName()
+                + "(responseIdentifier=" + responseIdentifier
+                + ",outcomeIdentifier=" + getOutcomeIdentifier()
+                + ")";
+    }
+
+    //-------------------------------------------------------------------
+    // Recognition
+
+    /**
+     * Checks whether the given {@link ResponseProcessing} has exactly the same structure as
+     * one of the standard templates, returning a {@link StandardResponseProcessor} implementing
+     * it if so.
+     *
+     * @param responseProcessing {@link ResponseProcessing} to check, which may be null
+     * @param validResponseDeclarationMap (valid) response declarations in the item
+     * @param validOutcomeDeclarationMap (valid) outcome declarations in the item
+     *
+     * @return {@link StandardResponseProcessor} equivalent to the given {@link ResponseProcessing},
+     *   or null if it is not a standard template.
+     */
+    public static StandardResponseProcessor recognize(final ResponseProcessing responseProcessing,
+            final Map<Identifier, ResponseDeclaration> validResponseDeclarationMap,
+            final Map<Identifier, OutcomeDeclaration> validOutcomeDeclarationMap) {
+        if (responseProcessing==null) {
+            return null;
+        }
+
+        /* All standard templates consist of a single responseIf/responseElse pair, each setting the same outcome */
+        final List<ResponseRule> responseRules = responseProcessing.getResponseRules();
+        if (responseRules.size()!=1 || !(responseRules.get(0) instanceof ResponseCondition)) {
+            return null;
+        }
+        final ResponseCondition responseCondition = (ResponseCondition) responseRules.get(0);
+        if (responseCondition.getResponseIf()==null || !responseCondition.getResponseElseIfs().isEmpty()
+                || responseCondition.getResponseElse()==null) {
+            return null;
+        }
+        final SetOutcomeValue ifRule = extractSingleSetOutcomeValue(responseCondition.getResponseIf());
+        final SetOutcomeValue elseRule = extractSingleSetOutcomeValue(responseCondition.getResponseElse());
+        if (ifRule==null || elseRule==null || ifRule.getIdentifier()==null
+                || !ifRule.getIdentifier().equals(elseRule.getIdentifier())) {
+            return null;
+        }
+        final OutcomeDeclaration outcomeDeclaration = validOutcomeDeclarationMap.get(ifRule.getIdentifier());
+        if (outcomeDeclaration==null) {
+            return null;
+        }
+
+        final Expression condition = responseCondition.getResponseIf().getExpression();
+        if (condition instanceof Match) {
+            /* Maybe match_correct */
+            final List<Expression> matchChildren = condition.getExpressions();
+            final Identifier variableIdentifier = extractVariableIdentifier(matchChildren.get(0));
+            if (variableIdentifier==null || !(matchChildren.get(1) instanceof Correct)
+                    || !isSameIdentifier(((Correct) matchChildren.get(1)).getIdentifier(), variableIdentifier)
+                    || !validResponseDeclarationMap.containsKey(variableIdentifier)) {
+                return null;
+            }
+            final SingleValue matchedValue = extractBaseValue(ifRule.getExpression());
+            final SingleValue unmatchedValue = extractBaseValue(elseRule.getExpression());
+            if (matchedValue==null || unmatchedValue==null) {
+                return null;
+            }
+            return new MatchCorrectProcessor(variableIdentifier, outcomeDeclaration, matchedValue, unmatchedValue);
+        }
+        else if (condition instanceof IsNull) {
+            /* Maybe map_response or map_response_point */
+            final Identifier variableIdentifier = extractVariableIdentifier(condition.getExpressions().get(0));
+            final ResponseDeclaration responseDeclaration = variableIdentifier!=null ? validResponseDeclarationMap.get(variableIdentifier) : null;
+            final SingleValue nullValue = extractBaseValue(ifRule.getExpression());
+            if (responseDeclaration==null || nullValue==null) {
+                return null;
+            }
+            final Expression mapExpression = elseRule.getExpression();
+            if (mapExpression instanceof MapResponse
+                    && variableIdentifier.equals(((MapResponse) mapExpression).getIdentifier())
+                    && responseDeclaration.getMapping()!=null) {
+                return new MapResponseProcessor(variableIdentifier, outcomeDeclaration, nullValue,
+                        new IndexedMapping(responseDeclaration, responseDeclaration.getMapping()));
+            }
+            else if (mapExpression instanceof MapResponsePoint
+                    && variableIdentifier.equals(((MapResponsePoint) mapExpression).getIdentifier())
+                    && responseDeclaration.getAreaMapping()!=null) {
+                return new MapResponsePointProcessor(variableIdentifier, outcomeDeclaration, nullValue,
+                        new IndexedAreaMapping(responseDeclaration, responseDeclaration.getAreaMapping()));
+            }
+        }
+        return null;
+    }
+
+    private static SetOutcomeValue extractSingleSetOutcomeValue(final ResponseConditionChild responseConditionChild) {
+        final List<ResponseRule> responseRules = responseConditionChild.getResponseRules();
+        if (responseRules.size()!=1 || !(responseRules.get(0) instanceof SetOutcomeValue)) {
+            return null;
+        }
+        return (SetOutcomeValue) responseRules.get(0);
+    }
+
+    private static Identifier extractVariableIdentifier(final Expression expression) {
+        if (!(expression instanceof Variable)) {
+            return null;
+        }
+        final Variable variable = (Variable) expression;
+        if (variable.getIdentifier()==null || variable.getIdentifier().isDotted() || variable.getWeightIdentifier()!=null) {
+            return null;
+        }
+        return Identifier.assumedLegal(variable.getIdentifier().toString());
+    }
+
+    private static boolean isSameIdentifier(final ComplexReferenceIdentifier referenceIdentifier, final Identifier identifier) {
+        return referenceIdentifier!=null && referenceIdentifier.toString().equals(identifier.toString());
+    }
+
+    private static SingleValue extractBaseValue(final Expression expression) {
+        return expression instanceof BaseValue ? ((BaseValue) expression).getSingleValue() : null;
+    }
+
+    //-------------------------------------------------------------------
+    // Implementations
+
+    /**
+     * Implements <code>match_correct</code>
+     */
+    static final class MatchCorrectProcessor extends StandardResponseProcessor {
+
+        private static final long serialVersionUID = 2902569063934316352L;
+
+        private final SingleValue matchedValue;
+        private final SingleValue unmatchedValue;
+
+        MatchCorrectProcessor(final Identifier responseIdentifier, final OutcomeDeclaration outcomeDeclaration,
+                final SingleValue matchedValue, final SingleValue unmatchedValue) {
+            super(responseIdentifier, outcomeDeclaration);
+            this.matchedValue = matchedValue;
+            this.unmatchedValue = unmatchedValue;
+        }
+
+        @Override
+        public void evaluate(final ItemProcessingContext context) {
+            final Value responseValue = evaluateResponseValue(context);
+            final Value correctResponseValue = context.computeCorrectResponse(responseIdentifier);
+            final boolean matched = !responseValue.isNull()
+                    && correctResponseValue!=null && !correctResponseValue.isNull()
+                    && responseValue.qtiEquals(correctResponseValue);
+            context.setVariableValue(outcomeDeclaration, matched ? matchedValue : unmatchedValue);
+        }
+    }
+
+    /**
+     * Implements <code>map_response</code>
+     */
+    static final class MapResponseProcessor extends StandardResponseProcessor {
+
+        private static final long serialVersionUID = 8093524413470716254L;
+
+        private final SingleValue nullResponseValue;
+        private final IndexedMapping indexedMapping;
+
+        MapResponseProcessor(final Identifier responseIdentifier, final OutcomeDeclaration outcomeDeclaration,
+                final SingleValue nullResponseValue, final IndexedMapping indexedMapping) {
+            super(responseIdentifier, outcomeDeclaration);
+            this.nullResponseValue = nullResponseValue;
+            this.indexedMapping = indexedMapping;
+        }
+
+        @Override
+        public void evaluate(final ItemProcessingContext context) {
+            final Value responseValue = evaluateResponseValue(context);
+            context.setVariableValue(outcomeDeclaration, responseValue.isNull()
+                    ? nullResponseValue
+                    : indexedMapping.computeTargetValue(responseValue));
+        }
+    }
+
+    /**
+     * Implements <code>map_response_point</code>
+     */
+    static final class MapResponsePointProcessor extends StandardResponseProcessor {
+
+        private static final long serialVersionUID = -1466390532937325290L;
+
+        private final SingleValue nullResponseValue;
+        private final IndexedAreaMapping indexedAreaMapping;
+
+        MapResponsePointProcessor(final Identifier responseIdentifier, final OutcomeDeclaration outcomeDeclaration,
+                final SingleValue nullResponseValue, final IndexedAreaMapping indexedAreaMapping) {
+            super(responseIdentifier, outcomeDeclaration);
+            this.nullResponseValue = nullResponseValue;
+            this.indexedAreaMapping = indexedAreaMapping;
+        }
+
+        @Override
+        public void evaluate(final ItemProcessingContext context) {
+            final Value responseValue = evaluateResponseValue(context);
+            context.setVariableValue(outcomeDeclaration, responseValue.isNull()
+                    ? nullResponseValue
+                    : indexedAreaMapping.computeTargetValue(responseValue));
+        }
+    }
+
+    //-------------------------------------------------------------------
+    // Indexed mappings
+
+    /**
+     * Pre-indexed form of a {@link Mapping}, giving the same results as
+     * {@link Mapping#computeTargetValue(Value)}.
+     * <p>
+     * Keys of case sensitive {@link MapEntry}s are hashed directly, and keys of case insensitive
+     * ones are hashed on their case-folded QTI string forms. Each index records the position of
+     * the first {@link MapEntry} having each key so that the first matching entry still wins.
+     * (Float keys are not hashed as <code>0.0</code> and <code>-0.0</code> are equal but hash
+     * differently, so these are searched in turn as before.)
+     */
+    static final class IndexedMapping implements Serializable {
+
+        private static final long serialVersionUID = 1424187069658233418L;
+
+        private final Cardinality cardinality;
+        private final double defaultValue;
+        private final Double lowerBound;
+        private final Double upperBound;
+        private final SingleValue[] mapKeys;
+        private final boolean[] caseSensitives;
+        private final double[] mappedValues;
+        private final Map<SingleValue, Integer> caseSensitiveIndex;
+        private final Map<String, Integer> caseInsensitiveIndex;
+
+        IndexedMapping(final ResponseDeclaration responseDeclaration, final Mapping mapping) {
+            this.cardinality = responseDeclaration.getCardinality();
+            this.defaultValue = mapping.getDefaultValue();
+            this.lowerBound = mapping.getLowerBound();
+            this.upperBound = mapping.getUpperBound();
+
+            final List<MapEntry> mapEntries = mapping.getMapEntries();
+            this.mapKeys = new SingleValue[mapEntries.size()];
+            this.caseSensitives = new boolean[mapEntries.size()];
+            this.mappedValues = new double[mapEntries.size()];
+            for (int i=0; i<mapKeys.length; i++) {
+                final MapEntry mapEntry = mapEntries.get(i);
+                mapKeys[i] = mapEntry.getMapKey();
+                caseSensitives[i] = mapEntry.getCaseSensitive();
+                mappedValues[i] = mapEntry.getMappedValue();
+            }
+
+            if (responseDeclaration.hasBaseType(BaseType.FLOAT)) {
+                this.caseSensitiveIndex = null;
+                this.caseInsensitiveIndex = null;
+            }
+            else {
+                this.caseSensitiveIndex = new HashMap<SingleValue, Integer>();
+                this.caseInsensitiveIndex = new HashMap<String, Integer>();
+                for (int i=0; i<mapKeys.length; i++) {
+                    if (mapKeys[i]==null) {
+                        continue;
+                    }
+                    if (caseSensitives[i]) {
+                        if (!caseSensitiveIndex.containsKey(mapKeys[i])) {
+                            caseSensitiveIndex.put(mapKeys[i], Integer.valueOf(i));
+                        }
+                    }
+                    else {
+                        final String foldedKey = foldCase(mapKeys[i].toQtiString());
+                        if (!caseInsensitiveIndex.containsKey(foldedKey)) {
+                            caseInsensitiveIndex.put(foldedKey, Integer.valueOf(i));
+                        }
+                    }
+                }
+            }
+        }
+
+        FloatValue computeTargetValue(final Value sourceValue) {
+            if (!sourceValue.isNull()) {
+                if (cardinality==Cardinality.SINGLE) {
+                    return new FloatValue(applyConstraints(mapSingleValue((SingleValue) sourceValue)));
+                }
+                else if (cardinality.isList()) {
+                    double sum = 0.0;
+                    final ListValue sourceListValue = (ListValue) sourceValue;
+                    final Set<SingleValue> uniqueValues = new HashSet<SingleValue>(sourceListValue.getAll());
+                    for (final SingleValue value : uniqueValues) {
+                        sum += mapSingleValue(value);
+                    }
+                    return new FloatValue(applyConstraints(sum));
+                }
+            }
+            return new FloatValue(applyConstraints(defaultValue));
+        }
+
+        private double mapSingleValue(final SingleValue value) {
+            final int index = caseSensitiveIndex!=null ? lookupIndex(value) : searchIndex(value);
+            return index >= 0 ? mappedValues[index] : defaultValue;
+        }
+
+        private int lookupIndex(final SingleValue value) {
+            final Integer caseSensitiveResult = caseSensitiveIndex.get(value);
+            final Integer caseInsensitiveResult = caseInsensitiveIndex.isEmpty() ? null
+                    : caseInsensitiveIndex.get(foldCase(value.toQtiString()));
+            if (caseSensitiveResult==null) {
+                return caseInsensitiveResult!=null ? caseInsensitiveResult.intValue() : -1;
+            }
+            else if (caseInsensitiveResult==null) {
+                return caseSensitiveResult.intValue();
+            }
+            return Math.min(caseSensitiveResult.intValue(), caseInsensitiveResult.intValue());
+        }
+
+        private int searchIndex(final SingleValue value) {
+            for (int i=0; i<mapKeys.length; i++) {
+                final boolean matches = caseSensitives[i]
+                        ? mapKeys[i].equals(value)
+                        : mapKeys[i].toQtiString().equalsIgnoreCase(value.toQtiString());
+                if (matches) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Folds the case of the given String so that two Strings are equal after folding if and
+         * only if they are equal according to {@link String#equalsIgnoreCase(String)}.
+         */
+        private static String foldCase(final String string) {
+            final char[] chars = string.toCharArray();
+            for (int i=0; i<chars.length; i++) {
+                chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+            }
+            return new String(chars);
+        }
+
+        private double applyConstraints(final double value) {
+            double result = value;
+            if (lowerBound != null) {
+                result = Math.max(result, lowerBound.doubleValue());
+            }
+            if (upperBound != null) {
+                result = Math.min(result, upperBound.doubleValue());
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Pre-computed form of an {@link AreaMapping}, giving the same results as
+     * {@link AreaMapping#getTargetValue(Value)}. Areas are still tested in turn, but their
+     * coordinates are converted once up front.
+     */
+    static final class IndexedAreaMapping implements Serializable {
+
+        private static final long serialVersionUID = -3120578834380478163L;
+
+        private final Cardinality cardinality;
+        private final double defaultValue;
+        private final Double lowerBound;
+        private final Double upperBound;
+        private final Shape[] shapes;
+        private final int[][] coordinates;
+        private final double[] mappedValues;
+
+        IndexedAreaMapping(final ResponseDeclaration responseDeclaration, final AreaMapping areaMapping) {
+            this.cardinality = responseDeclaration.getCardinality();
+            this.defaultValue = areaMapping.getDefaultValue();
+            this.lowerBound = areaMapping.getLowerBound();
+            this.upperBound = areaMapping.getUpperBound();
+
+            final List<AreaMapEntry> areaMapEntries = areaMapping.getAreaMapEntries();
+            this.shapes = new Shape[areaMapEntries.size()];
+            this.coordinates = new int[areaMapEntries.size()][];
+            this.mappedValues = new double[areaMapEntries.size()];
+            for (int i=0; i<shapes.length; i++) {
+                final AreaMapEntry areaMapEntry = areaMapEntries.get(i);
+                final List<Integer> coords = areaMapEntry.getCoordinates();
+                shapes[i] = areaMapEntry.getShape();
+                coordinates[i] = new int[coords.size()];
+                for (int j=0; j<coordinates[i].length; j++) {
+                    coordinates[i][j] = coords.get(j).intValue();
+                }
+                mappedValues[i] = areaMapEntry.getMappedValue();
+            }
+        }
+
+        FloatValue computeTargetValue(final Value sourceValue) {
+            if (sourceValue != null) {
+                if (cardinality==Cardinality.SINGLE) {
+                    for (int i=0; i<shapes.length; i++) {
+                        if (shapes[i].isInside(coordinates[i], (PointValue) sourceValue)) {
+                            return new FloatValue(applyConstraints(mappedValues[i]));
+                        }
+                    }
+                }
+                else {
+                    /* (See AreaMapping for the rules here) */
+                    double sum = 0.0;
+                    final ListValue sourceListValue = (ListValue) sourceValue;
+                    final List<SingleValue> values = new ArrayList<SingleValue>(sourceListValue.getAll());
+                    for (int i=0; i<shapes.length; i++) {
+                        boolean allow = true;
+                        for (int j = 0; j < sourceListValue.size(); j++) {
+                            if (shapes[i].isInside(coordinates[i], (PointValue) sourceListValue.get(j))) {
+                                if (allow) {
+                                    sum += mappedValues[i];
+                                    allow = false;
+                                }
+                                values.remove(sourceListValue.get(j));
+                            }
+                        }
+                    }
+                    sum += defaultValue * values.size();
+                    return new FloatValue(applyConstraints(sum));
+                }
+            }
+            return new FloatValue(applyConstraints(defaultValue));
+        }
+
+        private double applyConstraints(final double value) {
+            double result = value;
+            if (lowerBound != null) {
+                result = Math.max(result, lowerBound.doubleValue());
+            }
+            if (upperBound != null) {
+                result = Math.min(result, upperBound.doubleValue());
+            }
+            return result;
+        }
+    }
+}
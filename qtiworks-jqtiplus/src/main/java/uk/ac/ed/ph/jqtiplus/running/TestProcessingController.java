@@ -38,8 +38,11 @@ import uk.ac.ed.ph.jqtiplus.QtiConstants;
 import uk.ac.ed.ph.jqtiplus.exception.QtiCandidateStateException;
 import uk.ac.ed.ph.jqtiplus.exception.QtiInvalidLookupException;
 import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
+import uk.ac.ed.ph.jqtiplus.internal.running.CompilingProcessingContext;
 import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
 import uk.ac.ed.ph.jqtiplus.node.QtiNode;
+import uk.ac.ed.ph.jqtiplus.node.expression.CompiledExpression;
+import uk.ac.ed.ph.jqtiplus.node.expression.Expression;
 import uk.ac.ed.ph.jqtiplus.node.shared.VariableDeclaration;
 import uk.ac.ed.ph.jqtiplus.node.shared.VariableType;
 import uk.ac.ed.ph.jqtiplus.node.test.AssessmentItemRef;
@@ -81,7 +84,8 @@ import java.util.Random;
  *
  * @author David McKain
  */
-public class TestProcessingController extends TestValidationController implements TestProcessingContext {
+public class TestProcessingController extends TestValidationController implements TestProcessingContext,
+        CompilingProcessingContext {
 
     protected final TestSessionControllerSettings testSessionControllerSettings;
     protected final TestProcessingMap testProcessingMap;
@@ -131,6 +135,11 @@ public class TestProcessingController extends TestValidationController implement
         return testProcessingMap.isValid();
     }
 
+    @Override
+    public final CompiledExpression getCompiledExpression(final Expression expression) {
+        return testProcessingMap.getCompiledExpression(expression);
+    }
+
     //-------------------------------------------------------------------
 
     public Long getRandomSeed() {
@@ -34,12 +34,18 @@
 package uk.ac.ed.ph.jqtiplus.state;
 
 import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
+import uk.ac.ed.ph.jqtiplus.node.expression.CompiledExpression;
+import uk.ac.ed.ph.jqtiplus.node.expression.Expression;
+import uk.ac.ed.ph.jqtiplus.node.expression.ExpressionCompiler;
 import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
 import uk.ac.ed.ph.jqtiplus.node.item.interaction.Interaction;
 import uk.ac.ed.ph.jqtiplus.node.item.response.declaration.ResponseDeclaration;
+import uk.ac.ed.ph.jqtiplus.node.item.response.processing.ResponseProcessing;
 import uk.ac.ed.ph.jqtiplus.node.item.template.declaration.TemplateDeclaration;
 import uk.ac.ed.ph.jqtiplus.node.outcome.declaration.OutcomeDeclaration;
 import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentItem;
+import uk.ac.ed.ph.jqtiplus.resolution.RootNodeLookup;
+import uk.ac.ed.ph.jqtiplus.running.StandardResponseProcessor;
 import uk.ac.ed.ph.jqtiplus.running.ItemProcessingInitializer;
 import uk.ac.ed.ph.jqtiplus.types.Identifier;
 
@@ -48,6 +54,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -75,11 +82,21 @@ public final class ItemProcessingMap implements Serializable {
     private final Map<Identifier, ResponseDeclaration> validResponseDeclarationMap;
     private final Map<Identifier, OutcomeDeclaration> validOutcomeDeclarationMap;
 
+    /**
+     * {@link CompiledExpression}s for root {@link Expression}s in the item, keyed on identity.
+     * These are not serialized, and are built on demand.
+     */
+    private transient volatile Map<Expression, CompiledExpression> compiledExpressionMap;
+
+    /** Native implementation of the item's response processing, if it is a standard template (null otherwise) */
+    private final StandardResponseProcessor standardResponseProcessor;
+
     public ItemProcessingMap(final ResolvedAssessmentItem resolvedAssessmentItem, final boolean isValid,
             final List<Interaction> interactionsBuilder,
             final LinkedHashMap<Identifier, TemplateDeclaration> validTemplateDeclarationMapBuilder,
             final Map<Identifier, ResponseDeclaration> validResponseDeclarationMapBuilder,
-            final Map<Identifier, OutcomeDeclaration> validOutcomeDeclarationMapBuilder) {
+            final Map<Identifier, OutcomeDeclaration> validOutcomeDeclarationMapBuilder,
+            final StandardResponseProcessor standardResponseProcessor) {
         this.resolvedAssessmentItem = resolvedAssessmentItem;
         this.isValid = isValid;
 
@@ -102,6 +119,8 @@ public final class ItemProcessingMap implements Serializable {
         variableIdentifierSetBuilder.addAll(validResponseDeclarationMap.keySet());
         variableIdentifierSetBuilder.addAll(validOutcomeDeclarationMap.keySet());
         this.validVariableIdentifierSet = Collections.unmodifiableSet(variableIdentifierSetBuilder);
+
+        this.standardResponseProcessor = standardResponseProcessor;
     }
 
     public boolean isValid() {
@@ -140,6 +159,38 @@ public final class ItemProcessingMap implements Serializable {
         return interactionByResponseIdentifierMap;
     }
 
+    public CompiledExpression getCompiledExpression(final Expression expression) {
+        Map<Expression, CompiledExpression> result = compiledExpressionMap;
+        if (result==null) {
+            /* (Concurrent callers may both compile here, which is harmless) */
+            result = compileExpressions();
+            compiledExpressionMap = result;
+        }
+        return result.get(expression);
+    }
+
+    private Map<Expression, CompiledExpression> compileExpressions() {
+        if (!isValid) {
+            return Collections.emptyMap();
+        }
+        final ExpressionCompiler expressionCompiler = ExpressionCompiler.forItem(validTemplateDeclarationMap.keySet(),
+                validResponseDeclarationMap.keySet(), validOutcomeDeclarationMap.keySet());
+        final AssessmentItem item = resolvedAssessmentItem.getItemLookup().extractAssumingSuccessful();
+        final Map<Expression, CompiledExpression> result = new IdentityHashMap<Expression, CompiledExpression>();
+        result.putAll(expressionCompiler.compileRootExpressions(item));
+
+        /* Also do any responseProcessing template that will be used in place of the item's own */
+        final RootNodeLookup<ResponseProcessing> resolvedResponseProcessingTemplateLookup = resolvedAssessmentItem.getResolvedResponseProcessingTemplateLookup();
+        if (resolvedResponseProcessingTemplateLookup!=null && resolvedResponseProcessingTemplateLookup.wasSuccessful()) {
+            result.putAll(expressionCompiler.compileRootExpressions(resolvedResponseProcessingTemplateLookup.extractAssumingSuccessful()));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    public StandardResponseProcessor getStandardResponseProcessor() {
+        return standardResponseProcessor;
+    }
+
     @Override
     public String toString() {
         return ObjectUtilities.beanToString(this);
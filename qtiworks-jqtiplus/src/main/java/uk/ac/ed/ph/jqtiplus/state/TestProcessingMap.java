@@ -35,6 +35,9 @@ package uk.ac.ed.ph.jqtiplus.state;
 
 import uk.ac.ed.ph.jqtiplus.QtiConstants;
 import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
+import uk.ac.ed.ph.jqtiplus.node.expression.CompiledExpression;
+import uk.ac.ed.ph.jqtiplus.node.expression.Expression;
+import uk.ac.ed.ph.jqtiplus.node.expression.ExpressionCompiler;
 import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
 import uk.ac.ed.ph.jqtiplus.node.item.response.declaration.ResponseDeclaration;
 import uk.ac.ed.ph.jqtiplus.node.outcome.declaration.OutcomeDeclaration;
@@ -50,6 +53,7 @@ import java.io.Serializable;
 import java.net.URI;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -86,6 +90,12 @@ public final class TestProcessingMap implements Serializable {
      */
     private final Map<URI, ItemProcessingMap> itemProcessingMapMap;
 
+    /**
+     * {@link CompiledExpression}s for root {@link Expression}s in the test, keyed on identity.
+     * These are not serialized, and are built on demand.
+     */
+    private transient volatile Map<Expression, CompiledExpression> compiledExpressionMap;
+
     public TestProcessingMap(final ResolvedAssessmentTest resolvedAssessmentTest, final boolean isValid,
             final List<AbstractPart> abstractPartListBuilder,
             final Map<AbstractPart, EffectiveItemSessionControl> effectiveItemSessionControlMap,
@@ -152,6 +162,26 @@ public final class TestProcessingMap implements Serializable {
         return itemProcessingMapMap;
     }
 
+    public CompiledExpression getCompiledExpression(final Expression expression) {
+        Map<Expression, CompiledExpression> result = compiledExpressionMap;
+        if (result==null) {
+            /* (Concurrent callers may both compile here, which is harmless) */
+            result = compileExpressions();
+            compiledExpressionMap = result;
+        }
+        return result.get(expression);
+    }
+
+    private Map<Expression, CompiledExpression> compileExpressions() {
+        if (!isValid) {
+            return Collections.emptyMap();
+        }
+        final AssessmentTest test = resolvedAssessmentTest.getTestLookup().extractAssumingSuccessful();
+        final Map<Expression, CompiledExpression> result = new IdentityHashMap<Expression, CompiledExpression>();
+        result.putAll(ExpressionCompiler.forTest(resolvedAssessmentTest).compileRootExpressions(test));
+        return Collections.unmodifiableMap(result);
+    }
+
     public AbstractPart resolveAbstractPart(final TestPlanNode testPlanNode) {
         if (testPlanNode.getTestNodeType()==TestNodeType.ROOT) {
             throw new IllegalArgumentException("This method should not be called for " + testPlanNode.getTestNodeType());
@@ -0,0 +1,599 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
+import uk.ac.ed.ph.jqtiplus.exception.QtiParseException;
+import uk.ac.ed.ph.jqtiplus.state.AbstractPartSessionState;
+import uk.ac.ed.ph.jqtiplus.state.ControlObjectSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.value.BaseType;
+import uk.ac.ed.ph.jqtiplus.value.BooleanValue;
+import uk.ac.ed.ph.jqtiplus.value.Cardinality;
+import uk.ac.ed.ph.jqtiplus.value.FileValue;
+import uk.ac.ed.ph.jqtiplus.value.FloatValue;
+import uk.ac.ed.ph.jqtiplus.value.IdentifierValue;
+import uk.ac.ed.ph.jqtiplus.value.IntegerValue;
+import uk.ac.ed.ph.jqtiplus.value.ListValue;
+import uk.ac.ed.ph.jqtiplus.value.MultipleValue;
+import uk.ac.ed.ph.jqtiplus.value.NullValue;
+import uk.ac.ed.ph.jqtiplus.value.OrderedValue;
+import uk.ac.ed.ph.jqtiplus.value.RecordValue;
+import uk.ac.ed.ph.jqtiplus.value.SingleValue;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Core for the compact binary marshalling of JQTI+ state Objects. This is a faster and much
+ * more compact alternative to the XML marshalling done via {@link XmlMarshallerCore}, intended
+ * for storage only. (Use the XML marshallers for anything that needs to be read by humans or
+ * passed to the rendering layers.)
+ *
+ * <h2>Format</h2>
+ *
+ * Each marshalled state starts with a 4 byte magic number, a format version byte and a byte
+ * indicating the type of state Object that follows. The state data then follows, written
+ * using {@link DataOutputStream} conventions with the following additions:
+ * <ul>
+ *   <li>Non-negative integers (counts, indices) are written as variable length unsigned ints</li>
+ *   <li>Strings are written as UTF-8 with a length prefix, with -1 indicating null</li>
+ *   <li>Identifiers, enumeration values and other frequently repeated Strings are written into
+ *     a per-document String table, so that each distinct String is only written once.</li>
+ * </ul>
+ * Readers must check the format version and fail if it is not understood.
+ *
+ * @author David McKain
+ */
+public final class BinaryMarshallerCore {
+
+    /** Magic number at the start of each marshalled state ("QTWS") */
+    public static final int MAGIC_NUMBER = 0x51545753;
+
+    /** Current format version. Increment this if the format ever changes! */
+    public static final int FORMAT_VERSION = 1;
+
+    /** Type byte for {@link uk.ac.ed.ph.jqtiplus.state.ItemSessionState} */
+    static final int ITEM_SESSION_STATE_TYPE = 1;
+
+    /** Type byte for {@link uk.ac.ed.ph.jqtiplus.state.TestSessionState} */
+    static final int TEST_SESSION_STATE_TYPE = 2;
+
+    /**
+     * Returns true if the given data looks like something produced by one of the binary
+     * marshallers. (This only checks the magic number.)
+     */
+    public static boolean isBinaryState(final byte[] data) {
+        return data.length>=4
+                && ((data[0] & 0xff) << 24 | (data[1] & 0xff) << 16 | (data[2] & 0xff) << 8 | (data[3] & 0xff))==MAGIC_NUMBER;
+    }
+
+    //----------------------------------------------
+    // Marshalling
+
+    /**
+     * Wraps up a {@link DataOutputStream} writing to a byte array, plus the String table
+     * being built up.
+     */
+    static final class StateOutput {
+
+        private final ByteArrayOutputStream byteStream;
+        private final DataOutputStream dataStream;
+        private final Map<String, Integer> stringTable;
+
+        StateOutput(final int stateType) {
+            this.byteStream = new ByteArrayOutputStream(1024);
+            this.dataStream = new DataOutputStream(byteStream);
+            this.stringTable = new HashMap<String, Integer>();
+            try {
+                dataStream.writeInt(MAGIC_NUMBER);
+                dataStream.writeByte(FORMAT_VERSION);
+                dataStream.writeByte(stateType);
+            }
+            catch (final IOException e) {
+                throw wrapWriteFailure(e);
+            }
+        }
+
+        byte[] toByteArray() {
+            try {
+                dataStream.flush();
+            }
+            catch (final IOException e) {
+                throw wrapWriteFailure(e);
+            }
+            return byteStream.toByteArray();
+        }
+
+        void writeBoolean(final boolean value) throws IOException {
+            dataStream.writeBoolean(value);
+        }
+
+        void writeLong(final long value) throws IOException {
+            dataStream.writeLong(value);
+        }
+
+        void writeDouble(final double value) throws IOException {
+            dataStream.writeDouble(value);
+        }
+
+        void writeInt(final int value) throws IOException {
+            dataStream.writeInt(value);
+        }
+
+        void writeCount(final int value) throws IOException {
+            int remaining = value;
+            while ((remaining & ~0x7f)!=0) {
+                dataStream.writeByte((remaining & 0x7f) | 0x80);
+                remaining >>>= 7;
+            }
+            dataStream.writeByte(remaining);
+        }
+
+        void writeString(final String value) throws IOException {
+            if (value==null) {
+                dataStream.writeInt(-1);
+                return;
+            }
+            final byte[] bytes = value.getBytes("UTF-8");
+            dataStream.writeInt(bytes.length);
+            dataStream.write(bytes);
+        }
+
+        /**
+         * Writes a (non-null) String into the String table. The first occurrence is written as
+         * 0 followed by the String; subsequent occurrences are written as its (1-based) index.
+         */
+        void writeSharedString(final String value) throws IOException {
+            final Integer index = stringTable.get(value);
+            if (index!=null) {
+                writeCount(index.intValue());
+            }
+            else {
+                stringTable.put(value, Integer.valueOf(stringTable.size() + 1));
+                writeCount(0);
+                writeString(value);
+            }
+        }
+
+        void writeOptionalSharedString(final String value) throws IOException {
+            writeBoolean(value!=null);
+            if (value!=null) {
+                writeSharedString(value);
+            }
+        }
+
+        void writeIdentifier(final Identifier identifier) throws IOException {
+            writeSharedString(identifier.toString());
+        }
+
+        void writeIdentifiers(final Collection<Identifier> identifiers) throws IOException {
+            writeCount(identifiers.size());
+            for (final Identifier identifier : identifiers) {
+                writeIdentifier(identifier);
+            }
+        }
+
+        void writeOptionalDate(final Date date) throws IOException {
+            writeBoolean(date!=null);
+            if (date!=null) {
+                writeLong(date.getTime());
+            }
+        }
+
+        void writeOptionalTestPlanNodeKey(final TestPlanNodeKey key) throws IOException {
+            writeBoolean(key!=null);
+            if (key!=null) {
+                writeTestPlanNodeKey(key);
+            }
+        }
+
+        void writeTestPlanNodeKey(final TestPlanNodeKey key) throws IOException {
+            writeIdentifier(key.getIdentifier());
+            writeCount(key.getAbstractPartGlobalIndex());
+            writeCount(key.getInstanceNumber());
+        }
+
+        void writeControlObjectSessionState(final ControlObjectSessionState controlObjectState) throws IOException {
+            writeOptionalDate(controlObjectState.getEntryTime());
+            writeOptionalDate(controlObjectState.getEndTime());
+            writeOptionalDate(controlObjectState.getExitTime());
+            writeOptionalDate(controlObjectState.getDurationIntervalStartTime());
+            writeLong(controlObjectState.getDurationAccumulated());
+        }
+
+        void writeAbstractPartSessionState(final AbstractPartSessionState abstractPartSessionState) throws IOException {
+            writeControlObjectSessionState(abstractPartSessionState);
+            writeBoolean(abstractPartSessionState.isPreConditionFailed());
+            writeBoolean(abstractPartSessionState.isJumpedByBranchRule());
+            writeOptionalSharedString(abstractPartSessionState.getBranchRuleTarget());
+        }
+
+        void writeValues(final Map<Identifier, Value> valueMap) throws IOException {
+            writeCount(valueMap.size());
+            for (final Entry<Identifier, Value> entry : valueMap.entrySet()) {
+                writeIdentifier(entry.getKey());
+                writeValue(entry.getValue());
+            }
+        }
+
+        void writeValue(final Value value) throws IOException {
+            if (value.isNull()) {
+                /* We indicate null by using an empty cardinality */
+                writeSharedString("");
+                return;
+            }
+            final Cardinality cardinality = value.getCardinality();
+            writeSharedString(cardinality.toQtiString());
+            switch (cardinality) {
+                case SINGLE:
+                    writeSingleValue((SingleValue) value);
+                    break;
+
+                case MULTIPLE:
+                case ORDERED:
+                    final ListValue listValue = (ListValue) value;
+                    writeCount(listValue.size());
+                    for (final SingleValue listItem : listValue) {
+                        writeSingleValue(listItem);
+                    }
+                    break;
+
+                case RECORD:
+                    final RecordValue recordValue = (RecordValue) value;
+                    writeCount(recordValue.size());
+                    for (final Entry<Identifier, SingleValue> entry : recordValue.entrySet()) {
+                        writeIdentifier(entry.getKey());
+                        writeSingleValue(entry.getValue());
+                    }
+                    break;
+
+                default:
+                    throw new QtiLogicException("Unexpected logic branch: " + cardinality);
+            }
+        }
+
+        void writeSingleValue(final SingleValue value) throws IOException {
+            final BaseType baseType = value.getBaseType();
+            writeSharedString(baseType.toQtiString());
+            switch (baseType) {
+                case BOOLEAN:
+                    writeBoolean(((BooleanValue) value).booleanValue());
+                    break;
+
+                case INTEGER:
+                    writeInt(((IntegerValue) value).intValue());
+                    break;
+
+                case FLOAT:
+                    writeDouble(((FloatValue) value).doubleValue());
+                    break;
+
+                case IDENTIFIER:
+                    writeIdentifier(((IdentifierValue) value).identifierValue());
+                    break;
+
+                case FILE:
+                    final FileValue fileValue = (FileValue) value;
+                    writeString(fileValue.getFile().getAbsolutePath());
+                    writeString(fileValue.getContentType());
+                    writeString(fileValue.getFileName());
+                    break;
+
+                default:
+                    /* Other types are stored using their QTI String forms, as per XML */
+                    writeString(value.toQtiString());
+                    break;
+            }
+        }
+    }
+
+    //----------------------------------------------
+    // Unmarshalling
+
+    /**
+     * Wraps up a {@link DataInputStream}, plus the String table being read in.
+     */
+    static final class StateInput {
+
+        private final DataInputStream dataStream;
+        private final List<String> stringTable;
+
+        StateInput(final InputStream inputStream, final int expectedStateType) {
+            this.dataStream = new DataInputStream(inputStream);
+            this.stringTable = new ArrayList<String>();
+            try {
+                final int magicNumber = dataStream.readInt();
+                if (magicNumber!=MAGIC_NUMBER) {
+                    throw new BinaryUnmarshallingException("Data does not start with the expected magic number");
+                }
+                final int formatVersion = dataStream.readUnsignedByte();
+                if (formatVersion!=FORMAT_VERSION) {
+                    throw new BinaryUnmarshallingException("Unsupported format version " + formatVersion
+                            + ". Only version " + FORMAT_VERSION + " is supported");
+                }
+                final int stateType = dataStream.readUnsignedByte();
+                if (stateType!=expectedStateType) {
+                    throw new BinaryUnmarshallingException("Expected state type " + expectedStateType
+                            + " but got " + stateType);
+                }
+            }
+            catch (final IOException e) {
+                throw new BinaryUnmarshallingException("Could not read binary state header", e);
+            }
+        }
+
+        void expectEnd() throws IOException {
+            if (dataStream.read()!=-1) {
+                throw new BinaryUnmarshallingException("Unexpected trailing data after state");
+            }
+        }
+
+        boolean readBoolean() throws IOException {
+            return dataStream.readBoolean();
+        }
+
+        long readLong() throws IOException {
+            return dataStream.readLong();
+        }
+
+        double readDouble() throws IOException {
+            return dataStream.readDouble();
+        }
+
+        int readInt() throws IOException {
+            return dataStream.readInt();
+        }
+
+        int readCount() throws IOException {
+            int result = 0;
+            for (int shift=0; shift<32; shift+=7) {
+                final int b = dataStream.readUnsignedByte();
+                result |= (b & 0x7f) << shift;
+                if ((b & 0x80)==0) {
+                    return result;
+                }
+            }
+            throw new BinaryUnmarshallingException("Malformed variable length integer");
+        }
+
+        String readString() throws IOException {
+            final int length = dataStream.readInt();
+            if (length==-1) {
+                return null;
+            }
+            if (length<0) {
+                throw new BinaryUnmarshallingException("Bad String length " + length);
+            }
+            final byte[] bytes = new byte[length];
+            dataStream.readFully(bytes);
+            return new String(bytes, "UTF-8");
+        }
+
+        String readSharedString() throws IOException {
+            final int index = readCount();
+            if (index==0) {
+                final String value = readString();
+                if (value==null) {
+                    throw new BinaryUnmarshallingException("Unexpected null String in String table");
+                }
+                stringTable.add(value);
+                return value;
+            }
+            if (index>stringTable.size()) {
+                throw new BinaryUnmarshallingException("String table index " + index + " out of range");
+            }
+            return stringTable.get(index - 1);
+        }
+
+        String readOptionalSharedString() throws IOException {
+            return readBoolean() ? readSharedString() : null;
+        }
+
+        Identifier readIdentifier() throws IOException {
+            final String identifierString = readSharedString();
+            try {
+                return Identifier.parseString(identifierString);
+            }
+            catch (final QtiParseException e) {
+                throw new BinaryUnmarshallingException("Value " + identifierString + " is not a valid QTI Identifier");
+            }
+        }
+
+        List<Identifier> readIdentifiers() throws IOException {
+            final int count = readCount();
+            final List<Identifier> result = new ArrayList<Identifier>(count);
+            for (int i=0; i<count; i++) {
+                result.add(readIdentifier());
+            }
+            return result;
+        }
+
+        Date readOptionalDate() throws IOException {
+            return readBoolean() ? new Date(readLong()) : null;
+        }
+
+        TestPlanNodeKey readOptionalTestPlanNodeKey() throws IOException {
+            return readBoolean() ? readTestPlanNodeKey() : null;
+        }
+
+        TestPlanNodeKey readTestPlanNodeKey() throws IOException {
+            final Identifier identifier = readIdentifier();
+            final int abstractPartGlobalIndex = readCount();
+            final int instanceNumber = readCount();
+            if (instanceNumber<=0) {
+                throw new BinaryUnmarshallingException("Expected instance number " + instanceNumber + " to be strictly positive");
+            }
+            return new TestPlanNodeKey(identifier, abstractPartGlobalIndex, instanceNumber);
+        }
+
+        void readControlObjectSessionState(final ControlObjectSessionState target) throws IOException {
+            target.setEntryTime(readOptionalDate());
+            target.setEndTime(readOptionalDate());
+            target.setExitTime(readOptionalDate());
+            target.setDurationIntervalStartTime(readOptionalDate());
+            target.setDurationAccumulated(readLong());
+        }
+
+        void readAbstractPartSessionState(final AbstractPartSessionState target) throws IOException {
+            readControlObjectSessionState(target);
+            target.setPreConditionFailed(readBoolean());
+            target.setJumpedByBranchRule(readBoolean());
+            target.setBranchRuleTarget(readOptionalSharedString());
+        }
+
+        /**
+         * Reads a Map of values, in the same order they were written.
+         */
+        Map<Identifier, Value> readValues() throws IOException {
+            final int count = readCount();
+            final Map<Identifier, Value> result = new LinkedHashMap<Identifier, Value>();
+            for (int i=0; i<count; i++) {
+                final Identifier identifier = readIdentifier();
+                result.put(identifier, readValue());
+            }
+            return result;
+        }
+
+        Value readValue() throws IOException {
+            final String cardinalityString = readSharedString();
+            if (cardinalityString.isEmpty()) {
+                return NullValue.INSTANCE;
+            }
+            final Cardinality cardinality;
+            try {
+                cardinality = Cardinality.parseCardinality(cardinalityString);
+            }
+            catch (final IllegalArgumentException e) {
+                throw new BinaryUnmarshallingException("Bad cardinality " + cardinalityString);
+            }
+            switch (cardinality) {
+                case SINGLE:
+                    return readSingleValue();
+
+                case MULTIPLE:
+                    return MultipleValue.createMultipleValue(readListValues());
+
+                case ORDERED:
+                    return OrderedValue.createOrderedValue(readListValues());
+
+                case RECORD:
+                    final int count = readCount();
+                    final Map<Identifier, SingleValue> recordBuilder = new HashMap<Identifier, SingleValue>();
+                    for (int i=0; i<count; i++) {
+                        final Identifier fieldIdentifier = readIdentifier();
+                        recordBuilder.put(fieldIdentifier, readSingleValue());
+                    }
+                    return RecordValue.createRecordValue(recordBuilder);
+
+                default:
+                    throw new QtiLogicException("Unexpected logic branch " + cardinality);
+            }
+        }
+
+        private List<SingleValue> readListValues() throws IOException {
+            final int count = readCount();
+            final List<SingleValue> result = new ArrayList<SingleValue>(count);
+            for (int i=0; i<count; i++) {
+                result.add(readSingleValue());
+            }
+            return result;
+        }
+
+        SingleValue readSingleValue() throws IOException {
+            final String baseTypeString = readSharedString();
+            final BaseType baseType;
+            try {
+                baseType = BaseType.parseBaseType(baseTypeString);
+            }
+            catch (final IllegalArgumentException e) {
+                throw new BinaryUnmarshallingException("Bad baseType " + baseTypeString);
+            }
+            switch (baseType) {
+                case BOOLEAN:
+                    return BooleanValue.valueOf(readBoolean());
+
+                case INTEGER:
+                    return new IntegerValue(readInt());
+
+                case FLOAT:
+                    return new FloatValue(readDouble());
+
+                case IDENTIFIER:
+                    return new IdentifierValue(readIdentifier());
+
+                case FILE:
+                    final File file = new File(readString());
+                    final String contentType = readString();
+                    final String fileName = readString();
+                    return new FileValue(file, contentType, fileName);
+
+                default:
+                    final String valueString = readString();
+                    try {
+                        return baseType.parseSingleValue(valueString);
+                    }
+                    catch (final QtiParseException e) {
+                        throw new BinaryUnmarshallingException("Could not parse single value " + valueString + " of baseType " + baseType, e);
+                    }
+            }
+        }
+    }
+
+    static QtiLogicException wrapWriteFailure(final IOException e) {
+        return new QtiLogicException("Unexpected IOException writing binary state to memory", e);
+    }
+
+    static BinaryUnmarshallingException wrapReadFailure(final IOException e) {
+        if (e instanceof EOFException) {
+            return new BinaryUnmarshallingException("Unexpected end of binary state data", e);
+        }
+        return new BinaryUnmarshallingException("Could not read binary state data", e);
+    }
+}
@@ -0,0 +1,265 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
+import uk.ac.ed.ph.jqtiplus.node.result.SessionStatus;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.BinaryMarshallerCore.StateInput;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.BinaryMarshallerCore.StateOutput;
+import uk.ac.ed.ph.jqtiplus.types.FileResponseData;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.types.ResponseData;
+import uk.ac.ed.ph.jqtiplus.types.ResponseData.ResponseDataType;
+import uk.ac.ed.ph.jqtiplus.types.StringResponseData;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Marshals an {@link ItemSessionState} to/from the compact binary format described in
+ * {@link BinaryMarshallerCore}.
+ *
+ * @see ItemSessionStateXmlMarshaller
+ *
+ * @author David McKain
+ */
+public final class ItemSessionStateBinaryMarshaller {
+
+    public static byte[] marshal(final ItemSessionState itemSessionState) {
+        final StateOutput output = new StateOutput(BinaryMarshallerCore.ITEM_SESSION_STATE_TYPE);
+        try {
+            writeItemSessionState(output, itemSessionState);
+        }
+        catch (final IOException e) {
+            throw BinaryMarshallerCore.wrapWriteFailure(e);
+        }
+        return output.toByteArray();
+    }
+
+    static void writeItemSessionState(final StateOutput output, final ItemSessionState itemSessionState) throws IOException {
+        output.writeAbstractPartSessionState(itemSessionState);
+        output.writeBoolean(itemSessionState.isInitialized());
+        output.writeBoolean(itemSessionState.isResponded());
+        output.writeOptionalDate(itemSessionState.getSuspendTime());
+        final SessionStatus sessionStatus = itemSessionState.getSessionStatus();
+        output.writeOptionalSharedString(sessionStatus!=null ? sessionStatus.toQtiString() : null);
+
+        /* Write implicit variables */
+        output.writeOptionalSharedString(itemSessionState.getCompletionStatus());
+        output.writeCount(itemSessionState.getNumAttempts());
+
+        /* Write unbound and invalid responses */
+        output.writeIdentifiers(itemSessionState.getUnboundResponseIdentifiers());
+        output.writeIdentifiers(itemSessionState.getInvalidResponseIdentifiers());
+
+        /* Write shuffled choice orders */
+        final Map<Identifier, List<Identifier>> shuffledInteractionChoiceOrders = itemSessionState.getShuffledInteractionChoiceOrders();
+        output.writeCount(shuffledInteractionChoiceOrders.size());
+        for (final Entry<Identifier, List<Identifier>> entry : shuffledInteractionChoiceOrders.entrySet()) {
+            output.writeIdentifier(entry.getKey());
+            output.writeIdentifiers(entry.getValue());
+        }
+
+        /* Write raw responses */
+        final Map<Identifier, ResponseData> rawResponseDataMap = itemSessionState.getRawResponseDataMap();
+        output.writeCount(rawResponseDataMap.size());
+        for (final Entry<Identifier, ResponseData> entry : rawResponseDataMap.entrySet()) {
+            output.writeIdentifier(entry.getKey());
+            writeResponseData(output, entry.getValue());
+        }
+
+        /* Write candidate comment */
+        output.writeString(itemSessionState.getCandidateComment());
+
+        /* Do various values */
+        output.writeValues(itemSessionState.getUncommittedResponseValues());
+        output.writeValues(itemSessionState.getTemplateValues());
+        output.writeValues(itemSessionState.getResponseValues());
+        output.writeValues(itemSessionState.getOutcomeValues());
+        output.writeValues(itemSessionState.getOverriddenTemplateDefaultValues());
+        output.writeValues(itemSessionState.getOverriddenResponseDefaultValues());
+        output.writeValues(itemSessionState.getOverriddenOutcomeDefaultValues());
+        output.writeValues(itemSessionState.getOverriddenCorrectResponseValues());
+    }
+
+    private static void writeResponseData(final StateOutput output, final ResponseData responseData) throws IOException {
+        final ResponseDataType responseDataType = responseData.getType();
+        output.writeSharedString(responseDataType.name());
+        switch (responseDataType) {
+            case STRING:
+                final List<String> stringResponseData = ((StringResponseData) responseData).getResponseData();
+                output.writeCount(stringResponseData.size());
+                for (final String responseDatum : stringResponseData) {
+                    output.writeString(responseDatum);
+                }
+                break;
+
+            case FILE:
+                final FileResponseData fileResponseData = (FileResponseData) responseData;
+                output.writeString(fileResponseData.getContentType());
+                output.writeString(fileResponseData.getFileName());
+                output.writeString(fileResponseData.getFile().getAbsolutePath());
+                break;
+
+            default:
+                throw new QtiLogicException("Unexpected switch case " + responseDataType);
+        }
+    }
+
+    //----------------------------------------------
+
+    public static ItemSessionState unmarshal(final byte[] data) {
+        return unmarshal(new ByteArrayInputStream(data));
+    }
+
+    public static ItemSessionState unmarshal(final InputStream inputStream) {
+        final StateInput input = new StateInput(inputStream, BinaryMarshallerCore.ITEM_SESSION_STATE_TYPE);
+        try {
+            final ItemSessionState result = readItemSessionState(input);
+            input.expectEnd();
+            return result;
+        }
+        catch (final IOException e) {
+            throw BinaryMarshallerCore.wrapReadFailure(e);
+        }
+    }
+
+    static ItemSessionState readItemSessionState(final StateInput input) throws IOException {
+        final ItemSessionState result = new ItemSessionState();
+        input.readAbstractPartSessionState(result);
+        result.setInitialized(input.readBoolean());
+        result.setResponded(input.readBoolean());
+        result.setSuspendTime(input.readOptionalDate());
+        final String sessionStatus = input.readOptionalSharedString();
+        if (sessionStatus!=null) {
+            try {
+                result.setSessionStatus(SessionStatus.parseSessionStatus(sessionStatus));
+            }
+            catch (final IllegalArgumentException e) {
+                throw new BinaryUnmarshallingException("Unexpected value for sessionStatus: " + sessionStatus);
+            }
+        }
+
+        final String completionStatus = input.readOptionalSharedString();
+        if (completionStatus!=null) {
+            try {
+                result.setCompletionStatus(completionStatus);
+            }
+            catch (final IllegalArgumentException e) {
+                throw new BinaryUnmarshallingException("Unexpected value for completionStatus: " + completionStatus);
+            }
+        }
+        result.setNumAttempts(input.readCount());
+
+        result.setUnboundResponseIdentifiers(input.readIdentifiers());
+        result.setInvalidResponseIdentifiers(input.readIdentifiers());
+
+        final int shuffledInteractionCount = input.readCount();
+        for (int i=0; i<shuffledInteractionCount; i++) {
+            final Identifier responseIdentifier = input.readIdentifier();
+            result.setShuffledInteractionChoiceOrder(responseIdentifier, input.readIdentifiers());
+        }
+
+        final int rawResponseCount = input.readCount();
+        for (int i=0; i<rawResponseCount; i++) {
+            final Identifier identifier = input.readIdentifier();
+            result.setRawResponseData(identifier, readResponseData(input));
+        }
+
+        result.setCandidateComment(input.readString());
+
+        for (final Entry<Identifier, Value> entry : input.readValues().entrySet()) {
+            result.setUncommittedResponseValue(entry.getKey(), entry.getValue());
+        }
+        for (final Entry<Identifier, Value> entry : input.readValues().entrySet()) {
+            result.setTemplateValue(entry.getKey(), entry.getValue());
+        }
+        for (final Entry<Identifier, Value> entry : input.readValues().entrySet()) {
+            result.setResponseValue(entry.getKey(), entry.getValue());
+        }
+        for (final Entry<Identifier, Value> entry : input.readValues().entrySet()) {
+            result.setOutcomeValue(entry.getKey(), entry.getValue());
+        }
+        for (final Entry<Identifier, Value> entry : input.readValues().entrySet()) {
+            result.setOverriddenTemplateDefaultValue(entry.getKey(), entry.getValue());
+        }
+        for (final Entry<Identifier, Value> entry : input.readValues().entrySet()) {
+            result.setOverriddenResponseDefaultValue(entry.getKey(), entry.getValue());
+        }
+        for (final Entry<Identifier, Value> entry : input.readValues().entrySet()) {
+            result.setOverriddenOutcomeDefaultValue(entry.getKey(), entry.getValue());
+        }
+        for (final Entry<Identifier, Value> entry : input.readValues().entrySet()) {
+            result.setOverriddenCorrectResponseValue(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    private static ResponseData readResponseData(final StateInput input) throws IOException {
+        final String responseDataTypeString = input.readSharedString();
+        final ResponseDataType responseDataType;
+        try {
+            responseDataType = ResponseDataType.valueOf(responseDataTypeString);
+        }
+        catch (final IllegalArgumentException e) {
+            throw new BinaryUnmarshallingException("Unexpected ResponseDataType " + responseDataTypeString);
+        }
+        switch (responseDataType) {
+            case STRING:
+                final int count = input.readCount();
+                final List<String> stringResponseBuilder = new ArrayList<String>(count);
+                for (int i=0; i<count; i++) {
+                    stringResponseBuilder.add(input.readString());
+                }
+                return new StringResponseData(stringResponseBuilder);
+
+            case FILE:
+                final String contentType = input.readString();
+                final String fileName = input.readString();
+                final String absoluteFilePath = input.readString();
+                return new FileResponseData(new File(absoluteFilePath), contentType, fileName);
+
+            default:
+                throw new QtiLogicException("Unexpected switch case " + responseDataType);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import uk.ac.ed.ph.jqtiplus.state.AssessmentSectionSessionState;
+import uk.ac.ed.ph.jqtiplus.state.EffectiveItemSessionControl;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPartSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPlan;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNode;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNode.TestNodeType;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.BinaryMarshallerCore.StateInput;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.BinaryMarshallerCore.StateOutput;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Marshals a {@link TestSessionState} (including its {@link TestPlan} and the states of
+ * each part of the test) to/from the compact binary format described in
+ * {@link BinaryMarshallerCore}.
+ *
+ * @see TestSessionStateXmlMarshaller
+ *
+ * @author David McKain
+ */
+public final class TestSessionStateBinaryMarshaller {
+
+    public static byte[] marshal(final TestSessionState testSessionState) {
+        final StateOutput output = new StateOutput(BinaryMarshallerCore.TEST_SESSION_STATE_TYPE);
+        try {
+            writeTestSessionState(output, testSessionState);
+        }
+        catch (final IOException e) {
+            throw BinaryMarshallerCore.wrapWriteFailure(e);
+        }
+        return output.toByteArray();
+    }
+
+    static void writeTestSessionState(final StateOutput output, final TestSessionState testSessionState) throws IOException {
+        /* Do test plan first, as we need this to create the TestSessionState when reading */
+        final List<TestPlanNode> testPartNodes = testSessionState.getTestPlan().getTestPlanRootNode().getChildren();
+        output.writeCount(testPartNodes.size());
+        for (final TestPlanNode testPlanNode : testPartNodes) {
+            writeTestPlanNode(output, testPlanNode);
+        }
+
+        output.writeControlObjectSessionState(testSessionState);
+        output.writeBoolean(testSessionState.isInitialized());
+        output.writeOptionalTestPlanNodeKey(testSessionState.getCurrentTestPartKey());
+        output.writeOptionalTestPlanNodeKey(testSessionState.getCurrentItemKey());
+
+        /* Do outcome variables */
+        output.writeValues(testSessionState.getOutcomeValues());
+
+        /* Do states for each TestPart */
+        final Map<TestPlanNodeKey, TestPartSessionState> testPartSessionStates = testSessionState.getTestPartSessionStates();
+        output.writeCount(testPartSessionStates.size());
+        for (final Entry<TestPlanNodeKey, TestPartSessionState> entry : testPartSessionStates.entrySet()) {
+            output.writeTestPlanNodeKey(entry.getKey());
+            output.writeAbstractPartSessionState(entry.getValue());
+        }
+
+        /* Do states for each AssessmentSection */
+        final Map<TestPlanNodeKey, AssessmentSectionSessionState> assessmentSectionSessionStates = testSessionState.getAssessmentSectionSessionStates();
+        output.writeCount(assessmentSectionSessionStates.size());
+        for (final Entry<TestPlanNodeKey, AssessmentSectionSessionState> entry : assessmentSectionSessionStates.entrySet()) {
+            output.writeTestPlanNodeKey(entry.getKey());
+            output.writeAbstractPartSessionState(entry.getValue());
+        }
+
+        /* Do states for each item */
+        final Map<TestPlanNodeKey, ItemSessionState> itemSessionStates = testSessionState.getItemSessionStates();
+        output.writeCount(itemSessionStates.size());
+        for (final Entry<TestPlanNodeKey, ItemSessionState> entry : itemSessionStates.entrySet()) {
+            output.writeTestPlanNodeKey(entry.getKey());
+            ItemSessionStateBinaryMarshaller.writeItemSessionState(output, entry.getValue());
+        }
+    }
+
+    private static void writeTestPlanNode(final StateOutput output, final TestPlanNode testPlanNode) throws IOException {
+        output.writeSharedString(testPlanNode.getTestNodeType().name());
+        output.writeTestPlanNodeKey(testPlanNode.getKey());
+        final EffectiveItemSessionControl effectiveItemSessionControl = testPlanNode.getEffectiveItemSessionControl();
+        output.writeBoolean(effectiveItemSessionControl!=null);
+        if (effectiveItemSessionControl!=null) {
+            output.writeInt(effectiveItemSessionControl.getMaxAttempts());
+            output.writeBoolean(effectiveItemSessionControl.isShowFeedback());
+            output.writeBoolean(effectiveItemSessionControl.isAllowReview());
+            output.writeBoolean(effectiveItemSessionControl.isShowSolution());
+            output.writeBoolean(effectiveItemSessionControl.isAllowComment());
+            output.writeBoolean(effectiveItemSessionControl.isAllowSkipping());
+            output.writeBoolean(effectiveItemSessionControl.isValidateResponses());
+        }
+        output.writeString(testPlanNode.getSectionPartTitle());
+        final URI itemSystemId = testPlanNode.getItemSystemId();
+        output.writeOptionalSharedString(itemSystemId!=null ? itemSystemId.toString() : null);
+
+        /* Descend into children */
+        final List<TestPlanNode> children = testPlanNode.getChildren();
+        output.writeCount(children.size());
+        for (final TestPlanNode childNode : children) {
+            writeTestPlanNode(output, childNode);
+        }
+    }
+
+    //----------------------------------------------
+
+    public static TestSessionState unmarshal(final byte[] data) {
+        return unmarshal(new ByteArrayInputStream(data));
+    }
+
+    public static TestSessionState unmarshal(final InputStream inputStream) {
+        final StateInput input = new StateInput(inputStream, BinaryMarshallerCore.TEST_SESSION_STATE_TYPE);
+        try {
+            final TestSessionState result = readTestSessionState(input);
+            input.expectEnd();
+            return result;
+        }
+        catch (final IOException e) {
+            throw BinaryMarshallerCore.wrapReadFailure(e);
+        }
+    }
+
+    static TestSessionState readTestSessionState(final StateInput input) throws IOException {
+        /* Read in TestPlan first */
+        final TestPlanNode rootNode = TestPlanNode.createRoot();
+        readTestPlanNodeChildren(input, rootNode);
+        final TestSessionState result = new TestSessionState(new TestPlan(rootNode));
+
+        /* Extract state attributes */
+        input.readControlObjectSessionState(result);
+        result.setInitialized(input.readBoolean());
+        result.setCurrentTestPartKey(input.readOptionalTestPlanNodeKey());
+        result.setCurrentItemKey(input.readOptionalTestPlanNodeKey());
+
+        for (final Entry<Identifier, Value> entry : input.readValues().entrySet()) {
+            result.setOutcomeValue(entry.getKey(), entry.getValue());
+        }
+
+        final int testPartCount = input.readCount();
+        for (int i=0; i<testPartCount; i++) {
+            final TestPlanNodeKey key = input.readTestPlanNodeKey();
+            final TestPartSessionState testPartSessionState = new TestPartSessionState();
+            input.readAbstractPartSessionState(testPartSessionState);
+            result.getTestPartSessionStates().put(key, testPartSessionState);
+        }
+
+        final int assessmentSectionCount = input.readCount();
+        for (int i=0; i<assessmentSectionCount; i++) {
+            final TestPlanNodeKey key = input.readTestPlanNodeKey();
+            final AssessmentSectionSessionState assessmentSectionSessionState = new AssessmentSectionSessionState();
+            input.readAbstractPartSessionState(assessmentSectionSessionState);
+            result.getAssessmentSectionSessionStates().put(key, assessmentSectionSessionState);
+        }
+
+        final int itemCount = input.readCount();
+        for (int i=0; i<itemCount; i++) {
+            final TestPlanNodeKey key = input.readTestPlanNodeKey();
+            final ItemSessionState itemSessionState = ItemSessionStateBinaryMarshaller.readItemSessionState(input);
+            result.getItemSessionStates().put(key, itemSessionState);
+        }
+        return result;
+    }
+
+    private static void readTestPlanNodeChildren(final StateInput input, final TestPlanNode targetOwner) throws IOException {
+        final int childCount = input.readCount();
+        for (int i=0; i<childCount; i++) {
+            final String typeString = input.readSharedString();
+            final TestNodeType type;
+            try {
+                type = TestNodeType.valueOf(typeString);
+            }
+            catch (final IllegalArgumentException e) {
+                throw new BinaryUnmarshallingException("Bad " + TestNodeType.class.getSimpleName() + " value '" + typeString + "'");
+            }
+            final TestPlanNodeKey key = input.readTestPlanNodeKey();
+            EffectiveItemSessionControl effectiveItemSessionControl = null;
+            if (input.readBoolean()) {
+                final int maxAttempts = input.readInt();
+                final boolean showFeedback = input.readBoolean();
+                final boolean allowReview = input.readBoolean();
+                final boolean showSolution = input.readBoolean();
+                final boolean allowComment = input.readBoolean();
+                final boolean allowSkipping = input.readBoolean();
+                final boolean validateResponses = input.readBoolean();
+                effectiveItemSessionControl = new EffectiveItemSessionControl(maxAttempts, showFeedback, allowReview, showSolution, allowComment, allowSkipping, validateResponses);
+            }
+            final String sectionPartTitle = input.readString();
+            final String itemSystemIdString = input.readOptionalSharedString();
+            URI itemSystemId = null;
+            if (itemSystemIdString!=null) {
+                try {
+                    itemSystemId = new URI(itemSystemIdString);
+                }
+                catch (final URISyntaxException e) {
+                    throw new BinaryUnmarshallingException("Could not parse item System ID", e);
+                }
+            }
+
+            final TestPlanNode childTestPlanNode = new TestPlanNode(type, key, effectiveItemSessionControl, sectionPartTitle, itemSystemId);
+            targetOwner.addChild(childTestPlanNode);
+            readTestPlanNodeChildren(input, childTestPlanNode);
+        }
+    }
+}
@@ -87,6 +87,14 @@ public final class XmlMarshallerCore {
 
     private static final String dateFormatString = "yyyy-MM-dd'T'HH:mm:ss.SSSZZZZ";
 
+    /** {@link SimpleDateFormat} isn't thread-safe, so we keep one per Thread rather than create one each time */
+    private static final ThreadLocal<SimpleDateFormat> dateFormatHolder = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat(dateFormatString);
+        }
+    };
+
     //----------------------------------------------
     // Marshalling to XML
 
@@ -125,7 +133,7 @@ public final class XmlMarshallerCore {
 
     static void maybeAddDateAttribute(final Element element, final String attributeName, final Date date) {
         if (date!=null) {
-            element.setAttribute(attributeName, new SimpleDateFormat(dateFormatString).format(date));
+            element.setAttribute(attributeName, dateFormatHolder.get().format(date));
         }
     }
 
@@ -318,7 +326,7 @@ public final class XmlMarshallerCore {
             final String attrValue = element.getAttribute(attrName);
             if (!attrValue.isEmpty()) {
                 try {
-                    return new SimpleDateFormat(dateFormatString).parse(attrValue);
+                    return dateFormatHolder.get().parse(attrValue);
                 }
                 catch (final ParseException e) {
                     throw new XmlUnmarshallingException("Could not parse Date attribute", e);
@@ -38,8 +38,9 @@ import javax.xml.validation.Schema;
 /**
  * Interface for a simple schema cache.
  * <p>
- * All use of this cache within this application is done in a thread-safe manner, so
- * implementations need not be thread-safe.
+ * Implementations must be thread-safe, as this cache is read and written concurrently
+ * without any locking. (The {@link SimpleSchemaCache} shows one way of doing this, using a
+ * {@link java.util.concurrent.ConcurrentMap}.)
  *
  * @author David McKain
  */
@@ -44,8 +44,11 @@ import java.io.StringReader;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
@@ -56,19 +59,22 @@ import javax.xml.transform.Source;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
-import javax.xml.validation.Validator;
+import javax.xml.validation.ValidatorHandler;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.DOMImplementation;
 import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.ErrorHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
 
 /**
  * Helper class that makes it easy to parse XML into a DOM and optionally schema validate
@@ -87,7 +93,15 @@ import org.xml.sax.XMLReader;
  *
  * The XML parsing process performs a SAX parse followed by a DOM tree build,
  * filling the resulting tree with SAX {@link Locator} information, which makes
- * later error reporting richer.
+ * later error reporting richer. If validating, the same SAX events are fed to a schema
+ * {@link ValidatorHandler} during the parse, so the input is only read once.
+ * Callers wanting to build something other than a DOM can use
+ * {@link #parse(URI, ResourceLocator, ResourceLocator, boolean, ContentHandler)} to receive the
+ * SAX events directly.
+ * <p>
+ * The JAXP factories are looked up and configured once per instance. Each Thread then gets its
+ * own parser (and validators) which are reused for subsequent reads by that Thread, so an
+ * instance of this class is safe to use concurrently.
  *
  * @see XmlReadResult
  * @author David McKain
@@ -131,6 +145,24 @@ public final class XmlResourceReader {
      */
     private final LoadSaveResourceResolver schemaResourceResolver;
 
+    /** Locks used to ensure that each cached schema is only compiled once */
+    private final ConcurrentMap<String, Object> compilationLocks;
+
+    /** Shared factory for the DOM {@link DocumentBuilder}s, configured once */
+    private final DocumentBuilderFactory documentBuilderFactory;
+
+    /** Used to create standalone DOM {@link Document}s, which is thread-safe */
+    private final DOMImplementation domImplementation;
+
+    /** Shared factory for the SAX parsers, configured once */
+    private final SAXParserFactory saxParserFactory;
+
+    /** Parsing resources for each Thread, which are reused across reads */
+    private final ThreadLocal<ParserResources> threadParserResources;
+
+    /** Handler set on pooled parsers between reads so that they don't hold on to anything */
+    private static final DefaultHandler idleHandler = new DefaultHandler();
+
 
     public XmlResourceReader(final ResourceLocator schemaResourceLocator) {
         this(schemaResourceLocator, null, null);
@@ -145,6 +177,31 @@ public final class XmlResourceReader {
 
         /* Set up special resource resolver based on schemaResourceLocator */
         this.schemaResourceResolver = new LoadSaveResourceResolver(schemaResourceLocator);
+        this.compilationLocks = new ConcurrentHashMap<String, Object>();
+
+        /* Look up and configure JAXP factories */
+        this.documentBuilderFactory = DocumentBuilderFactory.newInstance();
+        documentBuilderFactory.setNamespaceAware(true);
+        try {
+            this.domImplementation = documentBuilderFactory.newDocumentBuilder().getDOMImplementation();
+        }
+        catch (final ParserConfigurationException e) {
+            throw new XmlResourceReaderException("Unexpected Exception creating DocumentBuilder", e);
+        }
+        this.saxParserFactory = SAXParserFactory.newInstance();
+        saxParserFactory.setNamespaceAware(true);
+        saxParserFactory.setValidating(false);
+        saxParserFactory.setXIncludeAware(true);
+        try {
+            saxParserFactory.setFeature("http://xml.org/sax/features/validation", false);
+            saxParserFactory.setFeature("http://xml.org/sax/features/external-general-entities", true);
+            saxParserFactory.setFeature("http://xml.org/sax/features/external-parameter-entities", true);
+            saxParserFactory.setFeature("http://xml.org/sax/features/lexical-handler/parameter-entities", false);
+        }
+        catch (final Exception e) {
+            throw new XmlResourceReaderException("Unexpected Exception configuring SAXParserFactory", e);
+        }
+        this.threadParserResources = new ThreadLocal<ParserResources>();
     }
 
     public ResourceLocator getParserResourceLocator() {
@@ -162,9 +219,8 @@ public final class XmlResourceReader {
     //--------------------------------------------------
 
     /**
-     * FIXME: This currently calls the {@link ResourceLocator} to read the input *twice*. We may
-     * want to save the initial input to a temp file if the stream is not something that can be
-     * quickly re-read (e.g. HTTP!)
+     * Reads the XML resource having the given System ID, optionally schema validating it at
+     * the same time. The input is only read once, even when validating.
      *
      * @param systemId system ID of the XML resource to read
      * @param inputResourceLocator resource locator that will find the XML to be read
@@ -203,47 +259,117 @@ public final class XmlResourceReader {
         }
     }
 
+    /**
+     * Parses the XML resource having the given System ID, passing the resulting SAX events to the
+     * given {@link ContentHandler} instead of building a DOM, and optionally schema validating it at
+     * the same time. This is useful if you want to build something other than a DOM from the XML.
+     * <p>
+     * The {@link ContentHandler} is given the parser's {@link Locator}. It will only receive
+     * <code>setDocumentLocator()</code>, <code>startDocument()</code>, <code>startElement()</code>,
+     * <code>characters()</code>, <code>endElement()</code> and <code>endDocument()</code> events,
+     * which are the same events that are used to build the DOM in
+     * {@link #read(URI, ResourceLocator, ResourceLocator, boolean)}. Note that the handler may
+     * stop receiving events part of the way through if parsing fails, so callers should check
+     * {@link XmlParseResult#isParsed()} before using anything the handler has built.
+     *
+     * @param systemId system ID of the XML resource to read
+     * @param inputResourceLocator resource locator that will find the XML to be read
+     * @param entityResourceLocator resource locator that will load in any entities/DTD stuff
+     *   encountered
+     * @param schemaValidating whether to perform schema validation or not.
+     * @param contentHandler {@link ContentHandler} to receive the SAX events
+     *
+     * @throws XmlResourceNotFoundException if the XML resource with the given System ID cannot be
+     *             located using the given {@link ResourceLocator}
+     * @throws XmlResourceReaderException if an unexpected Exception occurred parsing and/or validating the XML, or
+     *             if any of the required schemas could not be located.
+     */
+    public XmlParseResult parse(final URI systemId, final ResourceLocator inputResourceLocator,
+            final ResourceLocator entityResourceLocator, final boolean schemaValidating,
+            final ContentHandler contentHandler)
+            throws XmlResourceNotFoundException {
+        Assert.notNull(systemId, "systemId");
+        Assert.notNull(inputResourceLocator, "inputResourceLocator");
+        Assert.notNull(entityResourceLocator, "entityResourceLocator");
+        Assert.notNull(contentHandler, "contentHandler");
+
+        try {
+            logger.debug("parse({}, {}, {}, {}) starting", new Object[] { systemId, inputResourceLocator, entityResourceLocator, schemaValidating });
+            final ParserResources parserResources = acquireParserResources();
+            final XmlParseResult result;
+            try {
+                result = doParse(parserResources, systemId, inputResourceLocator, entityResourceLocator, schemaValidating, contentHandler);
+            }
+            finally {
+                releaseParserResources(parserResources);
+            }
+            logger.debug("parse({}, {}, {}, {}) => {}", new Object[] { systemId, inputResourceLocator, entityResourceLocator, schemaValidating, result });
+            return result;
+        }
+        catch (final XmlResourceNotFoundException e) {
+            logger.debug("parse({}, {}, {}, {}) => {}", new Object[] { systemId, inputResourceLocator, entityResourceLocator, schemaValidating, e });
+            throw e;
+        }
+        catch (final Exception e) {
+            logger.debug("parse({}, {}, {}, {}) => UNEXPECTED EXCEPTION {}", new Object[] { systemId, inputResourceLocator, entityResourceLocator, schemaValidating, e });
+            if (e instanceof XmlResourceReaderException) {
+                throw (XmlResourceReaderException) e;
+            }
+            throw new XmlResourceReaderException("Unexpected Exception parsing or validating XML at system ID " + systemId, e);
+        }
+    }
+
+    /**
+     * Creates a new empty DOM {@link Document}, of the same type as the ones built by
+     * {@link #read(URI, ResourceLocator, ResourceLocator, boolean)}.
+     */
+    public Document newDocument() {
+        return domImplementation.createDocument(null, null, null);
+    }
+
     private XmlReadResult doRead(final URI systemId, final ResourceLocator inputResourceLocator,
             final ResourceLocator entityResourceLocator, final boolean schemaValidating)
             throws XmlResourceNotFoundException, ParserConfigurationException, SAXException, IOException {
-        final String systemIdString = systemId.toString();
-        boolean parsed = false;
-        boolean validated = false;
-        final List<String> supportedSchemaNamespaces = new ArrayList<String>();
-        final List<String> unsupportedSchemaNamespaces = new ArrayList<String>();
+        final ParserResources parserResources = acquireParserResources();
+        try {
+            /* Create the DOM Document that will be built up here */
+            final Document document = parserResources.documentBuilder.newDocument();
 
-        final InputErrorHandler inputErrorHandler = new InputErrorHandler();
+            /* Parse input and convert to a DOM containing SAX Locator information */
+            final XmlParseResult xmlParseResult = doParse(parserResources, systemId, inputResourceLocator,
+                    entityResourceLocator, schemaValidating, new SimpleDomBuilderHandler(document));
+            return new XmlReadResult(xmlParseResult.isParsed() ? document : null, xmlParseResult);
+        }
+        finally {
+            releaseParserResources(parserResources);
+        }
+    }
 
-        /* Create the DOM Document that will be built up here */
-        final DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-        dbFactory.setNamespaceAware(true);
-        final DocumentBuilder documentBuilder = dbFactory.newDocumentBuilder();
-        documentBuilder.setErrorHandler(inputErrorHandler);
-        final Document document = documentBuilder.newDocument();
+    private XmlParseResult doParse(final ParserResources parserResources, final URI systemId,
+            final ResourceLocator inputResourceLocator, final ResourceLocator entityResourceLocator,
+            final boolean schemaValidating, final ContentHandler contentHandler)
+            throws XmlResourceNotFoundException, SAXException, IOException {
+        final String systemIdString = systemId.toString();
+        final InputErrorHandler inputErrorHandler = new InputErrorHandler();
+        final InputErrorHandler validationErrorHandler = new InputErrorHandler();
 
         /* Set up SAX EntityResolver, which will record locator failures appropriately */
         final FailureEntityResolver failureEntityResolver = new FailureEntityResolver(entityResourceLocator);
 
-        /* Create and configure SAX parser */
-        final SAXParserFactory spFactory = SAXParserFactory.newInstance();
-        spFactory.setNamespaceAware(true);
-        spFactory.setValidating(false);
-        spFactory.setXIncludeAware(true);
-        spFactory.setFeature("http://xml.org/sax/features/validation", false);
-        spFactory.setFeature("http://xml.org/sax/features/external-general-entities", true);
-        spFactory.setFeature("http://xml.org/sax/features/external-parameter-entities", true);
-        spFactory.setFeature("http://xml.org/sax/features/lexical-handler/parameter-entities", false);
-        final XMLReader xmlReader = spFactory.newSAXParser().getXMLReader();
+        /* Configure SAX parser for this read */
+        final XMLReader xmlReader = parserResources.xmlReader;
         xmlReader.setErrorHandler(inputErrorHandler);
         xmlReader.setEntityResolver(failureEntityResolver);
 
-        /* Parse input and convert to a DOM containing SAX Locator information */
+        /* Parse input, passing events to the given handler. If validating, the same SAX events
+         * are passed to a schema ValidatorHandler at the same time. */
         logger.trace("XML parse of {} starting", systemIdString);
         final InputSource inputSource = new InputSource();
         inputSource.setByteStream(ensureLocateInput(systemId, inputResourceLocator));
         inputSource.setSystemId(systemIdString);
 
-        final SimpleDomBuilderHandler handler = new SimpleDomBuilderHandler(document);
+        final ParseAndValidateHandler handler = new ParseAndValidateHandler(parserResources,
+                contentHandler, schemaValidating, validationErrorHandler);
         xmlReader.setContentHandler(handler);
         try {
             xmlReader.parse(inputSource); /* Fatal errors will cause SAXParseException */
@@ -255,75 +381,321 @@ public final class XmlResourceReader {
         /* We'll consider successful parsing to be no errors or fatal errors, and no unresolved
          * entities */
         final List<String> unresolvedEntitySystemIds = failureEntityResolver.getUnresolvedEntitySystemIds();
-        parsed = inputErrorHandler.fatalErrors.isEmpty() && inputErrorHandler.errors.isEmpty()
-                && unresolvedEntitySystemIds.isEmpty();
+        final boolean parsed = inputErrorHandler.fatalErrors.isEmpty() && inputErrorHandler.errors.isEmpty()
+                && validationErrorHandler.fatalErrors.isEmpty() && unresolvedEntitySystemIds.isEmpty();
         logger.debug("XML parse of {} success? {}", systemIdString, parsed);
 
+        /* Validation results only count if the document parsed successfully */
+        boolean validated = false;
+        final List<String> supportedSchemaNamespaces = new ArrayList<String>();
+        final List<String> unsupportedSchemaNamespaces = new ArrayList<String>();
         if (parsed && schemaValidating) {
-            /* Work out which schema(s) to use */
-            logger.trace("Deciding which schemas to use to validate {}", systemIdString);
-            final Element rootElement = document.getDocumentElement();
-            final String schemaLocation = rootElement.getAttributeNS(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "schemaLocation");
-            final List<String> schemaUris = new ArrayList<String>();
-            if (schemaLocation.length() != 0) {
-                /* Document declares schema(s) to use. Make sure we support each one */
-                final String[] schemaData = schemaLocation.trim().split("\\s+");
-                for (int i = 0; i < schemaData.length; i += 2) { /* (ns1 uri1 ns2 uri2 ...) */
-                    final String schemaNamespaceUri = schemaData[i];
-                    final String schemaUri = getRegisteredSchemaLocation(schemaNamespaceUri);
-                    if (schemaUri != null) {
-                        supportedSchemaNamespaces.add(schemaNamespaceUri);
-                        schemaUris.add(schemaUri);
-                    }
-                    else {
-                        logger.trace("Schema with namespace " + schemaNamespaceUri + " declared in schemaLocation is not registered with this reader");
-                        unsupportedSchemaNamespaces.add(schemaNamespaceUri);
-                    }
-                }
+            supportedSchemaNamespaces.addAll(handler.supportedSchemaNamespaces);
+            unsupportedSchemaNamespaces.addAll(handler.unsupportedSchemaNamespaces);
+            if (handler.validatorHandler!=null) {
+                inputErrorHandler.warnings.addAll(validationErrorHandler.warnings);
+                inputErrorHandler.errors.addAll(validationErrorHandler.errors);
+                validated = true;
+                logger.debug("Schema validation of {} finished", systemIdString);
             }
             else {
-                /* No schema declared in the document, so use namespace of root element */
-                final String schemaNamespaceUri = rootElement.getNamespaceURI();
-                final String schemaUri = getRegisteredSchemaLocation(rootElement.getNamespaceURI());
+                logger.debug("No schema validation was performed as {} supported and {} unsupported schemas were detected",
+                        supportedSchemaNamespaces.size(), unsupportedSchemaNamespaces.size());
+            }
+        }
+
+        /* Build up result */
+        return new XmlParseResult(systemId, parsed, validated,
+                inputErrorHandler.warnings, inputErrorHandler.errors, inputErrorHandler.fatalErrors,
+                unresolvedEntitySystemIds, supportedSchemaNamespaces, unsupportedSchemaNamespaces);
+    }
+
+    /**
+     * Works out which registered schemas should be used to validate a document having the
+     * given root element, recording supported and unsupported namespaces in the given Lists.
+     *
+     * @return URIs of the schemas to use, which will be empty if the document can't be validated.
+     */
+    private List<String> decideSchemaUris(final String rootNamespaceUri, final Attributes rootAttributes,
+            final List<String> supportedSchemaNamespaces, final List<String> unsupportedSchemaNamespaces) {
+        final String schemaLocation = rootAttributes.getValue(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "schemaLocation");
+        final List<String> schemaUris = new ArrayList<String>();
+        if (schemaLocation!=null && schemaLocation.length() != 0) {
+            /* Document declares schema(s) to use. Make sure we support each one */
+            final String[] schemaData = schemaLocation.trim().split("\\s+");
+            for (int i = 0; i < schemaData.length; i += 2) { /* (ns1 uri1 ns2 uri2 ...) */
+                final String schemaNamespaceUri = schemaData[i];
+                final String schemaUri = getRegisteredSchemaLocation(schemaNamespaceUri);
                 if (schemaUri != null) {
                     supportedSchemaNamespaces.add(schemaNamespaceUri);
                     schemaUris.add(schemaUri);
                 }
                 else {
-                    logger.trace("Schema with namespace " + schemaNamespaceUri + " inferred from that of document element is not registered with this reader");
+                    logger.trace("Schema with namespace " + schemaNamespaceUri + " declared in schemaLocation is not registered with this reader");
                     unsupportedSchemaNamespaces.add(schemaNamespaceUri);
                 }
             }
-
-            /* Validate (if at least supported schemas was used and no unsupported schemas) */
-            if (!schemaUris.isEmpty() && unsupportedSchemaNamespaces.isEmpty()) {
-                logger.trace("Will validate {} against schemas {}", systemIdString, schemaUris);
-                final Schema schema = getSchema(schemaUris);
-
-                /* Now validate. Note that we read in the input again, as this will let the parser provide source
-                 * information to the schema validator. (I couldn't work out a way of passing source information
-                 * when validating from a DOM.)
-                 */
-                logger.trace("Schema validaton of {} starting", systemIdString);
-                final StreamSource input = new StreamSource(ensureLocateInput(systemId, inputResourceLocator), systemIdString);
-                final Validator validator = schema.newValidator();
-                validator.setResourceResolver(schemaResourceResolver);
-                validator.setErrorHandler(inputErrorHandler);
-                validator.validate(input);
-                validated = true;
-                logger.debug("Schema validation of {} finished", systemIdString);
+        }
+        else {
+            /* No schema declared in the document, so use namespace of root element */
+            final String schemaNamespaceUri = rootNamespaceUri.length()!=0 ? rootNamespaceUri : null;
+            final String schemaUri = getRegisteredSchemaLocation(schemaNamespaceUri);
+            if (schemaUri != null) {
+                supportedSchemaNamespaces.add(schemaNamespaceUri);
+                schemaUris.add(schemaUri);
             }
             else {
-                logger.debug("No schema validation was performed as {} supported and {} unsupported schemas were detected",
-                        schemaUris.size(), unsupportedSchemaNamespaces.size());
+                logger.trace("Schema with namespace " + schemaNamespaceUri + " inferred from that of document element is not registered with this reader");
+                unsupportedSchemaNamespaces.add(schemaNamespaceUri);
             }
         }
+        return unsupportedSchemaNamespaces.isEmpty() ? schemaUris : Collections.<String>emptyList();
+    }
 
-        /* Build up result */
-        final XmlParseResult xmlParseResult = new XmlParseResult(systemId, parsed, validated,
-                inputErrorHandler.warnings, inputErrorHandler.errors, inputErrorHandler.fatalErrors,
-                unresolvedEntitySystemIds, supportedSchemaNamespaces, unsupportedSchemaNamespaces);
-        return new XmlReadResult(parsed ? document : null, xmlParseResult);
+    //--------------------------------------------------
+    // Parser pooling
+
+    /**
+     * Obtains the {@link ParserResources} for the current Thread, creating them if required.
+     * If the current Thread's resources are already being used (which would only happen if
+     * a read somehow triggered another read) then a fresh set is created for this read.
+     */
+    private ParserResources acquireParserResources() throws ParserConfigurationException, SAXException {
+        ParserResources result = threadParserResources.get();
+        if (result==null || result.inUse) {
+            final ParserResources created = createParserResources();
+            if (result==null) {
+                threadParserResources.set(created);
+            }
+            result = created;
+        }
+        result.inUse = true;
+        return result;
+    }
+
+    /**
+     * Releases the given {@link ParserResources}, clearing out anything specific to the read that has
+     * just happened so that the pooled parser doesn't hang on to the resulting DOM or errors.
+     */
+    private static void releaseParserResources(final ParserResources parserResources) {
+        final XMLReader xmlReader = parserResources.xmlReader;
+        xmlReader.setContentHandler(idleHandler);
+        xmlReader.setErrorHandler(idleHandler);
+        xmlReader.setEntityResolver(idleHandler);
+        for (final PooledValidatorHandler pooledValidatorHandler : parserResources.validatorHandlers.values()) {
+            pooledValidatorHandler.validatorHandler.setErrorHandler(null);
+        }
+        parserResources.inUse = false;
+    }
+
+    private ParserResources createParserResources() throws ParserConfigurationException, SAXException {
+        /* (JAXP factories aren't guaranteed to be thread-safe, so we lock them while creating parsers) */
+        final DocumentBuilder documentBuilder;
+        synchronized (documentBuilderFactory) {
+            documentBuilder = documentBuilderFactory.newDocumentBuilder();
+        }
+        final XMLReader xmlReader;
+        synchronized (saxParserFactory) {
+            xmlReader = saxParserFactory.newSAXParser().getXMLReader();
+        }
+        return new ParserResources(documentBuilder, xmlReader);
+    }
+
+    /**
+     * Obtains a {@link ValidatorHandler} for the given schema URIs, reusing a pooled one
+     * for the current Thread if possible.
+     */
+    private ValidatorHandler obtainValidatorHandler(final ParserResources parserResources, final List<String> schemaUris) {
+        final Schema schema = getSchema(schemaUris);
+        final String key = schemaUris.toString();
+        final PooledValidatorHandler pooled = parserResources.validatorHandlers.get(key);
+        if (pooled!=null && pooled.schema==schema) {
+            return pooled.validatorHandler;
+        }
+        final ValidatorHandler validatorHandler = schema.newValidatorHandler();
+        validatorHandler.setResourceResolver(schemaResourceResolver);
+        if (schemaCache!=null) {
+            /* (There's no point pooling if the schema isn't cached, as it will be recompiled next time) */
+            parserResources.validatorHandlers.put(key, new PooledValidatorHandler(schema, validatorHandler));
+        }
+        return validatorHandler;
+    }
+
+    /**
+     * Encapsulates the parsing resources used by a particular Thread. These are not thread-safe
+     * but may be reused once a parse has finished.
+     */
+    private static final class ParserResources {
+
+        final DocumentBuilder documentBuilder;
+        final XMLReader xmlReader;
+        final Map<String, PooledValidatorHandler> validatorHandlers;
+        boolean inUse;
+
+        public ParserResources(final DocumentBuilder documentBuilder, final XMLReader xmlReader) {
+            this.documentBuilder = documentBuilder;
+            this.xmlReader = xmlReader;
+            this.validatorHandlers = new HashMap<String, PooledValidatorHandler>();
+            this.inUse = false;
+        }
+    }
+
+    /** Pooled {@link ValidatorHandler}, remembering the {@link Schema} it was created from */
+    private static final class PooledValidatorHandler {
+
+        final Schema schema;
+        final ValidatorHandler validatorHandler;
+
+        public PooledValidatorHandler(final Schema schema, final ValidatorHandler validatorHandler) {
+            this.schema = schema;
+            this.validatorHandler = validatorHandler;
+        }
+    }
+
+    /**
+     * SAX {@link ContentHandler} that passes all parsing events to a target {@link ContentHandler}
+     * (normally a {@link SimpleDomBuilderHandler}).
+     * If validating, it decides which schemas to use once it sees the root element and then also
+     * passes the events to a schema {@link ValidatorHandler}, so that the input only needs to be
+     * parsed once. Both handlers are given the parser's {@link Locator}, so validation errors
+     * contain the correct source locations.
+     * <p>
+     * (The target handler gets the raw parsing events rather than the validator's output as the
+     * validator would add in any default attribute values from the schema.)
+     */
+    private final class ParseAndValidateHandler extends DefaultHandler {
+
+        private final ParserResources parserResources;
+        private final ContentHandler targetHandler;
+        private final boolean schemaValidating;
+        private final ErrorHandler validationErrorHandler;
+        private final List<String[]> pendingPrefixMappings;
+        final List<String> supportedSchemaNamespaces;
+        final List<String> unsupportedSchemaNamespaces;
+        private Locator locator;
+        private boolean seenRootElement;
+        ValidatorHandler validatorHandler;
+
+        public ParseAndValidateHandler(final ParserResources parserResources, final ContentHandler targetHandler,
+                final boolean schemaValidating, final ErrorHandler validationErrorHandler) {
+            this.parserResources = parserResources;
+            this.targetHandler = targetHandler;
+            this.schemaValidating = schemaValidating;
+            this.validationErrorHandler = validationErrorHandler;
+            this.pendingPrefixMappings = new ArrayList<String[]>();
+            this.supportedSchemaNamespaces = new ArrayList<String>();
+            this.unsupportedSchemaNamespaces = new ArrayList<String>();
+            this.locator = null;
+            this.seenRootElement = false;
+            this.validatorHandler = null;
+        }
+
+        @Override
+        public void setDocumentLocator(final Locator locator) {
+            this.locator = locator;
+            targetHandler.setDocumentLocator(locator);
+        }
+
+        @Override
+        public void startDocument() throws SAXException {
+            targetHandler.startDocument();
+        }
+
+        @Override
+        public void startPrefixMapping(final String prefix, final String uri) throws SAXException {
+            if (!seenRootElement) {
+                pendingPrefixMappings.add(new String[] { prefix, uri });
+            }
+            else if (validatorHandler!=null) {
+                validatorHandler.startPrefixMapping(prefix, uri);
+            }
+        }
+
+        @Override
+        public void endPrefixMapping(final String prefix) throws SAXException {
+            if (validatorHandler!=null) {
+                validatorHandler.endPrefixMapping(prefix);
+            }
+        }
+
+        @Override
+        public void startElement(final String uri, final String localName, final String qName, final Attributes attributes)
+                throws SAXException {
+            if (!seenRootElement) {
+                seenRootElement = true;
+                if (schemaValidating) {
+                    startValidation(uri, attributes);
+                }
+            }
+            targetHandler.startElement(uri, localName, qName, attributes);
+            if (validatorHandler!=null) {
+                validatorHandler.startElement(uri, localName, qName, attributes);
+            }
+        }
+
+        private void startValidation(final String rootNamespaceUri, final Attributes rootAttributes) throws SAXException {
+            final List<String> schemaUris = decideSchemaUris(rootNamespaceUri, rootAttributes,
+                    supportedSchemaNamespaces, unsupportedSchemaNamespaces);
+            if (!schemaUris.isEmpty()) {
+                logger.trace("Will validate {} against schemas {}", locator!=null ? locator.getSystemId() : null, schemaUris);
+                validatorHandler = obtainValidatorHandler(parserResources, schemaUris);
+                validatorHandler.setErrorHandler(validationErrorHandler);
+                validatorHandler.setContentHandler(null);
+                if (locator!=null) {
+                    validatorHandler.setDocumentLocator(locator);
+                }
+                validatorHandler.startDocument();
+                for (final String[] prefixMapping : pendingPrefixMappings) {
+                    validatorHandler.startPrefixMapping(prefixMapping[0], prefixMapping[1]);
+                }
+            }
+            pendingPrefixMappings.clear();
+        }
+
+        @Override
+        public void characters(final char[] ch, final int start, final int length) throws SAXException {
+            targetHandler.characters(ch, start, length);
+            if (validatorHandler!=null) {
+                validatorHandler.characters(ch, start, length);
+            }
+        }
+
+        @Override
+        public void ignorableWhitespace(final char[] ch, final int start, final int length) throws SAXException {
+            if (validatorHandler!=null) {
+                validatorHandler.ignorableWhitespace(ch, start, length);
+            }
+        }
+
+        @Override
+        public void processingInstruction(final String target, final String data) throws SAXException {
+            if (validatorHandler!=null) {
+                validatorHandler.processingInstruction(target, data);
+            }
+        }
+
+        @Override
+        public void skippedEntity(final String name) throws SAXException {
+            if (validatorHandler!=null) {
+                validatorHandler.skippedEntity(name);
+            }
+        }
+
+        @Override
+        public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+            targetHandler.endElement(uri, localName, qName);
+            if (validatorHandler!=null) {
+                validatorHandler.endElement(uri, localName, qName);
+            }
+        }
+
+        @Override
+        public void endDocument() throws SAXException {
+            targetHandler.endDocument();
+            if (validatorHandler!=null) {
+                validatorHandler.endDocument();
+            }
+        }
     }
 
     /**
@@ -334,15 +706,20 @@ public final class XmlResourceReader {
         Schema result = null;
         final String key = schemaUris.toString();
         if (schemaCache!=null) {
-            synchronized (schemaCache) {
-                result = schemaCache.getSchema(key);
-                if (result!=null) {
-                    logger.debug("Schema cache hit for URIs {} yielded {}", key, result);
-                }
-                else {
-                    result = compileSchema(schemaUris);
-                    schemaCache.putSchema(key, result);
-                    logger.debug("Schema cache miss for URIs {} stored {}", key, result);
+            /* (The cache is read without locking. Different schemas can be compiled concurrently,
+             * but each schema is only compiled once.) */
+            result = schemaCache.getSchema(key);
+            if (result!=null) {
+                logger.debug("Schema cache hit for URIs {} yielded {}", key, result);
+            }
+            else {
+                synchronized (obtainCompilationLock(key)) {
+                    result = schemaCache.getSchema(key);
+                    if (result==null) {
+                        result = compileSchema(schemaUris);
+                        schemaCache.putSchema(key, result);
+                        logger.debug("Schema cache miss for URIs {} stored {}", key, result);
+                    }
                 }
             }
         }
@@ -353,6 +730,25 @@ public final class XmlResourceReader {
         return result;
     }
 
+    private Object obtainCompilationLock(final String key) {
+        final Object newLock = new Object();
+        final Object existingLock = compilationLocks.putIfAbsent(key, newLock);
+        return existingLock!=null ? existingLock : newLock;
+    }
+
+    /**
+     * Compiles the schema at the given URI and stores it in the {@link SchemaCache} (if set), unless
+     * this has already been done. This can be used to "warm up" the cache so that the first documents
+     * to be validated against this schema aren't held up by compiling it.
+     *
+     * @param schemaUri URI of the schema, which should normally be one of those in the
+     *   {@link #getRegisteredSchemaMap()}
+     */
+    public void precompileSchema(final String schemaUri) {
+        Assert.notNull(schemaUri, "schemaUri");
+        getSchema(Collections.singletonList(schemaUri));
+    }
+
     /**
      * Compiles a schema from the given list of URIs.
      */
@@ -44,6 +44,8 @@ import java.io.InputStream;
 import java.io.StringReader;
 import java.net.URI;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Source;
@@ -74,6 +76,10 @@ public final class XsltStylesheetManager {
     private final XsltStylesheetCache xsltStylesheetCache;
     private final ResourceLocator xsltResourceLocator;
     private final XsltResourceResolver xsltResourceResolver;
+    private final TransformerFactory sharedTransformerFactory;
+
+    /** Locks used to ensure that each cached stylesheet is only compiled once */
+    private final ConcurrentMap<String, Object> compilationLocks;
 
     /**
      * Creates a new {@link XsltStylesheetManager} using the given {@link ResourceLocator}
@@ -95,10 +101,37 @@ public final class XsltStylesheetManager {
      * @param xsltStylesheetCache optional {@link XsltStylesheetCache} for caching compiled stylesheets
      */
     public XsltStylesheetManager(final ResourceLocator xsltResourceLocator, final XsltStylesheetCache xsltStylesheetCache) {
+        this(xsltResourceLocator, xsltStylesheetCache, null);
+    }
+
+    /**
+     * Creates a new {@link XsltStylesheetManager} as above, which will use the given
+     * {@link TransformerFactory} for compiling all stylesheets and creating all {@link Transformer}s.
+     * <p>
+     * This is useful when callers want everything to share the same underlying XSLT
+     * processor configuration, e.g. so that pre-built source trees can be reused across
+     * transforms. The factory must be thread-safe once configured (as Saxon's is) and must
+     * support {@link SAXTransformerFactory#FEATURE}. Its {@link javax.xml.transform.URIResolver}
+     * will be replaced.
+     *
+     * @param xsltResourceLocator {@link ResourceLocator} to be used for reading XSLT resources,
+     *   which must not be null.
+     * @param xsltStylesheetCache optional {@link XsltStylesheetCache} for caching compiled stylesheets
+     * @param sharedTransformerFactory optional {@link TransformerFactory} to use. If null, a new
+     *   factory is created each time one is required.
+     */
+    public XsltStylesheetManager(final ResourceLocator xsltResourceLocator, final XsltStylesheetCache xsltStylesheetCache,
+            final TransformerFactory sharedTransformerFactory) {
         Assert.notNull(xsltResourceLocator, "xsltResourceLocator");
         this.xsltResourceLocator = xsltResourceLocator;
         this.xsltStylesheetCache = xsltStylesheetCache;
         this.xsltResourceResolver = new XsltResourceResolver(xsltResourceLocator);
+        if (sharedTransformerFactory!=null) {
+            XsltFactoryUtilities.requireFeature(sharedTransformerFactory, SAXTransformerFactory.FEATURE);
+            sharedTransformerFactory.setURIResolver(xsltResourceResolver);
+        }
+        this.sharedTransformerFactory = sharedTransformerFactory;
+        this.compilationLocks = new ConcurrentHashMap<String, Object>();
     }
 
     /**
@@ -133,6 +166,13 @@ public final class XsltStylesheetManager {
         return xsltStylesheetCache;
     }
 
+    /**
+     * Returns the shared {@link TransformerFactory} used by this manager, which may be null.
+     */
+    public TransformerFactory getSharedTransformerFactory() {
+        return sharedTransformerFactory;
+    }
+
     //----------------------------------------------------------
 
     /**
@@ -164,20 +204,12 @@ public final class XsltStylesheetManager {
      */
     public Templates getCompiledStylesheet(final URI xsltUri) {
         Assert.notNull(xsltUri, "xsltUri");
-        Templates result;
-        if (xsltStylesheetCache==null) {
-            result = compileStylesheet(xsltUri);
-        }
-        else {
-            synchronized(xsltStylesheetCache) {
-                result = xsltStylesheetCache.getStylesheet(xsltUri.toString());
-                if (result==null) {
-                    result = compileStylesheet(xsltUri);
-                    xsltStylesheetCache.putStylesheet(xsltUri.toString(), result);
-                }
+        return getCachedStylesheet(xsltUri.toString(), new StylesheetCompiler() {
+            @Override
+            public Templates compile() {
+                return compileStylesheet(xsltUri);
             }
-        }
-        return result;
+        });
     }
 
     public TransformerHandler getCompiledStylesheetHandler(final URI xsltUri, final ResourceLocator runtimeResourceLocator) {
@@ -212,16 +244,35 @@ public final class XsltStylesheetManager {
     }
 
     public Templates getCompiledStylesheetDriver(final List<URI> xsltUris) {
-        Templates result;
+        Assert.notNull(xsltUris, "xsltUris");
+        final String cacheKey = "xslt-driver(" + StringUtilities.join(xsltUris, ",") + ")";
+        return getCachedStylesheet(cacheKey, new StylesheetCompiler() {
+            @Override
+            public Templates compile() {
+                return compileStylesheetDriver(xsltUris);
+            }
+        });
+    }
+
+    /**
+     * Obtains the compiled stylesheet having the given cache key, using the given
+     * {@link StylesheetCompiler} to compile it if it isn't in the {@link XsltStylesheetCache}
+     * (or if there is no cache).
+     * <p>
+     * The cache is read without locking, and different stylesheets can be compiled
+     * concurrently. Each stylesheet is only compiled once, with other Threads wanting it
+     * waiting until this has finished.
+     */
+    private Templates getCachedStylesheet(final String cacheKey, final StylesheetCompiler stylesheetCompiler) {
         if (xsltStylesheetCache==null) {
-            result = compileStylesheetDriver(xsltUris);
+            return stylesheetCompiler.compile();
         }
-        else {
-            final String cacheKey = "xslt-driver(" + StringUtilities.join(xsltUris, ",") + ")";
-            synchronized(xsltStylesheetCache) {
+        Templates result = xsltStylesheetCache.getStylesheet(cacheKey);
+        if (result==null) {
+            synchronized (obtainCompilationLock(cacheKey)) {
                 result = xsltStylesheetCache.getStylesheet(cacheKey);
                 if (result==null) {
-                    result = compileStylesheetDriver(xsltUris);
+                    result = stylesheetCompiler.compile();
                     xsltStylesheetCache.putStylesheet(cacheKey, result);
                 }
             }
@@ -229,6 +280,32 @@ public final class XsltStylesheetManager {
         return result;
     }
 
+    private Object obtainCompilationLock(final String cacheKey) {
+        final Object newLock = new Object();
+        final Object existingLock = compilationLocks.putIfAbsent(cacheKey, newLock);
+        return existingLock!=null ? existingLock : newLock;
+    }
+
+    /** Callback used by {@link #getCachedStylesheet(String, StylesheetCompiler)} */
+    private static interface StylesheetCompiler {
+        Templates compile();
+    }
+
+    public TransformerHandler getCompiledStylesheetDriverHandler(final List<URI> xsltUris, final ResourceLocator runtimeResourceLocator) {
+        Assert.notNull(xsltUris, "xsltUris");
+        TransformerHandler transformerHandler;
+        try {
+            transformerHandler = getSaxTransformerFactory().newTransformerHandler(getCompiledStylesheetDriver(xsltUris));
+        }
+        catch (final TransformerConfigurationException e) {
+            throw new QtiSerializationException("Unexpected failure instantiating TransformerHandler for driver " + xsltUris, e);
+        }
+        if (runtimeResourceLocator!=null) {
+            configureRuntimeUriResolution(transformerHandler.getTransformer(), runtimeResourceLocator);
+        }
+        return transformerHandler;
+    }
+
     private Templates compileStylesheetDriver(final List<URI> xsltUris) {
         /* Build up driver XSLT that simply imports the required stylesheets */
         final TransformerFactory transformerFactory = getTransformerFactory();
@@ -373,6 +450,10 @@ public final class XsltStylesheetManager {
     //----------------------------------------------------------
 
     private TransformerFactory getTransformerFactory() {
+        if (sharedTransformerFactory!=null) {
+            return sharedTransformerFactory;
+        }
+
         /* Choose appropriate TransformerFactory implementation */
         final TransformerFactory transformerFactory = XsltFactoryUtilities.createJAXPTransformerFactory();
 
@@ -382,6 +463,10 @@ public final class XsltStylesheetManager {
     }
 
     private SAXTransformerFactory getSaxTransformerFactory() {
+        if (sharedTransformerFactory!=null) {
+            return (SAXTransformerFactory) sharedTransformerFactory;
+        }
+
         /* Choose appropriate TransformerFactory implementation */
         final TransformerFactory transformerFactory = XsltFactoryUtilities.createJAXPTransformerFactory();
         XsltFactoryUtilities.requireFeature(transformerFactory, SAXTransformerFactory.FEATURE);
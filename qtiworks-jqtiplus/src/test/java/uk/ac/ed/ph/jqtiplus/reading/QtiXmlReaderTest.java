@@ -48,6 +48,7 @@ import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ClassPathResourceLocator;
 import java.net.URI;
 
 import org.junit.Test;
+import org.xml.sax.SAXParseException;
 
 /**
  * Tests for the {@link QtiXmlReader}
@@ -141,6 +142,39 @@ public class QtiXmlReaderTest {
         assertEquals(0, parseResult.getUnsupportedSchemaNamespaces().size());
     }
 
+    @Test
+    public void testReadNotValidErrorLocation() throws Exception {
+        final String fileName = "invalid.xml";
+        final XmlReadResult result = readUnitTestFile(fileName, true);
+        final SAXParseException error = result.getXmlParseResult().getErrors().get(0);
+
+        assertEquals(makeSystemId(fileName).toString(), error.getSystemId());
+        assertEquals(3, error.getLineNumber());
+    }
+
+    @Test
+    public void testRepeatedReadsWithSameReader() throws Exception {
+        /* (This checks that nothing leaks between reads when the reader's parsers are reused) */
+        final QtiXmlReader reader = UnitTestHelper.createUnitTestQtiXmlReader();
+        for (int i=0; i<3; i++) {
+            final XmlParseResult invalidResult = reader.read(UnitTestHelper.createTestFileResourceLocator(),
+                    makeSystemId("invalid.xml"), true).getXmlParseResult();
+            assertTrue(invalidResult.isValidated());
+            assertEquals(1, invalidResult.getErrors().size());
+
+            final XmlParseResult illFormedResult = reader.read(UnitTestHelper.createTestFileResourceLocator(),
+                    makeSystemId("illformed.xml"), true).getXmlParseResult();
+            assertFalse(illFormedResult.isParsed());
+            assertFalse(illFormedResult.isValidated());
+            assertEquals(1, illFormedResult.getFatalErrors().size());
+
+            final XmlParseResult validResult = reader.read(UnitTestHelper.createTestFileResourceLocator(),
+                    makeSystemId("choice.xml"), true).getXmlParseResult();
+            assertTrue(validResult.isSchemaValid());
+            assertEquals(0, validResult.getErrors().size());
+        }
+    }
+
     @Test
     public void testReadNotQTI() throws Exception {
         final String fileName = "imsmanifest.xml"; /* (It's a Content Package manifest!) */
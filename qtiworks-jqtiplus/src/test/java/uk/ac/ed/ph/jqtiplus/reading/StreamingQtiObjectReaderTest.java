@@ -0,0 +1,155 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.reading;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import uk.ac.ed.ph.jqtiplus.node.content.ItemBody;
+import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
+import uk.ac.ed.ph.jqtiplus.reading.QtiXmlInterpretationException.InterpretationFailureReason;
+import uk.ac.ed.ph.jqtiplus.serialization.QtiSerializer;
+import uk.ac.ed.ph.jqtiplus.testutils.UnitTestHelper;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlSourceLocationInformation;
+
+import java.net.URI;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the streaming mode of {@link QtiObjectReader}, checking that it gives the same results
+ * as the DOM-based mode.
+ *
+ * @author David McKain
+ */
+public final class StreamingQtiObjectReaderTest {
+
+    private QtiXmlReader qtiXmlReader;
+    private QtiObjectReader domObjectReader;
+    private QtiObjectReader streamingObjectReader;
+
+    @Before
+    public void before() {
+        qtiXmlReader = UnitTestHelper.createUnitTestQtiXmlReader();
+        domObjectReader = qtiXmlReader.createQtiObjectReader(UnitTestHelper.createTestFileResourceLocator(), false, false);
+        streamingObjectReader = qtiXmlReader.createQtiObjectReader(UnitTestHelper.createTestFileResourceLocator(), false, true);
+    }
+
+    @Test
+    public void testIsStreaming() {
+        assertTrue(streamingObjectReader.isStreaming());
+        assertTrue(!domObjectReader.isStreaming());
+    }
+
+    @Test
+    public void testSameModel() throws Exception {
+        final URI choiceUri = UnitTestHelper.createTestResourceUri("running/choice.xml");
+        final AssessmentItem domItem = domObjectReader.lookupRootNode(choiceUri, AssessmentItem.class).getRootNode();
+        final AssessmentItem streamingItem = streamingObjectReader.lookupRootNode(choiceUri, AssessmentItem.class).getRootNode();
+
+        final QtiSerializer qtiSerializer = new QtiSerializer(qtiXmlReader.getJqtiExtensionManager());
+        assertEquals(qtiSerializer.serializeJqtiObject(domItem), qtiSerializer.serializeJqtiObject(streamingItem));
+        assertEquals(choiceUri, streamingItem.getSystemId());
+    }
+
+    @Test
+    public void testSourceLocations() throws Exception {
+        final URI choiceUri = UnitTestHelper.createTestResourceUri("running/choice.xml");
+        final AssessmentItem domItem = domObjectReader.lookupRootNode(choiceUri, AssessmentItem.class).getRootNode();
+        final AssessmentItem streamingItem = streamingObjectReader.lookupRootNode(choiceUri, AssessmentItem.class).getRootNode();
+
+        assertNotNull(streamingItem.getSourceLocation());
+        assertSameLocation(domItem.getSourceLocation(), streamingItem.getSourceLocation());
+
+        final ItemBody domItemBody = domItem.getItemBody();
+        final ItemBody streamingItemBody = streamingItem.getItemBody();
+        assertSameLocation(domItemBody.getSourceLocation(), streamingItemBody.getSourceLocation());
+    }
+
+    @Test
+    public void testModelBuildingErrors() throws Exception {
+        final URI modelErrorsUri = UnitTestHelper.createTestResourceUri("reading/modelerrors.xml");
+        final List<QtiModelBuildingError> domErrors = expectFailure(domObjectReader, modelErrorsUri,
+                InterpretationFailureReason.JQTI_MODEL_BUILD_FAILED).getQtiModelBuildingErrors();
+        final List<QtiModelBuildingError> streamingErrors = expectFailure(streamingObjectReader, modelErrorsUri,
+                InterpretationFailureReason.JQTI_MODEL_BUILD_FAILED).getQtiModelBuildingErrors();
+
+        /* (Bad adaptive attribute, stray text, bogus element and bad baseValue) */
+        assertEquals(4, streamingErrors.size());
+        assertEquals(domErrors.size(), streamingErrors.size());
+        for (int i=0; i<domErrors.size(); i++) {
+            final QtiModelBuildingError domError = domErrors.get(i);
+            final QtiModelBuildingError streamingError = streamingErrors.get(i);
+            assertEquals(domError.getElementLocalName(), streamingError.getElementLocalName());
+            assertEquals(domError.getElementNamespace(), streamingError.getElementNamespace());
+            assertSameLocation(domError.getElementLocation(), streamingError.getElementLocation());
+            assertEquals(domError.getException().getMessage(), streamingError.getException().getMessage());
+        }
+    }
+
+    @Test
+    public void testUnsupportedRoot() throws Exception {
+        expectFailure(streamingObjectReader, UnitTestHelper.createTestResourceUri("reading/invalid.xml"),
+                InterpretationFailureReason.UNSUPPORTED_ROOT_NODE);
+    }
+
+    @Test
+    public void testIllFormed() throws Exception {
+        expectFailure(streamingObjectReader, UnitTestHelper.createTestResourceUri("reading/illformed.xml"),
+                InterpretationFailureReason.XML_PARSE_FAILED);
+    }
+
+    private static void assertSameLocation(final XmlSourceLocationInformation expected, final XmlSourceLocationInformation actual) {
+        assertEquals(expected.getSystemId(), actual.getSystemId());
+        assertEquals(expected.getLineNumber(), actual.getLineNumber());
+        assertEquals(expected.getColumnNumber(), actual.getColumnNumber());
+    }
+
+    private static QtiXmlInterpretationException expectFailure(final QtiObjectReader objectReader, final URI uri,
+            final InterpretationFailureReason expectedReason) throws Exception {
+        try {
+            objectReader.lookupRootNode(uri);
+            fail("Expected QtiXmlInterpretationException");
+            return null;
+        }
+        catch (final QtiXmlInterpretationException e) {
+            assertEquals(expectedReason, e.getInterpretationFailureReason());
+            return e;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTITools and MathAssessEngine.
+ * QTITools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.resolution;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import uk.ac.ed.ph.jqtiplus.reading.QtiObjectReader;
+import uk.ac.ed.ph.jqtiplus.testutils.UnitTestHelper;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link AssessmentObjectResolver}, making sure that parallel resolution of test
+ * items gives the same results as sequential resolution.
+ *
+ * @author David McKain
+ */
+public class AssessmentObjectResolverTest {
+
+    private static final URI TEST_URI = UnitTestHelper.createTestResourceUri("resolution/test.xml");
+
+    private ExecutorService executorService;
+
+    @Before
+    public void setup() {
+        executorService = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void teardown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void testSequentialResolution() {
+        final ResolvedAssessmentTest resolvedAssessmentTest = resolve(null);
+        assertExpectedItemLookups(resolvedAssessmentTest);
+    }
+
+    @Test
+    public void testParallelResolution() {
+        final ResolvedAssessmentTest resolvedAssessmentTest = resolve(executorService);
+        assertExpectedItemLookups(resolvedAssessmentTest);
+    }
+
+    @Test
+    public void testParallelMatchesSequential() {
+        final ResolvedAssessmentTest sequential = resolve(null);
+        for (int i=0; i<10; i++) {
+            final ResolvedAssessmentTest parallel = resolve(executorService);
+            assertEquals(describe(sequential), describe(parallel));
+        }
+    }
+
+    private ResolvedAssessmentTest resolve(final ExecutorService itemResolutionExecutor) {
+        final QtiObjectReader qtiObjectReader = UnitTestHelper.createUnitTestQtiObjectReader(false);
+        return new AssessmentObjectResolver(qtiObjectReader, itemResolutionExecutor).resolveAssessmentTest(TEST_URI);
+    }
+
+    private void assertExpectedItemLookups(final ResolvedAssessmentTest resolvedAssessmentTest) {
+        assertTrue(resolvedAssessmentTest.getTestLookup().wasSuccessful());
+        assertEquals(8, resolvedAssessmentTest.getAssessmentItemRefs().size());
+
+        /* Check unique items are in document order */
+        final Map<URI, ResolvedAssessmentItem> itemMap = resolvedAssessmentTest.getResolvedAssessmentItemBySystemIdMap();
+        assertEquals(7, itemMap.size());
+        final Iterator<ResolvedAssessmentItem> iterator = itemMap.values().iterator();
+        assertItemLookup(iterator.next(), "reading/choice.xml", true);
+        assertItemLookup(iterator.next(), "running/choice.xml", true);
+        assertItemLookup(iterator.next(), "running/map-response.xml", true);
+        assertNotNull(assertItemLookup(iterator.next(), "resolution/missing.xml", false).getNotFoundException());
+        assertNotNull(assertItemLookup(iterator.next(), "reading/illformed.xml", false).getBadResourceException());
+        assertItemLookup(iterator.next(), "item/Template.xml", true);
+        assertNotNull(assertItemLookup(iterator.next(), "running/test-nonlinear.xml", false).getBadResourceException());
+
+        /* Repeated item should share the same resolved item */
+        assertSame(resolvedAssessmentTest.getResolvedAssessmentItem(resolvedAssessmentTest.getAssessmentItemRefs().get(1)),
+                resolvedAssessmentTest.getResolvedAssessmentItem(resolvedAssessmentTest.getAssessmentItemRefs().get(6)));
+
+        /* Item using RP template should have it resolved */
+        final ResolvedAssessmentItem templatedItem = itemMap.get(UnitTestHelper.createTestResourceUri("reading/choice.xml"));
+        assertTrue(templatedItem.getResolvedResponseProcessingTemplateLookup().wasSuccessful());
+        assertNull(itemMap.get(UnitTestHelper.createTestResourceUri("running/choice.xml")).getResolvedResponseProcessingTemplateLookup());
+    }
+
+    private RootNodeLookup<?> assertItemLookup(final ResolvedAssessmentItem resolvedAssessmentItem,
+            final String expectedPath, final boolean expectSuccess) {
+        final RootNodeLookup<?> itemLookup = resolvedAssessmentItem.getItemLookup();
+        assertEquals(UnitTestHelper.createTestResourceUri(expectedPath), itemLookup.getSystemId());
+        assertEquals(Boolean.valueOf(expectSuccess), Boolean.valueOf(itemLookup.wasSuccessful()));
+        return itemLookup;
+    }
+
+    private List<String> describe(final ResolvedAssessmentTest resolvedAssessmentTest) {
+        final List<String> result = new ArrayList<String>();
+        for (final Map.Entry<URI, ResolvedAssessmentItem> entry : resolvedAssessmentTest.getResolvedAssessmentItemBySystemIdMap().entrySet()) {
+            final RootNodeLookup<?> itemLookup = entry.getValue().getItemLookup();
+            final RootNodeLookup<?> templateLookup = entry.getValue().getResolvedResponseProcessingTemplateLookup();
+            result.add(entry.getKey()
+                    + " success=" + itemLookup.wasSuccessful()
+                    + " badResource=" + (itemLookup.getBadResourceException()!=null)
+                    + " notFound=" + (itemLookup.getNotFoundException()!=null)
+                    + " template=" + (templateLookup!=null ? templateLookup.getSystemId() + "/" + templateLookup.wasSuccessful() : null));
+        }
+        return result;
+    }
+}
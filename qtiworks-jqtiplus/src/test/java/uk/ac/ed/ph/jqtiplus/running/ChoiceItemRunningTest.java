@@ -43,6 +43,7 @@ import uk.ac.ed.ph.jqtiplus.internal.util.ObjectDumper;
 import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
 import uk.ac.ed.ph.jqtiplus.node.result.SessionStatus;
 import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.ItemSessionStateBinaryMarshaller;
 import uk.ac.ed.ph.jqtiplus.state.marshalling.ItemSessionStateXmlMarshaller;
 import uk.ac.ed.ph.jqtiplus.testutils.UnitTestHelper;
 import uk.ac.ed.ph.jqtiplus.types.FileResponseData;
@@ -125,6 +126,15 @@ public final class ChoiceItemRunningTest {
             System.err.println("State after marshalling: " + ObjectDumper.dumpObject(refried));
             Assert.assertEquals(itemSessionState, refried);
         }
+
+        /* Same again for the binary marshalling */
+        final byte[] itemSessionStateBinary = ItemSessionStateBinaryMarshaller.marshal(itemSessionState);
+        final ItemSessionState rebinned = ItemSessionStateBinaryMarshaller.unmarshal(itemSessionStateBinary);
+        if (!rebinned.equals(itemSessionState)) {
+            System.err.println("State before binary marshalling: " + ObjectDumper.dumpObject(itemSessionState));
+            System.err.println("State after binary marshalling: " + ObjectDumper.dumpObject(rebinned));
+            Assert.assertEquals(itemSessionState, rebinned);
+        }
     }
 
     @Test
@@ -0,0 +1,123 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTITools and MathAssessEngine.
+ * QTITools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.running;
+
+import uk.ac.ed.ph.jqtiplus.node.expression.CompiledExpression;
+import uk.ac.ed.ph.jqtiplus.node.expression.ExpressionCompiler;
+import uk.ac.ed.ph.jqtiplus.node.expression.operator.Match;
+import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentItem;
+import uk.ac.ed.ph.jqtiplus.state.ItemProcessingMap;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestProcessingMap;
+import uk.ac.ed.ph.jqtiplus.testutils.UnitTestHelper;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.utils.QueryUtils;
+import uk.ac.ed.ph.jqtiplus.value.BooleanValue;
+import uk.ac.ed.ph.jqtiplus.value.FloatValue;
+import uk.ac.ed.ph.jqtiplus.value.IdentifierValue;
+
+import java.lang.reflect.Modifier;
+import java.util.Date;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link ExpressionCompiler} when applied to the standard
+ * <code>choice.xml</code> item.
+ *
+ * @author David McKain
+ */
+public final class ExpressionCompilerTest {
+
+    public static final String TEST_FILE_PATH = "running/choice.xml";
+
+    public static final Identifier RESPONSE = Identifier.assumedLegal("RESPONSE");
+    public static final Identifier SCORE = Identifier.assumedLegal("SCORE");
+
+    @Test
+    public void testRootExpressionsCompiled() {
+        final ResolvedAssessmentItem resolvedAssessmentItem = UnitTestHelper.resolveUnitTestAssessmentItem(TEST_FILE_PATH);
+        final ItemProcessingMap itemProcessingMap = new ItemProcessingInitializer(resolvedAssessmentItem, true).initialize();
+        final Match match = findMatch(resolvedAssessmentItem);
+
+        Assert.assertNotNull(itemProcessingMap.getCompiledExpression(match));
+        Assert.assertNull(itemProcessingMap.getCompiledExpression(match.getExpressions().get(0)));
+    }
+
+    @Test
+    public void testInvalidItemNotCompiled() {
+        final ResolvedAssessmentItem resolvedAssessmentItem = UnitTestHelper.resolveUnitTestAssessmentItem(TEST_FILE_PATH);
+        final ItemProcessingMap itemProcessingMap = new ItemProcessingInitializer(resolvedAssessmentItem, false).initialize();
+
+        Assert.assertNull(itemProcessingMap.getCompiledExpression(findMatch(resolvedAssessmentItem)));
+    }
+
+    @Test
+    public void testCompiledEvaluation() {
+        final ResolvedAssessmentItem resolvedAssessmentItem = UnitTestHelper.resolveUnitTestAssessmentItem(TEST_FILE_PATH);
+        final ItemProcessingMap itemProcessingMap = new ItemProcessingInitializer(resolvedAssessmentItem, true).initialize();
+        final ItemSessionState itemSessionState = new ItemSessionState();
+        final ItemSessionController itemSessionController = new ItemSessionController(UnitTestHelper.createJqtiExtensionManager(),
+                new ItemSessionControllerSettings(), itemProcessingMap, itemSessionState);
+        final CompiledExpression compiledMatch = itemProcessingMap.getCompiledExpression(findMatch(resolvedAssessmentItem));
+
+        final Date timestamp = new Date();
+        itemSessionController.initialize(timestamp);
+        itemSessionController.performTemplateProcessing(timestamp);
+        itemSessionController.enterItem(timestamp);
+
+        itemSessionState.setResponseValue(RESPONSE, new IdentifierValue("ChoiceA"));
+        Assert.assertEquals(BooleanValue.TRUE, compiledMatch.evaluate(itemSessionController));
+        itemSessionController.performResponseProcessing(timestamp);
+        Assert.assertEquals(new FloatValue(1.0), itemSessionState.getOutcomeValue(SCORE));
+
+        itemSessionState.setResponseValue(RESPONSE, new IdentifierValue("ChoiceB"));
+        Assert.assertEquals(BooleanValue.FALSE, compiledMatch.evaluate(itemSessionController));
+        itemSessionController.performResponseProcessing(timestamp);
+        Assert.assertEquals(new FloatValue(0.0), itemSessionState.getOutcomeValue(SCORE));
+    }
+
+    @Test
+    public void testCompiledExpressionsNotSerialized() throws Exception {
+        Assert.assertTrue(Modifier.isTransient(ItemProcessingMap.class.getDeclaredField("compiledExpressionMap").getModifiers()));
+        Assert.assertTrue(Modifier.isTransient(TestProcessingMap.class.getDeclaredField("compiledExpressionMap").getModifiers()));
+    }
+
+    private static Match findMatch(final ResolvedAssessmentItem resolvedAssessmentItem) {
+        final AssessmentItem item = resolvedAssessmentItem.getRootNodeLookup().extractAssumingSuccessful();
+        return QueryUtils.search(Match.class, item).get(0);
+    }
+}
@@ -0,0 +1,167 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTITools and MathAssessEngine.
+ * QTITools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.running;
+
+import uk.ac.ed.ph.jqtiplus.node.item.response.processing.ResponseProcessing;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentItem;
+import uk.ac.ed.ph.jqtiplus.state.ItemProcessingMap;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.testutils.UnitTestHelper;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.value.FloatValue;
+import uk.ac.ed.ph.jqtiplus.value.IdentifierValue;
+import uk.ac.ed.ph.jqtiplus.value.MultipleValue;
+import uk.ac.ed.ph.jqtiplus.value.NullValue;
+import uk.ac.ed.ph.jqtiplus.value.PointValue;
+import uk.ac.ed.ph.jqtiplus.value.StringValue;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+import java.util.Date;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link StandardResponseProcessor}, checking that it gives the same results as
+ * evaluating the corresponding {@link ResponseProcessing} directly.
+ *
+ * @author David McKain
+ */
+public final class StandardResponseProcessorTest {
+
+    public static final String MATCH_CORRECT_FILE_PATH = "reading/choice.xml";
+    public static final String MAP_RESPONSE_FILE_PATH = "running/map-response.xml";
+    public static final String MAP_RESPONSE_POINT_FILE_PATH = "running/map-response-point.xml";
+    public static final String NON_STANDARD_FILE_PATH = "running/choice.xml";
+
+    public static final Identifier RESPONSE = Identifier.assumedLegal("RESPONSE");
+    public static final Identifier SCORE = Identifier.assumedLegal("SCORE");
+
+    @Test
+    public void testMatchCorrectTemplate() {
+        final ResolvedAssessmentItem resolvedAssessmentItem = UnitTestHelper.resolveUnitTestAssessmentItem(MATCH_CORRECT_FILE_PATH);
+        final ItemProcessingMap itemProcessingMap = new ItemProcessingInitializer(resolvedAssessmentItem, true).initialize();
+        final ResponseProcessing responseProcessing = resolvedAssessmentItem.getResolvedResponseProcessingTemplateLookup().extractAssumingSuccessful();
+        Assert.assertTrue(itemProcessingMap.getStandardResponseProcessor() instanceof StandardResponseProcessor.MatchCorrectProcessor);
+
+        assertResponseProcessing(itemProcessingMap, responseProcessing, NullValue.INSTANCE, new FloatValue(0.0));
+        assertResponseProcessing(itemProcessingMap, responseProcessing, new IdentifierValue("ChoiceA"), new FloatValue(1.0));
+        assertResponseProcessing(itemProcessingMap, responseProcessing, new IdentifierValue("ChoiceB"), new FloatValue(0.0));
+    }
+
+    @Test
+    public void testInlineMapResponse() {
+        final ResolvedAssessmentItem resolvedAssessmentItem = UnitTestHelper.resolveUnitTestAssessmentItem(MAP_RESPONSE_FILE_PATH);
+        final ItemProcessingMap itemProcessingMap = new ItemProcessingInitializer(resolvedAssessmentItem, true).initialize();
+        final ResponseProcessing responseProcessing = resolvedAssessmentItem.getRootNodeLookup().extractAssumingSuccessful().getResponseProcessing();
+        Assert.assertTrue(itemProcessingMap.getStandardResponseProcessor() instanceof StandardResponseProcessor.MapResponseProcessor);
+
+        assertResponseProcessing(itemProcessingMap, responseProcessing, NullValue.INSTANCE, new FloatValue(0.0));
+        assertResponseProcessing(itemProcessingMap, responseProcessing, createStrings("Paris"), new FloatValue(1.0));
+        assertResponseProcessing(itemProcessingMap, responseProcessing, createStrings("PARIS"), new FloatValue(0.25));
+        assertResponseProcessing(itemProcessingMap, responseProcessing, createStrings("london", "Rome", "Rome"), new FloatValue(1.5));
+        assertResponseProcessing(itemProcessingMap, responseProcessing, createStrings("rome", "Berlin"), new FloatValue(0.0));
+        assertResponseProcessing(itemProcessingMap, responseProcessing, createStrings("Paris", "paris", "LONDON", "Rome"), new FloatValue(2.0));
+    }
+
+    @Test
+    public void testMapResponsePointTemplate() {
+        final ResolvedAssessmentItem resolvedAssessmentItem = UnitTestHelper.resolveUnitTestAssessmentItem(MAP_RESPONSE_POINT_FILE_PATH);
+        final ItemProcessingMap itemProcessingMap = new ItemProcessingInitializer(resolvedAssessmentItem, true).initialize();
+        final ResponseProcessing responseProcessing = resolvedAssessmentItem.getResolvedResponseProcessingTemplateLookup().extractAssumingSuccessful();
+        Assert.assertTrue(itemProcessingMap.getStandardResponseProcessor() instanceof StandardResponseProcessor.MapResponsePointProcessor);
+
+        assertResponseProcessing(itemProcessingMap, responseProcessing, NullValue.INSTANCE, new FloatValue(0.0));
+        assertResponseProcessing(itemProcessingMap, responseProcessing, createPoints(102, 113), new FloatValue(1.0));
+        assertResponseProcessing(itemProcessingMap, responseProcessing, createPoints(40, 40), new FloatValue(0.5));
+        assertResponseProcessing(itemProcessingMap, responseProcessing, createPoints(30, 30), new FloatValue(2.5));
+        assertResponseProcessing(itemProcessingMap, responseProcessing, createPoints(200, 200), new FloatValue(0.0));
+        assertResponseProcessing(itemProcessingMap, responseProcessing, createPoints(102, 113, 100, 110, 200, 200), new FloatValue(0.75));
+        assertResponseProcessing(itemProcessingMap, responseProcessing, createPoints(10, 10, 30, 30, 102, 113), new FloatValue(2.5));
+    }
+
+    @Test
+    public void testNonStandardNotRecognized() {
+        final ResolvedAssessmentItem resolvedAssessmentItem = UnitTestHelper.resolveUnitTestAssessmentItem(NON_STANDARD_FILE_PATH);
+        final ItemProcessingMap itemProcessingMap = new ItemProcessingInitializer(resolvedAssessmentItem, true).initialize();
+
+        Assert.assertNull(itemProcessingMap.getStandardResponseProcessor());
+    }
+
+    @Test
+    public void testInvalidItemNotRecognized() {
+        final ResolvedAssessmentItem resolvedAssessmentItem = UnitTestHelper.resolveUnitTestAssessmentItem(MATCH_CORRECT_FILE_PATH);
+        final ItemProcessingMap itemProcessingMap = new ItemProcessingInitializer(resolvedAssessmentItem, false).initialize();
+
+        Assert.assertNull(itemProcessingMap.getStandardResponseProcessor());
+    }
+
+    private static void assertResponseProcessing(final ItemProcessingMap itemProcessingMap,
+            final ResponseProcessing responseProcessing, final Value responseValue, final Value expectedScore) {
+        final ItemSessionState itemSessionState = new ItemSessionState();
+        final ItemSessionController itemSessionController = new ItemSessionController(UnitTestHelper.createJqtiExtensionManager(),
+                new ItemSessionControllerSettings(), itemProcessingMap, itemSessionState);
+        final Date timestamp = new Date();
+        itemSessionController.initialize(timestamp);
+        itemSessionController.performTemplateProcessing(timestamp);
+        itemSessionController.enterItem(timestamp);
+        itemSessionState.setResponseValue(RESPONSE, responseValue);
+
+        /* Evaluate the responseProcessing rules directly */
+        responseProcessing.evaluate(itemSessionController);
+        final Value interpretedScore = itemSessionState.getOutcomeValue(SCORE);
+
+        /* Then do it properly, which should use the StandardResponseProcessor */
+        itemSessionState.setOutcomeValue(SCORE, NullValue.INSTANCE);
+        itemSessionController.performResponseProcessing(timestamp);
+        Assert.assertEquals(expectedScore, interpretedScore);
+        Assert.assertEquals(expectedScore, itemSessionState.getOutcomeValue(SCORE));
+    }
+
+    private static Value createStrings(final String... strings) {
+        final StringValue[] values = new StringValue[strings.length];
+        for (int i=0; i<strings.length; i++) {
+            values[i] = new StringValue(strings[i]);
+        }
+        return MultipleValue.createMultipleValue(values);
+    }
+
+    private static Value createPoints(final int... coordinates) {
+        final PointValue[] values = new PointValue[coordinates.length / 2];
+        for (int i=0; i<values.length; i++) {
+            values[i] = new PointValue(coordinates[2*i], coordinates[2*i + 1]);
+        }
+        return MultipleValue.createMultipleValue(values);
+    }
+}
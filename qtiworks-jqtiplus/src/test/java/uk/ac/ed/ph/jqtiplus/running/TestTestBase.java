@@ -41,6 +41,7 @@ import uk.ac.ed.ph.jqtiplus.state.TestPlan;
 import uk.ac.ed.ph.jqtiplus.state.TestPlanNode;
 import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
 import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateBinaryMarshaller;
 import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateXmlMarshaller;
 import uk.ac.ed.ph.jqtiplus.testutils.UnitTestHelper;
 import uk.ac.ed.ph.jqtiplus.types.Identifier;
@@ -121,6 +122,15 @@ public abstract class TestTestBase {
             System.err.println("State after marshalling: " + ObjectDumper.dumpObject(refried));
             Assert.assertEquals(testSessionState, refried);
         }
+
+        /* Same again for the binary marshalling */
+        final byte[] testSessionStateBinary = TestSessionStateBinaryMarshaller.marshal(testSessionState);
+        final TestSessionState rebinned = TestSessionStateBinaryMarshaller.unmarshal(testSessionStateBinary);
+        if (!rebinned.equals(testSessionState)) {
+            System.err.println("State before binary marshalling: " + ObjectDumper.dumpObject(testSessionState));
+            System.err.println("State after binary marshalling: " + ObjectDumper.dumpObject(rebinned));
+            Assert.assertEquals(testSessionState, rebinned);
+        }
     }
 
     //-------------------------------------------------------
@@ -0,0 +1,164 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTITools and MathAssessEngine.
+ * QTITools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.xmlutils.xslt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.transform.Templates;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the caching behaviour of {@link XsltStylesheetManager} when used by multiple Threads
+ *
+ * @author David McKain
+ */
+public class XsltStylesheetManagerTest {
+
+    private static final int THREAD_COUNT = 8;
+
+    private static final String STYLESHEET = "<xsl:stylesheet version='1.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>"
+            + "<xsl:template match='/'><out/></xsl:template>"
+            + "</xsl:stylesheet>";
+
+    private CountingResourceLocator resourceLocator;
+    private XsltStylesheetManager stylesheetManager;
+    private ExecutorService executorService;
+
+    @Before
+    public void setup() {
+        resourceLocator = new CountingResourceLocator();
+        stylesheetManager = new XsltStylesheetManager(resourceLocator, new SimpleXsltStylesheetCache());
+        executorService = Executors.newFixedThreadPool(THREAD_COUNT);
+    }
+
+    @After
+    public void teardown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void testSameStylesheetCompiledOnce() throws Exception {
+        final URI xsltUri = URI.create("test:/a.xsl");
+        final List<Templates> results = compileConcurrently(xsltUri, xsltUri, xsltUri, xsltUri,
+                xsltUri, xsltUri, xsltUri, xsltUri);
+
+        assertEquals(1, resourceLocator.getLookupCount());
+        for (final Templates result : results) {
+            assertNotNull(result);
+            assertSame(results.get(0), result);
+        }
+    }
+
+    @Test
+    public void testDifferentStylesheetsCompiledOnceEach() throws Exception {
+        final URI xsltUri1 = URI.create("test:/a.xsl");
+        final URI xsltUri2 = URI.create("test:/b.xsl");
+        final List<Templates> results = compileConcurrently(xsltUri1, xsltUri2, xsltUri1, xsltUri2,
+                xsltUri1, xsltUri2, xsltUri1, xsltUri2);
+
+        assertEquals(2, resourceLocator.getLookupCount());
+        for (int i=0; i<results.size(); i++) {
+            assertSame(results.get(i % 2), results.get(i));
+        }
+        assertSame(results.get(0), stylesheetManager.getCompiledStylesheet(xsltUri1));
+        assertSame(results.get(1), stylesheetManager.getCompiledStylesheet(xsltUri2));
+        assertEquals(2, resourceLocator.getLookupCount());
+    }
+
+    private List<Templates> compileConcurrently(final URI... xsltUris) throws Exception {
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final List<Future<Templates>> futures = new ArrayList<Future<Templates>>();
+        for (final URI xsltUri : xsltUris) {
+            futures.add(executorService.submit(new Callable<Templates>() {
+                @Override
+                public Templates call() throws Exception {
+                    startLatch.await();
+                    return stylesheetManager.getCompiledStylesheet(xsltUri);
+                }
+            }));
+        }
+        startLatch.countDown();
+        final List<Templates> results = new ArrayList<Templates>();
+        for (final Future<Templates> future : futures) {
+            results.add(future.get());
+        }
+        return results;
+    }
+
+    /**
+     * Trivial {@link ResourceLocator} that returns the same stylesheet for every URI, counting how
+     * many times it has been asked. The small delay makes it more likely that Threads will
+     * contend for the same stylesheet.
+     */
+    private static class CountingResourceLocator implements ResourceLocator {
+
+        private final AtomicInteger lookupCount = new AtomicInteger();
+
+        @Override
+        public InputStream findResource(final URI systemId) {
+            lookupCount.incrementAndGet();
+            try {
+                Thread.sleep(50);
+            }
+            catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new ByteArrayInputStream(STYLESHEET.getBytes(Charset.forName("UTF-8")));
+        }
+
+        public int getLookupCount() {
+            return lookupCount.get();
+        }
+    }
+}
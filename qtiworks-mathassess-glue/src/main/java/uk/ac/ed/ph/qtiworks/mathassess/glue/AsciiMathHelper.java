@@ -64,6 +64,8 @@ import org.w3c.dom.Element;
  *
  * Consider passing a shared instance of a {@link StylesheetCache} so that the underlying XSLT
  * stylesheets can be reused.
+ * <p>
+ * Use {@link AsciiMathUpConversionService} if you need to do this from multiple threads.
  *
  * @author David McKain
  */
@@ -0,0 +1,258 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.mathassess.glue;
+
+import uk.ac.ed.ph.qtiworks.mathassess.glue.types.MathsContentInputValueWrapper;
+
+import uk.ac.ed.ph.snuggletex.internal.util.ConstraintUtilities;
+import uk.ac.ed.ph.snuggletex.upconversion.UpConversionFailure;
+import uk.ac.ed.ph.snuggletex.utilities.StylesheetCache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe front end to {@link AsciiMathHelper}, which keeps a pool of helpers (as these
+ * are expensive to create and not thread-safe) and remembers the results of recent
+ * up-conversions so that repeated inputs (e.g. live previews of the same input, or common
+ * answers to the same question) don't need to be up-converted again.
+ * <p>
+ * Results are cached in two bounded LRU maps keyed on the raw ASCIIMath input: one for
+ * {@link #createMathsContentFromAsciiMath(String)} and one for
+ * {@link #upConvertAsciiMathInput(String)}. Inputs that cause an {@link AsciiMathInputException}
+ * are not cached.
+ * <p>
+ * An instance of this class is thread-safe and should be shared.
+ *
+ * @author David McKain
+ */
+public final class AsciiMathUpConversionService {
+
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+
+    private final StylesheetCache stylesheetCache;
+    private final BlockingQueue<AsciiMathHelper> idleHelpers;
+    private final Map<String, MathsContentInputValueWrapper> mathsContentCache;
+    private final Map<String, Map<String, String>> upConversionCache;
+    private final AtomicLong hitCount;
+    private final AtomicLong missCount;
+    private volatile int cacheSize;
+
+    public AsciiMathUpConversionService(final StylesheetCache stylesheetCache) {
+        this(stylesheetCache, DEFAULT_CACHE_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param stylesheetCache cache for the up-conversion XSLT stylesheets, which should be shared
+     * @param cacheSize maximum number of results of each type to remember (0 disables caching)
+     * @param maxIdleHelpers maximum number of idle {@link AsciiMathHelper}s to keep for reuse
+     */
+    public AsciiMathUpConversionService(final StylesheetCache stylesheetCache, final int cacheSize,
+            final int maxIdleHelpers) {
+        ConstraintUtilities.ensureNotNull(stylesheetCache, "stylesheetCache");
+        this.stylesheetCache = stylesheetCache;
+        this.cacheSize = cacheSize;
+        this.idleHelpers = new LinkedBlockingQueue<AsciiMathHelper>(Math.max(1, maxIdleHelpers));
+        this.mathsContentCache = createLruMap();
+        this.upConversionCache = createLruMap();
+        this.hitCount = new AtomicLong();
+        this.missCount = new AtomicLong();
+    }
+
+    private <V> Map<String, V> createLruMap() {
+        return new LinkedHashMap<String, V>(64, 0.75f, true) {
+
+            private static final long serialVersionUID = -1880744361734563412L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, V> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    //-------------------------------------------------------------------------
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Sets the maximum number of results of each type to remember. Setting this to 0 (or less)
+     * disables caching and discards any existing results.
+     */
+    public void setCacheSize(final int cacheSize) {
+        this.cacheSize = cacheSize;
+        trimCache(mathsContentCache, cacheSize);
+        trimCache(upConversionCache, cacheSize);
+    }
+
+    private static void trimCache(final Map<String, ?> cache, final int cacheSize) {
+        synchronized (cache) {
+            final Iterator<String> iterator = cache.keySet().iterator();
+            while (cache.size() > Math.max(0, cacheSize)) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+    }
+
+    /** Number of up-conversions answered from the cache */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /** Number of up-conversions that had to be performed */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    //-------------------------------------------------------------------------
+
+    /**
+     * Thread-safe and cached version of {@link AsciiMathHelper#createMathsContentFromAsciiMath(String)}.
+     * <p>
+     * The result is a new object that the caller may modify.
+     *
+     * @throws IllegalArgumentException if the ASCIIMath input is null
+     * @throws AsciiMathInputException if the up-conversion process fails unexpectedly
+     *   on the ASCIIMath input
+     */
+    public MathsContentInputValueWrapper createMathsContentFromAsciiMath(final String asciiMathInput) {
+        ConstraintUtilities.ensureNotNull(asciiMathInput, "asciiMathInput");
+        MathsContentInputValueWrapper result = lookup(mathsContentCache, asciiMathInput);
+        if (result==null) {
+            final AsciiMathHelper helper = borrowHelper();
+            try {
+                result = helper.createMathsContentFromAsciiMath(asciiMathInput);
+            }
+            finally {
+                returnHelper(helper);
+            }
+            store(mathsContentCache, asciiMathInput, copyOf(result));
+            return result;
+        }
+        return copyOf(result);
+    }
+
+    /**
+     * Thread-safe and cached version of {@link AsciiMathHelper#upConvertAsciiMathInput(String)}.
+     * <p>
+     * The result is unmodifiable.
+     *
+     * @throws IllegalArgumentException if the ASCIIMath input is null
+     * @throws AsciiMathInputException if the up-conversion process fails unexpectedly
+     *   on the ASCIIMath input
+     */
+    public Map<String, String> upConvertAsciiMathInput(final String asciiMathInput) {
+        ConstraintUtilities.ensureNotNull(asciiMathInput, "asciiMathInput");
+        Map<String, String> result = lookup(upConversionCache, asciiMathInput);
+        if (result==null) {
+            final AsciiMathHelper helper = borrowHelper();
+            try {
+                result = Collections.unmodifiableMap(helper.upConvertAsciiMathInput(asciiMathInput));
+            }
+            finally {
+                returnHelper(helper);
+            }
+            store(upConversionCache, asciiMathInput, result);
+        }
+        return result;
+    }
+
+    //-------------------------------------------------------------------------
+
+    private <V> V lookup(final Map<String, V> cache, final String asciiMathInput) {
+        final V result;
+        synchronized (cache) {
+            result = cache.get(asciiMathInput);
+        }
+        if (result!=null) {
+            hitCount.incrementAndGet();
+        }
+        else {
+            missCount.incrementAndGet();
+        }
+        return result;
+    }
+
+    private <V> void store(final Map<String, V> cache, final String asciiMathInput, final V result) {
+        if (cacheSize > 0) {
+            synchronized (cache) {
+                cache.put(asciiMathInput, result);
+            }
+        }
+    }
+
+    private AsciiMathHelper borrowHelper() {
+        final AsciiMathHelper helper = idleHelpers.poll();
+        return helper!=null ? helper : new AsciiMathHelper(stylesheetCache);
+    }
+
+    private void returnHelper(final AsciiMathHelper helper) {
+        /* (If the pool is already full then the helper is simply discarded) */
+        idleHelpers.offer(helper);
+    }
+
+    private static MathsContentInputValueWrapper copyOf(final MathsContentInputValueWrapper source) {
+        final MathsContentInputValueWrapper result = new MathsContentInputValueWrapper();
+        result.setAsciiMathInput(source.getAsciiMathInput());
+        result.setPMathML(source.getPMathML());
+        result.setPMathMLBracketed(source.getPMathMLBracketed());
+        result.setCMathML(source.getCMathML());
+        result.setMaximaInput(source.getMaximaInput());
+        final List<UpConversionFailure> upConversionFailures = source.getUpConversionFailures();
+        if (upConversionFailures!=null) {
+            result.setUpConversionFailures(new ArrayList<UpConversionFailure>(upConversionFailures));
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                + "(cacheSize=" + cacheSize
+                + ",hitCount=" + hitCount
+                + ",missCount=" + missCount
+                + ",idleHelpers=" + idleHelpers.size()
+                + ")";
+    }
+}
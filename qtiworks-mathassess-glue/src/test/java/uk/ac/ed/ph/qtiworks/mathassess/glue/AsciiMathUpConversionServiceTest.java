@@ -0,0 +1,138 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.mathassess.glue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import uk.ac.ed.ph.qtiworks.mathassess.glue.types.MathsContentInputValueWrapper;
+
+import uk.ac.ed.ph.snuggletex.utilities.SimpleStylesheetCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link AsciiMathUpConversionService}
+ *
+ * @author David McKain
+ */
+public class AsciiMathUpConversionServiceTest {
+
+    private AsciiMathHelper helper;
+    private AsciiMathUpConversionService service;
+
+    @Before
+    public void setup() {
+        final SimpleStylesheetCache stylesheetCache = new SimpleStylesheetCache();
+        helper = new AsciiMathHelper(stylesheetCache);
+        service = new AsciiMathUpConversionService(stylesheetCache, 2, 2);
+    }
+
+    @Test
+    public void testMathsContentCached() {
+        final MathsContentInputValueWrapper first = service.createMathsContentFromAsciiMath("2x");
+        final MathsContentInputValueWrapper second = service.createMathsContentFromAsciiMath("2x");
+        assertNotSame(first, second);
+        final String expectedMaximaInput = helper.createMathsContentFromAsciiMath("2x").getMaximaInput();
+        assertEquals(expectedMaximaInput, first.getMaximaInput());
+        assertEquals(expectedMaximaInput, second.getMaximaInput());
+        assertEquals(1L, service.getMissCount());
+        assertEquals(1L, service.getHitCount());
+
+        /* Make sure cached result can't be changed by callers */
+        second.setMaximaInput("changed");
+        assertEquals(expectedMaximaInput, service.createMathsContentFromAsciiMath("2x").getMaximaInput());
+    }
+
+    @Test
+    public void testUpConversionCached() {
+        final Map<String, String> first = service.upConvertAsciiMathInput("sin x");
+        final Map<String, String> second = service.upConvertAsciiMathInput("sin x");
+        assertEquals(helper.upConvertAsciiMathInput("sin x"), first);
+        assertEquals(first, second);
+        assertEquals(1L, service.getMissCount());
+        assertEquals(1L, service.getHitCount());
+    }
+
+    @Test
+    public void testCacheBounded() {
+        service.upConvertAsciiMathInput("x");
+        service.upConvertAsciiMathInput("y");
+        service.upConvertAsciiMathInput("z");
+        service.upConvertAsciiMathInput("x");
+        assertEquals(4L, service.getMissCount());
+        assertEquals(0L, service.getHitCount());
+    }
+
+    @Test
+    public void testCacheDisabled() {
+        service.setCacheSize(0);
+        service.upConvertAsciiMathInput("x");
+        service.upConvertAsciiMathInput("x");
+        assertEquals(2L, service.getMissCount());
+    }
+
+    @Test
+    public void testConcurrentUse() throws Exception {
+        final ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<String>> futures = new ArrayList<Future<String>>();
+            for (int i=0; i<20; i++) {
+                final String input = (i % 5) + "x+1";
+                futures.add(executorService.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return service.createMathsContentFromAsciiMath(input).getMaximaInput();
+                    }
+                }));
+            }
+            for (int i=0; i<futures.size(); i++) {
+                final String expected = helper.createMathsContentFromAsciiMath((i % 5) + "x+1").getMaximaInput();
+                assertEquals(expected, futures.get(i).get());
+            }
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+    }
+}
@@ -164,6 +164,11 @@ public final class CasCompare extends MathAssessOperator {
             .setValue(simplify);
     }
 
+    @Override
+    protected String getCasCode() {
+        return getCode();
+    }
+
     @Override
     protected void doAdditionalValidation(final ValidationContext context) {
         if (getAction() == ActionType.CODE && getCode() == null) {
@@ -213,9 +218,23 @@ public final class CasCompare extends MathAssessOperator {
             return NullValue.INSTANCE;
         }
 
+        final CasResultCache casResultCache = mathAssessExtensionPackage.getCasResultCache();
+        final String cacheKey = casResultCache.createKey(this, code, simplify, casValue1, casValue2);
+        if (cacheKey!=null) {
+            final Boolean cachedResult = casResultCache.get(cacheKey);
+            if (cachedResult!=null) {
+                logger.debug("Using cached casCompare result {}", cachedResult);
+                return BooleanValue.valueOf(cachedResult.booleanValue());
+            }
+        }
+
         final QtiMaximaProcess qtiMaximaProcess = mathAssessExtensionPackage.obtainMaximaSessionForThread();
         try {
-            return BooleanValue.valueOf(qtiMaximaProcess.executeCasCompare(code, simplify, casValue1, casValue2));
+            final boolean result = qtiMaximaProcess.executeCasCompare(code, simplify, casValue1, casValue2);
+            if (cacheKey!=null) {
+                casResultCache.put(cacheKey, result);
+            }
+            return BooleanValue.valueOf(result);
         }
         catch (final MaximaTimeoutException e) {
             context.fireRuntimeError(this, "A timeout occurred executing the CasCompare logic. Returning NULL");
@@ -119,6 +119,11 @@ public final class CasCondition extends MathAssessOperator {
             .setValue(simplify);
     }
 
+    @Override
+    protected String getCasCode() {
+        return getCode();
+    }
+
     @Override
     protected void doAdditionalValidation(final ValidationContext context) {
         /* Nothing to do here */
@@ -146,9 +151,23 @@ public final class CasCondition extends MathAssessOperator {
             casValues[i] = casValue;
         }
 
+        final CasResultCache casResultCache = mathAssessExtensionPackage.getCasResultCache();
+        final String cacheKey = casResultCache.createKey(this, code, simplify, casValues);
+        if (cacheKey!=null) {
+            final Boolean cachedResult = casResultCache.get(cacheKey);
+            if (cachedResult!=null) {
+                logger.debug("Using cached casCondition result {}", cachedResult);
+                return BooleanValue.valueOf(cachedResult.booleanValue());
+            }
+        }
+
         final QtiMaximaProcess qtiMaximaProcess = mathAssessExtensionPackage.obtainMaximaSessionForThread();
         try {
-            return BooleanValue.valueOf(qtiMaximaProcess.executeCasCondition(code, simplify, casValues));
+            final boolean result = qtiMaximaProcess.executeCasCondition(code, simplify, casValues);
+            if (cacheKey!=null) {
+                casResultCache.put(cacheKey, result);
+            }
+            return BooleanValue.valueOf(result);
         }
         catch (final MaximaTimeoutException e) {
             context.fireRuntimeError(this, "A timeout occurred executing the CasCondition logic. Returning NULL");
@@ -0,0 +1,282 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.mathassess;
+
+import uk.ac.ed.ph.qtiworks.mathassess.glue.maxima.MaximaDataBinder;
+import uk.ac.ed.ph.qtiworks.mathassess.glue.types.ValueOrVariableWrapper;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.node.RootNode;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of the boolean results of <tt>casCompare</tt> and <tt>casCondition</tt>
+ * evaluations, allowing repeated evaluations of the same code on the same values to bypass
+ * Maxima completely.
+ * <p>
+ * Results are keyed on the (whitespace-normalised) Maxima code, the simplification flag and
+ * the Maxima forms of the arguments. Only evaluations that {@link MathAssessOperator} deems
+ * deterministic are cached. Caching can be turned off for individual items via
+ * {@link #setItemExcluded(URI, boolean)}, or completely by setting the maximum size to 0.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author David McKain
+ */
+public final class CasResultCache {
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    private final MaximaDataBinder maximaDataBinder;
+    private final Map<String, Boolean> resultMap;
+    private final Set<URI> excludedItemSystemIds;
+    private final AtomicLong hitCount;
+    private final AtomicLong missCount;
+    private final AtomicLong bypassCount;
+    private volatile int maxSize;
+
+    public CasResultCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public CasResultCache(final int maxSize) {
+        this.maxSize = maxSize;
+        this.maximaDataBinder = new MaximaDataBinder();
+        this.resultMap = new LinkedHashMap<String, Boolean>(256, 0.75f, true) {
+
+            private static final long serialVersionUID = 3541282167302431537L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest) {
+                return size() > CasResultCache.this.maxSize;
+            }
+        };
+        this.excludedItemSystemIds = Collections.newSetFromMap(new ConcurrentHashMap<URI, Boolean>());
+        this.hitCount = new AtomicLong();
+        this.missCount = new AtomicLong();
+        this.bypassCount = new AtomicLong();
+    }
+
+    //-------------------------------------------------------------------------
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum number of results to keep. Setting this to 0 (or less) disables
+     * caching and discards any existing results.
+     */
+    public void setMaxSize(final int maxSize) {
+        this.maxSize = maxSize;
+        synchronized (resultMap) {
+            if (maxSize <= 0) {
+                resultMap.clear();
+            }
+            else {
+                while (resultMap.size() > maxSize) {
+                    resultMap.remove(resultMap.keySet().iterator().next());
+                }
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Opts the item (or test) having the given System ID in or out of caching. Use this for
+     * items whose CAS code is not deterministic in ways that can't be detected automatically.
+     */
+    public void setItemExcluded(final URI systemId, final boolean excluded) {
+        Assert.notNull(systemId, "systemId");
+        if (excluded) {
+            excludedItemSystemIds.add(systemId);
+        }
+        else {
+            excludedItemSystemIds.remove(systemId);
+        }
+    }
+
+    public boolean isItemExcluded(final URI systemId) {
+        return systemId!=null && excludedItemSystemIds.contains(systemId);
+    }
+
+    //-------------------------------------------------------------------------
+
+    /**
+     * Creates the key used to cache the result of evaluating the given code with the given
+     * arguments within the given {@link MathAssessOperator}.
+     *
+     * @return key, or null if the result of this evaluation must not be cached
+     */
+    public String createKey(final MathAssessOperator operator, final String code, final boolean simplify,
+            final ValueOrVariableWrapper... arguments) {
+        if (!isEnabled()) {
+            return null;
+        }
+        final RootNode rootNode = operator.getRootNode(RootNode.class);
+        if ((rootNode!=null && isItemExcluded(rootNode.getSystemId()))
+                || !operator.isDeterministicCasEvaluation(code)) {
+            bypassCount.incrementAndGet();
+            return null;
+        }
+        final StringBuilder keyBuilder = new StringBuilder(simplify ? "simp" : "nosimp")
+            .append('\u0000')
+            .append(normaliseCode(code));
+        try {
+            for (final ValueOrVariableWrapper argument : arguments) {
+                keyBuilder.append('\u0000').append(maximaDataBinder.toMaximaExpression(argument));
+            }
+        }
+        catch (final IllegalArgumentException e) {
+            /* Argument can't be passed to Maxima, so leave the subsequent call to report this */
+            bypassCount.incrementAndGet();
+            return null;
+        }
+        return keyBuilder.toString();
+    }
+
+    /**
+     * Looks up the result for the given key, recording a hit or miss.
+     *
+     * @return cached result, or null if not cached
+     */
+    public Boolean get(final String key) {
+        Assert.notNull(key, "key");
+        final Boolean result;
+        synchronized (resultMap) {
+            result = resultMap.get(key);
+        }
+        if (result!=null) {
+            hitCount.incrementAndGet();
+        }
+        else {
+            missCount.incrementAndGet();
+        }
+        return result;
+    }
+
+    public void put(final String key, final boolean result) {
+        Assert.notNull(key, "key");
+        if (isEnabled()) {
+            synchronized (resultMap) {
+                resultMap.put(key, Boolean.valueOf(result));
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (resultMap) {
+            resultMap.clear();
+        }
+    }
+
+    public int getSize() {
+        synchronized (resultMap) {
+            return resultMap.size();
+        }
+    }
+
+    /** Number of lookups that found a cached result */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /** Number of lookups that did not find a cached result */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /** Number of evaluations that were not eligible for caching */
+    public long getBypassCount() {
+        return bypassCount.get();
+    }
+
+    //-------------------------------------------------------------------------
+
+    /**
+     * Collapses runs of whitespace outside Maxima string literals into a single space,
+     * so that trivially different formattings of the same code share results.
+     */
+    static String normaliseCode(final String code) {
+        final StringBuilder result = new StringBuilder(code.length());
+        boolean inString = false;
+        boolean pendingSpace = false;
+        for (int i=0; i<code.length(); i++) {
+            final char c = code.charAt(i);
+            if (inString) {
+                result.append(c);
+                if (c=='\\' && i+1<code.length()) {
+                    result.append(code.charAt(++i));
+                }
+                else if (c=='"') {
+                    inString = false;
+                }
+            }
+            else if (Character.isWhitespace(c)) {
+                pendingSpace = result.length() > 0;
+            }
+            else {
+                if (pendingSpace) {
+                    result.append(' ');
+                    pendingSpace = false;
+                }
+                result.append(c);
+                inString = (c=='"');
+            }
+        }
+        return result.toString();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                + "(maxSize=" + maxSize
+                + ",size=" + getSize()
+                + ",hitCount=" + hitCount
+                + ",missCount=" + missCount
+                + ",bypassCount=" + bypassCount
+                + ",excludedItemSystemIds=" + excludedItemSystemIds
+                + ")";
+    }
+}
@@ -37,14 +37,18 @@ import static uk.ac.ed.ph.qtiworks.mathassess.MathAssessConstants.MATHASSESS_DEF
 import static uk.ac.ed.ph.qtiworks.mathassess.MathAssessConstants.MATHASSESS_NAMESPACE_URI;
 import static uk.ac.ed.ph.qtiworks.mathassess.MathAssessConstants.MATHASSESS_SCHEMA_LOCATION;
 
+import uk.ac.ed.ph.qtiworks.mathassess.glue.AsciiMathUpConversionService;
 import uk.ac.ed.ph.qtiworks.mathassess.glue.maxima.MaximaLaunchHelper;
 import uk.ac.ed.ph.qtiworks.mathassess.glue.maxima.QtiMaximaProcess;
 import uk.ac.ed.ph.qtiworks.mathassess.pooling.QtiMaximaProcessPoolManager;
+import uk.ac.ed.ph.qtiworks.mathassess.pooling.QtiMaximaProcessPoolMetrics;
+import uk.ac.ed.ph.qtiworks.mathassess.pooling.QtiMaximaProcessPoolSettings;
 
 import uk.ac.ed.ph.jqtiplus.ExtensionNamespaceInfo;
 import uk.ac.ed.ph.jqtiplus.JqtiExtensionPackage;
 import uk.ac.ed.ph.jqtiplus.JqtiLifecycleEventType;
 import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
 import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
 import uk.ac.ed.ph.jqtiplus.node.QtiNode;
 import uk.ac.ed.ph.jqtiplus.node.expression.ExpressionParent;
@@ -87,11 +91,37 @@ public final class MathAssessExtensionPackage implements JqtiExtensionPackage<Ma
     private final Set<String> customOperatorClasses;
     private final Set<String> customInteractionClasses;
 
+    private final QtiMaximaProcessPoolSettings qtiMaximaProcessPoolSettings;
+    private final CasResultCache casResultCache;
+    private final AsciiMathUpConversionService asciiMathUpConversionService;
+
     private QtiMaximaProcessPoolManager qtiMaximaProcessPoolManager;
 
     public MathAssessExtensionPackage(final XsltStylesheetCache xsltStylesheetCache) {
+        this(xsltStylesheetCache, new QtiMaximaProcessPoolSettings());
+    }
+
+    public MathAssessExtensionPackage(final XsltStylesheetCache xsltStylesheetCache,
+            final QtiMaximaProcessPoolSettings qtiMaximaProcessPoolSettings) {
+        this(xsltStylesheetCache, qtiMaximaProcessPoolSettings, null);
+    }
+
+    /**
+     * @param asciiMathUpConversionService service to use for up-converting ASCIIMath input,
+     *   which may be shared with other parts of an application. If null, a new one will be
+     *   created using the given {@link XsltStylesheetCache}.
+     */
+    public MathAssessExtensionPackage(final XsltStylesheetCache xsltStylesheetCache,
+            final QtiMaximaProcessPoolSettings qtiMaximaProcessPoolSettings,
+            final AsciiMathUpConversionService asciiMathUpConversionService) {
+        Assert.notNull(qtiMaximaProcessPoolSettings, "qtiMaximaProcessPoolSettings");
         this.xsltStylesheetCache = xsltStylesheetCache;
+        this.qtiMaximaProcessPoolSettings = qtiMaximaProcessPoolSettings;
         this.snuggleStylesheetCache = new XsltStylesheetCacheAdapter(xsltStylesheetCache);
+        this.casResultCache = new CasResultCache();
+        this.asciiMathUpConversionService = asciiMathUpConversionService!=null
+                ? asciiMathUpConversionService
+                : new AsciiMathUpConversionService(snuggleStylesheetCache);
 
         /* Build up namespace info */
         final ExtensionNamespaceInfo extensionNamespaceInfo = new ExtensionNamespaceInfo(MATHASSESS_NAMESPACE_URI, MATHASSESS_SCHEMA_LOCATION, MATHASSESS_DEFAULT_NAMESPACE_PREFIX);
@@ -122,6 +152,29 @@ public final class MathAssessExtensionPackage implements JqtiExtensionPackage<Ma
         return xsltStylesheetCache;
     }
 
+    public QtiMaximaProcessPoolSettings getQtiMaximaProcessPoolSettings() {
+        return qtiMaximaProcessPoolSettings;
+    }
+
+    /**
+     * Returns the cache of <tt>casCompare</tt> and <tt>casCondition</tt> results, which may be
+     * used to tune its size, exclude items from caching or read hit/miss counts.
+     */
+    public CasResultCache getCasResultCache() {
+        return casResultCache;
+    }
+
+    public AsciiMathUpConversionService getAsciiMathUpConversionService() {
+        return asciiMathUpConversionService;
+    }
+
+    /**
+     * Returns metrics for the pool of Maxima processes, or null if the pool is not running.
+     */
+    public QtiMaximaProcessPoolMetrics getQtiMaximaProcessPoolMetrics() {
+        return qtiMaximaProcessPoolManager!=null ? qtiMaximaProcessPoolManager.getMetrics() : null;
+    }
+
     @Override
     public String getDisplayName() {
         return DISPLAY_NAME;
@@ -210,6 +263,7 @@ public final class MathAssessExtensionPackage implements JqtiExtensionPackage<Ma
             qtiMaximaProcessPoolManager = new QtiMaximaProcessPoolManager();
             qtiMaximaProcessPoolManager.setMaximaConfiguration(maximaConfiguration);
             qtiMaximaProcessPoolManager.setStylesheetCache(snuggleStylesheetCache);
+            qtiMaximaProcessPoolManager.setPoolSettings(qtiMaximaProcessPoolSettings);
             qtiMaximaProcessPoolManager.init();
 
             logger.info("MathAssessExtensionPackage successfully initiated using {} to handle communication with Maxima for MathAssess extensions", QtiMaximaProcessPoolManager.class.getSimpleName());
@@ -270,6 +324,7 @@ public final class MathAssessExtensionPackage implements JqtiExtensionPackage<Ma
                 + ",stylesheetCache=" + xsltStylesheetCache
                 + ",sessionThreadLocal=" + sessionThreadLocal
                 + ",qtiMaximaProcessPoolManager=" + qtiMaximaProcessPoolManager
+                + ",casResultCache=" + casResultCache
                 + ")";
     }
 }
@@ -42,20 +42,27 @@ import uk.ac.ed.ph.qtiworks.mathassess.glue.types.ValueWrapper;
 import uk.ac.ed.ph.qtiworks.mathassess.value.SyntaxType;
 
 import uk.ac.ed.ph.jqtiplus.QtiConstants;
+import uk.ac.ed.ph.jqtiplus.node.QtiNode;
 import uk.ac.ed.ph.jqtiplus.node.expression.ExpressionParent;
 import uk.ac.ed.ph.jqtiplus.node.expression.operator.CustomOperator;
 import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
+import uk.ac.ed.ph.jqtiplus.node.item.response.processing.ResponseProcessing;
+import uk.ac.ed.ph.jqtiplus.node.item.template.processing.TemplateProcessing;
+import uk.ac.ed.ph.jqtiplus.node.test.outcome.processing.OutcomeProcessing;
 import uk.ac.ed.ph.jqtiplus.node.shared.VariableDeclaration;
 import uk.ac.ed.ph.jqtiplus.node.test.AssessmentTest;
 import uk.ac.ed.ph.jqtiplus.running.ItemProcessingContext;
 import uk.ac.ed.ph.jqtiplus.running.ProcessingContext;
 import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.utils.QueryUtils;
 import uk.ac.ed.ph.jqtiplus.validation.ValidationContext;
 import uk.ac.ed.ph.jqtiplus.value.NullValue;
 import uk.ac.ed.ph.jqtiplus.value.Value;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -74,6 +81,17 @@ public abstract class MathAssessOperator extends CustomOperator<MathAssessExtens
 
     private static String IDENTIFIER_REGEX_VALUE = "[a-zA-Z][a-zA-Z0-9]*";
 
+    /**
+     * Matches Maxima code that might give different results for the same inputs, or leave
+     * state behind that affects later CAS calls (e.g. assignments, assumptions, random numbers).
+     */
+    private static final Pattern STATEFUL_CAS_CODE_PATTERN = Pattern.compile(
+            ":|\\b(?:random|make_random_state|set_random_state|kill|load|batch|batchload|declare|"
+            + "assume|forget|define|remvalue|remfunction|remove|reset)\\b");
+
+    /** Caches the result of {@link #isProcessingSectionStateless()}, which is fixed once the tree is built */
+    private transient volatile Boolean processingSectionStateless;
+
     public MathAssessOperator(final ExpressionParent parent) {
         super(parent);
         getAttributes().add(new SyntaxAttribute(this, ATTR_SYNTAX_NAME, MATHASSESS_NAMESPACE_URI));
@@ -173,6 +191,55 @@ public abstract class MathAssessOperator extends CustomOperator<MathAssessExtens
         return declarations;
     }
 
+    /**
+     * Decides whether evaluating the given Maxima code within this operator will always give
+     * the same result for the same argument values, and may therefore be cached.
+     * <p>
+     * This is deliberately conservative: the code must not look like it touches Maxima state,
+     * and the enclosing template/response/outcome processing must not contain anything that
+     * could have left state behind in the Maxima session (i.e. a <tt>scriptRule</tt>,
+     * <tt>casProcess</tt> or stateful code in another operator).
+     */
+    public boolean isDeterministicCasEvaluation(final String code) {
+        if (code==null || STATEFUL_CAS_CODE_PATTERN.matcher(code).find()) {
+            return false;
+        }
+        Boolean result = processingSectionStateless;
+        if (result==null) {
+            result = Boolean.valueOf(isProcessingSectionStateless());
+            processingSectionStateless = result;
+        }
+        return result.booleanValue();
+    }
+
+    private boolean isProcessingSectionStateless() {
+        QtiNode section = this;
+        while (section.getParent()!=null
+                && !(section instanceof TemplateProcessing
+                        || section instanceof ResponseProcessing
+                        || section instanceof OutcomeProcessing)) {
+            section = section.getParent();
+        }
+        for (final MathAssessOperator operator : QueryUtils.search(MathAssessOperator.class, Collections.singletonList(section))) {
+            if (operator instanceof ScriptRule || operator instanceof CasProcess) {
+                return false;
+            }
+            final String operatorCode = operator.getCasCode();
+            if (operatorCode!=null && STATEFUL_CAS_CODE_PATTERN.matcher(operatorCode).find()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the Maxima code explicitly specified within this operator, if any. Used only
+     * when deciding whether results may be cached.
+     */
+    protected String getCasCode() {
+        return null;
+    }
+
     protected void passVariablesToMaxima(final QtiMaximaProcess qtiMaximaProcess, final ItemProcessingContext context) {
         /* Pass variables to Maxima */
         logger.trace("Passing variables to maxima");
@@ -39,8 +39,8 @@ import static uk.ac.ed.ph.qtiworks.mathassess.MathAssessConstants.ATTR_SYNTAX_NA
 import static uk.ac.ed.ph.qtiworks.mathassess.MathAssessConstants.MATHASSESS_NAMESPACE_URI;
 
 import uk.ac.ed.ph.qtiworks.mathassess.attribute.SyntaxAttribute;
-import uk.ac.ed.ph.qtiworks.mathassess.glue.AsciiMathHelper;
 import uk.ac.ed.ph.qtiworks.mathassess.glue.AsciiMathInputException;
+import uk.ac.ed.ph.qtiworks.mathassess.glue.AsciiMathUpConversionService;
 import uk.ac.ed.ph.qtiworks.mathassess.glue.types.MathsContentInputValueWrapper;
 import uk.ac.ed.ph.qtiworks.mathassess.value.SyntaxType;
 
@@ -182,10 +182,10 @@ public final class MathEntryInteraction extends CustomInteraction<MathAssessExte
         if (asciiMathInput.length() != 0) {
             /* Convert the ASCIIMath input to the appropriate Math Context
              * variable */
-            final AsciiMathHelper helper = new AsciiMathHelper(mathAssessExtensionPackage.getStylesheetCache());
+            final AsciiMathUpConversionService upConversionService = mathAssessExtensionPackage.getAsciiMathUpConversionService();
             final MathsContentInputValueWrapper resultWrapper;
             try {
-                resultWrapper = helper.createMathsContentFromAsciiMath(asciiMathInput);
+                resultWrapper = upConversionService.createMathsContentFromAsciiMath(asciiMathInput);
             }
             catch (final AsciiMathInputException e) {
                 logger.debug("ASCIIMath input '{}' unexpectedly failed bind to a Maths Content variable", asciiMathInput);
@@ -37,19 +37,24 @@ import uk.ac.ed.ph.qtiworks.mathassess.glue.maxima.QtiMaximaProcess;
 
 import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
 
-import uk.ac.ed.ph.jacomax.MaximaConfiguration;
 import uk.ac.ed.ph.jacomax.MaximaInteractiveProcess;
-import uk.ac.ed.ph.jacomax.MaximaProcessLauncher;
 import uk.ac.ed.ph.snuggletex.utilities.StylesheetCache;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.apache.commons.pool2.PooledObject;
 import org.apache.commons.pool2.PooledObjectFactory;
+import org.apache.commons.pool2.PooledObjectState;
 import org.apache.commons.pool2.impl.DefaultPooledObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Implementation of {@link PooledObjectFactory} catering {@link QtiMaximaProcess}s.
+ * <p>
+ * Processes are reset by the {@link QtiMaximaProcessPoolManager} before being returned to the
+ * pool, so this doesn't happen during passivation. Idle processes are checked by sending them
+ * a trivial command, so that dead or unresponsive processes get replaced.
  *
  * @author David McKain
  */
@@ -57,10 +62,22 @@ final class PooledQtiMaximaProcessFactory implements PooledObjectFactory<QtiMaxi
 
     private static final Logger logger = LoggerFactory.getLogger(PooledQtiMaximaProcessFactory.class);
 
+    /** Trivial Maxima input used to check that idle processes are still responding */
+    private static final String HEALTH_CHECK_INPUT = "0$";
+
     private StylesheetCache stylesheetCache;
-    private MaximaConfiguration maximaConfiguration;
+    private MaximaInteractiveProcessLauncher processLauncher;
+    private int healthCheckTimeout;
 
-    private MaximaProcessLauncher maximaProcessLauncher;
+    private final AtomicLong launchedCount;
+    private final AtomicLong totalLaunchMillis;
+    private final AtomicLong maxLaunchMillis;
+
+    public PooledQtiMaximaProcessFactory() {
+        this.launchedCount = new AtomicLong();
+        this.totalLaunchMillis = new AtomicLong();
+        this.maxLaunchMillis = new AtomicLong();
+    }
 
     public StylesheetCache getStylesheetCache() {
         return stylesheetCache;
@@ -71,31 +88,72 @@ final class PooledQtiMaximaProcessFactory implements PooledObjectFactory<QtiMaxi
     }
 
 
-    public MaximaConfiguration getMaximaConfiguration() {
-        return maximaConfiguration;
+    public MaximaInteractiveProcessLauncher getProcessLauncher() {
+        return processLauncher;
     }
 
-    public void setMaximaConfiguration(final MaximaConfiguration maximaConfiguration) {
-        this.maximaConfiguration = maximaConfiguration;
+    public void setProcessLauncher(final MaximaInteractiveProcessLauncher processLauncher) {
+        this.processLauncher = processLauncher;
+    }
+
+
+    public int getHealthCheckTimeout() {
+        return healthCheckTimeout;
+    }
+
+    public void setHealthCheckTimeout(final int healthCheckTimeout) {
+        this.healthCheckTimeout = healthCheckTimeout;
     }
 
     //---------------------------------------------------------
 
     public void init() {
-        Assert.notNull(maximaConfiguration, "maximaConfiguration");
+        Assert.notNull(processLauncher, "processLauncher");
         Assert.notNull(stylesheetCache, "stylesheetCache");
-        maximaProcessLauncher = new MaximaProcessLauncher(maximaConfiguration);
     }
 
+    public long getLaunchedCount() {
+        return launchedCount.get();
+    }
+
+    public long getMeanLaunchMillis() {
+        final long count = launchedCount.get();
+        return count > 0 ? totalLaunchMillis.get() / count : 0L;
+    }
+
+    public long getMaxLaunchMillis() {
+        return maxLaunchMillis.get();
+    }
+
+    //---------------------------------------------------------
+
     @Override
     public PooledObject<QtiMaximaProcess> makeObject() {
         logger.debug("Creating new pooled Maxima process");
-        final MaximaInteractiveProcess maximaInteractiveProcess = maximaProcessLauncher.launchInteractiveProcess();
+        final long startTime = System.currentTimeMillis();
+        final MaximaInteractiveProcess maximaInteractiveProcess = processLauncher.launchInteractiveProcess();
         final QtiMaximaProcess process = new QtiMaximaProcess(maximaInteractiveProcess, stylesheetCache);
-        process.init();
+        try {
+            process.init();
+        }
+        catch (final RuntimeException e) {
+            process.terminate();
+            throw e;
+        }
+        recordLaunchTime(System.currentTimeMillis() - startTime);
         return new DefaultPooledObject<QtiMaximaProcess>(process);
     }
 
+    private void recordLaunchTime(final long launchMillis) {
+        logger.debug("Maxima process launched and initialised in {}ms", launchMillis);
+        launchedCount.incrementAndGet();
+        totalLaunchMillis.addAndGet(launchMillis);
+        long currentMax;
+        do {
+            currentMax = maxLaunchMillis.get();
+        } while (launchMillis > currentMax && !maxLaunchMillis.compareAndSet(currentMax, launchMillis));
+    }
+
     @Override
     public void activateObject(final PooledObject<QtiMaximaProcess> obj) {
         logger.debug("Activating Maxima process and setting new random state");
@@ -105,24 +163,30 @@ final class PooledQtiMaximaProcessFactory implements PooledObjectFactory<QtiMaxi
 
     @Override
     public void passivateObject(final PooledObject<QtiMaximaProcess> obj) {
-        logger.debug("Resetting Maxima process and passivating");
+        logger.debug("Passivating Maxima process");
         final QtiMaximaProcess process = obj.getObject();
         if (process.isTerminated()) {
             throw new IllegalStateException("Expected pool to verify Objects before passivation");
         }
-        try {
-            process.reset();
-        }
-        catch (final Exception e) {
-            logger.warn("Could not reset process - terminating so that it is no longer considered valid");
-            process.terminate();
-        }
     }
 
     @Override
     public boolean validateObject(final PooledObject<QtiMaximaProcess> obj) {
         final QtiMaximaProcess process = obj.getObject();
-        return !process.isTerminated();
+        if (process.isTerminated()) {
+            return false;
+        }
+        if (obj.getState()==PooledObjectState.EVICTION) {
+            /* Idle process is being checked by the evictor, so make sure it's still responding */
+            try {
+                process.getMaximaInteractiveProcess().executeCallDiscardOutput(HEALTH_CHECK_INPUT, healthCheckTimeout);
+            }
+            catch (final Exception e) {
+                logger.warn("Idle Maxima process failed health check - it will be replaced", e);
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
@@ -40,9 +40,20 @@ import uk.ac.ed.ph.qtiworks.mathassess.glue.maxima.QtiMaximaProcessManager;
 import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
 
 import uk.ac.ed.ph.jacomax.MaximaConfiguration;
+import uk.ac.ed.ph.jacomax.MaximaInteractiveProcess;
+import uk.ac.ed.ph.jacomax.MaximaProcessLauncher;
 import uk.ac.ed.ph.snuggletex.utilities.StylesheetCache;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,6 +61,14 @@ import org.slf4j.LoggerFactory;
  * Implementation of {@link QtiMaximaProcessManager} that pools running Maxima processes
  * for increased performance.
  * <p>
+ * The pool is sized using {@link QtiMaximaProcessPoolSettings}. The minimum number of idle
+ * processes are launched in the background during {@link #init()}, so that the first requests
+ * after startup don't have to wait for Maxima to start. A background evictor checks idle
+ * processes, replacing any that have died or stopped responding.
+ * <p>
+ * Processes handed back via {@link #returnProcess(QtiMaximaProcess)} are reset in the
+ * background before going back into the pool, so the caller doesn't have to wait for this.
+ * <p>
  * (This is implemented as a POJO with {@link #init()} and {@link #shutdown()} lifecycle methods.)
  *
  * @author David McKain
@@ -58,10 +77,24 @@ public final class QtiMaximaProcessPoolManager implements QtiMaximaProcessManage
 
     private static final Logger logger = LoggerFactory.getLogger(QtiMaximaProcessPoolManager.class);
 
+    /** Maximum time to wait for pending resets to complete during {@link #shutdown()} (s) */
+    private static final int SHUTDOWN_TIMEOUT = 30;
+
     private StylesheetCache stylesheetCache;
     private MaximaConfiguration maximaConfiguration;
+    private MaximaInteractiveProcessLauncher processLauncher;
+    private QtiMaximaProcessPoolSettings poolSettings;
 
+    private PooledQtiMaximaProcessFactory qtiMaximaProcessFactory;
     private GenericObjectPool<QtiMaximaProcess> qtiMaximaProcessPool;
+    private ExecutorService maintenanceExecutor;
+    private final AtomicLong resetCount;
+    private final AtomicLong failedResetCount;
+
+    public QtiMaximaProcessPoolManager() {
+        this.resetCount = new AtomicLong();
+        this.failedResetCount = new AtomicLong();
+    }
 
     public StylesheetCache getStylesheetCache() {
         return stylesheetCache;
@@ -80,24 +113,110 @@ public final class QtiMaximaProcessPoolManager implements QtiMaximaProcessManage
         this.maximaConfiguration = maximaConfiguration;
     }
 
+
+    /**
+     * Returns the {@link MaximaInteractiveProcessLauncher} used to launch Maxima processes.
+     * If not set before {@link #init()}, this will be created using the {@link #getMaximaConfiguration()}.
+     */
+    public MaximaInteractiveProcessLauncher getProcessLauncher() {
+        return processLauncher;
+    }
+
+    public void setProcessLauncher(final MaximaInteractiveProcessLauncher processLauncher) {
+        this.processLauncher = processLauncher;
+    }
+
+
+    /**
+     * Returns the {@link QtiMaximaProcessPoolSettings} for this pool. If not set before {@link #init()},
+     * default settings will be used.
+     */
+    public QtiMaximaProcessPoolSettings getPoolSettings() {
+        return poolSettings;
+    }
+
+    public void setPoolSettings(final QtiMaximaProcessPoolSettings poolSettings) {
+        this.poolSettings = poolSettings;
+    }
+
     //---------------------------------------------------------
 
     public void init() {
-        Assert.notNull(maximaConfiguration, "maximaConfiguration");
         Assert.notNull(stylesheetCache, "stylesheetCache");
-        final PooledQtiMaximaProcessFactory factory = new PooledQtiMaximaProcessFactory();
-        factory.setMaximaConfiguration(maximaConfiguration);
-        factory.setStylesheetCache(stylesheetCache);
-        factory.init();
+        if (processLauncher==null) {
+            Assert.notNull(maximaConfiguration, "maximaConfiguration");
+            final MaximaProcessLauncher maximaProcessLauncher = new MaximaProcessLauncher(maximaConfiguration);
+            processLauncher = new MaximaInteractiveProcessLauncher() {
+                @Override
+                public MaximaInteractiveProcess launchInteractiveProcess() {
+                    return maximaProcessLauncher.launchInteractiveProcess();
+                }
+            };
+        }
+        if (poolSettings==null) {
+            poolSettings = new QtiMaximaProcessPoolSettings();
+        }
+
+        qtiMaximaProcessFactory = new PooledQtiMaximaProcessFactory();
+        qtiMaximaProcessFactory.setProcessLauncher(processLauncher);
+        qtiMaximaProcessFactory.setStylesheetCache(stylesheetCache);
+        qtiMaximaProcessFactory.setHealthCheckTimeout(poolSettings.getHealthCheckTimeout());
+        qtiMaximaProcessFactory.init();
 
-        logger.info("Creating QtiMaximaProcess Object pool");
-        qtiMaximaProcessPool = new GenericObjectPool<QtiMaximaProcess>(factory);
-        qtiMaximaProcessPool.setTestOnBorrow(true);
-        qtiMaximaProcessPool.setTestOnReturn(true);
+        logger.info("Creating QtiMaximaProcess Object pool using {}", poolSettings);
+        final GenericObjectPoolConfig poolConfig = new GenericObjectPoolConfig();
+        poolConfig.setMinIdle(poolSettings.getMinIdle());
+        poolConfig.setMaxIdle(poolSettings.getMaxTotal());
+        poolConfig.setMaxTotal(poolSettings.getMaxTotal());
+        poolConfig.setMaxWaitMillis(poolSettings.getMaxWaitMillis());
+        poolConfig.setBlockWhenExhausted(true);
+        poolConfig.setTestOnBorrow(true);
+        poolConfig.setTestOnReturn(true);
+        poolConfig.setTestWhileIdle(true);
+        poolConfig.setTimeBetweenEvictionRunsMillis(poolSettings.getEvictionIntervalMillis());
+        poolConfig.setNumTestsPerEvictionRun(poolSettings.getMaxTotal());
+        poolConfig.setMinEvictableIdleTimeMillis(-1L); /* (Only evict processes above minIdle...) */
+        poolConfig.setSoftMinEvictableIdleTimeMillis(poolSettings.getIdleTimeoutMillis()); /* (...using this) */
+        qtiMaximaProcessPool = new GenericObjectPool<QtiMaximaProcess>(qtiMaximaProcessFactory, poolConfig);
+
+        maintenanceExecutor = Executors.newFixedThreadPool(Math.max(1, poolSettings.getResetThreadCount()),
+                new MaintenanceThreadFactory());
+
+        /* Launch initial processes in the background */
+        if (poolSettings.getMinIdle() > 0) {
+            maintenanceExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    prelaunchProcesses();
+                }
+            });
+        }
+    }
+
+    private void prelaunchProcesses() {
+        final long startTime = System.currentTimeMillis();
+        try {
+            qtiMaximaProcessPool.preparePool();
+            logger.info("Launched {} Maxima process(es) for QtiMaximaProcess pool in {}ms",
+                    qtiMaximaProcessPool.getNumIdle(), System.currentTimeMillis() - startTime);
+        }
+        catch (final Exception e) {
+            logger.warn("Failed to launch initial Maxima processes for QtiMaximaProcess pool. "
+                    + "These will be launched on demand instead", e);
+        }
     }
 
     public void shutdown() {
         logger.info("Closing QtiMaximaProcess Object pool");
+        maintenanceExecutor.shutdown();
+        try {
+            if (!maintenanceExecutor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+                logger.warn("Timed out waiting for pending Maxima process resets to finish");
+            }
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         try {
             qtiMaximaProcessPool.close();
         }
@@ -106,6 +225,24 @@ public final class QtiMaximaProcessPoolManager implements QtiMaximaProcessManage
         }
     }
 
+    /**
+     * Returns a snapshot of the current state and performance of this pool.
+     */
+    public QtiMaximaProcessPoolMetrics getMetrics() {
+        return new QtiMaximaProcessPoolMetrics(qtiMaximaProcessPool.getNumActive(),
+                qtiMaximaProcessPool.getNumIdle(),
+                qtiMaximaProcessPool.getNumWaiters(),
+                qtiMaximaProcessPool.getBorrowedCount(),
+                qtiMaximaProcessPool.getMeanBorrowWaitTimeMillis(),
+                qtiMaximaProcessPool.getMaxBorrowWaitTimeMillis(),
+                qtiMaximaProcessFactory.getLaunchedCount(),
+                qtiMaximaProcessFactory.getMeanLaunchMillis(),
+                qtiMaximaProcessFactory.getMaxLaunchMillis(),
+                qtiMaximaProcessPool.getDestroyedCount(),
+                resetCount.get(),
+                failedResetCount.get());
+    }
+
     //---------------------------------------------------------
 
     @Override
@@ -118,13 +255,70 @@ public final class QtiMaximaProcessPoolManager implements QtiMaximaProcessManage
         }
     }
 
+    /**
+     * Hands the given process back to this pool. The process is reset in the background before
+     * being made available again, so this returns immediately.
+     */
     @Override
     public void returnProcess(final QtiMaximaProcess process) {
         try {
-            qtiMaximaProcessPool.returnObject(process);
+            maintenanceExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    resetAndReturnProcess(process);
+                }
+            });
+        }
+        catch (final RejectedExecutionException e) {
+            /* Pool is being shut down, so do this now */
+            resetAndReturnProcess(process);
+        }
+    }
+
+    private void resetAndReturnProcess(final QtiMaximaProcess process) {
+        if (!process.isTerminated()) {
+            try {
+                process.reset();
+            }
+            catch (final Exception e) {
+                logger.warn("Could not reset Maxima process - terminating so that it is no longer considered valid");
+                failedResetCount.incrementAndGet();
+                process.terminate();
+            }
+        }
+        try {
+            if (process.isTerminated()) {
+                qtiMaximaProcessPool.invalidateObject(process);
+            }
+            else {
+                resetCount.incrementAndGet();
+                qtiMaximaProcessPool.returnObject(process);
+            }
         }
         catch (final Exception e) {
-            throw new MathAssessCasException("Could not return QtiMaximaProcess to pool", e);
+            logger.warn("Could not return QtiMaximaProcess to pool", e);
+        }
+    }
+
+    //---------------------------------------------------------
+
+    /** Creates named daemon Threads for resetting and launching processes */
+    private static final class MaintenanceThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "maxima-pool-maintenance-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
         }
     }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                + "(poolSettings=" + poolSettings
+                + ")";
+    }
 }
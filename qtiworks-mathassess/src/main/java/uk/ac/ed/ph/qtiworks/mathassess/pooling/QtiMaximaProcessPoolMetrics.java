@@ -0,0 +1,154 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.mathassess.pooling;
+
+import java.io.Serializable;
+
+/**
+ * Immutable snapshot of the state and performance of the {@link QtiMaximaProcessPoolManager}.
+ *
+ * @see QtiMaximaProcessPoolManager#getMetrics()
+ *
+ * @author David McKain
+ */
+public final class QtiMaximaProcessPoolMetrics implements Serializable {
+
+    private static final long serialVersionUID = -3155702785516394307L;
+
+    private final int numActive;
+    private final int numIdle;
+    private final int numWaiters;
+    private final long borrowedCount;
+    private final long meanBorrowWaitMillis;
+    private final long maxBorrowWaitMillis;
+    private final long launchedCount;
+    private final long meanLaunchMillis;
+    private final long maxLaunchMillis;
+    private final long destroyedCount;
+    private final long resetCount;
+    private final long failedResetCount;
+
+    public QtiMaximaProcessPoolMetrics(final int numActive, final int numIdle, final int numWaiters,
+            final long borrowedCount, final long meanBorrowWaitMillis, final long maxBorrowWaitMillis,
+            final long launchedCount, final long meanLaunchMillis, final long maxLaunchMillis,
+            final long destroyedCount, final long resetCount, final long failedResetCount) {
+        this.numActive = numActive;
+        this.numIdle = numIdle;
+        this.numWaiters = numWaiters;
+        this.borrowedCount = borrowedCount;
+        this.meanBorrowWaitMillis = meanBorrowWaitMillis;
+        this.maxBorrowWaitMillis = maxBorrowWaitMillis;
+        this.launchedCount = launchedCount;
+        this.meanLaunchMillis = meanLaunchMillis;
+        this.maxLaunchMillis = maxLaunchMillis;
+        this.destroyedCount = destroyedCount;
+        this.resetCount = resetCount;
+        this.failedResetCount = failedResetCount;
+    }
+
+    /** Number of processes currently in use or being reset */
+    public int getNumActive() {
+        return numActive;
+    }
+
+    /** Number of processes currently idle and ready to be used */
+    public int getNumIdle() {
+        return numIdle;
+    }
+
+    /** Number of Threads currently waiting for a process */
+    public int getNumWaiters() {
+        return numWaiters;
+    }
+
+    public long getBorrowedCount() {
+        return borrowedCount;
+    }
+
+    /** Mean time spent waiting for a process, over recent borrows */
+    public long getMeanBorrowWaitMillis() {
+        return meanBorrowWaitMillis;
+    }
+
+    public long getMaxBorrowWaitMillis() {
+        return maxBorrowWaitMillis;
+    }
+
+    /** Number of Maxima processes successfully launched */
+    public long getLaunchedCount() {
+        return launchedCount;
+    }
+
+    /** Mean time taken to launch and initialise a Maxima process */
+    public long getMeanLaunchMillis() {
+        return meanLaunchMillis;
+    }
+
+    public long getMaxLaunchMillis() {
+        return maxLaunchMillis;
+    }
+
+    /** Number of processes terminated, either because they failed or were no longer needed */
+    public long getDestroyedCount() {
+        return destroyedCount;
+    }
+
+    public long getResetCount() {
+        return resetCount;
+    }
+
+    public long getFailedResetCount() {
+        return failedResetCount;
+    }
+
+    //---------------------------------------------------------
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                + "(numActive=" + numActive
+                + ",numIdle=" + numIdle
+                + ",numWaiters=" + numWaiters
+                + ",borrowedCount=" + borrowedCount
+                + ",meanBorrowWaitMillis=" + meanBorrowWaitMillis
+                + ",maxBorrowWaitMillis=" + maxBorrowWaitMillis
+                + ",launchedCount=" + launchedCount
+                + ",meanLaunchMillis=" + meanLaunchMillis
+                + ",maxLaunchMillis=" + maxLaunchMillis
+                + ",destroyedCount=" + destroyedCount
+                + ",resetCount=" + resetCount
+                + ",failedResetCount=" + failedResetCount
+                + ")";
+    }
+}
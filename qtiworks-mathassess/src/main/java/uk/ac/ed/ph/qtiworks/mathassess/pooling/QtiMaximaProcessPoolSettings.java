@@ -0,0 +1,145 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.mathassess.pooling;
+
+import java.io.Serializable;
+
+/**
+ * Sizing and maintenance settings for the {@link QtiMaximaProcessPoolManager}.
+ * The defaults should be reasonable for a small installation.
+ *
+ * @author David McKain
+ */
+public final class QtiMaximaProcessPoolSettings implements Serializable {
+
+    private static final long serialVersionUID = 2787391834316296407L;
+
+    /** Number of idle processes the pool tries to keep ready, including at startup */
+    private int minIdle = 1;
+
+    /** Maximum number of processes (in use, idle or being reset) */
+    private int maxTotal = 8;
+
+    /** Maximum time to wait for a process when the pool is exhausted (ms). Negative means wait forever */
+    private long maxWaitMillis = 30000L;
+
+    /** Time between runs of the background evictor (ms) */
+    private long evictionIntervalMillis = 60000L;
+
+    /** Time after which idle processes over and above minIdle are terminated (ms) */
+    private long idleTimeoutMillis = 30L * 60 * 1000;
+
+    /** Time allowed for idle processes to respond to a health check before being replaced (s) */
+    private int healthCheckTimeout = 5;
+
+    /** Number of background threads used for resetting returned processes */
+    private int resetThreadCount = 1;
+
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    public void setMinIdle(final int minIdle) {
+        this.minIdle = minIdle;
+    }
+
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    public void setMaxTotal(final int maxTotal) {
+        this.maxTotal = maxTotal;
+    }
+
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    public void setMaxWaitMillis(final long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+
+    public long getEvictionIntervalMillis() {
+        return evictionIntervalMillis;
+    }
+
+    public void setEvictionIntervalMillis(final long evictionIntervalMillis) {
+        this.evictionIntervalMillis = evictionIntervalMillis;
+    }
+
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public void setIdleTimeoutMillis(final long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+
+    public int getHealthCheckTimeout() {
+        return healthCheckTimeout;
+    }
+
+    public void setHealthCheckTimeout(final int healthCheckTimeout) {
+        this.healthCheckTimeout = healthCheckTimeout;
+    }
+
+
+    public int getResetThreadCount() {
+        return resetThreadCount;
+    }
+
+    public void setResetThreadCount(final int resetThreadCount) {
+        this.resetThreadCount = resetThreadCount;
+    }
+
+    //---------------------------------------------------------
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                + "(minIdle=" + minIdle
+                + ",maxTotal=" + maxTotal
+                + ",maxWaitMillis=" + maxWaitMillis
+                + ",evictionIntervalMillis=" + evictionIntervalMillis
+                + ",idleTimeoutMillis=" + idleTimeoutMillis
+                + ",healthCheckTimeout=" + healthCheckTimeout
+                + ",resetThreadCount=" + resetThreadCount
+                + ")";
+    }
+}
@@ -0,0 +1,171 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.mathassess;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import uk.ac.ed.ph.qtiworks.mathassess.glue.types.IntegerValueWrapper;
+
+import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
+import uk.ac.ed.ph.jqtiplus.node.item.response.processing.ResponseProcessing;
+import uk.ac.ed.ph.jqtiplus.node.item.response.processing.SetOutcomeValue;
+
+import java.net.URI;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link CasResultCache}
+ *
+ * @author David McKain
+ */
+public class CasResultCacheTest {
+
+    private static final URI ITEM_SYSTEM_ID = URI.create("file:/item.xml");
+
+    private AssessmentItem item;
+    private ResponseProcessing responseProcessing;
+    private CasResultCache cache;
+
+    @Before
+    public void setup() {
+        item = new AssessmentItem();
+        item.setSystemId(ITEM_SYSTEM_ID);
+        responseProcessing = new ResponseProcessing(item);
+        item.setResponseProcessing(responseProcessing);
+        cache = new CasResultCache();
+    }
+
+    @Test
+    public void testHitAndMiss() {
+        final CasCondition casCondition = addCasCondition("is($1 > $2)");
+        final String key = cache.createKey(casCondition, casCondition.getCode(), false,
+                new IntegerValueWrapper(2), new IntegerValueWrapper(1));
+        assertNotNull(key);
+        assertNull(cache.get(key));
+        cache.put(key, true);
+        assertEquals(Boolean.TRUE, cache.get(key));
+        assertEquals(1L, cache.getHitCount());
+        assertEquals(1L, cache.getMissCount());
+        assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    public void testKeyNormalisation() {
+        final CasCondition casCondition = addCasCondition("is($1 > $2)");
+        final String key = cache.createKey(casCondition, "is($1 > $2)", false, new IntegerValueWrapper(1));
+        assertEquals(key, cache.createKey(casCondition, "is($1  >\n $2)", false, new IntegerValueWrapper(1)));
+        assertFalse(key.equals(cache.createKey(casCondition, "is($1 > $2)", true, new IntegerValueWrapper(1))));
+        assertFalse(key.equals(cache.createKey(casCondition, "is($1 > $2)", false, new IntegerValueWrapper(2))));
+    }
+
+    @Test
+    public void testNormaliseCodeKeepsStrings() {
+        assertEquals("f(\"a  b\", x)", CasResultCache.normaliseCode("  f(\"a  b\",   x) "));
+        assertEquals("f(\"a\\\"  b\")", CasResultCache.normaliseCode("f(\"a\\\"  b\")"));
+    }
+
+    @Test
+    public void testStatefulCodeNotCached() {
+        final CasCondition casCondition = addCasCondition("block(x:1, is(x=$1))");
+        assertNull(cache.createKey(casCondition, casCondition.getCode(), false, new IntegerValueWrapper(1)));
+        assertNull(cache.createKey(casCondition, "is(random(2)=$1)", false, new IntegerValueWrapper(1)));
+        assertEquals(2L, cache.getBypassCount());
+    }
+
+    @Test
+    public void testScriptRuleInSectionPreventsCaching() {
+        final CasCondition casCondition = addCasCondition("is($1 > 0)");
+        final SetOutcomeValue setOutcomeValue = new SetOutcomeValue(responseProcessing);
+        setOutcomeValue.setExpression(new ScriptRule(setOutcomeValue));
+        responseProcessing.getResponseRules().add(setOutcomeValue);
+        assertNull(cache.createKey(casCondition, casCondition.getCode(), false, new IntegerValueWrapper(1)));
+    }
+
+    @Test
+    public void testStatefulCodeElsewhereInSectionPreventsCaching() {
+        final CasCondition casCondition = addCasCondition("is($1 > 0)");
+        addCasCondition("is(assume(x>0)=$1)");
+        assertNull(cache.createKey(casCondition, casCondition.getCode(), false, new IntegerValueWrapper(1)));
+    }
+
+    @Test
+    public void testItemExclusion() {
+        final CasCondition casCondition = addCasCondition("is($1 > 0)");
+        cache.setItemExcluded(ITEM_SYSTEM_ID, true);
+        assertTrue(cache.isItemExcluded(ITEM_SYSTEM_ID));
+        assertNull(cache.createKey(casCondition, casCondition.getCode(), false, new IntegerValueWrapper(1)));
+        cache.setItemExcluded(ITEM_SYSTEM_ID, false);
+        assertNotNull(cache.createKey(casCondition, casCondition.getCode(), false, new IntegerValueWrapper(1)));
+    }
+
+    @Test
+    public void testBounded() {
+        cache.setMaxSize(2);
+        cache.put("a", true);
+        cache.put("b", false);
+        assertEquals(Boolean.TRUE, cache.get("a"));
+        cache.put("c", true);
+        assertEquals(2, cache.getSize());
+        assertNull("Least recently used entry should have been evicted", cache.get("b"));
+        assertEquals(Boolean.TRUE, cache.get("a"));
+        assertEquals(Boolean.TRUE, cache.get("c"));
+    }
+
+    @Test
+    public void testDisabled() {
+        final CasCondition casCondition = addCasCondition("is($1 > 0)");
+        cache.put("a", true);
+        cache.setMaxSize(0);
+        assertFalse(cache.isEnabled());
+        assertEquals(0, cache.getSize());
+        assertNull(cache.createKey(casCondition, casCondition.getCode(), false, new IntegerValueWrapper(1)));
+        cache.put("a", true);
+        assertEquals(0, cache.getSize());
+    }
+
+    private CasCondition addCasCondition(final String code) {
+        final SetOutcomeValue setOutcomeValue = new SetOutcomeValue(responseProcessing);
+        final CasCondition casCondition = new CasCondition(setOutcomeValue);
+        casCondition.setCode(code);
+        setOutcomeValue.setExpression(casCondition);
+        responseProcessing.getResponseRules().add(setOutcomeValue);
+        return casCondition;
+    }
+}
@@ -0,0 +1,317 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.mathassess.pooling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import uk.ac.ed.ph.qtiworks.mathassess.glue.MathAssessCasException;
+import uk.ac.ed.ph.qtiworks.mathassess.glue.maxima.QtiMaximaProcess;
+
+import uk.ac.ed.ph.jacomax.MaximaInteractiveProcess;
+import uk.ac.ed.ph.jacomax.MaximaTimeoutException;
+import uk.ac.ed.ph.snuggletex.utilities.SimpleStylesheetCache;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link QtiMaximaProcessPoolManager}, using a fake stand-in for Maxima so that
+ * this doesn't require Maxima to be installed.
+ *
+ * @author David McKain
+ */
+public class QtiMaximaProcessPoolManagerTest {
+
+    /** Maximum time to wait for the pool's background work to happen (ms) */
+    private static final long WAIT_TIMEOUT = 5000L;
+
+    private FakeProcessLauncher processLauncher;
+    private QtiMaximaProcessPoolSettings poolSettings;
+    private QtiMaximaProcessPoolManager poolManager;
+
+    @Before
+    public void setup() {
+        processLauncher = new FakeProcessLauncher();
+        poolSettings = new QtiMaximaProcessPoolSettings();
+        poolManager = null;
+    }
+
+    @After
+    public void teardown() {
+        if (poolManager!=null) {
+            poolManager.shutdown();
+        }
+    }
+
+    @Test
+    public void testPrelaunch() throws Exception {
+        poolSettings.setMinIdle(2);
+        startPool();
+
+        waitForIdle(2);
+        final QtiMaximaProcessPoolMetrics metrics = poolManager.getMetrics();
+        assertEquals(2, metrics.getLaunchedCount());
+        assertEquals(0, metrics.getBorrowedCount());
+        for (final FakeMaximaInteractiveProcess process : processLauncher.launchedProcesses) {
+            assertEquals("load(mathml)$", process.calls.get(0));
+        }
+    }
+
+    @Test
+    public void testAsynchronousReset() throws Exception {
+        poolSettings.setMinIdle(0);
+        startPool();
+
+        final QtiMaximaProcess process = poolManager.obtainProcess();
+        final FakeMaximaInteractiveProcess fakeProcess = (FakeMaximaInteractiveProcess) process.getMaximaInteractiveProcess();
+        fakeProcess.resetLatch = new CountDownLatch(1);
+
+        /* Returning should not wait for the reset */
+        poolManager.returnProcess(process);
+        assertEquals(0, fakeProcess.resetCount);
+        assertEquals(1, poolManager.getMetrics().getNumActive());
+
+        fakeProcess.resetLatch.countDown();
+        waitForIdle(1);
+        assertEquals(1, fakeProcess.resetCount);
+        assertEquals(1, poolManager.getMetrics().getResetCount());
+        assertEquals(0, poolManager.getMetrics().getNumActive());
+    }
+
+    @Test
+    public void testFailedResetDestroysProcess() throws Exception {
+        poolSettings.setMinIdle(0);
+        startPool();
+
+        final QtiMaximaProcess process = poolManager.obtainProcess();
+        final FakeMaximaInteractiveProcess fakeProcess = (FakeMaximaInteractiveProcess) process.getMaximaInteractiveProcess();
+        fakeProcess.failReset = true;
+        poolManager.returnProcess(process);
+
+        waitFor(new Condition() {
+            @Override
+            public boolean isTrue() {
+                return poolManager.getMetrics().getDestroyedCount()==1;
+            }
+        });
+        assertTrue(fakeProcess.isTerminated());
+        assertEquals(1, poolManager.getMetrics().getFailedResetCount());
+        assertEquals(0, poolManager.getMetrics().getNumIdle());
+    }
+
+    @Test
+    public void testDeadIdleProcessReplaced() throws Exception {
+        poolSettings.setMinIdle(1);
+        poolSettings.setEvictionIntervalMillis(50L);
+        startPool();
+
+        waitForIdle(1);
+        processLauncher.launchedProcesses.get(0).terminate();
+        waitFor(new Condition() {
+            @Override
+            public boolean isTrue() {
+                return processLauncher.launchedProcesses.size()==2 && poolManager.getMetrics().getNumIdle()==1;
+            }
+        });
+        assertEquals(1, poolManager.getMetrics().getDestroyedCount());
+        assertFalse(processLauncher.launchedProcesses.get(1).isTerminated());
+    }
+
+    @Test
+    public void testUnresponsiveIdleProcessReplaced() throws Exception {
+        poolSettings.setMinIdle(1);
+        poolSettings.setEvictionIntervalMillis(50L);
+        startPool();
+
+        waitForIdle(1);
+        final FakeMaximaInteractiveProcess unresponsiveProcess = processLauncher.launchedProcesses.get(0);
+        unresponsiveProcess.unresponsive = true;
+        waitFor(new Condition() {
+            @Override
+            public boolean isTrue() {
+                return processLauncher.launchedProcesses.size()==2 && poolManager.getMetrics().getNumIdle()==1;
+            }
+        });
+        assertTrue(unresponsiveProcess.isTerminated());
+    }
+
+    @Test
+    public void testExhaustedPoolTimesOut() throws Exception {
+        poolSettings.setMinIdle(0);
+        poolSettings.setMaxTotal(1);
+        poolSettings.setMaxWaitMillis(100L);
+        startPool();
+
+        poolManager.obtainProcess();
+        try {
+            poolManager.obtainProcess();
+            fail("Expected pool to be exhausted");
+        }
+        catch (final MathAssessCasException e) {
+            /* Expected */
+        }
+        assertEquals(1, poolManager.getMetrics().getBorrowedCount());
+    }
+
+    //---------------------------------------------------------
+
+    private void startPool() {
+        poolManager = new QtiMaximaProcessPoolManager();
+        poolManager.setProcessLauncher(processLauncher);
+        poolManager.setStylesheetCache(new SimpleStylesheetCache());
+        poolManager.setPoolSettings(poolSettings);
+        poolManager.init();
+    }
+
+    private void waitForIdle(final int numIdle) throws InterruptedException {
+        waitFor(new Condition() {
+            @Override
+            public boolean isTrue() {
+                return poolManager.getMetrics().getNumIdle()==numIdle;
+            }
+        });
+    }
+
+    private static void waitFor(final Condition condition) throws InterruptedException {
+        final long giveUpTime = System.currentTimeMillis() + WAIT_TIMEOUT;
+        while (!condition.isTrue()) {
+            if (System.currentTimeMillis() > giveUpTime) {
+                fail("Timed out waiting for pool");
+            }
+            Thread.sleep(10L);
+        }
+    }
+
+    private static interface Condition {
+        boolean isTrue();
+    }
+
+    //---------------------------------------------------------
+
+    private static final class FakeProcessLauncher implements MaximaInteractiveProcessLauncher {
+
+        final List<FakeMaximaInteractiveProcess> launchedProcesses = new CopyOnWriteArrayList<FakeMaximaInteractiveProcess>();
+
+        @Override
+        public MaximaInteractiveProcess launchInteractiveProcess() {
+            final FakeMaximaInteractiveProcess process = new FakeMaximaInteractiveProcess();
+            launchedProcesses.add(process);
+            return process;
+        }
+    }
+
+    /**
+     * Stand-in for a Maxima process, which simply records the calls made to it.
+     */
+    private static final class FakeMaximaInteractiveProcess implements MaximaInteractiveProcess {
+
+        final List<String> calls = new CopyOnWriteArrayList<String>();
+        volatile boolean terminated;
+        volatile boolean unresponsive;
+        volatile boolean failReset;
+        volatile CountDownLatch resetLatch;
+        volatile int resetCount;
+        private int defaultCallTimeout = 10;
+
+        @Override
+        public int getDefaultCallTimeout() {
+            return defaultCallTimeout;
+        }
+
+        @Override
+        public void setDefaultCallTimeout(final int defaultCallTimeout) {
+            this.defaultCallTimeout = defaultCallTimeout;
+        }
+
+        @Override
+        public String executeCall(final String callInput) throws MaximaTimeoutException {
+            return executeCall(callInput, defaultCallTimeout);
+        }
+
+        @Override
+        public String executeCall(final String callInput, final int callTimeout) throws MaximaTimeoutException {
+            if (unresponsive) {
+                throw new MaximaTimeoutException(callTimeout);
+            }
+            calls.add(callInput);
+            return "";
+        }
+
+        @Override
+        public void executeCallDiscardOutput(final String callInput) throws MaximaTimeoutException {
+            executeCall(callInput);
+        }
+
+        @Override
+        public void executeCallDiscardOutput(final String callInput, final int callTimeout) throws MaximaTimeoutException {
+            executeCall(callInput, callTimeout);
+        }
+
+        @Override
+        public void softReset() throws MaximaTimeoutException {
+            if (resetLatch!=null) {
+                try {
+                    resetLatch.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS);
+                }
+                catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (failReset) {
+                throw new MaximaTimeoutException(defaultCallTimeout);
+            }
+            resetCount++;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return terminated;
+        }
+
+        @Override
+        public int terminate() {
+            terminated = true;
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.test.integration;
+
+import uk.ac.ed.ph.qtiworks.samples.LanguageSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleAssessment;
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleAssessment.Feature;
+import uk.ac.ed.ph.qtiworks.samples.QtiworksRegressionSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.StandardQtiSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.StompSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.UpmcSampleSet;
+import uk.ac.ed.ph.qtiworks.test.utils.TestUtils;
+
+import uk.ac.ed.ph.jqtiplus.node.AssessmentObjectType;
+import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
+import uk.ac.ed.ph.jqtiplus.node.item.response.declaration.AreaMapEntry;
+import uk.ac.ed.ph.jqtiplus.node.item.response.declaration.MapEntry;
+import uk.ac.ed.ph.jqtiplus.node.item.response.declaration.ResponseDeclaration;
+import uk.ac.ed.ph.jqtiplus.node.item.response.processing.ResponseProcessing;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentItem;
+import uk.ac.ed.ph.jqtiplus.resolution.RootNodeLookup;
+import uk.ac.ed.ph.jqtiplus.running.ItemProcessingInitializer;
+import uk.ac.ed.ph.jqtiplus.running.ItemSessionController;
+import uk.ac.ed.ph.jqtiplus.running.ItemSessionControllerSettings;
+import uk.ac.ed.ph.jqtiplus.running.StandardResponseProcessor;
+import uk.ac.ed.ph.jqtiplus.state.ItemProcessingMap;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.validation.ItemValidationResult;
+import uk.ac.ed.ph.jqtiplus.value.Cardinality;
+import uk.ac.ed.ph.jqtiplus.value.MultipleValue;
+import uk.ac.ed.ph.jqtiplus.value.NullValue;
+import uk.ac.ed.ph.jqtiplus.value.OrderedValue;
+import uk.ac.ed.ph.jqtiplus.value.PointValue;
+import uk.ac.ed.ph.jqtiplus.value.SingleValue;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Integration test that checks that the {@link StandardResponseProcessor} recognised for
+ * each sample item gives the same outcome values as interpreting its response processing,
+ * over a set of responses built from its correct response and mappings.
+ *
+ * @author David McKain
+ */
+@RunWith(Parameterized.class)
+public class StandardResponseProcessingSampleTests extends AbstractIntegrationTest {
+
+    @Parameters
+    public static Collection<Object[]> data() {
+        return TestUtils.makeTestParameters(
+                StandardQtiSampleSet.instance().havingType(AssessmentObjectType.ASSESSMENT_ITEM).withoutFeatures(Feature.NOT_SCHEMA_VALID),
+                UpmcSampleSet.instance().havingType(AssessmentObjectType.ASSESSMENT_ITEM).withoutFeatures(Feature.NOT_SCHEMA_VALID),
+                StompSampleSet.instance().havingType(AssessmentObjectType.ASSESSMENT_ITEM).withoutFeatures(Feature.NOT_SCHEMA_VALID),
+                LanguageSampleSet.instance().havingType(AssessmentObjectType.ASSESSMENT_ITEM).withoutFeatures(Feature.NOT_SCHEMA_VALID),
+                QtiworksRegressionSampleSet.instance().havingType(AssessmentObjectType.ASSESSMENT_ITEM).withoutFeatures(Feature.NOT_SCHEMA_VALID)
+        );
+    }
+
+    public StandardResponseProcessingSampleTests(final QtiSampleAssessment qtiSampleAssessment) {
+        super(qtiSampleAssessment);
+    }
+
+    @Test
+    public void test() throws Exception {
+        final ItemValidationResult itemValidationResult = (ItemValidationResult) validateSampleObject();
+        final ItemProcessingMap itemProcessingMap = new ItemProcessingInitializer(itemValidationResult).initialize();
+        final StandardResponseProcessor standardResponseProcessor = itemProcessingMap.getStandardResponseProcessor();
+        if (standardResponseProcessor==null) {
+            /* Nothing to compare */
+            return;
+        }
+        final ResponseDeclaration responseDeclaration = itemProcessingMap.getValidResponseDeclarationMap()
+                .get(standardResponseProcessor.getResponseIdentifier());
+        final ResponseProcessing responseProcessing = extractResponseProcessing(itemProcessingMap.getResolvedAssessmentItem());
+
+        final ItemSessionState itemSessionState = new ItemSessionState();
+        final ItemSessionController itemSessionController = new ItemSessionController(jqtiExtensionManager,
+                new ItemSessionControllerSettings(), itemProcessingMap, itemSessionState);
+        final Date timestamp = new Date();
+        itemSessionController.initialize(timestamp);
+        itemSessionController.performTemplateProcessing(timestamp);
+        itemSessionController.enterItem(timestamp);
+        final Map<Identifier, Value> initialOutcomeValues = new HashMap<Identifier, Value>(itemSessionState.getOutcomeValues());
+
+        for (final Value responseValue : createResponseValues(itemSessionController, responseDeclaration)) {
+            /* Do response processing properly, which will use the StandardResponseProcessor */
+            itemSessionState.setResponseValue(responseDeclaration, responseValue);
+            itemSessionController.performResponseProcessing(timestamp);
+            final Map<Identifier, Value> nativeOutcomeValues = new HashMap<Identifier, Value>(itemSessionState.getOutcomeValues());
+
+            /* Then reset outcomes and evaluate the responseProcessing rules directly */
+            for (final Map.Entry<Identifier, Value> entry : initialOutcomeValues.entrySet()) {
+                itemSessionState.setOutcomeValue(entry.getKey(), entry.getValue());
+            }
+            responseProcessing.evaluate(itemSessionController);
+            final Map<Identifier, Value> interpretedOutcomeValues = new HashMap<Identifier, Value>(itemSessionState.getOutcomeValues());
+
+            Assert.assertEquals("Outcomes for response " + responseValue, interpretedOutcomeValues, nativeOutcomeValues);
+        }
+    }
+
+    private static ResponseProcessing extractResponseProcessing(final ResolvedAssessmentItem resolvedAssessmentItem) {
+        /* (This follows the choice made in ItemSessionController#performResponseProcessing()) */
+        final RootNodeLookup<ResponseProcessing> resolvedResponseProcessingTemplateLookup = resolvedAssessmentItem.getResolvedResponseProcessingTemplateLookup();
+        if (resolvedResponseProcessingTemplateLookup!=null) {
+            return resolvedResponseProcessingTemplateLookup.extractAssumingSuccessful();
+        }
+        final AssessmentItem item = resolvedAssessmentItem.getItemLookup().extractAssumingSuccessful();
+        return item.getResponseProcessing();
+    }
+
+    /**
+     * Builds responses from the correct response, each key in any mapping and a point within each
+     * area in any area mapping. For containers, these are also combined and repeated.
+     */
+    private static List<Value> createResponseValues(final ItemSessionController itemSessionController,
+            final ResponseDeclaration responseDeclaration) {
+        final List<SingleValue> singleValues = new ArrayList<SingleValue>();
+        if (responseDeclaration.getMapping()!=null) {
+            for (final MapEntry mapEntry : responseDeclaration.getMapping().getMapEntries()) {
+                singleValues.add(mapEntry.getMapKey());
+            }
+        }
+        if (responseDeclaration.getAreaMapping()!=null) {
+            for (final AreaMapEntry areaMapEntry : responseDeclaration.getAreaMapping().getAreaMapEntries()) {
+                final PointValue pointValue = createPointInside(areaMapEntry);
+                if (pointValue!=null) {
+                    singleValues.add(pointValue);
+                }
+            }
+        }
+
+        final List<Value> result = new ArrayList<Value>();
+        result.add(NullValue.INSTANCE);
+        if (itemSessionController.hasCorrectResponse(responseDeclaration)) {
+            result.add(itemSessionController.computeCorrectResponse(responseDeclaration));
+        }
+        final Cardinality cardinality = responseDeclaration.getCardinality();
+        for (final SingleValue singleValue : singleValues) {
+            final Value value = wrapValues(cardinality, singleValue);
+            if (value!=null) {
+                result.add(value);
+            }
+        }
+        if (!singleValues.isEmpty() && cardinality!=Cardinality.SINGLE) {
+            final List<SingleValue> combinedValues = new ArrayList<SingleValue>(singleValues);
+            combinedValues.add(singleValues.get(0));
+            final Value value = wrapValues(cardinality, combinedValues.toArray(new SingleValue[combinedValues.size()]));
+            if (value!=null) {
+                result.add(value);
+            }
+        }
+        return result;
+    }
+
+    private static PointValue createPointInside(final AreaMapEntry areaMapEntry) {
+        final List<Integer> coords = areaMapEntry.getCoordinates();
+        switch (areaMapEntry.getShape()) {
+            case CIRCLE:
+            case ELLIPSE:
+                return new PointValue(coords.get(0).intValue(), coords.get(1).intValue());
+
+            case RECT:
+                return new PointValue((coords.get(0).intValue() + coords.get(2).intValue()) / 2,
+                        (coords.get(1).intValue() + coords.get(3).intValue()) / 2);
+
+            default:
+                return null;
+        }
+    }
+
+    private static Value wrapValues(final Cardinality cardinality, final SingleValue... values) {
+        switch (cardinality) {
+            case SINGLE:
+                return values[0];
+
+            case MULTIPLE:
+                return MultipleValue.createMultipleValue(values);
+
+            case ORDERED:
+                return OrderedValue.createOrderedValue(values);
+
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.test.integration;
+
+import static org.junit.Assert.assertEquals;
+
+import uk.ac.ed.ph.qtiworks.samples.LanguageSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.MathAssessSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleAssessment;
+import uk.ac.ed.ph.qtiworks.samples.QtiworksRegressionSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.StandardQtiSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.StompSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.UpmcSampleSet;
+import uk.ac.ed.ph.qtiworks.test.utils.TestUtils;
+
+import uk.ac.ed.ph.jqtiplus.node.QtiNode;
+import uk.ac.ed.ph.jqtiplus.node.RootNode;
+import uk.ac.ed.ph.jqtiplus.reading.QtiModelBuildingError;
+import uk.ac.ed.ph.jqtiplus.reading.QtiObjectReader;
+import uk.ac.ed.ph.jqtiplus.reading.QtiXmlInterpretationException;
+import uk.ac.ed.ph.jqtiplus.serialization.QtiSaxDocumentFirer;
+import uk.ac.ed.ph.jqtiplus.serialization.SaxFiringOptions;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlSourceLocationInformation;
+import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.XsltSerializationOptions;
+import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.XsltStylesheetManager;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Integration test that checks that a streaming {@link QtiObjectReader} builds the same
+ * QTI Object model (including source locations and model building errors) as the
+ * DOM-based one on each sample.
+ *
+ * @author David McKain
+ */
+@RunWith(Parameterized.class)
+public class StreamingQtiObjectReaderSampleTests extends AbstractIntegrationTest {
+
+    @Parameters
+    public static Collection<Object[]> data() {
+        return TestUtils.makeTestParameters(
+                StandardQtiSampleSet.instance(),
+                MathAssessSampleSet.instance(),
+                UpmcSampleSet.instance(),
+                StompSampleSet.instance(),
+                LanguageSampleSet.instance(),
+                QtiworksRegressionSampleSet.instance()
+        );
+    }
+
+    public StreamingQtiObjectReaderSampleTests(final QtiSampleAssessment qtiSampleAssessment) {
+        super(qtiSampleAssessment);
+    }
+
+    @Test
+    public void test() throws Exception {
+        final QtiObjectReader domObjectReader = sampleXmlReader.createQtiObjectReader(sampleResourceLocator, false, false);
+        final QtiObjectReader streamingObjectReader = sampleXmlReader.createQtiObjectReader(sampleResourceLocator, false, true);
+
+        RootNode domRootNode = null;
+        List<String> domErrors = null;
+        try {
+            domRootNode = domObjectReader.lookupRootNode(sampleResourceUri).getRootNode();
+        }
+        catch (final QtiXmlInterpretationException e) {
+            domErrors = describeErrors(e);
+        }
+
+        RootNode streamingRootNode = null;
+        List<String> streamingErrors = null;
+        try {
+            streamingRootNode = streamingObjectReader.lookupRootNode(sampleResourceUri).getRootNode();
+        }
+        catch (final QtiXmlInterpretationException e) {
+            streamingErrors = describeErrors(e);
+        }
+
+        assertEquals("Model building errors differ for " + sampleResourceUri, domErrors, streamingErrors);
+        if (domRootNode!=null) {
+            assertEquals("Serialized models differ for " + sampleResourceUri,
+                    serialize(domRootNode), serialize(streamingRootNode));
+            assertEquals("Source locations differ for " + sampleResourceUri,
+                    describeSourceLocations(domRootNode), describeSourceLocations(streamingRootNode));
+        }
+    }
+
+    private String serialize(final RootNode rootNode) throws Exception {
+        final XsltSerializationOptions serializationOptions = new XsltSerializationOptions();
+        serializationOptions.setIndenting(true);
+        final TransformerHandler serializerHandler = XsltStylesheetManager.createSerializerHandler(serializationOptions);
+        final StringWriter serializedXmlWriter = new StringWriter();
+        serializerHandler.setResult(new StreamResult(serializedXmlWriter));
+
+        final QtiSaxDocumentFirer saxEventFirer = new QtiSaxDocumentFirer(jqtiExtensionManager,
+                serializerHandler, new SaxFiringOptions());
+        saxEventFirer.fireSaxDocument(rootNode);
+        return serializedXmlWriter.toString();
+    }
+
+    private static List<String> describeSourceLocations(final RootNode rootNode) {
+        final List<String> result = new ArrayList<String>();
+        describeSourceLocations(rootNode, "/" + rootNode.getQtiClassName(), result);
+        return result;
+    }
+
+    private static void describeSourceLocations(final QtiNode node, final String path, final List<String> result) {
+        result.add(path + " " + describeLocation(node.getSourceLocation()));
+        int childIndex = 0;
+        for (final QtiNode child : node) {
+            describeSourceLocations(child, path + "/" + child.getQtiClassName() + "[" + ++childIndex + "]", result);
+        }
+    }
+
+    private static List<String> describeErrors(final QtiXmlInterpretationException e) {
+        final List<String> result = new ArrayList<String>();
+        result.add(e.getInterpretationFailureReason().toString());
+        if (e.getQtiModelBuildingErrors()!=null) {
+            for (final QtiModelBuildingError error : e.getQtiModelBuildingErrors()) {
+                result.add("{" + error.getElementNamespace() + "}" + error.getElementLocalName()
+                        + " " + describeLocation(error.getElementLocation())
+                        + " " + error.getException().getMessage());
+            }
+        }
+        return result;
+    }
+
+    private static String describeLocation(final XmlSourceLocationInformation location) {
+        return location!=null ? location.getLineNumber() + ":" + location.getColumnNumber() : "-";
+    }
+}